@@ -506,7 +506,7 @@ public class ConfTree<T extends AStarNode> extends AStarTree<T> {
                 
                 for( int rc : allowedRCs ){
                     
-                    double interactionE = htf.getInteraction(iPos, rc);
+                    double interactionE = htf.getEnergy(iPos, rc);
                     
                     //see if need to go up to highers order again...
                     HigherTupleFinder<Double> htf2 = htf.getHigherInteractions(iPos, rc);
@@ -653,7 +653,7 @@ public class COMETSTree extends AStarTree<FullAStarNode> {
                     
                     if( ! pruneMat.isPruned(augTuple) ){
                     
-                        double interactionE = htf.getInteraction(iPos, rc);
+                        double interactionE = htf.getEnergy(iPos, rc);
 
                         //see if need to go up to highers order again...
                         HigherTupleFinder<Double> htf2 = htf.getHigherInteractions(iPos, rc);
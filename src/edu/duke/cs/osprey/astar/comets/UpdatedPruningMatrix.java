@@ -90,7 +90,7 @@ public class UpdatedPruningMatrix extends PruningMatrix {
     
         
     @Override
-    public Boolean getPairwise(int res1, int index1, int res2, int index2){
+    public boolean getPairwiseB(int res1, int index1, int res2, int index2){
         //working with residue-specific RC indices directly.  
         
         if(parent.getPairwise(res1, index1, res2, index2))//first check parent
@@ -115,7 +115,7 @@ public class UpdatedPruningMatrix extends PruningMatrix {
     
     
     @Override
-    public Boolean getOneBody(int res, int index){
+    public boolean getOneBodyB(int res, int index){
         
         if(parent.getOneBody(res,index))//first check parent
             return true;
@@ -3,10 +3,11 @@ package edu.duke.cs.osprey.astar.conf;
 import java.math.BigInteger;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.PriorityQueue;
 
 import edu.duke.cs.osprey.astar.AStarProgress;
 import edu.duke.cs.osprey.astar.conf.order.AStarOrder;
+import edu.duke.cs.osprey.astar.conf.queue.ConfAStarQueue;
+import edu.duke.cs.osprey.astar.conf.queue.ObjectConfAStarQueue;
 import edu.duke.cs.osprey.astar.conf.scoring.AStarScorer;
 import edu.duke.cs.osprey.confspace.ConfSearch;
 import edu.duke.cs.osprey.parallelism.Parallelism;
@@ -27,23 +28,35 @@ public class ConfAStarTree implements ConfSearch {
 	public final AStarScorer hscorer;
 	public final RCs rcs;
 	
-	private PriorityQueue<ConfAStarNode> queue;
+	private ConfAStarQueue queue;
 	private ConfAStarNode rootNode;
 	private ConfIndex confIndex;
 	private AStarProgress progress;
 	private Parallelism parallelism;
 	private TaskExecutor tasks;
 	private ObjectPool<ScoreContext> contexts;
+	private int batchSize;
+	private long[] prunedPairsMask;
 	
 	public ConfAStarTree(AStarOrder order, AStarScorer gscorer, AStarScorer hscorer, RCs rcs) {
 		this.order = order;
 		this.gscorer = gscorer;
 		this.hscorer = hscorer;
 		this.rcs = rcs;
-		this.queue = new PriorityQueue<>();
+		this.queue = new ObjectConfAStarQueue();
 		this.rootNode = null;
 		this.confIndex = new ConfIndex(this.rcs.getNumPos());
 		this.progress = null;
+		this.batchSize = 1;
+		
+		PruningMatrix pmat = this.rcs.getPruneMat();
+		if (pmat != null) {
+			int maxNumWords = 0;
+			for (int pos=0; pos<pmat.getNumPos(); pos++) {
+				maxNumWords = Math.max(maxNumWords, pmat.getNumWordsAtPos(pos));
+			}
+			this.prunedPairsMask = new long[maxNumWords];
+		}
 		
 		this.order.setScorers(this.gscorer, this.hscorer);
 		
@@ -81,6 +94,45 @@ public class ConfAStarTree implements ConfSearch {
 		contexts.allocate(parallelism.getParallelism());
 	}
 	
+	/**
+	 * Sets how many of the best frontier nodes to expand at once.
+	 * Larger batches give the parallel scorers more work between synchronizations,
+	 * at the cost of expanding some nodes that the serial search would never reach.
+	 * Conformations are still returned in order of score.
+	 */
+	public void setBatchSize(int val) {
+		
+		if (val < 1) {
+			throw new IllegalArgumentException("batch size must be at least 1, not " + val);
+		}
+		
+		batchSize = val;
+	}
+	
+	public void setQueue(ConfAStarQueue val) {
+		
+		if (rootNode != null) {
+			throw new IllegalStateException("can't change the queue after the search has started");
+		}
+		
+		queue = val;
+	}
+	
+	/**
+	 * how many nodes are waiting in the queue, including any the queue keeps off the heap
+	 */
+	public int getQueueSize() {
+		return queue.size();
+	}
+	
+	/**
+	 * release anything the queue keeps off the heap, eg spilled nodes.
+	 * the tree can't find any more confs afterwards
+	 */
+	public void closeQueue() {
+		queue.close();
+	}
+	
 	@Override
 	public BigInteger getNumConformations() {
 		
@@ -160,49 +212,79 @@ public class ConfAStarTree implements ConfSearch {
 				return node;
 			}
 			
-			// which pos to expand next?
-			int numChildren = 0;
-			confIndex.index(node);
-			int nextPos = order.getNextPos(confIndex, rcs);
-			assert (!confIndex.isDefined(nextPos));
-			assert (confIndex.isUndefined(nextPos));
+			// in batch mode, grab more of the best internal nodes so we can expand them all at once
+			// but stop at the first leaf node, since it can't be reported until everything before it is expanded
+			// (expanding extra nodes early never changes which leaf is best, so leaves still come out in order)
+			List<ConfAStarNode> nodes = new ArrayList<>(batchSize);
+			nodes.add(node);
+			while (nodes.size() < batchSize && !queue.isEmpty()) {
+				ConfAStarNode nextNode = queue.poll();
+				if (nextNode.getLevel() == rcs.getNumPos()) {
+					queue.add(nextNode);
+					break;
+				}
+				nodes.add(nextNode);
+			}
 			
 			// score child nodes with tasks (possibly in parallel)
 			List<ConfAStarNode> children = new ArrayList<>();
-			for (int nextRc : rcs.get(nextPos)) {
-				
-				if (hasPrunedPair(confIndex, nextPos, nextRc)) {
-					continue;
-				}
-				
-				ConfAStarNode child = new ConfAStarNode(node, nextPos, nextRc);
-				
-				tasks.submit(() -> {
-					
-					try (ObjectPool<ScoreContext>.Checkout checkout = contexts.autoCheckout()) {
-						ScoreContext context = checkout.get();
-						
-						// score the child node differentially against the parent node
-						context.index.index(node);
-						child.setGScore(context.gscorer.calcDifferential(context.index, rcs, nextPos, nextRc));
-						child.setHScore(context.hscorer.calcDifferential(context.index, rcs, nextPos, nextRc));
-					}
-					
-				}, (Runnable task) -> {
-					
-					// collect the possible children
-					if (child.getScore() < Double.POSITIVE_INFINITY) {
-						children.add(child);
-					}
-				});
+			int[] numChildren = new int[nodes.size()];
+			for (int i=0; i<nodes.size(); i++) {
+				expand(nodes.get(i), children, numChildren, i);
 			}
 			tasks.waitForFinish();
-			numChildren += children.size();
 			queue.addAll(children);
 			
-            if (progress != null) {
-            	progress.reportInternalNode(node.getLevel(), node.getGScore(), node.getHScore(), queue.size(), numChildren);
-            }
+			if (progress != null) {
+				for (int i=0; i<nodes.size(); i++) {
+					ConfAStarNode expandedNode = nodes.get(i);
+					progress.reportInternalNode(expandedNode.getLevel(), expandedNode.getGScore(), expandedNode.getHScore(), queue.size(), numChildren[i]);
+				}
+			}
+		}
+	}
+	
+	private void expand(ConfAStarNode node, List<ConfAStarNode> children, int[] numChildren, int nodeIndex) {
+		
+		// which pos to expand next?
+		confIndex.index(node);
+		int nextPos = order.getNextPos(confIndex, rcs);
+		assert (!confIndex.isDefined(nextPos));
+		assert (confIndex.isUndefined(nextPos));
+		
+		// find all the pruned pairs between the next pos and the node's assignments at once
+		PruningMatrix pmat = rcs.getPruneMat();
+		if (pmat != null) {
+			pmat.getPrunedPairsMask(nextPos, confIndex.getDefinedPos(), confIndex.getDefinedRCs(), confIndex.getNumDefined(), prunedPairsMask);
+		}
+		
+		for (int nextRc : rcs.get(nextPos)) {
+			
+			if (pmat != null && PruningMatrix.isBitSet(prunedPairsMask, nextRc)) {
+				continue;
+			}
+			
+			ConfAStarNode child = new ConfAStarNode(node, nextPos, nextRc);
+			
+			tasks.submit(() -> {
+				
+				try (ObjectPool<ScoreContext>.Checkout checkout = contexts.autoCheckout()) {
+					ScoreContext context = checkout.get();
+					
+					// score the child node differentially against the parent node
+					context.index.index(node);
+					child.setGScore(context.gscorer.calcDifferential(context.index, rcs, nextPos, nextRc));
+					child.setHScore(context.hscorer.calcDifferential(context.index, rcs, nextPos, nextRc));
+				}
+				
+			}, (Runnable task) -> {
+				
+				// collect the possible children
+				if (child.getScore() < Double.POSITIVE_INFINITY) {
+					children.add(child);
+					numChildren[nodeIndex]++;
+				}
+			});
 		}
 	}
 	
@@ -240,23 +322,4 @@ public class ConfAStarTree implements ConfSearch {
 		}
 		return confs;
 	}
-	
-	private boolean hasPrunedPair(ConfIndex confIndex, int nextPos, int nextRc) {
-		
-		// do we even have pruned pairs?
-		PruningMatrix pmat = rcs.getPruneMat();
-		if (pmat == null) {
-			return false;
-		}
-		
-		for (int i=0; i<confIndex.getNumDefined(); i++) {
-			int pos = confIndex.getDefinedPos()[i];
-			int rc = confIndex.getDefinedRCs()[i];
-			assert (pos != nextPos || rc != nextRc);
-			if (pmat.getPairwise(pos, rc, nextPos, nextRc)) {
-				return true;
-			}
-		}
-		return false;
-	}
 }
@@ -0,0 +1,35 @@
+package edu.duke.cs.osprey.astar.conf.queue;
+
+import java.util.Collection;
+
+import edu.duke.cs.osprey.astar.conf.ConfAStarNode;
+
+/**
+ * The frontier of a ConfAStarTree, ie, the nodes that have been scored but not yet expanded.
+ * 
+ * Implementations must always poll the node with the lowest score next.
+ * Ties may be broken in any order.
+ */
+public interface ConfAStarQueue {
+	
+	int size();
+	void add(ConfAStarNode node);
+	ConfAStarNode poll();
+	
+	default boolean isEmpty() {
+		return size() == 0;
+	}
+	
+	default void addAll(Collection<ConfAStarNode> nodes) {
+		for (ConfAStarNode node : nodes) {
+			add(node);
+		}
+	}
+	
+	/**
+	 * release anything the queue keeps off the heap
+	 */
+	default void close() {
+		// nothing to do by default
+	}
+}
@@ -0,0 +1,42 @@
+package edu.duke.cs.osprey.astar.conf.queue;
+
+import java.util.Collection;
+import java.util.PriorityQueue;
+
+import edu.duke.cs.osprey.astar.conf.ConfAStarNode;
+
+/**
+ * Keeps every frontier node on the heap as a ConfAStarNode object.
+ * 
+ * Fastest option for small to medium searches, but every node costs a few objects,
+ * so very large searches can spend most of their time in the garbage collector.
+ * See PackedConfAStarQueue for a more compact alternative.
+ */
+public class ObjectConfAStarQueue implements ConfAStarQueue {
+	
+	private PriorityQueue<ConfAStarNode> queue;
+	
+	public ObjectConfAStarQueue() {
+		queue = new PriorityQueue<>();
+	}
+
+	@Override
+	public int size() {
+		return queue.size();
+	}
+
+	@Override
+	public void add(ConfAStarNode node) {
+		queue.add(node);
+	}
+	
+	@Override
+	public void addAll(Collection<ConfAStarNode> nodes) {
+		queue.addAll(nodes);
+	}
+
+	@Override
+	public ConfAStarNode poll() {
+		return queue.poll();
+	}
+}
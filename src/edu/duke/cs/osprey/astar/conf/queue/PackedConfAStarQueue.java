@@ -0,0 +1,377 @@
+package edu.duke.cs.osprey.astar.conf.queue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.WeakHashMap;
+
+import edu.duke.cs.osprey.astar.conf.ConfAStarNode;
+
+/**
+ * Stores frontier nodes as packed primitive records instead of objects.
+ *
+ * Each node is a (gscore, hscore, parent index, pos, rc) record in chunked primitive arrays,
+ * and the priority queue is a binary min-heap of (score, node index) pairs in two more arrays.
+ * So a node costs about 44 bytes and no objects, instead of the ~70 bytes and two objects
+ * of a ConfAStarNode and its link. Queue operations don't allocate, except for polled nodes,
+ * which get their link chain rebuilt so the rest of A* can use them as usual.
+ *
+ * Records are reference counted by the heap and by their child records, so polled nodes
+ * and ancestors with no children left in the queue go on a free list to be reused.
+ * Siblings share their parent's record, so each ancestor is only stored once while it has
+ * children in the queue, just like the link chains of ConfAStarNode share their ancestors.
+ */
+public class PackedConfAStarQueue implements ConfAStarQueue {
+
+	private static final int ChunkBits = 16;
+	private static final int ChunkSize = 1 << ChunkBits;
+	private static final int ChunkMask = ChunkSize - 1;
+
+	private static final int NoParent = -1;
+	private static final long NoRecord = -1L;
+
+	/**
+	 * a link that remembers where it lives in the record store,
+	 * so children of polled nodes can find their parent record
+	 */
+	private static class StoredLink extends ConfAStarNode.Link {
+
+		// the record index and its generation, so we can tell if the record was freed since
+		public long record;
+
+		public StoredLink(ConfAStarNode.Link parent, int pos, int rc, long record) {
+			super(parent, pos, rc);
+			this.record = record;
+		}
+	}
+
+	// node records, in struct-of-arrays layout
+	// chunked so growing the store never copies existing records
+	// free records are chained through the parent index of their links
+	private List<double[]> gscores;
+	private List<double[]> hscores;
+	private List<long[]> links;
+	private List<int[]> refCounts;
+	private List<int[]> gens;
+	private int numAllocated;
+	private int numStored;
+	private int freeHead;
+
+	// records of ancestors that were never queued (eg, the chain of single-RC positions made with the root node)
+	// weak keys so the records are forgotten along with the links
+	private WeakHashMap<ConfAStarNode.Link,Long> unqueuedAncestors;
+
+	// binary min-heap of node indices, ordered by score
+	private int[] heapNodes;
+	private double[] heapScores;
+	private int heapSize;
+
+	private int[] chainBuf;
+
+	public PackedConfAStarQueue() {
+		this(1024);
+	}
+
+	public PackedConfAStarQueue(int initialCapacity) {
+		gscores = new ArrayList<>();
+		hscores = new ArrayList<>();
+		links = new ArrayList<>();
+		refCounts = new ArrayList<>();
+		gens = new ArrayList<>();
+		numAllocated = 0;
+		numStored = 0;
+		freeHead = NoParent;
+		unqueuedAncestors = new WeakHashMap<>();
+		heapNodes = new int[Math.max(initialCapacity, 1)];
+		heapScores = new double[heapNodes.length];
+		heapSize = 0;
+		chainBuf = new int[16];
+	}
+
+	@Override
+	public int size() {
+		return heapSize;
+	}
+
+	public int getNumStoredNodes() {
+		return numStored;
+	}
+
+	@Override
+	public void add(ConfAStarNode node) {
+
+		// nodes that are put back after a poll can keep their record, if it's still alive
+		ConfAStarNode.Link link = node.getLink();
+		int index = findRecord(link);
+		if (index == NoParent) {
+			index = store(link);
+			if (link instanceof StoredLink) {
+				((StoredLink)link).record = makeRecord(index);
+			}
+		}
+
+		setGScore(index, node.getGScore());
+		setHScore(index, node.getHScore());
+		setRefCount(index, getRefCount(index) + 1);
+		push(index, node.getScore());
+	}
+
+	@Override
+	public ConfAStarNode poll() {
+
+		if (heapSize == 0) {
+			return null;
+		}
+
+		int index = pop();
+
+		// rebuild the link chain, root first
+		int level = 0;
+		int i = index;
+		while (i != NoParent) {
+			if (level == chainBuf.length) {
+				chainBuf = Arrays.copyOf(chainBuf, level*2);
+			}
+			chainBuf[level++] = i;
+			i = getParentIndex(i);
+		}
+		ConfAStarNode.Link link = new ConfAStarNode.Link();
+		for (int j=level - 1; j>=0; j--) {
+			i = chainBuf[j];
+			if (getPos(i) < 0) {
+
+				// the root node itself was stored
+				link = new StoredLink(null, -1, -1, makeRecord(i));
+				level--;
+
+			} else {
+				link = new StoredLink(link, getPos(i), getRC(i), makeRecord(i));
+			}
+		}
+
+		ConfAStarNode node = new ConfAStarNode(level, link);
+		node.setGScore(getGScore(index));
+		node.setHScore(getHScore(index));
+
+		// the heap doesn't need the record anymore
+		// if the node gets children, its record is stored again when the first one is added
+		release(index);
+
+		return node;
+	}
+
+	private int store(ConfAStarNode.Link link) {
+
+		if (link.isRoot()) {
+			return allocate(NoParent, -1, -1);
+		}
+
+		return allocate(storeParent(link.getParent()), link.getPos(), link.getRC());
+	}
+
+	private int storeParent(ConfAStarNode.Link parent) {
+
+		// children of the root don't need a root record
+		if (parent.isRoot()) {
+			return NoParent;
+		}
+
+		// siblings share the parent record, so it only gets stored for the first one
+		int index = findRecord(parent);
+		if (index == NoParent) {
+			index = store(parent);
+			long record = makeRecord(index);
+			if (parent instanceof StoredLink) {
+				((StoredLink)parent).record = record;
+			} else {
+				unqueuedAncestors.put(parent, record);
+			}
+		}
+		return index;
+	}
+
+	private int findRecord(ConfAStarNode.Link link) {
+
+		long record = NoRecord;
+		if (link instanceof StoredLink) {
+			record = ((StoredLink)link).record;
+		} else if (!unqueuedAncestors.isEmpty()) {
+			Long unqueuedRecord = unqueuedAncestors.get(link);
+			if (unqueuedRecord != null) {
+				record = unqueuedRecord;
+			}
+		}
+
+		// records that were freed (and maybe reused) since don't count
+		if (record == NoRecord) {
+			return NoParent;
+		}
+		int index = (int)record;
+		if (getGen(index) != (int)(record >>> 32)) {
+			return NoParent;
+		}
+		return index;
+	}
+
+	private long makeRecord(int index) {
+		return ((long)getGen(index) << 32) | (index & 0xffffffffL);
+	}
+
+	private int allocate(int parentIndex, int pos, int rc) {
+
+		int index;
+		if (freeHead != NoParent) {
+
+			// reuse a free record
+			index = freeHead;
+			freeHead = getParentIndex(index);
+
+		} else {
+
+			if (numAllocated == Integer.MAX_VALUE) {
+				throw new OutOfMemoryError("too many nodes for packed A* queue");
+			}
+
+			index = numAllocated++;
+			if ((index & ChunkMask) == 0) {
+				gscores.add(new double[ChunkSize]);
+				hscores.add(new double[ChunkSize]);
+				links.add(new long[ChunkSize]);
+				refCounts.add(new int[ChunkSize]);
+				gens.add(new int[ChunkSize]);
+			}
+		}
+
+		setLink(index, parentIndex, pos, rc);
+		setRefCount(index, 0);
+		if (parentIndex != NoParent) {
+			setRefCount(parentIndex, getRefCount(parentIndex) + 1);
+		}
+		numStored++;
+		return index;
+	}
+
+	private void release(int index) {
+
+		// free the record if nothing refers to it anymore, then release its parent too
+		while (index != NoParent) {
+
+			int refCount = getRefCount(index) - 1;
+			setRefCount(index, refCount);
+			if (refCount > 0) {
+				break;
+			}
+
+			int parentIndex = getParentIndex(index);
+
+			// bump the generation so stale links know the record is gone
+			gens.get(index >>> ChunkBits)[index & ChunkMask] = (getGen(index) + 1) & Integer.MAX_VALUE;
+			setLink(index, freeHead, -1, -1);
+			freeHead = index;
+			numStored--;
+
+			index = parentIndex;
+		}
+	}
+
+	private void setLink(int index, int parentIndex, int pos, int rc) {
+		links.get(index >>> ChunkBits)[index & ChunkMask] = ((long)parentIndex << 32)
+			| ((pos & 0xffffL) << 16)
+			| (rc & 0xffffL);
+	}
+
+	private int getParentIndex(int index) {
+		return (int)(links.get(index >>> ChunkBits)[index & ChunkMask] >> 32);
+	}
+
+	private int getPos(int index) {
+		return (short)(links.get(index >>> ChunkBits)[index & ChunkMask] >>> 16);
+	}
+
+	private int getRC(int index) {
+		return (short)links.get(index >>> ChunkBits)[index & ChunkMask];
+	}
+
+	private int getRefCount(int index) {
+		return refCounts.get(index >>> ChunkBits)[index & ChunkMask];
+	}
+
+	private void setRefCount(int index, int val) {
+		refCounts.get(index >>> ChunkBits)[index & ChunkMask] = val;
+	}
+
+	private int getGen(int index) {
+		return gens.get(index >>> ChunkBits)[index & ChunkMask];
+	}
+
+	private double getGScore(int index) {
+		return gscores.get(index >>> ChunkBits)[index & ChunkMask];
+	}
+
+	private void setGScore(int index, double val) {
+		gscores.get(index >>> ChunkBits)[index & ChunkMask] = val;
+	}
+
+	private double getHScore(int index) {
+		return hscores.get(index >>> ChunkBits)[index & ChunkMask];
+	}
+
+	private void setHScore(int index, double val) {
+		hscores.get(index >>> ChunkBits)[index & ChunkMask] = val;
+	}
+
+	private void push(int index, double score) {
+
+		if (heapSize == heapNodes.length) {
+			int newSize = (int)Math.min((long)heapSize*2, Integer.MAX_VALUE - 8);
+			heapNodes = Arrays.copyOf(heapNodes, newSize);
+			heapScores = Arrays.copyOf(heapScores, newSize);
+		}
+
+		// sift up
+		int i = heapSize++;
+		while (i > 0) {
+			int parent = (i - 1) >>> 1;
+			if (Double.compare(score, heapScores[parent]) >= 0) {
+				break;
+			}
+			heapNodes[i] = heapNodes[parent];
+			heapScores[i] = heapScores[parent];
+			i = parent;
+		}
+		heapNodes[i] = index;
+		heapScores[i] = score;
+	}
+
+	private int pop() {
+
+		int top = heapNodes[0];
+
+		// move the last entry to the top and sift it down
+		heapSize--;
+		int index = heapNodes[heapSize];
+		double score = heapScores[heapSize];
+		int i = 0;
+		while (true) {
+			int child = i*2 + 1;
+			if (child >= heapSize) {
+				break;
+			}
+			if (child + 1 < heapSize && Double.compare(heapScores[child + 1], heapScores[child]) < 0) {
+				child++;
+			}
+			if (Double.compare(heapScores[child], score) >= 0) {
+				break;
+			}
+			heapNodes[i] = heapNodes[child];
+			heapScores[i] = heapScores[child];
+			i = child;
+		}
+		if (heapSize > 0) {
+			heapNodes[i] = index;
+			heapScores[i] = score;
+		}
+
+		return top;
+	}
+}
@@ -0,0 +1,458 @@
+package edu.duke.cs.osprey.astar.conf.queue;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+import edu.duke.cs.osprey.astar.conf.ConfAStarNode;
+
+/**
+ * A frontier with a bounded number of nodes in memory.
+ *
+ * When the in-memory queue grows past its budget, the worst-scoring half of it
+ * is sorted and written to a run file on disk. Polls merge the in-memory queue
+ * with the heads of all the runs, so nodes always come out in score order,
+ * and spilled nodes are only read back once they're the best nodes left.
+ *
+ * Spilled nodes are written with their full assignments, so their ancestors
+ * don't have to stay in memory.
+ *
+ * When there are too many runs, only the smallest ones get merged together, so
+ * big runs don't get rewritten every time we merge.
+ *
+ * Each queue writes its runs to its own spill dir, which close() deletes.
+ * Spill dirs of queues that are never closed get deleted when the JVM exits.
+ */
+public class SpillingConfAStarQueue implements ConfAStarQueue {
+
+	// if we can't measure the size of a queued node, assume this
+	public static final int FallbackBytesPerNode = 72;
+
+	public static final int DefaultMaxNumRuns = 32;
+
+	public static final int MaxBufferSize = 1024*1024;
+	public static final int MinBufferSize = 4*1024;
+
+	private static int bytesPerNode = 0;
+
+	// spill dirs that haven't been closed yet, so the exit hook can delete them
+	private static final Set<File> openSpillDirs = new HashSet<>();
+	private static boolean isExitHookRegistered = false;
+
+	private static class Run implements Comparable<Run> {
+
+		public final File file;
+
+		private DataInputStream in;
+		private long numRemaining;
+		private ConfAStarNode head;
+
+		public Run(File file, long numNodes, int bufferSize) {
+			this.file = file;
+			this.numRemaining = numNodes;
+			try {
+				in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), bufferSize));
+			} catch (IOException ex) {
+				throw new RuntimeException("can't open A* run file: " + file, ex);
+			}
+			advance();
+		}
+
+		public ConfAStarNode peek() {
+			return head;
+		}
+
+		public long size() {
+			return numRemaining + (head == null ? 0 : 1);
+		}
+
+		public ConfAStarNode poll() {
+			ConfAStarNode node = head;
+			advance();
+			return node;
+		}
+
+		private void advance() {
+			if (numRemaining <= 0) {
+				head = null;
+				close();
+				return;
+			}
+			head = readNode(in, file);
+			numRemaining--;
+		}
+
+		public void close() {
+			try {
+				in.close();
+			} catch (IOException ex) {
+				// don't care, we're done with the file anyway
+			}
+			file.delete();
+		}
+
+		@Override
+		public int compareTo(Run other) {
+			return head.compareTo(other.head);
+		}
+	}
+
+	private final int maxNodesInMemory;
+	private final int maxNumRuns;
+	private final int bufferSize;
+	private final File dir;
+
+	private File spillDir;
+	private PriorityQueue<ConfAStarNode> memory;
+	private PriorityQueue<Run> runs;
+	private long numOnDisk;
+	private int runCounter;
+	private long numNodesWritten;
+
+	/**
+	 * @param heapBudgetBytes roughly how much heap the queue can use, including its file buffers
+	 * @param dir where to write run files, or null for the system temp dir
+	 */
+	public static SpillingConfAStarQueue makeWithBudget(long heapBudgetBytes, File dir) {
+
+		// while merging, every run has an input buffer, and there's one more for the output
+		// give the buffers at most a quarter of the budget
+		int numBuffers = DefaultMaxNumRuns + 2;
+		int bufferSize = (int)Math.max(MinBufferSize, Math.min(MaxBufferSize, heapBudgetBytes/4/numBuffers));
+
+		long nodeBytes = heapBudgetBytes - (long)bufferSize*numBuffers;
+		long maxNodesInMemory = nodeBytes/getBytesPerNode();
+		if (maxNodesInMemory < 2) {
+			throw new IllegalArgumentException("A* queue memory budget of " + heapBudgetBytes + " bytes is too small");
+		}
+		return new SpillingConfAStarQueue((int)Math.min(maxNodesInMemory, Integer.MAX_VALUE), DefaultMaxNumRuns, bufferSize, dir);
+	}
+
+	/**
+	 * Heap used by one queued node, measured on this JVM.
+	 * That's the node, its link, its slot in the queue, and its slot in the sorted copy we make when spilling.
+	 */
+	public static synchronized int getBytesPerNode() {
+		if (bytesPerNode == 0) {
+			bytesPerNode = measureBytesPerNode();
+		}
+		return bytesPerNode;
+	}
+
+	private static int measureBytesPerNode() {
+
+		ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+		if (!(threadBean instanceof com.sun.management.ThreadMXBean)) {
+			return FallbackBytesPerNode;
+		}
+		com.sun.management.ThreadMXBean allocBean = (com.sun.management.ThreadMXBean)threadBean;
+		if (!allocBean.isThreadAllocatedMemorySupported() || !allocBean.isThreadAllocatedMemoryEnabled()) {
+			return FallbackBytesPerNode;
+		}
+
+		// count the bytes this thread allocates to make a bunch of nodes
+		final int numNodes = 10000;
+		long threadId = Thread.currentThread().getId();
+		long startBytes = allocBean.getThreadAllocatedBytes(threadId);
+		ConfAStarNode.Link root = new ConfAStarNode.Link();
+		ConfAStarNode[] queueSlots = new ConfAStarNode[numNodes];
+		ConfAStarNode[] sortedSlots = new ConfAStarNode[numNodes];
+		for (int i=0; i<numNodes; i++) {
+			queueSlots[i] = new ConfAStarNode(1, new ConfAStarNode.Link(root, 0, i));
+			sortedSlots[i] = queueSlots[i];
+		}
+		long numBytes = allocBean.getThreadAllocatedBytes(threadId) - startBytes;
+
+		if (numBytes <= 0 || sortedSlots[numNodes - 1] == null) {
+			return FallbackBytesPerNode;
+		}
+		return (int)((numBytes + numNodes - 1)/numNodes);
+	}
+
+	public SpillingConfAStarQueue(int maxNodesInMemory, int maxNumRuns, File dir) {
+		this(maxNodesInMemory, maxNumRuns, MaxBufferSize, dir);
+	}
+
+	public SpillingConfAStarQueue(int maxNodesInMemory, int maxNumRuns, int bufferSize, File dir) {
+
+		if (maxNodesInMemory < 2) {
+			throw new IllegalArgumentException("need room for at least 2 nodes in memory, not " + maxNodesInMemory);
+		}
+		if (maxNumRuns < 2) {
+			throw new IllegalArgumentException("need at least 2 runs, not " + maxNumRuns);
+		}
+		if (bufferSize < 1) {
+			throw new IllegalArgumentException("buffer size must be positive, not " + bufferSize);
+		}
+
+		this.maxNodesInMemory = maxNodesInMemory;
+		this.maxNumRuns = maxNumRuns;
+		this.bufferSize = bufferSize;
+		this.dir = dir;
+
+		memory = new PriorityQueue<>();
+		runs = new PriorityQueue<>();
+		numOnDisk = 0;
+		runCounter = 0;
+		numNodesWritten = 0;
+	}
+
+	/**
+	 * where the run files go, or null if the queue hasn't spilled yet
+	 */
+	public File getSpillDir() {
+		return spillDir;
+	}
+
+	public int getMaxNodesInMemory() {
+		return maxNodesInMemory;
+	}
+
+	public int getBufferSize() {
+		return bufferSize;
+	}
+
+	public int getNumNodesInMemory() {
+		return memory.size();
+	}
+
+	public long getNumNodesOnDisk() {
+		return numOnDisk;
+	}
+
+	public int getNumRuns() {
+		return runs.size();
+	}
+
+	public long getNumNodesWritten() {
+		return numNodesWritten;
+	}
+
+	@Override
+	public int size() {
+		return (int)Math.min(memory.size() + numOnDisk, Integer.MAX_VALUE);
+	}
+
+	@Override
+	public void add(ConfAStarNode node) {
+		memory.add(node);
+		if (memory.size() > maxNodesInMemory) {
+			spill();
+		}
+	}
+
+	@Override
+	public ConfAStarNode poll() {
+
+		// is the best node in memory or on disk?
+		Run run = runs.peek();
+		if (run != null && (memory.isEmpty() || run.peek().compareTo(memory.peek()) < 0)) {
+
+			runs.poll();
+			ConfAStarNode node = run.poll();
+			numOnDisk--;
+			if (run.peek() != null) {
+				runs.add(run);
+			}
+			return node;
+		}
+
+		return memory.poll();
+	}
+
+	private void spill() {
+
+		// sort the in-memory nodes
+		ConfAStarNode[] nodes = memory.toArray(new ConfAStarNode[memory.size()]);
+		Arrays.sort(nodes);
+
+		// keep the best half in memory (a sorted array is already a heap, so re-adding is cheap)
+		int numKeep = nodes.length/2;
+		memory.clear();
+		for (int i=0; i<numKeep; i++) {
+			memory.add(nodes[i]);
+		}
+
+		// and write the rest to a new run
+		File file = makeRunFile();
+		try (DataOutputStream out = openRunFile(file)) {
+			for (int i=numKeep; i<nodes.length; i++) {
+				writeNode(out, nodes[i]);
+			}
+		} catch (IOException ex) {
+			throw new RuntimeException("can't write A* run file: " + file, ex);
+		}
+		int numSpilled = nodes.length - numKeep;
+		runs.add(new Run(file, numSpilled, bufferSize));
+		numOnDisk += numSpilled;
+
+		// too many open runs? merge some of them
+		if (runs.size() > maxNumRuns) {
+			mergeRuns();
+		}
+	}
+
+	private void mergeRuns() {
+
+		// merge the smallest runs, and keep adding the next smallest run while it's no bigger
+		// than everything we've picked so far, so most nodes at least double their run size when rewritten
+		Run[] runsBySize = runs.toArray(new Run[runs.size()]);
+		Arrays.sort(runsBySize, (a, b) -> Long.compare(a.size(), b.size()));
+		PriorityQueue<Run> merging = new PriorityQueue<>();
+		long mergedSize = 0;
+		for (Run run : runsBySize) {
+			if (merging.size() >= 2 && run.size() > mergedSize) {
+				break;
+			}
+			runs.remove(run);
+			merging.add(run);
+			mergedSize += run.size();
+		}
+
+		// and do a k-way merge into a new run
+		File file = makeRunFile();
+		long numNodes = 0;
+		try (DataOutputStream out = openRunFile(file)) {
+			while (!merging.isEmpty()) {
+				Run run = merging.poll();
+				writeNode(out, run.poll());
+				numNodes++;
+				if (run.peek() != null) {
+					merging.add(run);
+				}
+			}
+		} catch (IOException ex) {
+			throw new RuntimeException("can't write A* run file: " + file, ex);
+		}
+		runs.add(new Run(file, numNodes, bufferSize));
+	}
+
+	/**
+	 * Deletes all the spilled nodes and the spill dir, and drops the nodes in memory.
+	 * The queue is empty afterwards.
+	 */
+	@Override
+	public void close() {
+		for (Run run : runs) {
+			run.close();
+		}
+		runs.clear();
+		memory.clear();
+		numOnDisk = 0;
+
+		if (spillDir != null) {
+			synchronized (SpillingConfAStarQueue.class) {
+				openSpillDirs.remove(spillDir);
+			}
+			deleteSpillDir(spillDir);
+			spillDir = null;
+		}
+	}
+
+	private File makeRunFile() {
+		try {
+			if (spillDir == null) {
+				spillDir = makeSpillDir(dir);
+			}
+			return File.createTempFile(String.format("astar.%d.", runCounter++), ".run", spillDir);
+		} catch (IOException ex) {
+			throw new RuntimeException("can't create A* run file in " + (dir == null ? "temp dir" : dir), ex);
+		}
+	}
+
+	private static synchronized File makeSpillDir(File dir)
+	throws IOException {
+
+		File spillDir = (dir == null ? Files.createTempDirectory("astar.") : Files.createTempDirectory(dir.toPath(), "astar.")).toFile();
+
+		// File.deleteOnExit() can't delete dirs that still have files in them, so use one hook for all the queues
+		if (!isExitHookRegistered) {
+			Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+				synchronized (SpillingConfAStarQueue.class) {
+					for (File openDir : openSpillDirs) {
+						deleteSpillDir(openDir);
+					}
+				}
+			}));
+			isExitHookRegistered = true;
+		}
+
+		openSpillDirs.add(spillDir);
+		return spillDir;
+	}
+
+	private static void deleteSpillDir(File spillDir) {
+		File[] files = spillDir.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				file.delete();
+			}
+		}
+		spillDir.delete();
+	}
+
+	private DataOutputStream openRunFile(File file)
+	throws IOException {
+		return new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), bufferSize));
+	}
+
+	private void writeNode(DataOutputStream out, ConfAStarNode node)
+	throws IOException {
+		numNodesWritten++;
+		out.writeDouble(node.getGScore());
+		out.writeDouble(node.getHScore());
+		out.writeShort(node.getLevel());
+
+		// write the assignments leaf first
+		ConfAStarNode.Link link = node.getLink();
+		while (!link.isRoot()) {
+			out.writeShort(link.getPos());
+			out.writeShort(link.getRC());
+			link = link.getParent();
+		}
+	}
+
+	private static ConfAStarNode readNode(DataInputStream in, File file) {
+		try {
+
+			double gscore = in.readDouble();
+			double hscore = in.readDouble();
+			int level = in.readShort();
+
+			// read the assignments, then rebuild the link chain root first
+			int[] pos = new int[level];
+			int[] rc = new int[level];
+			for (int i=0; i<level; i++) {
+				pos[i] = in.readShort();
+				rc[i] = in.readShort();
+			}
+			ConfAStarNode.Link link = new ConfAStarNode.Link();
+			for (int i=level - 1; i>=0; i--) {
+				link = new ConfAStarNode.Link(link, pos[i], rc[i]);
+			}
+
+			ConfAStarNode node = new ConfAStarNode(level, link);
+			node.setGScore(gscore);
+			node.setHScore(hscore);
+			return node;
+
+		} catch (EOFException ex) {
+			throw new RuntimeException("A* run file ended early: " + file, ex);
+		} catch (IOException ex) {
+			throw new RuntimeException("can't read A* run file: " + file, ex);
+		}
+	}
+}
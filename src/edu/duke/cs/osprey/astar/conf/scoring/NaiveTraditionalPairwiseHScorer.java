@@ -30,13 +30,13 @@ public class NaiveTraditionalPairwiseHScorer implements AStarScorer {
 			double pos1Score = Double.POSITIVE_INFINITY;
 			for (int rc1 : rcs.get(pos1)) {
 				
-				double rcContrib = emat.getOneBody(pos1, rc1);
+				double rcContrib = emat.getOneBodyD(pos1, rc1);
 
 				// interactions with defined residues
 				for (int j=0; j<index.getNumDefined(); j++) {
 					int pos2 = index.getDefinedPos()[j];
 					int rc2 = index.getDefinedRCs()[j];
-					rcContrib += emat.getPairwise(pos1, rc1, pos2, rc2);
+					rcContrib += emat.getPairwiseD(pos1, rc1, pos2, rc2);
 				}
 
 				// interactions with undefined residues
@@ -49,7 +49,7 @@ public class NaiveTraditionalPairwiseHScorer implements AStarScorer {
 					// min over possible assignments to pos2
 					double minEnergy = Double.POSITIVE_INFINITY;
 					for (int rc2 : rcs.get(pos2)) {
-						double pairwiseEnergy = emat.getPairwise(pos1, rc1, pos2, rc2);
+						double pairwiseEnergy = emat.getPairwiseD(pos1, rc1, pos2, rc2);
 						minEnergy = Math.min(minEnergy, pairwiseEnergy);
 					}
 
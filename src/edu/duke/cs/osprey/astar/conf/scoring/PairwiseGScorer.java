@@ -28,7 +28,7 @@ public class PairwiseGScorer implements AStarScorer {
 			int pos1 = confIndex.getDefinedPos()[i];
 			int rc1 = confIndex.getDefinedRCs()[i];
 			
-			gscore += emat.getOneBody(pos1, rc1);
+			gscore += emat.getOneBodyD(pos1, rc1);
 		}
 		
 		// pairwise energies
@@ -40,7 +40,7 @@ public class PairwiseGScorer implements AStarScorer {
 				int pos2 = confIndex.getDefinedPos()[j];
 				int rc2 = confIndex.getDefinedRCs()[j];
 				
-				gscore += emat.getPairwise(pos1, rc1, pos2, rc2);
+				gscore += emat.getPairwiseD(pos1, rc1, pos2, rc2);
 			}
 		}
 		
@@ -54,13 +54,13 @@ public class PairwiseGScorer implements AStarScorer {
     	double gscore = confIndex.getNode().getGScore();
     	
     	// add the new one-body energy
-    	gscore += emat.getOneBody(nextPos, nextRc);
+    	gscore += emat.getOneBodyD(nextPos, nextRc);
     	
     	// add the new pairwise energies
     	for (int i=0; i<confIndex.getNumDefined(); i++) {
     		int pos = confIndex.getDefinedPos()[i];
     		int rc = confIndex.getDefinedRCs()[i];
-    		gscore += emat.getPairwise(pos, rc, nextPos, nextRc);
+    		gscore += emat.getPairwiseD(pos, rc, nextPos, nextRc);
     	}
     	
     	return gscore;
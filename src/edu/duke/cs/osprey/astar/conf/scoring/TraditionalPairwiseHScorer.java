@@ -13,6 +13,7 @@ public class TraditionalPairwiseHScorer implements AStarScorer {
 	private double[][][] undefinedEnergies; // indexed by (pos1,pos2), rc at pos1
 	private ConfAStarNode cachedNode;
 	private double[][] cachedEnergies;
+	private double[] pairwiseRow;
 	
 	public TraditionalPairwiseHScorer(EnergyMatrix emat, RCs rcs) {
 		this.emat = emat;
@@ -37,7 +38,7 @@ public class TraditionalPairwiseHScorer implements AStarScorer {
 					// compute the min over rc2
 					double minEnergy = Double.POSITIVE_INFINITY;
 					for (int rc2 : rcs.get(pos2)) {
-						minEnergy = Math.min(minEnergy, emat.getPairwise(pos1, rc1, pos2, rc2));
+						minEnergy = Math.min(minEnergy, emat.getPairwiseD(pos1, rc1, pos2, rc2));
 					}
 					
 					undefinedEnergies[pos1][i][pos2] = minEnergy;
@@ -51,6 +52,13 @@ public class TraditionalPairwiseHScorer implements AStarScorer {
 		for (int pos=0; pos<numPos; pos++) {
 			cachedEnergies[pos] = new double[rcs.get(pos).length];
 		}
+		
+		// allocate space for rows of pairwise energies
+		int maxNumRCs = 0;
+		for (int pos=0; pos<numPos; pos++) {
+			maxNumRCs = Math.max(maxNumRCs, emat.getNumConfAtPos(pos));
+		}
+		pairwiseRow = new double[maxNumRCs];
 	}
 	
 	public TraditionalPairwiseHScorer make() {
@@ -109,6 +117,9 @@ public class TraditionalPairwiseHScorer implements AStarScorer {
     		double[] cachedEnergiesAtPos = cachedEnergies[pos];
     		double[][] undefinedEnergiesAtPos = undefinedEnergies[pos];
     		
+    		// get all the pairwise energies with the next RC at once
+    		emat.getPairwiseRow(nextPos, nextRc, pos, pairwiseRow);
+    		
 			// for each rc at this pos...
 			int[] rcsAtPos = rcs.get(pos);
 			int n = rcsAtPos.length;
@@ -123,7 +134,7 @@ public class TraditionalPairwiseHScorer implements AStarScorer {
 				}
 				
 				// add defined contribution
-				rcEnergy += emat.getPairwise(pos, rc, nextPos, nextRc);
+				rcEnergy += pairwiseRow[rc];
 				
 				minRCEnergy = Math.min(minRCEnergy, rcEnergy);
 			}
@@ -147,14 +158,14 @@ public class TraditionalPairwiseHScorer implements AStarScorer {
 				int rc1 = rcs1[j];
 				
 				// start with the one-body energy
-				double energy = emat.getOneBody(pos1, rc1);
+				double energy = emat.getOneBodyD(pos1, rc1);
 				
 				// add defined energies
 				for (int k=0; k<confIndex.getNumDefined(); k++) {
 					int pos2 = confIndex.getDefinedPos()[k];
 					int rc2 = confIndex.getDefinedRCs()[k];
 					
-					energy += emat.getPairwise(pos1, rc1, pos2, rc2);
+					energy += emat.getPairwiseD(pos1, rc1, pos2, rc2);
 				}
 				
 				// add undefined energies
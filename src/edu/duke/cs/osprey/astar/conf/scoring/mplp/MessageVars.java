@@ -61,11 +61,11 @@ public class MessageVars {
 				int rc1 = rcs.get(pos1, rci1);
 				
 				// init i,i messages with single and defined-undefined energies
-				double sum = emat.getOneBody(pos1, rc1);
+				double sum = emat.getOneBodyD(pos1, rc1);
 				for (int posi2=0; posi2<confIndex.getNumDefined(); posi2++) {
 					int pos2 = confIndex.getDefinedPos()[posi2];
 					int rc2 = confIndex.getDefinedRCs()[posi2];
-					sum += emat.getPairwise(pos1, rc1, pos2, rc2);
+					sum += emat.getPairwiseD(pos1, rc1, pos2, rc2);
 				}
 				set(posi1, posi1, rci1, sum);
 				
@@ -78,7 +78,7 @@ public class MessageVars {
 						// min over the other RC
 						double minEnergy = Double.POSITIVE_INFINITY;
 						for (int rc2 : rcs.get(pos2)) {
-							minEnergy = Math.min(minEnergy, emat.getPairwise(pos1, rc1, pos2, rc2));
+							minEnergy = Math.min(minEnergy, emat.getPairwiseD(pos1, rc1, pos2, rc2));
 						}
 						set(posi2, posi1, rci1, minEnergy);
 					
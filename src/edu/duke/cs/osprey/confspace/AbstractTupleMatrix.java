@@ -240,6 +240,18 @@ public abstract class AbstractTupleMatrix<T> implements TupleMatrix<T>, Serializ
         
     }
     
+    public void freezeHigherOrderTerms() {
+    	// once the matrix is built, switch the higher-order terms to hash tables for fast lookups
+    	// they can still be edited afterwards, but that's slower
+    	if (higherTerms != null) {
+    		for (HigherTupleFinder<T> htf : higherTerms) {
+    			if (htf != null) {
+    				htf.freeze();
+    			}
+    		}
+    	}
+    }
+    
     @Override
     public HigherTupleFinder<T> getHigherOrderTerms(int res1, int conf1, int res2, int conf2) {
     	if (higherTerms != null) {
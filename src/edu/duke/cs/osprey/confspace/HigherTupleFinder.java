@@ -6,6 +6,8 @@ package edu.duke.cs.osprey.confspace;
 
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Map;
 import java.util.TreeMap;
 
 /**
@@ -20,6 +22,8 @@ import java.util.TreeMap;
  */
 public class HigherTupleFinder<T> implements Serializable {
     
+    private static final long serialVersionUID = -3180160764586292945L;
+    
     private ArrayList<Integer> interactingPos = new ArrayList<>();
     //flexible positions interacting with t in higher tuples
     
@@ -36,6 +40,18 @@ public class HigherTupleFinder<T> implements Serializable {
     T defaultInteraction;//If no interaction included explicitly, this is the default value
     //(e.g., 0 for energies, false for pruning)
     
+    //Once a matrix is done being built, the lists above can be frozen into an open-addressed hash table
+    //keyed by packed (pos,RC), so lookups don't need to scan interactingPos or walk a TreeMap
+    //(interactions and higher are null while frozen)
+    private long[] frozenKeys = null;//FrozenEmptyKey marks empty slots
+    private boolean[] frozenHasInteraction;
+    private double[] frozenEnergies;//values for Double finders (default for slots without interactions)...
+    private Object[] frozenInteractions;//...or for anything else
+    private HigherTupleFinder<T>[] frozenHigher;
+    private int frozenMask;
+    
+    private static final long FrozenEmptyKey = Long.MIN_VALUE;
+    
     public HigherTupleFinder(T defaultInteraction){
         //generally start empty
         this.defaultInteraction = defaultInteraction;
@@ -48,6 +64,14 @@ public class HigherTupleFinder<T> implements Serializable {
     public T getInteraction(int posNum, int RCNum) {
         //get interaction of this tuple with the RC (posNum,RCNum)
         
+        if(isFrozen()){
+            int slot = findFrozenSlot(posNum, RCNum);
+            if(slot<0 || !frozenHasInteraction[slot])
+                return defaultInteraction;
+            else
+                return getFrozenInteraction(slot);
+        }
+        
         for(int interactionNum=0; interactionNum<interactingPos.size(); interactionNum++){
             //there should be only a few interacting positions so we can loop over them quickly
             
@@ -64,10 +88,29 @@ public class HigherTupleFinder<T> implements Serializable {
         return defaultInteraction;
     }
     
+    public double getEnergy(int posNum, int RCNum) {
+        //getInteraction for energies, without boxing if we're frozen
+        if(frozenEnergies!=null){
+            int slot = findFrozenSlot(posNum, RCNum);
+            if(slot<0)
+                return (Double)defaultInteraction;
+            return frozenEnergies[slot];
+        }
+        
+        return (Double)getInteraction(posNum, RCNum);
+    }
+    
     public HigherTupleFinder<T> getHigherInteractions(int posNum, int RCNum) {
         //get higher-order interactions involving the super-tuple 
         //consisting of this tuple plus the RC (posNum,RCNum)
         
+        if(isFrozen()){
+            int slot = findFrozenSlot(posNum, RCNum);
+            if(slot<0)
+                return null;
+            return frozenHigher[slot];
+        }
+        
         for(int interactionNum=0; interactionNum<interactingPos.size(); interactionNum++){
             //there should be only a few interacting positions so we can loop over them quickly
             
@@ -89,6 +132,9 @@ public class HigherTupleFinder<T> implements Serializable {
     public void setInteraction(RCTuple tup, T val){
         //set the interaction of this tuple with tup to the given value
         
+        if(isFrozen())//rare, but go back to the editable representation if we need to
+            thaw();
+        
         if(tup.pos.size()==1){//store interaction directly in this HigherTupleFinder
             int pos = tup.pos.get(0);
             int rc = tup.RCs.get(0);
@@ -157,6 +203,38 @@ public class HigherTupleFinder<T> implements Serializable {
         //Find tuples with all pos numbers less than maxPos that have interactions value val
         //add them to tupList
         
+        if(isFrozen()){
+            for(int slot=0; slot<frozenKeys.length; slot++){
+                long key = frozenKeys[slot];
+                int pos = (int)(key>>>32);
+                int rc = (int)key;
+                
+                if(key==FrozenEmptyKey || pos>=maxPos)
+                    continue;
+                
+                if(frozenHasInteraction[slot]){
+                    boolean matches;
+                    if(frozenEnergies!=null)
+                        matches = ( frozenEnergies[slot] == (Double)val );
+                    else
+                        matches = ( frozenInteractions[slot] == val );
+                    if(matches)
+                        tupList.add( new RCTuple(pos,rc) );
+                }
+                
+                if(frozenHigher[slot]!=null){
+                    ArrayList<RCTuple> subTupList = new ArrayList<>();
+                    frozenHigher[slot].recordInteractionsWithValue(val, subTupList, pos);
+                    for(RCTuple subTup : subTupList){
+                        subTup.pos.add(pos);
+                        subTup.RCs.add(rc);
+                        tupList.add(subTup);
+                    }
+                }
+            }
+            return;
+        }
+        
         for(int interactionNum=0; interactionNum<interactingPos.size(); interactionNum++){
             
             int pos = interactingPos.get(interactionNum);
@@ -187,4 +265,148 @@ public class HigherTupleFinder<T> implements Serializable {
     }
     
     
+    public boolean isFrozen(){
+        return frozenKeys != null;
+    }
+    
+    
+    public void freeze(){
+        //convert this finder and all the ones above it into hash tables
+        //call this once the matrix is built; lookups get much faster, and we use a lot less memory than TreeMaps
+        if(isFrozen())
+            return;
+        
+        //every (pos,RC) with an interaction or a higher finder gets a slot
+        int numEntries = 0;
+        for(int interactionNum=0; interactionNum<interactingPos.size(); interactionNum++){
+            TreeMap<Integer,T> posInteractions = interactions.get(interactionNum);
+            numEntries += posInteractions.size();
+            for(int rc : higher.get(interactionNum).keySet()){
+                if(!posInteractions.containsKey(rc))
+                    numEntries++;
+            }
+        }
+        
+        //keep the load factor at most 1/2 so probe sequences stay short
+        int capacity = 4;
+        while(capacity < 2*numEntries)
+            capacity *= 2;
+        
+        frozenMask = capacity-1;
+        long[] keys = new long[capacity];
+        Arrays.fill(keys, FrozenEmptyKey);
+        frozenHasInteraction = new boolean[capacity];
+        frozenHigher = makeFinderArray(capacity);
+        
+        boolean useEnergies = defaultInteraction instanceof Double;
+        if(useEnergies){
+            frozenEnergies = new double[capacity];
+            Arrays.fill(frozenEnergies, (Double)defaultInteraction);
+        }
+        else
+            frozenInteractions = new Object[capacity];
+        
+        for(int interactionNum=0; interactionNum<interactingPos.size(); interactionNum++){
+            int pos = interactingPos.get(interactionNum);
+            
+            for(Map.Entry<Integer,T> entry : interactions.get(interactionNum).entrySet()){
+                int slot = insertFrozenKey(keys, pos, entry.getKey());
+                frozenHasInteraction[slot] = true;
+                if(useEnergies)
+                    frozenEnergies[slot] = (Double)entry.getValue();
+                else
+                    frozenInteractions[slot] = entry.getValue();
+            }
+            
+            for(Map.Entry<Integer,HigherTupleFinder<T>> entry : higher.get(interactionNum).entrySet()){
+                HigherTupleFinder<T> nextHTF = entry.getValue();
+                nextHTF.freeze();
+                frozenHigher[insertFrozenKey(keys, pos, entry.getKey())] = nextHTF;
+            }
+        }
+        
+        frozenKeys = keys;
+        interactions = null;
+        higher = null;
+    }
+    
+    
+    private void thaw(){
+        //rebuild the lists from the hash table
+        //(the higher finders stay frozen until they're edited themselves)
+        interactions = new ArrayList<>();
+        higher = new ArrayList<>();
+        for(int interactionNum=0; interactionNum<interactingPos.size(); interactionNum++){
+            interactions.add(new TreeMap<Integer,T>());
+            higher.add(new TreeMap<Integer,HigherTupleFinder<T>>());
+        }
+        
+        for(int slot=0; slot<frozenKeys.length; slot++){
+            long key = frozenKeys[slot];
+            if(key == FrozenEmptyKey)
+                continue;
+            
+            int posIndex = interactingPos.indexOf((int)(key>>>32));
+            int rc = (int)key;
+            
+            if(frozenHasInteraction[slot]){
+                interactions.get(posIndex).put(rc, getFrozenInteraction(slot));
+            }
+            if(frozenHigher[slot]!=null)
+                higher.get(posIndex).put(rc, frozenHigher[slot]);
+        }
+        
+        frozenKeys = null;
+        frozenHasInteraction = null;
+        frozenEnergies = null;
+        frozenInteractions = null;
+        frozenHigher = null;
+    }
+    
+    
+    @SuppressWarnings("unchecked")//T is Double whenever frozenEnergies is used, and frozenInteractions only holds values of type T
+    private T getFrozenInteraction(int slot){
+        if(frozenEnergies!=null)
+            return (T)Double.valueOf(frozenEnergies[slot]);
+        else
+            return (T)frozenInteractions[slot];
+    }
+    
+    @SuppressWarnings("unchecked")//can't create a generic array directly, but the array only ever holds finders of type T
+    private static <T> HigherTupleFinder<T>[] makeFinderArray(int size){
+        return (HigherTupleFinder<T>[])new HigherTupleFinder<?>[size];
+    }
+    
+    private static long packKey(int pos, int rc){
+        //RC could be a negative code, so only take its low bits
+        return ((long)pos<<32) | (rc & 0xffffffffL);
+    }
+    
+    private static int hashKey(long key, int mask){
+        return (int)((key*0x9E3779B97F4A7C15L)>>>32) & mask;
+    }
+    
+    private int findFrozenSlot(int pos, int rc){
+        //slot for (pos,rc) in the hash table, or -1 if it's not there
+        long key = packKey(pos, rc);
+        for(int slot=hashKey(key,frozenMask); ; slot=(slot+1)&frozenMask){
+            long slotKey = frozenKeys[slot];
+            if(slotKey == key)
+                return slot;
+            else if(slotKey == FrozenEmptyKey)
+                return -1;
+        }
+    }
+    
+    private int insertFrozenKey(long[] keys, int pos, int rc){
+        //find or make the slot for (pos,rc)
+        long key = packKey(pos, rc);
+        int slot = hashKey(key,frozenMask);
+        while(keys[slot] != FrozenEmptyKey && keys[slot] != key)
+            slot = (slot+1)&frozenMask;
+        keys[slot] = key;
+        return slot;
+    }
+    
+    
 }
@@ -0,0 +1,77 @@
+package edu.duke.cs.osprey.confspace;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * A tuple of RCs backed by int arrays instead of boxed lists, for use in hot loops.
+ *
+ * Like RCTuple, pos holds the flexible positions and RCs holds the residue-specific RC indices,
+ * but only the first size() entries are meaningful, so the same instance can be reused
+ * for many tuples without allocating.
+ */
+public class IntRCTuple {
+
+	public int[] pos;
+	public int[] RCs;
+	private int size;
+
+	public IntRCTuple(int capacity) {
+		pos = new int[capacity];
+		RCs = new int[capacity];
+		size = 0;
+	}
+
+	public IntRCTuple(RCTuple other) {
+		this(other.size());
+		set(other);
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public void clear() {
+		size = 0;
+	}
+
+	public void add(int pos, int rc) {
+		if (size == this.pos.length) {
+			int newCapacity = Math.max(size*2, 4);
+			this.pos = Arrays.copyOf(this.pos, newCapacity);
+			this.RCs = Arrays.copyOf(this.RCs, newCapacity);
+		}
+		this.pos[size] = pos;
+		this.RCs[size] = rc;
+		size++;
+	}
+
+	public void set(RCTuple other) {
+		clear();
+		for (int i=0; i<other.size(); i++) {
+			add(other.pos.get(i), other.RCs.get(i));
+		}
+	}
+
+	/**
+	 * sets the tuple from a conformation, skipping undefined (negative) positions, just like RCTuple(int[])
+	 */
+	public void set(int[] conf) {
+		clear();
+		for (int posNum=0; posNum<conf.length; posNum++) {
+			if (conf[posNum] >= 0) {
+				add(posNum, conf[posNum]);
+			}
+		}
+	}
+
+	public RCTuple toRCTuple() {
+		ArrayList<Integer> outPos = new ArrayList<>(size);
+		ArrayList<Integer> outRCs = new ArrayList<>(size);
+		for (int i=0; i<size; i++) {
+			outPos.add(pos[i]);
+			outRCs.add(RCs[i]);
+		}
+		return new RCTuple(outPos, outRCs);
+	}
+}
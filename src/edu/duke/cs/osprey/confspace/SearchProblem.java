@@ -4,10 +4,12 @@
  */
 package edu.duke.cs.osprey.confspace;
 
+import java.io.File;
 import java.io.Serializable;
 import java.util.ArrayList;
 
 import edu.duke.cs.osprey.control.EnvironmentVars;
+import edu.duke.cs.osprey.control.MinimizingEnergyCalculator;
 import edu.duke.cs.osprey.dof.deeper.DEEPerSettings;
 import edu.duke.cs.osprey.ematrix.EnergyMatrix;
 import edu.duke.cs.osprey.ematrix.EnergyMatrixCalculator;
@@ -17,7 +19,9 @@ import edu.duke.cs.osprey.ematrix.epic.EPICMatrix;
 import edu.duke.cs.osprey.ematrix.epic.EPICSettings;
 import edu.duke.cs.osprey.energy.EnergyFunction;
 import edu.duke.cs.osprey.energy.EnergyFunctionGenerator;
+import edu.duke.cs.osprey.handlempi.MPIMaster;
 import edu.duke.cs.osprey.multistatekstar.ResidueTermini;
+import edu.duke.cs.osprey.parallelism.Parallelism;
 import edu.duke.cs.osprey.pruning.PruningMatrix;
 import edu.duke.cs.osprey.structure.Residue;
 import edu.duke.cs.osprey.tools.ObjectIO;
@@ -80,6 +84,8 @@ public class SearchProblem implements Serializable {
     public boolean addResEntropy = false;
     
     public int numEmatThreads = 1;
+    public boolean mapEnergyMatrix = false;//memory-map the energy matrix file instead of reading it onto the heap
+    public boolean checkpointEnergyMatrix = true;//log finished energy matrix blocks so killed calculations can resume
     
     
     public SearchProblem(SearchProblem other){//shallow copy
@@ -111,6 +117,8 @@ public class SearchProblem implements Serializable {
         useERef = other.useERef;
         addResEntropy = other.addResEntropy;
         numEmatThreads = other.numEmatThreads;
+        mapEnergyMatrix = other.mapEnergyMatrix;
+        checkpointEnergyMatrix = other.checkpointEnergyMatrix;
     }
     
     
@@ -276,17 +284,74 @@ public class SearchProblem implements Serializable {
     //load the specified matrix; if the right file isn't available then compute and store it
     public void loadMatrix(MatrixType type){
         
-        String matrixFileName = name + "." + type.name() + ".dat";
+        String matrixFileName = getMatrixFileName(type);
         //matrix file names are determined by the name of the search problem
         
         if(!loadMatrixFromFile( type, matrixFileName )){
             TupleMatrix<?> matrix = calcMatrix(type);
-            ObjectIO.writeObject( matrix, matrixFileName );
+            writeMatrixFile( type, matrix, matrixFileName );
+            
+            //the matrix is saved, so we don't need the checkpoint anymore
+            if(type == MatrixType.EMAT)
+                new File(getCheckpointFileName(type)).delete();
+            
             loadMatrixFromFile( type, matrixFileName );
         }
     }
     
     
+    public String getCheckpointFileName(MatrixType type){
+        return name + "." + type.name() + ".checkpoint";
+    }
+    
+    
+    public String getMatrixFileName(MatrixType type){
+        //energy matrices use the binary matrix format, the others are still serialized
+        if(type == MatrixType.EMAT)
+            return name + "." + type.name() + ".bin";
+        return name + "." + type.name() + ".dat";
+    }
+    
+    
+    public long getEnergyMatrixHash(){
+        //energy matrix files are only valid for the same conf space, forcefield settings and shell
+        return TupleMatrixFile.hashConfSpace(confSpace, EnvironmentVars.curEFcnGenerator.ffParams, shellResidues);
+    }
+    
+    
+    public void writeMatrixFile(MatrixType type, TupleMatrix<?> matrix, String matrixFileName){
+        if(type == MatrixType.EMAT)
+            ((EnergyMatrix)matrix).write( new File(matrixFileName), getEnergyMatrixHash() );
+        else
+            ObjectIO.writeObject( matrix, matrixFileName );
+    }
+    
+    
+    public Object readMatrixFile(MatrixType type, String matrixFileName){
+        //returns null if the file can't be used
+        if(type == MatrixType.EMAT){
+            
+            File file = new File(matrixFileName);
+            if(file.exists()){
+                if(mapEnergyMatrix)
+                    return EnergyMatrix.map( file, confSpace, getEnergyMatrixHash() );
+                return EnergyMatrix.read( file, confSpace, getEnergyMatrixHash() );
+            }
+            
+            //fall back to energy matrices serialized before the binary format existed
+            String legacyFileName = name + "." + type.name() + ".dat";
+            if(new File(legacyFileName).exists()){
+                if(mapEnergyMatrix)
+                    System.out.println("Energy matrix " + legacyFileName + " is in the old serialized format, so it can't be memory-mapped");
+                return ObjectIO.readObject(legacyFileName, true);
+            }
+            
+            return null;
+        }
+        return ObjectIO.readObject(matrixFileName, true);
+    }
+    
+    
     //compute the matrix of the specified type
     public TupleMatrix<?> calcMatrix(MatrixType type){
     
@@ -296,15 +361,9 @@ public class SearchProblem implements Serializable {
             //MH: All the current conformational perturbations as of 9/12/16 should support copying
             //to new molecules, but I'll leave this option in case new DOFs or something cause an issue
         	            
-            // if we're using MPI or DEEPer, use the old energy matrix calculator
-            if (EnvironmentVars.useMPI || (deeperSettings != null && deeperSettings.doPerturbations())) {
+            // if we're using DEEPer, use the old energy matrix calculator
+            if (deeperSettings != null && deeperSettings.doPerturbations()) {
             	System.out.println("\n\nWARNING: concurrent minimizations disabled\n"); 
-            	
-                // see if the user tried to use threads too for some reason and try to be helpful
-                if (EnvironmentVars.useMPI && numEmatThreads > 1) {
-                    System.out.println("\n\nWARNING: multiple threads and MPI both configured for emat calculation."
-                        + " Ignoring thread settings and using only MPI.\n");
-                }
                 
                 EnergyMatrixCalculator emCalc = new EnergyMatrixCalculator(confSpace, shellResidues, useERef, addResEntropy);
                 emCalc.calcPEM();
@@ -312,10 +371,25 @@ public class SearchProblem implements Serializable {
             
             } else {
             
-                // otherwise, use the new multi-threaded calculator (which doesn't support MPI)
+                // otherwise, use the new calculator, either multi-threaded or on MPI slaves
+                SimpleEnergyMatrixCalculator ecalc;
+                if (EnvironmentVars.useMPI) {
+                    
+                    // see if the user tried to use threads too for some reason and try to be helpful
+                    if (numEmatThreads > 1) {
+                        System.out.println("\n\nWARNING: multiple threads and MPI both configured for emat calculation."
+                            + " Ignoring thread settings and using only MPI.\n");
+                    }
+                    
+                    ecalc = new SimpleEnergyMatrixCalculator.Distributed(MPIMaster.getInstance(), EnvironmentVars.curEFcnGenerator.ffParams, confSpace, shellResidues);
+                } else {
+                    ecalc = new SimpleEnergyMatrixCalculator.Cpu(numEmatThreads, EnvironmentVars.curEFcnGenerator.ffParams, confSpace, shellResidues);
+                }
                 
                 // calculate the emat! Yeah!
-                SimpleEnergyMatrixCalculator ecalc = new SimpleEnergyMatrixCalculator.Cpu(numEmatThreads, EnvironmentVars.curEFcnGenerator.ffParams, confSpace, shellResidues);
+                if (checkpointEnergyMatrix) {
+                    ecalc.setCheckpointFile(new File(getCheckpointFileName(type)));
+                }
                 EnergyMatrix emat = ecalc.calcEnergyMatrix();
                 
                 // need to subtract reference energies?
@@ -345,6 +419,10 @@ public class SearchProblem implements Serializable {
         else if(type == MatrixType.EPICMAT){
             EnergyMatrixCalculator emCalc = new EnergyMatrixCalculator(confSpace,shellResidues,
                     pruneMat,epicSettings);
+            //DEEPer perturbations keep the serial fits, like the EMAT calculation above
+            if (deeperSettings == null || !deeperSettings.doPerturbations()) {
+                emCalc.setNumThreads(numEmatThreads);
+            }
             emCalc.calcPEM();
             return emCalc.getEPICMatrix();
         }
@@ -353,6 +431,15 @@ public class SearchProblem implements Serializable {
             
             ConfETupleExpander expander = new ConfETupleExpander(this);//make a tuple expander
             
+            //minimizing the training samples is most of the work, so do it in parallel if we can
+            //(DEEPer perturbations keep to the shared molecule, like the EMAT calculation above)
+            MinimizingEnergyCalculator sampleEcalc = null;
+            if (numEmatThreads > 1 && !useEPIC && !useVoxelG
+                    && (deeperSettings == null || !deeperSettings.doPerturbations())) {
+                sampleEcalc = MinimizingEnergyCalculator.make(EnvironmentVars.curEFcnGenerator.ffParams, this, Parallelism.makeCpu(numEmatThreads));
+                expander.setEnergyCalculator(sampleEcalc);
+            }
+            
             
             TupleEnumerator tupEnum = new TupleEnumerator(pruneMat,emat,confSpace.numPos);
             TupExpChooser chooser = new TupExpChooser(expander, tupEnum);//make a chooser to choose what tuples will be in the expansion
@@ -372,6 +459,10 @@ public class SearchProblem implements Serializable {
                         luteSettings.goalResid+" not reached; best="+curResid);
             }
             
+            if (sampleEcalc != null) {
+                sampleEcalc.cleanup();
+            }
+            
             return expander.getEnergyMatrix();//get the final energy matrix from the chosen expansion
         }
     }
@@ -383,7 +474,7 @@ public class SearchProblem implements Serializable {
         //return true if successful, false if not, in which case we'll have to compute it
         //also if the matrix's pruning interval is too low, it may be missing some RCs
         //that are unpruned at our current pruningInterval, so we have to recompute
-        Object matrixFromFile = ObjectIO.readObject(matrixFileName, true);
+        Object matrixFromFile = readMatrixFile(type, matrixFileName);
         
         if(type == MatrixType.EMAT)
             emat = (EnergyMatrix) matrixFromFile;
@@ -395,6 +486,9 @@ public class SearchProblem implements Serializable {
         if(matrixFromFile==null)//unsuccessful loading leaves null emat
             return false;
         
+        if(type != MatrixType.EPICMAT)//no-op if already frozen before being written
+            ((EnergyMatrix)matrixFromFile).freezeHigherOrderTerms();
+        
         
         //check pruning interval.  Current interval is in pruneMat if we have pruned already;
         //if not then we need a matrix with infinite pruning interval (valid for all RCs).
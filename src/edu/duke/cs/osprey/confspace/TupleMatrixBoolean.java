@@ -5,78 +5,297 @@
 package edu.duke.cs.osprey.confspace;
 
 import java.util.ArrayList;
-import java.util.BitSet;
+import java.util.Arrays;
 
 public class TupleMatrixBoolean extends AbstractTupleMatrix<Boolean> {
-	
-	private static final long serialVersionUID = -1286639255089978027L;
-	
+
+	private static final long serialVersionUID = -1286639255089978029L;
+
+	private static final int WordBits = 6;
+	private static final int WordMask = (1 << WordBits) - 1;
+
     //note: tuples are sets not ordered pairs, i.e. E(i_r,j_s) = E(j_s,i_r), and pruning (i_r,j_s) means pruning (j_s,i_r)
-	private BitSet oneBody; // indices: res1, RC1
-	private BitSet pairwise; // indices: res1, res2, RC1, RC2 where res1>res2
-	
+	// bits are stored in rows, one bit per RC, and rows are word-aligned
+	// so all the RCs at a position can be checked with a few word operations
+	private long[] oneBody; // indices: res1, RC1
+	private int[] oneBodyOffsets; // indices: res1 (in words)
+
+	// pairwise bits are stored once per pair, in one block for each pair of positions res1>res2
+	// blocks start on word boundaries, and hold packed rows of RC2 bits for each RC1
+	// so we use one bit per pair plus at most a word per position pair, same as a BitSet would
+	// rows (res1>res2) can be read with word operations, but columns (res1<res2) are read one bit at a time
+	private long[] pairwise;
+	private long[] pairwiseBlockOffsets; // indices: same as getPairwiseIndex(res1, res2) (in bits)
+	private int[] wordsPerRow; // indices: res
+
 	protected TupleMatrixBoolean() {
 		// do nothing
 		// apparently UpdatedPruningMatrix wants to override all the methods,
 		// but not use any of the storage here
 	}
-	
+
 	public TupleMatrixBoolean(TupleMatrixBoolean other) {
 		super(other);
-		this.oneBody = (BitSet)other.oneBody.clone();
-		this.pairwise = (BitSet)other.pairwise.clone();
+		this.oneBody = other.oneBody.clone();
+		this.oneBodyOffsets = other.oneBodyOffsets.clone();
+		this.pairwise = other.pairwise.clone();
+		this.pairwiseBlockOffsets = other.pairwiseBlockOffsets.clone();
+		this.wordsPerRow = other.wordsPerRow.clone();
 	}
-    
+
     public TupleMatrixBoolean(ConfSpace cSpace, double pruningInterval, boolean defaultHigherInteraction) {
     	super(cSpace, pruningInterval, defaultHigherInteraction);
     }
-    
+
     public TupleMatrixBoolean(int numPos, int[] numAllowedAtPos, double pruningInterval, boolean defaultHigherInteraction) {
     	super(numPos, numAllowedAtPos, pruningInterval, defaultHigherInteraction);
     }
-    
+
     @Override
     protected void allocate(int numOneBody, int numPairwise) {
-        oneBody = new BitSet(numOneBody);
-        pairwise = new BitSet(numPairwise);
+        int numPos = getNumPos();
+        wordsPerRow = new int[numPos];
+        oneBodyOffsets = new int[numPos];
+        int numOneBodyWords = 0;
+        for (int res=0; res<numPos; res++) {
+        	wordsPerRow[res] = (getNumConfAtPos(res) + WordMask) >>> WordBits;
+        	oneBodyOffsets[res] = numOneBodyWords;
+        	numOneBodyWords += wordsPerRow[res];
+        }
+        oneBody = new long[numOneBodyWords];
+
+        pairwiseBlockOffsets = new long[numPos*(numPos - 1)/2];
+        long offset = 0;
+        for (int res1=0; res1<numPos; res1++) {
+        	for (int res2=0; res2<res1; res2++) {
+        		pairwiseBlockOffsets[getPairwiseIndex(res1, res2)] = offset;
+        		long numBits = (long)getNumConfAtPos(res1)*getNumConfAtPos(res2);
+        		offset += (numBits + WordMask) & ~(long)WordMask;
+        	}
+        }
+        long numWords = offset >>> WordBits;
+        if (numWords > Integer.MAX_VALUE) {
+        	throw new UnsupportedOperationException("too many pairs for a boolean tuple matrix");
+        }
+        pairwise = new long[(int)numWords];
+    }
+
+    /**
+     * how many words of storage the pairwise bits use, or 0 if we're interposing on some other matrix
+     */
+    public int getNumPairwiseWords() {
+    	return pairwise == null ? 0 : pairwise.length;
+    }
+
+    /**
+     * writes the one-body and pairwise bits to their sections of a matrix file
+     */
+    public void writeValues(TupleMatrixFile.Writer out) {
+    	if (pairwise == null) {
+    		throw new UnsupportedOperationException("can't write a matrix that doesn't have its own storage, copy it first");
+    	}
+    	if (hasHigherOrderTerms()) {
+    		throw new UnsupportedOperationException("matrix files don't support higher-order terms yet");
+    	}
+    	out.writeSection(TupleMatrixFile.SectionOneBody, oneBody);
+    	out.writeSection(TupleMatrixFile.SectionPairwise, pairwise);
     }
     
+    /**
+     * reads the one-body and pairwise bits from their sections of a matrix file
+     */
+    public void readValues(TupleMatrixFile.Reader in) {
+    	in.checkShape(this);
+    	in.readSection(TupleMatrixFile.SectionOneBody, oneBody);
+    	in.readSection(TupleMatrixFile.SectionPairwise, pairwise);
+    }
+
+    private long getPairwiseBit(int res1, int conf1, int res2, int conf2) {
+    	// res2 should be strictly less than res1
+    	if (res2 > res1) {
+    		int swap = res1;
+    		res1 = res2;
+    		res2 = swap;
+    		swap = conf1;
+    		conf1 = conf2;
+    		conf2 = swap;
+    	}
+    	return pairwiseBlockOffsets[getPairwiseIndex(res1, res2)] + (long)conf1*getNumConfAtPos(res2) + conf2;
+    }
+
+    private static void setBit(long[] words, int rowIndex, int conf, boolean val) {
+    	setBit(words, ((long)rowIndex << WordBits) + conf, val);
+    }
+
+    private static void setBit(long[] words, long bit, boolean val) {
+    	int i = (int)(bit >>> WordBits);
+    	long mask = 1L << (bit & WordMask);
+    	if (val) {
+    		words[i] |= mask;
+    	} else {
+    		words[i] &= ~mask;
+    	}
+    }
+
+    private static boolean isBitSet(long[] words, long bit) {
+    	return (words[(int)(bit >>> WordBits)] & (1L << (bit & WordMask))) != 0;
+    }
+
+    /**
+     * Same as getOneBody(), but without boxing.
+     * Subclasses that interpose on storage should override this instead of getOneBody().
+     */
+    public boolean getOneBodyB(int res, int conf) {
+    	return isBitSet(oneBody, oneBodyOffsets[res], conf);
+    }
+
+    /**
+     * Same as getPairwise(), but without boxing.
+     * Subclasses that interpose on storage should override this instead of getPairwise().
+     */
+    public boolean getPairwiseB(int res1, int conf1, int res2, int conf2) {
+    	return isBitSet(pairwise, getPairwiseBit(res1, conf1, res2, conf2));
+    }
+
+    /**
+     * ORs the one-body values of every conf at res into out, one bit per conf
+     */
+    public void orOneBodyRow(int res, long[] out) {
+
+    	if (oneBody == null) {
+
+    		// no storage here, so we're interposing on some other matrix
+    		// fall back to checking one conf at a time
+    		int n = getNumConfAtPos(res);
+    		for (int conf=0; conf<n; conf++) {
+    			if (getOneBodyB(res, conf)) {
+    				out[conf >>> WordBits] |= 1L << (conf & WordMask);
+    			}
+    		}
+
+    	} else {
+
+    		int i = oneBodyOffsets[res];
+    		int n = wordsPerRow[res];
+    		for (int j=0; j<n; j++) {
+    			out[j] |= oneBody[i + j];
+    		}
+    	}
+    }
+
+    /**
+     * ORs the row of pairwise values between (res1,conf1) and every conf at res2 into out,
+     * one bit per conf at res2
+     */
+    public void orPairwiseRow(int res1, int conf1, int res2, long[] out) {
+
+    	if (pairwise == null) {
+
+    		// no storage here, so we're interposing on some other matrix
+    		// fall back to checking one pair at a time
+    		int n2 = getNumConfAtPos(res2);
+    		for (int conf2=0; conf2<n2; conf2++) {
+    			if (getPairwiseB(res1, conf1, res2, conf2)) {
+    				out[conf2 >>> WordBits] |= 1L << (conf2 & WordMask);
+    			}
+    		}
+
+    	} else if (res1 > res2) {
+
+    		// the confs at res2 are a packed row, so copy it a word at a time
+    		long start = getPairwiseBit(res1, conf1, res2, 0);
+    		int n2 = getNumConfAtPos(res2);
+    		int n = wordsPerRow[res2];
+    		for (int j=0; j<n; j++) {
+    			long bit = start + ((long)j << WordBits);
+    			int i = (int)(bit >>> WordBits);
+    			int shift = (int)(bit & WordMask);
+    			long word = pairwise[i] >>> shift;
+    			if (shift != 0 && i + 1 < pairwise.length) {
+    				word |= pairwise[i + 1] << (64 - shift);
+    			}
+    			int numBits = n2 - (j << WordBits);
+    			if (numBits < 64) {
+    				word &= (1L << numBits) - 1;
+    			}
+    			out[j] |= word;
+    		}
+
+    	} else {
+
+    		// the confs at res2 are a column, so read one bit per conf
+    		long start = getPairwiseBit(res1, conf1, res2, 0);
+    		int stride = getNumConfAtPos(res1);
+    		int n2 = getNumConfAtPos(res2);
+    		for (int conf2=0; conf2<n2; conf2++) {
+    			if (isBitSet(pairwise, start + (long)conf2*stride)) {
+    				out[conf2 >>> WordBits] |= 1L << (conf2 & WordMask);
+    			}
+    		}
+    	}
+    }
+
+    /**
+     * how many words are needed for a row of bits for all the confs at res
+     */
+    public int getNumWordsAtPos(int res) {
+    	return (getNumConfAtPos(res) + WordMask) >>> WordBits;
+    }
+
+    public static boolean isBitSet(long[] row, int conf) {
+    	return isBitSet(row, 0, conf);
+    }
+
+    private static boolean isBitSet(long[] words, int rowIndex, int conf) {
+    	return (words[rowIndex + (conf >>> WordBits)] & (1L << (conf & WordMask))) != 0;
+    }
+
     @Override
-    public Boolean getOneBody(int res, int conf) {
-    	return oneBody.get(getOneBodyIndex(res, conf));
+    public final Boolean getOneBody(int res, int conf) {
+    	return getOneBodyB(res, conf);
     }
-    
+
     @Override
     public void setOneBody(int res, int conf, Boolean val) {
-    	oneBody.set(getOneBodyIndex(res, conf), val);
+    	setBit(oneBody, oneBodyOffsets[res], conf, val);
     }
-    
+
     @Override
     public void setOneBody(int res, ArrayList<Boolean> val) {
     	int n = getNumConfAtPos(res);
     	for (int i=0; i<n; i++) {
-    		oneBody.set(getOneBodyIndex(res, i), val.get(i));
+    		setOneBody(res, i, val.get(i));
     	}
     }
-    
+
     @Override
-    public Boolean getPairwise(int res1, int conf1, int res2, int conf2) {
-    	return pairwise.get(getPairwiseIndex(res1, conf1, res2, conf2));
+    public final Boolean getPairwise(int res1, int conf1, int res2, int conf2) {
+    	return getPairwiseB(res1, conf1, res2, conf2);
     }
-    
+
     @Override
     public void setPairwise(int res1, int conf1, int res2, int conf2, Boolean val) {
-    	pairwise.set(getPairwiseIndex(res1, conf1, res2, conf2), val);
+    	setBit(pairwise, getPairwiseBit(res1, conf1, res2, conf2), val);
     }
-    
+
     @Override
     public void setPairwise(int res1, int res2, ArrayList<ArrayList<Boolean>> val) {
     	int n1 = getNumConfAtPos(res1);
     	int n2 = getNumConfAtPos(res2);
     	for (int i1=0; i1<n1; i1++) {
     		for (int i2=0; i2<n2; i2++) {
-    			pairwise.set(getPairwiseIndex(res1, i1, res2, i2), val.get(i1).get(i2));
+    			setPairwise(res1, i1, res2, i2, val.get(i1).get(i2));
     		}
     	}
     }
+
+    @Override
+    public void fill(Boolean val) {
+    	if (!val && pairwise != null) {
+    		Arrays.fill(oneBody, 0);
+    		Arrays.fill(pairwise, 0);
+    	} else {
+    		super.fill(val);
+    	}
+    }
 }
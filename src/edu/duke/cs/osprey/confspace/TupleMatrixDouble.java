@@ -24,8 +24,35 @@ public class TupleMatrixDouble extends AbstractTupleMatrix<Double> {
     
     public TupleMatrixDouble(TupleMatrixDouble other) {
     	super(other);
-    	this.oneBody = other.oneBody.clone();
-    	this.pairwise = other.pairwise.clone();
+    	if (other.oneBody != null) {
+    		this.oneBody = other.oneBody.clone();
+    		this.pairwise = other.pairwise.clone();
+    	} else {
+    		
+    		// other matrix doesn't keep values here (eg, it's memory-mapped), so copy through the getters
+    		int numOneBody = 0;
+    		int numPairwise = 0;
+    		for (int res1=0; res1<getNumPos(); res1++) {
+    			numOneBody += getNumConfAtPos(res1);
+    			for (int res2=0; res2<res1; res2++) {
+    				numPairwise += getNumConfAtPos(res1)*getNumConfAtPos(res2);
+    			}
+    		}
+    		this.oneBody = new double[numOneBody];
+    		this.pairwise = new double[numPairwise];
+    		for (int res1=0; res1<getNumPos(); res1++) {
+    			int n1 = getNumConfAtPos(res1);
+    			for (int conf1=0; conf1<n1; conf1++) {
+    				oneBody[getOneBodyIndex(res1, conf1)] = other.getOneBodyD(res1, conf1);
+    				for (int res2=0; res2<res1; res2++) {
+    					int n2 = getNumConfAtPos(res2);
+    					for (int conf2=0; conf2<n2; conf2++) {
+    						pairwise[getPairwiseIndex(res1, conf1, res2, conf2)] = other.getPairwiseD(res1, conf1, res2, conf2);
+    					}
+    				}
+    			}
+    		}
+    	}
     }
     
     @Override
@@ -34,8 +61,36 @@ public class TupleMatrixDouble extends AbstractTupleMatrix<Double> {
         pairwise = new double[numPairwise];
     }
     
+    /**
+     * writes the one-body and pairwise values to their sections of a matrix file
+     */
+    public void writeValues(TupleMatrixFile.Writer out) {
+    	if (hasHigherOrderTerms()) {
+    		throw new UnsupportedOperationException("matrix files don't support higher-order terms yet");
+    	}
+    	out.writeSection(TupleMatrixFile.SectionOneBody, oneBody);
+    	out.writeSection(TupleMatrixFile.SectionPairwise, pairwise);
+    }
+    
+    /**
+     * reads the one-body and pairwise values from their sections of a matrix file
+     */
+    public void readValues(TupleMatrixFile.Reader in) {
+    	in.checkShape(this);
+    	in.readSection(TupleMatrixFile.SectionOneBody, oneBody);
+    	in.readSection(TupleMatrixFile.SectionPairwise, pairwise);
+    }
+    
     @Override
-    public Double getOneBody(int res, int conf) {
+    public final Double getOneBody(int res, int conf) {
+    	return getOneBodyD(res, conf);
+    }
+    
+    /**
+     * Same as getOneBody(), but without boxing.
+     * Subclasses that interpose on storage should override this instead of getOneBody().
+     */
+    public double getOneBodyD(int res, int conf) {
     	return oneBody[getOneBodyIndex(res, conf)];
     }
     
@@ -53,10 +108,39 @@ public class TupleMatrixDouble extends AbstractTupleMatrix<Double> {
     }
     
     @Override
-    public Double getPairwise(int res1, int conf1, int res2, int conf2) {
+    public final Double getPairwise(int res1, int conf1, int res2, int conf2) {
+    	return getPairwiseD(res1, conf1, res2, conf2);
+    }
+    
+    /**
+     * Same as getPairwise(), but without boxing.
+     * Subclasses that interpose on storage should override this instead of getPairwise().
+     */
+    public double getPairwiseD(int res1, int conf1, int res2, int conf2) {
     	return pairwise[getPairwiseIndex(res1, conf1, res2, conf2)];
     }
     
+    /**
+     * Copies the pairwise values between (res1,conf1) and every conf at res2 into out, indexed by conf2.
+     * When res1 > res2, the row is contiguous in storage, so this is just an array copy.
+     * Subclasses that interpose on storage should override this too.
+     */
+    public void getPairwiseRow(int res1, int conf1, int res2, double[] out) {
+    	int n2 = getNumConfAtPos(res2);
+    	if (res1 > res2) {
+    		System.arraycopy(pairwise, getPairwiseIndex(res1, conf1, res2, 0), out, 0, n2);
+    	} else {
+    		
+    		// the row is strided, so walk it
+    		int i = getPairwiseIndex(res1, conf1, res2, 0);
+    		int stride = getNumConfAtPos(res1);
+    		for (int conf2=0; conf2<n2; conf2++) {
+    			out[conf2] = pairwise[i];
+    			i += stride;
+    		}
+    	}
+    }
+    
     @Override
     public void setPairwise(int res1, int conf1, int res2, int conf2, Double val) {
     	pairwise[getPairwiseIndex(res1, conf1, res2, conf2)] = val;
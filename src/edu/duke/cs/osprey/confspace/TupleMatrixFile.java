@@ -0,0 +1,484 @@
+package edu.duke.cs.osprey.confspace;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+
+import edu.duke.cs.osprey.energy.forcefield.ForcefieldParams;
+import edu.duke.cs.osprey.structure.Residue;
+
+/**
+ * Versioned binary file format for tuple matrices (energy, pruning, DOF matrices, etc.)
+ *
+ * Unlike Java serialization, the values are stored as raw little-endian arrays
+ * at known offsets, so readers can memory-map them with FileChannel.map() and only
+ * page in the parts they actually use. Mapped files can be shared read-only between processes.
+ *
+ * Layout:
+ *   header: magic, version, matrix type, numPos, conf space hash, pruning interval, numSections, numConfAtPos[numPos]
+ *   section table: offset and size (in bytes) of each section
+ *   sections: each starts on an 8-byte boundary
+ *
+ * What goes in each section is up to the matrix type.
+ */
+public class TupleMatrixFile {
+
+	public static final int Magic = 0x4d54534f; // "OSTM" in little-endian
+	public static final int Version = 1;
+
+	public static enum Type {
+		Energy,
+		Pruning,
+		Dof
+	}
+
+	// sections shared by all matrix types
+	public static final int SectionMeta = 0;
+	public static final int SectionOneBody = 1;
+	public static final int SectionPairwise = 2;
+
+	// don't map more than this much at once, since a mapped buffer can't be bigger than 2 GiB
+	private static final int MaxChunkBytes = 1 << 30;
+	public static final int DoublesPerChunkBits = 27;
+	public static final int DoublesPerChunk = 1 << DoublesPerChunkBits;
+
+	private static final int FixedHeaderBytes = 36;
+	private static final int BufferSize = 1 << 20;
+
+	public static class IncompatibleException extends RuntimeException {
+
+		private static final long serialVersionUID = 3452370858634651541L;
+
+		public IncompatibleException(String msg) {
+			super(msg);
+		}
+	}
+
+	/**
+	 * hash of everything about a conf space that determines the meaning of matrix entries,
+	 * so we can tell if a matrix file was computed for a different conf space
+	 */
+	public static long hashConfSpace(ConfSpace confSpace) {
+		long hash = 1;
+		hash = hash*31 + confSpace.numPos;
+		for (PositionConfSpace posConfSpace : confSpace.posFlex) {
+			hash = hash*31 + posConfSpace.res.getPDBResNumber().hashCode();
+			hash = hash*31 + posConfSpace.RCs.size();
+			for (RC rc : posConfSpace.RCs) {
+				hash = hash*31 + rc.AAType.hashCode();
+				hash = hash*31 + rc.rotNum;
+				hash = hash*31 + rc.DOFs.size();
+				for (int i=0; i<rc.DOFmin.size(); i++) {
+					hash = hash*31 + Double.doubleToLongBits(rc.DOFmin.get(i));
+					hash = hash*31 + Double.doubleToLongBits(rc.DOFmax.get(i));
+				}
+			}
+		}
+		return hash;
+	}
+
+	/**
+	 * like hashConfSpace(), but also covers the forcefield settings and the shell residues,
+	 * which change the energies in a matrix without changing its shape
+	 */
+	public static long hashConfSpace(ConfSpace confSpace, ForcefieldParams ffparams, List<Residue> shellResidues) {
+		long hash = hashConfSpace(confSpace);
+		hash = hash*31 + ffparams.getSettingsHash();
+		hash = hash*31 + shellResidues.size();
+		for (Residue res : shellResidues) {
+			hash = hash*31 + res.getPDBResNumber().hashCode();
+			hash = hash*31 + res.fullName.hashCode();
+			for (double coord : res.coords) {
+				hash = hash*31 + Double.doubleToLongBits(coord);
+			}
+		}
+		return hash;
+	}
+
+	/**
+	 * opens a matrix file for reading
+	 * returns null if the file doesn't exist, can't be read by this version,
+	 * or was computed for something other than confSpaceHash
+	 */
+	public static Reader open(File file, Type type, long confSpaceHash) {
+		
+		if (!file.exists()) {
+			return null;
+		}
+		
+		Reader in;
+		try {
+			in = new Reader(file, type);
+		} catch (IncompatibleException ex) {
+			System.out.println("Can't use " + type + " matrix file: " + ex.getMessage());
+			return null;
+		}
+		
+		if (!in.matchesConfSpace(confSpaceHash)) {
+			System.out.println(type + " matrix file " + file + " was computed for a different conf space, forcefield or shell, ignoring it");
+			in.close();
+			return null;
+		}
+		
+		return in;
+	}
+
+	private static long align(long pos) {
+		return (pos + 7) & ~7L;
+	}
+
+	private static int getHeaderBytes(int numPos, int numSections) {
+		return (int)align(FixedHeaderBytes + numPos*4) + numSections*16;
+	}
+
+	public static class Writer implements AutoCloseable {
+
+		private final File file;
+		private final FileChannel channel;
+		private final long[] sectionOffsets;
+		private final long[] sectionSizes;
+		private final ByteBuffer header;
+		private final ByteBuffer buf;
+		private long bufOffset; // where in the file the buffer starts
+
+		public Writer(File file, Type type, long confSpaceHash, AbstractTupleMatrix<?> mat, int numSections) {
+
+			this.file = file;
+
+			try {
+				channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+			} catch (IOException ex) {
+				throw new RuntimeException("can't write matrix file: " + file, ex);
+			}
+
+			sectionOffsets = new long[numSections];
+			sectionSizes = new long[numSections];
+			Arrays.fill(sectionOffsets, -1);
+
+			// write everything but the section table, which we'll write at the end
+			int numPos = mat.getNumPos();
+			header = ByteBuffer.allocate(getHeaderBytes(numPos, numSections)).order(ByteOrder.LITTLE_ENDIAN);
+			header.putInt(Magic);
+			header.putInt(Version);
+			header.putInt(type.ordinal());
+			header.putInt(numPos);
+			header.putLong(confSpaceHash);
+			header.putDouble(mat.getPruningInterval());
+			header.putInt(numSections);
+			for (int i=0; i<numPos; i++) {
+				header.putInt(mat.getNumConfAtPos(i));
+			}
+
+			buf = ByteBuffer.allocateDirect(BufferSize).order(ByteOrder.LITTLE_ENDIAN);
+			bufOffset = header.capacity();
+		}
+
+		private long getPos() {
+			return bufOffset + buf.position();
+		}
+
+		private void beginSection(int section) {
+			if (sectionOffsets[section] >= 0) {
+				throw new IllegalStateException("section " + section + " was already written");
+			}
+
+			// pad to alignment
+			long start = align(getPos());
+			while (getPos() < start) {
+				ensureRoom(1);
+				buf.put((byte)0);
+			}
+			sectionOffsets[section] = start;
+		}
+
+		private void endSection(int section) {
+			sectionSizes[section] = getPos() - sectionOffsets[section];
+		}
+
+		private void ensureRoom(int numBytes) {
+			if (buf.remaining() < numBytes) {
+				flush();
+			}
+		}
+
+		private void flush() {
+			buf.flip();
+			try {
+				while (buf.hasRemaining()) {
+					bufOffset += channel.write(buf, bufOffset);
+				}
+			} catch (IOException ex) {
+				throw new RuntimeException("can't write matrix file: " + file, ex);
+			}
+			buf.clear();
+		}
+
+		public void writeSection(int section, double[] values) {
+			beginSection(section);
+			for (double val : values) {
+				ensureRoom(8);
+				buf.putDouble(val);
+			}
+			endSection(section);
+		}
+
+		public void writeSection(int section, long[] values) {
+			beginSection(section);
+			for (long val : values) {
+				ensureRoom(8);
+				buf.putLong(val);
+			}
+			endSection(section);
+		}
+
+		public void writeSection(int section, int[] values) {
+			beginSection(section);
+			for (int val : values) {
+				ensureRoom(4);
+				buf.putInt(val);
+			}
+			endSection(section);
+		}
+
+		public void writeSection(int section, byte[] values) {
+			beginSection(section);
+			for (byte val : values) {
+				ensureRoom(1);
+				buf.put(val);
+			}
+			endSection(section);
+		}
+
+		@Override
+		public void close() {
+
+			// unwritten sections are empty
+			for (int i=0; i<sectionOffsets.length; i++) {
+				if (sectionOffsets[i] < 0) {
+					sectionOffsets[i] = getPos();
+				}
+			}
+
+			flush();
+
+			// finish the header with the section table
+			header.position(header.capacity() - sectionOffsets.length*16);
+			for (int i=0; i<sectionOffsets.length; i++) {
+				header.putLong(sectionOffsets[i]);
+				header.putLong(sectionSizes[i]);
+			}
+			header.flip();
+
+			try {
+				while (header.hasRemaining()) {
+					channel.write(header, header.position());
+				}
+				channel.close();
+			} catch (IOException ex) {
+				throw new RuntimeException("can't write matrix file: " + file, ex);
+			}
+		}
+	}
+
+	public static class Reader implements AutoCloseable {
+
+		public final File file;
+		public final Type type;
+		public final int numPos;
+		public final long confSpaceHash;
+		public final double pruningInterval;
+		public final int[] numConfAtPos;
+
+		private final FileChannel channel;
+		private final long[] sectionOffsets;
+		private final long[] sectionSizes;
+
+		public Reader(File file, Type expectedType) {
+
+			this.file = file;
+
+			try {
+				channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+			} catch (IOException ex) {
+				throw new RuntimeException("can't read matrix file: " + file, ex);
+			}
+
+			try {
+
+				ByteBuffer header = readBytes(0, FixedHeaderBytes);
+				if (header.getInt() != Magic) {
+					throw new IncompatibleException("not a matrix file: " + file);
+				}
+				int version = header.getInt();
+				if (version != Version) {
+					throw new IncompatibleException("matrix file " + file + " is version " + version + ", expected version " + Version);
+				}
+				int typeIndex = header.getInt();
+				if (typeIndex < 0 || typeIndex >= Type.values().length) {
+					throw new IncompatibleException("unknown matrix type in file " + file + ": " + typeIndex);
+				}
+				type = Type.values()[typeIndex];
+				if (type != expectedType) {
+					throw new IncompatibleException("matrix file " + file + " has a " + type + " matrix, expected a " + expectedType + " matrix");
+				}
+				numPos = header.getInt();
+				confSpaceHash = header.getLong();
+				pruningInterval = header.getDouble();
+				int numSections = header.getInt();
+
+				header = readBytes(FixedHeaderBytes, getHeaderBytes(numPos, numSections) - FixedHeaderBytes);
+				numConfAtPos = new int[numPos];
+				for (int i=0; i<numPos; i++) {
+					numConfAtPos[i] = header.getInt();
+				}
+				header.position(header.capacity() - numSections*16);
+				sectionOffsets = new long[numSections];
+				sectionSizes = new long[numSections];
+				for (int i=0; i<numSections; i++) {
+					sectionOffsets[i] = header.getLong();
+					sectionSizes[i] = header.getLong();
+					if (sectionOffsets[i] + sectionSizes[i] > channel.size()) {
+						throw new IncompatibleException("matrix file " + file + " is truncated");
+					}
+				}
+
+			} catch (RuntimeException | IOException ex) {
+				close();
+				if (ex instanceof RuntimeException) {
+					throw (RuntimeException)ex;
+				}
+				throw new RuntimeException("can't read matrix file: " + file, ex);
+			}
+		}
+
+		private ByteBuffer readBytes(long offset, int size)
+		throws IOException {
+			ByteBuffer buf = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+			while (buf.hasRemaining()) {
+				if (channel.read(buf, offset + buf.position()) < 0) {
+					throw new IncompatibleException("matrix file " + file + " is truncated");
+				}
+			}
+			buf.flip();
+			return buf;
+		}
+
+		public boolean matchesConfSpace(long expectedHash) {
+			return confSpaceHash == expectedHash;
+		}
+
+		public void checkConfSpace(long expectedHash) {
+			if (!matchesConfSpace(expectedHash)) {
+				throw new IncompatibleException("matrix file " + file + " was computed for a different conf space");
+			}
+		}
+
+		public long getSectionSize(int section) {
+			return sectionSizes[section];
+		}
+
+		/**
+		 * maps the section read-only, in chunks of at most 1 GiB
+		 * each chunk holds a whole number of 8-byte values
+		 */
+		public ByteBuffer[] mapSection(int section) {
+			long offset = sectionOffsets[section];
+			long size = sectionSizes[section];
+			int numChunks = (int)Math.max(1, (size + MaxChunkBytes - 1)/MaxChunkBytes);
+			ByteBuffer[] chunks = new ByteBuffer[numChunks];
+			try {
+				for (int i=0; i<numChunks; i++) {
+					long chunkSize = Math.min(MaxChunkBytes, size - (long)i*MaxChunkBytes);
+					MappedByteBuffer chunk = channel.map(FileChannel.MapMode.READ_ONLY, offset + (long)i*MaxChunkBytes, chunkSize);
+					chunks[i] = chunk.order(ByteOrder.LITTLE_ENDIAN);
+				}
+			} catch (IOException ex) {
+				throw new RuntimeException("can't map matrix file: " + file, ex);
+			}
+			return chunks;
+		}
+
+		/**
+		 * maps the section read-only as doubles, in chunks of DoublesPerChunk
+		 * mapped buffers stay valid after the reader is closed
+		 */
+		public DoubleBuffer[] mapDoubles(int section) {
+			ByteBuffer[] byteChunks = mapSection(section);
+			DoubleBuffer[] chunks = new DoubleBuffer[byteChunks.length];
+			for (int i=0; i<byteChunks.length; i++) {
+				chunks[i] = byteChunks[i].asDoubleBuffer();
+			}
+			return chunks;
+		}
+
+		public void readSection(int section, double[] out) {
+			checkSize(section, out.length*8L);
+			int i = 0;
+			for (ByteBuffer chunk : mapSection(section)) {
+				DoubleBuffer buf = chunk.asDoubleBuffer();
+				int n = buf.remaining();
+				buf.get(out, i, n);
+				i += n;
+			}
+		}
+
+		public void readSection(int section, long[] out) {
+			checkSize(section, out.length*8L);
+			int i = 0;
+			for (ByteBuffer chunk : mapSection(section)) {
+				int n = chunk.remaining()/8;
+				chunk.asLongBuffer().get(out, i, n);
+				i += n;
+			}
+		}
+
+		public void readSection(int section, int[] out) {
+			checkSize(section, out.length*4L);
+			int i = 0;
+			for (ByteBuffer chunk : mapSection(section)) {
+				int n = chunk.remaining()/4;
+				chunk.asIntBuffer().get(out, i, n);
+				i += n;
+			}
+		}
+
+		public ByteBuffer readSection(int section) {
+			return mapSection(section)[0];
+		}
+
+		private void checkSize(int section, long expectedSize) {
+			if (sectionSizes[section] != expectedSize) {
+				throw new IncompatibleException(String.format("matrix file %s section %d has %d bytes, expected %d",
+					file, section, sectionSizes[section], expectedSize
+				));
+			}
+		}
+
+		public void checkShape(AbstractTupleMatrix<?> mat) {
+			if (mat.getNumPos() != numPos) {
+				throw new IncompatibleException("matrix file " + file + " has " + numPos + " positions, expected " + mat.getNumPos());
+			}
+			for (int i=0; i<numPos; i++) {
+				if (mat.getNumConfAtPos(i) != numConfAtPos[i]) {
+					throw new IncompatibleException("matrix file " + file + " has " + numConfAtPos[i] + " RCs at position " + i + ", expected " + mat.getNumConfAtPos(i));
+				}
+			}
+		}
+
+		@Override
+		public void close() {
+			try {
+				channel.close();
+			} catch (IOException ex) {
+				// don't care, we're done with the file anyway
+			}
+		}
+	}
+}
@@ -0,0 +1,305 @@
+package edu.duke.cs.osprey.control;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import edu.duke.cs.osprey.confspace.ConfSearch.EnergiedConf;
+
+/**
+ * Reads the binary conformation logs written by {@link ConfLogWriter}.
+ *
+ * Records are streamed one at a time, so logs much bigger than memory can be read.
+ * If the log has an index, the reader can also seek to any record and get the
+ * number of records and the min energy without scanning the log.
+ */
+public class ConfLogReader implements AutoCloseable {
+
+	public static class Record {
+
+		public final int[] assignments;
+		public final double score;
+		public final double energy;
+		public final double[] dofs; // null if the log didn't save any
+
+		public Record(int[] assignments, double score, double energy, double[] dofs) {
+			this.assignments = assignments;
+			this.score = score;
+			this.energy = energy;
+			this.dofs = dofs;
+		}
+
+		public EnergiedConf toEnergiedConf() {
+			return new EnergiedConf(assignments, score, energy);
+		}
+	}
+
+	private static class Index {
+
+		public final long numConfs;
+		public final double minEnergy;
+		public final int interval;
+		public final long[] offsets;
+
+		public Index(long numConfs, double minEnergy, int interval, long[] offsets) {
+			this.numConfs = numConfs;
+			this.minEnergy = minEnergy;
+			this.interval = interval;
+			this.offsets = offsets;
+		}
+	}
+
+	public final File file;
+	public final int numPos;
+
+	private final Index index;
+	private FileInputStream fileIn;
+	private DataInputStream in;
+	private long nextConfIndex;
+
+	public ConfLogReader(String path) {
+		this(new File(path));
+	}
+
+	public ConfLogReader(File file) {
+
+		this.file = file;
+
+		try {
+			open(0);
+			int magic = in.readInt();
+			int version = in.readInt();
+			if (magic != ConfLogWriter.Magic) {
+				close();
+				throw new IllegalArgumentException("not a conf log: " + file);
+			}
+			if (version != ConfLogWriter.Version) {
+				close();
+				throw new IllegalArgumentException("unsupported conf log version " + version + ": " + file);
+			}
+			numPos = in.readInt();
+		} catch (IOException ex) {
+			close();
+			throw new RuntimeException("ERROR: can't read conf log: " + file, ex);
+		}
+
+		index = readIndex(ConfLogWriter.getIndexFile(file), numPos);
+		nextConfIndex = 0;
+	}
+
+	private static Index readIndex(File indexFile, int numPos) {
+
+		if (!indexFile.exists()) {
+			return null;
+		}
+
+		try (DataInputStream indexIn = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)))) {
+
+			if (indexIn.readInt() != ConfLogWriter.IndexMagic || indexIn.readInt() != ConfLogWriter.Version || indexIn.readInt() != numPos) {
+				// not our index, just ignore it
+				return null;
+			}
+
+			long numConfs = indexIn.readLong();
+			double minEnergy = indexIn.readDouble();
+			int interval = indexIn.readInt();
+			long[] offsets = new long[indexIn.readInt()];
+			for (int i=0; i<offsets.length; i++) {
+				offsets[i] = indexIn.readLong();
+			}
+			return new Index(numConfs, minEnergy, interval, offsets);
+
+		} catch (IOException ex) {
+			throw new RuntimeException("ERROR: can't read conf log index: " + indexFile, ex);
+		}
+	}
+
+	private void open(long offset)
+	throws IOException {
+		if (fileIn != null) {
+			fileIn.close();
+		}
+		fileIn = new FileInputStream(file);
+		fileIn.getChannel().position(offset);
+		in = new DataInputStream(new BufferedInputStream(fileIn, 1 << 16));
+	}
+
+	public boolean hasIndex() {
+		return index != null;
+	}
+
+	/**
+	 * the number of confs in the log. Scans the log if there's no index.
+	 */
+	public long getNumConfs() {
+		if (index != null) {
+			return index.numConfs;
+		}
+		long numConfs = 0;
+		try (ConfLogReader scanner = new ConfLogReader(file)) {
+			while (scanner.skip()) {
+				numConfs++;
+			}
+		}
+		return numConfs;
+	}
+
+	/**
+	 * the lowest energy of any conf in the log. Scans the log if there's no index.
+	 */
+	public double getMinEnergy() {
+		if (index != null) {
+			return index.minEnergy;
+		}
+		double minEnergy = Double.POSITIVE_INFINITY;
+		try (ConfLogReader scanner = new ConfLogReader(file)) {
+			for (Record record = scanner.next(); record != null; record = scanner.next()) {
+				minEnergy = Math.min(minEnergy, record.energy);
+			}
+		}
+		return minEnergy;
+	}
+
+	/**
+	 * moves the reader so the next call to {@link #next()} returns the conf with the given index
+	 */
+	public void seek(long confIndex) {
+
+		if (confIndex < 0) {
+			throw new IllegalArgumentException("conf index can't be negative: " + confIndex);
+		}
+
+		try {
+
+			if (index != null && index.offsets.length > 0) {
+
+				// jump to the nearest indexed record, then skip the rest of the way
+				int i = (int)Math.min(confIndex/index.interval, index.offsets.length - 1);
+				open(index.offsets[i]);
+				nextConfIndex = (long)i*index.interval;
+
+			} else if (confIndex < nextConfIndex) {
+
+				// no index, start over from the top
+				open(ConfLogWriter.HeaderSize);
+				nextConfIndex = 0;
+			}
+
+			while (nextConfIndex < confIndex) {
+				if (!skip()) {
+					break;
+				}
+			}
+
+		} catch (IOException ex) {
+			throw new RuntimeException("ERROR: can't read conf log: " + file, ex);
+		}
+	}
+
+	/**
+	 * @return the next conf in the log, or null at the end of the log
+	 */
+	public Record next() {
+		try {
+			int[] assignments = new int[numPos];
+			for (int i=0; i<numPos; i++) {
+				assignments[i] = in.readUnsignedShort();
+			}
+			double score = in.readDouble();
+			double energy = in.readDouble();
+			int numDofs = in.readUnsignedShort();
+			double[] dofs = null;
+			if (numDofs > 0) {
+				dofs = new double[numDofs];
+				for (int i=0; i<numDofs; i++) {
+					dofs[i] = in.readDouble();
+				}
+			}
+			nextConfIndex++;
+			return new Record(assignments, score, energy, dofs);
+		} catch (EOFException ex) {
+			// end of the log, or a truncated record from a crash
+			return null;
+		} catch (IOException ex) {
+			throw new RuntimeException("ERROR: can't read conf log: " + file, ex);
+		}
+	}
+
+	private boolean skip() {
+		try {
+			skipFully(numPos*2 + 16);
+			int numDofs = in.readUnsignedShort();
+			skipFully(numDofs*8);
+			nextConfIndex++;
+			return true;
+		} catch (EOFException ex) {
+			return false;
+		} catch (IOException ex) {
+			throw new RuntimeException("ERROR: can't read conf log: " + file, ex);
+		}
+	}
+
+	private void skipFully(int numBytes)
+	throws IOException {
+		while (numBytes > 0) {
+			int numSkipped = in.skipBytes(numBytes);
+			if (numSkipped <= 0) {
+				// skipBytes() doesn't report EOF, so check with a read
+				in.readByte();
+				numSkipped = 1;
+			}
+			numBytes -= numSkipped;
+		}
+	}
+
+	/**
+	 * Streams the rest of the log and keeps the lowest-energy confs, without holding the whole log in memory.
+	 *
+	 * @return at most numConfs confs with energy no bigger than maxEnergy, sorted by energy
+	 */
+	public List<EnergiedConf> readLowestEnergies(int numConfs, double maxEnergy) {
+
+		Comparator<EnergiedConf> byEnergy = Comparator.comparingDouble(EnergiedConf::getEnergy);
+
+		// keep the worst conf on top, so it's cheap to replace
+		PriorityQueue<EnergiedConf> best = new PriorityQueue<>(Math.max(1, Math.min(numConfs, 1 << 16)), byEnergy.reversed());
+		for (Record record = next(); record != null; record = next()) {
+			if (record.energy > maxEnergy || numConfs <= 0) {
+				continue;
+			}
+			if (best.size() < numConfs) {
+				best.add(record.toEnergiedConf());
+			} else if (record.energy < best.peek().getEnergy()) {
+				best.poll();
+				best.add(record.toEnergiedConf());
+			}
+		}
+
+		List<EnergiedConf> confs = new ArrayList<>(best);
+		Collections.sort(confs, byEnergy);
+		return confs;
+	}
+
+	@Override
+	public void close() {
+		try {
+			if (in != null) {
+				in.close();
+			} else if (fileIn != null) {
+				fileIn.close();
+			}
+		} catch (IOException ex) {
+			// nothing we can do about it now
+		}
+		in = null;
+		fileIn = null;
+	}
+}
@@ -0,0 +1,80 @@
+package edu.duke.cs.osprey.control;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import edu.duke.cs.osprey.confspace.ConfSearch.EnergiedConf;
+
+/**
+ * Command-line tool for binary conformation logs (see {@link ConfLogWriter}).
+ *
+ * <pre>
+ * info log                                 number of confs and min energy
+ * lowest log numConfs [energyWindow]       print the lowest-energy confs as text
+ * merge outLog energyWindow inLog ...      merge logs, keeping confs in the window (use "inf" for all)
+ * </pre>
+ */
+public class ConfLogTool {
+
+	public static void main(String[] args) {
+
+		if (args.length < 2) {
+			printUsage();
+			return;
+		}
+
+		String command = args[0];
+		if (command.equalsIgnoreCase("info")) {
+
+			try (ConfLogReader reader = new ConfLogReader(args[1])) {
+				System.out.println(String.format("%s: %d positions, %d confs, min energy %.6f%s",
+					reader.file, reader.numPos, reader.getNumConfs(), reader.getMinEnergy(),
+					reader.hasIndex() ? "" : " (no index, log wasn't closed)"
+				));
+			}
+
+		} else if (command.equalsIgnoreCase("lowest") && args.length >= 3) {
+
+			int numConfs = Integer.parseInt(args[2]);
+			try (ConfLogReader reader = new ConfLogReader(args[1])) {
+				double maxEnergy = Double.POSITIVE_INFINITY;
+				if (args.length >= 4) {
+					maxEnergy = reader.getMinEnergy() + Double.parseDouble(args[3]);
+				}
+				int i = 0;
+				for (EnergiedConf conf : reader.readLowestEnergies(numConfs, maxEnergy)) {
+					StringBuilder buf = new StringBuilder();
+					buf.append(i++);
+					buf.append(" CONF:");
+					for (int rc : conf.getAssignments()) {
+						buf.append(" ");
+						buf.append(rc);
+					}
+					buf.append(String.format(" Score: %.6f Energy: %.6f", conf.getScore(), conf.getEnergy()));
+					System.out.println(buf);
+				}
+			}
+
+		} else if (command.equalsIgnoreCase("merge") && args.length >= 4) {
+
+			double energyWindow = Double.parseDouble(args[2].replace("inf", "Infinity"));
+			List<File> inFiles = new ArrayList<>();
+			for (int i=3; i<args.length; i++) {
+				inFiles.add(new File(args[i]));
+			}
+			long numConfs = ConfLogWriter.merge(new File(args[1]), inFiles, energyWindow);
+			System.out.println(String.format("merged %d confs into %s", numConfs, args[1]));
+
+		} else {
+			printUsage();
+		}
+	}
+
+	private static void printUsage() {
+		System.out.println("usage:");
+		System.out.println("\tinfo log");
+		System.out.println("\tlowest log numConfs [energyWindow]");
+		System.out.println("\tmerge outLog energyWindow inLog ...");
+	}
+}
@@ -0,0 +1,233 @@
+package edu.duke.cs.osprey.control;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import edu.duke.cs.osprey.confspace.ConfSearch.EnergiedConf;
+
+/**
+ * Streams minimized conformations to a compact binary log, so huge energy windows
+ * can be enumerated without holding every conformation in memory, or formatting it as text.
+ *
+ * Log file layout (big-endian, see {@link DataOutputStream}):
+ * <pre>
+ * header:  int magic, int version, int numPos
+ * records: numPos x unsigned short RC, double score, double energy, unsigned short numDofs, numDofs x double
+ * </pre>
+ *
+ * When the log is closed, an index is written next to it (same name plus {@link #IndexSuffix}) with
+ * the number of records, the min energy, and the file offset of every {@link #IndexInterval}th record,
+ * so readers can seek and skip scans. Records are flushed to disk in batches, and readers ignore
+ * a truncated last record, so the log is still readable (without the index) after a crash.
+ */
+public class ConfLogWriter {
+
+	public static final int Magic = 0x4f53434c; // "OSCL"
+	public static final int IndexMagic = 0x4f534349; // "OSCI"
+	public static final int Version = 1;
+	public static final int HeaderSize = 12;
+	public static final String IndexSuffix = ".idx";
+	public static final int IndexInterval = 1024;
+
+	// the biggest number we can fit in an unsigned short
+	public static final int MaxValue = 0xffff;
+
+	// how many records to buffer before flushing to disk
+	private static final int FlushInterval = 1024;
+
+	public final File file;
+	public final int numPos;
+
+	private DataOutputStream out;
+	private long offset;
+	private long numConfs;
+	private double minEnergy;
+	private List<Long> indexOffsets;
+
+	public ConfLogWriter(String path, int numPos) {
+		this(new File(path), numPos);
+	}
+
+	public ConfLogWriter(File file, int numPos) {
+
+		this.file = file;
+		this.numPos = numPos;
+
+		try {
+			out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+			out.writeInt(Magic);
+			out.writeInt(Version);
+			out.writeInt(numPos);
+			out.flush();
+		} catch (IOException ex) {
+			throw new RuntimeException("ERROR: can't open conf log: " + file, ex);
+		}
+
+		offset = HeaderSize;
+		numConfs = 0;
+		minEnergy = Double.POSITIVE_INFINITY;
+		indexOffsets = new ArrayList<>();
+
+		// don't leave a stale index from an earlier run next to the new log
+		getIndexFile(file).delete();
+	}
+
+	public static File getIndexFile(File file) {
+		return new File(file.getPath() + IndexSuffix);
+	}
+
+	public synchronized long getNumConfs() {
+		return numConfs;
+	}
+
+	public synchronized double getMinEnergy() {
+		return minEnergy;
+	}
+
+	public void write(EnergiedConf conf) {
+		write(conf.getAssignments(), conf.getScore(), conf.getEnergy(), null);
+	}
+
+	public void write(EnergiedConf conf, double[] dofs) {
+		write(conf.getAssignments(), conf.getScore(), conf.getEnergy(), dofs);
+	}
+
+	public synchronized void write(int[] assignments, double score, double energy, double[] dofs) {
+
+		if (out == null) {
+			throw new IllegalStateException("conf log is already closed");
+		}
+		if (assignments.length != numPos) {
+			throw new IllegalArgumentException("conf has " + assignments.length + " positions, but the log has " + numPos);
+		}
+		int numDofs = dofs == null ? 0 : dofs.length;
+		if (numDofs > MaxValue) {
+			throw new IllegalArgumentException("too many DOFs for the conf log: " + numDofs);
+		}
+
+		if (numConfs % IndexInterval == 0) {
+			indexOffsets.add(offset);
+		}
+
+		try {
+			for (int rc : assignments) {
+				if (rc < 0 || rc > MaxValue) {
+					throw new IllegalArgumentException("RC " + rc + " doesn't fit in the conf log");
+				}
+				out.writeShort(rc);
+			}
+			out.writeDouble(score);
+			out.writeDouble(energy);
+			out.writeShort(numDofs);
+			for (int i=0; i<numDofs; i++) {
+				out.writeDouble(dofs[i]);
+			}
+		} catch (IOException ex) {
+			throw new RuntimeException("ERROR: can't write to conf log: " + file, ex);
+		}
+
+		offset += getRecordSize(numPos, numDofs);
+		numConfs++;
+		minEnergy = Math.min(minEnergy, energy);
+
+		if (numConfs % FlushInterval == 0) {
+			flush();
+		}
+	}
+
+	public synchronized void flush() {
+		try {
+			if (out != null) {
+				out.flush();
+			}
+		} catch (IOException ex) {
+			throw new RuntimeException("ERROR: can't write to conf log: " + file, ex);
+		}
+	}
+
+	public synchronized void close() {
+
+		if (out == null) {
+			return;
+		}
+
+		try {
+			out.close();
+			out = null;
+
+			// write the index
+			try (DataOutputStream indexOut = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(getIndexFile(file))))) {
+				indexOut.writeInt(IndexMagic);
+				indexOut.writeInt(Version);
+				indexOut.writeInt(numPos);
+				indexOut.writeLong(numConfs);
+				indexOut.writeDouble(minEnergy);
+				indexOut.writeInt(IndexInterval);
+				indexOut.writeInt(indexOffsets.size());
+				for (long indexOffset : indexOffsets) {
+					indexOut.writeLong(indexOffset);
+				}
+			}
+
+		} catch (IOException ex) {
+			throw new RuntimeException("ERROR: can't close conf log: " + file, ex);
+		}
+	}
+
+	public static long getRecordSize(int numPos, int numDofs) {
+		return numPos*2 + 8 + 8 + 2 + numDofs*8;
+	}
+
+	/**
+	 * Streams all the confs in the input logs into one output log, keeping only confs
+	 * within the energy window above the lowest energy in any of the inputs.
+	 * Use {@link Double#POSITIVE_INFINITY} for the window to keep everything.
+	 *
+	 * @return the number of confs written
+	 */
+	public static long merge(File outFile, List<File> inFiles, double energyWindow) {
+
+		if (inFiles.isEmpty()) {
+			throw new IllegalArgumentException("no conf logs to merge");
+		}
+
+		// first pass: get the min energy, from the indices if we can
+		int numPos = -1;
+		double minEnergy = Double.POSITIVE_INFINITY;
+		for (File inFile : inFiles) {
+			try (ConfLogReader reader = new ConfLogReader(inFile)) {
+				if (numPos < 0) {
+					numPos = reader.numPos;
+				} else if (reader.numPos != numPos) {
+					throw new IllegalArgumentException("can't merge conf logs with different numbers of positions: " + inFile);
+				}
+				if (Double.isFinite(energyWindow)) {
+					minEnergy = Math.min(minEnergy, reader.getMinEnergy());
+				}
+			}
+		}
+		double maxEnergy = minEnergy + energyWindow;
+
+		// second pass: copy the records
+		ConfLogWriter writer = new ConfLogWriter(outFile, numPos);
+		try {
+			for (File inFile : inFiles) {
+				try (ConfLogReader reader = new ConfLogReader(inFile)) {
+					for (ConfLogReader.Record record = reader.next(); record != null; record = reader.next()) {
+						if (record.energy <= maxEnergy) {
+							writer.write(record.assignments, record.score, record.energy, record.dofs);
+						}
+					}
+				}
+			}
+		} finally {
+			writer.close();
+		}
+		return writer.getNumConfs();
+	}
+}
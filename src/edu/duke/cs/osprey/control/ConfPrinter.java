@@ -34,12 +34,18 @@ public class ConfPrinter {
     
     ConfPrinter(SearchProblem searchProb, String confFileName, boolean printEPICEnergy){
         //open (for writing) a file to record conformations in
+        //or just make reports if confFileName is null
         searchSpace = searchProb;
         this.confFileName = confFileName;
         this.numConfs = 0;
         this.minEnergy = Double.POSITIVE_INFINITY;
         this.printEPICEnergy = printEPICEnergy;
         
+        if (confFileName == null) {
+            confFileHandle = null;
+            return;
+        }
+        
         try {
             // NOTE: don't use buffered writers here
             // we want to flush writes to disk ASAP so we keep as much info as
@@ -127,6 +133,10 @@ public class ConfPrinter {
     
     public void printConf(EnergiedConf conf){
         
+        if (confFileHandle == null) {
+            return;
+        }
+        
         try {
         	
             confFileHandle.write((numConfs++) + " CONF: ");
@@ -171,6 +181,10 @@ public class ConfPrinter {
     void closeConfFile(){
         //close it
         
+        if (confFileHandle == null) {
+            return;
+        }
+        
         try {
             confFileHandle.close();
         }
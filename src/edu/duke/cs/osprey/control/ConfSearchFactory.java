@@ -1,11 +1,16 @@
 package edu.duke.cs.osprey.control;
 
+import java.io.File;
+
 import edu.duke.cs.osprey.astar.ConfTree;
 import edu.duke.cs.osprey.astar.conf.ConfAStarTree;
 import edu.duke.cs.osprey.astar.conf.RCs;
 import edu.duke.cs.osprey.astar.conf.order.AStarOrder;
 import edu.duke.cs.osprey.astar.conf.order.DynamicHMeanAStarOrder;
 import edu.duke.cs.osprey.astar.conf.order.StaticScoreHMeanAStarOrder;
+import edu.duke.cs.osprey.astar.conf.queue.ObjectConfAStarQueue;
+import edu.duke.cs.osprey.astar.conf.queue.PackedConfAStarQueue;
+import edu.duke.cs.osprey.astar.conf.queue.SpillingConfAStarQueue;
 import edu.duke.cs.osprey.astar.conf.scoring.AStarScorer;
 import edu.duke.cs.osprey.astar.conf.scoring.MPLPPairwiseHScorer;
 import edu.duke.cs.osprey.astar.conf.scoring.PairwiseGScorer;
@@ -86,6 +91,21 @@ public interface ConfSearchFactory {
 					// init the A* tree
 					ConfAStarTree tree = new ConfAStarTree(order, gscorer, hscorer, rcs);
 					tree.setParallelism(Parallelism.makeCpu(cfp.getParams().getInt("AStarThreads")));
+					tree.setBatchSize(cfp.getParams().getInt("AStarBatchSize", 1));
+					String queueType = cfp.getParams().getValue("AStarQueue", "object");
+					if (queueType.equalsIgnoreCase("object")) {
+						tree.setQueue(new ObjectConfAStarQueue());
+					} else if (queueType.equalsIgnoreCase("packed")) {
+						tree.setQueue(new PackedConfAStarQueue());
+					} else if (queueType.equalsIgnoreCase("spill")) {
+						String spillDir = cfp.getParams().getValue("AStarQueueSpillDir", "");
+						tree.setQueue(SpillingConfAStarQueue.makeWithBudget(
+							cfp.getParams().getInt("AStarQueueMemoryMB", 1024)*1024L*1024L,
+							spillDir.isEmpty() ? null : new File(spillDir)
+						));
+					} else {
+						throw new RuntimeException("ERROR: unrecognized AStarQueue: " + queueType + " (should be object, packed, or spill)");
+					}
 					tree.initProgress();
 					return tree;
 				}
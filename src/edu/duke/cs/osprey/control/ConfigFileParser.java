@@ -170,6 +170,8 @@ public class ConfigFileParser {
         );
         
         search.numEmatThreads = params.getInt("EmatThreads");
+        search.mapEnergyMatrix = params.getBool("MapEmat");
+        search.checkpointEnergyMatrix = params.getBool("EmatCheckpoint");
         
         return search;
     }
@@ -351,6 +353,10 @@ public class ConfigFileParser {
 		params.getDouble("SOLVSCALE"),
                 params.getBool("HELECT"),
                 params.getBool("HVDW") );
+        curForcefieldParams.nonbondedCutoff = params.getDouble("FORCEFIELDCUTOFF");
+        curForcefieldParams.nonbondedSwitchWidth = params.getDouble("FORCEFIELDSWITCHWIDTH");
+        curForcefieldParams.neighborListSkin = params.getDouble("FORCEFIELDCUTOFFSKIN");
+        curForcefieldParams.incrementalEnergies = params.getBool("FORCEFIELDINCREMENTAL");
         
         
         EnvironmentVars.curEFcnGenerator = new EnergyFunctionGenerator( 
@@ -2,7 +2,7 @@ package edu.duke.cs.osprey.control;
 
 public class EnergyWindow {
 	
-	private double min;
+	private volatile double min; // read by the enumerating thread while the energy listener updates it
 	private double size;
 	
 	public EnergyWindow(double energy, double size) {
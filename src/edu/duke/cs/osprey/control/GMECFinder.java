@@ -20,6 +20,7 @@ import edu.duke.cs.osprey.confspace.ConfSearch.ScoredConf;
 import edu.duke.cs.osprey.confspace.SearchProblem;
 import edu.duke.cs.osprey.energy.forcefield.BigForcefieldEnergy;
 import edu.duke.cs.osprey.energy.forcefield.ForcefieldParams;
+import edu.duke.cs.osprey.minimization.WarmStartCache;
 import edu.duke.cs.osprey.parallelism.Parallelism;
 import edu.duke.cs.osprey.partcr.PartCRConfPruner;
 import edu.duke.cs.osprey.pruning.Pruner;
@@ -74,6 +75,7 @@ public class GMECFinder {
     boolean EFullConfOnly = false;//energy function only can be evaluated for full conf
     
     private String confFileName;//file to which we write conformations
+    private String confLogFileName;//binary conformation log, or null to write text to confFileName
     
     private double stericThresh;
     private boolean logConfsToConsole;
@@ -89,6 +91,7 @@ public class GMECFinder {
     
         // Jeff: I think is a good place to set default values
         logConfsToConsole = true;
+        confLogFileName = null;
         confPruner = null;
         ecalc = null;
         
@@ -166,6 +169,9 @@ public class GMECFinder {
         EFullConfOnly = cfp.params.getBool("UsePoissonBoltzmann");
         
         confFileName = cfp.params.getRunSpecificFileName("CONFFILENAME", ".confs.txt");
+        if (cfp.params.getBool("BinaryConfLog")) {
+            confLogFileName = cfp.params.getRunSpecificFileName("CONFLOGFILENAME", ".confs.bin");
+        }
         
         numConfsToScore = cfp.params.getInt("NumConfsToScore");
         
@@ -233,7 +239,16 @@ public class GMECFinder {
 					// for "regular" conf minimization, use the spiffy new ConfMinimizer!
 					ForcefieldParams ffparams = EnvironmentVars.curEFcnGenerator.ffParams;
 					Parallelism parallelism = Parallelism.makeFromConfig(cfp);
-					ecalc = MinimizingEnergyCalculator.make(ffparams, search, parallelism);
+					MinimizingEnergyCalculator minimizingEcalc = MinimizingEnergyCalculator.make(ffparams, search, parallelism);
+					if (cfp.params.getBool("MinimizationWarmStart")) {
+						if (minimizingEcalc.canWarmStart()) {
+							System.out.println("WARNING: warm-started minimized energies can be a few tenths of a kcal/mol higher than cold starts");
+							minimizingEcalc.setWarmStartCache(new WarmStartCache(search.confSpace));
+						} else {
+							System.out.println("WARNING: MinimizationWarmStart is ignored, MPI minimizations can't be warm started");
+						}
+					}
+					ecalc = minimizingEcalc;
 				}
 			}
 			
@@ -257,6 +272,15 @@ public class GMECFinder {
         confPruner = val;
     }
     
+    /**
+     * Stream energied conformations to a binary log (see {@link ConfLogWriter}) instead of the text conf file.
+     * Only the conformations that can still be in the energy window are kept in memory.
+     * Use null to go back to the text conf file.
+     */
+    public void setConfLogFileName(String val) {
+        confLogFileName = val;
+    }
+    
     public List<EnergiedConf> calcGMEC(){
         return calcGMEC(I0);
     }
@@ -270,7 +294,11 @@ public class GMECFinder {
         System.out.println("Calculating GMEC with interval = " + interval);
         
         boolean printEPICEnergy = checkApproxE && useEPIC && useTupExp;
-        ConfPrinter confPrinter = new ConfPrinter(searchSpace, confFileName, printEPICEnergy);
+        ConfPrinter confPrinter = new ConfPrinter(searchSpace, confLogFileName == null ? confFileName : null, printEPICEnergy);
+        ConfLogWriter confLog = null;
+        if (confLogFileName != null) {
+            confLog = new ConfLogWriter(confLogFileName, searchSpace.confSpace.numPos);
+        }
         
         // 11/11/2015 JJ: This logic belongs out here. A function that does nothing if a flag is false should 
         // have its flag promoted outside of the function, unless it's used multiple times. In that case
@@ -297,6 +325,7 @@ public class GMECFinder {
             
             // no confs in the search space, can't recover, just bail
             System.out.println("All conformations pruned. Try choosing a larger pruning interval or steric threshold.");
+            closeConfLog(confLog);
             return new ArrayList<>();
         }
         System.out.println("Found min score conformation in " + minScoreStopwatch.getTime(1));
@@ -304,17 +333,161 @@ public class GMECFinder {
         // evaluate the min score conf
         System.out.println("Computing energy...");
         EnergiedConf eMinScoreConf = ecalc.calcEnergy(minScoreConf);
-        confPrinter.printConf(eMinScoreConf);
+        printConf(confPrinter, confLog, eMinScoreConf);
         System.out.println("\nMIN SCORE CONFORMATION");
         System.out.print(confPrinter.getConfReport(eMinScoreConf));
-        List<EnergiedConf> econfs = new ArrayList<>();
-        econfs.add(eMinScoreConf);
+        final List<EnergiedConf> econfs = new ArrayList<>();
+        if (confLog == null) {
+            econfs.add(eMinScoreConf);
+        }
+        
+        // when streaming to a conf log, the lowest energy conf is the only energied conf we keep in memory
+        // the rest of the energy window gets read back from the log at the end
+        final LowestConf lowestConf = new LowestConf(eMinScoreConf);
         
         // estimate the top of our energy window
         // this is an upper bound for now, we'll refine it as we evaluate more structures
         final EnergyWindow window = new EnergyWindow(eMinScoreConf.getEnergy(), Ew);
         setWindowProgress(confSearch, window);
         
+        // the conf pruner needs all the low-scoring confs at once, so it can't stream
+        if (confLog != null && confPruner == null) {
+            
+            streamEnergiedConfs(confSearch, lowestConf, confPrinter, confLog, window);
+            
+        } else {
+            
+            enumerateEnergiedConfs(confSearch, minScoreConf, econfs, lowestConf, confPrinter, confLog, window);
+        }
+        
+        closeConfLog(confLog);
+		
+        // sort all the confs by energy
+        Collections.sort(econfs, new Comparator<EnergiedConf>() {
+                @Override
+                public int compare(EnergiedConf a, EnergiedConf b) {
+                        return Double.compare(a.getEnergy(), b.getEnergy());
+                }
+        });
+        
+        // get the min energy conf
+        EnergiedConf minEnergyConf = lowestConf.get();
+        
+        if(doIMinDEE){//iMinDEE...figure out if a second round is needed
+            
+            //compute the lowest lower-bound on a conformation
+            // if we're using epic or tuple expansion, we need to compute the min bound using the energy matrix
+            // otherwise, our pruning interval estimate will be wrong
+            if ((useEPIC||useTupExp))//enumeration is by approximated energy...calculate lower bound separately
+                lowestBound = lowestPairwiseBound(searchSpace);
+            else//enumeration is by lower bound, so use that
+                lowestBound = minScoreConf.getScore();
+        
+            // could the minGMEC have been pruned due to a pruning interval that's too small?
+            if (minEnergyConf.getEnergy() > lowestBound + interval) {
+
+                // yeah, it could have been. we can't prove minEnergyConf is the minGMEC
+                // we have to pick a new interval and try again
+                System.out.println("Pruning interval is too small. minGMEC could have been pruned.");
+                System.out.println("Will estimate new interval based on conformations evaluated so far and restart");
+
+
+                double nextInterval = minEnergyConf.getEnergy() - lowestBound;
+
+                // pad the new interval a bit to avoid numerical instability
+                double intervalPad = 0.001;
+                if(searchSpace.useVoxelG)//GMEC energy has statistical error (~0.1 kcal/mol maybe)
+                    intervalPad = 0.2;
+                nextInterval += intervalPad;
+
+                return calcGMEC(nextInterval);
+            }
+        }
+        
+        // we didn't prune it! minEnergyConf is the minGMEC!! =)
+        EnergiedConf minGMEC = minEnergyConf;
+        System.out.println(String.format("\nFound minGMEC!"));
+        System.out.print(confPrinter.getConfReport(minGMEC));
+        if (outputGMECStruct) {
+            searchSpace.outputMinimizedStruct(minGMEC.getAssignments(), searchSpace.name + ".GMEC.pdb");
+        }
+        
+        // prune all confs outside the energy window and return them
+        List<EnergiedConf> windowConfs;
+        if (confLog != null) {
+            
+            // stream the log back, keeping only the confs in the final window
+            try (ConfLogReader reader = new ConfLogReader(confLog.file)) {
+                windowConfs = reader.readLowestEnergies(Integer.MAX_VALUE, minGMEC.getEnergy() + Ew);
+            }
+            
+        } else {
+            
+            windowConfs = econfs;
+            Iterator<EnergiedConf> iter = windowConfs.iterator();
+            while (iter.hasNext()) {
+                EnergiedConf econf = iter.next();
+                if (econf.getEnergy() > minGMEC.getEnergy() + Ew) {
+                    iter.remove();
+                }
+            }
+        }
+        
+        if (Ew > 0) {
+            System.out.println(String.format("Also found %d more conformations in energy window", windowConfs.size() - 1));
+        }
+        
+        ecalc.cleanup();//Clean up once both rounds of iMinDEE (if applicable) are done
+        return windowConfs;
+    }
+    
+    private static class LowestConf {
+        
+        private EnergiedConf conf;
+        
+        public LowestConf(EnergiedConf conf) {
+            this.conf = conf;
+        }
+        
+        public void update(EnergiedConf econf) {
+            if (econf.getEnergy() < conf.getEnergy()) {
+                conf = econf;
+            }
+        }
+        
+        public EnergiedConf get() {
+            return conf;
+        }
+    }
+    
+    private void handleEnergiedConf(List<EnergiedConf> econfs, LowestConf lowestConf, ConfPrinter confPrinter, ConfLogWriter confLog, EnergyWindow window, EnergiedConf econf) {
+        
+        // when streaming to a conf log, the log has everything, so don't keep the conf in memory too
+        if (confLog == null) {
+            econfs.add(econf);
+        }
+        lowestConf.update(econf);
+        
+        // immediately output the conf, in case the run aborts and we want to resume later
+        printConf(confPrinter, confLog, econf);
+
+        // log the conf to console if desired
+        if (logConfsToConsole) {
+            System.out.println("\nENUMERATING CONFORMATION");
+            System.out.print(confPrinter.getConfReport(econf, window));
+        }
+    }
+
+    private void printConf(ConfPrinter confPrinter, ConfLogWriter confLog, EnergiedConf econf) {
+        if (confLog != null) {
+            confLog.write(econf);
+        } else {
+            confPrinter.printConf(econf);
+        }
+    }
+    
+    private void enumerateEnergiedConfs(ConfSearch confSearch, ScoredConf minScoreConf, List<EnergiedConf> econfs, LowestConf lowestConf, ConfPrinter confPrinter, ConfLogWriter confLog, EnergyWindow window) {
+        
         // enumerate all confs in order of the scores, up to the estimate of the top of the energy window
         System.out.println("Enumerating other low-scoring conformations...");
         List<ScoredConf> lowEnergyConfs = new ArrayList<>();
@@ -322,7 +495,7 @@ public class GMECFinder {
         lowEnergyConfs.add(minScoreConf);
         int indexToMinimizeNext = 1;
         while (true) {
-            
+        
             ScoredConf conf = confSearch.nextConf();
             if (conf == null) {
                 break;
@@ -331,27 +504,28 @@ public class GMECFinder {
             if (conf.getScore() >= window.getMax()) {
                 break;
             }
-            
+        
             // if we've been enumerating confs for a while, try a minimization to see if we get a smaller window
             if (stopwatch.getTimeS() >= 10) {
                 stopwatch.stop();
-                
+            
                 // save the conf and the energy for later
                 EnergiedConf econf = ecalc.calcEnergy(lowEnergyConfs.get(indexToMinimizeNext++));
-                handleEnergiedConf(econfs, confPrinter, window, econf);
-                
+                handleEnergiedConf(econfs, lowestConf, confPrinter, confLog, window, econf);
+            
                 boolean changed = window.update(econf.getEnergy());
                 if (changed) {
                     System.out.println(String.format("Lower conformation energy updated energy window! remaining: %14.8f", window.getMax() - conf.getScore()));
                     setWindowProgress(confSearch, window);
                 }
-                
+            
                 stopwatch.start();
             }
         }
         System.out.println(String.format("\tFound %d more", lowEnergyConfs.size() - 1));
-        
+    
         // we're done with A*, release the tree so we can get the memory back
+        // (the caller doesn't use it again either)
         confSearch = null;
 
         if (!lowEnergyConfs.isEmpty()) {
@@ -371,13 +545,12 @@ public class GMECFinder {
                         @Override
                         public void onEnergy(EnergiedConf econf) {
 
-                                handleEnergiedConf(econfs, confPrinter, window, econf);
+                                handleEnergiedConf(econfs, lowestConf, confPrinter, confLog, window, econf);
                                 progress.incrementProgress();
 
                                 // refine the estimate of the top of the energy window
                                 boolean changed = window.update(econf.getEnergy());
                                 if (changed) {
-
                                         // prune conformations with the new window
                                         for (int i=lowEnergyConfs.size()-1; i>=0; i--) {
                                                 if (lowEnergyConfs.get(i).getScore() > window.getMax()) {
@@ -402,88 +575,53 @@ public class GMECFinder {
                 }
                 ecalc.waitForFinish();
         }
-		
-        // sort all the confs by energy
-        Collections.sort(econfs, new Comparator<EnergiedConf>() {
-                @Override
-                public int compare(EnergiedConf a, EnergiedConf b) {
-                        return Double.compare(a.getEnergy(), b.getEnergy());
-                }
-        });
+    }
+    
+    private void streamEnergiedConfs(ConfSearch confSearch, LowestConf lowestConf, ConfPrinter confPrinter, ConfLogWriter confLog, EnergyWindow window) {
         
-        // get the min energy conf
-        EnergiedConf minEnergyConf = econfs.get(0);
+        // what to do when we get a conf energy?
+        ConfEnergyCalculator.Async.Listener ecalcListener = new ConfEnergyCalculator.Async.Listener() {
+            @Override
+            public void onEnergy(EnergiedConf econf) {
+                
+                handleEnergiedConf(null, lowestConf, confPrinter, confLog, window, econf);
+                
+                // refine the estimate of the top of the energy window
+                if (window.update(econf.getEnergy())) {
+                    System.out.println(String.format("\nNew lowest energy: %.6f", window.getMin()));
+                }
+            }
+        };
         
-        if(doIMinDEE){//iMinDEE...figure out if a second round is needed
+        // pull confs from A* in order of the scores and minimize them as we go, up to the top of the energy window
+        // the window shrinks while the energies come in, so check it again for every conf
+        System.out.println("Enumerating and computing energies for other low-scoring conformations...");
+        long numConfs = 0;
+        while (true) {
             
-            //compute the lowest lower-bound on a conformation
-            // if we're using epic or tuple expansion, we need to compute the min bound using the energy matrix
-            // otherwise, our pruning interval estimate will be wrong
-            if ((useEPIC||useTupExp))//enumeration is by approximated energy...calculate lower bound separately
-                lowestBound = lowestPairwiseBound(searchSpace);
-            else//enumeration is by lower bound, so use that
-                lowestBound = minScoreConf.getScore();
-        
-            // could the minGMEC have been pruned due to a pruning interval that's too small?
-            if (minEnergyConf.getEnergy() > lowestBound + interval) {
-
-                // yeah, it could have been. we can't prove minEnergyConf is the minGMEC
-                // we have to pick a new interval and try again
-                System.out.println("Pruning interval is too small. minGMEC could have been pruned.");
-                System.out.println("Will estimate new interval based on conformations evaluated so far and restart");
-
-
-                double nextInterval = minEnergyConf.getEnergy() - lowestBound;
-
-                // pad the new interval a bit to avoid numerical instability
-                double intervalPad = 0.001;
-                if(searchSpace.useVoxelG)//GMEC energy has statistical error (~0.1 kcal/mol maybe)
-                    intervalPad = 0.2;
-                nextInterval += intervalPad;
-
-                return calcGMEC(nextInterval);
+            ScoredConf conf = confSearch.nextConf();
+            if (conf == null || conf.getScore() > window.getMax()) {
+                break;
             }
-        }
-        
-        // we didn't prune it! minEnergyConf is the minGMEC!! =)
-        EnergiedConf minGMEC = minEnergyConf;
-        System.out.println(String.format("\nFound minGMEC!"));
-        System.out.print(confPrinter.getConfReport(minGMEC));
-        if (outputGMECStruct) {
-            searchSpace.outputMinimizedStruct(minGMEC.getAssignments(), searchSpace.name + ".GMEC.pdb");
-        }
-        
-        // prune all confs outside the energy window and return them
-        Iterator<EnergiedConf> iter = econfs.iterator();
-        while (iter.hasNext()) {
-            EnergiedConf econf = iter.next();
-            if (econf.getEnergy() > minGMEC.getEnergy() + Ew) {
-                iter.remove();
+            ecalc.calcEnergyAsync(conf, ecalcListener);
+            numConfs++;
+            
+            if (numConfs % 10000 == 0) {
+                System.out.println(String.format("\tEnumerated %d more, remaining: %14.8f", numConfs, window.getMax() - conf.getScore()));
+                setWindowProgress(confSearch, window);
             }
         }
-        
-        if (Ew > 0) {
-            System.out.println(String.format("Also found %d more conformations in energy window", econfs.size() - 1));
-        }
-        
-        ecalc.cleanup();//Clean up once both rounds of iMinDEE (if applicable) are done
-        return econfs;
+        ecalc.waitForFinish();
+        System.out.println(String.format("\tFound %d more", numConfs));
     }
     
-    private void handleEnergiedConf(List<EnergiedConf> econfs, ConfPrinter confPrinter, EnergyWindow window, EnergiedConf econf) {
-        
-        econfs.add(econf);
-        
-        // immediately output the conf, in case the run aborts and we want to resume later
-        confPrinter.printConf(econf);
-
-        // log the conf to console if desired
-        if (logConfsToConsole) {
-            System.out.println("\nENUMERATING CONFORMATION");
-            System.out.print(confPrinter.getConfReport(econf, window));
+    private void closeConfLog(ConfLogWriter confLog) {
+        if (confLog != null) {
+            confLog.close();
+            System.out.println(String.format("Wrote %d conformations to %s", confLog.getNumConfs(), confLog.file));
         }
     }
-
+    
     private void setWindowProgress(ConfSearch confSearch, EnergyWindow window) {
         
         // HACKHACK: set progress goal
@@ -543,6 +681,7 @@ public class GMECFinder {
 			System.out.print(confPrinter.getConfReport(eMinScoreConf));
 			List<EnergiedConf> econfs = new ArrayList<>();
 			econfs.add(eMinScoreConf);
+			final LowestConf lowestConf = new LowestConf(eMinScoreConf);
 
 			// estimate the top of our energy window
 			// this is an upper bound for now, we'll refine it as we evaluate more structures
@@ -575,7 +714,7 @@ public class GMECFinder {
 	                
 	                // save the conf and the energy for later
 	                EnergiedConf econf = ecalc.calcEnergy(lowEnergyConfs.get(indexToMinimizeNext++));
-	                handleEnergiedConf(econfs, confPrinter, window, econf);
+	                handleEnergiedConf(econfs, lowestConf, confPrinter, null, window, econf);
 	                
 	                boolean changed = window.update(econf.getEnergy());
 	                if (changed) {
@@ -603,7 +742,7 @@ public class GMECFinder {
                         @Override
                         public void onEnergy(EnergiedConf econf) {
 
-                                handleEnergiedConf(econfs, confPrinter, window, econf);
+                                handleEnergiedConf(econfs, lowestConf, confPrinter, null, window, econf);
                                 progress.incrementProgress();
 
                                 /*
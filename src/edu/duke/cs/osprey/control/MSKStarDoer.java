@@ -21,6 +21,7 @@ import edu.duke.cs.osprey.multistatekstar.MSKStarFactory;
 import edu.duke.cs.osprey.multistatekstar.MSKStarTree;
 import edu.duke.cs.osprey.multistatekstar.MSSearchProblem;
 import edu.duke.cs.osprey.multistatekstar.MSSearchSettings;
+import edu.duke.cs.osprey.multistatekstar.PartitionFunctionCache;
 import edu.duke.cs.osprey.multistatekstar.PartitionFunctionMinimized;
 import edu.duke.cs.osprey.multistatekstar.KStarScore.KStarScoreType;
 import edu.duke.cs.osprey.parallelism.Parallelism;
@@ -61,6 +62,8 @@ public class MSKStarDoer {
 	ConfEnergyCalculator.Async[][] ecalcsCont;//global continuous energy calculator objects
 	ConfEnergyCalculator.Async[][] ecalcsDisc;//global discrete energy calculator objects
 
+	PartitionFunctionCache pfCache;//shares minimized partition functions between K* scores, null means don't share
+
 	public MSKStarDoer(String args[]) {
 
 		// silence warnings when using non-amino acids
@@ -260,7 +263,8 @@ public class MSKStarDoer {
 		KStarScore score = MSKStarFactory.makeKStarScore(
 				msParams, state, cfps[state], sConstr[state],
 				singleSeqSearchCont, singleSeqSearchDisc,
-				ecalcsCont[state], ecalcsDisc[state], scoreType
+				ecalcsCont[state], ecalcsDisc[state], scoreType,
+				pfCache
 				);
 		score.compute(Integer.MAX_VALUE);
 		return score.toString();
@@ -435,6 +439,8 @@ public class MSKStarDoer {
 
 	public void calcBestSequences() {
 		PartitionFunctionMinimized.SYNCHRONIZED_MINIMIZATION = this.msParams.getBool("SYNCHRONIZEDMINIMIZATION");
+		long pfCacheMB = msParams.getInt("PARTITIONFUNCTIONCACHEMEMORYMB");
+		pfCache = pfCacheMB > 0 ? new PartitionFunctionCache(pfCacheMB*1024L*1024L) : null;
 		final String algOption = msParams.getValue("MultStateAlgOption");
 		switch(algOption.toLowerCase()) {
 		case "exhaustive":
@@ -464,7 +470,7 @@ public class MSKStarDoer {
 
 		tree = new MSKStarTree(numMutRes, numStates, numMaxMut, numSeqsWanted, objFcn, 
 				msConstr, sConstr, state2MutableResNums, AATypeOptions, wtSeqs, 
-				searchCont, searchDisc, ecalcsCont, ecalcsDisc, msParams, cfps);
+				searchCont, searchDisc, ecalcsCont, ecalcsDisc, msParams, cfps, pfCache);
 
 		ArrayList<String> bestSequences = new ArrayList<>();
 		String fname = "sequences-sublinear."+msParams.getValue("RUNNAME")+".txt";
@@ -5,11 +5,13 @@
 package edu.duke.cs.osprey.control;
 
 import edu.duke.cs.osprey.energy.LigandResEnergies;
+import java.io.File;
 import java.util.HashMap;
 import java.util.Map;
 import edu.duke.cs.osprey.energy.MultiTermEnergyFunction;
 import edu.duke.cs.osprey.energy.forcefield.BigForcefieldEnergy;
 import edu.duke.cs.osprey.energy.forcefield.ForcefieldParams;
+import edu.duke.cs.osprey.handlempi.MPIMaster;
 import edu.duke.cs.osprey.kstar.KSConfigFileParser;
 import edu.duke.cs.osprey.minimization.CCDMinimizer;
 import edu.duke.cs.osprey.parallelism.ThreadParallelism;
@@ -67,6 +69,9 @@ public class Main {
 		else
 			throw new RuntimeException("ERROR: OSPREY command unrecognized: "+command);
                 
+                if(EnvironmentVars.useMPI)
+                    MPIMaster.getInstance().stop();
+                
                 EnvironmentVars.closeSpecialWarningLogs();
                 
 		System.out.println("Total OSPREY execution time: " + stopwatch.getTime(2));
@@ -84,6 +89,34 @@ public class Main {
                 CCDMinimizer.numIter = cfp.params.getInt("CCDNumIter");
                 EnvironmentVars.alwaysIdealizeSidechainsAfterMutation = cfp.params.getBool("ALWAYSIDEALIZESIDECHAINSAFTERMUTATION");
                 
+		// start MPI slaves if needed
+		int numMPISlaves = cfp.params.getInt("MPISlaves");
+		int mpiPort = cfp.params.getInt("MPIPort");
+		if (numMPISlaves > 0 || mpiPort > 0) {
+			int numMPISlaveThreads = cfp.params.getInt("MPISlaveThreads");
+			MPIMaster mpi = MPIMaster.getInstance();
+			mpi.start(cfp.params.getValue("MPIHost"), mpiPort);
+			String mpiSecretFile = cfp.params.getValue("MPISecretFile");
+			if (!mpiSecretFile.equalsIgnoreCase("none")) {
+				mpi.writeSecret(new File(mpiSecretFile));
+			}
+			mpi.startLocalSlaves(numMPISlaves, numMPISlaveThreads);
+
+			// with only remote slaves, wait for at least one of them
+			int numExpected = Math.max(1, numMPISlaves*numMPISlaveThreads);
+			if (!mpi.waitForSlaves(numExpected, 60000)) {
+				System.out.println("WARNING: not all MPI slaves started, continuing with " + mpi.getNumSlaves() + " slave threads");
+			}
+
+			// the distributed calculators are only worth it if someone can help
+			if (mpi.getNumSlaves() > 0) {
+				EnvironmentVars.useMPI = true;
+			} else {
+				System.out.println("WARNING: no MPI slaves connected, running everything locally");
+				mpi.stop();
+			}
+		}
+                
 		// TODO Auto-generated method stub
 		commands = new HashMap<String, Runnable>();
 
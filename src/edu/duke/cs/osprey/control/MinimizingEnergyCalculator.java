@@ -11,11 +11,15 @@ import edu.duke.cs.osprey.ematrix.ReferenceEnergies;
 import edu.duke.cs.osprey.energy.ForcefieldInteractionsGenerator;
 import edu.duke.cs.osprey.energy.forcefield.ForcefieldInteractions;
 import edu.duke.cs.osprey.energy.forcefield.ForcefieldParams;
+import edu.duke.cs.osprey.handlempi.MPIMaster;
 import edu.duke.cs.osprey.minimization.ConfMinimizer;
 import edu.duke.cs.osprey.minimization.CpuConfMinimizer;
 import edu.duke.cs.osprey.minimization.GpuConfMinimizer;
+import edu.duke.cs.osprey.minimization.MPIConfMinimizer;
+import edu.duke.cs.osprey.minimization.WarmStartCache;
 import edu.duke.cs.osprey.parallelism.Parallelism;
 import edu.duke.cs.osprey.structure.Molecule;
+import edu.duke.cs.osprey.structure.Residue;
 import edu.duke.cs.osprey.tools.Factory;
 
 public class MinimizingEnergyCalculator implements ConfEnergyCalculator.Async {
@@ -33,19 +37,30 @@ public class MinimizingEnergyCalculator implements ConfEnergyCalculator.Async {
 		// TODO: simplify this with a unified builder that uses the new Parallelism class
 		// make the minimizer
 		ConfMinimizer minimizer;
-		switch (parallelism.type) {
-			case Cpu:
-				minimizer = new CpuConfMinimizer.Builder(ffparams, ffinteractions, search.confSpace)
-					.setNumThreads(parallelism.numThreads)
-					.build();
-			break;
-			case Gpu:
-				minimizer = new GpuConfMinimizer.Builder(ffparams, ffinteractions, search.confSpace)
-					.setGpuInfo(null, parallelism.numGpus, parallelism.numStreamsPerGpu)
-					.build();
-			break;
-			default:
-				throw new Error("unrecognized type: " + parallelism.type);
+		if (EnvironmentVars.useMPI) {
+			
+			// send the minimizations to the MPI slaves
+			// the slaves make their own interactions, so don't send them the whole search problem
+			ConfSpace confSpace = search.confSpace;
+			List<Residue> shellResidues = search.shellResidues;
+			minimizer = new MPIConfMinimizer.Builder(MPIMaster.getInstance(), ffparams, (mol) -> new ForcefieldInteractionsGenerator().makeFullConf(confSpace, shellResidues, mol), confSpace)
+				.build();
+			
+		} else {
+			switch (parallelism.type) {
+				case Cpu:
+					minimizer = new CpuConfMinimizer.Builder(ffparams, ffinteractions, search.confSpace)
+						.setNumThreads(parallelism.numThreads)
+						.build();
+				break;
+				case Gpu:
+					minimizer = new GpuConfMinimizer.Builder(ffparams, ffinteractions, search.confSpace)
+						.setGpuInfo(null, parallelism.numGpus, parallelism.numStreamsPerGpu)
+						.build();
+				break;
+				default:
+					throw new Error("unrecognized type: " + parallelism.type);
+			}
 		}
 		
 		MinimizingEnergyCalculator ecalc = new MinimizingEnergyCalculator(minimizer);
@@ -85,6 +100,14 @@ public class MinimizingEnergyCalculator implements ConfEnergyCalculator.Async {
 		this.postProcessors = new ArrayList<>();
 	}
 	
+	public boolean canWarmStart() {
+		return minimizer.canWarmStart();
+	}
+	
+	public void setWarmStartCache(WarmStartCache val) {
+		minimizer.setWarmStartCache(val);
+	}
+	
 	public void addConfPostProcessor(ConfPostProcessor val) {
 		this.postProcessors.add(val);
 	}
@@ -108,7 +131,7 @@ public class MinimizingEnergyCalculator implements ConfEnergyCalculator.Async {
 	
 	@Override
 	public void calcEnergyAsync(ScoredConf conf, Listener listener) {
-		minimizer.getAsync().minimizeAsync(conf, new ConfMinimizer.Async.Listener() {
+		minimizer.getAsync().minimizeAsync(conf, new ConfMinimizer.AsyncMinimizer.Listener() {
 			@Override
 			public void onMinimized(EnergiedConf econf) {
 				listener.onEnergy(postProcessConf(econf));
@@ -1,14 +1,147 @@
 package edu.duke.cs.osprey.ematrix;
 
+import java.io.File;
+
 import cern.colt.matrix.DoubleMatrix1D;
+import cern.colt.matrix.impl.DenseDoubleMatrix1D;
 import edu.duke.cs.osprey.confspace.ConfSpace;
+import edu.duke.cs.osprey.confspace.TupleMatrixFile;
 import edu.duke.cs.osprey.confspace.TupleMatrixGeneric;
 
 public class DofMatrix extends TupleMatrixGeneric<DoubleMatrix1D> {
 
 	private static final long serialVersionUID = 7381812984847056950L;
-	
+
+	// DOF values have different sizes, so we need a couple more sections
+	private static final int SectionOneBodySizes = 3;
+	private static final int SectionPairwiseSizes = 4;
+
 	public DofMatrix(ConfSpace cSpace) {
 		super(cSpace, 0, null);
 	}
+
+	public DofMatrix(int numPos, int[] numRCsAtPos) {
+		super(numPos, numRCsAtPos, 0, null);
+	}
+
+	//BINARY MATRIX FILES
+	//confSpaceHash identifies what the DOF values were computed for (see TupleMatrixFile.hashConfSpace()),
+	//so files computed for anything else are ignored
+
+	public void write(File file, long confSpaceHash) {
+
+		if (hasHigherOrderTerms()) {
+			throw new UnsupportedOperationException("matrix files don't support higher-order terms yet");
+		}
+
+		// flatten the values, null values have size -1
+		int numOneBody = 0;
+		int numPairwise = 0;
+		int numOneBodyValues = 0;
+		int numPairwiseValues = 0;
+		for (int res1=0; res1<getNumPos(); res1++) {
+			int n1 = getNumConfAtPos(res1);
+			for (int conf1=0; conf1<n1; conf1++) {
+				numOneBody++;
+				numOneBodyValues += size(getOneBody(res1, conf1));
+				for (int res2=0; res2<res1; res2++) {
+					int n2 = getNumConfAtPos(res2);
+					for (int conf2=0; conf2<n2; conf2++) {
+						numPairwise++;
+						numPairwiseValues += size(getPairwise(res1, conf1, res2, conf2));
+					}
+				}
+			}
+		}
+		int[] oneBodySizes = new int[numOneBody];
+		int[] pairwiseSizes = new int[numPairwise];
+		double[] oneBodyValues = new double[numOneBodyValues];
+		double[] pairwiseValues = new double[numPairwiseValues];
+		int[] indices = new int[4];
+		for (int res1=0; res1<getNumPos(); res1++) {
+			int n1 = getNumConfAtPos(res1);
+			for (int conf1=0; conf1<n1; conf1++) {
+				flatten(getOneBody(res1, conf1), oneBodySizes, oneBodyValues, indices, 0);
+				for (int res2=0; res2<res1; res2++) {
+					int n2 = getNumConfAtPos(res2);
+					for (int conf2=0; conf2<n2; conf2++) {
+						flatten(getPairwise(res1, conf1, res2, conf2), pairwiseSizes, pairwiseValues, indices, 2);
+					}
+				}
+			}
+		}
+
+		try (TupleMatrixFile.Writer out = new TupleMatrixFile.Writer(file, TupleMatrixFile.Type.Dof, confSpaceHash, this, 5)) {
+			out.writeSection(TupleMatrixFile.SectionOneBody, oneBodyValues);
+			out.writeSection(TupleMatrixFile.SectionPairwise, pairwiseValues);
+			out.writeSection(SectionOneBodySizes, oneBodySizes);
+			out.writeSection(SectionPairwiseSizes, pairwiseSizes);
+		}
+	}
+
+	private static int size(DoubleMatrix1D val) {
+		return val == null ? 0 : val.size();
+	}
+
+	private static void flatten(DoubleMatrix1D val, int[] sizes, double[] values, int[] indices, int offset) {
+		if (val == null) {
+			sizes[indices[offset]++] = -1;
+		} else {
+			sizes[indices[offset]++] = val.size();
+			for (int i=0; i<val.size(); i++) {
+				values[indices[offset + 1]++] = val.get(i);
+			}
+		}
+	}
+
+	/**
+	 * returns null if the file doesn't exist or was computed for a different conf space
+	 */
+	public static DofMatrix read(File file, long confSpaceHash) {
+		try (TupleMatrixFile.Reader in = TupleMatrixFile.open(file, TupleMatrixFile.Type.Dof, confSpaceHash)) {
+
+			if (in == null) {
+				return null;
+			}
+
+			DofMatrix dofmat = new DofMatrix(in.numPos, in.numConfAtPos);
+
+			int[] oneBodySizes = new int[(int)(in.getSectionSize(SectionOneBodySizes)/4)];
+			int[] pairwiseSizes = new int[(int)(in.getSectionSize(SectionPairwiseSizes)/4)];
+			double[] oneBodyValues = new double[(int)(in.getSectionSize(TupleMatrixFile.SectionOneBody)/8)];
+			double[] pairwiseValues = new double[(int)(in.getSectionSize(TupleMatrixFile.SectionPairwise)/8)];
+			in.readSection(SectionOneBodySizes, oneBodySizes);
+			in.readSection(SectionPairwiseSizes, pairwiseSizes);
+			in.readSection(TupleMatrixFile.SectionOneBody, oneBodyValues);
+			in.readSection(TupleMatrixFile.SectionPairwise, pairwiseValues);
+
+			int[] indices = new int[4];
+			for (int res1=0; res1<dofmat.getNumPos(); res1++) {
+				int n1 = dofmat.getNumConfAtPos(res1);
+				for (int conf1=0; conf1<n1; conf1++) {
+					dofmat.setOneBody(res1, conf1, unflatten(oneBodySizes, oneBodyValues, indices, 0));
+					for (int res2=0; res2<res1; res2++) {
+						int n2 = dofmat.getNumConfAtPos(res2);
+						for (int conf2=0; conf2<n2; conf2++) {
+							dofmat.setPairwise(res1, conf1, res2, conf2, unflatten(pairwiseSizes, pairwiseValues, indices, 2));
+						}
+					}
+				}
+			}
+
+			return dofmat;
+		}
+	}
+
+	private static DoubleMatrix1D unflatten(int[] sizes, double[] values, int[] indices, int offset) {
+		int size = sizes[indices[offset]++];
+		if (size < 0) {
+			return null;
+		}
+		DoubleMatrix1D val = new DenseDoubleMatrix1D(size);
+		for (int i=0; i<size; i++) {
+			val.set(i, values[indices[offset + 1]++]);
+		}
+		return val;
+	}
 }
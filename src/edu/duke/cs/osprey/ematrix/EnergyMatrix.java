@@ -4,12 +4,20 @@
  */
 package edu.duke.cs.osprey.ematrix;
 
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Map;
+import java.util.TreeMap;
 
 import edu.duke.cs.osprey.confspace.ConfSpace;
 import edu.duke.cs.osprey.confspace.HigherTupleFinder;
+import edu.duke.cs.osprey.confspace.IntRCTuple;
 import edu.duke.cs.osprey.confspace.RCTuple;
 import edu.duke.cs.osprey.confspace.TupleMatrixDouble;
+import edu.duke.cs.osprey.confspace.TupleMatrixFile;
 
 /**
  *
@@ -41,6 +49,7 @@ public class EnergyMatrix extends TupleMatrixDouble {
     public EnergyMatrix(EnergyMatrix other) {
     	super(other);
     	this.constTerm = other.constTerm;
+    	this.eRefMat = other.eRefMat;
     }
     
     
@@ -86,10 +95,64 @@ public class EnergyMatrix extends TupleMatrixDouble {
     public double confE(int conf[]){
         //value of energy represented in energy matrix, for specified conformation
         //expressed as residue-specific RC indices (as in the storage matrices)
+    	
+    	// OPTIMIZATION: without higher-order terms, we don't need a tuple at all
+    	if (!hasHigherOrderTerms()) {
+    		
+    		double energy = 0;
+    		for (int pos1=0; pos1<conf.length; pos1++) {
+    			int rc1 = conf[pos1];
+    			if (rc1 >= 0) {
+    				energy += getOneBodyD(pos1, rc1);
+    			}
+    		}
+    		for (int pos1=0; pos1<conf.length; pos1++) {
+    			int rc1 = conf[pos1];
+    			if (rc1 < 0) {
+    				continue;
+    			}
+    			for (int pos2=0; pos2<pos1; pos2++) {
+    				int rc2 = conf[pos2];
+    				if (rc2 >= 0) {
+    					energy += getPairwiseD(pos1, rc1, pos2, rc2);
+    				}
+    			}
+    		}
+    		return energy + constTerm;
+    	}
+    	
         return getInternalEnergy(new RCTuple(conf)) + constTerm;
     }
     
     
+    public double getInternalEnergy(IntRCTuple tup) {
+    	
+    	// higher-order terms are only indexed by boxed tuples for now
+    	if (hasHigherOrderTerms()) {
+    		return getInternalEnergy(tup.toRCTuple());
+    	}
+    	
+    	int[] tuppos = tup.pos;
+    	int[] tupRCs = tup.RCs;
+    	int numPosInTuple = tup.size();
+    	double energy = 0;
+    	
+    	for (int i1=0; i1<numPosInTuple; i1++) {
+    		energy += getOneBodyD(tuppos[i1], tupRCs[i1]);
+    	}
+    	
+    	for (int i1=0; i1<numPosInTuple; i1++) {
+    		int pos1 = tuppos[i1];
+    		int rc1 = tupRCs[i1];
+    		for (int i2=0; i2<i1; i2++) {
+    			energy += getPairwiseD(pos1, rc1, tuppos[i2], tupRCs[i2]);
+    		}
+    	}
+    	
+    	return energy;
+    }
+    
+    
     public double getInternalEnergy(RCTuple tup){
         //internal energy of a tuple of residues when they're in the specified RCs
     	
@@ -110,7 +173,7 @@ public class EnergyMatrix extends TupleMatrixDouble {
             int posNum = tuppos.get(indexInTuple);
             int RCNum = tupRCs.get(indexInTuple);
             
-            energy += getOneBody(posNum,RCNum);
+            energy += getOneBodyD(posNum,RCNum);
         }
         
         for(int indexInTuple=0; indexInTuple<numPosInTuple; indexInTuple++){
@@ -121,7 +184,7 @@ public class EnergyMatrix extends TupleMatrixDouble {
                 int pos2 = tuppos.get(index2);
                 int rc2 = tupRCs.get(index2);
                 
-                energy += getPairwise(posNum,RCNum,pos2,rc2);
+                energy += getPairwiseD(posNum,RCNum,pos2,rc2);
                 
                 if (useHigherOrderTerms) {
 					HigherTupleFinder<Double> htf = getHigherOrderTerms(posNum,RCNum,pos2,rc2);
@@ -151,7 +214,23 @@ public class EnergyMatrix extends TupleMatrixDouble {
         //that consists of interactions in htf (corresponds to some sub-tuple of tup)
         //with RCs whose indices in tup are < curIndex
         double E = 0;
-        
+
+        if(htf.isFrozen()){
+            //hash lookups are cheap, so just try each RC in tup with index < curIndex
+            //(positions that don't interact with htf get the default energy of 0)
+            for(int ind=0; ind<curIndex; ind++){
+                int ipos = tup.pos.get(ind);
+                int iposRC = tup.RCs.get(ind);
+                E += htf.getEnergy(ipos, iposRC);
+
+                HigherTupleFinder<Double> htf2 = htf.getHigherInteractions(ipos,iposRC);
+                if(htf2!=null){
+                    E += internalEHigherOrder(tup,ind,htf2);
+                }
+            }
+            return E;
+        }
+
         for(int ipos : htf.getInteractingPos()){
             
             //see if ipos is in tup with index < curIndex
@@ -165,7 +244,7 @@ public class EnergyMatrix extends TupleMatrixDouble {
 
             if(iposIndex > -1){//ipos interactions need to be counted
                 int iposRC = tup.RCs.get(iposIndex);
-                E += htf.getInteraction(ipos, iposRC);
+                E += htf.getEnergy(ipos, iposRC);
                 
                 //see if need to go up to highers order again...
                 HigherTupleFinder<Double> htf2 = htf.getHigherInteractions(ipos,iposRC);
@@ -187,6 +266,15 @@ public class EnergyMatrix extends TupleMatrixDouble {
     return getPairwise(res1, index1, res2, index2);
     }
      */
+    
+    /**
+     * whether reading the matrix never changes it, so many threads can read it at once without locking.
+     * matrices that compute or cache energies when they're read should override this
+     */
+    public boolean hasThreadSafeReads() {
+        return true;
+    }
+    
     //intra+shell similar...
     public double getConstTerm() {
         return constTerm;
@@ -231,4 +319,109 @@ public class EnergyMatrix extends TupleMatrixDouble {
         eRefMat = val;
         eRefMat.correctEnergyMatrix(this);
     }
+    
+    
+    //BINARY MATRIX FILES
+    //confSpaceHash identifies what the energies were computed for (see TupleMatrixFile.hashConfSpace()),
+    //so files computed for anything else are ignored
+    //confSpace is used to restore reference energies, it can be null if they're not needed
+    
+    public void write(File file, long confSpaceHash) {
+    	try (TupleMatrixFile.Writer out = new TupleMatrixFile.Writer(file, TupleMatrixFile.Type.Energy, confSpaceHash, this, 3)) {
+    		out.writeSection(TupleMatrixFile.SectionMeta, writeMeta());
+    		writeValues(out);
+    	}
+    }
+    
+    /**
+     * reads the energy matrix in the file onto the heap
+     * returns null if the file doesn't exist or was computed for a different conf space
+     */
+    public static EnergyMatrix read(File file, ConfSpace confSpace, long confSpaceHash) {
+    	try (TupleMatrixFile.Reader in = TupleMatrixFile.open(file, TupleMatrixFile.Type.Energy, confSpaceHash)) {
+    		if (in == null) {
+    			return null;
+    		}
+    		EnergyMatrix emat = new EnergyMatrix(in.numPos, in.numConfAtPos, in.pruningInterval);
+    		emat.readValues(in);
+    		emat.readMeta(in.readSection(TupleMatrixFile.SectionMeta), confSpace);
+    		return emat;
+    	}
+    }
+    
+    /**
+     * memory-maps the energy matrix in the file, so the energies are only paged in as they're used,
+     * and several processes can share the same matrix. The file is never modified: energies that
+     * are changed later are copied onto the heap first.
+     * returns null if the file doesn't exist or was computed for a different conf space
+     */
+    public static EnergyMatrix map(File file, ConfSpace confSpace, long confSpaceHash) {
+    	try (TupleMatrixFile.Reader in = TupleMatrixFile.open(file, TupleMatrixFile.Type.Energy, confSpaceHash)) {
+    		if (in == null) {
+    			return null;
+    		}
+    		EnergyMatrix emat = new MappedEnergyMatrix(in);
+    		emat.readMeta(in.readSection(TupleMatrixFile.SectionMeta), confSpace);
+    		return emat;
+    	}
+    }
+    
+    private byte[] writeMeta() {
+    	
+    	// how much space do we need?
+    	int size = 8 + 4;
+    	if (eRefMat != null) {
+    		for (TreeMap<String,Double> posERefs : eRefMat.eRefMatrix) {
+    			size += 4;
+    			for (String aaType : posERefs.keySet()) {
+    				size += 4 + aaType.getBytes(StandardCharsets.UTF_8).length + 8;
+    			}
+    		}
+    	}
+    	
+    	ByteBuffer buf = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+    	buf.putDouble(constTerm);
+    	if (eRefMat == null) {
+    		buf.putInt(-1);
+    	} else {
+    		buf.putInt(eRefMat.eRefMatrix.size());
+    		for (TreeMap<String,Double> posERefs : eRefMat.eRefMatrix) {
+    			buf.putInt(posERefs.size());
+    			for (Map.Entry<String,Double> entry : posERefs.entrySet()) {
+    				byte[] aaType = entry.getKey().getBytes(StandardCharsets.UTF_8);
+    				buf.putInt(aaType.length);
+    				buf.put(aaType);
+    				buf.putDouble(entry.getValue());
+    			}
+    		}
+    	}
+    	return buf.array();
+    }
+    
+    private void readMeta(ByteBuffer buf, ConfSpace confSpace) {
+    	
+    	constTerm = buf.getDouble();
+    	
+    	int numPos = buf.getInt();
+    	if (numPos < 0) {
+    		return;
+    	}
+    	if (confSpace == null) {
+    		throw new IllegalArgumentException("energy matrix file has reference energies, need a conf space to read them");
+    	}
+    	
+    	// the energies in the file are already corrected, so don't correct them again
+    	ArrayList<TreeMap<String,Double>> eRefs = new ArrayList<>(numPos);
+    	for (int pos=0; pos<numPos; pos++) {
+    		TreeMap<String,Double> posERefs = new TreeMap<>();
+    		int numAAs = buf.getInt();
+    		for (int i=0; i<numAAs; i++) {
+    			byte[] aaType = new byte[buf.getInt()];
+    			buf.get(aaType);
+    			posERefs.put(new String(aaType, StandardCharsets.UTF_8), buf.getDouble());
+    		}
+    		eRefs.add(posERefs);
+    	}
+    	eRefMat = new ReferenceEnergies(confSpace, eRefs);
+    }
 }
@@ -9,6 +9,8 @@ import java.util.Arrays;
 import java.util.HashMap;
 
 import edu.duke.cs.osprey.confspace.ConfSpace;
+import edu.duke.cs.osprey.confspace.ParameterizedMoleculeCopy;
+import edu.duke.cs.osprey.confspace.ParameterizedMoleculePool;
 import edu.duke.cs.osprey.confspace.RCTuple;
 import edu.duke.cs.osprey.control.EnvironmentVars;
 import edu.duke.cs.osprey.ematrix.epic.EPICMatrix;
@@ -16,8 +18,11 @@ import edu.duke.cs.osprey.ematrix.epic.EPICSettings;
 import edu.duke.cs.osprey.ematrix.epic.EPoly;
 import edu.duke.cs.osprey.handlempi.MPIMaster;
 import edu.duke.cs.osprey.handlempi.MPISlaveTask;
+import edu.duke.cs.osprey.parallelism.TaskExecutor.TaskListener;
+import edu.duke.cs.osprey.parallelism.ThreadPoolTaskExecutor;
 import edu.duke.cs.osprey.pruning.PruningMatrix;
 import edu.duke.cs.osprey.structure.Residue;
+import edu.duke.cs.osprey.tools.Progress;
 
 /**
  *
@@ -40,6 +45,9 @@ public class EnergyMatrixCalculator {
     //and correct the intra+shell energies based on the reference energies
     boolean addResEntropy = false;//add residue entropy to one-body energies
     
+    int numThreads = 1;//for local calculations.  More than one thread splits terms up by RC
+    //and minimizes each piece in its own copy of the molecule
+    
     //We are calculating either a scalar or EPIC matrix, so we'll allocate and fill in just one of these
     private EnergyMatrix emat = null;
     private EPICMatrix epicMat = null;
@@ -93,6 +101,11 @@ public class EnergyMatrixCalculator {
 	}
     
     
+    public void setNumThreads(int val){
+        numThreads = val;
+    }
+    
+    
    //Calculate a pairwise energy matrix based on a pairwise energy function
    public void calcPEM(){
        
@@ -122,6 +135,11 @@ public class EnergyMatrixCalculator {
     public void calcPEMLocally(){
         //do the energy calculation here
         
+        if(numThreads>1){
+            calcPEMThreaded();
+            return;
+        }
+        
         for(int res=0; res<searchSpace.numPos; res++){
             
             System.out.println("Starting intra+shell energy calculations for residue "+res);
@@ -145,6 +163,129 @@ public class EnergyMatrixCalculator {
     }
     
     
+    private class TermTask implements Runnable {
+        //one-body term for RC rc1 at pos1, or pair terms for rc1 with all RCs at pos2
+        
+        ParameterizedMoleculePool pmols;
+        int pos1;
+        int rc1;
+        int pos2 = -1;//-1 for one-body
+        Object result = null;
+        Throwable error = null;
+        
+        @Override
+        public void run(){
+            //the executor can't report errors from tasks, so hold onto them for the listener
+            try{
+                ParameterizedMoleculeCopy pmol;
+                synchronized(pmols){
+                    pmol = pmols.checkout();
+                }
+                try{
+                    TermECalculator termECalc;
+                    if(pos2<0)
+                        termECalc = new TermECalculator(searchSpace,shellResidues,doEPIC,false,
+                            pruneMat,epicSettings,addResEntropy,pmol,pos1);
+                    else
+                        termECalc = new TermECalculator(searchSpace,shellResidues,doEPIC,false,
+                            pruneMat,epicSettings,false,pmol,pos1,pos2);
+                    termECalc.setMoleculePool(pmols);
+                    result = termECalc.doCalculation(rc1);
+                }
+                finally{
+                    synchronized(pmols){
+                        pmols.release(pmol);
+                    }
+                }
+            }
+            catch(Throwable t){
+                error = t;
+            }
+        }
+    }
+    
+    
+    private void calcPEMThreaded(){
+        //same terms as the serial calculation, but split up by RC at the first position
+        //and handed out to threads, each minimizing in its own copy of the molecule
+        
+        long numWork = 0;
+        for(int pos1=0; pos1<searchSpace.numPos; pos1++){
+            int numRCs1 = searchSpace.posFlex.get(pos1).RCs.size();
+            numWork += numRCs1;
+            for(int pos2=0; pos2<pos1; pos2++)
+                numWork += numRCs1*searchSpace.posFlex.get(pos2).RCs.size();
+        }
+        Progress progress = new Progress(numWork);
+        
+        ParameterizedMoleculePool pmols = new ParameterizedMoleculePool(searchSpace);
+        Throwable[] firstError = new Throwable[1];
+        
+        TaskListener listener = new TaskListener() {
+            @Override
+            public void onFinished(Runnable taskBase) {
+                TermTask task = (TermTask)taskBase;
+                
+                if(task.error!=null){
+                    if(firstError[0]==null)
+                        firstError[0] = task.error;
+                    return;
+                }
+                
+                if(task.pos2<0){
+                    if(doEPIC)
+                        epicMat.setOneBody(task.pos1, task.rc1, (EPoly)task.result);
+                    else
+                        emat.setOneBody(task.pos1, task.rc1, (Double)task.result);
+                    progress.incrementProgress();
+                }
+                else{
+                    ArrayList<?> row = (ArrayList<?>)task.result;
+                    for(int rc2=0; rc2<row.size(); rc2++){
+                        if(doEPIC)
+                            epicMat.setPairwise(task.pos1, task.rc1, task.pos2, rc2, (EPoly)row.get(rc2));
+                        else
+                            emat.setPairwise(task.pos1, task.rc1, task.pos2, rc2, (Double)row.get(rc2));
+                    }
+                    progress.incrementProgress(row.size());
+                }
+            }
+        };
+        
+        ThreadPoolTaskExecutor tasks = new ThreadPoolTaskExecutor();
+        tasks.start(numThreads);
+        try{
+            for(int pos1=0; pos1<searchSpace.numPos; pos1++){
+                for(int rc1=0; rc1<searchSpace.posFlex.get(pos1).RCs.size(); rc1++){
+                    
+                    TermTask singleTask = new TermTask();
+                    singleTask.pmols = pmols;
+                    singleTask.pos1 = pos1;
+                    singleTask.rc1 = rc1;
+                    tasks.submit(singleTask, listener);
+                    
+                    for(int pos2=0; pos2<pos1; pos2++){
+                        TermTask pairTask = new TermTask();
+                        pairTask.pmols = pmols;
+                        pairTask.pos1 = pos1;
+                        pairTask.rc1 = rc1;
+                        pairTask.pos2 = pos2;
+                        tasks.submit(pairTask, listener);
+                    }
+                }
+            }
+            
+            tasks.waitForFinish();
+        }
+        finally{
+            tasks.stop();
+        }
+        
+        if(firstError[0]!=null)
+            throw new RuntimeException("ERROR: energy term calculation failed", firstError[0]);
+    }
+    
+    
     public void calcPEMDistributed(){
         //do energy calculation on slave nodes via MPI
         
@@ -0,0 +1,290 @@
+package edu.duke.cs.osprey.ematrix;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import cern.colt.matrix.DoubleMatrix1D;
+import cern.colt.matrix.impl.DenseDoubleMatrix1D;
+import edu.duke.cs.osprey.confspace.AbstractTupleMatrix;
+import edu.duke.cs.osprey.minimization.Minimizer;
+
+/**
+ * An append-only log of finished single and pair blocks for SimpleEnergyMatrixCalculator.
+ *
+ * Each block is written as soon as it's finished, so if the calculation is killed,
+ * the next calculation with the same checkpoint file only has to compute the blocks
+ * that aren't in the log yet. A block that was only partially written is dropped.
+ */
+public class EnergyMatrixCheckpoint implements AutoCloseable {
+
+	private static final int Magic = 0x454d4350; // EMCP
+	private static final int Version = 1;
+
+	private static final byte SingleBlock = 1;
+	private static final byte PairBlock = 2;
+
+	private final File file;
+	private final int numPos;
+	private final boolean[][] singlesDone; // indices: pos1, rc1
+	private final boolean[][] pairsDone; // indices: pos1, rc1*numPos + pos2
+
+	private DataOutputStream out;
+	private int numBlocksRead;
+
+	/**
+	 * opens the checkpoint file, creating it if needed.
+	 * Blocks already in the file are written to emat and dofmat (either can be null).
+	 */
+	public EnergyMatrixCheckpoint(File file, long confSpaceHash, AbstractTupleMatrix<?> sizemat, EnergyMatrix emat, DofMatrix dofmat) {
+
+		this.file = file;
+		this.numPos = sizemat.getNumPos();
+
+		singlesDone = new boolean[numPos][];
+		pairsDone = new boolean[numPos][];
+		for (int pos1=0; pos1<numPos; pos1++) {
+			singlesDone[pos1] = new boolean[sizemat.getNumConfAtPos(pos1)];
+			pairsDone[pos1] = new boolean[sizemat.getNumConfAtPos(pos1)*numPos];
+		}
+
+		long goodLength = 0;
+		numBlocksRead = 0;
+		if (file.exists()) {
+			goodLength = read(confSpaceHash, sizemat, emat, dofmat);
+		}
+
+		try {
+
+			// drop any partially-written block at the end
+			if (goodLength > 0) {
+				try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+					raf.setLength(goodLength);
+				}
+			}
+
+			out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, goodLength > 0)));
+
+			if (goodLength == 0) {
+				out.writeInt(Magic);
+				out.writeInt(Version);
+				out.writeLong(confSpaceHash);
+				out.writeInt(numPos);
+				for (int pos1=0; pos1<numPos; pos1++) {
+					out.writeInt(sizemat.getNumConfAtPos(pos1));
+				}
+				out.flush();
+			}
+
+		} catch (IOException ex) {
+			throw new RuntimeException("can't write energy matrix checkpoint: " + file, ex);
+		}
+	}
+
+	/**
+	 * returns the length of the valid part of the file, or 0 if none of it is usable
+	 */
+	private long read(long confSpaceHash, AbstractTupleMatrix<?> sizemat, EnergyMatrix emat, DofMatrix dofmat) {
+
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+
+			// check the header
+			long pos;
+			try {
+				if (in.readInt() != Magic || in.readInt() != Version) {
+					System.out.println("Energy matrix checkpoint " + file + " isn't readable, starting over");
+					return 0;
+				}
+				if (in.readLong() != confSpaceHash || in.readInt() != numPos) {
+					System.out.println("Energy matrix checkpoint " + file + " is for a different conf space, starting over");
+					return 0;
+				}
+				for (int pos1=0; pos1<numPos; pos1++) {
+					if (in.readInt() != sizemat.getNumConfAtPos(pos1)) {
+						System.out.println("Energy matrix checkpoint " + file + " is for a different conf space, starting over");
+						return 0;
+					}
+				}
+				pos = 4 + 4 + 8 + 4 + numPos*4;
+			} catch (EOFException ex) {
+				return 0;
+			}
+
+			// read blocks until we run out of complete ones
+			long fileLength = file.length();
+			while (true) {
+
+				byte[] block;
+				try {
+					int length = in.readInt();
+
+					// a garbled length word means the rest of the file can't be trusted either
+					if (length < 0 || length > fileLength - pos - 4) {
+						break;
+					}
+
+					block = new byte[length];
+					in.readFully(block);
+				} catch (EOFException ex) {
+					break;
+				}
+
+				readBlock(new DataInputStream(new ByteArrayInputStream(block)), emat, dofmat);
+				pos += 4 + block.length;
+				numBlocksRead++;
+			}
+
+			return pos;
+
+		} catch (IOException ex) {
+			throw new RuntimeException("can't read energy matrix checkpoint: " + file, ex);
+		}
+	}
+
+	private void readBlock(DataInputStream in, EnergyMatrix emat, DofMatrix dofmat)
+	throws IOException {
+
+		byte type = in.readByte();
+		int pos1 = in.readInt();
+		int rc1 = in.readInt();
+
+		if (type == SingleBlock) {
+
+			Minimizer.Result result = readResult(in);
+			if (emat != null) {
+				emat.setOneBody(pos1, rc1, result.energy);
+			}
+			if (dofmat != null) {
+				dofmat.setOneBody(pos1, rc1, result.dofValues);
+			}
+			singlesDone[pos1][rc1] = true;
+
+		} else if (type == PairBlock) {
+
+			int pos2 = in.readInt();
+			int numrc2 = in.readInt();
+			for (int rc2=0; rc2<numrc2; rc2++) {
+				Minimizer.Result result = readResult(in);
+				if (emat != null) {
+					emat.setPairwise(pos1, rc1, pos2, rc2, result.energy);
+				}
+				if (dofmat != null) {
+					dofmat.setPairwise(pos1, rc1, pos2, rc2, result.dofValues);
+				}
+			}
+			pairsDone[pos1][rc1*numPos + pos2] = true;
+
+		} else {
+			throw new IOException("unknown block type: " + type);
+		}
+	}
+
+	private static Minimizer.Result readResult(DataInputStream in)
+	throws IOException {
+		double energy = in.readDouble();
+		int numDofs = in.readInt();
+		DoubleMatrix1D dofValues = null;
+		if (numDofs >= 0) {
+			dofValues = new DenseDoubleMatrix1D(numDofs);
+			for (int i=0; i<numDofs; i++) {
+				dofValues.set(i, in.readDouble());
+			}
+		}
+		return new Minimizer.Result(dofValues, energy);
+	}
+
+	private static void writeResult(DataOutputStream out, Minimizer.Result result)
+	throws IOException {
+		out.writeDouble(result.energy);
+		if (result.dofValues == null) {
+			out.writeInt(-1);
+		} else {
+			out.writeInt(result.dofValues.size());
+			for (int i=0; i<result.dofValues.size(); i++) {
+				out.writeDouble(result.dofValues.get(i));
+			}
+		}
+	}
+
+	public int getNumBlocksRead() {
+		return numBlocksRead;
+	}
+
+	public boolean isSingleDone(int pos1, int rc1) {
+		return singlesDone[pos1][rc1];
+	}
+
+	public boolean isPairDone(int pos1, int rc1, int pos2) {
+		return pairsDone[pos1][rc1*numPos + pos2];
+	}
+
+	public void writeSingle(int pos1, int rc1, Minimizer.Result result) {
+		ByteArrayOutputStream buf = new ByteArrayOutputStream();
+		DataOutputStream block = new DataOutputStream(buf);
+		try {
+			block.writeByte(SingleBlock);
+			block.writeInt(pos1);
+			block.writeInt(rc1);
+			writeResult(block, result);
+		} catch (IOException ex) {
+			throw new Error(ex); // can't happen writing to memory
+		}
+		writeBlock(buf.toByteArray());
+		singlesDone[pos1][rc1] = true;
+	}
+
+	public void writePair(int pos1, int rc1, int pos2, Minimizer.Result[] results) {
+		ByteArrayOutputStream buf = new ByteArrayOutputStream();
+		DataOutputStream block = new DataOutputStream(buf);
+		try {
+			block.writeByte(PairBlock);
+			block.writeInt(pos1);
+			block.writeInt(rc1);
+			block.writeInt(pos2);
+			block.writeInt(results.length);
+			for (Minimizer.Result result : results) {
+				writeResult(block, result);
+			}
+		} catch (IOException ex) {
+			throw new Error(ex); // can't happen writing to memory
+		}
+		writeBlock(buf.toByteArray());
+		pairsDone[pos1][rc1*numPos + pos2] = true;
+	}
+
+	private synchronized void writeBlock(byte[] block) {
+		try {
+			out.writeInt(block.length);
+			out.write(block);
+			out.flush();
+		} catch (IOException ex) {
+			throw new RuntimeException("can't write energy matrix checkpoint: " + file, ex);
+		}
+	}
+
+	@Override
+	public synchronized void close() {
+		try {
+			out.close();
+		} catch (IOException ex) {
+			// don't care, everything was already flushed
+		}
+	}
+
+	/**
+	 * call when the finished matrix is safely saved somewhere else
+	 */
+	public void delete() {
+		close();
+		file.delete();
+	}
+}
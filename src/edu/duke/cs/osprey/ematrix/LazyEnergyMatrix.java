@@ -41,8 +41,8 @@ public class LazyEnergyMatrix extends EnergyMatrix {
 	}
 	
     @Override
-    public Double getOneBody(int res, int conf) {
-    	double val = super.getOneBody(res, conf);
+    public double getOneBodyD(int res, int conf) {
+    	double val = super.getOneBodyD(res, conf);
     	if (hasVal(val)) {
     		return val;
     	}
@@ -52,8 +52,8 @@ public class LazyEnergyMatrix extends EnergyMatrix {
     }
 
 	@Override
-    public Double getPairwise(int res1, int conf1, int res2, int conf2) {
-    	double val = super.getPairwise(res1, conf1, res2, conf2);
+    public double getPairwiseD(int res1, int conf1, int res2, int conf2) {
+    	double val = super.getPairwiseD(res1, conf1, res2, conf2);
     	if (hasVal(val)) {
     		return val;
     	}
@@ -62,12 +62,25 @@ public class LazyEnergyMatrix extends EnergyMatrix {
     	return val;
     }
 	
+	@Override
+	public void getPairwiseRow(int res1, int conf1, int res2, double[] out) {
+		for (int conf2=0; conf2<getNumConfAtPos(res2); conf2++) {
+			out[conf2] = getPairwiseD(res1, conf1, res2, conf2);
+		}
+	}
+	
+	@Override
+	public boolean hasThreadSafeReads() {
+		// reads compute and save missing energies
+		return false;
+	}
+	
 	public boolean hasOneBody(int res, int conf) {
-		return hasVal(super.getOneBody(res, conf));
+		return hasVal(super.getOneBodyD(res, conf));
 	}
 	
 	public boolean hasPairwise(int res1, int conf1, int res2, int conf2) {
-		return hasVal(super.getPairwise(res1, conf1, res2, conf2));
+		return hasVal(super.getPairwiseD(res1, conf1, res2, conf2));
 	}
 	
 	public void clear() {
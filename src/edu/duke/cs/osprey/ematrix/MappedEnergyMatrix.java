@@ -0,0 +1,133 @@
+package edu.duke.cs.osprey.ematrix;
+
+import java.nio.DoubleBuffer;
+import java.util.ArrayList;
+
+import edu.duke.cs.osprey.confspace.TupleMatrixFile;
+
+/**
+ * An energy matrix whose energies live in a memory-mapped matrix file instead of on the heap.
+ * Make one with EnergyMatrix.map().
+ *
+ * The file is never written. Setting an energy copies the chunk of the file it's in onto the heap first,
+ * so matrices that only get a few changes (eg, from pruning or higher-order terms) stay mostly mapped.
+ *
+ * Serializing one writes a regular on-heap copy.
+ */
+public class MappedEnergyMatrix extends EnergyMatrix {
+
+	private static final long serialVersionUID = -3958720941634957413L;
+
+	private static final int ChunkMask = TupleMatrixFile.DoublesPerChunk - 1;
+
+	private transient DoubleBuffer[] oneBody;
+	private transient DoubleBuffer[] pairwise;
+	private transient boolean[] oneBodyCopied;
+	private transient boolean[] pairwiseCopied;
+
+	MappedEnergyMatrix(TupleMatrixFile.Reader in) {
+		super(in.numPos, in.numConfAtPos, in.pruningInterval);
+		oneBody = in.mapDoubles(TupleMatrixFile.SectionOneBody);
+		pairwise = in.mapDoubles(TupleMatrixFile.SectionPairwise);
+		oneBodyCopied = new boolean[oneBody.length];
+		pairwiseCopied = new boolean[pairwise.length];
+	}
+
+	@Override
+	protected void allocate(int numOneBody, int numPairwise) {
+		// don't allocate anything, the values are in the file
+	}
+
+	private static double get(DoubleBuffer[] chunks, int index) {
+		return chunks[index >>> TupleMatrixFile.DoublesPerChunkBits].get(index & ChunkMask);
+	}
+
+	private static void set(DoubleBuffer[] chunks, boolean[] copied, int index, double val) {
+		int chunk = index >>> TupleMatrixFile.DoublesPerChunkBits;
+		if (!copied[chunk]) {
+			DoubleBuffer mapped = chunks[chunk].duplicate();
+			mapped.clear();
+			DoubleBuffer heap = DoubleBuffer.allocate(mapped.capacity());
+			heap.put(mapped);
+			chunks[chunk] = heap;
+			copied[chunk] = true;
+		}
+		chunks[chunk].put(index & ChunkMask, val);
+	}
+
+	/**
+	 * how many chunks of the file have been copied onto the heap so far
+	 */
+	public int getNumCopiedChunks() {
+		int count = 0;
+		for (boolean[] copied : new boolean[][] { oneBodyCopied, pairwiseCopied }) {
+			for (boolean isCopied : copied) {
+				if (isCopied) {
+					count++;
+				}
+			}
+		}
+		return count;
+	}
+
+	@Override
+	public double getOneBodyD(int res, int conf) {
+		return get(oneBody, getOneBodyIndex(res, conf));
+	}
+
+	@Override
+	public double getPairwiseD(int res1, int conf1, int res2, int conf2) {
+		return get(pairwise, getPairwiseIndex(res1, conf1, res2, conf2));
+	}
+
+	@Override
+	public void getPairwiseRow(int res1, int conf1, int res2, double[] out) {
+		int n2 = getNumConfAtPos(res2);
+		for (int conf2=0; conf2<n2; conf2++) {
+			out[conf2] = getPairwiseD(res1, conf1, res2, conf2);
+		}
+	}
+
+	@Override
+	public void setOneBody(int res, int conf, Double val) {
+		set(oneBody, oneBodyCopied, getOneBodyIndex(res, conf), val);
+	}
+
+	@Override
+	public void setOneBody(int res, ArrayList<Double> val) {
+		int n = getNumConfAtPos(res);
+		for (int conf=0; conf<n; conf++) {
+			setOneBody(res, conf, val.get(conf));
+		}
+	}
+
+	@Override
+	public void setPairwise(int res1, int conf1, int res2, int conf2, Double val) {
+		set(pairwise, pairwiseCopied, getPairwiseIndex(res1, conf1, res2, conf2), val);
+	}
+
+	@Override
+	public void setPairwise(int res1, int res2, ArrayList<ArrayList<Double>> val) {
+		int n1 = getNumConfAtPos(res1);
+		int n2 = getNumConfAtPos(res2);
+		for (int conf1=0; conf1<n1; conf1++) {
+			for (int conf2=0; conf2<n2; conf2++) {
+				setPairwise(res1, conf1, res2, conf2, val.get(conf1).get(conf2));
+			}
+		}
+	}
+
+	@Override
+	public void writeValues(TupleMatrixFile.Writer out) {
+		new EnergyMatrix(this).writeValues(out);
+	}
+
+	@Override
+	public void readValues(TupleMatrixFile.Reader in) {
+		throw new UnsupportedOperationException("memory-mapped energy matrices can't read other files, use EnergyMatrix.read() instead");
+	}
+
+	private Object writeReplace() {
+		return new EnergyMatrix(this);
+	}
+}
@@ -31,6 +31,12 @@ public class ReferenceEnergies implements Serializable {
         computeERef();
     }
     
+    ReferenceEnergies(ConfSpace cs, ArrayList<TreeMap<String,Double>> eRefMatrix){
+        //reference energies we already computed, eg read from a matrix file
+        cSpace = cs;
+        this.eRefMatrix = eRefMatrix;
+    }
+    
     
     private void computeERef(){
         
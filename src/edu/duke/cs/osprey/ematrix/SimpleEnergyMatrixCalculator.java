@@ -1,13 +1,19 @@
 package edu.duke.cs.osprey.ematrix;
 
+import java.io.File;
+import java.io.Serializable;
 import java.util.List;
 
 import edu.duke.cs.osprey.confspace.AbstractTupleMatrix;
 import edu.duke.cs.osprey.confspace.ConfSpace;
 import edu.duke.cs.osprey.confspace.ParameterizedMoleculeCopy;
 import edu.duke.cs.osprey.confspace.ParameterizedMoleculePool;
+import edu.duke.cs.osprey.confspace.TupleMatrixFile;
 import edu.duke.cs.osprey.energy.forcefield.ForcefieldParams;
 import edu.duke.cs.osprey.gpu.cuda.GpuStreamPool;
+import edu.duke.cs.osprey.handlempi.MPIMaster;
+import edu.duke.cs.osprey.handlempi.MPISlaveTask;
+import edu.duke.cs.osprey.handlempi.MPITaskExecutor;
 import edu.duke.cs.osprey.minimization.Minimizer;
 import edu.duke.cs.osprey.parallelism.TaskExecutor;
 import edu.duke.cs.osprey.parallelism.TaskExecutor.TaskListener;
@@ -20,18 +26,6 @@ public abstract class SimpleEnergyMatrixCalculator {
 	private class MoleculeTask {
 		
 		public ParameterizedMoleculePool pmols;
-		
-		protected ParameterizedMoleculeCopy checkout() {
-			synchronized (pmols) {
-				return pmols.checkout();
-			}
-		}
-		
-		protected void release(ParameterizedMoleculeCopy pmol) {
-			synchronized (pmols) {
-				pmols.release(pmol);
-			}
-		}
 	}
 	
 	private class SingleTask extends MoleculeTask implements Runnable {
@@ -42,12 +36,7 @@ public abstract class SimpleEnergyMatrixCalculator {
 
 		@Override
 		public void run() {
-			ParameterizedMoleculeCopy pmol = checkout();
-			try {
-				result = ecalc.calcSingle(pos1, rc1, pmol);
-			} finally {
-				release(pmol);
-			}
+			result = calcSingle(pos1, rc1, pmols);
 		}
 	}
 	
@@ -61,16 +50,40 @@ public abstract class SimpleEnergyMatrixCalculator {
 
 		@Override
 		public void run() {
-			ParameterizedMoleculeCopy pmol = checkout();
-			try {
-				
-				results = new Minimizer.Result[numrc2];
-				for (int rc2=0; rc2<numrc2; rc2++) {
-					results[rc2] = ecalc.calcPair(pos1, rc1, pos2, rc2, pmol);
-				}
-				
-			} finally {
-				release(pmol);
+			results = calcPair(pos1, rc1, pos2, numrc2, pmols);
+		}
+	}
+	
+	private static Minimizer.Result calcSingle(SimpleEnergyCalculator ecalc, int pos1, int rc1, ParameterizedMoleculePool pmols) {
+		ParameterizedMoleculeCopy pmol;
+		synchronized (pmols) {
+			pmol = pmols.checkout();
+		}
+		try {
+			return ecalc.calcSingle(pos1, rc1, pmol);
+		} finally {
+			synchronized (pmols) {
+				pmols.release(pmol);
+			}
+		}
+	}
+	
+	private static Minimizer.Result[] calcPair(SimpleEnergyCalculator ecalc, int pos1, int rc1, int pos2, int numrc2, ParameterizedMoleculePool pmols) {
+		ParameterizedMoleculeCopy pmol;
+		synchronized (pmols) {
+			pmol = pmols.checkout();
+		}
+		try {
+			
+			Minimizer.Result[] results = new Minimizer.Result[numrc2];
+			for (int rc2=0; rc2<numrc2; rc2++) {
+				results[rc2] = ecalc.calcPair(pos1, rc1, pos2, rc2, pmol);
+			}
+			return results;
+			
+		} finally {
+			synchronized (pmols) {
+				pmols.release(pmol);
 			}
 		}
 	}
@@ -78,10 +91,35 @@ public abstract class SimpleEnergyMatrixCalculator {
 	protected SimpleEnergyCalculator ecalc;
 	protected TaskExecutor tasks;
 	
+	private File checkpointFile = null;
+	
 	protected SimpleEnergyMatrixCalculator() {
 		// only subclasses should directly make these
 	}
 	
+	/**
+	 * Log finished blocks of the matrix to this file as they're computed.
+	 * If the file already has blocks from an earlier (eg, killed) calculation
+	 * for the same conf space, those blocks won't be computed again.
+	 * Delete the file once the finished matrix is saved, or pass null to turn off checkpointing.
+	 */
+	public void setCheckpointFile(File val) {
+		checkpointFile = val;
+	}
+	
+	public File getCheckpointFile() {
+		return checkpointFile;
+	}
+	
+	// called by the task threads, subclasses can do the work somewhere else
+	protected Minimizer.Result calcSingle(int pos1, int rc1, ParameterizedMoleculePool pmols) {
+		return calcSingle(ecalc, pos1, rc1, pmols);
+	}
+	
+	protected Minimizer.Result[] calcPair(int pos1, int rc1, int pos2, int numrc2, ParameterizedMoleculePool pmols) {
+		return calcPair(ecalc, pos1, rc1, pos2, numrc2, pmols);
+	}
+	
 	public EnergyMatrix calcEnergyMatrix() {
 		EnergyMatrix emat = new EnergyMatrix(ecalc.confSpace, Double.POSITIVE_INFINITY);
 		calcMatrices(emat, null);
@@ -126,87 +164,122 @@ public abstract class SimpleEnergyMatrixCalculator {
 			tasks = new TaskExecutor();
 		}
 		
-		// count how much work there is to do
-		long numWork = 0;
-		for (int pos1=0; pos1<sizemat.getNumPos(); pos1++) {
-			numWork += sizemat.getNumConfAtPos(pos1);
-			for (int pos2=0; pos2<pos1; pos2++) {
+		// pick up where the last calculation left off, if we can
+		EnergyMatrixCheckpoint checkpoint = null;
+		if (checkpointFile != null) {
+			checkpoint = new EnergyMatrixCheckpoint(checkpointFile, TupleMatrixFile.hashConfSpace(ecalc.confSpace, ecalc.ffparams, ecalc.shellResidues), sizemat, emat, dofmat);
+			if (checkpoint.getNumBlocksRead() > 0) {
+				System.out.println("Resuming from checkpoint with " + checkpoint.getNumBlocksRead() + " finished blocks");
+			}
+		}
+		
+		// make sure the checkpoint file gets closed even if a task fails
+		try {
+		
+			// count how much work there is to do
+			long numWork = 0;
+			for (int pos1=0; pos1<sizemat.getNumPos(); pos1++) {
 				for (int rc1=0; rc1<sizemat.getNumConfAtPos(pos1); rc1++) {
-					numWork += sizemat.getNumConfAtPos(pos2);
+					if (checkpoint == null || !checkpoint.isSingleDone(pos1, rc1)) {
+						numWork++;
+					}
+					for (int pos2=0; pos2<pos1; pos2++) {
+						if (checkpoint == null || !checkpoint.isPairDone(pos1, rc1, pos2)) {
+							numWork += sizemat.getNumConfAtPos(pos2);
+						}
+					}
 				}
 			}
-		}
-		Progress progress = new Progress(numWork);
+			Progress progress = new Progress(numWork);
+			final EnergyMatrixCheckpoint fCheckpoint = checkpoint;
 		
-		// init molecule pool
-		ParameterizedMoleculePool pmols = new ParameterizedMoleculePool(ecalc.confSpace);
+			// init molecule pool
+			ParameterizedMoleculePool pmols = new ParameterizedMoleculePool(ecalc.confSpace);
 		
-		// init task listeners
-		TaskListener singleListener = new TaskListener() {
-			@Override
-			public void onFinished(Runnable taskBase) {
-				SingleTask task = (SingleTask)taskBase;
+			// init task listeners
+			TaskListener singleListener = new TaskListener() {
+				@Override
+				public void onFinished(Runnable taskBase) {
+					SingleTask task = (SingleTask)taskBase;
 				
-				if (emat != null) {
-					emat.setOneBody(task.pos1, task.rc1, task.result.energy);
-				}
-				if (dofmat != null) {
-					dofmat.setOneBody(task.pos1, task.rc1, task.result.dofValues);
-				}
+					if (emat != null) {
+						emat.setOneBody(task.pos1, task.rc1, task.result.energy);
+					}
+					if (dofmat != null) {
+						dofmat.setOneBody(task.pos1, task.rc1, task.result.dofValues);
+					}
+					if (fCheckpoint != null) {
+						fCheckpoint.writeSingle(task.pos1, task.rc1, task.result);
+					}
 				
-				progress.incrementProgress();
-			}
-		};
-		TaskListener pairListener = new TaskListener() {
-			@Override
-			public void onFinished(Runnable taskBase) {
-				PairTask task = (PairTask)taskBase;
+					progress.incrementProgress();
+				}
+			};
+			TaskListener pairListener = new TaskListener() {
+				@Override
+				public void onFinished(Runnable taskBase) {
+					PairTask task = (PairTask)taskBase;
 			
-				if (emat != null) {
-					for (int rc2=0; rc2<task.numrc2; rc2++) {
-						emat.setPairwise(task.pos1, task.rc1, task.pos2, rc2, task.results[rc2].energy);
+					if (emat != null) {
+						for (int rc2=0; rc2<task.numrc2; rc2++) {
+							emat.setPairwise(task.pos1, task.rc1, task.pos2, rc2, task.results[rc2].energy);
+						}
 					}
-				}
-				if (dofmat != null) {
-					for (int rc2=0; rc2<task.numrc2; rc2++) {
-						dofmat.setPairwise(task.pos1, task.rc1, task.pos2, rc2, task.results[rc2].dofValues);
+					if (dofmat != null) {
+						for (int rc2=0; rc2<task.numrc2; rc2++) {
+							dofmat.setPairwise(task.pos1, task.rc1, task.pos2, rc2, task.results[rc2].dofValues);
+						}
+					}
+					if (fCheckpoint != null) {
+						fCheckpoint.writePair(task.pos1, task.rc1, task.pos2, task.results);
 					}
-				}
 				
-				progress.incrementProgress(task.numrc2);
-			}
-		};
+					progress.incrementProgress(task.numrc2);
+				}
+			};
 		
-		System.out.println("Calculating energies...");
+			System.out.println("Calculating energies...");
 		
-		for (int pos1=0; pos1<emat.getNumPos(); pos1++) {
-			for (int rc1=0; rc1<emat.getNumConfAtPos(pos1); rc1++) {
+			for (int pos1=0; pos1<sizemat.getNumPos(); pos1++) {
+				for (int rc1=0; rc1<sizemat.getNumConfAtPos(pos1); rc1++) {
 			
-				// NOTE: single terms tend to be much larger than pair terms,
-				// so split up single terms into more different tasks than pair terms
+					// NOTE: single terms tend to be much larger than pair terms,
+					// so split up single terms into more different tasks than pair terms
 				
-				// singles
-				SingleTask singleTask = new SingleTask();
-				singleTask.pmols = pmols;
-				singleTask.pos1 = pos1;
-				singleTask.rc1 = rc1;
-				tasks.submit(singleTask, singleListener);
+					// singles
+					if (checkpoint == null || !checkpoint.isSingleDone(pos1, rc1)) {
+						SingleTask singleTask = new SingleTask();
+						singleTask.pmols = pmols;
+						singleTask.pos1 = pos1;
+						singleTask.rc1 = rc1;
+						tasks.submit(singleTask, singleListener);
+					}
 				
-				// pairs
-				for (int pos2=0; pos2<pos1; pos2++) {
+					// pairs
+					for (int pos2=0; pos2<pos1; pos2++) {
 					
-					PairTask pairTask = new PairTask();
-					pairTask.pmols = pmols;
-					pairTask.pos1 = pos1;
-					pairTask.rc1 = rc1;
-					pairTask.pos2 = pos2;
-					pairTask.numrc2 = emat.getNumConfAtPos(pos2);
-					tasks.submit(pairTask, pairListener);
+						if (checkpoint != null && checkpoint.isPairDone(pos1, rc1, pos2)) {
+							continue;
+						}
+					
+						PairTask pairTask = new PairTask();
+						pairTask.pmols = pmols;
+						pairTask.pos1 = pos1;
+						pairTask.rc1 = rc1;
+						pairTask.pos2 = pos2;
+						pairTask.numrc2 = sizemat.getNumConfAtPos(pos2);
+						tasks.submit(pairTask, pairListener);
+					}
 				}
 			}
-		}
 		
-		tasks.waitForFinish();
+			tasks.waitForFinish();
+		
+		} finally {
+			if (checkpoint != null) {
+				checkpoint.close();
+			}
+		}
 	}
 	
 	public abstract void cleanup();
@@ -229,6 +302,121 @@ public abstract class SimpleEnergyMatrixCalculator {
 		}
 	}
 	
+	/**
+	 * Sends the single and pair blocks to MPI slave processes (see MPIMaster).
+	 * Each slave builds its own molecules and energy functions from the conf space.
+	 */
+	public static class Distributed extends SimpleEnergyMatrixCalculator {
+		
+		private static class Context implements Serializable {
+			
+			private static final long serialVersionUID = 4923508706187254937L;
+			
+			public final ForcefieldParams ffparams;
+			public final ConfSpace confSpace;
+			public final List<Residue> shellResidues;
+			
+			private transient SimpleEnergyCalculator ecalc = null;
+			private transient ParameterizedMoleculePool pmols = null;
+			
+			public Context(ForcefieldParams ffparams, ConfSpace confSpace, List<Residue> shellResidues) {
+				this.ffparams = ffparams;
+				this.confSpace = confSpace;
+				this.shellResidues = shellResidues;
+			}
+			
+			public synchronized void init() {
+				if (ecalc == null) {
+					ecalc = new SimpleEnergyCalculator.Cpu(ffparams, confSpace, shellResidues);
+					pmols = new ParameterizedMoleculePool(confSpace);
+				}
+			}
+		}
+		
+		private static class SingleBlock implements MPISlaveTask.Contextual<Context> {
+			
+			private static final long serialVersionUID = -2340860224569377734L;
+			
+			private final int pos1;
+			private final int rc1;
+			private transient Context context;
+			
+			public SingleBlock(int pos1, int rc1) {
+				this.pos1 = pos1;
+				this.rc1 = rc1;
+			}
+			
+			@Override
+			public void setContext(Context context) {
+				this.context = context;
+			}
+			
+			@Override
+			public Object doCalculation() {
+				context.init();
+				return SimpleEnergyMatrixCalculator.calcSingle(context.ecalc, pos1, rc1, context.pmols);
+			}
+		}
+		
+		private static class PairBlock implements MPISlaveTask.Contextual<Context> {
+			
+			private static final long serialVersionUID = 6000326151738396325L;
+			
+			private final int pos1;
+			private final int rc1;
+			private final int pos2;
+			private final int numrc2;
+			private transient Context context;
+			
+			public PairBlock(int pos1, int rc1, int pos2, int numrc2) {
+				this.pos1 = pos1;
+				this.rc1 = rc1;
+				this.pos2 = pos2;
+				this.numrc2 = numrc2;
+			}
+			
+			@Override
+			public void setContext(Context context) {
+				this.context = context;
+			}
+			
+			@Override
+			public Object doCalculation() {
+				context.init();
+				return SimpleEnergyMatrixCalculator.calcPair(context.ecalc, pos1, rc1, pos2, numrc2, context.pmols);
+			}
+		}
+		
+		private MPIMaster master;
+		private MPIMaster.SharedContext context;
+		private ThreadPoolTaskExecutor tasks;
+		
+		public Distributed(MPIMaster master, ForcefieldParams ffparams, ConfSpace confSpace, List<Residue> shellResidues) {
+			this.master = master;
+			ecalc = new SimpleEnergyCalculator.Cpu(ffparams, confSpace, shellResidues);
+			context = master.shareContext(new Context(ffparams, confSpace, shellResidues));
+			
+			// keep enough local threads to keep all the slaves busy, even if slaves come and go
+			tasks = new MPITaskExecutor(master);
+			super.tasks = tasks;
+		}
+		
+		@Override
+		protected Minimizer.Result calcSingle(int pos1, int rc1, ParameterizedMoleculePool pmols) {
+			return (Minimizer.Result)master.handleTask(new SingleBlock(pos1, rc1), context);
+		}
+		
+		@Override
+		protected Minimizer.Result[] calcPair(int pos1, int rc1, int pos2, int numrc2, ParameterizedMoleculePool pmols) {
+			return (Minimizer.Result[])master.handleTask(new PairBlock(pos1, rc1, pos2, numrc2), context);
+		}
+		
+		@Override
+		public void cleanup() {
+			tasks.stop();
+		}
+	}
+	
 	/**
 	 * This is pretty slow compared to the CPU,
 	 * so don't actually use it in the real world.
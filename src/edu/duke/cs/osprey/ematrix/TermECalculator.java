@@ -7,6 +7,8 @@ package edu.duke.cs.osprey.ematrix;
 import cern.colt.matrix.DoubleFactory1D;
 import cern.colt.matrix.DoubleMatrix1D;
 import edu.duke.cs.osprey.confspace.ConfSpace;
+import edu.duke.cs.osprey.confspace.ParameterizedMoleculeCopy;
+import edu.duke.cs.osprey.confspace.ParameterizedMoleculePool;
 import edu.duke.cs.osprey.confspace.RC;
 import edu.duke.cs.osprey.confspace.RCTuple;
 import edu.duke.cs.osprey.control.EnvironmentVars;
@@ -15,12 +17,14 @@ import edu.duke.cs.osprey.ematrix.epic.EPICFitter;
 import edu.duke.cs.osprey.ematrix.epic.EPICSettings;
 import edu.duke.cs.osprey.ematrix.epic.EPoly;
 import edu.duke.cs.osprey.ematrix.epic.FitParams;
+import edu.duke.cs.osprey.dof.DegreeOfFreedom;
 import edu.duke.cs.osprey.energy.EnergyFunction;
 import edu.duke.cs.osprey.energy.MultiTermEnergyFunction;
 import edu.duke.cs.osprey.handlempi.MPISlaveTask;
 import edu.duke.cs.osprey.minimization.CCDMinimizer;
 import edu.duke.cs.osprey.minimization.MoleculeModifierAndScorer;
 import edu.duke.cs.osprey.pruning.PruningMatrix;
+import edu.duke.cs.osprey.structure.Molecule;
 import edu.duke.cs.osprey.structure.Residue;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -37,6 +41,8 @@ import java.util.HashMap;
 
 public class TermECalculator implements MPISlaveTask {
     
+    private static final long serialVersionUID = 3520949361847185012L;
+    
     ConfSpace confSpace;
     boolean doingEPIC;//doing EPIC fit instead of just minimum computation
     boolean doingIntra;//doing just intra energy (only relevant for one-body energies)
@@ -63,6 +69,13 @@ public class TermECalculator implements MPISlaveTask {
     HashMap<ArrayList<Integer>, Double> nBodyE = new HashMap<>();
     ArrayList<MoleculeModifierAndScorer> mofs = null;
     
+    transient ParameterizedMoleculeCopy pmol = null;//molecule to minimize in; null means the one in confSpace
+    //(set when several terms are calculated at once in different threads)
+    
+    transient ParameterizedMoleculePool pmols = null;//where SAPE gets its standalone molecules
+    //(shared with the other threads, if any)
+    transient ParameterizedMoleculeCopy sapeMol = null;//the standalone molecule for the tuple we're fitting
+    
     
     private static final boolean SAPEKeepStandalone = false;
     //Make SAPE terms in the EPIC matrix retain ability to be evaluated standalone
@@ -72,6 +85,13 @@ public class TermECalculator implements MPISlaveTask {
     public TermECalculator(ConfSpace s, ArrayList<Residue> shellResidues, 
             boolean doEPIC, boolean doIntra, PruningMatrix prm, EPICSettings es, 
             boolean addResEnt, int... resToCalc){
+        this(s, shellResidues, doEPIC, doIntra, prm, es, addResEnt, null, resToCalc);
+    }
+    
+    
+    public TermECalculator(ConfSpace s, ArrayList<Residue> shellResidues, 
+            boolean doEPIC, boolean doIntra, PruningMatrix prm, EPICSettings es, 
+            boolean addResEnt, ParameterizedMoleculeCopy pmol, int... resToCalc){
         
         confSpace = s;
         doingEPIC = doEPIC;
@@ -80,18 +100,26 @@ public class TermECalculator implements MPISlaveTask {
         pruneMat = prm;
         epicSettings = es;
         addResEntropy = addResEnt;
+        this.pmol = pmol;
         
-        Residue firstRes = confSpace.posFlex.get(res[0]).res;
+        Residue firstRes = getResidue(res[0]);
         
         if(doingIntra)//intra energy only
             termE = EnvironmentVars.curEFcnGenerator.singleResEnergy(firstRes);
         else{
             
             if(res.length==1){//intra+shell
-                termE =EnvironmentVars.curEFcnGenerator.intraAndShellEnergy(firstRes, shellResidues);
+                ArrayList<Residue> termShell = shellResidues;
+                if(pmol!=null){
+                    Molecule mol = pmol.getCopiedMolecule();
+                    termShell = new ArrayList<>();
+                    for(Residue shellRes : shellResidues)
+                        termShell.add(mol.residues.get(shellRes.indexInMolecule));
+                }
+                termE =EnvironmentVars.curEFcnGenerator.intraAndShellEnergy(firstRes, termShell);
             }
             else if(res.length==2){//pairwise
-                Residue secondRes = confSpace.posFlex.get(res[1]).res;
+                Residue secondRes = getResidue(res[1]);
                 termE = EnvironmentVars.curEFcnGenerator.resPairEnergy(firstRes, secondRes);
             }
             else if(res.length > 2){
@@ -99,9 +127,9 @@ public class TermECalculator implements MPISlaveTask {
 				termE = new MultiTermEnergyFunction();
 				
 				for (int i = 0; i < res.length; i++) {
-					Residue l = confSpace.posFlex.get(res[i]).res;
+					Residue l = getResidue(res[i]);
 					for (int j = i+1; j < res.length; j++) {
-						Residue r = confSpace.posFlex.get(res[j]).res;
+						Residue r = getResidue(res[j]);
 						((MultiTermEnergyFunction)termE).addTerm(EnvironmentVars.curEFcnGenerator.resPairEnergy(l, r));
 					}
 				}
@@ -114,6 +142,21 @@ public class TermECalculator implements MPISlaveTask {
         }
     }
     
+    
+    public void setMoleculePool(ParameterizedMoleculePool val){
+        //molecules in the pool must be copies of the conf space molecule
+        pmols = val;
+    }
+    
+    
+    private Residue getResidue(int pos){
+        //residue at the flexible position, in our molecule copy if we're using one
+        Residue posRes = confSpace.posFlex.get(pos).res;
+        if(pmol!=null)
+            posRes = pmol.getCopiedMolecule().residues.get(posRes.indexInMolecule);
+        return posRes;
+    }
+    
 
     @Override
     public Object doCalculation() {
@@ -152,6 +195,34 @@ public class TermECalculator implements MPISlaveTask {
     }
     
     
+    public Object doCalculation(int firstRCNum) {
+        //Calculate just part of this term, so it can be split up among threads:
+        //the energy (or EPIC fit) for RC firstRCNum at res[0] if this is a one-body term,
+        //or the list of pair energies (or fits) for that RC with all the RCs at res[1]
+        
+        if(res.length==1){
+            calcTupleEnergy(new RCTuple(res[0],firstRCNum));
+            
+            if(doingEPIC)
+                return oneBodyPoly.get(0);
+            else
+                return oneBodyE.get(0);
+        }
+        else if(res.length==2){
+            int numRCs2 = confSpace.posFlex.get(res[1]).RCs.size();
+            for(int secondRCNum=0; secondRCNum<numRCs2; secondRCNum++)
+                calcTupleEnergy(new RCTuple(res[0],firstRCNum,res[1],secondRCNum));
+            
+            if(doingEPIC)
+                return pairwisePoly.get(firstRCNum);
+            else
+                return pairwiseE.get(firstRCNum);
+        }
+        else
+            throw new UnsupportedOperationException("ERROR: Can only split up calculations for 1- and 2-body terms");
+    }
+    
+    
     public void oneBodyCalc(){
         //list minimized one-body energies for all the RCs in res
         //the energy minimized can be just intra or intra+shell (decided in constructor)
@@ -326,7 +397,7 @@ public class TermECalculator implements MPISlaveTask {
         }
         
         if(!skipTuple){
-            MoleculeModifierAndScorer mof = new MoleculeModifierAndScorer(termE,confSpace,RCs);
+            MoleculeModifierAndScorer mof = new MoleculeModifierAndScorer(termE,confSpace,RCs,pmol);
 
             DoubleMatrix1D bestDOFVals;
 
@@ -340,7 +411,12 @@ public class TermECalculator implements MPISlaveTask {
             minEnergy = mof.getValue(bestDOFVals);
 
             if(doingEPIC){
-                EPICFit = compEPICFit(mof,minEnergy,bestDOFVals,RCs);
+                try{
+                    EPICFit = compEPICFit(mof,minEnergy,bestDOFVals,RCs);
+                }
+                finally{
+                    releaseSAPEMolecule();
+                }
             }
         }
         
@@ -365,13 +441,13 @@ public class TermECalculator implements MPISlaveTask {
             //which list to add to
             
             if(doingEPIC){
-                if(pairwisePoly.size()<=firstRCNum)//this is the first term for RC #firstRCNum
+                while(pairwisePoly.size()<=firstRCNum)//this is the first term for RC #firstRCNum
                     pairwisePoly.add(new ArrayList<EPoly>());
                 
                 pairwisePoly.get(firstRCNum).add(EPICFit);
             }
             else {
-                if(pairwiseE.size()<=firstRCNum)
+                while(pairwiseE.size()<=firstRCNum)
                     pairwiseE.add(new ArrayList<Double>());
                 
                 pairwiseE.get(firstRCNum).add(minEnergy);
@@ -410,6 +486,8 @@ public class TermECalculator implements MPISlaveTask {
             //plus the energy and DOF values for the minimum-energy point
 
             EPICFitter fitter = new EPICFitter(mof,epicSettings,bestDOFVals,minEnergy);
+            fitter.setRandomSeed(getRandomSeed(RCList));
+            fitter.setSAPEObjFcnFactory((ignored) -> makeSAPEObjFcn(RCList));
             
             EPoly bestFit = null;
             
@@ -475,6 +553,9 @@ public class TermECalculator implements MPISlaveTask {
 
             bestFit.setMinE(minEnergy);
             
+            if(pmol!=null)//the fit refers to the copied DOFs, but the EPIC matrix needs the conf space's
+                bestFit.setDOFs(getConfSpaceDOFs(mof.getDOFs()));
+            
             if(!SAPEKeepStandalone)
                 bestFit.deleteMOFStandalone();
             
@@ -482,6 +563,58 @@ public class TermECalculator implements MPISlaveTask {
     }
     
     
+    private MoleculeModifierAndScorer makeSAPEObjFcn(RCTuple RCs){
+        //SAPE terms evaluate standalone energies in a molecule of their own while we're fitting
+        //take one molecule from the pool per tuple, and share it among the tuple's fits
+        //(each fit sets all the DOFs before evaluating), instead of deep-copying our molecule for each fit
+        if(sapeMol==null){
+            if(pmols==null)//no pool from the caller, so keep one for this term
+                pmols = new ParameterizedMoleculePool(confSpace);
+            synchronized(pmols){
+                sapeMol = pmols.checkout();
+            }
+        }
+        return new MoleculeModifierAndScorer(null,confSpace,RCs,sapeMol);
+    }
+    
+    
+    private void releaseSAPEMolecule(){
+        //the fit for this tuple is done, so its SAPE terms won't evaluate standalone energies any more
+        //(unless we keep them standalone, in which case they keep the molecule too)
+        if(sapeMol!=null && !SAPEKeepStandalone){
+            synchronized(pmols){
+                pmols.release(sapeMol);
+            }
+        }
+        sapeMol = null;
+    }
+    
+    
+    static long getRandomSeed(RCTuple RCs){
+        //EPIC fits are sampled randomly, so seed the sampling from the tuple
+        //that way a fit doesn't depend on which thread does it, or what was fit before it
+        return 31L*RCs.pos.hashCode() + RCs.RCs.hashCode();
+    }
+    
+    
+    private ArrayList<DegreeOfFreedom> getConfSpaceDOFs(ArrayList<DegreeOfFreedom> copiedDOFs){
+        //map DOFs in our molecule copy back to the corresponding DOFs in confSpace
+        ArrayList<DegreeOfFreedom> allDOFs = confSpace.listAllDOFs();
+        ArrayList<DegreeOfFreedom> DOFs = new ArrayList<>();
+        for(DegreeOfFreedom copiedDOF : copiedDOFs){
+            for(DegreeOfFreedom dof : allDOFs){
+                if(pmol.getCopiedDOF(dof)==copiedDOF){
+                    DOFs.add(dof);
+                    break;
+                }
+            }
+        }
+        if(DOFs.size()!=copiedDOFs.size())
+            throw new RuntimeException("ERROR: Couldn't match copied DOFs to the conf space");
+        return DOFs;
+    }
+    
+    
     private void printFitTests(EPICFitter fitter, RCTuple RCList, double minEnergy,
             MoleculeModifierAndScorer mof, DoubleMatrix1D bestDOFVals, ArrayList<EPoly> series){
         //Do some tests on fit performance, and print the results
@@ -0,0 +1,391 @@
+package edu.duke.cs.osprey.ematrix.epic;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An {@link EPoly} series flattened into a table of monomials, for fast evaluation.
+ *
+ * {@link SeriesFitter#evalSeries} walks nested loops over every order for every call.
+ * Here, monomials are grouped into runs that extend the same prefix monomial by each of
+ * the variables y[0], y[1], ..., y[n-1], so a run's contribution is just the prefix times
+ * a dot product of the run's coefficients with y, like Horner's method. Prefix products are
+ * computed once and shared by all their runs, and gradients come from one backwards pass over the runs.
+ *
+ * For principal component series, the PCs are moved to the front of y, so the PC-only runs are contiguous too.
+ *
+ * Compiled polynomials don't have any state of their own, so they can be shared between threads.
+ * Callers provide the scratch space, see {@link #getWorkSize()}.
+ */
+public class CompiledEPoly {
+
+	public final int numDOFs;
+
+	private final double[] center;
+
+	// row-major coordinate transformation from relative coords to y, or null if y is just the relative coords
+	private final double[] basis;
+
+	// run r holds monomials runStarts[r] to runStarts[r] + runSizes[r] - 1,
+	// which are monomial runParents[r] (or 1 if runParents[r] is -1) times y[0] to y[runSizes[r] - 1]
+	// parents always come before their runs
+	private final int[] runParents;
+	private final int[] runStarts;
+	private final int[] runSizes;
+	private final boolean[] runHasChildren;
+	private final double[] coeffs;
+
+	// what we compiled from, so we can tell if the EPoly changed
+	private final double[] sourceCoeffs;
+	private final Object sourceCenter;
+
+	private CompiledEPoly(EPoly poly, double[] basis, int[] runParents, int[] runStarts, int[] runSizes, boolean[] runHasChildren, double[] coeffs) {
+		this.numDOFs = poly.numDOFs;
+		this.center = poly.center == null ? new double[0] : poly.center.toArray();
+		this.basis = basis;
+		this.runParents = runParents;
+		this.runStarts = runStarts;
+		this.runSizes = runSizes;
+		this.runHasChildren = runHasChildren;
+		this.coeffs = coeffs;
+		this.sourceCoeffs = poly.coeffs;
+		this.sourceCenter = poly.center;
+	}
+
+	public static CompiledEPoly compile(EPoly poly) {
+
+		if (poly.coeffs == null) {
+
+			// terms with no DOFs (see EPICFitter.blank()) have no series at all
+			if (poly.numDOFs == 0) {
+				return new CompiledEPoly(poly, null, new int[0], new int[0], new int[0], new boolean[0], new double[0]);
+			}
+
+			throw new IllegalArgumentException("ERROR: can't compile an EPoly that hasn't been fit yet");
+		}
+
+		int numDOFs = poly.numDOFs;
+		int order = poly.order;
+		int pcOrder = order;
+		boolean[] isPC = null;
+		double[] basis = null;
+
+		// y[i] is series coordinate varOrder[i]
+		int[] varOrder = new int[numDOFs];
+		for (int i=0; i<numDOFs; i++) {
+			varOrder[i] = i;
+		}
+
+		if (poly instanceof EPolyPC) {
+			EPolyPC pcPoly = (EPolyPC)poly;
+			order = pcPoly.fullOrder;
+			pcOrder = pcPoly.PCOrder;
+			isPC = pcPoly.isPC;
+
+			// put the PCs first
+			int i = 0;
+			for (int dof=0; dof<numDOFs; dof++) {
+				if (isPC[dof]) {
+					varOrder[i++] = dof;
+				}
+			}
+			for (int dof=0; dof<numDOFs; dof++) {
+				if (!isPC[dof]) {
+					varOrder[i++] = dof;
+				}
+			}
+
+			basis = new double[numDOFs*numDOFs];
+			for (i=0; i<numDOFs; i++) {
+				for (int j=0; j<numDOFs; j++) {
+					basis[i*numDOFs + j] = pcPoly.axisCoeffs.get(varOrder[i], j);
+				}
+			}
+		}
+
+		if (order < 1 || order > 6 || pcOrder > 6) {
+			throw new RuntimeException("ERROR: can't compile EPoly with order " + order + " and/or PCOrder " + pcOrder);
+		}
+
+		int[] varIndices = new int[numDOFs];
+		for (int i=0; i<numDOFs; i++) {
+			varIndices[varOrder[i]] = i;
+		}
+
+		// enumerate the monomials in the same order as SeriesFitter.evalSeries(), so we can match up the coefficients
+		List<int[]> monomials = new ArrayList<>();
+		for (int degree=1; degree<=Math.max(order, pcOrder); degree++) {
+			if (degree <= order) {
+				enumerateMonomials(monomials, new int[degree], 0, numDOFs - 1, null);
+			} else if (degree > 2) {
+				// evalSeries() never adds PC-only quadratic terms
+				enumerateMonomials(monomials, new int[degree], 0, numDOFs - 1, isPC);
+			}
+		}
+
+		if (monomials.size() != poly.coeffs.length) {
+			throw new RuntimeException("ERROR: EPoly has " + poly.coeffs.length + " coefficients, but its series has " + monomials.size() + " monomials");
+		}
+
+		// key the monomials by their y indices, in decreasing order
+		Map<List<Integer>,Double> coeffsByMonomial = new HashMap<>();
+		int maxDegree = 0;
+		for (int i=0; i<monomials.size(); i++) {
+			List<Integer> key = new ArrayList<>();
+			for (int dof : monomials.get(i)) {
+				key.add(varIndices[dof]);
+			}
+			key.sort((a, b) -> Integer.compare(b, a));
+			coeffsByMonomial.merge(key, poly.coeffs[i], Double::sum);
+			maxDegree = Math.max(maxDegree, key.size());
+		}
+
+		// find the longest run we need to extend each prefix
+		Map<List<Integer>,Integer> runSizesByPrefix = new HashMap<>();
+		for (List<Integer> monomial : coeffsByMonomial.keySet()) {
+			for (int degree=monomial.size(); degree>=1; degree--) {
+				List<Integer> prefix = monomial.subList(0, degree - 1);
+				runSizesByPrefix.merge(new ArrayList<>(prefix), monomial.get(degree - 1) + 1, Math::max);
+			}
+		}
+
+		// build the runs one degree at a time, so parents come before their runs
+		List<Integer> runParents = new ArrayList<>();
+		List<Integer> runStarts = new ArrayList<>();
+		List<Integer> runSizes = new ArrayList<>();
+		List<Double> coeffs = new ArrayList<>();
+		List<List<Integer>> nodes = new ArrayList<>();
+		addRun(new ArrayList<>(), -1, runSizesByPrefix, coeffsByMonomial, runParents, runStarts, runSizes, coeffs, nodes);
+		int layerStart = 0;
+		while (layerStart < nodes.size()) {
+			int layerEnd = nodes.size();
+
+			// runs in the same layer don't depend on each other, so sort them by shape
+			// that way, the evaluation loops branch the same way for long stretches
+			List<Integer> parents = new ArrayList<>();
+			for (int m=layerStart; m<layerEnd; m++) {
+				if (runSizesByPrefix.containsKey(nodes.get(m))) {
+					parents.add(m);
+				}
+			}
+			parents.sort((a, b) -> {
+				List<Integer> prefixa = nodes.get(a);
+				List<Integer> prefixb = nodes.get(b);
+				int diff = Boolean.compare(hasChildren(prefixa, runSizesByPrefix), hasChildren(prefixb, runSizesByPrefix));
+				if (diff != 0) {
+					return diff;
+				}
+				return Integer.compare(runSizesByPrefix.get(prefixa), runSizesByPrefix.get(prefixb));
+			});
+			for (int m : parents) {
+				addRun(nodes.get(m), m, runSizesByPrefix, coeffsByMonomial, runParents, runStarts, runSizes, coeffs, nodes);
+			}
+
+			layerStart = layerEnd;
+		}
+
+		int numRuns = runParents.size();
+		int[] runParentsArray = new int[numRuns];
+		int[] runStartsArray = new int[numRuns];
+		int[] runSizesArray = new int[numRuns];
+		boolean[] runHasChildrenArray = new boolean[numRuns];
+		for (int r=0; r<numRuns; r++) {
+			runParentsArray[r] = runParents.get(r);
+			runStartsArray[r] = runStarts.get(r);
+			runSizesArray[r] = runSizes.get(r);
+		}
+		for (int r=0; r<numRuns; r++) {
+			int parent = runParentsArray[r];
+			if (parent >= 0) {
+				// parent runs start at or before their monomials
+				int parentRun = Arrays.binarySearch(runStartsArray, parent);
+				if (parentRun < 0) {
+					parentRun = -parentRun - 2;
+				}
+				runHasChildrenArray[parentRun] = true;
+			}
+		}
+		double[] coeffsArray = new double[coeffs.size()];
+		for (int m=0; m<coeffsArray.length; m++) {
+			coeffsArray[m] = coeffs.get(m);
+		}
+
+		return new CompiledEPoly(poly, basis, runParentsArray, runStartsArray, runSizesArray, runHasChildrenArray, coeffsArray);
+	}
+
+	private static void enumerateMonomials(List<int[]> monomials, int[] dofs, int depth, int maxDof, boolean[] isPC) {
+		if (depth == dofs.length) {
+			monomials.add(dofs.clone());
+			return;
+		}
+		for (int dof=0; dof<=maxDof; dof++) {
+			if (isPC != null && !isPC[dof]) {
+				continue;
+			}
+			dofs[depth] = dof;
+			enumerateMonomials(monomials, dofs, depth + 1, dof, isPC);
+		}
+	}
+
+	private static boolean hasChildren(List<Integer> prefix, Map<List<Integer>,Integer> runSizesByPrefix) {
+		int size = runSizesByPrefix.get(prefix);
+		for (int var=0; var<size; var++) {
+			List<Integer> monomial = new ArrayList<>(prefix);
+			monomial.add(var);
+			if (runSizesByPrefix.containsKey(monomial)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static void addRun(List<Integer> prefix, int parent, Map<List<Integer>,Integer> runSizesByPrefix, Map<List<Integer>,Double> coeffsByMonomial,
+			List<Integer> runParents, List<Integer> runStarts, List<Integer> runSizes, List<Double> coeffs, List<List<Integer>> nodes) {
+
+		Integer size = runSizesByPrefix.get(prefix);
+		if (size == null) {
+			return;
+		}
+
+		runParents.add(parent);
+		runStarts.add(coeffs.size());
+		runSizes.add(size);
+		for (int var=0; var<size; var++) {
+			List<Integer> monomial = new ArrayList<>(prefix);
+			monomial.add(var);
+			coeffs.add(coeffsByMonomial.getOrDefault(monomial, 0.0));
+			nodes.add(monomial);
+		}
+	}
+
+	public boolean isCompiledFrom(EPoly poly) {
+		return poly.coeffs == sourceCoeffs && poly.center == sourceCenter;
+	}
+
+	public int getNumMonomials() {
+		return coeffs.length;
+	}
+
+	/**
+	 * size of the work array needed by the evaluation methods
+	 */
+	public int getWorkSize() {
+		return 2*numDOFs + 2*coeffs.length;
+	}
+
+	private void toSeriesCoords(double[] x, int[] dofIndices, double[] work) {
+
+		// convert to relative coords, and then into the PC basis if needed
+		// the relative coords go at the end of the work array, since we're done with that part for now
+		int z = getWorkSize() - numDOFs;
+		for (int i=0; i<numDOFs; i++) {
+			int dof = dofIndices == null ? i : dofIndices[i];
+			work[z + i] = x[dof] - center[i];
+		}
+
+		if (basis == null) {
+			System.arraycopy(work, z, work, 0, numDOFs);
+		} else {
+			for (int i=0; i<numDOFs; i++) {
+				double y = 0;
+				int row = i*numDOFs;
+				for (int j=0; j<numDOFs; j++) {
+					y += basis[row + j]*work[z + j];
+				}
+				work[i] = y;
+			}
+		}
+	}
+
+	/**
+	 * evaluates the series (not including minE or SAPE terms)
+	 *
+	 * @param x the DOF values
+	 * @param dofIndices for each DOF of this polynomial, its index in x, or null if x only has this polynomial's DOFs
+	 * @param work scratch space, at least {@link #getWorkSize()} long
+	 */
+	public double evaluate(double[] x, int[] dofIndices, double[] work) {
+
+		toSeriesCoords(x, dofIndices, work);
+
+		// work layout: series coords, then monomial values
+		int p = numDOFs;
+		double val = 0;
+		for (int r=0; r<runStarts.length; r++) {
+			int parent = runParents[r];
+			double prefix = parent < 0 ? 1 : work[p + parent];
+			int start = runStarts[r];
+			int size = runSizes[r];
+			if (runHasChildren[r]) {
+				double dot = 0;
+				for (int var=0; var<size; var++) {
+					double prod = prefix*work[var];
+					work[p + start + var] = prod;
+					dot += coeffs[start + var]*work[var];
+				}
+				val += prefix*dot;
+			} else {
+				double dot = 0;
+				for (int var=0; var<size; var++) {
+					dot += coeffs[start + var]*work[var];
+				}
+				val += prefix*dot;
+			}
+		}
+		return val;
+	}
+
+	/**
+	 * same as {@link #evaluate(double[], int[], double[])}, but also adds the derivatives
+	 * of the series to gradient, at the same indices as the DOFs in x
+	 */
+	public double evaluateWithGradient(double[] x, int[] dofIndices, double[] gradient, double[] work) {
+
+		double val = evaluate(x, dofIndices, work);
+
+		// work layout: series coords, monomial values, monomial adjoints, series coord derivatives
+		int numMonomials = coeffs.length;
+		int p = numDOFs;
+		int a = p + numMonomials;
+		int g = a + numMonomials;
+		System.arraycopy(coeffs, 0, work, a, numMonomials);
+		Arrays.fill(work, g, g + numDOFs, 0);
+
+		// runs always come after their parents, so go backwards to finish each adjoint before it's used
+		for (int r=runStarts.length-1; r>=0; r--) {
+			int parent = runParents[r];
+			double prefix = parent < 0 ? 1 : work[p + parent];
+			int start = runStarts[r];
+			int size = runSizes[r];
+			double dot = 0;
+			for (int var=0; var<size; var++) {
+				double adjoint = work[a + start + var];
+				dot += adjoint*work[var];
+				work[g + var] += adjoint*prefix;
+			}
+			if (parent >= 0) {
+				work[a + parent] += dot;
+			}
+		}
+
+		// chain back to the DOFs
+		for (int j=0; j<numDOFs; j++) {
+			double deriv;
+			if (basis == null) {
+				deriv = work[g + j];
+			} else {
+				deriv = 0;
+				for (int i=0; i<numDOFs; i++) {
+					deriv += work[g + i]*basis[i*numDOFs + j];
+				}
+			}
+			int dof = dofIndices == null ? j : dofIndices[j];
+			gradient[dof] += deriv;
+		}
+
+		return val;
+	}
+}
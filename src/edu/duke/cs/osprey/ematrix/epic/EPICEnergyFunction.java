@@ -10,6 +10,7 @@ import edu.duke.cs.osprey.dof.DegreeOfFreedom;
 import edu.duke.cs.osprey.energy.EnergyFunction;
 import edu.duke.cs.osprey.structure.Molecule;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 /**
@@ -34,6 +35,12 @@ public class EPICEnergyFunction implements EnergyFunction.NeedsInit, EnergyFunct
     ArrayList<EPoly> terms;//the EPIC terms to evaluate
     
     ArrayList<ArrayList<Integer>> termDOFs;//for each term, which degrees of freedom (in curDOFVals) it operates on
+    
+    //compiled versions of the terms and termDOFs, and scratch space to evaluate them
+    transient CompiledEPoly[] compiledTerms = null;
+    transient int[][] termDOFIndices = null;
+    transient double[] x = null;
+    transient double[] work = null;
 
     
     public EPICEnergyFunction(ArrayList<EPoly> terms) {
@@ -80,6 +87,8 @@ public class EPICEnergyFunction implements EnergyFunction.NeedsInit, EnergyFunct
             termDOFs.add(singleTermDOFs);
         }
         
+        compileTerms();
+        
         
         
         //all terms with SAPE need to know about the shared molecule, if we are using one
@@ -96,22 +105,81 @@ public class EPICEnergyFunction implements EnergyFunction.NeedsInit, EnergyFunct
     
     
     
-    @Override
-    public double getEnergy() {
+    private void compileTerms(){
+        
+        int numTerms = terms.size();
+        compiledTerms = new CompiledEPoly[numTerms];
+        termDOFIndices = new int[numTerms][];
+        int workSize = 0;
+        for(int termNum=0; termNum<numTerms; termNum++){
+            compiledTerms[termNum] = terms.get(termNum).getCompiled();
+            workSize = Math.max(workSize, compiledTerms[termNum].getWorkSize());
+            
+            ArrayList<Integer> singleTermDOFs = termDOFs.get(termNum);
+            termDOFIndices[termNum] = new int[singleTermDOFs.size()];
+            for(int i=0; i<singleTermDOFs.size(); i++)
+                termDOFIndices[termNum][i] = singleTermDOFs.get(i);
+        }
+        
+        x = new double[curDOFVals.size()];
+        work = new double[workSize];
+    }
+    
+    
+    private void readDOFVals(){
+        
         if(curDOFVals==null){
             throw new RuntimeException("ERROR: Trying to evaluate an EPICEnergyFunction "
                     + "before assigning it to a vector of DOF values");
         }
         
+        //compiled terms aren't serialized, so recompile if needed
+        if(compiledTerms==null || x.length!=curDOFVals.size())
+            compileTerms();
+        
+        for(int dof=0; dof<x.length; dof++)
+            x[dof] = curDOFVals.get(dof);
+    }
+    
+    
+    private double getNonSeriesEnergy(int termNum){
+        //the parts of the term's energy that aren't in the compiled series
+        EPoly term = terms.get(termNum);
         double E = 0;
-        for(int termNum=0; termNum<terms.size(); termNum++){
-            EPoly term = terms.get(termNum);
-            
+        if(includeMinE)
+            E += term.minE;
+        if(term.sapeTerm!=null){
             DoubleMatrix1D DOFValsForTerm = DoubleFactory1D.dense.make(term.numDOFs);
             for(int DOFCount=0; DOFCount<term.numDOFs; DOFCount++)
                 DOFValsForTerm.set( DOFCount, curDOFVals.get(termDOFs.get(termNum).get(DOFCount)) );
-            
-            double termVal = term.evaluate(DOFValsForTerm, includeMinE, useSharedMolec);
+            if(useSharedMolec)//shared molecule assumed to be in the right conformation already
+                E += term.sapeTerm.getEnergySharedMolec() - term.baseSAPE;
+            else
+                E += term.sapeTerm.getEnergyStandalone(DOFValsForTerm) - term.baseSAPE;
+        }
+        return E;
+    }
+    
+    
+    @Override
+    public double getEnergy() {
+        return getEnergies(null);
+    }
+    
+    
+    public double getEnergies(double[] termEnergies){
+        //evaluate all the terms at curDOFVals
+        //if termEnergies isn't null, the energy of each term is written there too
+        //returns the total energy
+        
+        readDOFVals();
+        
+        double E = 0;
+        for(int termNum=0; termNum<compiledTerms.length; termNum++){
+            double termVal = compiledTerms[termNum].evaluate(x, termDOFIndices[termNum], work)
+                    + getNonSeriesEnergy(termNum);
+            if(termEnergies!=null)
+                termEnergies[termNum] = termVal;
             E += termVal;
         }
         
@@ -119,27 +187,46 @@ public class EPICEnergyFunction implements EnergyFunction.NeedsInit, EnergyFunct
     }
     
     
+    public boolean hasGradient(){
+        //SAPE terms don't have gradients
+        for(EPoly term : terms){
+            if(term.sapeTerm!=null)
+                return false;
+        }
+        return true;
+    }
     
     
-    public ArrayList<Double> allTermValues(){
-        //values of all epic terms at current curDOFVals
-        ArrayList<Double> ans = new ArrayList<>();
+    public double getEnergyAndGradient(double[] gradient){
+        //evaluate all the terms at curDOFVals, and write the derivatives of the total energy
+        //with respect to curDOFVals to gradient
+        //returns the total energy
         
-        if(curDOFVals==null){
-            throw new RuntimeException("ERROR: Trying to evaluate an EPICEnergyFunction "
-                    + "before assigning it to a vector of DOF values");
+        if(!hasGradient())
+            throw new RuntimeException("ERROR: SVE gradient not currently supported");
+        
+        readDOFVals();
+        Arrays.fill(gradient, 0, x.length, 0);
+        
+        double E = 0;
+        for(int termNum=0; termNum<compiledTerms.length; termNum++){
+            E += compiledTerms[termNum].evaluateWithGradient(x, termDOFIndices[termNum], gradient, work);
+            if(includeMinE)
+                E += terms.get(termNum).minE;
         }
         
-        for(int termNum=0; termNum<terms.size(); termNum++){
-            EPoly term = terms.get(termNum);
-            
-            DoubleMatrix1D DOFValsForTerm = DoubleFactory1D.dense.make(term.numDOFs);
-            for(int DOFCount=0; DOFCount<term.numDOFs; DOFCount++)
-                DOFValsForTerm.set( DOFCount, curDOFVals.get(termDOFs.get(termNum).get(DOFCount)) );
-            
-            double termVal = term.evaluate(DOFValsForTerm, includeMinE, useSharedMolec);
+        return E;
+    }
+    
+    
+    public ArrayList<Double> allTermValues(){
+        //values of all epic terms at current curDOFVals
+        double[] termEnergies = new double[terms.size()];
+        getEnergies(termEnergies);
+        
+        ArrayList<Double> ans = new ArrayList<>();
+        for(double termVal : termEnergies)
             ans.add(termVal);
-        }
         
         return ans;
     }
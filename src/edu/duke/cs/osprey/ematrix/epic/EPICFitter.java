@@ -18,11 +18,13 @@ import cern.colt.matrix.DoubleMatrix2D;
 import cern.jet.math.Functions;
 import edu.duke.cs.osprey.minimization.MoleculeModifierAndScorer;
 import edu.duke.cs.osprey.minimization.ObjectiveFunction;
+import edu.duke.cs.osprey.tools.Factory;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.BitSet;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Random;
 
 
 //this class generates EPIC polynomial fits for a given RC (intra+shell energy) or pair (pairwise energy)
@@ -46,6 +48,11 @@ public class EPICFitter {
     
     static int sampPerParam = 10;
     
+    Random random = new Random();//for drawing samples; see setRandomSeed
+    
+    Factory<MoleculeModifierAndScorer,Void> sapeObjFcns = null;//makes the standalone objective functions for SAPE
+    //null means SAPE deep-copies objFcn instead
+    
     public EPICFitter ( MoleculeModifierAndScorer mof, EPICSettings eset,
             DoubleMatrix1D cen, double me ) {
         //given the CCDMinimizer used to minimize for a rotamer pair (or intra+shell)
@@ -61,6 +68,21 @@ public class EPICFitter {
         center = cen;
         minE = me;
     }
+    
+    
+    public void setRandomSeed(long seed){
+        //seed the sampling, so fits can be reproduced
+        //regardless of what else is being fit at the same time
+        random.setSeed(seed);
+    }
+    
+    
+    public void setSAPEObjFcnFactory(Factory<MoleculeModifierAndScorer,Void> val){
+        //SAPE terms need an objective function with the same DOFs as objFcn, but their own molecule
+        //if we have spare molecules (e.g. from a ParameterizedMoleculePool), making it from one of those
+        //is much cheaper than deep-copying objFcn
+        sapeObjFcns = val;
+    }
 
     
     
@@ -126,7 +148,10 @@ public class EPICFitter {
         //if using double bCutoff for provability also set bCutoffs array
         //according to that here!
         else{//>0            
-            sapeTerm = new SAPE(objFcn,fp.SAPECutoff,sampAbs);
+            MoleculeModifierAndScorer sapeObjFcn = null;
+            if(sapeObjFcns!=null)
+                sapeObjFcn = sapeObjFcns.make(null);
+            sapeTerm = new SAPE(objFcn,fp.SAPECutoff,sampAbs,sapeObjFcn);
             
             baseShift = sapeTerm.getEnergyStandalone(center);//SAPE contribution at center
             
@@ -495,7 +520,7 @@ public class EPICFitter {
             
             if( (gs==null) && (countOverCutoff==s+1) && (countOverCutoff>=numSamples/4) ){
                 //getting no "good" samples by uniform sampling...try Gaussian
-                gs = new GaussianLowEnergySampler(es.EPICThresh1,objFcn,DOFmin,DOFmax,center);
+                gs = new GaussianLowEnergySampler(es.EPICThresh1,objFcn,DOFmin,DOFmax,center,random);
             }
         }
         
@@ -515,7 +540,7 @@ public class EPICFitter {
             double top = relMax[dof];
             double bottom = relMin[dof];
 
-            dx.set(dof, bottom + Math.random()*(top-bottom));
+            dx.set(dof, bottom + random.nextDouble()*(top-bottom));
             x.set(dof, center.get(dof)+dx.get(dof));
         }
 
@@ -538,7 +563,7 @@ public class EPICFitter {
         //(although much more than uniform does)
         //so let's enrich that region by moving closer to the center sometimes
         //(assumes decent sampling on the sphere, which comes from construction of gs)
-        if(Math.random()>0.5){//let's do this half the time
+        if(random.nextDouble()>0.5){//let's do this half the time
             while( trueVal[s] > es.EPICThresh1){
                 //move sample halfway to center
                 sampRel[s].assign(Functions.mult(0.5));
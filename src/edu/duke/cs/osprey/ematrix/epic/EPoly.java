@@ -96,6 +96,11 @@ public class EPoly implements Serializable {
     double baseSAPE = 0;//value of SAPE terms at center (SAPE will be evaluated relative to this)
 
     
+    //flat monomial table for fast evaluation, compiled from coeffs on first use
+    //(not serialized, so EPIC matrices read from disk compile when they're loaded and used)
+    private transient CompiledEPoly compiled = null;
+
+    
 
     public EPoly(int numDOFs, ArrayList<DegreeOfFreedom> DOFs, DoubleMatrix1D DOFmax, DoubleMatrix1D DOFmin, 
             DoubleMatrix1D center, double minE, double[] coeffs, int order ) {
@@ -117,8 +122,8 @@ public class EPoly implements Serializable {
         //Faster if we can use a shared molecule (this could be possible if this EPoly
         //is part of a MolecEObjFunction)
         
-        DoubleMatrix1D z = toRelCoords(x);
-        double serVal = evalSeries(z);
+        CompiledEPoly poly = getCompiled();
+        double serVal = poly.evaluate(x.toArray(), null, new double[poly.getWorkSize()]);
         
         if(includeMinE)
             serVal += minE;
@@ -136,6 +141,18 @@ public class EPoly implements Serializable {
     
     
     
+    public CompiledEPoly getCompiled(){
+        //compile the series if we haven't yet, or if it's been refit since
+        //compiled EPolys are immutable, so racing threads will at worst compile twice
+        CompiledEPoly poly = compiled;
+        if(poly==null || !poly.isCompiledFrom(this)){
+            poly = CompiledEPoly.compile(this);
+            compiled = poly;
+        }
+        return poly;
+    }
+    
+    
     double evalSeries(DoubleMatrix1D z){
         //evaluate the actual series
         //(function of relative coordinates)
@@ -193,17 +210,14 @@ public class EPoly implements Serializable {
     public DoubleMatrix1D gradient(DoubleMatrix1D x/*, boolean useSharedMolec*/) {
         //evaluate this EPoly gradient as a function of internal coordinates x
          
-        DoubleMatrix1D z = toRelCoords(x);
-        
-        if(this instanceof EPolyPC)
-            throw new RuntimeException("ERROR: gradient for EPolyPC not currently supported");
-        
-        DoubleMatrix1D grad = seriesGradient(z);
-                 
         if(sapeTerm!=null)
             throw new RuntimeException("ERROR: SVE gradient not currently supported");
-        else 
-            return grad;
+        
+        //the compiled series handles the PC basis too
+        CompiledEPoly poly = getCompiled();
+        double[] grad = new double[numDOFs];
+        poly.evaluateWithGradient(x.toArray(), null, grad, new double[poly.getWorkSize()]);
+        return DoubleFactory1D.dense.make(grad);
     }
     
     
@@ -262,6 +276,14 @@ public class EPoly implements Serializable {
         return true;
     }
 
+    public void setDOFs(ArrayList<DegreeOfFreedom> DOFs) {
+        //use equivalent DOFs from another copy of the molecule (e.g. the conf space's,
+        //if this term was fit on a copy)
+        if(DOFs.size()!=numDOFs)
+            throw new IllegalArgumentException("ERROR: EPoly has "+numDOFs+" DOFs, got "+DOFs.size());
+        this.DOFs = DOFs;
+    }
+    
     public void setMinE(double minE) {
         this.minE = minE;
     }
@@ -39,12 +39,13 @@ public class GaussianLowEnergySampler {
     DoubleMatrix1D center;
     DoubleMatrix1D sigmas;
     
-    Random random = new Random();//a random
+    Random random;//a random (shared with the EPICFitter, so fits are reproducible)
             
 
     public GaussianLowEnergySampler(double thresh, ObjectiveFunction of, DoubleMatrix1D DOFmin, 
-            DoubleMatrix1D DOFmax, DoubleMatrix1D center) {
+            DoubleMatrix1D DOFmax, DoubleMatrix1D center, Random random) {
         this.EPICThresh1 = thresh;
+        this.random = random;
         this.of = of;
         this.DOFmin = DOFmin;
         this.DOFmax = DOFmax;
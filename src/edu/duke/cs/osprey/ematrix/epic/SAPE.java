@@ -52,16 +52,35 @@ public class SAPE implements Serializable {
     
     
     public SAPE (MoleculeModifierAndScorer objFcn, double distCutoff, DoubleMatrix1D[] sampAbs){
+        this(objFcn, distCutoff, sampAbs, null);
+    }
+    
+    
+    public SAPE (MoleculeModifierAndScorer objFcn, double distCutoff, DoubleMatrix1D[] sampAbs,
+            MoleculeModifierAndScorer standaloneObjFcn){
         //We'll initialize the SAPE for standalone work, and also
         //initialize information sufficient to reinitialize with a shared molecule
         
+        //standaloneObjFcn, if not null, must have the same DOFs and constraints as objFcn,
+        //but in a molecule of its own (e.g. from a ParameterizedMoleculePool)
+        //SAPE will set its energy function
         
-        //The standalone molecule and energy function for SAPE will belong only to the SAPE object
-        //(we'll deep-copy, deleting fields not needed for SAPE)
         EnergyFunction mainEF = objFcn.getEfunc();
-        objFcn.setEfunc(null);
-        mofStandalone = (MoleculeModifierAndScorer) ObjectIO.deepCopy(objFcn);
-        objFcn.setEfunc(mainEF);
+        
+        if(standaloneObjFcn!=null)
+            mofStandalone = standaloneObjFcn;
+        else{
+            //The standalone molecule and energy function for SAPE will belong only to the SAPE object
+            //(we'll deep-copy, deleting fields not needed for SAPE)
+            //put the energy function back even if the copy fails, since the caller still needs it
+            objFcn.setEfunc(null);
+            try{
+                mofStandalone = (MoleculeModifierAndScorer) ObjectIO.deepCopy(objFcn);
+            }
+            finally{
+                objFcn.setEfunc(mainEF);
+            }
+        }
         
         
         Molecule standaloneMolec = mofStandalone.getMolec();
@@ -90,13 +90,14 @@ public class SubThreshSampler {
     
     
     DoubleMatrix1D x;//current sample value
-    Random random = new Random();//a random
+    Random random;//a random (supplied by the caller, so sampling can be seeded per tuple like the EPIC fits)
     
     static boolean adaptiveScale = true;//if true, then we adaptively choose our samplingScale at each step
     //it will be a function of x, and samplingScale will be specific to x
 
-    public SubThreshSampler(double thresh, ObjectiveFunction of, DoubleMatrix1D DOFmin, DoubleMatrix1D DOFmax) {
+    public SubThreshSampler(double thresh, ObjectiveFunction of, DoubleMatrix1D DOFmin, DoubleMatrix1D DOFmax, Random random) {
         this.thresh = thresh;
+        this.random = random;
         this.of = of;
         this.DOFmin = DOFmin;
         this.DOFmax = DOFmax;
@@ -362,7 +363,7 @@ public class SubThreshSampler {
                 double qforward = Q(x,y,samplingScale);
                 DoubleMatrix1D ySamplingScale = getScaleAdaptive(y);
                 double qback = Q(y,x,ySamplingScale);
-                if(qback/qforward > Math.random())//going to accept
+                if(qback/qforward > random.nextDouble())//going to accept
                     samplingScale = ySamplingScale;
                 else
                     return false;
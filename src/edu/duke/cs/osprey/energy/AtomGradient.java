@@ -0,0 +1,61 @@
+package edu.duke.cs.osprey.energy;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import edu.duke.cs.osprey.structure.Residue;
+
+/**
+ * Derivatives of an energy with respect to atom coordinates, one array per residue
+ * laid out like {@link Residue#coords}.
+ *
+ * The arrays are kept between evaluations, so clear() just zeroes them out.
+ */
+public class AtomGradient implements Serializable {
+	
+	private static final long serialVersionUID = -4517906315425405117L;
+	
+	private Map<Residue,double[]> gradients = new IdentityHashMap<>();
+	
+	public double[] get(Residue res) {
+		double[] gradient = gradients.get(res);
+		if (gradient == null || gradient.length != res.coords.length) {
+			// mutations can change the number of atoms
+			gradient = new double[res.coords.length];
+			gradients.put(res, gradient);
+		}
+		return gradient;
+	}
+	
+	/**
+	 * returns null if nothing has added to the gradient for this residue
+	 */
+	public double[] getIfPresent(Residue res) {
+		double[] gradient = gradients.get(res);
+		if (gradient == null || gradient.length != res.coords.length) {
+			return null;
+		}
+		return gradient;
+	}
+	
+	public void clear() {
+		for (double[] gradient : gradients.values()) {
+			Arrays.fill(gradient, 0);
+		}
+	}
+	
+	public void addScaled(AtomGradient other, double scale) {
+		for (Map.Entry<Residue,double[]> entry : other.gradients.entrySet()) {
+			double[] src = entry.getValue();
+			double[] dest = get(entry.getKey());
+			if (dest.length != src.length) {
+				continue;
+			}
+			for (int i=0; i<src.length; i++) {
+				dest[i] += scale*src[i];
+			}
+		}
+	}
+}
@@ -37,4 +37,14 @@ public interface EnergyFunction extends Serializable {
     public static interface ExplicitChemicalChanges extends EnergyFunction {
     	int handleChemicalChanges();
     }
+    
+    //energy functions that can compute analytic derivatives with respect to atom coordinates
+    public static interface Gradient extends EnergyFunction {
+    	
+    	//false if some part of this energy function can't compute derivatives
+    	boolean hasGradient();
+    	
+    	//returns the energy, and adds its derivatives to the gradient
+    	double getEnergyAndGradient(AtomGradient gradient);
+    }
 }
\ No newline at end of file
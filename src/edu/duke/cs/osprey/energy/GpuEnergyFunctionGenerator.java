@@ -19,6 +19,7 @@ public class GpuEnergyFunctionGenerator extends EnergyFunctionGenerator {
 	
 	private GpuEnergyFunctionGenerator(ForcefieldParams ffParams) {
 		super(ffParams, Double.POSITIVE_INFINITY, false);
+		GpuForcefieldEnergy.checkParams(ffParams);
 		this.intergen = new ForcefieldInteractionsGenerator();
 		this.openclQueues = null;
 		this.cudaStreams = null;
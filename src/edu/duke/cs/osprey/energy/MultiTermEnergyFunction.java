@@ -22,7 +22,7 @@ import edu.duke.cs.osprey.structure.Residue;
 //or ( energy of a pair of residues ) - (energy of residue 1) - (energy of residue 2)
 //Total energy = sum_i (coeff[i] * energy i)
 
-public class MultiTermEnergyFunction implements EnergyFunction.DecomposableByDof {
+public class MultiTermEnergyFunction implements EnergyFunction.DecomposableByDof, EnergyFunction.Gradient {
 
 	private static final long serialVersionUID = -3516267414126293331L;
 
@@ -30,9 +30,8 @@ public class MultiTermEnergyFunction implements EnergyFunction.DecomposableByDof
 
 	ArrayList<EnergyFunction> terms = new ArrayList<>();
 	ArrayList<Double> coeffs = new ArrayList<>();
-	ArrayList<Double> partialE = new ArrayList<>();
-	ArrayList<Integer> indexes = new ArrayList<>();
 	double preCompE = 0.0;
+	private transient ParallelEnergyFunction parallelEFunc = null;
 
 	//Constructor with no terms
 	public MultiTermEnergyFunction(){
@@ -42,16 +41,12 @@ public class MultiTermEnergyFunction implements EnergyFunction.DecomposableByDof
 	public void addTerm(EnergyFunction ef){
 		terms.add(ef);
 		coeffs.add(1.);
-		partialE.add(0.0);
-		indexes.add(indexes.size());
 	}
 
 	//add a term to this with a given coefficient
 	public void addTermWithCoeff(EnergyFunction ef, double coeff){
 		terms.add(ef);
 		coeffs.add(coeff);
-		partialE.add(0.0);
-		indexes.add(indexes.size());
 	}
 
 
@@ -93,10 +88,11 @@ public class MultiTermEnergyFunction implements EnergyFunction.DecomposableByDof
 			}
 		} else {
 
-			indexes.parallelStream().forEach((term) -> partialE.set(term, terms.get(term).getEnergy()*coeffs.get(term)));
-			for (int term = 0; term < indexes.size(); ++term) {
-				E += partialE.get(term);
+			// chunks the terms by cost, and keeps all its state on the stack, so it's safe to call from many threads
+			if (parallelEFunc == null) {
+				parallelEFunc = new ParallelEnergyFunction(terms, coeffs);
 			}
+			E = parallelEFunc.getEnergy();
 		}
 
 		if(Double.isNaN(E) || Double.isInfinite(E))//This can happen if there are positive and negative terms
@@ -107,6 +103,41 @@ public class MultiTermEnergyFunction implements EnergyFunction.DecomposableByDof
 		return preCompE = E;
 	}
 
+	@Override
+	public boolean hasGradient() {
+		for(EnergyFunction term : terms){
+			if(!(term instanceof EnergyFunction.Gradient) || !((EnergyFunction.Gradient)term).hasGradient())
+				return false;
+		}
+		return true;
+	}
+
+	@Override
+	public double getEnergyAndGradient(AtomGradient gradient) {
+
+		double E = 0;
+		AtomGradient termGradient = null;
+
+		for(int termNum=0; termNum<terms.size(); termNum++){
+			EnergyFunction.Gradient term = (EnergyFunction.Gradient)terms.get(termNum);
+			double coeff = coeffs.get(termNum);
+			if(coeff == 1.0) {
+				E += term.getEnergyAndGradient(gradient);
+			} else {
+				//scale the term's derivatives by its coefficient
+				if(termGradient == null) termGradient = new AtomGradient();
+				termGradient.clear();
+				E += coeff*term.getEnergyAndGradient(termGradient);
+				gradient.addScaled(termGradient, coeff);
+			}
+		}
+
+		if(Double.isNaN(E) || Double.isInfinite(E))
+			return Double.POSITIVE_INFINITY;
+
+		return preCompE = E;
+	}
+
 	public ArrayList<EnergyFunction> getTerms() {
 		return terms;
 	}
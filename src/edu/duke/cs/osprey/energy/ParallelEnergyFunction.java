@@ -1,103 +1,71 @@
 package edu.duke.cs.osprey.energy;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
 
-import edu.duke.cs.osprey.parallelism.WorkCrew;
-import edu.duke.cs.osprey.parallelism.Worker;
+import edu.duke.cs.osprey.energy.forcefield.BigForcefieldEnergy;
+import edu.duke.cs.osprey.energy.forcefield.ResPairEnergy;
+import edu.duke.cs.osprey.energy.forcefield.SingleResEnergy;
 
+/**
+ * Sums energy terms in parallel on a shared work-stealing {@link ForkJoinPool}.
+ *
+ * Terms are split into chunks with about the same number of atom pairs each, so one big
+ * residue pair doesn't leave the other threads waiting. All the state for an evaluation
+ * lives on the stack, so any number of threads can evaluate different instances at once,
+ * and evaluations from inside fork/join tasks (e.g. parallel conf minimizations) just
+ * fork more tasks instead of blocking the pool.
+ *
+ * Chunks are always summed in the same order, so energies don't depend on the thread scheduling.
+ */
 public class ParallelEnergyFunction implements EnergyFunction {
-	
-	private static class EnergyWorker extends Worker {
-		
-		private int startIndex;
-		private int stopIndex;
-		private double energy;
 
-		public EnergyWorker(WorkCrew<EnergyWorker> crew) {
-			super(crew);
-		}
+	private static final long serialVersionUID = -2789380428939629566L;
 
-		@Override
-		protected void workIt() {
-			
-			// copy some references/values to the stack for that little extra bit of speed
-			ArrayList<EnergyFunction> terms = efunc.terms;
-			ArrayList<Double> coeffs = efunc.coeffs;
-			int startIndex = this.startIndex;
-			int stopIndex = this.stopIndex;
-			
-			// do it!
-			double energy = 0;
-			for (int i=startIndex; i<=stopIndex; i++) {
-				energy += terms.get(i).getEnergy()*coeffs.get(i);
-			}
-			
-			// save results to 'this' memory
-			this.energy = energy;
-		}
-	}
-
-	private static WorkCrew<EnergyWorker> crew;
-	private static ParallelEnergyFunction efunc;
-	
-	static {
-		crew = null;
-		efunc = null;
-	}
-	
-	public static boolean isCrewStarted() {
-		return crew != null;
-	}
-	
-	public static void startCrew(int numThreads) {
-		crew = new WorkCrew<>("Energy");
-		for (int i=0; i<numThreads; i++) {
-			new EnergyWorker(crew);
-		}
-		crew.start();
-	}
-	
-	public static void stopCrew() {
-		if (crew == null) {
-			return;
-		}
-		crew.askToStop();
-		crew = null;
-	}
-	
-	public static void setEFunc(ParallelEnergyFunction val) {
-		
-		if (efunc == val) {
-			return;
-		}
-		
-		efunc = val;
-		
-		// set up partition
-		// partition terms among workers
-		int numTerms = efunc.terms.size();
-		int numWorkers = crew.getWorkers().size();
-		int width = (numTerms + numWorkers - 1)/numWorkers;
-		int startIndex = 0;
-		int stopIndex = startIndex + width - 1;
-		for (EnergyWorker worker : crew.getWorkers()) {
-			worker.startIndex = startIndex;
-			worker.stopIndex = stopIndex;
-			startIndex += width;
-			stopIndex = Math.min(stopIndex + width, numTerms - 1);
+	// splitting smaller than this costs more in task overhead than we get back from parallelism
+	public static final int DefaultMinPairsPerChunk = 2000;
+
+	// make a few more chunks than threads, so work stealing can even out timing noise
+	private static final int ChunksPerThread = 4;
+
+	private static class Chunk {
+
+		public final int[] termIndices;
+		public final long cost;
+
+		public Chunk(int[] termIndices, long cost) {
+			this.termIndices = termIndices;
+			this.cost = cost;
 		}
 	}
 
-	private static final long serialVersionUID = -2789380428939629566L;
-	
 	private ArrayList<EnergyFunction> terms;
 	private ArrayList<Double> coeffs;
-	
+	private transient ForkJoinPool pool;
+	private int minPairsPerChunk;
+	private transient Chunk[] chunks;
+
 	public ParallelEnergyFunction(ArrayList<EnergyFunction> terms, ArrayList<Double> coeffs) {
+		this(terms, coeffs, ForkJoinPool.commonPool());
+	}
+
+	public ParallelEnergyFunction(ArrayList<EnergyFunction> terms, ArrayList<Double> coeffs, ForkJoinPool pool) {
+
+		if (terms.size() != coeffs.size()) {
+			throw new IllegalArgumentException("ERROR: ParallelEnergyFunction has " + terms.size() + " terms but " + coeffs.size() + " coefficients");
+		}
+
 		this.terms = terms;
 		this.coeffs = coeffs;
+		this.pool = pool;
+		this.minPairsPerChunk = DefaultMinPairsPerChunk;
+		this.chunks = null;
 	}
-	
+
 	public ArrayList<EnergyFunction> getTerms() {
 		return terms;
 	}
@@ -105,39 +73,201 @@ public class ParallelEnergyFunction implements EnergyFunction {
 	public ArrayList<Double> getCoeffs() {
 		return coeffs;
 	}
-	
-	@Override
-	public double getEnergy() {
-		
-		setEFunc(this);
-		
-		// start all the processors
-		crew.sendWork();
-		
-		// wait for the work to finish
-		try {
-			// wait 10 seconds at first
-			boolean finished = crew.waitForResults(10000);
-			if (!finished) {
-				System.err.println("WARNING: ParallelEnergyFunction is taking more than 10 seconds to evaluate. Maybe something is wrong?");
-				
-				// wait 10000 more seconds
-				//sometimes there are temporary slowdowns on the cluster and runs crash unnecessarily if we have a hard cap around 10 s
-				finished = crew.waitForResults(10000000);
-				if (!finished) {
-					throw new Error("Timed out waiting 10000 seconds for energy calculations to finish!"
-							+ "\nEnergy calculation shouldn't take more than 10000 seconds, right?");
+
+	public ForkJoinPool getPool() {
+		if (pool == null) {
+			pool = ForkJoinPool.commonPool();
+		}
+		return pool;
+	}
+
+	public int getMinPairsPerChunk() {
+		return minPairsPerChunk;
+	}
+
+	public void setMinPairsPerChunk(int val) {
+		minPairsPerChunk = Math.max(1, val);
+		chunks = null;
+	}
+
+	public int getNumChunks() {
+		return getChunks().length;
+	}
+
+	/**
+	 * estimated cost of each chunk, in atom pairs
+	 */
+	public long[] getChunkCosts() {
+		Chunk[] chunks = getChunks();
+		long[] costs = new long[chunks.length];
+		for (int c=0; c<chunks.length; c++) {
+			costs[c] = chunks[c].cost;
+		}
+		return costs;
+	}
+
+	/**
+	 * estimated cost of evaluating the term, in atom pairs
+	 */
+	public static long getCost(EnergyFunction term) {
+		if (term instanceof ResPairEnergy) {
+			return Math.max(1, ((ResPairEnergy)term).getFFEnergy().getNumTerms());
+		} else if (term instanceof SingleResEnergy) {
+			return Math.max(1, ((SingleResEnergy)term).getFFEnergy().getNumTerms());
+		} else if (term instanceof BigForcefieldEnergy) {
+			return Math.max(1, ((BigForcefieldEnergy)term).getFullSubset().getNumAtomPairs());
+		} else if (term instanceof MultiTermEnergyFunction) {
+			long cost = 0;
+			for (EnergyFunction subterm : ((MultiTermEnergyFunction)term).getTerms()) {
+				cost += getCost(subterm);
+			}
+			return Math.max(1, cost);
+		} else if (term instanceof ParallelEnergyFunction) {
+			long cost = 0;
+			for (EnergyFunction subterm : ((ParallelEnergyFunction)term).getTerms()) {
+				cost += getCost(subterm);
+			}
+			return Math.max(1, cost);
+		}
+
+		// no idea, assume it's cheap
+		return 1;
+	}
+
+	private Chunk[] getChunks() {
+
+		// copy the reference to the stack, since other threads might rebuild the chunks too
+		Chunk[] chunks = this.chunks;
+		if (chunks == null || countTerms(chunks) != terms.size()) {
+			chunks = makeChunks();
+			this.chunks = chunks;
+		}
+		return chunks;
+	}
+
+	private static int countTerms(Chunk[] chunks) {
+		int count = 0;
+		for (Chunk chunk : chunks) {
+			count += chunk.termIndices.length;
+		}
+		return count;
+	}
+
+	private Chunk[] makeChunks() {
+
+		int numTerms = terms.size();
+		long[] costs = new long[numTerms];
+		long totalCost = 0;
+		for (int i=0; i<numTerms; i++) {
+			costs[i] = getCost(terms.get(i));
+			totalCost += costs[i];
+		}
+
+		int numChunks = (int)Math.min(getPool().getParallelism()*ChunksPerThread, totalCost/minPairsPerChunk);
+		numChunks = Math.max(1, Math.min(numChunks, numTerms));
+
+		// greedy balancing: biggest terms first, each into the cheapest chunk so far
+		Integer[] order = new Integer[numTerms];
+		for (int i=0; i<numTerms; i++) {
+			order[i] = i;
+		}
+		Arrays.sort(order, Comparator.comparingLong((Integer i) -> costs[i]).reversed());
+
+		int[] chunkSizes = new int[numChunks];
+		long[] chunkCosts = new long[numChunks];
+		int[] chunkOfTerm = new int[numTerms];
+		for (int i : order) {
+			int best = 0;
+			for (int c=1; c<numChunks; c++) {
+				if (chunkCosts[c] < chunkCosts[best]) {
+					best = c;
 				}
 			}
-		} catch (InterruptedException ex) {
-			// something wanted us to stop, so stop, then forward the exception
-			throw new Error(ex);
+			chunkOfTerm[i] = best;
+			chunkSizes[best]++;
+			chunkCosts[best] += costs[i];
+		}
+
+		// keep the original term order within each chunk, it's friendlier to the caches
+		int[][] indices = new int[numChunks][];
+		for (int c=0; c<numChunks; c++) {
+			indices[c] = new int[chunkSizes[c]];
 		}
-		
-		// collect the results
+		int[] next = new int[numChunks];
+		for (int i=0; i<numTerms; i++) {
+			int c = chunkOfTerm[i];
+			indices[c][next[c]++] = i;
+		}
+
+		Chunk[] chunks = new Chunk[numChunks];
+		for (int c=0; c<numChunks; c++) {
+			chunks[c] = new Chunk(indices[c], chunkCosts[c]);
+		}
+		return chunks;
+	}
+
+	private double getEnergy(Chunk chunk) {
+		double energy = 0;
+		for (int i : chunk.termIndices) {
+			energy += terms.get(i).getEnergy()*coeffs.get(i);
+		}
+		return energy;
+	}
+
+	private class ChunksTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 4139520873565286917L;
+
+		private final Chunk[] chunks;
+		private final double[] energies;
+		private final int start;
+		private final int stop;
+
+		public ChunksTask(Chunk[] chunks, double[] energies, int start, int stop) {
+			this.chunks = chunks;
+			this.energies = energies;
+			this.start = start;
+			this.stop = stop;
+		}
+
+		@Override
+		protected void compute() {
+			if (stop - start == 1) {
+				energies[start] = getEnergy(chunks[start]);
+			} else {
+				int mid = (start + stop)/2;
+				invokeAll(
+					new ChunksTask(chunks, energies, start, mid),
+					new ChunksTask(chunks, energies, mid, stop)
+				);
+			}
+		}
+	}
+
+	@Override
+	public double getEnergy() {
+
+		Chunk[] chunks = getChunks();
+
+		if (chunks.length == 1) {
+			return getEnergy(chunks[0]);
+		}
+
+		double[] energies = new double[chunks.length];
+		ChunksTask task = new ChunksTask(chunks, energies, 0, chunks.length);
+		if (ForkJoinTask.inForkJoinPool()) {
+
+			// we're already in a pool task, so just fork more tasks in the current pool
+			task.invoke();
+
+		} else {
+			getPool().invoke(task);
+		}
+
+		// sum in chunk order, so the energy doesn't depend on which thread finished first
 		double energy = 0;
-		for (EnergyWorker worker : crew) {
-			energy += worker.energy;
+		for (double chunkEnergy : energies) {
+			energy += chunkEnergy;
 		}
 		return energy;
 	}
@@ -10,9 +10,11 @@ import java.util.List;
 import java.util.Map;
 
 import edu.duke.cs.osprey.dof.DegreeOfFreedom;
+import edu.duke.cs.osprey.energy.AtomGradient;
 import edu.duke.cs.osprey.energy.EnergyFunction;
 import edu.duke.cs.osprey.energy.forcefield.EEF1.SolvParams;
 import edu.duke.cs.osprey.energy.forcefield.ForcefieldInteractions.AtomGroup;
+import edu.duke.cs.osprey.energy.forcefield.ForcefieldInteractions.ResidueAtomGroup;
 import edu.duke.cs.osprey.energy.forcefield.ForcefieldParams.NBParams;
 import edu.duke.cs.osprey.gpu.BufferTools;
 import edu.duke.cs.osprey.structure.Atom;
@@ -21,7 +23,7 @@ import edu.duke.cs.osprey.structure.AtomNeighbors.NEIGHBORTYPE;
 import edu.duke.cs.osprey.structure.Molecule;
 import edu.duke.cs.osprey.structure.Residue;
 
-public class BigForcefieldEnergy implements EnergyFunction.DecomposableByDof, EnergyFunction.ExplicitChemicalChanges {
+public class BigForcefieldEnergy implements EnergyFunction.DecomposableByDof, EnergyFunction.ExplicitChemicalChanges, EnergyFunction.Gradient {
 	
 	private static final long serialVersionUID = 5242606861996508290L;
 	
@@ -43,6 +45,10 @@ public class BigForcefieldEnergy implements EnergyFunction.DecomposableByDof, En
 		public final boolean useHElectrostatics;
 		public final boolean useHVdw;
 		public final boolean useEEF1;
+		public final boolean useCutoff;
+		public final NonbondedSwitch nbSwitch;
+		public final double neighborCutoff2;
+		public final double halfSkin2;
 		
 		public ParamInfo(ForcefieldParams params) {
 			
@@ -66,6 +72,17 @@ public class BigForcefieldEnergy implements EnergyFunction.DecomposableByDof, En
 			this.useHElectrostatics = params.hElect;
 			this.useHVdw = params.hVDW;
 			this.useEEF1 = params.doSolvationE;
+			
+			// neighbor list settings
+			this.useCutoff = params.hasNonbondedCutoff();
+			if (useCutoff && params.neighborListSkin < 0) {
+				throw new IllegalArgumentException("neighbor list skin can't be negative: " + params.neighborListSkin);
+			}
+			this.nbSwitch = NonbondedSwitch.make(params);
+			double neighborCutoff = params.nonbondedCutoff + params.neighborListSkin;
+			this.neighborCutoff2 = neighborCutoff*neighborCutoff;
+			double halfSkin = params.neighborListSkin/2;
+			this.halfSkin2 = halfSkin*halfSkin;
 		}
 	}
 	
@@ -380,6 +397,259 @@ public class BigForcefieldEnergy implements EnergyFunction.DecomposableByDof, En
 		public double Bij;
 	}
 	
+	/**
+	 * A contiguous block of atom pairs that all need the same terms,
+	 * so the energy loops don't have to branch on atom flags or params.
+	 * Coords and params are stored as separate arrays per field (ie, struct-of-arrays).
+	 */
+	private static class Block {
+		
+		public final int size;
+		public final int[] atom1Indices;
+		public final int[] atom2Indices;
+		
+		// charge already includes the (scaled) coulomb factor
+		public final double[] charges;
+		public final double[] Aij;
+		public final double[] Bij;
+		
+		// only for solvation blocks, null otherwise
+		public final double[] invLambda1;
+		public final double[] radius1;
+		public final double[] alpha1;
+		public final double[] invLambda2;
+		public final double[] radius2;
+		public final double[] alpha2;
+		
+		// scratch space for the squared distances and switching factors
+		private final double[] r2;
+		private final double[] scales;
+		
+		// energy of each atom pair at the last evaluation, only allocated for incremental evaluation
+		private double[] pairEnergies;
+		
+		public Block(int size, boolean useSolv) {
+			this.size = size;
+			atom1Indices = new int[size];
+			atom2Indices = new int[size];
+			charges = new double[size];
+			Aij = new double[size];
+			Bij = new double[size];
+			if (useSolv) {
+				invLambda1 = new double[size];
+				radius1 = new double[size];
+				alpha1 = new double[size];
+				invLambda2 = new double[size];
+				radius2 = new double[size];
+				alpha2 = new double[size];
+			} else {
+				invLambda1 = null;
+				radius1 = null;
+				alpha1 = null;
+				invLambda2 = null;
+				radius2 = null;
+				alpha2 = null;
+			}
+			r2 = new double[size];
+			
+			// without a cutoff, every pair keeps its full energy
+			scales = new double[size];
+			Arrays.fill(scales, 1.0);
+		}
+		
+		public double getEnergy(ParamInfo pinfo, double[] x, double[] y, double[] z, NonbondedSwitch nbSwitch) {
+			
+			// NOTE: each pass is a simple loop with no data-dependent branches (well, almost),
+			// so the JIT has a good shot at unrolling and vectorizing them
+			
+			calcDistances(x, y, z, nbSwitch);
+			
+			int size = this.size;
+			double[] r2s = this.r2;
+			double[] scales = this.scales;
+			
+			// pass 2: electrostatics and vdW
+			double[] charges = this.charges;
+			double[] Aij = this.Aij;
+			double[] Bij = this.Bij;
+			double esEnergy = 0;
+			double vdwEnergy = 0;
+			if (pinfo.useDistDependentDielectric) {
+				for (int i=0; i<size; i++) {
+					double invR2 = 1.0/r2s[i];
+					double invR6 = invR2*invR2*invR2;
+					esEnergy += scales[i]*charges[i]*invR2;
+					vdwEnergy += scales[i]*(Aij[i]*invR6 - Bij[i])*invR6;
+				}
+			} else {
+				for (int i=0; i<size; i++) {
+					double invR2 = 1.0/r2s[i];
+					double invR6 = invR2*invR2*invR2;
+					esEnergy += scales[i]*charges[i]*Math.sqrt(invR2);
+					vdwEnergy += scales[i]*(Aij[i]*invR6 - Bij[i])*invR6;
+				}
+			}
+			
+			// pass 3: solvation
+			double solvEnergy = 0;
+			if (alpha1 != null) {
+				double solvCutoff2 = pinfo.solvationCutoff2;
+				for (int i=0; i<size; i++) {
+					double r2 = r2s[i];
+					if (r2 < solvCutoff2) {
+						double r = Math.sqrt(r2);
+						double Xij = (r - radius1[i])*invLambda1[i];
+						double Xji = (r - radius2[i])*invLambda2[i];
+						solvEnergy -= scales[i]*(alpha1[i]*Math.exp(-Xij*Xij) + alpha2[i]*Math.exp(-Xji*Xji))/r2;
+					}
+				}
+			}
+			
+			return esEnergy + vdwEnergy + solvEnergy;
+		}
+		
+		public double updatePairEnergies(ParamInfo pinfo, double[] x, double[] y, double[] z, NonbondedSwitch nbSwitch) {
+			
+			// same passes as getEnergy(), but also keep the energy of each atom pair
+			
+			if (pairEnergies == null) {
+				pairEnergies = new double[size];
+			}
+			
+			calcDistances(x, y, z, nbSwitch);
+			
+			int size = this.size;
+			double[] r2s = this.r2;
+			double[] scales = this.scales;
+			double[] pairEnergies = this.pairEnergies;
+			
+			// pass 2: electrostatics and vdW
+			double[] charges = this.charges;
+			double[] Aij = this.Aij;
+			double[] Bij = this.Bij;
+			if (pinfo.useDistDependentDielectric) {
+				for (int i=0; i<size; i++) {
+					double invR2 = 1.0/r2s[i];
+					double invR6 = invR2*invR2*invR2;
+					pairEnergies[i] = scales[i]*(charges[i]*invR2 + (Aij[i]*invR6 - Bij[i])*invR6);
+				}
+			} else {
+				for (int i=0; i<size; i++) {
+					double invR2 = 1.0/r2s[i];
+					double invR6 = invR2*invR2*invR2;
+					pairEnergies[i] = scales[i]*(charges[i]*Math.sqrt(invR2) + (Aij[i]*invR6 - Bij[i])*invR6);
+				}
+			}
+			
+			// pass 3: solvation
+			if (alpha1 != null) {
+				double solvCutoff2 = pinfo.solvationCutoff2;
+				for (int i=0; i<size; i++) {
+					double r2 = r2s[i];
+					if (r2 < solvCutoff2) {
+						double r = Math.sqrt(r2);
+						double Xij = (r - radius1[i])*invLambda1[i];
+						double Xji = (r - radius2[i])*invLambda2[i];
+						pairEnergies[i] -= scales[i]*(alpha1[i]*Math.exp(-Xij*Xij) + alpha2[i]*Math.exp(-Xji*Xji))/r2;
+					}
+				}
+			}
+			
+			return sumPairEnergies();
+		}
+		
+		public double updatePairEnergy(ParamInfo pinfo, int i, double[] x, double[] y, double[] z, NonbondedSwitch nbSwitch) {
+			
+			// recompute the energy of just one atom pair, and return how much it changed
+			double energy = getPairEnergy(pinfo, i, x, y, z, nbSwitch);
+			double delta = energy - pairEnergies[i];
+			pairEnergies[i] = energy;
+			return delta;
+		}
+		
+		public double sumPairEnergies() {
+			double energy = 0;
+			for (int i=0; i<size; i++) {
+				energy += pairEnergies[i];
+			}
+			return energy;
+		}
+		
+		private void calcDistances(double[] x, double[] y, double[] z, NonbondedSwitch nbSwitch) {
+			
+			int size = this.size;
+			int[] atom1Indices = this.atom1Indices;
+			int[] atom2Indices = this.atom2Indices;
+			double[] r2s = this.r2;
+			double[] scales = this.scales;
+			
+			// pass 1: squared distances
+			for (int i=0; i<size; i++) {
+				int a1 = atom1Indices[i];
+				int a2 = atom2Indices[i];
+				double d = x[a1] - x[a2];
+				double r2 = d*d;
+				d = y[a1] - y[a2];
+				r2 += d*d;
+				d = z[a1] - z[a2];
+				r2 += d*d;
+				r2s[i] = r2;
+			}
+			
+			// pass 1b: switching factors
+			// pairs beyond the cutoff get infinite distance, so all their terms come out to zero
+			if (nbSwitch != null) {
+				double cutoff2 = nbSwitch.cutoff2;
+				for (int i=0; i<size; i++) {
+					double r2 = r2s[i];
+					scales[i] = nbSwitch.getScale(r2);
+					if (r2 >= cutoff2) {
+						r2s[i] = Double.POSITIVE_INFINITY;
+					}
+				}
+			}
+		}
+		
+		public double getPairEnergy(ParamInfo pinfo, int i, double[] x, double[] y, double[] z, NonbondedSwitch nbSwitch) {
+			
+			// same terms as getEnergy(), but for just one atom pair
+			
+			int a1 = atom1Indices[i];
+			int a2 = atom2Indices[i];
+			double d = x[a1] - x[a2];
+			double r2 = d*d;
+			d = y[a1] - y[a2];
+			r2 += d*d;
+			d = z[a1] - z[a2];
+			r2 += d*d;
+			double scale = 1;
+			if (nbSwitch != null) {
+				if (r2 >= nbSwitch.cutoff2) {
+					return 0;
+				}
+				scale = nbSwitch.getScale(r2);
+			}
+			
+			double invR2 = 1.0/r2;
+			double invR6 = invR2*invR2*invR2;
+			double energy = (Aij[i]*invR6 - Bij[i])*invR6;
+			if (pinfo.useDistDependentDielectric) {
+				energy += charges[i]*invR2;
+			} else {
+				energy += charges[i]*Math.sqrt(invR2);
+			}
+			
+			if (alpha1 != null && r2 < pinfo.solvationCutoff2 && (alpha1[i] != 0 || alpha2[i] != 0)) {
+				double r = Math.sqrt(r2);
+				double Xij = (r - radius1[i])*invLambda1[i];
+				double Xji = (r - radius2[i])*invLambda2[i];
+				energy -= (alpha1[i]*Math.exp(-Xij*Xij) + alpha2[i]*Math.exp(-Xji*Xji))*invR2;
+			}
+			
+			return scale*energy;
+		}
+	}
+	
 	private ParamInfo pinfo;
 	private ForcefieldInteractions interactions;
 	private BufferTools.Type bufferType;
@@ -401,6 +671,26 @@ public class BigForcefieldEnergy implements EnergyFunction.DecomposableByDof, En
 	// layout per atom pair: Aij, Bij, charge, lambda1, radius1, alpha1, lambda2, radius2, alpha2
 	private DoubleBuffer precomputed;
 	
+	// the bonded 1-4 pairs come first in the atom pair buffers
+	private int num14AtomPairs;
+	
+	// copies of the atom coords for the CPU, one array per axis
+	private double[] coordsX;
+	private double[] coordsY;
+	private double[] coordsZ;
+	
+	// scratch space for atom gradients, indexed like coords
+	private double[] atomGradient;
+	
+	private boolean useBlocks;
+	private boolean useIncremental;
+	
+	// incremental updates between re-sums of the pair energies, bounds the rounding error the running sum can pick up
+	public static final int IncrementalResumInterval = 256;
+	
+	// above this fraction of moved pairs, one blocked pass beats visiting pairs one at a time (break-even ~0.4 in BenchmarkBigForcefieldEnergy)
+	public static final double MaxIncrementalPairFraction = 0.35;
+	
 	private Subset fullSubset;
 	private Map<Residue,Subset> subsetCache;
 	
@@ -415,6 +705,8 @@ public class BigForcefieldEnergy implements EnergyFunction.DecomposableByDof, En
 		this.pinfo = new ParamInfo(params);
 		this.interactions = interactions;
 		this.bufferType = bufferType;
+		this.useBlocks = true;
+		this.useIncremental = params.incrementalEnergies;
 		
 		// compute all the info for each group pair
 		groups = new Groups(interactions.size());
@@ -444,6 +736,10 @@ public class BigForcefieldEnergy implements EnergyFunction.DecomposableByDof, En
 			numAtoms += group.getAtoms().size();
 		}
 		coords = makeOrResizeBuffer(coords, numAtoms*3);
+		coordsX = new double[numAtoms];
+		coordsY = new double[numAtoms];
+		coordsZ = new double[numAtoms];
+		atomGradient = new double[numAtoms*3];
 		
 		// do one pass over the group pairs to count the number of atom pairs
 		int numAtomPairs = 0;
@@ -490,6 +786,10 @@ public class BigForcefieldEnergy implements EnergyFunction.DecomposableByDof, En
 				// append the precomputed
 				precomputed.put(entry.precomputed);
 			}
+			
+			if (type == NEIGHBORTYPE.BONDED14) {
+				num14AtomPairs = atomPairOffset;
+			}
 		}
 		
 		assert (atomFlags.position() == numAtomPairs*GroupPair.Entry.NumFlagsPerPair);
@@ -578,18 +878,67 @@ public class BigForcefieldEnergy implements EnergyFunction.DecomposableByDof, En
 		// rebuild if we have chemical changes
 		handleChemicalChanges();
 		
-		// copy atom coords into the buffer
+		// copy atom coords into the buffer and the arrays
 		coords.rewind();
+		int atomIndex = 0;
 		for (int i=0; i<groups.getNumGroups(); i++) {
-			AtomGroup group = groups.get(i);
-			coords.put(group.getCoords());
+			double[] groupCoords = groups.get(i).getCoords();
+			coords.put(groupCoords);
+			for (int j=0; j<groupCoords.length; j+=3) {
+				coordsX[atomIndex] = groupCoords[j];
+				coordsY[atomIndex] = groupCoords[j + 1];
+				coordsZ[atomIndex] = groupCoords[j + 2];
+				atomIndex++;
+			}
 		}
 	}
 	
+	public boolean getUseBlocks() {
+		return useBlocks;
+	}
+	
+	/**
+	 * When true (the default), CPU energies are computed over blocks of atom pairs sorted by which terms they need.
+	 * When false, use the original loop that visits each atom pair in buffer order and branches per pair.
+	 * Both give the same energies, up to floating-point rounding.
+	 */
+	public void setUseBlocks(boolean val) {
+		useBlocks = val;
+	}
+	
+	public boolean getUseIncremental() {
+		return useIncremental;
+	}
+	
+	/**
+	 * When true, the per-DOF subsets from {@link #decomposeByDof} remember the energy of each atom pair,
+	 * and each evaluation only recomputes the atom pairs with an atom that moved since the last evaluation.
+	 * A line search along one dihedral (e.g. in CCD) only moves the atoms past the rotatable bond, so each probe then costs
+	 * time proportional to the number of pairs touching the moved atoms, rather than all the pairs touching the residue.
+	 * When the moved atoms touch too many of the pairs (e.g. probing a chi1 dihedral), the subset recomputes
+	 * all the pairs with the blocked loops instead, so it's never slower than a full evaluation.
+	 * Gives the same energies as a full evaluation, up to floating-point rounding.
+	 * The running sum is re-summed from the pair energies every {@link #IncrementalResumInterval} updates.
+	 * Defaults to {@link ForcefieldParams#incrementalEnergies}, which is false unless the ForcefieldIncremental setting is on.
+	 */
+	public void setUseIncremental(boolean val) {
+		useIncremental = val;
+	}
+	
 	@Override
 	public double getEnergy() {
 		return fullSubset.getEnergy();
 	}
+	
+	@Override
+	public boolean hasGradient() {
+		return true;
+	}
+	
+	@Override
+	public double getEnergyAndGradient(AtomGradient gradient) {
+		return fullSubset.getEnergyAndGradient(gradient);
+	}
 		
 	@Override
 	public List<EnergyFunction> decomposeByDof(Molecule m, List<DegreeOfFreedom> dofs) {
@@ -611,6 +960,7 @@ public class BigForcefieldEnergy implements EnergyFunction.DecomposableByDof, En
 				Subset efunc = subsetCache.get(res);
 				if (efunc == null) {
 					efunc = new Subset(interactions.makeSubsetByResidue(res));
+					efunc.incremental = useIncremental;
 					subsetCache.put(res, efunc);
 				}
 				efuncs.add(efunc);
@@ -707,7 +1057,7 @@ public class BigForcefieldEnergy implements EnergyFunction.DecomposableByDof, En
 		return flags > 0;
 	}
 	
-	public class Subset implements EnergyFunction.ExplicitChemicalChanges {
+	public class Subset implements EnergyFunction.ExplicitChemicalChanges, EnergyFunction.Gradient {
 		
 		private static final long serialVersionUID = -2038116438543332018L;
 		
@@ -718,6 +1068,32 @@ public class BigForcefieldEnergy implements EnergyFunction.DecomposableByDof, En
 		private int num14Pairs;
 		private double internalSolvEnergy;
 		private IntBuffer subsetTable;
+		private List<AtomGroup> subsetGroups;
+		
+		// neighbor list, only used when there's a cutoff
+		// NOTE: the GPU kernels don't use this, they always evaluate all the atom pairs
+		private int[] atomIndices;
+		private double[] neighborCoords;
+		private IntBuffer neighborTable;
+		private int numNeighborPairs;
+		
+		// built lazily, since only the CPU needs them
+		private Block heavyBlock;
+		private Block lightBlock;
+		
+		// incremental evaluation, see setUseIncremental()
+		private boolean incremental;
+		private int[] groupOffsets;
+		private IntBuffer incTable;
+		private int incNumPairs;
+		private double[] incCoords; // coords of our atoms at the last evaluation
+		private int[] dirtyAtoms; // our atoms that moved since the last evaluation
+		private int[] pairOffsetsByAtom; // CSR layout: pairs for atom a are pairsByAtom[pairOffsetsByAtom[a] .. pairOffsetsByAtom[a+1]]
+		private int[] pairsByAtom;
+		private int[] pairStamps;
+		private int stamp;
+		private double incEnergy;
+		private int numIncUpdates;
 		
 		public Subset(ForcefieldInteractions interactions) {
 			this(interactions, true);
@@ -726,6 +1102,7 @@ public class BigForcefieldEnergy implements EnergyFunction.DecomposableByDof, En
 		public Subset(ForcefieldInteractions interactions, boolean makeTable) {
 			
 			this.makeTable = makeTable;
+			this.incremental = false;
 			
 			// map interactions to group pairs
 			groupPairs = groups.match(interactions);
@@ -735,6 +1112,9 @@ public class BigForcefieldEnergy implements EnergyFunction.DecomposableByDof, En
 		
 		private void build() {
 			
+			heavyBlock = null;
+			lightBlock = null;
+			
 			// count the atom pairs and the internal solvation energy
 			numPairs = 0;
 			num14Pairs = 0;
@@ -759,6 +1139,175 @@ public class BigForcefieldEnergy implements EnergyFunction.DecomposableByDof, En
 				}
 				subsetTable.flip();
 			}
+			
+			// collect the atom groups in this subset
+			subsetGroups = new ArrayList<>();
+			int numAtoms = 0;
+			for (GroupPair pair : groupPairs) {
+				for (AtomGroup group : Arrays.asList(pair.group1, pair.group2)) {
+					if (!subsetGroups.contains(group)) {
+						subsetGroups.add(group);
+						numAtoms += group.getAtoms().size();
+					}
+				}
+			}
+			
+			// remember where the atoms in this subset are
+			groupOffsets = new int[subsetGroups.size()];
+			atomIndices = new int[numAtoms];
+			int atomIndex = 0;
+			for (int g=0; g<subsetGroups.size(); g++) {
+				AtomGroup group = subsetGroups.get(g);
+				int offset = getAtomOffset(group);
+				groupOffsets[g] = offset;
+				for (int j=0; j<group.getAtoms().size(); j++) {
+					atomIndices[atomIndex++] = offset + j;
+				}
+			}
+			
+			// force an incremental rebuild on the next energy evaluation
+			pairsByAtom = null;
+			
+			if (pinfo.useCutoff) {
+				
+				// remember where the atoms in this subset were, so we can tell when they've moved
+				neighborCoords = new double[numAtoms*3];
+				neighborTable = makeOrResizeBuffer(neighborTable, numPairs);
+				
+				// force a neighbor list rebuild on the next energy evaluation
+				numNeighborPairs = -1;
+			}
+		}
+		
+		public int getNumNeighborPairs() {
+			return numNeighborPairs;
+		}
+		
+		private boolean needsNeighborListUpdate() {
+			
+			if (numNeighborPairs < 0) {
+				return true;
+			}
+			
+			// did any atom move more than half the skin distance since the last rebuild?
+			// if not, no pair could have moved inside the cutoff from outside the neighbor cutoff
+			double halfSkin2 = pinfo.halfSkin2;
+			for (int i=0; i<atomIndices.length; i++) {
+				int i3 = i*3;
+				int atomIndex3 = atomIndices[i]*3;
+				double d = coords.get(atomIndex3) - neighborCoords[i3];
+				double r2 = d*d;
+				d = coords.get(atomIndex3 + 1) - neighborCoords[i3 + 1];
+				r2 += d*d;
+				d = coords.get(atomIndex3 + 2) - neighborCoords[i3 + 2];
+				r2 += d*d;
+				if (r2 > halfSkin2) {
+					return true;
+				}
+			}
+			return false;
+		}
+		
+		private void updateNeighborList() {
+			
+			// save the coords
+			for (int i=0; i<atomIndices.length; i++) {
+				int i3 = i*3;
+				int atomIndex3 = atomIndices[i]*3;
+				neighborCoords[i3] = coords.get(atomIndex3);
+				neighborCoords[i3 + 1] = coords.get(atomIndex3 + 1);
+				neighborCoords[i3 + 2] = coords.get(atomIndex3 + 2);
+			}
+			
+			// keep the atom pairs within the cutoff plus the skin
+			// NOTE: keep the original order, so 1-4 pairs still come first
+			double neighborCutoff2 = pinfo.neighborCutoff2;
+			neighborTable.clear();
+			for (int j=0; j<numPairs; j++) {
+				int i = subsetTable == null ? j : subsetTable.get(j);
+				if (getDistSq(i) < neighborCutoff2) {
+					neighborTable.put(i);
+				}
+			}
+			numNeighborPairs = neighborTable.position();
+			neighborTable.flip();
+			
+			heavyBlock = null;
+			lightBlock = null;
+			pairsByAtom = null;
+		}
+		
+		private void buildBlocks(IntBuffer table, int numAtomPairs) {
+			
+			// pairs with hydrogens only need the terms that are turned on for hydrogens
+			boolean useLight = pinfo.useHElectrostatics || pinfo.useHVdw;
+			
+			// count the pairs in each block
+			int numHeavy = 0;
+			int numLight = 0;
+			for (int j=0; j<numAtomPairs; j++) {
+				int i = table == null ? j : table.get(j);
+				if (isHeavyPair(i)) {
+					numHeavy++;
+				} else if (useLight) {
+					numLight++;
+				}
+			}
+			
+			heavyBlock = new Block(numHeavy, pinfo.useEEF1);
+			lightBlock = new Block(numLight, false);
+			
+			// copy the atom indices and params into the blocks
+			int heavyIndex = 0;
+			int lightIndex = 0;
+			for (int j=0; j<numAtomPairs; j++) {
+				int i = table == null ? j : table.get(j);
+				if (isHeavyPair(i)) {
+					copyPair(i, heavyBlock, heavyIndex++, true, true);
+				} else if (useLight) {
+					copyPair(i, lightBlock, lightIndex++, pinfo.useHElectrostatics, pinfo.useHVdw);
+				}
+			}
+		}
+		
+		private boolean isHeavyPair(int i) {
+			return !unpackIsHydrogen(atomFlags.get(i*2)) && !unpackIsHydrogen(atomFlags.get(i*2 + 1));
+		}
+		
+		private void copyPair(int i, Block block, int blockIndex, boolean useEs, boolean useVdw) {
+			
+			block.atom1Indices[blockIndex] = unpackAtomIndex(atomFlags.get(i*2));
+			block.atom2Indices[blockIndex] = unpackAtomIndex(atomFlags.get(i*2 + 1));
+			
+			int i9 = i*GroupPair.Entry.NumPrecomputedPerPair;
+			if (useEs) {
+				boolean is14Pair = i < num14AtomPairs;
+				block.charges[blockIndex] = (is14Pair ? pinfo.scaledCoulombFactor : pinfo.coulombFactor)*precomputed.get(i9 + 2);
+			}
+			if (useVdw) {
+				block.Aij[blockIndex] = precomputed.get(i9);
+				block.Bij[blockIndex] = precomputed.get(i9 + 1);
+			}
+			if (block.alpha1 != null) {
+				block.invLambda1[blockIndex] = 1.0/precomputed.get(i9 + 3);
+				block.radius1[blockIndex] = precomputed.get(i9 + 4);
+				block.alpha1[blockIndex] = precomputed.get(i9 + 5);
+				block.invLambda2[blockIndex] = 1.0/precomputed.get(i9 + 6);
+				block.radius2[blockIndex] = precomputed.get(i9 + 7);
+				block.alpha2[blockIndex] = precomputed.get(i9 + 8);
+			}
+		}
+		
+		private double getDistSq(int atomPairIndex) {
+			int atom1Index3 = unpackAtomIndex(atomFlags.get(atomPairIndex*2))*3;
+			int atom2Index3 = unpackAtomIndex(atomFlags.get(atomPairIndex*2 + 1))*3;
+			double d = coords.get(atom1Index3) - coords.get(atom2Index3);
+			double r2 = d*d;
+			d = coords.get(atom1Index3 + 1) - coords.get(atom2Index3 + 1);
+			r2 += d*d;
+			d = coords.get(atom1Index3 + 2) - coords.get(atom2Index3 + 2);
+			r2 += d*d;
+			return r2;
 		}
 		
 		public IntBuffer getSubsetTable() {
@@ -790,19 +1339,339 @@ public class BigForcefieldEnergy implements EnergyFunction.DecomposableByDof, En
 		@Override
 		public double getEnergy() {
 			
+			handleChemicalChanges();
+			if (incremental) {
+				updateSubsetCoords();
+			} else {
+				updateCoords();
+			}
+			
+			IntBuffer table = subsetTable;
+			int numAtomPairs = numPairs;
+			if (pinfo.useCutoff) {
+				
+				// only look at the atom pairs in the neighbor list
+				if (needsNeighborListUpdate()) {
+					updateNeighborList();
+				}
+				table = neighborTable;
+				numAtomPairs = numNeighborPairs;
+			}
+			
+			if (incremental) {
+				return getEnergyIncremental(table, numAtomPairs);
+			} else if (useBlocks) {
+				return getEnergyByBlock(table, numAtomPairs);
+			} else {
+				return getEnergyByPair(table, numAtomPairs);
+			}
+		}
+		
+		private void updateSubsetCoords() {
+			
+			// like updateCoords(), but only copy the atoms in this subset
+			for (int g=0; g<subsetGroups.size(); g++) {
+				double[] groupCoords = subsetGroups.get(g).getCoords();
+				int atomIndex = groupOffsets[g];
+				for (int j=0; j<groupCoords.length; j+=3) {
+					double x = groupCoords[j];
+					double y = groupCoords[j + 1];
+					double z = groupCoords[j + 2];
+					int atomIndex3 = atomIndex*3;
+					coords.put(atomIndex3, x);
+					coords.put(atomIndex3 + 1, y);
+					coords.put(atomIndex3 + 2, z);
+					coordsX[atomIndex] = x;
+					coordsY[atomIndex] = y;
+					coordsZ[atomIndex] = z;
+					atomIndex++;
+				}
+			}
+		}
+		
+		private void buildIncremental(IntBuffer table, int numAtomPairs) {
+			
+			// cache the energies of the same atom pairs the blocked loops use,
+			// numbered with the heavy block pairs first, then the light block pairs
+			if (heavyBlock == null) {
+				buildBlocks(table, numAtomPairs);
+			}
+			int numIncPairs = heavyBlock.size + lightBlock.size;
+			
+			int numAtoms = atomIndices.length;
+			
+			// map global atom indices to our atoms
+			int[] localIndices = new int[coordsX.length];
+			Arrays.fill(localIndices, -1);
+			for (int a=0; a<numAtoms; a++) {
+				localIndices[atomIndices[a]] = a;
+			}
+			
+			// index the atom pairs by atom
+			pairOffsetsByAtom = new int[numAtoms + 1];
+			for (int j=0; j<numIncPairs; j++) {
+				Block block = getIncBlock(j);
+				int k = getIncBlockIndex(j);
+				pairOffsetsByAtom[localIndices[block.atom1Indices[k]] + 1]++;
+				pairOffsetsByAtom[localIndices[block.atom2Indices[k]] + 1]++;
+			}
+			for (int a=0; a<numAtoms; a++) {
+				pairOffsetsByAtom[a + 1] += pairOffsetsByAtom[a];
+			}
+			pairsByAtom = new int[pairOffsetsByAtom[numAtoms]];
+			int[] nextPair = Arrays.copyOf(pairOffsetsByAtom, numAtoms);
+			for (int j=0; j<numIncPairs; j++) {
+				Block block = getIncBlock(j);
+				int k = getIncBlockIndex(j);
+				pairsByAtom[nextPair[localIndices[block.atom1Indices[k]]]++] = j;
+				pairsByAtom[nextPair[localIndices[block.atom2Indices[k]]]++] = j;
+			}
+			
+			// NaN coords never match, so every atom counts as moved on the first evaluation,
+			// and that evaluation computes the energies of all the pairs
+			incCoords = new double[numAtoms*3];
+			Arrays.fill(incCoords, Double.NaN);
+			dirtyAtoms = new int[numAtoms];
+			pairStamps = new int[numIncPairs];
+			stamp = 0;
+			incEnergy = 0;
+			numIncUpdates = 0;
+			incTable = table;
+			incNumPairs = numAtomPairs;
+		}
+		
+		private Block getIncBlock(int j) {
+			return j < heavyBlock.size ? heavyBlock : lightBlock;
+		}
+		
+		private int getIncBlockIndex(int j) {
+			return j < heavyBlock.size ? j : j - heavyBlock.size;
+		}
+		
+		private double getEnergyIncremental(IntBuffer table, int numAtomPairs) {
+			
+			if (pairsByAtom == null || incTable != table || incNumPairs != numAtomPairs) {
+				buildIncremental(table, numAtomPairs);
+			}
+			
+			// which atoms moved?
+			int numDirty = 0;
+			int numDirtyPairs = 0;
+			for (int a=0; a<atomIndices.length; a++) {
+				int atomIndex = atomIndices[a];
+				int a3 = a*3;
+				double x = coordsX[atomIndex];
+				double y = coordsY[atomIndex];
+				double z = coordsZ[atomIndex];
+				if (x != incCoords[a3] || y != incCoords[a3 + 1] || z != incCoords[a3 + 2]) {
+					incCoords[a3] = x;
+					incCoords[a3 + 1] = y;
+					incCoords[a3 + 2] = z;
+					dirtyAtoms[numDirty++] = a;
+					numDirtyPairs += pairOffsetsByAtom[a + 1] - pairOffsetsByAtom[a];
+				}
+			}
+			
+			if (numDirtyPairs > MaxIncrementalPairFraction*pairStamps.length) {
+				
+				// too many pairs to visit one at a time, recompute them all
+				incEnergy = heavyBlock.updatePairEnergies(pinfo, coordsX, coordsY, coordsZ, pinfo.nbSwitch)
+					+ lightBlock.updatePairEnergies(pinfo, coordsX, coordsY, coordsZ, pinfo.nbSwitch);
+				numIncUpdates = 0;
+				
+			} else if (numDirty > 0) {
+				
+				// recompute just the pairs with a moved atom, but each pair only once
+				stamp++;
+				for (int d=0; d<numDirty; d++) {
+					int a = dirtyAtoms[d];
+					for (int p=pairOffsetsByAtom[a]; p<pairOffsetsByAtom[a + 1]; p++) {
+						int j = pairsByAtom[p];
+						if (pairStamps[j] != stamp) {
+							pairStamps[j] = stamp;
+							incEnergy += getIncBlock(j).updatePairEnergy(pinfo, getIncBlockIndex(j), coordsX, coordsY, coordsZ, pinfo.nbSwitch);
+						}
+					}
+				}
+				
+				if (++numIncUpdates >= IncrementalResumInterval) {
+					incEnergy = heavyBlock.sumPairEnergies() + lightBlock.sumPairEnergies();
+					numIncUpdates = 0;
+				}
+			}
+			
+			return internalSolvEnergy + incEnergy;
+		}
+		
+		private double getEnergyByBlock(IntBuffer table, int numAtomPairs) {
+			
+			if (heavyBlock == null) {
+				buildBlocks(table, numAtomPairs);
+			}
+			
+			return internalSolvEnergy
+				+ heavyBlock.getEnergy(pinfo, coordsX, coordsY, coordsZ, pinfo.nbSwitch)
+				+ lightBlock.getEnergy(pinfo, coordsX, coordsY, coordsZ, pinfo.nbSwitch);
+		}
+		
+		@Override
+		public boolean hasGradient() {
+			return true;
+		}
+		
+		@Override
+		public double getEnergyAndGradient(AtomGradient gradient) {
+			
+			handleChemicalChanges();
+			updateCoords();
+			
+			IntBuffer table = subsetTable;
+			int numAtomPairs = numPairs;
+			if (pinfo.useCutoff) {
+				if (needsNeighborListUpdate()) {
+					updateNeighborList();
+				}
+				table = neighborTable;
+				numAtomPairs = numNeighborPairs;
+			}
+			
+			// zero out the gradient for our atoms only
+			for (AtomGroup group : subsetGroups) {
+				int offset3 = getAtomOffset(group)*3;
+				Arrays.fill(atomGradient, offset3, offset3 + group.getAtoms().size()*3, 0);
+			}
+			
+			double energy = getEnergyAndGradientByPair(table, numAtomPairs);
+			
+			// hand out the atom gradients to the residues
+			for (AtomGroup group : subsetGroups) {
+				if (!(group instanceof ResidueAtomGroup)) {
+					throw new UnsupportedOperationException("gradients are only supported for residue atom groups");
+				}
+				double[] resGradient = gradient.get(((ResidueAtomGroup)group).getResidue());
+				int offset3 = getAtomOffset(group)*3;
+				for (int i=0; i<resGradient.length; i++) {
+					resGradient[i] += atomGradient[offset3 + i];
+				}
+			}
+			
+			return energy;
+		}
+		
+		private double getEnergyAndGradientByPair(IntBuffer subsetTable, int numAtomPairs) {
+			
+			// same terms as getEnergyByPair(), but also accumulate dE/dr for each atom pair
+			// into the atom gradients (as (dE/dr)/r, so the distance vector doesn't need normalizing)
+			
+			NonbondedSwitch nbSwitch = pinfo.nbSwitch;			
+			int num14Pairs = BigForcefieldEnergy.this.num14AtomPairs;
+			boolean distDepDielect = pinfo.useDistDependentDielectric;
+			boolean useHEs = pinfo.useHElectrostatics;
+			boolean useHVdw = pinfo.useHVdw;
+			double coulombFactor = pinfo.coulombFactor;
+			double scaledCoulombFactor = pinfo.scaledCoulombFactor;
+			double solvCutoff2 = pinfo.solvationCutoff2;
+			double[] x = coordsX;
+			double[] y = coordsY;
+			double[] z = coordsZ;
+			double[] grad = atomGradient;
+			
+			double esEnergy = 0;
+			double vdwEnergy = 0;
+			double solvEnergy = internalSolvEnergy;
+			for (int j=0; j<numAtomPairs; j++) {
+				
+				int i = subsetTable == null ? j : subsetTable.get(j);
+				int i9 = i*9;
+				
+				int atom1Flags = atomFlags.get(i*2);
+				int atom2Flags = atomFlags.get(i*2 + 1);
+				int atom1Index = unpackAtomIndex(atom1Flags);
+				int atom2Index = unpackAtomIndex(atom2Flags);
+				boolean bothHeavy = !unpackIsHydrogen(atom1Flags) && !unpackIsHydrogen(atom2Flags);
+				
+				double dx = x[atom1Index] - x[atom2Index];
+				double dy = y[atom1Index] - y[atom2Index];
+				double dz = z[atom1Index] - z[atom2Index];
+				double r2 = dx*dx + dy*dy + dz*dz;
+				
+				double scale = 1;
+				double dScaleOverR = 0;
+				if (nbSwitch != null) {
+					if (r2 >= nbSwitch.cutoff2) {
+						continue;
+					}
+					scale = nbSwitch.getScale(r2);
+					dScaleOverR = nbSwitch.getDerivOverR(r2);
+				}
+				
+				double r = Math.sqrt(r2);
+				double dEdrOverR = 0;
+				double esPairEnergy = 0;
+				double vdwPairEnergy = 0;
+				double solvPairEnergy = 0;
+				
+				if (bothHeavy || useHEs) {
+					boolean is14Pair = i < num14Pairs;
+					esPairEnergy = (is14Pair ? scaledCoulombFactor : coulombFactor)
+						/ (distDepDielect ? r2 : r)
+						* precomputed.get(i9 + 2);
+					dEdrOverR -= (distDepDielect ? 2 : 1)*esPairEnergy/r2;
+				}
+				
+				if (bothHeavy || useHVdw) {
+					double Aij = precomputed.get(i9);
+					double Bij = precomputed.get(i9 + 1);
+					double r6 = r2*r2*r2;
+					double r12 = r6*r6;
+					vdwPairEnergy = Aij/r12 - Bij/r6;
+					dEdrOverR += (6*Bij/r6 - 12*Aij/r12)/r2;
+				}
+				
+				if (pinfo.useEEF1 && bothHeavy && r2 < solvCutoff2) {
+					double lambda1 = precomputed.get(i9 + 3);
+					double radius1 = precomputed.get(i9 + 4);
+					double alpha1 = precomputed.get(i9 + 5);
+					double lambda2 = precomputed.get(i9 + 6);
+					double radius2 = precomputed.get(i9 + 7);
+					double alpha2 = precomputed.get(i9 + 8);
+					double Xij = (r - radius1)/lambda1;
+					double Xji = (r - radius2)/lambda2;
+					double term1 = alpha1*Math.exp(-Xij*Xij);
+					double term2 = alpha2*Math.exp(-Xji*Xji);
+					solvPairEnergy = -(term1 + term2)/r2;
+					dEdrOverR += ((2*term1*Xij/lambda1 + 2*term2*Xji/lambda2)/r2 + 2*(term1 + term2)/(r2*r))/r;
+				}
+				
+				// product rule for the switch
+				esEnergy += scale*esPairEnergy;
+				vdwEnergy += scale*vdwPairEnergy;
+				solvEnergy += scale*solvPairEnergy;
+				dEdrOverR = scale*dEdrOverR + (esPairEnergy + vdwPairEnergy + solvPairEnergy)*dScaleOverR;
+				
+				int atom1Index3 = atom1Index*3;
+				int atom2Index3 = atom2Index*3;
+				grad[atom1Index3] += dEdrOverR*dx;
+				grad[atom1Index3 + 1] += dEdrOverR*dy;
+				grad[atom1Index3 + 2] += dEdrOverR*dz;
+				grad[atom2Index3] -= dEdrOverR*dx;
+				grad[atom2Index3 + 1] -= dEdrOverR*dy;
+				grad[atom2Index3 + 2] -= dEdrOverR*dz;
+			}
+			
+			return esEnergy + vdwEnergy + solvEnergy;
+		}
+		
+		private double getEnergyByPair(IntBuffer subsetTable, int numAtomPairs) {
+			
 			// OPTIMIZATION: this function gets hit a lot! so even pedantic optimizations can make a difference
 			// I've also tweaked the code with fancy scoping to try to reduce register pressure
 			// the idea is to limit the scope of temporary variables as much as possible
 			// so the compiler/jvm has the most flexibilty to use registers
 			// this actually has a measurable impact on performance
 			
-			handleChemicalChanges();
-			updateCoords();
-			
 			// copy some things to the local stack
-			IntBuffer subsetTable = this.subsetTable;
-			int num14Pairs = this.num14Pairs;
-			int numAtomPairs = this.numPairs;
+			int num14Pairs = BigForcefieldEnergy.this.num14AtomPairs;
 			boolean distDepDielect = pinfo.useDistDependentDielectric;
 			boolean useHEs = pinfo.useHElectrostatics;
 			boolean useHVdw = pinfo.useHVdw;
@@ -811,10 +1680,12 @@ public class BigForcefieldEnergy implements EnergyFunction.DecomposableByDof, En
 			double coulombFactor = pinfo.coulombFactor;
 			double scaledCoulombFactor = pinfo.scaledCoulombFactor;
 			double solvCutoff2 = pinfo.solvationCutoff2;
+			NonbondedSwitch nbSwitch = pinfo.nbSwitch;
 			
 			// the benchmarks seem to run faster when the loop-scoped variables are declared here
 			boolean bothHeavy, inRangeForSolv;
 			double r2;
+			double scale = 1;
 			double r = 0;
 			int i;
 			int i2;
@@ -859,6 +1730,14 @@ public class BigForcefieldEnergy implements EnergyFunction.DecomposableByDof, En
 					}
 				}
 				
+				// skip pairs past the cutoff, and switch off the pairs approaching it
+				if (nbSwitch != null) {
+					if (r2 >= nbSwitch.cutoff2) {
+						continue;
+					}
+					scale = nbSwitch.getScale(r2);
+				}
+				
 				// do we need the sqrt?
 				// they're expensive to compute, so let's only do it once per atom pair
 				inRangeForSolv = r2 < solvCutoff2;
@@ -873,7 +1752,7 @@ public class BigForcefieldEnergy implements EnergyFunction.DecomposableByDof, En
 					
 					// compute electrostatics
 					boolean is14Pair = i < num14Pairs;
-					esEnergy += (is14Pair ? scaledCoulombFactor : coulombFactor)
+					esEnergy += scale*(is14Pair ? scaledCoulombFactor : coulombFactor)
 						/ (distDepDielect ? r2 : r)
 						* charge;
 				}
@@ -887,7 +1766,7 @@ public class BigForcefieldEnergy implements EnergyFunction.DecomposableByDof, En
 					// compute vdw
 					double r6 = r2*r2*r2;
 					double r12 = r6*r6;
-					vdwEnergy += Aij/r12 - Bij/r6;
+					vdwEnergy += scale*(Aij/r12 - Bij/r6);
 				}
 				
 				if (pinfo.useEEF1 && bothHeavy && inRangeForSolv) {
@@ -903,7 +1782,7 @@ public class BigForcefieldEnergy implements EnergyFunction.DecomposableByDof, En
 					// compute solvation energy
 					double Xij = (r - radius1)/lambda1;
 					double Xji = (r - radius2)/lambda2;
-					solvEnergy -= (alpha1*Math.exp(-Xij*Xij) + alpha2*Math.exp(-Xji*Xji))/r2;
+					solvEnergy -= scale*(alpha1*Math.exp(-Xij*Xij) + alpha2*Math.exp(-Xji*Xji))/r2;
 				}
 			}
 			
@@ -69,6 +69,8 @@ public class ForcefieldEnergy implements Serializable {
 	boolean useHydrogenEs;;
 	boolean useHydrogenVdw;
 	
+	NonbondedSwitch nbSwitch; //null if there's no nonbonded cutoff
+	
 	
 	public ForcefieldEnergy(boolean intra, List<Atom> atoms1, List<Atom> atoms2,
 			ForcefieldParams params){
@@ -88,6 +90,7 @@ public class ForcefieldEnergy implements Serializable {
 		solvScale = params.solvScale;
 		useHydrogenEs = params.hElect;
 		useHydrogenVdw = params.hVDW;
+		nbSwitch = NonbondedSwitch.make(params);
 			
 		//set up actual energies 
 		//(interaction between atoms1 & atoms2, or internal of atoms1 if atoms2==null)
@@ -122,6 +125,7 @@ public class ForcefieldEnergy implements Serializable {
 		
 		useHydrogenEs = params.hElect;
 		useHydrogenVdw = params.hVDW;
+		nbSwitch = NonbondedSwitch.make(params);
                 
                 doSolvationE = params.doSolvationE;
 		
@@ -546,6 +550,7 @@ public class ForcefieldEnergy implements Serializable {
 		double rijx, rijy, rijz;
 		double chargei, chargej, Aij, Bij;
 		double coulombFactor, tmpCoulFact;
+		double scale;
 		boolean isHydrogen, isHeavy;
 		
 		// update coords
@@ -585,26 +590,14 @@ public class ForcefieldEnergy implements Serializable {
 		double solvCutoff2 = this.solvCutoff*this.solvCutoff;
 		int numberSolvated = this.numberSolvated;
 		double[] solvationTerms = this.solvationTerms;
+		NonbondedSwitch nbSwitch = this.nbSwitch;
 		
 		// shortcuts
 		boolean useHydrogenNeither = !useHydrogenEs && !useHydrogenVdw;
 		
 		// half non-bonded terms
 		// 1-4 electrostatic terms are scaled by 1/1.2
-		switch(params.forcefld){
-			case AMBER:
-				coulombFactor = (constCoulomb/1.2) / (dielectric);
-				break;
-			case CHARMM19:
-			case CHARMM19NEUTRAL:
-				coulombFactor = (constCoulomb * 0.4) / (dielectric);
-				break;
-			default:
-				coulombFactor = 0;
-				System.out.println("FORCEFIELD NOT RECOGNIZED!!!");
-				System.exit(0);
-				break;
-		}
+		coulombFactor = get14CoulombFactor();
 		
 		ix5 = -5;
 		for(int i=0; i<numberHalfNonBonded; i++) {
@@ -634,6 +627,15 @@ public class ForcefieldEnergy implements Serializable {
 			// shared math
 			rij2 = rijx * rijx + rijy * rijy + rijz * rijz;
 			
+			// skip pairs past the cutoff, and switch off the pairs approaching it
+			scale = 1;
+			if (nbSwitch != null) {
+				if (rij2 >= nbSwitch.cutoff2) {
+					continue;
+				}
+				scale = nbSwitch.getScale(rij2);
+			}
+			
 			if (isHeavy || useHydrogenEs) {
 				
 				// electrostatics only math
@@ -643,7 +645,7 @@ public class ForcefieldEnergy implements Serializable {
 				if (distDepDielect) //distance-dependent dielectric
 					tmpCoulFact /= rij;
 				
-				esEnergy += (chargei * chargej * tmpCoulFact) / rij;
+				esEnergy += scale * (chargei * chargej * tmpCoulFact) / rij;
 			}
 
 			if (isHeavy || useHydrogenVdw) {
@@ -652,7 +654,7 @@ public class ForcefieldEnergy implements Serializable {
 				rij6 = rij2 * rij2 * rij2;
 				rij12 = rij6 * rij6;
 				
-				vdwEnergy += Aij / rij12 - Bij / rij6;
+				vdwEnergy += scale * (Aij / rij12 - Bij / rij6);
 			}
 		}
 
@@ -688,6 +690,15 @@ public class ForcefieldEnergy implements Serializable {
 			// shared math
 			rij2 = rijx * rijx + rijy * rijy + rijz * rijz;
 			
+			// skip pairs past the cutoff, and switch off the pairs approaching it
+			scale = 1;
+			if (nbSwitch != null) {
+				if (rij2 >= nbSwitch.cutoff2) {
+					continue;
+				}
+				scale = nbSwitch.getScale(rij2);
+			}
+			
 			if (isHeavy || useHydrogenEs) {
 				
 				// electrostatics only math
@@ -697,7 +708,7 @@ public class ForcefieldEnergy implements Serializable {
 				if (distDepDielect) //distance-dependent dielectric
 					tmpCoulFact /= rij;
 				
-				esEnergy += (chargei * chargej * tmpCoulFact) / rij;
+				esEnergy += scale * (chargei * chargej * tmpCoulFact) / rij;
 			}
 
 			if (isHeavy || useHydrogenVdw) {
@@ -706,7 +717,7 @@ public class ForcefieldEnergy implements Serializable {
 				rij6 = rij2 * rij2 * rij2;
 				rij12 = rij6 * rij6;
 				
-				vdwEnergy += Aij / rij12 - Bij / rij6;
+				vdwEnergy += scale * (Aij / rij12 - Bij / rij6);
 			}
 		}
 		
@@ -745,6 +756,14 @@ public class ForcefieldEnergy implements Serializable {
 			rijz = data[res1Start + atomix4 + 2] - data[res2Start + atomjx4 + 2];
 			rij2 = rijx * rijx + rijy * rijy + rijz * rijz;
 			
+			scale = 1;
+			if (nbSwitch != null) {
+				if (rij2 >= nbSwitch.cutoff2) {
+					continue;
+				}
+				scale = nbSwitch.getScale(rij2);
+			}
+			
 			if (rij2 < solvCutoff2) {
 				
 				lambda_i = solvationTerms[ix8 + 1];
@@ -760,7 +779,7 @@ public class ForcefieldEnergy implements Serializable {
 				Xij = (rij-vdWr_i)/lambda_i;
 				Xji = (rij-vdWr_j)/lambda_j;
 				
-				solvEnergy -= (alpha_i*Math.exp(-Xij*Xij) + alpha_j*Math.exp(-Xji*Xji))/rij2;
+				solvEnergy -= scale * (alpha_i*Math.exp(-Xij*Xij) + alpha_j*Math.exp(-Xji*Xji))/rij2;
 			}
 		}
 		
@@ -793,273 +812,182 @@ public class ForcefieldEnergy implements Serializable {
 		return energy;
 	}
 
-	//probably want to handle gradient at some point...below is from Amber96ext
-	//but we'll probably want to be returning the gradient from a particular term
-	//which will be converted to derivatives with respect to minimization degrees of freedom
-	/*
-	//Computes the gradient of the different energy terms;
-	//The computed gradient is in the molecule's gradient member variable
-	//The parameter curIndex specifies the row in the partial arrays
-	//		(the corresponding flexible residue);
-	//If (curIndex==-1), then the full gradient is computed
-	public void calculateGradient(int curIndex){
-		
-		// clear the gradient		
-		m.gradient = new double[m.numberOfAtoms * 3];
-		for(int i=0; i<m.numberOfAtoms*3;i ++){
-			m.gradient[i]=0;
-		}
-		
-		calculateEVGradient(curIndex); //compute electrostatic and vdW energies
-		
-		if (doSolvationE) //compute solvation energies
-			calculateSolvationGradient(curIndex);
-	}
-	
-	// This code computes the gradient of the electrostatic and vdw energy terms
-	// The computed gradient is in the molecule's gradient member variable
-	private void calculateEVGradient(int curIndex){
-		
-		int ix4;
-		double coulombFactor;
-		int atomi, atomj, atomix3, atomjx3;
-		double Aij, Bij, rij6, rij7, rij8, rij14;
-		double chargei, chargej, coulombTerm;
-		double rijx, rijy, rijz, rij2, rij, rij3;
-		double term1, term2, term3;
-		double forceix, forceiy, forceiz, forcejx, forcejy, forcejz;
-		
-		int numHalfNBterms = 0; int numNBterms = 0;
-		double halfNBterms[] = null; double nbTerms[] = null;
-		
-		if (curIndex==-1){ //full gradient is computed
-			numHalfNBterms = numHalfNonBondedTerms;
-			halfNBterms = halfNonBondedTerms;
-			numNBterms = numberNonBonded;
-			nbTerms = nonBondedTerms;
-		}
-		else { //partial gradient is computed, based on flexible residue curIndex
-			numHalfNBterms = numPartHalfNonBonded[curIndex];
-			halfNBterms = partHalfNonBonded[curIndex];
-			numNBterms = numPartNonBonded[curIndex];
-			nbTerms = partNonBonded[curIndex];
-		}
-
-		// Note: Bmult = vdwMultiplier^6 and Amult = vdwMultiplier^12
-		double Bmult; double Amult;
-		Bmult = vdwMultiplier * vdwMultiplier;
-		Bmult = Bmult*Bmult*Bmult;
-		Amult = Bmult*Bmult;
-		
-		// compute gradient for 1/2 non-bonded terms
-		ix4 = -4;
-		//coulombFactor = (constCoulomb/2.0) / (dielectric);
-		//KER: Made change to 1.2
-		switch(EnvironmentVars.forcefld){
-			case AMBER: 
-				coulombFactor = (constCoulomb/1.2) / dielectric;
-				break;
+	private double get14CoulombFactor() {
+		switch(params.forcefld){
+			case AMBER:
+				return (constCoulomb/1.2) / (dielectric);
 			case CHARMM19:
 			case CHARMM19NEUTRAL:
-				coulombFactor = (constCoulomb*0.4) / dielectric;
-				break;
+				return (constCoulomb * 0.4) / (dielectric);
 			default:
-				coulombFactor = 0;
 				System.out.println("FORCEFIELD NOT RECOGNIZED!!!");
 				System.exit(0);
-				break;
+				return 0;
 		}
-		double tmpCoulFact;
-		for (int i=0; i<numHalfNBterms; i++){
-			ix4 += 4;
-			atomi = (int)halfNBterms[ix4];
-			atomj = (int)halfNBterms[ix4 + 1];
-			Aij = halfNBterms[ix4 + 2]*Amult;
-			Bij = halfNBterms[ix4 + 3]*Bmult;
-			chargei = m.atom[atomi].charge;
-			chargej = m.atom[atomj].charge;
-			atomix3 = atomi * 3;
-			atomjx3 = atomj * 3;
-			rijx = m.actualCoordinates[atomix3] - 
-				m.actualCoordinates[atomjx3];
-			rijy = m.actualCoordinates[atomix3 + 1] - 
-				m.actualCoordinates[atomjx3 + 1];
-			rijz = m.actualCoordinates[atomix3 + 2] - 
-				m.actualCoordinates[atomjx3 + 2];
-			rij2 = rijx * rijx + rijy * rijy + rijz * rijz;
-			if (rij2 < 1.0e-2)
-				rij2 = 1.0e-2;	
-			rij = Math.sqrt(rij2);
-			rij3 = rij2 * rij;
-			rij6 = rij3 * rij3;
-			rij7 = rij6 * rij;
-			rij8 = rij7 * rij;
-			rij14 = rij7 * rij7;
-			
-			tmpCoulFact = coulombFactor;
-			if (distDepDielect) //distance-dependent dielectric
-				tmpCoulFact = (tmpCoulFact * 2) / rij;
-			
-			coulombTerm = (chargei * chargej * tmpCoulFact) / rij3;
-			term1 = 12 * Aij / rij14;
-			term2 = 6 * Bij / rij8;
-			term3 = term1 - term2 + coulombTerm;
-			forceix = term3 * rijx;
-			forceiy = term3 * rijy;
-			forceiz = term3 * rijz;
-			forcejx = -forceix;
-			forcejy = -forceiy;
-			forcejz = -forceiz;
-			m.gradient[atomix3] -= forceix;
-			m.gradient[atomix3 + 1] -= forceiy;
-			m.gradient[atomix3 + 2] -= forceiz;
-			m.gradient[atomjx3] -= forcejx;
-			m.gradient[atomjx3 + 1] -= forcejy;
-			m.gradient[atomjx3 + 2] -= forcejz;
-		}
-
-		// Full non bonded terms
-		ix4 = -4;
-		coulombFactor = constCoulomb / (dielectric);
-		for(int i=0; i<numNBterms; i++){
-			ix4 += 4;
-			atomi = (int)nbTerms[ix4];
-			atomj = (int)nbTerms[ix4 + 1];
-			Aij = nbTerms[ix4 + 2]*Amult;
-			Bij = nbTerms[ix4 + 3]*Bmult;
-			chargei = m.atom[atomi].charge;
-			chargej = m.atom[atomj].charge;
-			atomix3 = atomi * 3;
-			atomjx3 = atomj * 3;
-			rijx = m.actualCoordinates[atomix3] - 
-				m.actualCoordinates[atomjx3];
-			rijy = m.actualCoordinates[atomix3 + 1] - 
-				m.actualCoordinates[atomjx3 + 1];
-			rijz = m.actualCoordinates[atomix3 + 2] - 
-				m.actualCoordinates[atomjx3 + 2];
-			rij2 = rijx * rijx + rijy * rijy + rijz * rijz;
-			if (rij2 < 1.0e-2)
-				rij2 = 1.0e-2;	
-			rij = Math.sqrt(rij2);
-			rij3 = rij2 * rij;
-			rij6 = rij3 * rij3;
-			rij7 = rij6 * rij;
-			rij8 = rij7 * rij;
-			rij14 = rij7 * rij7;
-			
-			tmpCoulFact = coulombFactor;
-			if (distDepDielect) //distance-dependent dielectric
-				tmpCoulFact = (tmpCoulFact * 2) / rij;
-			
-			coulombTerm = (chargei * chargej * coulombFactor) / rij3;
-			term1 = 12 * Aij / rij14;
-			term2 = 6 * Bij / rij8;
-			term3 = term1 - term2 + coulombTerm;
-			forceix = term3 * rijx;
-			forceiy = term3 * rijy;
-			forceiz = term3 * rijz;
-			forcejx = -forceix;
-			forcejy = -forceiy;
-			forcejz = -forceiz;
-			m.gradient[atomix3] -= forceix;
-			m.gradient[atomix3 + 1] -= forceiy;
-			m.gradient[atomix3 + 2] -= forceiz;
-			m.gradient[atomjx3] -= forcejx;
-			m.gradient[atomjx3 + 1] -= forcejy;
-			m.gradient[atomjx3 + 2] -= forcejz;
-		}  
 	}
 	
-	//Computes the gradient for the solvation energy term;
-	//The computed gradient is in the molecules gradient member variable
-	private void calculateSolvationGradient(int curIndex) {
+	//Same energy as calculateTotalEnergy(), but also adds the derivatives of the energy
+	//with respect to the atom coordinates to grad1 (for res1) and grad2 (for res2)
+	//the gradient arrays are laid out like Residue.coords, and grad1==grad2 for internal energies
+	//this lets minimizers get the derivatives for all the DOFs from one energy evaluation
+	public double calculateTotalEnergyAndGradient(double[] grad1, double[] grad2) {
 		
-		double forceix, forceiy, forceiz;
-		int atomix3, atomjx3, atomi, atomj;
-		double rij, rij2, rij3;
-		double rijx, rijy, rijz;
-		double tempTerm_i;
-		int indMult = 0;
+		coordsAndCharges.updateCoords();
 		
-		int numSolvTerms = 0;
-		double solvTerms[] = null;
+		double[] data = this.coordsAndCharges.data;
+		int res1Start = this.coordsAndCharges.res1Start;
+		int res2Start = this.coordsAndCharges.res2Start;
+		
+		double[] energies = new double[3];// es, vdw, solv
 		
-		if (curIndex==-1){ //full energy is computed
-			numSolvTerms = numSolvationTerms;
-			solvTerms = solvationTerms;
-			indMult = 6;
+		addEVGradient(halfNonBondedTerms, numberHalfNonBonded, get14CoulombFactor(), data, res1Start, res2Start, grad1, grad2, energies);
+		addEVGradient(nonBondedTerms, numberNonBonded, constCoulomb / (dielectric), data, res1Start, res2Start, grad1, grad2, energies);
+		
+		if (!doSolvationE) {
+			return checkEnergy(energies[0] + energies[1]);
 		}
-		else { //partial energy is computed, based on flexible residue curIndex
-			numSolvTerms = numPartSolv[curIndex];
-			solvTerms = partSolv[curIndex];
-			indMult = 7;
+		
+		double solvCutoff2 = solvCutoff*solvCutoff;
+		double solvEnergy = 0;
+		if (isInternal) {
+			solvEnergy += internalSolvEnergy;
 		}
 		
-		for ( int i = 0; i < numSolvTerms; i++ ){
-
-			atomi = (int)solvTerms[ i*indMult ];
-			atomix3 = atomi * 3;
-			
-			double dGi_free = solvTerms[i*indMult+2]; //dGi(free)
-			double V_i = solvTerms[i*indMult+3]; //Vi
-			double lambda_i = solvTerms[i*indMult+4]; //lambdai
-			double vdWr_i = solvTerms[i*indMult+5]; //vdWri
+		int ix8 = -8;
+		for (int i=0; i<numberSolvated; i++) {
+			ix8 += 8;
 			
-			int startInd = i;
-			if (curIndex!=-1)
-				startInd = (int)solvTerms[i*indMult+6];
+			int atomi = (int)solvationTerms[ix8];
+			int atomj = (int)solvationTerms[ix8 + 4];
+			
+			int atomix4 = atomi * 4;
+			int atomjx4 = atomj * 4;
+			double rijx = data[res1Start + atomix4] - data[res2Start + atomjx4];
+			double rijy = data[res1Start + atomix4 + 1] - data[res2Start + atomjx4 + 1];
+			double rijz = data[res1Start + atomix4 + 2] - data[res2Start + atomjx4 + 2];
+			double rij2 = rijx * rijx + rijy * rijy + rijz * rijz;
+			
+			double scale = 1;
+			double dScaleOverR = 0;
+			if (nbSwitch != null) {
+				if (rij2 >= nbSwitch.cutoff2) {
+					continue;
+				}
+				scale = nbSwitch.getScale(rij2);
+				dScaleOverR = nbSwitch.getDerivOverR(rij2);
+			}
 			
-			forceix = 0.0;forceiy = 0.0; forceiz = 0.0;
-			for (int j=0; j<numSolvationTerms; j++){ //the pairwise solvation energies
+			if (rij2 < solvCutoff2) {
 				
-				if (j!=startInd){
+				double lambda_i = solvationTerms[ix8 + 1];
+				double vdWr_i = solvationTerms[ix8 + 2];
+				double alpha_i = solvationTerms[ix8 + 3];
 				
-					atomj = (int)solvTerms[j*6];
-					atomjx3 = atomj*3;
-					
-					//atoms 1 or 2 bonds apart are excluded from each other's calculation of solvation free energy
-					if (!solvExcludePairs[startInd][j]) {
-						
-						rijx = m.actualCoordinates[ atomix3 ] - m.actualCoordinates[ atomjx3 ];
-						rijy = m.actualCoordinates[ atomix3 + 1 ] - m.actualCoordinates[ atomjx3 + 1 ];
-						rijz = m.actualCoordinates[ atomix3 + 2 ] - m.actualCoordinates[ atomjx3 + 2 ];
-						rij2 = rijx * rijx + rijy * rijy + rijz * rijz;
-						rij = Math.sqrt( rij2 ); //distance between the two atoms
-						rij3 = rij2 * rij;
-						
-						if (rij < solvCutoff){
-							
-							double dGj_free = solvationTerms[j*6+2]; //dGj(free)
-							double V_j = solvationTerms[j*6+3]; //Vj
-							double lambda_j = solvationTerms[j*6+4]; //lambdaj
-							double vdWr_j = solvationTerms[j*6+5]; //vdWrj
-						
-							double coeff = 1/(Math.PI*Math.sqrt(Math.PI));
-							
-							double Xij = (rij-vdWr_i)/lambda_i;
-							double Xji = (rij-vdWr_j)/lambda_j;
-							
-							double Vj_coeff = Xij/lambda_i + 1/rij;
-							double Vi_coeff = Xji/lambda_j + 1/rij;
-							
-							tempTerm_i = ( (coeff * dGi_free * Math.exp(-Xij*Xij) * Vj_coeff * V_j) / (lambda_i * rij3)
-										+ (coeff * dGj_free * Math.exp(-Xji*Xji) * Vi_coeff * V_i) / (lambda_j * rij3) ) ;
-							
-							forceix += tempTerm_i * rijx;
-							forceiy += tempTerm_i * rijy;
-							forceiz += tempTerm_i * rijz;
-						}
-					}
+				double lambda_j = solvationTerms[ix8 + 5];
+				double vdWr_j = solvationTerms[ix8 + 6];
+				double alpha_j = solvationTerms[ix8 + 7];
+				
+				double rij = Math.sqrt(rij2);
+				double Xij = (rij-vdWr_i)/lambda_i;
+				double Xji = (rij-vdWr_j)/lambda_j;
+				double termi = alpha_i*Math.exp(-Xij*Xij);
+				double termj = alpha_j*Math.exp(-Xji*Xji);
+				
+				double pairEnergy = -(termi + termj)/rij2;
+				solvEnergy += scale*pairEnergy;
+				
+				// d/dr of -(termi + termj)/r^2, then the product rule for the switch
+				double dEdr = (2*termi*Xij/lambda_i + 2*termj*Xji/lambda_j)/rij2 + 2*(termi + termj)/(rij2*rij);
+				addPairGradient(solvScale*(scale*dEdr/rij + pairEnergy*dScaleOverR), rijx, rijy, rijz, atomi, atomj, grad1, grad2);
+			}
+		}
+		
+		solvEnergy *= solvScale;
+		
+		return checkEnergy(energies[0] + energies[1] + solvEnergy);
+	}
+	
+	private void addEVGradient(double[] terms, int numTerms, double coulombFactor, double[] data, int res1Start, int res2Start, double[] grad1, double[] grad2, double[] energies) {
+		
+		boolean useHydrogenNeither = !useHydrogenEs && !useHydrogenVdw;
+		NonbondedSwitch nbSwitch = this.nbSwitch;
+		
+		int ix5 = -5;
+		for(int i=0; i<numTerms; i++) {
+			ix5 += 5;
+			
+			boolean isHydrogen = terms[ix5 + 2] == 1;
+			if (isHydrogen && useHydrogenNeither) {
+				continue;
+			}
+			boolean isHeavy = !isHydrogen;
+			
+			int atomi = (int)terms[ix5];
+			int atomj = (int)terms[ix5 + 1];
+			double Aij = terms[ix5 + 3];
+			double Bij = terms[ix5 + 4];
+			
+			int atomix4 = atomi * 4;
+			int atomjx4 = atomj * 4;
+			double rijx = data[res1Start + atomix4] - data[res2Start + atomjx4];
+			double rijy = data[res1Start + atomix4 + 1] - data[res2Start + atomjx4 + 1];
+			double rijz = data[res1Start + atomix4 + 2] - data[res2Start + atomjx4 + 2];
+			double chargei = data[res1Start + atomix4 + 3];
+			double chargej = data[res2Start + atomjx4 + 3];
+			
+			double rij2 = rijx * rijx + rijy * rijy + rijz * rijz;
+			
+			double scale = 1;
+			double dScaleOverR = 0;
+			if (nbSwitch != null) {
+				if (rij2 >= nbSwitch.cutoff2) {
+					continue;
 				}
-			}		
+				scale = nbSwitch.getScale(rij2);
+				dScaleOverR = nbSwitch.getDerivOverR(rij2);
+			}
+			
+			double rij = Math.sqrt(rij2);
 			
-			m.gradient[ atomix3 ] += solvScale*forceix;
-			m.gradient[ atomix3 + 1 ] += solvScale*forceiy;
-			m.gradient[ atomix3 + 2 ] += solvScale*forceiz;
+			// accumulate (dE/dr)/r, so we don't have to normalize the distance vector
+			double dEdrOverR = 0;
+			double esEnergy = 0;
+			double vdwEnergy = 0;
+			
+			if (isHeavy || useHydrogenEs) {
+				double tmpCoulFact = coulombFactor;
+				if (distDepDielect)
+					tmpCoulFact /= rij;
+				esEnergy = (chargei * chargej * tmpCoulFact) / rij;
+				dEdrOverR -= (distDepDielect ? 2 : 1)*esEnergy/rij2;
+			}
+			
+			if (isHeavy || useHydrogenVdw) {
+				double rij6 = rij2 * rij2 * rij2;
+				double rij12 = rij6 * rij6;
+				vdwEnergy = Aij / rij12 - Bij / rij6;
+				dEdrOverR += (6*Bij/rij6 - 12*Aij/rij12)/rij2;
+			}
+			
+			// product rule for the switch
+			energies[0] += scale*esEnergy;
+			energies[1] += scale*vdwEnergy;
+			dEdrOverR = scale*dEdrOverR + (esEnergy + vdwEnergy)*dScaleOverR;
+			
+			addPairGradient(dEdrOverR, rijx, rijy, rijz, atomi, atomj, grad1, grad2);
 		}
 	}
-//////////////////////////////////////////////////////////////////////////////////////////////////
-	*/
+	
+	private static void addPairGradient(double dEdrOverR, double rijx, double rijy, double rijz, int atomi, int atomj, double[] grad1, double[] grad2) {
+		int atomix3 = atomi * 3;
+		int atomjx3 = atomj * 3;
+		grad1[atomix3] += dEdrOverR*rijx;
+		grad1[atomix3 + 1] += dEdrOverR*rijy;
+		grad1[atomix3 + 2] += dEdrOverR*rijz;
+		grad2[atomjx3] -= dEdrOverR*rijx;
+		grad2[atomjx3 + 1] -= dEdrOverR*rijy;
+		grad2[atomjx3 + 2] -= dEdrOverR*rijz;
+	}
 
 
 }
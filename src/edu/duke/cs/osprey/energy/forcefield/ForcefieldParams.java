@@ -78,6 +78,20 @@ public class ForcefieldParams implements Serializable {
     boolean hElect = true;
     boolean hVDW = true;
     
+    //optional distance cutoff (angstroms) for atom pairs
+    //pair energies are switched off smoothly over the last nonbondedSwitchWidth angstroms before the cutoff
+    //(see NonbondedSwitch), and pairs farther apart are skipped
+    //BigForcefieldEnergy finds the close pairs with neighbor lists that are only rebuilt
+    //when some atom moves more than half the skin distance
+    //the GPU forcefields evaluate every pair, so they reject a cutoff
+    public double nonbondedCutoff = Double.POSITIVE_INFINITY;
+    public double nonbondedSwitchWidth = 2.0;
+    public double neighborListSkin = 2.0;
+    
+    //when true, BigForcefieldEnergy's per-DOF subsets only recompute the atom pairs that moved since the last evaluation
+    //(see BigForcefieldEnergy.setUseIncremental()). Same energies up to rounding, so it's not part of the settings hash
+    public boolean incrementalEnergies = false;
+    
     public enum FORCEFIELD {
         
         // KER: if charmm19 then reduce C radii for 1-4 interactions
@@ -232,6 +246,32 @@ public class ForcefieldParams implements Serializable {
 		
     
     
+    public long getSettingsHash(){
+        //hash of the settings that change computed energies,
+        //so files computed with different settings can be detected
+        long hash = 1;
+        hash = hash*31 + forcefld.name().hashCode();
+        hash = hash*31 + amberDatInFile.hashCode();
+        hash = hash*31 + Double.doubleToLongBits(vdwMultiplier);
+        hash = hash*31 + Double.doubleToLongBits(solvScale);
+        hash = hash*31 + Double.doubleToLongBits(dielectric);
+        hash = hash*31 + Boolean.hashCode(distDepDielect);
+        hash = hash*31 + Boolean.hashCode(doSolvationE);
+        hash = hash*31 + Boolean.hashCode(hElect);
+        hash = hash*31 + Boolean.hashCode(hVDW);
+        hash = hash*31 + Double.doubleToLongBits(nonbondedCutoff);
+        if(hasNonbondedCutoff()){
+            //the switch only matters with a cutoff, so files without one keep their old hash
+            hash = hash*31 + Double.doubleToLongBits(nonbondedSwitchWidth);
+        }
+        return hash;
+    }
+    
+    public boolean hasNonbondedCutoff(){
+        return !Double.isInfinite(nonbondedCutoff);
+    }
+    
+    
     //************************************
 	// This function reads the AMBER forcefield parameter file
 	//  parm96a.dat
@@ -74,6 +74,17 @@ public class GpuForcefieldEnergy implements EnergyFunction.DecomposableByDof, En
 		}
 	}
 	
+	/**
+	 * The GPU kernels evaluate every atom pair, so they can't honor a nonbonded cutoff.
+	 * Fail early instead of computing energies that disagree with the CPU forcefields.
+	 */
+	public static void checkParams(ForcefieldParams ffparams) {
+		if (ffparams.hasNonbondedCutoff()) {
+			throw new IllegalArgumentException("GPU forcefields don't support a nonbonded cutoff (got " + ffparams.nonbondedCutoff
+				+ "), use the CPU forcefield or set the cutoff to Infinity");
+		}
+	}
+	
 	private BigForcefieldEnergy ffenergy;
 	private BigForcefieldEnergy.Subset ffsubset;
 	private GpuQueuePool openclQueuePool;
@@ -84,6 +95,7 @@ public class GpuForcefieldEnergy implements EnergyFunction.DecomposableByDof, En
 	private Map<Residue,GpuForcefieldEnergy> efuncCache;
 	
 	public GpuForcefieldEnergy(ForcefieldParams ffparams, ForcefieldInteractions interactions, GpuQueuePool queuePool) {
+		checkParams(ffparams);
 		this.ffenergy = new BigForcefieldEnergy(ffparams, interactions, BufferTools.Type.Direct);
 		this.ffsubset = ffenergy.getFullSubset();
 		this.openclQueuePool = queuePool;
@@ -95,6 +107,7 @@ public class GpuForcefieldEnergy implements EnergyFunction.DecomposableByDof, En
 	}
 	
 	public GpuForcefieldEnergy(ForcefieldParams ffparams, ForcefieldInteractions interactions, GpuStreamPool streamPool) {
+		checkParams(ffparams);
 		this.ffenergy = new BigForcefieldEnergy(ffparams, interactions, BufferTools.Type.Direct);
 		this.ffsubset = ffenergy.getFullSubset();
 		this.openclQueuePool = null;
@@ -0,0 +1,71 @@
+package edu.duke.cs.osprey.energy.forcefield;
+
+import java.io.Serializable;
+
+/**
+ * Turns off atom pair energies smoothly between the switching distance and the nonbonded cutoff,
+ * using the CHARMM switching function, so energies and gradients stay continuous at the cutoff.
+ * 
+ * The switch scales the whole pair energy (electrostatics, vdW, and solvation), so every forcefield
+ * implementation that honors the cutoff gets the same energies.
+ */
+public class NonbondedSwitch implements Serializable {
+	
+	private static final long serialVersionUID = 5182730410928455231L;
+	
+	/**
+	 * Makes the switch for the forcefield params, or returns null if the params don't use a cutoff
+	 */
+	public static NonbondedSwitch make(ForcefieldParams params) {
+		if (!params.hasNonbondedCutoff()) {
+			return null;
+		}
+		return new NonbondedSwitch(params.nonbondedCutoff, params.nonbondedSwitchWidth);
+	}
+	
+	public final double cutoff2;
+	public final double switchOn2;
+	
+	private final double invDenom;
+	
+	public NonbondedSwitch(double cutoff, double width) {
+		
+		if (!(cutoff > 0)) {
+			throw new IllegalArgumentException("nonbonded cutoff must be positive, not " + cutoff);
+		}
+		if (!(width >= 0 && width <= cutoff)) {
+			throw new IllegalArgumentException("switching width must be between 0 and the cutoff (" + cutoff + "), not " + width);
+		}
+		
+		double switchOn = cutoff - width;
+		this.cutoff2 = cutoff*cutoff;
+		this.switchOn2 = switchOn*switchOn;
+		
+		// a zero width is just a hard cutoff, so the switching region is empty
+		double d = cutoff2 - switchOn2;
+		this.invDenom = d > 0 ? 1.0/(d*d*d) : 0;
+	}
+	
+	/**
+	 * the factor for the pair energy at squared distance r2: 1 inside the switching distance, 0 at the cutoff and beyond
+	 */
+	public double getScale(double r2) {
+		if (r2 <= switchOn2) {
+			return 1;
+		} else if (r2 >= cutoff2) {
+			return 0;
+		}
+		double a = cutoff2 - r2;
+		return a*a*(cutoff2 + 2*r2 - 3*switchOn2)*invDenom;
+	}
+	
+	/**
+	 * (dS/dr)/r at squared distance r2, so gradients don't need to normalize the distance vector
+	 */
+	public double getDerivOverR(double r2) {
+		if (r2 <= switchOn2 || r2 >= cutoff2) {
+			return 0;
+		}
+		return 12*(cutoff2 - r2)*(switchOn2 - r2)*invDenom;
+	}
+}
@@ -5,6 +5,7 @@
 package edu.duke.cs.osprey.energy.forcefield;
 
 import edu.duke.cs.osprey.restypes.ResidueTemplate;
+import edu.duke.cs.osprey.energy.AtomGradient;
 import edu.duke.cs.osprey.energy.EnergyFunction;
 import edu.duke.cs.osprey.structure.Residue;
 
@@ -12,7 +13,7 @@ import edu.duke.cs.osprey.structure.Residue;
  *
  * @author mhall44
  */
-public class ResPairEnergy implements EnergyFunction {
+public class ResPairEnergy implements EnergyFunction.Gradient {
     //interaction energy between two residues, as modeled by a forcefield
     
     Residue res1, res2;
@@ -48,6 +49,24 @@ public class ResPairEnergy implements EnergyFunction {
     }
     
     
+    @Override
+    public boolean hasGradient() {
+        return true;
+    }
+    
+    @Override
+    public double getEnergyAndGradient(AtomGradient gradient) {
+        
+        if(res1.template!=templ1 || res2.template!=templ2)
+            initFFE();
+        
+        if( ! (res1.confProblems.isEmpty() && res2.confProblems.isEmpty()) )
+            return Double.POSITIVE_INFINITY;
+        
+        return ffEnergy.calculateTotalEnergyAndGradient(gradient.get(res1), gradient.get(res2));
+    }
+    
+    
     void initFFE(){
         ffEnergy = new ForcefieldEnergy(false,res1.atoms,res2.atoms,ffParams);
         templ1 = res1.template;
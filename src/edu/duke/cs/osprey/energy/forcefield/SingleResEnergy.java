@@ -4,6 +4,7 @@
  */
 package edu.duke.cs.osprey.energy.forcefield;
 
+import edu.duke.cs.osprey.energy.AtomGradient;
 import edu.duke.cs.osprey.energy.EnergyFunction;
 import edu.duke.cs.osprey.restypes.ResidueTemplate;
 import edu.duke.cs.osprey.structure.Residue;
@@ -12,7 +13,7 @@ import edu.duke.cs.osprey.structure.Residue;
  *
  * @author mhall44
  */
-public class SingleResEnergy implements EnergyFunction {
+public class SingleResEnergy implements EnergyFunction.Gradient {
     //internal energy as a single residue, as modeled by a forcefield
     //very similar to ResPairEnergy
     
@@ -48,6 +49,24 @@ public class SingleResEnergy implements EnergyFunction {
     }
     
     
+    @Override
+    public boolean hasGradient() {
+        return true;
+    }
+    
+    @Override
+    public double getEnergyAndGradient(AtomGradient gradient) {
+        
+        if(res.template!=templ)
+            initFFE();
+        
+        if( ! res.confProblems.isEmpty() )
+            return Double.POSITIVE_INFINITY;
+        
+        return ffEnergy.calculateTotalEnergyAndGradient(gradient.get(res), gradient.get(res));
+    }
+    
+    
     void initFFE(){
         ffEnergy = new ForcefieldEnergy(true,res.atoms,res.atoms,ffParams);
         templ = res.template;
@@ -12,6 +12,7 @@ import cern.colt.matrix.DoubleMatrix1D;
 import edu.duke.cs.osprey.dof.DegreeOfFreedom;
 import edu.duke.cs.osprey.dof.FreeDihedral;
 import edu.duke.cs.osprey.energy.forcefield.BigForcefieldEnergy;
+import edu.duke.cs.osprey.energy.forcefield.GpuForcefieldEnergy;
 import edu.duke.cs.osprey.gpu.cuda.CUBuffer;
 import edu.duke.cs.osprey.gpu.cuda.GpuStream;
 import edu.duke.cs.osprey.gpu.cuda.Kernel;
@@ -83,6 +84,7 @@ public class CCDKernelCuda extends Kernel {
 		} else {
 			throw new Error("CCD kernel needs a " + BigForcefieldEnergy.class.getSimpleName() + ", not a " + mof.getEfunc().getClass().getSimpleName() + ". this is a bug.");
 		}
+		GpuForcefieldEnergy.checkParams(ffenergy.getParams().params);
 		
 		// handle any chemical changes
 		ffSequenceNumber = ffenergy.getFullSubset().handleChemicalChanges();
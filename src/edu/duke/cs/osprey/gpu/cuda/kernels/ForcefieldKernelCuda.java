@@ -6,6 +6,7 @@ import java.nio.DoubleBuffer;
 import java.nio.IntBuffer;
 
 import edu.duke.cs.osprey.energy.forcefield.BigForcefieldEnergy;
+import edu.duke.cs.osprey.energy.forcefield.GpuForcefieldEnergy;
 import edu.duke.cs.osprey.gpu.ForcefieldKernel;
 import edu.duke.cs.osprey.gpu.cuda.CUBuffer;
 import edu.duke.cs.osprey.gpu.cuda.GpuStream;
@@ -31,6 +32,7 @@ public class ForcefieldKernelCuda extends Kernel implements ForcefieldKernel {
 	throws IOException {
 		super(stream, "forcefield");
 		
+		GpuForcefieldEnergy.checkParams(ffenergy.getParams().params);
 		this.ffenergy = ffenergy;
 		
 		func = makeFunction("calc");
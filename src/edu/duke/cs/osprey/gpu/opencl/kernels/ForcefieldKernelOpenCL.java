@@ -10,6 +10,7 @@ import com.jogamp.opencl.CLContext;
 import com.jogamp.opencl.CLMemory;
 
 import edu.duke.cs.osprey.energy.forcefield.BigForcefieldEnergy;
+import edu.duke.cs.osprey.energy.forcefield.GpuForcefieldEnergy;
 import edu.duke.cs.osprey.gpu.ForcefieldKernel;
 import edu.duke.cs.osprey.gpu.opencl.GpuQueue;
 import edu.duke.cs.osprey.gpu.opencl.Kernel;
@@ -40,6 +41,8 @@ public class ForcefieldKernelOpenCL extends Kernel implements ForcefieldKernel {
 	throws IOException {
 		super(queue, "forcefield.cl", "calc");
 		
+		GpuForcefieldEnergy.checkParams(ffenergy.getParams().params);
+		
 		/* OPTIMIZATION: this kernel uses lots and lots of registers, so maxing out the work group size is sub-optimal
 			using a smaller group size works noticeably better!
 			empirically, using 1/4 the max seems to make the difference between 11x speedups and 15x speedups
@@ -4,7 +4,44 @@
  */
 package edu.duke.cs.osprey.handlempi;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import edu.duke.cs.osprey.control.EnvironmentVars;
+import edu.duke.cs.osprey.energy.EnergyFunctionGenerator;
+import edu.duke.cs.osprey.energy.forcefield.ForcefieldParams;
+import edu.duke.cs.osprey.minimization.CCDMinimizer;
+import edu.duke.cs.osprey.restypes.GenericResidueTemplateLibrary;
 
 /**
  *
@@ -15,38 +52,675 @@ public class MPIMaster {
     //The program has just one of these, so it's a singleton class OR JUST DO EVERYTHING STATIC
     //When given a list of MPISlaveTasks to handle, it'll farm them out to slave nodes
     //and return their calculation results
-    
-    
+
+    //Slaves are separate JVMs (see MPISlave) that connect to the master over a socket,
+    //either started on this machine with startLocalSlaves() or started by hand on other machines.
+    //Each slave thread has its own connection and pulls one task at a time from a shared queue,
+    //so faster slaves naturally take more of the work.
+    //When the queue runs dry, idle slaves steal copies of tasks that have been running
+    //much longer than usual, so one slow slave can't hold up a whole batch (the first copy to finish wins).
+    //If a slave dies or a task throws, the task goes back in the queue, up to maxAttempts times.
+    //With no slaves connected, tasks just run locally.
+
+    //Slaves run whatever the master sends them, and the master deserializes whatever slaves send back,
+    //so we only listen on loopback unless told otherwise, and both sides prove they know this run's
+    //secret (with an HMAC challenge in each direction) before either one reads any objects.
+    //Local slaves get the secret in their environment. Slaves on other machines need it too (see writeSecret()).
+
+
     static int processRank = 0;
-    
+
+    static final int Magic = 0x4f535059;//OSPY
+    static final byte MsgContext = 1;
+    static final byte MsgTask = 2;
+    static final byte MsgStop = 3;
+    static final byte MsgResult = 4;
+    static final byte MsgFailure = 5;
+
+    static final String SecretEnvVar = "OSPREY_MPI_SECRET";
+    static final int NonceSize = 32;
+    static final int SignatureSize = 32;//HMAC-SHA256
+    static final byte RoleMaster = 1;
+    static final byte RoleSlave = 2;
+
+    private static final SecureRandom random = new SecureRandom();
+
+    //serializing molecules recurses deeply, so give the communication threads big stacks
+    static final long StackSize = 1L << 26;
+
+    public int maxAttempts = 3;//how many times to try a task before giving up on it
+    public int maxCopies = 2;//how many slaves can work on the same task at once
+    public double stealFactor = 3;//steal tasks that have been running this many times longer than average
+
+    private ServerSocket server = null;
+    private boolean isStopping = false;
+    private final ArrayList<Connection> connections = new ArrayList<>();
+    private final ArrayList<Process> localSlaves = new ArrayList<>();
+    private boolean hasShutdownHook = false;
+
+    //jobs waiting for a slave, and jobs being worked on (oldest first)
+    private final LinkedList<Job> queue = new LinkedList<>();
+    private final LinkedHashSet<Job> running = new LinkedHashSet<>();
+    private long avgTaskNs = 0;
+
+    private final AtomicLong nextContextId = new AtomicLong(0);
+
+    private final String secret = makeSecret();
+
+
     private MPIMaster() {
     }
-    
+
     public static void printIfMaster(String output){
-        //print the string if called at the master node.  Otherwise do nothing.  
+        //print the string if called at the master node.  Otherwise do nothing.
         if(processRank==0)
             System.out.println(output);
     }
-    
+
     public static MPIMaster getInstance() {
         if(processRank>0)
             throw new RuntimeException("ERROR: Slave nodes can't get the MPIMaster instance");
-        
+
         return MPIMasterHolder.INSTANCE;
     }
 
+
+    //An object shared by many tasks, which is sent to each slave only once.
+    //It also carries the master's EnvironmentVars, so the slaves can set up the same environment.
+    public static class SharedContext {
+
+        public final long id;
+        public final Serializable value;
+        private byte[] bytes = null;
+
+        private SharedContext(long id, Serializable value) {
+            this.id = id;
+            this.value = value;
+        }
+
+        synchronized byte[] getBytes() {
+            //only serialize if we actually have slaves
+            if(bytes==null)
+                bytes = serialize(new Object[] { new Environment(), value });
+            return bytes;
+        }
+    }
+
+    public SharedContext shareContext(Serializable value) {
+        return new SharedContext(nextContextId.getAndIncrement(), value);
+    }
+
+
     public ArrayList<Object> handleTasks(ArrayList<MPISlaveTask> tasks) {
         //Given the list of tasks, return their results in the same order
-        
-        //DEBUG!!!!
-        //BEFORE WE IMPLEMENT MPI JUST DO THESE LOCALLY
+        return handleTasks(tasks, null);
+    }
+
+    public Object handleTask(MPISlaveTask task, SharedContext context) {
+        return handleTasks(new ArrayList<>(Arrays.asList(task)), context).get(0);
+    }
+
+    public ArrayList<Object> handleTasks(List<? extends MPISlaveTask> tasks, SharedContext context) {
+        //Given the list of tasks (that share the context, which can be null), return their results in the same order
+        //this is thread-safe, so several threads can hand off tasks at once
+
         ArrayList<Object> ans = new ArrayList<>();
+
+        //no slaves, so just do the tasks here
+        if(getNumSlaves()==0){
+            for(MPISlaveTask task : tasks){
+                ans.add( runTask(task, context==null ? null : context.value) );
+            }
+            return ans;
+        }
+
+        ArrayList<Job> jobs = new ArrayList<>();
         for(MPISlaveTask task : tasks){
-            ans.add( task.doCalculation() );
+            jobs.add(new Job(task, context));
+        }
+        synchronized(this){
+            queue.addAll(jobs);
+            notifyAll();
+        }
+
+        int numDone = 0;
+        while(numDone < jobs.size()){
+
+            ArrayList<Job> localJobs = new ArrayList<>();
+            synchronized(this){
+
+                while(numDone < jobs.size() && jobs.get(numDone).isDone){
+                    Job job = jobs.get(numDone);
+                    if(job.error!=null){
+                        cancel(jobs);
+                        throw new RuntimeException("ERROR: MPI task failed after " + job.numAttempts + " attempts", job.error);
+                    }
+                    numDone++;
+                }
+
+                if(numDone < jobs.size()){
+                    if(connections.isEmpty()){
+                        //all the slaves are gone, so finish up here
+                        for(Job job : jobs.subList(numDone, jobs.size())){
+                            if(queue.remove(job)){
+                                job.start();
+                                localJobs.add(job);
+                            }
+                        }
+                    }
+                    else
+                        waitQuietly(1000);
+                }
+            }
+
+            for(Job job : localJobs){
+                try {
+                    finishJob(job, runTask(job.task, context==null ? null : context.value));
+                } catch(Throwable t){
+                    failJob(job, t);
+                }
+            }
+        }
+
+        for(Job job : jobs){
+            ans.add(job.result);
         }
         return ans;
     }
-    
+
+    @SuppressWarnings("unchecked")
+    static Object runTask(MPISlaveTask task, Object context) {
+        if(task instanceof MPISlaveTask.Contextual)
+            ((MPISlaveTask.Contextual<Object>)task).setContext(context);
+        return task.doCalculation();
+    }
+
+
+    //SLAVE MANAGEMENT
+
+    public int start(int port) {
+        //start listening for slaves on loopback only
+        return start(null, port);
+    }
+
+    public synchronized int start(String host, int port) {
+        //start listening for slaves on the given interface (null means loopback only) and port (0 picks any free port)
+        //returns the port we're listening on
+        if(server==null){
+            try {
+                InetAddress address = host==null ? InetAddress.getLoopbackAddress() : InetAddress.getByName(host);
+                server = new ServerSocket(port, 50, address);
+            } catch(IOException ex){
+                throw new RuntimeException("ERROR: can't listen for MPI slaves on " + host + " port " + port, ex);
+            }
+            isStopping = false;
+
+            ServerSocket fServer = server;
+            Thread thread = new Thread(() -> acceptSlaves(fServer), "MPIMaster-accept");
+            thread.setDaemon(true);
+            thread.start();
+
+            System.out.println("MPI master listening for slaves on " + server.getInetAddress().getHostAddress() + " port " + server.getLocalPort());
+        }
+        return server.getLocalPort();
+    }
+
+    public void startLocalSlaves(int numSlaves, int numThreadsPerSlave) {
+        //start slave JVMs on this machine, using the same classpath and JVM settings as this one
+
+        int port = start(0);
+        String host = getLocalSlaveHost();
+
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        ArrayList<String> command = new ArrayList<>();
+        command.add(java);
+        for(String arg : ManagementFactory.getRuntimeMXBean().getInputArguments()){
+            //pass along memory and system property settings, but not debuggers and such
+            if( (arg.startsWith("-X") && !arg.startsWith("-Xrun") && !arg.startsWith("-Xdebug"))
+                    || arg.startsWith("-D") || arg.equals("-ea") ){
+                command.add(arg);
+            }
+        }
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(MPISlave.class.getName());
+        command.add(host);
+        command.add(Integer.toString(port));
+        command.add(Integer.toString(numThreadsPerSlave));
+
+        synchronized(this){
+            for(int i=0; i<numSlaves; i++){
+                try {
+                    //pass the secret in the environment, so it doesn't show up in the process list
+                    ProcessBuilder builder = new ProcessBuilder(command).inheritIO();
+                    builder.environment().put(SecretEnvVar, secret);
+                    localSlaves.add(builder.start());
+                } catch(IOException ex){
+                    throw new RuntimeException("ERROR: can't start MPI slave process", ex);
+                }
+            }
+
+            //don't leave orphaned slaves around if we die
+            if(!hasShutdownHook){
+                Runtime.getRuntime().addShutdownHook(new Thread(() -> destroyLocalSlaves()));
+                hasShutdownHook = true;
+            }
+        }
+    }
+
+    private synchronized String getLocalSlaveHost() {
+        //local slaves can reach us on whatever interface we're listening on, or on loopback if it's all of them
+        InetAddress address = server.getInetAddress();
+        if(address.isAnyLocalAddress())
+            address = InetAddress.getLoopbackAddress();
+        return address.getHostAddress();
+    }
+
+    String getSecret() {
+        return secret;
+    }
+
+    public void writeSecret(File file) {
+        //write this run's secret to a file only this user can read,
+        //so slaves on other machines can join with OSPREY_MPI_SECRET set to its contents
+        Path path = file.toPath();
+        try {
+            Files.deleteIfExists(path);
+            try {
+                Files.createFile(path, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+            } catch(UnsupportedOperationException ex){
+                //not a POSIX file system, so do the best we can
+                Files.createFile(path);
+                file.setReadable(false, false);
+                file.setReadable(true, true);
+            }
+            Files.write(path, secret.getBytes(StandardCharsets.US_ASCII));
+        } catch(IOException ex){
+            throw new RuntimeException("ERROR: can't write MPI secret to " + file, ex);
+        }
+    }
+
+    public synchronized boolean waitForSlaves(int numSlaves, long timeoutMs) {
+        //wait until at least this many slave threads are connected
+        long stopMs = System.currentTimeMillis() + timeoutMs;
+        while(connections.size() < numSlaves){
+            long remainingMs = stopMs - System.currentTimeMillis();
+            if(remainingMs <= 0)
+                return false;
+            waitQuietly(remainingMs);
+        }
+        return true;
+    }
+
+    public synchronized int getNumSlaves() {
+        //each slave thread has its own connection
+        return connections.size();
+    }
+
+    public void stop() {
+        //tell the slaves to stop after their current tasks, and stop listening for new ones
+
+        ArrayList<Process> slaves;
+        synchronized(this){
+            if(server==null)
+                return;
+
+            isStopping = true;
+            notifyAll();
+            try {
+                server.close();
+            } catch(IOException ex){
+                //don't care, we're done with it
+            }
+            server = null;
+
+            slaves = new ArrayList<>(localSlaves);
+            localSlaves.clear();
+        }
+
+        for(Process slave : slaves){
+            try {
+                if(!slave.waitFor(10, TimeUnit.SECONDS))
+                    slave.destroy();
+            } catch(InterruptedException ex){
+                slave.destroy();
+            }
+        }
+    }
+
+    private synchronized void destroyLocalSlaves() {
+        for(Process slave : localSlaves)
+            slave.destroy();
+    }
+
+    private void acceptSlaves(ServerSocket server) {
+        while(true){
+
+            Socket socket;
+            try {
+                socket = server.accept();
+            } catch(IOException ex){
+                //server was closed
+                return;
+            }
+
+            try {
+                Connection connection = new Connection(socket);
+                synchronized(this){
+                    if(isStopping){
+                        socket.close();
+                        continue;
+                    }
+                    connections.add(connection);
+                    notifyAll();
+                }
+
+                Thread thread = new Thread(null, connection, "MPIMaster-slave", StackSize);
+                thread.setDaemon(true);
+                thread.start();
+
+            } catch(IOException ex){
+                System.err.println("WARNING: couldn't connect to MPI slave at " + socket.getRemoteSocketAddress() + ": " + ex);
+                try {
+                    socket.close();
+                } catch(IOException ex2){
+                    //don't care
+                }
+            }
+        }
+    }
+
+
+    //TASK SCHEDULING
+
+    private static class Job {
+
+        final MPISlaveTask task;
+        final byte[] taskBytes;
+        final SharedContext context;
+
+        int numAttempts = 0;//failed attempts so far
+        int numRunning = 0;
+        long startNs = 0;
+        boolean isDone = false;
+        Object result = null;
+        Throwable error = null;
+
+        Job(MPISlaveTask task, SharedContext context) {
+            this.task = task;
+            this.taskBytes = serialize(task);
+            this.context = context;
+        }
+
+        void start() {
+            if(numRunning==0)
+                startNs = System.nanoTime();
+            numRunning++;
+        }
+    }
+
+    private synchronized Job takeJob() {
+        //blocks until there's a job for a slave to do, or returns null when we're stopping
+
+        while(!isStopping){
+
+            //take the next job in line
+            Job job = queue.pollFirst();
+            if(job!=null){
+                job.start();
+                running.add(job);
+                return job;
+            }
+
+            //nothing in line, so steal a copy of a straggler
+            if(avgTaskNs > 0){
+                long now = System.nanoTime();
+                for(Job straggler : running){
+                    if(straggler.numRunning < maxCopies && now - straggler.startNs > stealFactor*avgTaskNs){
+                        straggler.start();
+                        return straggler;
+                    }
+                }
+            }
+
+            waitQuietly(100);
+        }
+        return null;
+    }
+
+    private synchronized void finishJob(Job job, Object result) {
+        job.numRunning--;
+        if(!job.isDone){
+            long elapsedNs = System.nanoTime() - job.startNs;
+            avgTaskNs = avgTaskNs==0 ? elapsedNs : (avgTaskNs*7 + elapsedNs)/8;
+            job.result = result;
+            job.isDone = true;
+            running.remove(job);
+        }
+        notifyAll();
+    }
+
+    private synchronized void failJob(Job job, Throwable error) {
+        job.numRunning--;
+        if(!job.isDone){
+            job.numAttempts++;
+            if(job.numAttempts >= maxAttempts){
+                job.error = error;
+                job.isDone = true;
+                running.remove(job);
+            }
+            else if(job.numRunning==0){
+                //try again, and don't make it wait in line
+                running.remove(job);
+                queue.addFirst(job);
+            }
+        }
+        notifyAll();
+    }
+
+    private synchronized void cancel(List<Job> jobs) {
+        for(Job job : jobs){
+            if(!job.isDone){
+                job.isDone = true;
+                queue.remove(job);
+                running.remove(job);
+            }
+        }
+    }
+
+    private synchronized void dropConnection(Connection connection, Job job) {
+        connections.remove(connection);
+        try {
+            connection.socket.close();
+        } catch(IOException ex){
+            //don't care
+        }
+        if(job!=null){
+            failJob(job, new RuntimeException("MPI slave at " + connection.socket.getRemoteSocketAddress() + " disconnected during task"));
+            System.err.println("WARNING: lost MPI slave at " + connection.socket.getRemoteSocketAddress() + ", retrying its task");
+        }
+        notifyAll();
+    }
+
+    private void waitQuietly(long timeoutMs) {
+        try {
+            wait(timeoutMs);
+        } catch(InterruptedException ex){
+            throw new RuntimeException(ex);
+        }
+    }
+
+    private class Connection implements Runnable {
+
+        final Socket socket;
+        final DataInputStream in;
+        final DataOutputStream out;
+        long contextId = -1;
+
+        Connection(Socket socket) throws IOException {
+            this.socket = socket;
+            socket.setTcpNoDelay(true);
+            in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+
+            //make sure it's actually a slave for this run before we read any objects from it
+            socket.setSoTimeout(10000);
+            if(in.readInt()!=Magic)
+                throw new IOException("not an OSPREY MPI slave");
+            byte[] slaveNonce = new byte[NonceSize];
+            in.readFully(slaveNonce);
+
+            //prove we know the secret, then make the slave prove it too
+            byte[] masterNonce = makeNonce();
+            out.write(masterNonce);
+            out.write(sign(secret, RoleMaster, slaveNonce));
+            out.flush();
+            byte[] slaveSignature = new byte[SignatureSize];
+            in.readFully(slaveSignature);
+            if(!MessageDigest.isEqual(slaveSignature, sign(secret, RoleSlave, masterNonce)))
+                throw new IOException("MPI slave doesn't know the secret for this run");
+            socket.setSoTimeout(0);
+        }
+
+        @Override
+        public void run() {
+            Job job = null;
+            try {
+                while( (job=takeJob()) != null ){
+
+                    //send the context if the slave doesn't have it yet
+                    if(job.context!=null && job.context.id!=contextId){
+                        out.writeByte(MsgContext);
+                        out.writeLong(job.context.id);
+                        writeBytes(out, job.context.getBytes());
+                        contextId = job.context.id;
+                    }
+
+                    out.writeByte(MsgTask);
+                    writeBytes(out, job.taskBytes);
+                    out.flush();
+
+                    byte type = in.readByte();
+                    byte[] payload = readBytes(in);
+                    try {
+                        if(type==MsgResult)
+                            finishJob(job, deserialize(payload));
+                        else
+                            failJob(job, (Throwable)deserialize(payload));
+                    } catch(RuntimeException ex){
+                        //couldn't read the result
+                        failJob(job, ex);
+                    }
+                    job = null;
+                }
+
+                out.writeByte(MsgStop);
+                out.flush();
+
+            } catch(IOException ex){
+                //lost the slave, someone else will have to do the job
+            } finally {
+                dropConnection(this, job);
+            }
+        }
+    }
+
+
+    //AUTHENTICATION
+
+    private static String makeSecret() {
+        StringBuilder buf = new StringBuilder();
+        for(byte b : makeNonce())
+            buf.append(String.format("%02x", b));
+        return buf.toString();
+    }
+
+    static byte[] makeNonce() {
+        byte[] nonce = new byte[NonceSize];
+        random.nextBytes(nonce);
+        return nonce;
+    }
+
+    static byte[] sign(String secret, byte role, byte[] nonce) {
+        //the role keeps anyone from getting one side to answer the other side's challenge
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(new SecretKeySpec(secret.getBytes(StandardCharsets.UTF_8), "HmacSHA256"));
+            mac.update(role);
+            return mac.doFinal(nonce);
+        } catch(GeneralSecurityException ex){
+            throw new RuntimeException("ERROR: can't sign MPI handshake", ex);
+        }
+    }
+
+
+    //SERIALIZATION
+
+    static byte[] serialize(Object obj) {
+        ByteArrayOutputStream buf = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(buf)) {
+            out.writeObject(obj);
+        } catch(IOException ex){
+            throw new RuntimeException("ERROR: can't serialize " + obj.getClass().getName() + " for MPI", ex);
+        }
+        return buf.toByteArray();
+    }
+
+    static Object deserialize(byte[] bytes) {
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+            return in.readObject();
+        } catch(IOException | ClassNotFoundException ex){
+            throw new RuntimeException("ERROR: can't deserialize MPI message", ex);
+        }
+    }
+
+    static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    static byte[] readBytes(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return bytes;
+    }
+
+
+    //the global settings slaves need to do the same calculations as the master
+    static class Environment implements Serializable {
+
+        private static final long serialVersionUID = 3702914381734718925L;
+
+        GenericResidueTemplateLibrary resTemplates;
+        ForcefieldParams ffParams;
+        double distCutoff;
+        boolean usePoissonBoltzmann;
+        boolean alwaysIdealizeSidechainsAfterMutation;
+        int ccdNumIter;
+        double ccdEConvTol;
+
+        Environment() {
+            resTemplates = EnvironmentVars.resTemplates;
+            if(EnvironmentVars.curEFcnGenerator!=null){
+                ffParams = EnvironmentVars.curEFcnGenerator.ffParams;
+                distCutoff = EnvironmentVars.curEFcnGenerator.distCutoff;
+                usePoissonBoltzmann = EnvironmentVars.curEFcnGenerator.usePoissonBoltzmann;
+            }
+            alwaysIdealizeSidechainsAfterMutation = EnvironmentVars.alwaysIdealizeSidechainsAfterMutation;
+            ccdNumIter = CCDMinimizer.numIter;
+            ccdEConvTol = CCDMinimizer.EConvTol;
+        }
+
+        void apply() {
+            EnvironmentVars.resTemplates = resTemplates;
+            if(ffParams!=null)
+                EnvironmentVars.curEFcnGenerator = new EnergyFunctionGenerator(ffParams, distCutoff, usePoissonBoltzmann);
+            EnvironmentVars.alwaysIdealizeSidechainsAfterMutation = alwaysIdealizeSidechainsAfterMutation;
+            CCDMinimizer.numIter = ccdNumIter;
+            CCDMinimizer.EConvTol = ccdEConvTol;
+        }
+    }
+
     private static class MPIMasterHolder {
 
         private static final MPIMaster INSTANCE = new MPIMaster();
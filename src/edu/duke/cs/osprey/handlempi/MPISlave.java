@@ -0,0 +1,192 @@
+package edu.duke.cs.osprey.handlempi;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.Socket;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A slave process for MPIMaster. It connects to the master, then runs whatever tasks the master sends it.
+ *
+ * MPIMaster.startLocalSlaves() starts these on the same machine as the master.
+ * To add slaves on other machines, have the master listen on an interface they can reach,
+ * write its secret to a file (see MPIMaster.writeSecret()), and run:
+ * OSPREY_MPI_SECRET=<secret> java -cp <osprey classpath> edu.duke.cs.osprey.handlempi.MPISlave <master host> <master port> [num threads]
+ */
+public class MPISlave {
+
+	private static final int MaxCachedContexts = 4;
+
+	// contexts are shared by all the threads in this slave
+	private static final Map<Long,Object> contexts = new LinkedHashMap<Long,Object>() {
+
+		private static final long serialVersionUID = -1718317226395591723L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Long,Object> eldest) {
+			return size() > MaxCachedContexts;
+		}
+	};
+
+	public static void main(String[] args) {
+
+		if (args.length < 2) {
+			System.out.println("Usage: MPISlave <master host> <master port> [num threads]");
+			System.exit(1);
+		}
+
+		String host = args[0];
+		int port = Integer.parseInt(args[1]);
+		int numThreads = args.length > 2 ? Integer.parseInt(args[2]) : 1;
+
+		String secret = System.getenv(MPIMaster.SecretEnvVar);
+		if (secret == null || secret.isEmpty()) {
+			System.out.println("MPISlave needs the master's secret in the " + MPIMaster.SecretEnvVar + " environment variable");
+			System.exit(1);
+		}
+
+		run(host, port, numThreads, secret);
+	}
+
+	public static void run(String host, int port, int numThreads, String secret) {
+
+		MPIMaster.processRank = 1;
+
+		// each thread gets its own connection to the master
+		ArrayList<Thread> threads = new ArrayList<>();
+		for (int i=0; i<numThreads; i++) {
+			Thread thread = new Thread(null, () -> serve(host, port, secret), "MPISlave-" + i, MPIMaster.StackSize);
+			thread.start();
+			threads.add(thread);
+		}
+
+		for (Thread thread : threads) {
+			try {
+				thread.join();
+			} catch (InterruptedException ex) {
+				throw new RuntimeException(ex);
+			}
+		}
+	}
+
+	private static void serve(String host, int port, String secret) {
+
+		try (Socket socket = connect(host, port)) {
+
+			socket.setTcpNoDelay(true);
+			DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+
+			out.writeInt(MPIMaster.Magic);
+			byte[] slaveNonce = MPIMaster.makeNonce();
+			out.write(slaveNonce);
+			out.flush();
+
+			// make sure we're talking to the master for this run before we read any objects from it
+			byte[] masterNonce = new byte[MPIMaster.NonceSize];
+			in.readFully(masterNonce);
+			byte[] masterSignature = new byte[MPIMaster.SignatureSize];
+			in.readFully(masterSignature);
+			if (!MessageDigest.isEqual(masterSignature, MPIMaster.sign(secret, MPIMaster.RoleMaster, slaveNonce))) {
+				throw new IOException("MPI master doesn't know the secret for this run");
+			}
+			out.write(MPIMaster.sign(secret, MPIMaster.RoleSlave, masterNonce));
+			out.flush();
+
+			Object context = null;
+			while (true) {
+
+				byte type;
+				try {
+					type = in.readByte();
+				} catch (EOFException ex) {
+					// master went away
+					break;
+				}
+
+				if (type == MPIMaster.MsgStop) {
+					break;
+
+				} else if (type == MPIMaster.MsgContext) {
+					long id = in.readLong();
+					context = getContext(id, MPIMaster.readBytes(in));
+
+				} else if (type == MPIMaster.MsgTask) {
+
+					byte[] taskBytes = MPIMaster.readBytes(in);
+
+					byte replyType;
+					byte[] reply;
+					try {
+						MPISlaveTask task = (MPISlaveTask)MPIMaster.deserialize(taskBytes);
+						reply = MPIMaster.serialize(MPIMaster.runTask(task, context));
+						replyType = MPIMaster.MsgResult;
+					} catch (Throwable t) {
+						reply = serializeError(t);
+						replyType = MPIMaster.MsgFailure;
+					}
+
+					out.writeByte(replyType);
+					MPIMaster.writeBytes(out, reply);
+					out.flush();
+
+				} else {
+					throw new IOException("unknown message type: " + type);
+				}
+			}
+
+		} catch (IOException ex) {
+			System.err.println("MPI slave lost connection to master: " + ex.getMessage());
+		}
+	}
+
+	private static Socket connect(String host, int port)
+	throws IOException {
+
+		// the master might not be listening yet, so try a few times
+		final int NumTries = 10;
+		for (int i=1; ; i++) {
+			try {
+				return new Socket(host, port);
+			} catch (IOException ex) {
+				if (i >= NumTries) {
+					throw ex;
+				}
+				try {
+					Thread.sleep(500);
+				} catch (InterruptedException ex2) {
+					throw ex;
+				}
+			}
+		}
+	}
+
+	private static Object getContext(long id, byte[] bytes) {
+		synchronized (contexts) {
+			Object context = contexts.get(id);
+			if (context == null) {
+				Object[] envAndContext = (Object[])MPIMaster.deserialize(bytes);
+				((MPIMaster.Environment)envAndContext[0]).apply();
+				context = envAndContext[1];
+				contexts.put(id, context);
+			}
+			return context;
+		}
+	}
+
+	private static byte[] serializeError(Throwable t) {
+		try {
+			return MPIMaster.serialize(t);
+		} catch (RuntimeException ex) {
+			// the error isn't serializable, so just send the message
+			return MPIMaster.serialize(new RuntimeException(t.toString()));
+		}
+	}
+}
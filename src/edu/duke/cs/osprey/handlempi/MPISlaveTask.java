@@ -4,6 +4,8 @@
  */
 package edu.duke.cs.osprey.handlempi;
 
+import java.io.Serializable;
+
 /**
  *
  * @author mhall44
@@ -12,9 +14,19 @@ package edu.duke.cs.osprey.handlempi;
 //these are farmed out to various slave nodes
 //they doCalculation and return whatever they're supposed to
 //which can then be cast by the master to the form used by the task calling the master
+//tasks (and their results) get serialized to send them to the slave nodes
+
+public interface MPISlaveTask extends Serializable {
 
-public interface MPISlaveTask {
-    
     Object doCalculation();
-    
+
+
+    //Tasks that need a big shared object (e.g., the conf space) implement this,
+    //so the shared object can be sent to each slave once (see MPIMaster.shareContext)
+    //instead of once per task.  The context is set right before doCalculation is called,
+    //so keep the task's reference to it transient.
+    //Slaves can run several tasks at once with the same context, so it should be thread-safe.
+    public static interface Contextual<C> extends MPISlaveTask {
+        void setContext(C context);
+    }
 }
@@ -0,0 +1,29 @@
+package edu.duke.cs.osprey.handlempi;
+
+import edu.duke.cs.osprey.parallelism.ThreadPoolTaskExecutor;
+
+/**
+ * Runs tasks that just hand their work off to MPI slaves and wait for the results.
+ * 
+ * Uses twice as many local threads as there are slaves, so the slaves don't have to wait on us.
+ * Slaves can join or leave at any time, so the slaves are counted again whenever a task is submitted.
+ */
+public class MPITaskExecutor extends ThreadPoolTaskExecutor {
+	
+	private final MPIMaster master;
+	
+	public MPITaskExecutor(MPIMaster master) {
+		this.master = master;
+		start(getNumThreadsNeeded());
+	}
+	
+	public int getNumThreadsNeeded() {
+		return Math.max(1, master.getNumSlaves()*2);
+	}
+	
+	@Override
+	public void submit(Runnable task, TaskListener listener) {
+		setNumThreads(getNumThreadsNeeded());
+		super.submit(task, listener);
+	}
+}
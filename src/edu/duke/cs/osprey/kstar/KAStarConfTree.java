@@ -182,7 +182,7 @@ public class KAStarConfTree extends ConfTree<FullAStarNode> {
 
 					RCTuple augTuple = startingTuple.addRC(iPos, rc);
 
-					double interactionE = htf.getInteraction(iPos, rc);
+					double interactionE = htf.getEnergy(iPos, rc);
 
 					//see if need to go up to highers order again...
 					@SuppressWarnings("rawtypes")
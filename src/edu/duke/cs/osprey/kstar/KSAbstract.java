@@ -410,37 +410,41 @@ public abstract class KSAbstract implements KSInterface {
 			// put in local map
 			ans.put(strand, pf);
 
-			// only continue if we have not already started computed the PF
-			if( pf.getRunState() == RunState.NOTSTARTED ) {
+			// the concurrent sequence scheduler might be starting this partition function right now
+			synchronized( pf ) {
 
-				// get energy matrix
-				if(pf.getReducedSearchProblem().getEnergyMatrix() == null) {
-					pf.getReducedSearchProblem().loadEnergyMatrix();
-				}
+				// only continue if we have not already started computed the PF
+				if( pf.getRunState() == RunState.NOTSTARTED ) {
+
+					// get energy matrix
+					if(pf.getReducedSearchProblem().getEnergyMatrix() == null) {
+						pf.getReducedSearchProblem().loadEnergyMatrix();
+					}
 
-				// re-prune, since we have fewer witnesses now that we have trimmed the emat?
-				// type dependent pruning doesn't take care of this?
+					// re-prune, since we have fewer witnesses now that we have trimmed the emat?
+					// type dependent pruning doesn't take care of this?
 
-				if(pf.getReducedSearchProblem().numConfs(pf.getReducedPruningMatrix()).compareTo(BigInteger.ZERO) == 0) {
-					// no conformations in search space, so this cannot give a valid
-					// partition function
+					if(pf.getReducedSearchProblem().numConfs(pf.getReducedPruningMatrix()).compareTo(BigInteger.ZERO) == 0) {
+						// no conformations in search space, so this cannot give a valid
+						// partition function
 					
-					System.out.println("\nRe-pruning to steric threshold...");
-					double maxPruningInterval = cfp.getParams().getDouble("StericThresh");
-					pf.rePruneReducedSP(maxPruningInterval);
+						System.out.println("\nRe-pruning to steric threshold...");
+						double maxPruningInterval = cfp.getParams().getDouble("StericThresh");
+						pf.rePruneReducedSP(maxPruningInterval);
 					
-					if(pf.getReducedSearchProblem().numConfs(pf.getReducedPruningMatrix()).compareTo(BigInteger.ZERO) == 0) {
+						if(pf.getReducedSearchProblem().numConfs(pf.getReducedPruningMatrix()).compareTo(BigInteger.ZERO) == 0) {
 						
-						System.out.println("\nWARNING: there are no valid conformations for sequence " + 
-								KSAbstract.list1D2String(pf.getSequence(), " ") + " " + pf.getFlexibility() + "\n");
+							System.out.println("\nWARNING: there are no valid conformations for sequence " + 
+									KSAbstract.list1D2String(pf.getSequence(), " ") + " " + pf.getFlexibility() + "\n");
 						
-						pf.setEpsilonStatus(EApproxReached.NOT_POSSIBLE);
+							pf.setEpsilonStatus(EApproxReached.NOT_POSSIBLE);
+						}
 					}
-				}
 
-				// initialize conf counts for K*
-				pf.setNumUnPruned();
-				pf.setNumPruned();
+					// initialize conf counts for K*
+					pf.setNumUnPruned();
+					pf.setNumPruned();
+				}
 			}
 		}
 		//});
@@ -520,6 +524,8 @@ public abstract class KSAbstract implements KSInterface {
                 }
 
                 panSeqSP.numEmatThreads = cfp.getParams().getInt("EmatThreads");
+                panSeqSP.mapEnergyMatrix = cfp.getParams().getBool("MapEmat");
+                panSeqSP.checkpointEnergyMatrix = cfp.getParams().getBool("EmatCheckpoint");
 		return panSeqSP;
 	}
 
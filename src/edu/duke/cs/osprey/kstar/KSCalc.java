@@ -11,7 +11,7 @@ import java.util.concurrent.ConcurrentHashMap;
 import edu.duke.cs.osprey.kstar.pfunc.PFAbstract;
 import edu.duke.cs.osprey.kstar.pfunc.PFAbstract.EApproxReached;
 import edu.duke.cs.osprey.kstar.pfunc.PFAbstract.RunState;
-import edu.duke.cs.osprey.tools.ExpFunction;
+import edu.duke.cs.osprey.tools.BigExp;
 import edu.duke.cs.osprey.tools.ObjectIO;
 
 /**
@@ -38,7 +38,7 @@ public class KSCalc {
 
 	protected boolean unboundIsStable(PFAbstract wtPF, PFAbstract pf) {
 
-		if(pf.getQStarUpperBound().compareTo( wtPF.getQStar().multiply(PFAbstract.getStabilityThresh()) ) >= 0)
+		if(pf.getQStarUpperBoundBigExp().compareTo( wtPF.getQStarBigExp().multiply(BigExp.valueOf(PFAbstract.getStabilityThresh())) ) >= 0)
 			return true;
 
 		return false;
@@ -129,6 +129,15 @@ public class KSCalc {
 			}
 		}
 
+		finishPF(pf, wtPF, stabilityCheck);
+	}
+
+
+	/**
+	 * reports a finished partition function, and checks stability of unbound strands against the wild type
+	 */
+	public void finishPF(PFAbstract pf, PFAbstract wtPF, boolean stabilityCheck) {
+
 		if( pf.getEpsilonStatus() != EApproxReached.FALSE )
 			System.out.println("\n" + pf.getImpl() + ": Completed partition function for " + KSAbstract.list1D2String(pf.getSequence(), " ")  + " " + pf.getFlexibility() + "\n");
 		
@@ -208,45 +217,41 @@ public class KSCalc {
 	
 	public BigDecimal getKStarScore( boolean useUB ) {
 
-		BigDecimal pl = useUB ? getPF(2).getQStarUpperBound() : getPF(2).getQStar();
-		BigDecimal p = getPF(0).getQStar();
-		BigDecimal l = getPF(1).getQStar();
-		
-		BigDecimal score;
+		BigExp pl = useUB ? getPF(2).getQStarUpperBoundBigExp() : getPF(2).getQStarBigExp();
+		BigExp p = getPF(0).getQStarBigExp();
+		BigExp l = getPF(1).getQStarBigExp();
 		
 		if( doingKAStar() ) {
 			// can easily get clashes for rigid rotamers
-			if( (pl.multiply(p).multiply(l)).compareTo(BigDecimal.ZERO) == 0 )
-				return score = new BigDecimal(Double.MAX_VALUE);
+			if( pl.multiply(p).multiply(l).isZero() )
+				return new BigDecimal(Double.MAX_VALUE);
 		}
 		
-		BigDecimal dividend = pl;
-		BigDecimal divisor = p.multiply( l );
+		BigExp dividend = pl;
+		BigExp divisor = p.multiply( l );
 
-		if( divisor.compareTo(BigDecimal.ZERO) == 0 ) {
+		if( divisor.isZero() ) {
 			
-			if(dividend.compareTo(BigDecimal.ZERO) != 0) 
-				score = new BigDecimal(Double.POSITIVE_INFINITY);
+			if(!dividend.isZero()) 
+				return new BigDecimal(Double.POSITIVE_INFINITY);
 			
 			else
-				score = BigDecimal.ZERO;
+				return BigDecimal.ZERO;
 		}
 
-		else score = dividend.divide( divisor, precision );
-
-		return score;
+		return dividend.divide( divisor ).toBigDecimal();
 	}
 
 	
 	protected double getKStarScoreLog10( boolean useUB ) {
 
-		BigDecimal pl = useUB ? getPF(2).getQStarUpperBound() : getPF(2).getQStar();
-		BigDecimal p = getPF(0).getQStar();
-		BigDecimal l = getPF(1).getQStar();
+		BigExp pl = useUB ? getPF(2).getQStarUpperBoundBigExp() : getPF(2).getQStarBigExp();
+		BigExp p = getPF(0).getQStarBigExp();
+		BigExp l = getPF(1).getQStarBigExp();
 
 		if( doingKAStar() ) {
 			// can easily get clashes for rigid rotamers in p, l
-			if( (pl.multiply(p).multiply(l)).compareTo(BigDecimal.ZERO) == 0 )
+			if( pl.multiply(p).multiply(l).isZero() )
 			//if( (p.multiply(l)).compareTo(BigDecimal.ZERO) == 0 )
 				return Double.POSITIVE_INFINITY;
 		}
@@ -256,38 +261,37 @@ public class KSCalc {
 	
 	public static double getKStarScoreLog10(PFAbstract l, PFAbstract p, PFAbstract pl, boolean useUB) {
 		return getKStarScoreLog10(
-			l.getQStar(),
-			p.getQStar(),
-			useUB ? pl.getQStarUpperBound() : pl.getQStar()
+			l.getQStarBigExp(),
+			p.getQStarBigExp(),
+			useUB ? pl.getQStarUpperBoundBigExp() : pl.getQStarBigExp()
 		);
 	}
 	
 	public static double getKStarScoreLog10(BigDecimal l, BigDecimal p, BigDecimal pl) {
+		return getKStarScoreLog10(BigExp.valueOf(l), BigExp.valueOf(p), BigExp.valueOf(pl));
+	}
+	
+	public static double getKStarScoreLog10(BigExp l, BigExp p, BigExp pl) {
 		
 		double score = 0.0;
 
-		ExpFunction e = new ExpFunction();
-
-		if( l.compareTo(BigDecimal.ZERO) == 0 && 
-				p.compareTo(BigDecimal.ZERO) == 0 && 
-				pl.compareTo(BigDecimal.ZERO) == 0 )
+		if( l.isZero() && p.isZero() && pl.isZero() )
 			score = 0.0;
 
-		else if( l.compareTo(BigDecimal.ZERO) == 0 || 
-				p.compareTo(BigDecimal.ZERO) == 0 ) {
+		else if( l.isZero() || p.isZero() ) {
 			
-			if(pl.compareTo(BigDecimal.ZERO) != 0)
+			if(!pl.isZero())
 				score = Double.POSITIVE_INFINITY;
 			
 			else
 				score = 0.0;
 		}
 
-		else if( pl.compareTo(BigDecimal.ZERO) == 0 )
+		else if( pl.isZero() )
 			score = Double.NEGATIVE_INFINITY;
 
 		else
-			score = e.log10(pl) - e.log10(p) - e.log10(l);
+			score = pl.log10() - p.log10() - l.log10();
 
 		return score;
 	}
@@ -1,17 +1,18 @@
 package edu.duke.cs.osprey.kstar;
 
 import java.io.Serializable;
-import java.math.BigDecimal;
-import java.util.ArrayList;
-import java.util.LinkedHashSet;
+import java.util.List;
 
 import edu.duke.cs.osprey.confspace.ConfSearch;
 import edu.duke.cs.osprey.confspace.ConfSearch.ScoredConf;
 import edu.duke.cs.osprey.kstar.pfunc.PFAbstract;
-import edu.duke.cs.osprey.kstar.pfunc.PFAbstract.EApproxReached;
+import edu.duke.cs.osprey.tools.BigExp;
 
 /**
- * 
+ * Enumerates conformations on its own thread and hands them to the partition function
+ * through a bounded lock-free queue, so enumeration and minimization overlap without
+ * either side ever blocking the other on a monitor.
+ *
  * @author Adegoke Ojewole (ao68@duke.edu)
  *
  */
@@ -22,144 +23,73 @@ public class KSConfQ extends Thread implements Serializable {
 	private ConfSearch confSearch;
 	private int minCapacity;
 
-	// lock for queue access
-	public final String lock = new String("LOCK");
-
-	private LinkedHashSet<ArrayList<Integer>> q = null;
-	private int qCap = (int)Math.pow(2, 20);
-	private boolean confsExhausted = false;
-	private ArrayList<Integer> tail = null;
+	private KSConfRingBuffer q = null;
+	private double tailEnergyBound = Double.NEGATIVE_INFINITY;
 
 	/**
-	 * 
+	 *
 	 * @param pf
-	 * @param confSearch
-	 * @param notificationThreshold = notify queue owner when queue contains
-	 * this number of conformations
+	 * @param minCapacity = the queue can hold at least this many conformations,
+	 * ie, the largest batch of conformations the partition function will request
 	 */
-	public KSConfQ( PFAbstract pf, int minCapacity, BigDecimal partialQLB ) {
+	public KSConfQ( PFAbstract pf, int minCapacity, BigExp partialQLB ) {
 
 		this.pf = pf;
 		confSearch = pf.getConfTree(false);
-		
-		this.minCapacity = minCapacity;
-		qCap = Math.max( minCapacity, PFAbstract.qCapacity );
-
-		q = new LinkedHashSet<>(qCap);
-	}
-
-
-	public double getNextConfBound() {
 
-		ScoredConf c = null;
-
-		if( (c = confSearch.nextConf()) != null ) {
-			return enQueue(c.getAssignments());
-		}
-
-		// should never get here
-		throw new RuntimeException("ERROR: all the conformations of this sequence were pruned");
+		this.minCapacity = minCapacity;
 
-		// return Double.MAX_VALUE;
+		q = new KSConfRingBuffer( Math.max( minCapacity, PFAbstract.qCapacity ) );
 	}
 
 
 	public int size() {
 		if(q == null) return 0;
-		
+
 		return q.size();
 	}
 
 
 	public boolean isExhausted() {
-		return confsExhausted;
-	}
-
-
-	public boolean canSatisfy(int requested) {
-		return size() >= requested;
-	}
-
-	
-	public double getConfBound( int[] conf ) {
-		return pf.getConfBound(confSearch, conf);
-	}
-	
-
-	public KSConf peekTail() {
-		return size() > 0 ? new KSConf(tail, pf.getConfBound(confSearch, KSConf.list2Array(tail))) : null;
-	}
-
-
-	public KSConf peekHead() {
-		if(size() == 0) return null;
-
-		ArrayList<Integer> value = q.iterator().next();
-		return new KSConf(value, pf.getConfBound(confSearch, KSConf.list2Array(value)));
+		return q == null || q.isExhausted();
 	}
 
 
-	protected double enQueue( int[] conf ) {
-
-		double energyBound = pf.getConfBound(confSearch, conf);
-		//if( energyBound == Double.POSITIVE_INFINITY ) return Double.POSITIVE_INFINITY;
-
-		BigDecimal boltzmannWeight = pf.getBoltzmannWeight(energyBound);
-		if( boltzmannWeight.compareTo(BigDecimal.ZERO) == 0 ) energyBound = Double.POSITIVE_INFINITY;
-
-		ArrayList<Integer> list = KSConf.array2List(conf);
-
-		if(KSAbstract.doCheckPoint && size() > 0 && energyBound < peekTail().getEnergyBound() ) return energyBound;
-
-		if( pf.getProcessedConfsSet().contains(list) || q.contains(list) ) return energyBound;
-
-		q.add(list);
-
-		tail = list;
-
-		return energyBound;
-	}
-
-
-	public KSConf deQueue() {
-		// assuming locks are in place
-		KSConf conf = size() > 0 ? peekHead() : null;
-
-		if(conf == null) 
-			throw new RuntimeException("ERROR: attempting to dequeue from an empty list");
-
-		q.remove(conf.getConf());
+	/**
+	 * blocks until the queue can give us request conformations, or until no more are coming
+	 * @return the number of conformations added to confs, which is 0 only when the queue is exhausted
+	 */
+	public int deQueue( List<KSConf> confs, int request ) {
 
-		if(size() == 0) tail = null;
+		if(q == null) return 0;
 
-		conf.getConf().trimToSize();
-		
-		return conf;
+		return q.take(confs, Math.min(request, q.getCapacity()));
 	}
 
 
 	public ConfSearch getConfSearch() {
 		return confSearch;
 	}
-	
-	
+
+
 	public int getQCapacity() {
-		return qCap;
+		return q == null ? minCapacity : q.getCapacity();
 	}
 
 
-	public void setQCapacity( int newCap ) {
-		qCap = Math.max(newCap, minCapacity);
+	/**
+	 * tells the enumeration thread to stop, e.g. when we have an e-approximation
+	 */
+	public void stopEnumerating() {
+		if(q != null) q.stop();
 	}
 
 
 	public void cleanUp( boolean nullify ) throws InterruptedException {
 
-		synchronized( lock ) {
-			lock.notify();
-		}
+		stopEnumerating();
 
-		this.join();
+		if(getState() != Thread.State.NEW) this.join();
 
 		if(nullify) nullify();
 	}
@@ -168,7 +98,21 @@ public class KSConfQ extends Thread implements Serializable {
 	private void nullify() {
 		confSearch = null;
 		q = null;
-		tail = null;
+	}
+
+
+	protected boolean enQueue( int[] conf, double energyBound ) {
+
+		// after restarting from a checkpoint, the conf tree re-enumerates confs we've already seen
+		if( KSAbstract.doCheckPoint && energyBound < tailEnergyBound ) return true;
+
+		// already-processed confs are filtered by the consumer,
+		// since the processed set isn't safe to read from this thread
+		if( !q.put(conf, energyBound) ) return false;
+
+		tailEnergyBound = energyBound;
+
+		return true;
 	}
 
 
@@ -176,42 +120,31 @@ public class KSConfQ extends Thread implements Serializable {
 
 		try {
 
-			if(confsExhausted) return;
+			if(q == null || q.isExhausted()) return;
 
 			ScoredConf conf;
 
-			while( true ) {
+			while( !q.isStopped() ) {
 
 				conf = confSearch.nextConf();
 
-				synchronized( lock ) {
-
-					if( conf == null ) {
-						confsExhausted = true;
-						lock.notify();
-						return;
-					}
-
-					// this means the energy lower bound is pos infinity. no need to keep enumerating
-					if( enQueue(conf.getAssignments()) == Double.POSITIVE_INFINITY ) { confsExhausted = true; lock.notify(); return; }
-
-					// notify queue consumer ONLY if queue was empty before
-					// i added latest conformation. this condition means that
-					// the partition function is waiting for this signal to process
-					// conformations.
-					// it's wasteful to call notify for every insertion
-					if( size() == minCapacity ) lock.notify();
+				if( conf == null ) {
+					q.finish();
+					return;
+				}
 
-					if( size() >= qCap ) {
+				double energyBound = pf.getConfBound(confSearch, conf.getAssignments());
 
-						lock.notify();
+				BigExp boltzmannWeight = pf.getBoltzmannWeight(energyBound);
+				if( boltzmannWeight.isZero() ) energyBound = Double.POSITIVE_INFINITY;
 
-						if( pf.getEpsilonStatus() != EApproxReached.FALSE ) return;
-						else lock.wait();
-					}
+				// blocks while the queue is full, returns false if the consumer told us to stop
+				if( !enQueue(conf.getAssignments(), energyBound) ) return;
 
-					// exit thread if we have an e-approximation
-					if( pf.getEpsilonStatus() != EApproxReached.FALSE ) { lock.notify(); return; }
+				// this means the energy lower bound is pos infinity. no need to keep enumerating
+				if( energyBound == Double.POSITIVE_INFINITY ) {
+					q.finish();
+					return;
 				}
 			}
 
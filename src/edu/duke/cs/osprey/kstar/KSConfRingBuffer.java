@@ -0,0 +1,264 @@
+package edu.duke.cs.osprey.kstar;
+
+import java.io.Serializable;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Bounded lock-free multi-producer, multi-consumer queue of conformations.
+ *
+ * Each slot holds a primitive conf record (assignments and energy bound), so confs aren't boxed
+ * while they're in the queue. Each slot also has a sequence number that tells producers and consumers
+ * whose turn it is to use the slot, so no locks are needed (see Dmitry Vyukov's bounded MPMC queue).
+ *
+ * Producers block when the queue is full (backpressure) and consumers block when it's empty.
+ * Blocked threads park briefly and retry, and the other side unparks them when there's work,
+ * so no thread ever holds a monitor the other side needs.
+ */
+@SuppressWarnings("serial")
+public class KSConfRingBuffer implements Serializable {
+
+	// how long blocked threads sleep before checking the queue again
+	// wake-ups are normally explicit, this just bounds the cost of a missed one
+	private static final long ParkNs = 100000;
+
+	private final int capacity;
+	private final int mask;
+	private final AtomicLongArray seqs;
+	private final int[][] confs;
+	private final double[] energyBounds;
+
+	private final AtomicLong head = new AtomicLong(0); // next slot to read
+	private final AtomicLong tail = new AtomicLong(0); // next slot to write
+
+	private volatile boolean finished = false;
+	private volatile boolean stopped = false;
+
+	private transient volatile Thread waitingProducer = null;
+	private transient volatile Thread waitingConsumer = null;
+
+	public KSConfRingBuffer(int minCapacity) {
+
+		if (minCapacity <= 0) {
+			throw new IllegalArgumentException("capacity must be positive, not " + minCapacity);
+		}
+
+		// round up to a power of two so we can mask instead of mod
+		// and use at least two slots: with only one, a full slot's sequence number
+		// looks free to the next producer (seq == pos), which would overwrite the unread conf
+		int capacity = Integer.highestOneBit(Math.max(2, minCapacity));
+		if (capacity < minCapacity) {
+			capacity <<= 1;
+		}
+		this.capacity = capacity;
+		this.mask = capacity - 1;
+
+		seqs = new AtomicLongArray(capacity);
+		for (int i=0; i<capacity; i++) {
+			seqs.set(i, i);
+		}
+		confs = new int[capacity][];
+		energyBounds = new double[capacity];
+	}
+
+	public int getCapacity() {
+		return capacity;
+	}
+
+	public int size() {
+		// read head first so we never report a negative size
+		long h = head.get();
+		long t = tail.get();
+		return (int)Math.max(0, Math.min(capacity, t - h));
+	}
+
+	public boolean isEmpty() {
+		return size() == 0;
+	}
+
+	/**
+	 * True when producers have finished and the queue has been drained, or the queue was stopped
+	 */
+	public boolean isExhausted() {
+		return stopped || (finished && isEmpty());
+	}
+
+	public boolean isStopped() {
+		return stopped;
+	}
+
+	/**
+	 * Call this when all the producers are done adding confs
+	 */
+	public void finish() {
+		finished = true;
+		wake(waitingConsumer);
+	}
+
+	/**
+	 * Consumers call this when they don't need any more confs (e.g. epsilon was reached)
+	 * Blocked producers and consumers return immediately
+	 */
+	public void stop() {
+		stopped = true;
+		wake(waitingProducer);
+		wake(waitingConsumer);
+	}
+
+	/**
+	 * Adds the conf if there's room, without blocking
+	 */
+	public boolean offer(int[] conf, double energyBound) {
+
+		long pos = tail.get();
+		while (true) {
+
+			int i = (int)(pos & mask);
+			long diff = seqs.get(i) - pos;
+
+			if (diff == 0) {
+
+				// slot is free, try to claim it
+				if (tail.compareAndSet(pos, pos + 1)) {
+
+					// we own the slot now, copy the record into it
+					// reuse the slot's array when we can
+					int[] slotConf = confs[i];
+					if (slotConf == null || slotConf.length != conf.length) {
+						slotConf = new int[conf.length];
+						confs[i] = slotConf;
+					}
+					System.arraycopy(conf, 0, slotConf, 0, conf.length);
+					energyBounds[i] = energyBound;
+
+					// publish to consumers
+					seqs.set(i, pos + 1);
+					wake(waitingConsumer);
+					return true;
+				}
+				pos = tail.get();
+
+			} else if (diff < 0) {
+
+				// slot still has an unread record from the last lap, so the queue is full
+				return false;
+
+			} else {
+
+				// another producer got here first
+				pos = tail.get();
+			}
+		}
+	}
+
+	/**
+	 * Adds the conf, blocking while the queue is full.
+	 * Returns false without adding the conf if the queue was stopped
+	 */
+	public boolean put(int[] conf, double energyBound) {
+		while (!stopped) {
+			if (offer(conf, energyBound)) {
+				return true;
+			}
+			waitingProducer = Thread.currentThread();
+			if (size() >= capacity && !stopped) {
+				LockSupport.parkNanos(this, ParkNs);
+			}
+			waitingProducer = null;
+		}
+		return false;
+	}
+
+	/**
+	 * Removes the head conf if there is one, without blocking
+	 */
+	public KSConf poll() {
+
+		long pos = head.get();
+		while (true) {
+
+			int i = (int)(pos & mask);
+			long diff = seqs.get(i) - (pos + 1);
+
+			if (diff == 0) {
+
+				// slot has a record, try to claim it
+				if (head.compareAndSet(pos, pos + 1)) {
+
+					KSConf conf = new KSConf(confs[i], energyBounds[i]);
+
+					// release the slot to producers on the next lap
+					seqs.set(i, pos + capacity);
+					wake(waitingProducer);
+					return conf;
+				}
+				pos = head.get();
+
+			} else if (diff < 0) {
+
+				// slot hasn't been written yet, so the queue is empty
+				return null;
+
+			} else {
+
+				// another consumer got here first
+				pos = head.get();
+			}
+		}
+	}
+
+	/**
+	 * Removes a batch of up to maxConfs confs, so workers can be handed confs all at once.
+	 * Blocks until the whole batch is available, unless producers finish first,
+	 * in which case the batch has whatever confs are left.
+	 * Returns the number of confs added to the batch, which is 0 only when the queue is exhausted
+	 */
+	public int take(List<KSConf> batch, int maxConfs) {
+
+		if (maxConfs > capacity) {
+			throw new IllegalArgumentException("batch size " + maxConfs + " is bigger than queue capacity " + capacity);
+		}
+
+		while (!stopped) {
+
+			if (size() >= maxConfs || finished) {
+
+				int numTaken = 0;
+				while (numTaken < maxConfs) {
+					KSConf conf = poll();
+					if (conf == null) {
+						break;
+					}
+					batch.add(conf);
+					numTaken++;
+				}
+
+				if (numTaken > 0) {
+					return numTaken;
+				}
+
+				// finished was set before the queue was drained,
+				// so if the queue is still empty now, it's empty for good
+				if (finished && isEmpty()) {
+					return 0;
+				}
+			}
+
+			waitingConsumer = Thread.currentThread();
+			if (size() < maxConfs && !finished && !stopped) {
+				LockSupport.parkNanos(this, ParkNs);
+			}
+			waitingConsumer = null;
+		}
+
+		return 0;
+	}
+
+	private void wake(Thread thread) {
+		if (thread != null) {
+			LockSupport.unpark(thread);
+		}
+	}
+}
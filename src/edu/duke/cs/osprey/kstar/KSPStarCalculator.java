@@ -1,25 +1,25 @@
 package edu.duke.cs.osprey.kstar;
 
 import java.io.Serializable;
-import java.math.BigDecimal;
 import java.math.BigInteger;
 
 import edu.duke.cs.osprey.confspace.ConfSearch;
 import edu.duke.cs.osprey.confspace.ConfSearch.ScoredConf;
 import edu.duke.cs.osprey.kstar.pfunc.PFAbstract;
 import edu.duke.cs.osprey.kstar.pfunc.PFAbstract.EApproxReached;
+import edu.duke.cs.osprey.tools.BigExp;
 
 @SuppressWarnings("serial")
 public class KSPStarCalculator extends Thread implements Serializable {
 
 	protected PFAbstract pf; 
 	private BigInteger pruned = BigInteger.ZERO;
-	protected BigDecimal lastBoltzmannWeight = BigDecimal.ZERO;
+	protected BigExp lastBoltzmannWeight = BigExp.ZERO;
 	protected double lastEnergyBound = Double.NEGATIVE_INFINITY;
 	protected BigInteger enumerated = BigInteger.ZERO;
 	protected ConfSearch confSearch = null;
 	protected boolean confsExhausted = false;
-	protected BigDecimal totalPF = BigDecimal.ZERO;
+	protected BigExp totalPF = BigExp.ZERO;
 	protected final String lock = new String("LOCK");
 
 	public KSPStarCalculator( PFAbstract pf ) {
@@ -37,14 +37,14 @@ public class KSPStarCalculator extends Thread implements Serializable {
 	}
 	
 	
-	public BigDecimal getPStar() {
+	public BigExp getPStar() {
 
-		BigDecimal ans = BigDecimal.ZERO;
+		BigExp ans = BigExp.ZERO;
 
 		synchronized( lock ) {
 			ans = totalPF;
 			
-			BigDecimal uniformBound = new BigDecimal(pruned.subtract(enumerated)).multiply(lastBoltzmannWeight);
+			BigExp uniformBound = lastBoltzmannWeight.multiply(pruned.subtract(enumerated));
 
 			ans = ans.add(uniformBound);
 		}
@@ -53,8 +53,8 @@ public class KSPStarCalculator extends Thread implements Serializable {
 	}
 	
 	
-	public BigDecimal getTotalPF() {
-		BigDecimal ans;
+	public BigExp getTotalPF() {
+		BigExp ans;
 
 		synchronized( lock ) {
 			ans = totalPF;
@@ -80,16 +80,16 @@ public class KSPStarCalculator extends Thread implements Serializable {
 		if(!confsExhausted) {
 			BigInteger remaining = pruned.subtract(enumerated);
 			
-			BigDecimal uniformBound = new BigDecimal(remaining).multiply(lastBoltzmannWeight);
-			BigDecimal denom = uniformBound.add(totalPF);
-			BigDecimal percentPStar = denom.compareTo(BigDecimal.ZERO) == 0 ? BigDecimal.ONE : totalPF.divide(denom, 4);
+			BigExp uniformBound = lastBoltzmannWeight.multiply(remaining);
+			BigExp denom = uniformBound.add(totalPF);
+			double percentPStar = denom.isZero() ? 1.0 : totalPF.divide(denom).doubleValue();
 			
 			System.out.print("p* confTree complete. # enumerated: " + enumerated + ". # remaining: " + remaining + ". ");
 			System.out.println("% p*: " + percentPStar);
 		}
 		confsExhausted = true;
 		
-		lastBoltzmannWeight = BigDecimal.ZERO;
+		lastBoltzmannWeight = BigExp.ZERO;
 		pf = null;
 		confSearch = null;
 	}
@@ -124,14 +124,14 @@ public class KSPStarCalculator extends Thread implements Serializable {
 
 				lastEnergyBound = pf.getConfBound(confSearch, conf.getAssignments());
 				if( lastEnergyBound == Double.POSITIVE_INFINITY ) { 
-					lastBoltzmannWeight = BigDecimal.ZERO;
-					totalPF = totalPF.add( BigDecimal.ZERO ); enumerated = enumerated.add(BigInteger.ONE);
+					lastBoltzmannWeight = BigExp.ZERO;
+					enumerated = enumerated.add(BigInteger.ONE);
 					nullify(); return; 
 				}
 
 				lastBoltzmannWeight = pf.getBoltzmannWeight(lastEnergyBound);
-				if( lastBoltzmannWeight.compareTo(BigDecimal.ZERO) == 0 ) { 
-					totalPF = totalPF.add( BigDecimal.ZERO ); enumerated = enumerated.add(BigInteger.ONE);
+				if( lastBoltzmannWeight.isZero() ) { 
+					enumerated = enumerated.add(BigInteger.ONE);
 					nullify(); return; 
 				}
 
@@ -1,10 +1,10 @@
 package edu.duke.cs.osprey.kstar;
 
-import java.math.BigDecimal;
 import java.math.BigInteger;
 
 import edu.duke.cs.osprey.confspace.ConfSearch;
 import edu.duke.cs.osprey.kstar.pfunc.PFAbstract;
+import edu.duke.cs.osprey.tools.BigExp;
 
 @SuppressWarnings("serial")
 public class KSQPrimeCalculator extends KSPStarCalculator {
@@ -25,14 +25,14 @@ public class KSQPrimeCalculator extends KSPStarCalculator {
 	}
 	
 
-	public BigDecimal getQPrime( BigDecimal partialQLB ) {
+	public BigExp getQPrime( BigExp partialQLB ) {
 
-		BigDecimal ans = BigDecimal.ZERO;
+		BigExp ans = BigExp.ZERO;
 
 		synchronized( lock ) {
 			ans = totalPF.subtract(partialQLB);
 
-			BigDecimal uniformBound = new BigDecimal(unPruned.subtract(enumerated)).multiply(lastBoltzmannWeight);
+			BigExp uniformBound = lastBoltzmannWeight.multiply(unPruned.subtract(enumerated));
 
 			ans = ans.add(uniformBound);
 		}
@@ -43,16 +43,16 @@ public class KSQPrimeCalculator extends KSPStarCalculator {
 	
 	public double getPercentQPrime() {
 		
-		BigDecimal ans = BigDecimal.ZERO;
+		double ans = 0.0;
 		
 		synchronized( lock ) {
 			BigInteger remaining = unPruned.subtract(enumerated);
-			BigDecimal uniformBound = new BigDecimal(remaining).multiply(lastBoltzmannWeight);
-			BigDecimal denom = uniformBound.add(totalPF);
-			ans = denom.compareTo(BigDecimal.ZERO) == 0 ? BigDecimal.ONE : totalPF.divide(denom, 4);
+			BigExp uniformBound = lastBoltzmannWeight.multiply(remaining);
+			BigExp denom = uniformBound.add(totalPF);
+			ans = denom.isZero() ? 1.0 : totalPF.divide(denom).doubleValue();
 		}
 		
-		return ans.doubleValue();
+		return ans;
 	}
 
 
@@ -61,16 +61,16 @@ public class KSQPrimeCalculator extends KSPStarCalculator {
 		if(!confsExhausted) {
 			BigInteger remaining = unPruned.subtract(enumerated);
 			
-			BigDecimal uniformBound = new BigDecimal(remaining).multiply(lastBoltzmannWeight);
-			BigDecimal denom = uniformBound.add(totalPF);
-			BigDecimal percentQPrime = denom.compareTo(BigDecimal.ZERO) == 0 ? BigDecimal.ONE : totalPF.divide(denom, 4);
+			BigExp uniformBound = lastBoltzmannWeight.multiply(remaining);
+			BigExp denom = uniformBound.add(totalPF);
+			double percentQPrime = denom.isZero() ? 1.0 : totalPF.divide(denom).doubleValue();
 			
 			System.out.print("q' confTree complete. # enumerated: " + enumerated + ". # remaining: " + remaining + ". ");
 			System.out.println("% q': " + percentQPrime);
 		}
 		confsExhausted = true;
 		
-		lastBoltzmannWeight = BigDecimal.ZERO;
+		lastBoltzmannWeight = BigExp.ZERO;
 		pf = null;
 		confSearch = null;
 	}
@@ -3,6 +3,7 @@ package edu.duke.cs.osprey.kstar;
 import java.math.BigInteger;
 import java.util.ArrayList;
 
+import edu.duke.cs.osprey.confspace.ConfSpace;
 import edu.duke.cs.osprey.confspace.RCTuple;
 import edu.duke.cs.osprey.confspace.SearchProblem;
 import edu.duke.cs.osprey.control.ParamSet;
@@ -10,6 +11,7 @@ import edu.duke.cs.osprey.dof.deeper.DEEPerSettings;
 import edu.duke.cs.osprey.ematrix.EnergyMatrix;
 import edu.duke.cs.osprey.ematrix.EnergyMatrixCalculator;
 import edu.duke.cs.osprey.ematrix.epic.EPICSettings;
+import edu.duke.cs.osprey.energy.EnergyFunction;
 import edu.duke.cs.osprey.energy.MultiTermEnergyFunction;
 import edu.duke.cs.osprey.kstar.emat.ReducedEnergyMatrix;
 import edu.duke.cs.osprey.kstar.pruning.InvertedPruningMatrix;
@@ -18,6 +20,7 @@ import edu.duke.cs.osprey.kstar.pruning.UnprunedPruningMatrix;
 import edu.duke.cs.osprey.multistatekstar.ResidueTermini;
 import edu.duke.cs.osprey.pruning.Pruner;
 import edu.duke.cs.osprey.pruning.PruningMatrix;
+import edu.duke.cs.osprey.tools.ObjectIO;
 import edu.duke.cs.osprey.tupexp.LUTESettings;
 
 public class KSSearchProblem extends SearchProblem {
@@ -49,6 +52,8 @@ public class KSSearchProblem extends SearchProblem {
 		this.reducedAllowedAAs = allowedAAs;
 		this.posNums = getMaxPosNums();
 		this.numEmatThreads = params.getInt("EMATTHREADS");
+		this.mapEnergyMatrix = params.getBool("MAPEMAT");
+		this.checkpointEnergyMatrix = params.getBool("EMATCHECKPOINT");
 	}
 
 
@@ -82,6 +87,8 @@ public class KSSearchProblem extends SearchProblem {
 		this.competitorPruneMat = other.competitorPruneMat;
 		this.confSpace = other.confSpace;
 		this.numEmatThreads = other.numEmatThreads;
+		this.mapEnergyMatrix = other.mapEnergyMatrix;
+		this.checkpointEnergyMatrix = other.checkpointEnergyMatrix;
 	}
 
 	public enum MatrixType {
@@ -101,11 +108,11 @@ public class KSSearchProblem extends SearchProblem {
 	}
 
 	public String getMatrixFileName(MatrixType type) {
-		return name + "." + type.name() + ".dat";
+		return getMatrixFileName(SearchProblem.MatrixType.valueOf(type.name()));
 	}
 
 	public String getEnergyMatrixFileName() {
-		return name + ".EMAT.dat";
+		return getMatrixFileName(MatrixType.EMAT);
 	}
 
 	public ArrayList<Integer> getMaxPosNums() {
@@ -227,6 +234,22 @@ public class KSSearchProblem extends SearchProblem {
 	}
 
 
+	public KSSearchProblem getMinimizingCopy() {
+
+		// copy the molecule and the energy function together so the energy function
+		// evaluates the copied molecule, but share the (read-only) matrices
+		Object[] copies = (Object[])ObjectIO.deepCopy(new Object[] { confSpace, fullConfE });
+
+		KSSearchProblem copy = new KSSearchProblem(this, name, reducedAllowedAAs, flexibleRes, posNums);
+		copy.confSpace = (ConfSpace)copies[0];
+		copy.fullConfE = (EnergyFunction)copies[1];
+		copy.reducedMat = reducedMat;
+		copy.inverseMat = inverseMat;
+
+		return copy;
+	}
+
+
 	public ArrayList<String> getAAsAtPos( PruningMatrix pruneMat, int pos ) {
 		ArrayList<String> ans = new ArrayList<>();
 
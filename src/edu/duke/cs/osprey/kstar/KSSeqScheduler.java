@@ -0,0 +1,262 @@
+package edu.duke.cs.osprey.kstar;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import edu.duke.cs.osprey.confspace.ConfSpace;
+import edu.duke.cs.osprey.kstar.pfunc.PFAbstract;
+import edu.duke.cs.osprey.kstar.pfunc.PFAbstract.EApproxReached;
+import edu.duke.cs.osprey.kstar.pfunc.PFAbstract.RunState;
+
+/**
+ * Computes partition functions for many sequences at once on one shared pool of threads.
+ *
+ * Computing sequences one at a time leaves most threads idle near the end of each partition function,
+ * so instead, we keep several sequences in flight and interleave short slices of their partition functions.
+ * Slices of the partition functions with the biggest bound gaps (effective epsilons) run first,
+ * since those have the most work left to do.
+ *
+ * Partition functions for the same strand share a molecule, so each pool thread minimizes
+ * on its own copy of the molecule instead.
+ */
+public class KSSeqScheduler {
+
+	public static interface Listener {
+		void onFinished(KSCalc calc);
+	}
+
+	// each pool thread minimizes on its own copies of the conf spaces
+	private static final ThreadLocal<Map<ConfSpace,KSSearchProblem>> threadSPs = new ThreadLocal<>();
+
+	/**
+	 * returns a copy of the search problem the current thread can minimize on,
+	 * or the search problem itself if the current thread doesn't belong to a scheduler
+	 */
+	public static KSSearchProblem getThreadSearchProblem(KSSearchProblem sp) {
+
+		Map<ConfSpace,KSSearchProblem> sps = threadSPs.get();
+		if(sps == null) return sp;
+
+		KSSearchProblem copy = sps.get(sp.confSpace);
+		if(copy == null) {
+			copy = sp.getMinimizingCopy();
+			sps.put(sp.confSpace, copy);
+		}
+		return copy;
+	}
+
+	public static void checkImpl(String pfImpl) {
+		List<String> allowedImpls = Arrays.asList("traditional", "ub", "parallel0", "parallel1");
+		if(!allowedImpls.contains(pfImpl.toLowerCase()))
+			throw new RuntimeException("ERROR: concurrent sequences require kStarPFuncMethod to be one of " + allowedImpls + ", not " + pfImpl);
+
+		if(!PFAbstract.getHotMethod().equalsIgnoreCase("none"))
+			throw new RuntimeException("ERROR: concurrent sequences require kStarPFunctHotMethod to be none, since HOTs modify the shared energy matrix");
+	}
+
+	private class Seq {
+
+		final KSCalc calc;
+		final KSCalc wtCalc;
+		final boolean stabilityCheck;
+		int numRunning = 0;
+
+		Seq(KSCalc calc, KSCalc wtCalc, boolean stabilityCheck) {
+			this.calc = calc;
+			this.wtCalc = wtCalc;
+			this.stabilityCheck = stabilityCheck;
+		}
+	}
+
+	private class Slice implements Runnable, Comparable<Slice> {
+
+		final Seq seq;
+		final int strand;
+		final PFAbstract pf;
+		final double gap;
+		final long order;
+
+		Slice(Seq seq, int strand) {
+			this.seq = seq;
+			this.strand = strand;
+			this.pf = seq.calc.getPF(strand);
+			this.gap = pf.getRunState() == RunState.NOTSTARTED ? 1.0 : pf.getEffectiveEpsilon();
+			this.order = nextOrder.getAndIncrement();
+		}
+
+		@Override
+		public int compareTo(Slice other) {
+
+			// biggest gap first, then oldest first
+			int c = Double.compare(other.gap, gap);
+			if(c != 0) return c;
+			return Long.compare(order, other.order);
+		}
+
+		@Override
+		public void run() {
+
+			if(threadSPs.get() == null) threadSPs.set(new IdentityHashMap<>());
+
+			try {
+
+				// KSAbstract.createPFs4Seqs() might be initializing this partition function for another sequence right now
+				synchronized( pf ) {
+					if( pf.getRunState() == RunState.NOTSTARTED && pf.getEpsilonStatus() == EApproxReached.FALSE ) {
+						System.out.println("\n" + pf.getImpl() + ": Initializing partition function for " + KSAbstract.list1D2String(pf.getSequence(), " ") + " " + pf.getFlexibility());
+						pf.start();
+					}
+				}
+
+				if( pf.getEpsilonStatus() == EApproxReached.FALSE ) {
+					pf.runSlice(sliceConfs);
+				}
+
+				onSliceDone(this);
+
+			} catch(Throwable t) {
+				onError(t);
+			}
+		}
+	}
+
+	private final int maxNumSeqs;
+	private final long sliceConfs;
+	private final Listener listener;
+	private final ThreadPoolExecutor pool;
+	private final AtomicLong nextOrder = new AtomicLong(0);
+	private final AtomicInteger threadId = new AtomicInteger(0);
+
+	// partition functions can be shared between sequences (e.g. the same ligand sequence),
+	// so make sure we only ever compute each one on one thread at a time
+	private final Map<PFAbstract,List<Seq>> pfWaiters = new IdentityHashMap<>();
+	private final List<Seq> seqs = new ArrayList<>();
+	private Throwable error = null;
+
+	public KSSeqScheduler(int numThreads, int maxNumSeqs, long sliceConfs, Listener listener) {
+
+		this.maxNumSeqs = maxNumSeqs;
+		this.sliceConfs = sliceConfs;
+		this.listener = listener;
+
+		pool = new ThreadPoolExecutor(numThreads, numThreads, 0, TimeUnit.MILLISECONDS, new PriorityBlockingQueue<>(), (runnable) -> {
+			Thread thread = new Thread(runnable);
+			thread.setName("KSSeqScheduler-" + threadId.getAndIncrement());
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	/**
+	 * blocks until there's room for another sequence, then starts computing it
+	 */
+	public synchronized void add(KSCalc calc, KSCalc wtCalc, boolean stabilityCheck) throws InterruptedException {
+
+		while(seqs.size() >= maxNumSeqs && error == null) wait();
+		checkError();
+
+		Seq seq = new Seq(calc, wtCalc, stabilityCheck);
+		seqs.add(seq);
+
+		// the unbound strands are independent, so compute them at the same time
+		for(int strand : Arrays.asList(1, 0)) {
+			schedule(seq, strand);
+		}
+
+		if(seq.numRunning == 0) onUnboundDone(seq);
+	}
+
+	/**
+	 * blocks until all sequences are finished
+	 */
+	public synchronized void waitForFinish() throws InterruptedException {
+		while(!seqs.isEmpty() && error == null) wait();
+		checkError();
+	}
+
+	public void shutdown() {
+		pool.shutdownNow();
+	}
+
+	private void checkError() {
+		if(error != null) {
+			shutdown();
+			throw new RuntimeException("ERROR: partition function failed", error);
+		}
+	}
+
+	private void schedule(Seq seq, int strand) {
+
+		PFAbstract pf = seq.calc.getPF(strand);
+		if(pf.getEpsilonStatus() != EApproxReached.FALSE) return;
+
+		seq.numRunning++;
+
+		// if another sequence is already computing this partition function, just wait for it
+		List<Seq> waiters = pfWaiters.get(pf);
+		if(waiters != null) {
+			waiters.add(seq);
+			return;
+		}
+
+		waiters = new ArrayList<>();
+		waiters.add(seq);
+		pfWaiters.put(pf, waiters);
+		pool.execute(new Slice(seq, strand));
+	}
+
+	private synchronized void onSliceDone(Slice slice) {
+
+		if( slice.pf.getEpsilonStatus() == EApproxReached.FALSE ) {
+
+			// not done yet, get back in line
+			pool.execute(new Slice(slice.seq, slice.strand));
+			return;
+		}
+
+		// the sequence that scheduled the partition function does the stability check
+		PFAbstract wtPF = slice.seq.wtCalc == null || slice.strand == 2 ? null : slice.seq.wtCalc.getPF(slice.strand);
+		slice.seq.calc.finishPF(slice.pf, wtPF, wtPF != null && slice.seq.stabilityCheck);
+
+		for(Seq seq : pfWaiters.remove(slice.pf)) {
+
+			seq.numRunning--;
+			if(seq.numRunning > 0) continue;
+
+			if(slice.strand == 2) onSeqDone(seq);
+			else onUnboundDone(seq);
+		}
+	}
+
+	private void onUnboundDone(Seq seq) {
+
+		// no point computing the complex if the unbound strands failed
+		if( seq.calc.getEpsilonStatus() == EApproxReached.FALSE ) {
+			schedule(seq, 2);
+		}
+
+		if(seq.numRunning == 0) onSeqDone(seq);
+	}
+
+	private void onSeqDone(Seq seq) {
+		seqs.remove(seq);
+		try {
+			listener.onFinished(seq.calc);
+		} finally {
+			notifyAll();
+		}
+	}
+
+	private synchronized void onError(Throwable t) {
+		if(error == null) error = t;
+		notifyAll();
+	}
+}
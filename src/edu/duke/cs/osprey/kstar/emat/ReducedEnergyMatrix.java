@@ -17,21 +17,29 @@ public class ReducedEnergyMatrix extends EnergyMatrix {
     
     
     @Override
-    public Double getOneBody(int res, int index) {
+    public double getOneBodyD(int res, int index) {
     	
     	Integer pos = sp.posNums.get(res);
     	
-        return super.getOneBody(pos, index);
+        return super.getOneBodyD(pos, index);
     }
     
     
     @Override
-    public Double getPairwise(int res1, int index1, int res2, int index2) {
+    public double getPairwiseD(int res1, int index1, int res2, int index2) {
     	
     	Integer pos1 = sp.posNums.get(res1);
 		Integer pos2 = sp.posNums.get(res2);
 		
-		return super.getPairwise(pos1, index1, pos2, index2);
+		return super.getPairwiseD(pos1, index1, pos2, index2);
+    }
+    
+    
+    @Override
+    public void getPairwiseRow(int res1, int index1, int res2, double[] out) {
+    	for (int index2=0; index2<getNumConfAtPos(res2); index2++) {
+    		out[index2] = getPairwiseD(res1, index1, res2, index2);
+    	}
     }
     
     
@@ -9,6 +9,7 @@ import edu.duke.cs.osprey.kstar.KSAllowedSeqs;
 import edu.duke.cs.osprey.kstar.KSAbstract;
 import edu.duke.cs.osprey.kstar.KSCalc;
 import edu.duke.cs.osprey.kstar.KSConfigFileParser;
+import edu.duke.cs.osprey.kstar.KSSeqScheduler;
 import edu.duke.cs.osprey.kstar.pfunc.PFAbstract;
 import edu.duke.cs.osprey.kstar.pfunc.PFAbstract.EApproxReached;
 import edu.duke.cs.osprey.tools.ObjectIO;
@@ -22,6 +23,8 @@ public class KSImplLinear extends KSAbstract {
 	
 	private boolean contSCFlex;
 	private String pfImpl;
+	private int numConcurrentSeqs;
+	private long schedulerSliceConfs;
 
 	public KSImplLinear( KSConfigFileParser cfp ) {
 		super( cfp );
@@ -44,6 +47,9 @@ public class KSImplLinear extends KSAbstract {
 		ArrayList<Boolean> contSCFlexVals = new ArrayList<Boolean>(Arrays.asList(contSCFlex));
 		createEmats(contSCFlexVals);
 		pfImpl = cfp.getParams().getValue("kStarPFuncMethod");
+		numConcurrentSeqs = cfp.getParams().getInt("kStarConcurrentSeqs", 1);
+		schedulerSliceConfs = cfp.getParams().getInt("kStarSchedulerSliceConfs", 8);
+		if(numConcurrentSeqs > 1) KSSeqScheduler.checkImpl(pfImpl);
 	}
 
 
@@ -64,6 +70,9 @@ public class KSImplLinear extends KSAbstract {
 		if(doCheckPoint)
 			runRR();
 
+		else if(numConcurrentSeqs > 1)
+			runConcurrent();
+
 		else
 			runFCFS();
 
@@ -120,6 +129,59 @@ public class KSImplLinear extends KSAbstract {
 	}
 
 
+	protected void runConcurrent() {
+
+		// same as runFCFS, except many sequences share one pool of threads
+		ArrayList<ArrayList<String>> strandSeqs = null;	
+		ArrayList<Boolean> contSCFlexVals = new ArrayList<>(Arrays.asList(contSCFlex, contSCFlex, contSCFlex));
+		ArrayList<String> pfImplVals = new ArrayList<>(Arrays.asList(pfImpl, pfImpl, pfImpl));
+
+		// run wt, other sequences need it for stability checks
+		int startSeq = 0;
+		if( doWTCalc ) {
+			computeWTCalc();
+			startSeq = 1;
+		}
+
+		KSSeqScheduler scheduler = new KSSeqScheduler(PFAbstract.getNumThreads(), numConcurrentSeqs, schedulerSliceConfs, (calc) -> {
+
+			// compute K* scores and print output if all 
+			// partition functions are computed to epsilon accuracy
+			if( calc.getEpsilonStatus() == EApproxReached.TRUE || calc.getEpsilonStatus() == EApproxReached.NOT_POSSIBLE ) {
+				calc.printSummary( getOputputFilePath(), getStartTime(), getNumSeqsCreated(1), getNumSeqsCompleted(1) );
+			}
+		});
+
+		try {
+
+			int numSeqs = strand2AllowedSeqs.get(2).getNumSeqs();
+			for( int i = startSeq; i < numSeqs; ++i ) {
+
+				// wt is seq 0, mutants are others
+				System.out.println("\nScheduling K* for sequence " + i + "/" + 
+						(numSeqs-1) + ": " + 
+						list1D2String(strand2AllowedSeqs.get(2).getStrandSeqAtPos(i), " ") + "\n");
+
+				// get sequences
+				strandSeqs = getStrandStringsAtPos(i);
+
+				// create partition functions
+				ConcurrentHashMap<Integer, PFAbstract> pfs = createPFs4Seqs(strandSeqs, contSCFlexVals, pfImplVals);
+
+				// blocks until there's room for another sequence
+				scheduler.add(new KSCalc(i, pfs), wtKSCalc, true);
+			}
+
+			scheduler.waitForFinish();
+
+		} catch (InterruptedException ex) {
+			throw new Error(ex);
+		} finally {
+			scheduler.shutdown();
+		}
+	}
+
+
 	protected void runRR() {
 
 		// each value corresponds to the desired flexibility of the 
@@ -4,6 +4,7 @@ import java.io.Serializable;
 import java.math.BigDecimal;
 
 import edu.duke.cs.osprey.energy.PoissonBoltzmannEnergy;
+import edu.duke.cs.osprey.tools.BigExp;
 import edu.duke.cs.osprey.tools.ExpFunction;
 
 @SuppressWarnings("serial")
@@ -12,7 +13,22 @@ public class BoltzmannCalculator implements Serializable {
 	private double constRT = PoissonBoltzmannEnergy.constRT;
 	private ExpFunction e = new ExpFunction();
 	
+	// ExpFunction rounds weights to 8 decimal places, so anything smaller than this rounds to zero
+	// round the same way, so pfunc calculations stop at the same confs either way
+	private static final BigExp MinWeight = new BigExp(0.5e-8);
+	
 	public BigDecimal calc(double energy) {
 		return e.exp(-energy/constRT);
 	}
+	
+	/**
+	 * Same as calc(), but much faster, since it doesn't use BigDecimal
+	 */
+	public BigExp calcBigExp(double energy) {
+		BigExp weight = BigExp.exp(-energy/constRT);
+		if (weight.compareTo(MinWeight) < 0) {
+			return BigExp.ZERO;
+		}
+		return weight;
+	}
 }
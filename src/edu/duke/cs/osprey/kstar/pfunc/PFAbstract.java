@@ -1,6 +1,9 @@
 package edu.duke.cs.osprey.kstar.pfunc;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.math.BigDecimal;
 import java.math.BigInteger;
@@ -15,6 +18,7 @@ import edu.duke.cs.osprey.astar.ConfTree;
 import edu.duke.cs.osprey.astar.FullAStarNode;
 import edu.duke.cs.osprey.confspace.ConfSearch;
 import edu.duke.cs.osprey.confspace.ConfSearch.ScoredConf;
+import edu.duke.cs.osprey.confspace.SearchProblem;
 import edu.duke.cs.osprey.ematrix.EnergyMatrix;
 import edu.duke.cs.osprey.kstar.KAStarConfTree;
 import edu.duke.cs.osprey.kstar.KSAbstract;
@@ -22,8 +26,9 @@ import edu.duke.cs.osprey.kstar.KSAllowedSeqs;
 import edu.duke.cs.osprey.kstar.KSConf;
 import edu.duke.cs.osprey.kstar.KSConfigFileParser;
 import edu.duke.cs.osprey.kstar.KSSearchProblem;
+import edu.duke.cs.osprey.kstar.KSSeqScheduler;
 import edu.duke.cs.osprey.pruning.PruningMatrix;
-import edu.duke.cs.osprey.tools.ExpFunction;
+import edu.duke.cs.osprey.tools.BigExp;
 import edu.duke.cs.osprey.tools.ObjectIO;
 
 /**
@@ -87,18 +92,23 @@ public abstract class PFAbstract implements Serializable {
 	protected KSSearchProblem panSP = null;
 	private boolean isFullyDefined = true;
 
-	protected BigDecimal qStar = BigDecimal.ZERO;
-	protected BigDecimal qPrime = BigDecimal.ZERO;
-	protected BigDecimal pStar = BigDecimal.ZERO;
+	// NOTE: sum the pfunc values as BigExp, since BigDecimal is really slow
+	// they're written to checkpoints as BigDecimal though, see writeObject()
+	protected transient BigExp qStar = BigExp.ZERO;
+	protected transient BigExp qPrime = BigExp.ZERO;
+	protected transient BigExp pStar = BigExp.ZERO;
+
+	// ExpFunction rounds weights to 8 decimal places, so anything smaller than this rounds to zero
+	// round the same way, so the pfuncs stop at the same confs as before
+	private static final BigExp MinWeight = new BigExp(0.5e-8);
 
-	protected ExpFunction e = new ExpFunction();
 	protected double Et = 0;
 	protected double E0 = 0;
 
 	protected BigInteger prunedConfs = BigInteger.ZERO;
 	protected BigInteger unPrunedConfs = BigInteger.ZERO;
 	protected HashSet<ArrayList<Integer>> processedConfsSet = new HashSet<>();
-	protected BigDecimal partialQLB = BigDecimal.ZERO;
+	protected transient BigExp partialQLB = BigExp.ZERO;
 	protected BigInteger processedConfsDuringInterval = BigInteger.ZERO;
 	protected BigInteger processedConfs = BigInteger.ZERO;
 	protected BigInteger processingConfs = BigInteger.ZERO; // # confs being minimized at this instant
@@ -180,8 +190,8 @@ public abstract class PFAbstract implements Serializable {
 	}
 
 
-	protected BigDecimal reComputePartialQLB( ConfSearch confSearch ) {
-		partialQLB = BigDecimal.ZERO;
+	protected BigExp reComputePartialQLB( ConfSearch confSearch ) {
+		partialQLB = BigExp.ZERO;
 
 		for(ArrayList<Integer> conf : processedConfsSet) {
 			int[] confArray = KSConf.list2Array(conf);
@@ -319,7 +329,7 @@ public abstract class PFAbstract implements Serializable {
 		if(product.compareTo(BigDecimal.ZERO) == 0)
 			return;
 
-		qStar = qStar.multiply(product);
+		qStar = qStar.multiply(BigExp.valueOf(product));
 	}
 
 
@@ -439,7 +449,7 @@ public abstract class PFAbstract implements Serializable {
 		for( int i = getNumTopSavedConfs()-1; i > -1; i-- ) {
 			System.out.println("Saving: " + i +".pdb" + "\tminE:" + tmp.peek().getEnergy());
 			pdbName = dir + File.separator + String.valueOf(i) +".pdb";
-			reducedSP.outputMinimizedStruct(tmp.poll().getConfArray(), pdbName);
+			getMinimizingSP().outputMinimizedStruct(tmp.poll().getConfArray(), pdbName);
 		}
 
 		System.out.println();
@@ -476,16 +486,31 @@ public abstract class PFAbstract implements Serializable {
 
 
 	public BigDecimal getQStar() {
-		return qStar;
+		return qStar.toBigDecimal();
 	}
 
 
 	public BigDecimal getQPrime() {
-		return qPrime;
+		return qPrime.toBigDecimal();
 	}
 
 
 	public BigDecimal getPStar() {
+		return pStar.toBigDecimal();
+	}
+
+
+	public BigExp getQStarBigExp() {
+		return qStar;
+	}
+
+
+	public BigExp getQPrimeBigExp() {
+		return qPrime;
+	}
+
+
+	public BigExp getPStarBigExp() {
 		return pStar;
 	}
 
@@ -501,7 +526,12 @@ public abstract class PFAbstract implements Serializable {
 
 
 	public BigDecimal getQStarUpperBound() {
-		if( eAppx != EApproxReached.FALSE ) return getQStar();
+		return getQStarUpperBoundBigExp().toBigDecimal();
+	}
+
+
+	public BigExp getQStarUpperBoundBigExp() {
+		if( eAppx != EApproxReached.FALSE ) return qStar;
 
 		updateQPrime();
 		return (qStar.add(qPrime)).add(pStar);
@@ -520,11 +550,11 @@ public abstract class PFAbstract implements Serializable {
 
 	protected double computeEffectiveEpsilon() {
 		
-		BigDecimal dividend = qPrime.add(pStar);
-		BigDecimal divisor = qStar.add(dividend);
+		BigExp dividend = qPrime.add(pStar);
+		BigExp divisor = qStar.add(dividend);
 		
 		// energies are too high so epsilon can never be reached
-		if( divisor.compareTo(BigDecimal.ZERO) == 0 ) return EPSILON_NEVER_POSSIBLE;
+		if( divisor.isZero() ) return EPSILON_NEVER_POSSIBLE;
 
 		/*
 		BigDecimal maxSubtrahend = qPrime.max(pStar);
@@ -535,7 +565,7 @@ public abstract class PFAbstract implements Serializable {
 		}
 		*/
 		
-		else return dividend.divide(divisor, 4).doubleValue();
+		else return dividend.divide(divisor).doubleValue();
 	}
 
 
@@ -565,12 +595,12 @@ public abstract class PFAbstract implements Serializable {
 
 	private void setPStar( double eLB ) {
 		E0 = eLB;
-		pStar = ( getBoltzmannWeight( E0 )).multiply( new BigDecimal(prunedConfs) );
+		pStar = ( getBoltzmannWeight( E0 )).multiply( prunedConfs );
 	}
 
 
 	protected void updateQPrime() {
-		qPrime = getBoltzmannWeight( Et ).multiply(new BigDecimal(getNumUnEnumerated()));
+		qPrime = getBoltzmannWeight( Et ).multiply( getNumUnEnumerated() );
 	}
 
 
@@ -594,8 +624,10 @@ public abstract class PFAbstract implements Serializable {
 	}
 
 
-	public BigDecimal getBoltzmannWeight( double E ) {
-		return e.exp(-E / RT);
+	public BigExp getBoltzmannWeight( double E ) {
+		BigExp weight = BigExp.exp(-E / RT);
+		if( weight.compareTo(MinWeight) < 0 ) return BigExp.ZERO;
+		return weight;
 	}
 
 	protected void exitIfTimeOut() {
@@ -702,14 +734,14 @@ public abstract class PFAbstract implements Serializable {
 			// shortcut implementation that follows the protocol described in the paper:
 			// get new value of epsilon with q' = 0 and the reduced (unpruned) p*
 
-			qPrime = BigDecimal.ZERO;
+			qPrime = BigExp.ZERO;
 
 			// MUST call abstract base class version of this method
 			initTradPStar(); // re-calculate p*
 
 			double effectiveEpsilon = computeEffectiveEpsilon();
 
-			if( getQStar().compareTo(BigDecimal.ZERO) > 0 
+			if( qStar.signum() > 0 
 					&& effectiveEpsilon != EPSILON_NEVER_POSSIBLE && effectiveEpsilon <= targetEpsilon ) {
 
 				setEpsilonStatus(EApproxReached.TRUE);
@@ -728,7 +760,6 @@ public abstract class PFAbstract implements Serializable {
 
 
 	public void cleanup() {
-		e = null;
 		HOTs = null;
 		cfp = null;
 		panSP = null;
@@ -742,6 +773,15 @@ public abstract class PFAbstract implements Serializable {
 	}
 
 
+	/**
+	 * the search problem to minimize conformations on,
+	 * which is a per-thread copy when sequences are computed concurrently
+	 */
+	protected KSSearchProblem getMinimizingSP() {
+		return KSSeqScheduler.getThreadSearchProblem(reducedSP);
+	}
+
+
 	public KSSearchProblem getPanSeqSearchProblem() {
 		return panSP;
 	}
@@ -951,9 +991,35 @@ public abstract class PFAbstract implements Serializable {
 	
 	public void rePruneReducedSP(double pruningInterval) {	
 		panSP = (KSSearchProblem) ObjectIO.deepCopy(panSP);
-		if(panSP.emat == null) panSP.emat = (EnergyMatrix) ObjectIO.readObject(panSP.getMatrixFileName(panSP.getMatrixType()), false);
+		if(panSP.emat == null) {
+			SearchProblem.MatrixType type = SearchProblem.MatrixType.valueOf(panSP.getMatrixType().name());
+			String matrixFileName = panSP.getMatrixFileName(type);
+			panSP.emat = (EnergyMatrix) panSP.readMatrixFile(type, matrixFileName);
+			if(panSP.emat == null) throw new RuntimeException("ERROR: Failed to read energy matrix from file " + matrixFileName);
+		}
 		cfp.setupPruning(panSP, pruningInterval, panSP.useEPIC, panSP.useTupExpForSearch).prune();
 		reducedSP = createReducedSP(panSP.contSCFlex, strand, sequence, absolutePos);
 	}
 
-}
\ No newline at end of file
+
+
+	private void writeObject( ObjectOutputStream out ) throws IOException {
+		out.defaultWriteObject();
+
+		// checkpoints keep the pfunc values as BigDecimal
+		out.writeObject(qStar.toBigDecimal());
+		out.writeObject(qPrime.toBigDecimal());
+		out.writeObject(pStar.toBigDecimal());
+		out.writeObject(partialQLB.toBigDecimal());
+	}
+
+
+	private void readObject( ObjectInputStream in ) throws IOException, ClassNotFoundException {
+		in.defaultReadObject();
+
+		qStar = BigExp.valueOf((BigDecimal)in.readObject());
+		qPrime = BigExp.valueOf((BigDecimal)in.readObject());
+		pStar = BigExp.valueOf((BigDecimal)in.readObject());
+		partialQLB = BigExp.valueOf((BigDecimal)in.readObject());
+	}
+}
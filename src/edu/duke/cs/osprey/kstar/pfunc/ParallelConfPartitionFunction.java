@@ -2,9 +2,7 @@ package edu.duke.cs.osprey.kstar.pfunc;
 
 import java.lang.management.ManagementFactory;
 import java.lang.management.MemoryUsage;
-import java.math.BigDecimal;
 import java.math.BigInteger;
-import java.math.RoundingMode;
 
 import edu.duke.cs.osprey.confspace.ConfSearch;
 import edu.duke.cs.osprey.confspace.ConfSearch.EnergiedConf;
@@ -14,6 +12,7 @@ import edu.duke.cs.osprey.control.ConfSearchFactory;
 import edu.duke.cs.osprey.ematrix.EnergyMatrix;
 import edu.duke.cs.osprey.pruning.InvertedPruningMatrix;
 import edu.duke.cs.osprey.pruning.PruningMatrix;
+import edu.duke.cs.osprey.tools.BigExp;
 import edu.duke.cs.osprey.tools.Stopwatch;
 
 public class ParallelConfPartitionFunction implements PartitionFunction {
@@ -26,13 +25,16 @@ public class ParallelConfPartitionFunction implements PartitionFunction {
 	protected double targetEpsilon;
 	protected Status status;
 	protected Values values;
+	protected BigExp qstar;
+	protected BigExp qprime;
+	protected BigExp pstar;
 	protected BoltzmannCalculator boltzmann;
 	protected ConfSearch.Splitter.Stream scoreConfs;
 	protected ConfSearch.Splitter.Stream energyConfs;
 	protected int numConfsEvaluated;
 	protected BigInteger numConfsToScore;
-	protected BigDecimal qprimeUnevaluated;
-	protected BigDecimal qprimeUnscored;
+	protected BigExp qprimeUnevaluated;
+	protected BigExp qprimeUnscored;
 	protected Stopwatch stopwatch;
 	protected boolean isReportingProgress;
 	protected ConfListener confListener;
@@ -46,6 +48,9 @@ public class ParallelConfPartitionFunction implements PartitionFunction {
 		targetEpsilon = Double.NaN;
 		status = null;
 		values = null;
+		qstar = null;
+		qprime = null;
+		pstar = null;
 		boltzmann = new BoltzmannCalculator();
 		scoreConfs = null;
 		energyConfs = null;
@@ -75,10 +80,23 @@ public class ParallelConfPartitionFunction implements PartitionFunction {
 	}
 	
 	@Override
-	public Values getValues() {
+	public synchronized Values getValues() {
+		if (values != null && qstar != null) {
+			updateValues();
+		}
 		return values;
 	}
 	
+	/**
+	 * copies the BigExp sums to the BigDecimal values
+	 * 
+	 * the conversion is much slower than summing, so only do it when someone reads the values
+	 */
+	protected void updateValues() {
+		values.qstar = qstar.toBigDecimal();
+		values.qprime = qprime.toBigDecimal();
+	}
+	
 	@Override
 	public int getParallelism() {
 		return ecalc.getParallelism();
@@ -92,8 +110,14 @@ public class ParallelConfPartitionFunction implements PartitionFunction {
 		status = Status.Estimating;
 		values = new Values();
 		
+		// NOTE: sum the pfunc values as BigExp, since BigDecimal is really slow
+		// and only copy them to the BigDecimal values when someone reads them
+		qstar = BigExp.ZERO;
+		qprime = BigExp.ZERO;
+		
 		// compute p*: boltzmann-weight the scores for all pruned conformations
-		values.pstar = calcWeightSumUpperBound(confSearchFactory.make(emat, new InvertedPruningMatrix(pmat)));
+		pstar = calcWeightSumUpperBound(confSearchFactory.make(emat, new InvertedPruningMatrix(pmat)));
+		values.pstar = pstar.toBigDecimal();
 		
 		// make the search tree for computing q*
 		ConfSearch tree = confSearchFactory.make(emat, pmat);
@@ -102,15 +126,15 @@ public class ParallelConfPartitionFunction implements PartitionFunction {
 		energyConfs = confsSplitter.makeStream();
 		numConfsEvaluated = 0;
 		numConfsToScore = tree.getNumConformations();
-		qprimeUnevaluated = BigDecimal.ZERO;
-		qprimeUnscored = BigDecimal.ZERO;
+		qprimeUnevaluated = BigExp.ZERO;
+		qprimeUnscored = BigExp.ZERO;
 		stopwatch = new Stopwatch().start();
 	}
 
-	protected BigDecimal calcWeightSumUpperBound(ConfSearch tree) {
+	protected BigExp calcWeightSumUpperBound(ConfSearch tree) {
 		
-		BigDecimal sum = BigDecimal.ZERO;
-		BigDecimal boundOnAll = BigDecimal.ZERO;
+		BigExp sum = BigExp.ZERO;
+		BigExp boundOnAll = BigExp.ZERO;
 		
 		BigInteger numConfsRemaining = tree.getNumConformations();
 		
@@ -123,8 +147,8 @@ public class ParallelConfPartitionFunction implements PartitionFunction {
 			}
 			
 			// compute the boltzmann weight for this conf
-			BigDecimal weight = boltzmann.calc(conf.getScore());
-			if (weight.compareTo(BigDecimal.ZERO) == 0) {
+			BigExp weight = boltzmann.calcBigExp(conf.getScore());
+			if (weight.isZero()) {
 				break;
 			}
 			
@@ -133,13 +157,13 @@ public class ParallelConfPartitionFunction implements PartitionFunction {
 			
 			// update the upper bound on the remaining sum
 			numConfsRemaining = numConfsRemaining.subtract(BigInteger.ONE);
-			BigDecimal boundOnRemaining = weight.multiply(new BigDecimal(numConfsRemaining));
+			BigExp boundOnRemaining = weight.multiply(numConfsRemaining);
 			
 			// update the upper bound on the total sum
 			boundOnAll = sum.add(boundOnRemaining);
 			
 			// stop if the bound is tight enough
-			double effectiveEpsilon = boundOnRemaining.divide(boundOnAll, RoundingMode.HALF_UP).doubleValue();
+			double effectiveEpsilon = boundOnRemaining.divide(boundOnAll).doubleValue();
 			if (effectiveEpsilon <= 0.01) {
 				break;
 			}
@@ -169,7 +193,7 @@ public class ParallelConfPartitionFunction implements PartitionFunction {
 			synchronized (this) {
 			
 				// did we win?
-				boolean hitEpsilonTarget = values.getEffectiveEpsilon() <= targetEpsilon;
+				boolean hitEpsilonTarget = Values.getEffectiveEpsilon(qstar, qprime, pstar) <= targetEpsilon;
 				if (hitEpsilonTarget) {
 					status = Status.Estimated;
 					break;
@@ -213,14 +237,14 @@ public class ParallelConfPartitionFunction implements PartitionFunction {
 					}
 					
 					// update pfunc state
-					values.qstar = values.qstar.add(boltzmann.calc(econf.getEnergy()));
-					values.qprime = updateQprime(econf);
+					qstar = qstar.add(boltzmann.calcBigExp(econf.getEnergy()));
+					qprime = updateQprime(econf);
 					
 					// report progress if needed
 					if (isReportingProgress) {
 						MemoryUsage heapMem = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
-						System.out.println(String.format("conf: %4d, energy: %.6f, q*: %12e, q': %12e, epsilon: %.6f, time: %10s, heapMem: %.0f%%",
-							numConfsEvaluated, econf.getEnergy(), values.qstar, values.qprime, values.getEffectiveEpsilon(),
+						System.out.println(String.format("conf: %4d, energy: %.6f, q*: %s, q': %s, epsilon: %.6f, time: %10s, heapMem: %.0f%%",
+							numConfsEvaluated, econf.getEnergy(), qstar, qprime, Values.getEffectiveEpsilon(qstar, qprime, pstar),
 							stopwatch.getTime(2),
 							100f*heapMem.getUsed()/heapMem.getMax()
 						));
@@ -240,7 +264,7 @@ public class ParallelConfPartitionFunction implements PartitionFunction {
 		ecalc.waitForFinish();
 	}
 
-	protected BigDecimal updateQprime(EnergiedConf econf) {
+	protected BigExp updateQprime(EnergiedConf econf) {
 		
 		// look through the conf tree to get conf scores
 		// (which should be lower bounds on the conf energy)
@@ -253,24 +277,24 @@ public class ParallelConfPartitionFunction implements PartitionFunction {
 			}
 			
 			// get the boltzmann weight
-			BigDecimal scoreWeight = boltzmann.calc(conf.getScore());
-			if (scoreWeight.compareTo(BigDecimal.ZERO) == 0) {
+			BigExp scoreWeight = boltzmann.calcBigExp(conf.getScore());
+			if (scoreWeight.isZero()) {
 				break;
 			}
 			
 			// update q' parts
 			numConfsToScore = numConfsToScore.subtract(BigInteger.ONE);
 			qprimeUnevaluated = qprimeUnevaluated.add(scoreWeight);
-			qprimeUnscored = scoreWeight.multiply(new BigDecimal(numConfsToScore));
+			qprimeUnscored = scoreWeight.multiply(numConfsToScore);
 			
 			// stop if the bound on q' is tight enough
-			double tightness = qprimeUnscored.divide(qprimeUnevaluated.add(qprimeUnscored), RoundingMode.HALF_UP).doubleValue();
+			double tightness = qprimeUnscored.divide(qprimeUnevaluated.add(qprimeUnscored)).doubleValue();
 			if (tightness <= 0.01) {
 				break;
 			}
 		}
 		
-		qprimeUnevaluated = qprimeUnevaluated.subtract(boltzmann.calc(econf.getScore()));
+		qprimeUnevaluated = qprimeUnevaluated.subtract(boltzmann.calcBigExp(econf.getScore()));
 		return qprimeUnevaluated.add(qprimeUnscored);
 	}
 }
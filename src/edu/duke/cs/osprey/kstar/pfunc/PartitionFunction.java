@@ -1,9 +1,10 @@
 package edu.duke.cs.osprey.kstar.pfunc;
 
 import java.math.BigDecimal;
-import java.math.RoundingMode;
+import java.math.MathContext;
 
 import edu.duke.cs.osprey.confspace.ConfSearch.ScoredConf;
+import edu.duke.cs.osprey.tools.BigExp;
 
 public interface PartitionFunction {
 	
@@ -68,7 +69,24 @@ public interface PartitionFunction {
 				return Double.NaN;
 			}
 			
-			return s.divide(q, RoundingMode.HALF_UP).doubleValue();
+			// NOTE: divide to a fixed precision, not the scale of s
+			// values converted from BigExp can have a scale of zero or less, which would round e to 0 or 1
+			return s.divide(q, MathContext.DECIMAL64).doubleValue();
+		}
+		
+		/**
+		 * Same as getEffectiveEpsilon(), but for values kept as BigExp
+		 */
+		public static double getEffectiveEpsilon(BigExp qstar, BigExp qprime, BigExp pstar) {
+			
+			BigExp s = qprime.add(pstar);
+			BigExp q = s.add(qstar);
+			
+			if (q.isZero()) {
+				return Double.NaN;
+			}
+			
+			return s.divide(q).doubleValue();
 		}
 	}
 	
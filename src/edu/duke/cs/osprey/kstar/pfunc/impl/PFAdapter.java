@@ -9,6 +9,7 @@ import edu.duke.cs.osprey.kstar.KSConfigFileParser;
 import edu.duke.cs.osprey.kstar.KSSearchProblem;
 import edu.duke.cs.osprey.kstar.pfunc.PFAbstract;
 import edu.duke.cs.osprey.kstar.pfunc.PartitionFunction;
+import edu.duke.cs.osprey.tools.BigExp;
 
 public class PFAdapter extends PFAbstract {
 	
@@ -83,9 +84,9 @@ public class PFAdapter extends PFAbstract {
 		
 		// copy the pfunc values
 		PartitionFunction.Values values = pfunc.getValues();
-		this.qStar = values.qstar;
-		this.qPrime = values.qprime;
-		this.pStar = values.pstar;
+		this.qStar = BigExp.valueOf(values.qstar);
+		this.qPrime = BigExp.valueOf(values.qprime);
+		this.pStar = BigExp.valueOf(values.pstar);
 		this.effectiveEpsilon = values.getEffectiveEpsilon();
 	}
 
@@ -1,7 +1,6 @@
 package edu.duke.cs.osprey.kstar.pfunc.impl;
 
 import java.io.Serializable;
-import java.math.BigDecimal;
 import java.math.BigInteger;
 import java.util.ArrayList;
 
@@ -13,6 +12,7 @@ import edu.duke.cs.osprey.kstar.KSPStarCalculator;
 import edu.duke.cs.osprey.kstar.KSQPrimeCalculator;
 import edu.duke.cs.osprey.kstar.KSSearchProblem;
 import edu.duke.cs.osprey.kstar.pfunc.PFAbstract;
+import edu.duke.cs.osprey.tools.BigExp;
 
 /**
  * 
@@ -49,7 +49,7 @@ public class PFParallel0 extends PFParallel1 implements Serializable {
 			
 			// set pstar
 			pStarCalculator = null;
-			if(prunedConfs.compareTo(BigInteger.ZERO) == 0) pStar = BigDecimal.ZERO;
+			if(prunedConfs.compareTo(BigInteger.ZERO) == 0) pStar = BigExp.ZERO;
 			else {
 				System.out.println("using p* calculator");
 				pStarCalculator = new KSPStarCalculator( this );
@@ -112,7 +112,7 @@ public class PFParallel0 extends PFParallel1 implements Serializable {
 
 		if( isContinuous() && isFullyDefined() ) {
 			// we do not have a lock when minimizing
-			mef = reducedSP.decompMinimizedEnergy(conf.getConfArray());
+			mef = getMinimizingSP().decompMinimizedEnergy(conf.getConfArray());
 			energy = mef.getPreCompE();
 		}
 
@@ -1,7 +1,6 @@
 package edu.duke.cs.osprey.kstar.pfunc.impl;
 
 import java.io.Serializable;
-import java.math.BigDecimal;
 import java.math.BigInteger;
 import java.util.ArrayList;
 
@@ -16,6 +15,7 @@ import edu.duke.cs.osprey.kstar.KSPStarCalculator;
 import edu.duke.cs.osprey.kstar.KSQPrimeCalculator;
 import edu.duke.cs.osprey.kstar.RCEnergyContribs;
 import edu.duke.cs.osprey.kstar.pfunc.PFAbstract;
+import edu.duke.cs.osprey.tools.BigExp;
 
 /**
  * 
@@ -62,7 +62,7 @@ public class PFParallel1 extends PFTraditional implements Serializable {
 
 			// set pstar
 			pStarCalculator = null;
-			if(prunedConfs.compareTo(BigInteger.ZERO) == 0) pStar = BigDecimal.ZERO;
+			if(prunedConfs.compareTo(BigInteger.ZERO) == 0) pStar = BigExp.ZERO;
 			else {
 				System.out.println("using p* calculator");
 				pStarCalculator = new KSPStarCalculator( this );
@@ -89,31 +89,17 @@ public class PFParallel1 extends PFTraditional implements Serializable {
 	}
 
 
-	protected int canSatisfy( int request ) throws InterruptedException {
-		int granted = 0;
+	/**
+	 * blocks until the conf queue hands us up to request confs that we haven't processed yet
+	 * @return the number of confs in confs, which is 0 only when no more confs are coming
+	 */
+	protected int takeConfs( ArrayList<KSConf> confs, int request ) throws InterruptedException {
 
-		// wait for queue to be ready
-		while( !confsQ.canSatisfy(request) ) {
+		confs.clear();
 
-			if( !confsQ.isExhausted() ) {
+		while( confs.isEmpty() ) {
 
-				if( confsQ.getState() == Thread.State.WAITING || confsQ.getState() == Thread.State.BLOCKED ) {
-
-					if( confsQ.getQCapacity() < request )
-						confsQ.setQCapacity(request);
-
-					confsQ.lock.notify();
-				}
-
-				confsQ.lock.wait();
-			}
-
-			else {
-
-				granted = confsQ.size();
-
-				if( granted > 0 )
-					return granted;
+			if( confsQ.deQueue(confs, request) == 0 ) {
 
 				eAppx = EApproxReached.NOT_POSSIBLE;
 
@@ -123,11 +109,15 @@ public class PFParallel1 extends PFTraditional implements Serializable {
 				qPrimeCalculator.cleanUp(true);
 				if(pStarCalculator != null) pStarCalculator.cleanUp(true);
 
-				return granted;
+				return 0;
 			}
+
+			// the enumeration thread can't safely read the processed set,
+			// so filter out re-enumerated confs here before we spend time minimizing them
+			confs.removeIf( conf -> processedConfsSet.contains(conf.getConf()) );
 		}
 
-		return request;
+		return confs.size();
 	}
 
 
@@ -135,26 +125,14 @@ public class PFParallel1 extends PFTraditional implements Serializable {
 		try {
 			
 			// iterate is only called when eAppx = false
-			KSConf conf = null;
-
-			synchronized( confsQ.lock ) {
-
-				if( canSatisfy(1) == 0 )
-					return;
+			ArrayList<KSConf> confs = new ArrayList<>(1);
 
-				// we are guaranteed that confs can satisfy our request
+			if( takeConfs(confs, 1) == 0 )
+				return;
 
-				// we don't want to hold a lock when we are minimizing, so 
-				// we dequeue here and release lock for minimizing
-				conf = confsQ.deQueue();
+			KSConf conf = confs.get(0);
 
-				processingConfs = processingConfs.add( BigInteger.ONE );
-
-				// this condition means that confsQ was full (and therefore waiting)
-				// before we extracted this conformation, so wake it up
-				// it would be wasteful to call notify upon every dequeue operation
-				if( confsQ.getState() == Thread.State.WAITING ) confsQ.lock.notify();
-			}
+			processingConfs = processingConfs.add( BigInteger.ONE );
 
 			// minimization hapens here
 			accumulate( conf );
@@ -191,9 +169,6 @@ public class PFParallel1 extends PFTraditional implements Serializable {
 					// entirely sure how cleanly the conformation tree can be serialized and de-serialized
 					// confs.restartConfTree();
 					confsQ.start();
-					synchronized( confsQ.lock ) {
-						confsQ.lock.notify();
-					}
 				}
 
 				if( qPrimeCalculator!= null && !qPrimeCalculator.isExhausted() && qPrimeCalculator.getState() == Thread.State.NEW ) {
@@ -289,7 +264,7 @@ public class PFParallel1 extends PFTraditional implements Serializable {
 
 		if( isContinuous() && isFullyDefined() ) {
 			// we do not have a lock when minimizing
-			mef = reducedSP.decompMinimizedEnergy(conf.getConfArray());
+			mef = getMinimizingSP().decompMinimizedEnergy(conf.getConfArray());
 			energy = mef.getPreCompE();
 		}
 
@@ -314,15 +289,12 @@ public class PFParallel1 extends PFTraditional implements Serializable {
 
 		long currentTime = System.currentTimeMillis();
 
-		synchronized( confsQ.lock ) {
+		if( !PFAbstract.suppressOutput ) {
+			if( !printedHeader ) printHeader();
 
-			if( !PFAbstract.suppressOutput ) {
-				if( !printedHeader ) printHeader();
-
-				System.out.println(numberFormat.format(boundError) + "\t" + numberFormat.format(energy) + "\t" 
-						+ numberFormat.format(effectiveEpsilon) + "\t" + getNumProcessed() + "\t" 
-						+ getNumUnEnumerated() + "\t" + confsQ.size() + "\t" + ((currentTime-startTime)/1000));
-			}
+			System.out.println(numberFormat.format(boundError) + "\t" + numberFormat.format(energy) + "\t" 
+					+ numberFormat.format(effectiveEpsilon) + "\t" + getNumProcessed() + "\t" 
+					+ getNumUnEnumerated() + "\t" + confsQ.size() + "\t" + ((currentTime-startTime)/1000));
 		}
 
 		eAppx = effectiveEpsilon <= targetEpsilon || maxKSConfsReached() ? EApproxReached.TRUE: EApproxReached.FALSE;
@@ -347,7 +319,8 @@ public class PFParallel1 extends PFTraditional implements Serializable {
 
 
 	protected BigInteger getNumUnEnumerated() {
-		// assuming locks are in place
+		// the queue size is read without locks, but confs leave the queue
+		// before they're counted as processing, so we never count a conf twice
 		
 		BigInteger numProcessing = getNumProcessed().add(BigInteger.valueOf(confsQ.size())).add(processingConfs);
 
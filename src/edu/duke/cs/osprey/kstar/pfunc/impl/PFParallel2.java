@@ -1,7 +1,6 @@
 package edu.duke.cs.osprey.kstar.pfunc.impl;
 
 import java.io.Serializable;
-import java.math.BigDecimal;
 import java.math.BigInteger;
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -14,6 +13,7 @@ import edu.duke.cs.osprey.kstar.KSSearchProblem;
 import edu.duke.cs.osprey.kstar.KSPStarCalculator;
 import edu.duke.cs.osprey.kstar.KSQPrimeCalculator;
 import edu.duke.cs.osprey.kstar.pfunc.PFAbstract;
+import edu.duke.cs.osprey.tools.BigExp;
 import edu.duke.cs.osprey.tools.ObjectIO;
 
 /**
@@ -112,7 +112,7 @@ public class PFParallel2 extends PFParallel1 implements Serializable {
 
 			// set pstar
 			pStarCalculator = null;
-			if(prunedConfs.compareTo(BigInteger.ZERO) == 0) pStar = BigDecimal.ZERO;
+			if(prunedConfs.compareTo(BigInteger.ZERO) == 0) pStar = BigExp.ZERO;
 			else {
 				System.out.println("using p* calculator");
 				pStarCalculator = new KSPStarCalculator( this );
@@ -155,30 +155,18 @@ public class PFParallel2 extends PFParallel1 implements Serializable {
 
 			getSPs();
 
-			synchronized( confsQ.lock ) {
+			// hand the minimizers a whole batch of confs at once
+			int request = PFAbstract.getNumThreads();
+			int granted = 0;
 
-				int request = partialQConfs.size();
-				int granted = 0;
-
-				if( (granted = canSatisfy(request)) == 0 )
-					return;
-
-				// reduce the size of partialQconfs and indexes to match request
-				while( partialQConfs.size() > granted ) {
-
-					partialQConfs.remove(partialQConfs.size()-1);
-
-					indexes.remove(indexes.size()-1);
-				}
-
-				for( int i = 0; i < Math.min(granted, partialQConfs.size()); ++i ) {
-					partialQConfs.set(i, confsQ.deQueue());
-				}
+			if( (granted = takeConfs(partialQConfs, request)) == 0 )
+				return;
 
-				processingConfs = processingConfs.add( BigInteger.valueOf(partialQConfs.size()) );
+			// match indexes to the batch, which is smaller when the queue runs dry
+			indexes.clear();
+			for( int it = 0; it < granted; ++it ) indexes.add(it);
 
-				if( confsQ.getState() == Thread.State.WAITING ) confsQ.lock.notify();
-			}
+			processingConfs = processingConfs.add( BigInteger.valueOf(partialQConfs.size()) );
 
 			// minimization hapens here
 			accumulate(partialQConfs, false); 
@@ -265,14 +253,11 @@ public class PFParallel2 extends PFParallel1 implements Serializable {
 
 		long currentTime = System.currentTimeMillis();
 
-		synchronized( confsQ.lock ) {
-
-			if( !PFAbstract.suppressOutput ) {
-				if( !printedHeader ) printHeader();
-				System.out.println(numberFormat.format(boundError) + "\t" + numberFormat.format(energy) + "\t" 
-						+ numberFormat.format(effectiveEpsilon) + "\t" + getNumProcessed() + "\t" 
-						+ getNumUnEnumerated() + "\t" + confsQ.size() + "\t" + ((currentTime-startTime)/1000));
-			}
+		if( !PFAbstract.suppressOutput ) {
+			if( !printedHeader ) printHeader();
+			System.out.println(numberFormat.format(boundError) + "\t" + numberFormat.format(energy) + "\t" 
+					+ numberFormat.format(effectiveEpsilon) + "\t" + getNumProcessed() + "\t" 
+					+ getNumUnEnumerated() + "\t" + confsQ.size() + "\t" + ((currentTime-startTime)/1000));
 		}
 
 		eAppx = effectiveEpsilon <= targetEpsilon || maxKSConfsReached() ? EApproxReached.TRUE: EApproxReached.FALSE;
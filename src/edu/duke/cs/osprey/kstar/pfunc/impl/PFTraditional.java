@@ -173,7 +173,7 @@ public class PFTraditional extends PFAbstract implements Serializable {
 
 		if( isContinuous() && isFullyDefined() ) {
 			// we do not have a lock when minimizing
-			mef = reducedSP.decompMinimizedEnergy(conf.getConfArray());
+			mef = getMinimizingSP().decompMinimizedEnergy(conf.getConfArray());
 			energy = mef.getPreCompE();
 		}
 
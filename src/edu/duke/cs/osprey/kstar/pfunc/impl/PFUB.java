@@ -1,7 +1,6 @@
 package edu.duke.cs.osprey.kstar.pfunc.impl;
 
 import java.io.Serializable;
-import java.math.BigDecimal;
 import java.math.BigInteger;
 import java.util.ArrayList;
 
@@ -9,6 +8,7 @@ import edu.duke.cs.osprey.kstar.KSConf;
 import edu.duke.cs.osprey.kstar.KSConfigFileParser;
 import edu.duke.cs.osprey.kstar.KSSearchProblem;
 import edu.duke.cs.osprey.kstar.pfunc.PFAbstract;
+import edu.duke.cs.osprey.tools.BigExp;
 
 /**
  * 
@@ -45,27 +45,27 @@ public class PFUB extends PFTraditional implements Serializable {
 
 
 	protected void updateQPrime() {
-		qPrime = ( getBoltzmannWeight( Et )).multiply( new BigDecimal(getNumUnEnumerated()) );
+		qPrime = ( getBoltzmannWeight( Et )).multiply( getNumUnEnumerated() );
 	}
 
 
 	protected double computeEffectiveEpsilon() {
 		
-		BigDecimal dividend = qPrime.add(pStar);
-		BigDecimal divisor = qStar.add(dividend);
+		BigExp dividend = qPrime.add(pStar);
+		BigExp divisor = qStar.add(dividend);
 		
 		// energies are too high so epsilon can never be reached
-		if( divisor.compareTo(BigDecimal.ZERO) == 0 ) 
+		if( divisor.isZero() ) 
 			return EPSILON_PHASE_2;
 		
-		if( qStar.add(qPrime).compareTo(BigDecimal.ZERO) == 0 ) 
+		if( qStar.add(qPrime).isZero() ) 
 			return EPSILON_PHASE_2;
 
 		//double minDelta = pStar.divide(qStar.add(qPrime), 4).doubleValue();
 		//if( minDelta > targetEpsilon ) 
 		//	return EPSILON_PHASE_2;
 
-		double delta = (qPrime.add(pStar)).divide(qStar, 4).doubleValue();
+		double delta = dividend.divide(qStar).doubleValue();
 
 		return delta;
 	}
@@ -100,7 +100,7 @@ public class PFUB extends PFTraditional implements Serializable {
 		eAppx = effectiveEpsilon <= targetEpsilon || maxKSConfsReached() ? EApproxReached.TRUE: EApproxReached.FALSE;
 
 		if( eAppx == EApproxReached.TRUE ) {
-			qStar = qStar.multiply(new BigDecimal(1.0 + effectiveEpsilon));
+			qStar = qStar.multiply(1.0 + effectiveEpsilon);
 			// for partial sequences when doing KAstar
 			if( !isFullyDefined() ) adjustQStar();
 		}
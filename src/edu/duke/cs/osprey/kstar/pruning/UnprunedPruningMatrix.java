@@ -20,7 +20,7 @@ public class UnprunedPruningMatrix extends ReducedPruningMatrix {
 
 
 	@Override
-	public Boolean getOneBody(int res, int index) {
+	public boolean getOneBodyB(int res, int index) {
 
 		Integer pos = sp.posNums.get(res);
 		String rcAAType = sp.confSpace.posFlex.get(pos).RCs.get(index).AAType;
@@ -34,7 +34,7 @@ public class UnprunedPruningMatrix extends ReducedPruningMatrix {
 
 
 	@Override
-	public Boolean getPairwise(int res1, int index1, int res2, int index2) {
+	public boolean getPairwiseB(int res1, int index1, int res2, int index2) {
 
 		Integer pos1 = sp.posNums.get(res1);
 		Integer pos2 = sp.posNums.get(res2);
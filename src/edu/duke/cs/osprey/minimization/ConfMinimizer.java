@@ -4,6 +4,8 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 
+import cern.colt.matrix.DoubleFactory1D;
+import cern.colt.matrix.DoubleMatrix1D;
 import edu.duke.cs.osprey.confspace.ConfSearch.EnergiedConf;
 import edu.duke.cs.osprey.confspace.ConfSearch.ScoredConf;
 import edu.duke.cs.osprey.confspace.ConfSpace;
@@ -19,7 +21,26 @@ import edu.duke.cs.osprey.tools.Progress;
 
 public abstract class ConfMinimizer {
 	
-	public static class Async {
+	/**
+	 * minimizes confs one at a time, or many at once
+	 */
+	public static interface AsyncMinimizer {
+		
+		public static interface Listener {
+			void onMinimized(EnergiedConf econf);
+		}
+		
+		EnergiedConf minimizeSync(ScoredConf conf);
+		void minimizeAsync(ScoredConf conf, Listener listener);
+		void waitForFinish();
+		int getParallelism();
+		void cleanup();
+	}
+	
+	/**
+	 * minimizes confs in this process, on the task executor's threads
+	 */
+	public static class Async implements AsyncMinimizer {
 		
 		private static class TaskStuff {
 			public ParameterizedMoleculeCopy pmol;
@@ -38,14 +59,11 @@ public abstract class ConfMinimizer {
 			}
 		}
 		
-		public static interface Listener {
-			void onMinimized(EnergiedConf econf);
-		}
-	
 		private ConfSpace confSpace;
 		private TaskExecutor tasks;
 		private Factory<? extends Minimizer,MoleculeModifierAndScorer> minimizers;
 		private ObjectPool<TaskStuff> taskStuffPool;
+		private WarmStartCache warmStarts = null;
 	
 		public Async(Factory<? extends EnergyFunction,Molecule> efuncs, ConfSpace confSpace, TaskExecutor tasks, Factory<? extends Minimizer,MoleculeModifierAndScorer> minimizers) {
 			
@@ -71,6 +89,7 @@ public abstract class ConfMinimizer {
 			taskStuffPool.allocate(tasks.getParallelism());
 		}
 		
+		@Override
 		public EnergiedConf minimizeSync(ScoredConf conf) {
 			
 			TaskStuff stuff;
@@ -93,7 +112,15 @@ public abstract class ConfMinimizer {
 				}
 				
 				// minimize the conf
-				Minimizer.Result result = minimizer.minimize();
+				Minimizer.Result result;
+				if (warmStarts != null && minimizer instanceof Minimizer.WarmStartable) {
+					result = minimizeWarm((Minimizer.WarmStartable)minimizer, mof, conf, tuple);
+				} else {
+					result = minimizer.minimize();
+				}
+				if (warmStarts != null && result.dofValues != null) {
+					warmStarts.save(tuple, result.dofValues, conf.getScore(), result.energy);
+				}
 				
 				// cleanup
 				if (minimizer instanceof Minimizer.Reusable) {
@@ -111,6 +138,45 @@ public abstract class ConfMinimizer {
 			}
 		}
 		
+		private Minimizer.Result minimizeWarm(Minimizer.WarmStartable minimizer, MoleculeModifierAndScorer mof, ScoredConf conf, RCTuple tuple) {
+			
+			DoubleMatrix1D center = DoubleFactory1D.dense.make(mof.getNumDOFs());
+			new ObjectiveFunction.DofBounds(mof.getConstraints()).getCenter(center);
+			
+			DoubleMatrix1D x = center.copy();
+			if (!warmStarts.getStart(tuple, x)) {
+				return minimizer.minimize();
+			}
+			
+			// neighbors' optima aren't always a better place to start, so fall back to the center if needed
+			if (mof.getValue(x) >= mof.getValue(center)) {
+				return minimizer.minimize();
+			}
+			
+			// NOTE: this only catches warm starts that got stuck badly, see WarmStartCache.shouldRetryCold()
+			// smaller errors are still possible, so warm starts are opt-in
+			Minimizer.Result result = minimizer.minimizeFrom(x);
+			if (warmStarts.shouldRetryCold(conf.getScore(), result.energy)) {
+				Minimizer.Result coldResult = minimizer.minimize();
+				if (coldResult.energy < result.energy) {
+					return coldResult;
+				}
+				
+				// put the molecule back where the warm start ended up
+				mof.setDOFs(result.dofValues);
+			}
+			return result;
+		}
+		
+		public void setWarmStartCache(WarmStartCache val) {
+			warmStarts = val;
+		}
+		
+		public WarmStartCache getWarmStartCache() {
+			return warmStarts;
+		}
+		
+		@Override
 		public void minimizeAsync(ScoredConf conf, Listener listener) {
 			
 			if (listener == null) {
@@ -130,14 +196,17 @@ public abstract class ConfMinimizer {
 			});
 		}
 		
+		@Override
 		public void waitForFinish() {
 			tasks.waitForFinish();
 		}
 		
+		@Override
 		public int getParallelism() {
 			return tasks.getParallelism();
 		}
 		
+		@Override
 		public void cleanup() {
 			
 			// make sure all the tasks are finished before cleaning up
@@ -176,7 +245,7 @@ public abstract class ConfMinimizer {
 	}
 	
 	private ThreadPoolTaskExecutor tasks;
-	private Async asyncMinimizer;
+	private AsyncMinimizer asyncMinimizer;
 	private boolean reportProgress;
 	
 	protected ConfMinimizer() {
@@ -186,27 +255,58 @@ public abstract class ConfMinimizer {
 	}
 	
 	protected void init(int numThreads, Factory<? extends EnergyFunction,Molecule> efuncs, Factory<? extends Minimizer,MoleculeModifierAndScorer> minimizers, ConfSpace confSpace) {
+		init(numThreads, (tasks) -> new Async(efuncs, confSpace, tasks, minimizers));
+	}
+	
+	protected void init(int numThreads, Factory<? extends AsyncMinimizer,TaskExecutor> asyncMinimizers) {
 		
 		if (numThreads <= 0) {
 			throw new IllegalArgumentException("numThreads must be > 0");
 		}
 		
 		// start the thread pool
-		tasks = new ThreadPoolTaskExecutor();
+		ThreadPoolTaskExecutor tasks = new ThreadPoolTaskExecutor();
 		tasks.start(numThreads);
 		
-		// make the minimizer
-		asyncMinimizer = new Async(efuncs, confSpace, tasks, minimizers);
+		init(tasks, asyncMinimizers);
+	}
+	
+	/**
+	 * for subclasses that manage their own thread pools. the pool gets stopped in cleanup()
+	 */
+	protected void init(ThreadPoolTaskExecutor tasks, Factory<? extends AsyncMinimizer,TaskExecutor> asyncMinimizers) {
+		this.tasks = tasks;
+		asyncMinimizer = asyncMinimizers.make(tasks);
 	}
 	
 	public void setReportProgress(boolean val) {
 		reportProgress = val;
 	}
 	
-	public Async getAsync() {
+	public AsyncMinimizer getAsync() {
 		return asyncMinimizer;
 	}
 	
+	/**
+	 * only minimizations in this process can warm start, e.g. not the ones on MPI slaves
+	 */
+	public boolean canWarmStart() {
+		return asyncMinimizer instanceof Async;
+	}
+	
+	/**
+	 * start minimizations near the optima of previously-minimized similar confs, instead of at the voxel centers.
+	 * Saves minimizer iterations, but a warm start can end in a different local minimum than a cold start,
+	 * so minimized energies are NOT guaranteed to be as low as cold-start energies.
+	 * On the 1CC8 test design, warm-started energies were up to 0.2 kcal/mol higher than cold starts.
+	 */
+	public void setWarmStartCache(WarmStartCache val) {
+		if (!canWarmStart()) {
+			throw new UnsupportedOperationException(getClass().getSimpleName() + " doesn't support warm starts");
+		}
+		((Async)asyncMinimizer).setWarmStartCache(val);
+	}
+	
 	/**
 	 * NOTE: don't call this in a loop, you'll loose all the parallelism
 	 * but it's here if you need one-off minimizations
@@ -234,7 +334,7 @@ public abstract class ConfMinimizer {
 		// minimize them all
 		for (int i=0; i<confs.size(); i++) {
 			final int fi = i;
-			asyncMinimizer.minimizeAsync(confs.get(i), new Async.Listener() {
+			asyncMinimizer.minimizeAsync(confs.get(i), new AsyncMinimizer.Listener() {
 				@Override
 				public void onMinimized(EnergiedConf econf) {
 					econfs.set(fi, econf);
@@ -18,6 +18,7 @@ public class CpuConfMinimizer extends ConfMinimizer {
 		
 		public int numThreads;
 		Factory<Minimizer,MoleculeModifierAndScorer> minimizers;
+		WarmStartCache warmStarts;
 		
 		public Builder(ForcefieldParams ffparams, Factory<ForcefieldInteractions,Molecule> interactions, ConfSpace confSpace) {
 			
@@ -27,6 +28,7 @@ public class CpuConfMinimizer extends ConfMinimizer {
 			
 			numThreads = 1;
 			minimizers = (mof) -> new SimpleCCDMinimizer(mof);
+			warmStarts = null;
 		}
 		
 		public Builder setNumThreads(int val) {
@@ -39,8 +41,15 @@ public class CpuConfMinimizer extends ConfMinimizer {
 			return this;
 		}
 		
+		public Builder setWarmStartCache(WarmStartCache val) {
+			warmStarts = val;
+			return this;
+		}
+		
 		public CpuConfMinimizer build() {
-			return new CpuConfMinimizer(numThreads, ffparams, interactions, confSpace, minimizers);
+			CpuConfMinimizer minimizer = new CpuConfMinimizer(numThreads, ffparams, interactions, confSpace, minimizers);
+			minimizer.setWarmStartCache(warmStarts);
+			return minimizer;
 		}
 	}
 	
@@ -229,6 +229,8 @@ public class GpuConfMinimizer extends ConfMinimizer {
 	
 	public GpuConfMinimizer(Type type, int numGpus, int streamsPerGpu, ForcefieldParams ffparams, Factory<ForcefieldInteractions,Molecule> interactions, ConfSpace confSpace) {
 		
+		GpuForcefieldEnergy.checkParams(ffparams);
+		
 		if (type == null) {
 			type = Type.pickBestOrThrow(confSpace);
 		}
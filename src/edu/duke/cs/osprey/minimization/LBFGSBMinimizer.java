@@ -0,0 +1,274 @@
+package edu.duke.cs.osprey.minimization;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+
+import cern.colt.matrix.DoubleFactory1D;
+import cern.colt.matrix.DoubleMatrix1D;
+
+/**
+ * Bounded limited-memory BFGS (quasi-Newton) minimizer.
+ *
+ * Uses the objective function's gradient to step all the DOFs at once, instead of line searching
+ * along one DOF at a time like CCD. With analytic gradients (see {@link MoleculeModifierAndScorer#hasAnalyticGradient()}),
+ * each step costs about one energy evaluation, so minimization usually needs far fewer energy evaluations than CCD.
+ *
+ * Handles the DOF bounds by projection: DOFs at a bound whose gradient points out of the box are held fixed
+ * for the step, and steps are clamped to the box.
+ */
+public class LBFGSBMinimizer implements Minimizer.Reusable, Minimizer.WarmStartable {
+
+	private static final int MaxIterations = 100;
+	private static final int NumCorrections = 6; // number of (s,y) pairs to remember
+	private static final double ConvergenceThreshold = 1e-6; // kcal/mol of improvement per iteration
+	private static final double GradientThreshold = 1e-4; // largest projected gradient component
+	private static final double SufficientDecrease = 1e-4; // Armijo constant
+	private static final int MaxBacktracks = 20;
+
+	private static class Correction {
+
+		public final DoubleMatrix1D s;
+		public final DoubleMatrix1D y;
+		public final double rho;
+		public double alpha;
+
+		public Correction(DoubleMatrix1D s, DoubleMatrix1D y, double sy) {
+			this.s = s;
+			this.y = y;
+			this.rho = 1/sy;
+		}
+	}
+
+	private ObjectiveFunction f;
+	private ObjectiveFunction.DofBounds bounds;
+	private int numEvaluations;
+
+	public LBFGSBMinimizer() {
+		// nothing to do
+	}
+
+	public LBFGSBMinimizer(ObjectiveFunction f) {
+		init(f);
+	}
+
+	@Override
+	public void init(ObjectiveFunction f) {
+		this.f = f;
+		this.bounds = new ObjectiveFunction.DofBounds(f.getConstraints());
+	}
+
+	/**
+	 * number of value-and-gradient evaluations used by the last minimization
+	 */
+	public int getNumEvaluations() {
+		return numEvaluations;
+	}
+
+	@Override
+	public Minimizer.Result minimize() {
+
+		// init x to the center of the bounds, like CCD
+		DoubleMatrix1D x = DoubleFactory1D.dense.make(f.getNumDOFs());
+		bounds.getCenter(x);
+
+		return minimizeFrom(x);
+	}
+
+	@Override
+	public Minimizer.Result minimizeFrom(DoubleMatrix1D startx) {
+
+		numEvaluations = 0;
+
+		int n = f.getNumDOFs();
+		DoubleMatrix1D x = startx.copy();
+		bounds.clamp(x);
+
+		if (n == 0) {
+			return new Minimizer.Result(x, f.getValue(x));
+		}
+
+		DoubleMatrix1D g = DoubleFactory1D.dense.make(n);
+		double fx = evaluate(x, g);
+
+		DoubleMatrix1D d = DoubleFactory1D.dense.make(n);
+		DoubleMatrix1D nextx = DoubleFactory1D.dense.make(n);
+		DoubleMatrix1D nextg = DoubleFactory1D.dense.make(n);
+		boolean[] isFree = new boolean[n];
+		Deque<Correction> corrections = new ArrayDeque<>();
+
+		for (int iter=0; iter<MaxIterations; iter++) {
+
+			// which DOFs can move? hold DOFs at a bound if the gradient pushes them out of the box
+			double maxProjectedGradient = 0;
+			for (int i=0; i<n; i++) {
+				double xi = x.get(i);
+				double gi = g.get(i);
+				boolean atMin = xi <= bounds.getMin(i) && gi > 0;
+				boolean atMax = xi >= bounds.getMax(i) && gi < 0;
+				isFree[i] = bounds.getMin(i) < bounds.getMax(i) && !atMin && !atMax;
+				if (isFree[i]) {
+					maxProjectedGradient = Math.max(maxProjectedGradient, Math.abs(gi));
+				}
+			}
+			if (maxProjectedGradient < GradientThreshold) {
+				break;
+			}
+
+			// get the search direction
+			if (corrections.isEmpty()) {
+				getSteepestDescentDirection(g, isFree, d);
+			} else {
+				getQuasiNewtonDirection(g, isFree, corrections, d);
+				if (d.zDotProduct(g) >= 0) {
+					// not a descent direction, the curvature info is bad, so start over
+					corrections.clear();
+					getSteepestDescentDirection(g, isFree, d);
+				}
+			}
+
+			// backtracking line search along the projected path
+			double step = 1;
+			double nextfx = Double.POSITIVE_INFINITY;
+			boolean foundStep = false;
+			for (int i=0; i<MaxBacktracks; i++) {
+
+				for (int j=0; j<n; j++) {
+					nextx.set(j, bounds.clamp(j, x.get(j) + step*d.get(j)));
+				}
+				nextfx = evaluate(nextx, nextg);
+
+				// Armijo condition on the actual (projected) step
+				double expectedDecrease = 0;
+				for (int j=0; j<n; j++) {
+					expectedDecrease += g.get(j)*(nextx.get(j) - x.get(j));
+				}
+				if (nextfx <= fx + SufficientDecrease*expectedDecrease) {
+					foundStep = true;
+					break;
+				}
+
+				step /= 2;
+			}
+
+			if (!foundStep) {
+				if (corrections.isEmpty()) {
+					// can't even make progress going downhill, so we're done
+					break;
+				}
+				// the curvature info led us astray, try again from steepest descent
+				corrections.clear();
+				continue;
+			}
+
+			// update the curvature info
+			DoubleMatrix1D s = nextx.copy();
+			DoubleMatrix1D y = nextg.copy();
+			for (int i=0; i<n; i++) {
+				s.set(i, nextx.get(i) - x.get(i));
+				y.set(i, nextg.get(i) - g.get(i));
+			}
+			double sy = s.zDotProduct(y);
+			if (sy > 1e-10) {
+				corrections.addLast(new Correction(s, y, sy));
+				if (corrections.size() > NumCorrections) {
+					corrections.removeFirst();
+				}
+			}
+
+			// take the step
+			double improvement = fx - nextfx;
+			x.assign(nextx);
+			g.assign(nextg);
+			fx = nextfx;
+
+			if (improvement < ConvergenceThreshold) {
+				break;
+			}
+		}
+
+		// the last evaluation might have been a rejected step, so put the DOFs back where we ended up
+		f.setDOFs(x);
+
+		return new Minimizer.Result(x, fx);
+	}
+
+	private double evaluate(DoubleMatrix1D x, DoubleMatrix1D g) {
+		numEvaluations++;
+		double fx = f.getValueAndGradient(x, g);
+		if (Double.isNaN(fx)) {
+			fx = Double.POSITIVE_INFINITY;
+		}
+		return fx;
+	}
+
+	private void getSteepestDescentDirection(DoubleMatrix1D g, boolean[] isFree, DoubleMatrix1D d) {
+
+		// DOFs have different units (e.g. degrees vs angstroms), so scale the first step
+		// so no DOF moves more than its initial step size
+		double scale = Double.POSITIVE_INFINITY;
+		for (int i=0; i<d.size(); i++) {
+			double gi = Math.abs(g.get(i));
+			if (isFree[i] && gi > 0) {
+				scale = Math.min(scale, f.getInitStepSize(i)/gi);
+			}
+		}
+		for (int i=0; i<d.size(); i++) {
+			d.set(i, isFree[i] ? -scale*g.get(i) : 0);
+		}
+	}
+
+	private void getQuasiNewtonDirection(DoubleMatrix1D g, boolean[] isFree, Deque<Correction> corrections, DoubleMatrix1D d) {
+
+		// the usual L-BFGS two-loop recursion, restricted to the free DOFs
+		int n = d.size();
+		for (int i=0; i<n; i++) {
+			d.set(i, isFree[i] ? g.get(i) : 0);
+		}
+
+		Iterator<Correction> newestFirst = corrections.descendingIterator();
+		while (newestFirst.hasNext()) {
+			Correction c = newestFirst.next();
+			c.alpha = c.rho*dotFree(c.s, d, isFree);
+			axpyFree(-c.alpha, c.y, d, isFree);
+		}
+
+		// scale by the newest curvature estimate
+		Correction newest = corrections.getLast();
+		double yy = dotFree(newest.y, newest.y, isFree);
+		double gamma = yy > 0 ? dotFree(newest.s, newest.y, isFree)/yy : 1;
+		if (gamma <= 0) {
+			gamma = 1/(newest.rho*newest.y.zDotProduct(newest.y));
+		}
+		for (int i=0; i<n; i++) {
+			d.set(i, d.get(i)*gamma);
+		}
+
+		for (Correction c : corrections) {
+			double beta = c.rho*dotFree(c.y, d, isFree);
+			axpyFree(c.alpha - beta, c.s, d, isFree);
+		}
+
+		for (int i=0; i<n; i++) {
+			d.set(i, isFree[i] ? -d.get(i) : 0);
+		}
+	}
+
+	private static double dotFree(DoubleMatrix1D a, DoubleMatrix1D b, boolean[] isFree) {
+		double sum = 0;
+		for (int i=0; i<a.size(); i++) {
+			if (isFree[i]) {
+				sum += a.get(i)*b.get(i);
+			}
+		}
+		return sum;
+	}
+
+	private static void axpyFree(double alpha, DoubleMatrix1D x, DoubleMatrix1D y, boolean[] isFree) {
+		for (int i=0; i<x.size(); i++) {
+			if (isFree[i]) {
+				y.set(i, y.get(i) + alpha*x.get(i));
+			}
+		}
+	}
+}
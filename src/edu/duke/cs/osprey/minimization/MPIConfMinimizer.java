@@ -0,0 +1,187 @@
+package edu.duke.cs.osprey.minimization;
+
+import java.io.Serializable;
+
+import edu.duke.cs.osprey.confspace.ConfSearch.EnergiedConf;
+import edu.duke.cs.osprey.confspace.ConfSearch.ScoredConf;
+import edu.duke.cs.osprey.confspace.ConfSpace;
+import edu.duke.cs.osprey.energy.EnergyFunction;
+import edu.duke.cs.osprey.energy.EnergyFunctionGenerator;
+import edu.duke.cs.osprey.energy.forcefield.ForcefieldInteractions;
+import edu.duke.cs.osprey.energy.forcefield.ForcefieldParams;
+import edu.duke.cs.osprey.handlempi.MPIMaster;
+import edu.duke.cs.osprey.handlempi.MPISlaveTask;
+import edu.duke.cs.osprey.handlempi.MPITaskExecutor;
+import edu.duke.cs.osprey.parallelism.TaskExecutor;
+import edu.duke.cs.osprey.structure.Molecule;
+import edu.duke.cs.osprey.tools.Factory;
+
+/**
+ * Minimizes conformations on MPI slave processes instead of in this process.
+ * Each slave builds its own molecules, energy functions, and minimizers from the factories,
+ * so the factories get sent to the slaves too.
+ */
+public class MPIConfMinimizer extends ConfMinimizer {
+
+	/**
+	 * a factory that can be sent to the slaves. lambdas that target this interface are serializable,
+	 * as long as everything they capture is too
+	 */
+	public static interface RemoteFactory<VT,CT> extends Factory<VT,CT>, Serializable {}
+
+	public static class Builder {
+
+		public final MPIMaster master;
+		public final ForcefieldParams ffparams;
+		public final RemoteFactory<ForcefieldInteractions,Molecule> interactions;
+		public final ConfSpace confSpace;
+
+		RemoteFactory<? extends Minimizer,MoleculeModifierAndScorer> minimizers;
+
+		public Builder(MPIMaster master, ForcefieldParams ffparams, RemoteFactory<ForcefieldInteractions,Molecule> interactions, ConfSpace confSpace) {
+
+			this.master = master;
+			this.ffparams = ffparams;
+			this.interactions = interactions;
+			this.confSpace = confSpace;
+
+			minimizers = (mof) -> new SimpleCCDMinimizer(mof);
+		}
+
+		public Builder setMinimizers(RemoteFactory<? extends Minimizer,MoleculeModifierAndScorer> val) {
+			minimizers = val;
+			return this;
+		}
+
+		public MPIConfMinimizer build() {
+
+			// same energy functions as the CPU minimizer, but made on the slaves
+			ForcefieldParams ffparams = this.ffparams;
+			RemoteFactory<ForcefieldInteractions,Molecule> interactions = this.interactions;
+			RemoteFactory<EnergyFunction,Molecule> efuncs = (mol) -> {
+				EnergyFunctionGenerator egen = new EnergyFunctionGenerator(ffparams, Double.POSITIVE_INFINITY, false);
+				return egen.interactionEnergy(interactions.make(mol));
+			};
+
+			return new MPIConfMinimizer(master, confSpace, efuncs, minimizers);
+		}
+	}
+
+	private static class Context implements Serializable {
+
+		private static final long serialVersionUID = -6011570434915385186L;
+
+		public final ConfSpace confSpace;
+		public final RemoteFactory<? extends EnergyFunction,Molecule> efuncs;
+		public final RemoteFactory<? extends Minimizer,MoleculeModifierAndScorer> minimizers;
+
+		private transient Async minimizer = null;
+
+		public Context(ConfSpace confSpace, RemoteFactory<? extends EnergyFunction,Molecule> efuncs, RemoteFactory<? extends Minimizer,MoleculeModifierAndScorer> minimizers) {
+			this.confSpace = confSpace;
+			this.efuncs = efuncs;
+			this.minimizers = minimizers;
+		}
+
+		public synchronized Async getMinimizer() {
+			if (minimizer == null) {
+				minimizer = new Async(efuncs, confSpace, new TaskExecutor(), minimizers);
+			}
+			return minimizer;
+		}
+	}
+
+	private static class Task implements MPISlaveTask.Contextual<Context> {
+
+		private static final long serialVersionUID = 2484126651049604613L;
+
+		private final int[] assignments;
+		private transient Context context;
+
+		public Task(int[] assignments) {
+			this.assignments = assignments;
+		}
+
+		@Override
+		public void setContext(Context context) {
+			this.context = context;
+		}
+
+		@Override
+		public Object doCalculation() {
+			return context.getMinimizer().minimizeSync(new ScoredConf(assignments, 0)).getEnergy();
+		}
+	}
+
+	/**
+	 * sends each minimization to a slave, and waits for it on one of the task executor's threads
+	 */
+	private static class RemoteAsync implements AsyncMinimizer {
+
+		private class MinimizationTask implements Runnable {
+
+			public ScoredConf conf;
+			public EnergiedConf minimizedConf;
+
+			@Override
+			public void run() {
+				minimizedConf = minimizeSync(conf);
+			}
+		}
+
+		private final MPIMaster master;
+		private final MPIMaster.SharedContext context;
+		private final TaskExecutor tasks;
+
+		public RemoteAsync(MPIMaster master, MPIMaster.SharedContext context, TaskExecutor tasks) {
+			this.master = master;
+			this.context = context;
+			this.tasks = tasks;
+		}
+
+		@Override
+		public EnergiedConf minimizeSync(ScoredConf conf) {
+			double energy = (Double)master.handleTask(new Task(conf.getAssignments()), context);
+			return new EnergiedConf(conf, energy);
+		}
+
+		@Override
+		public void minimizeAsync(ScoredConf conf, Listener listener) {
+
+			if (listener == null) {
+				throw new IllegalArgumentException("listener can't be null");
+			}
+
+			MinimizationTask task = new MinimizationTask();
+			task.conf = conf;
+			tasks.submit(task, (taskBase) -> listener.onMinimized(task.minimizedConf));
+		}
+
+		@Override
+		public void waitForFinish() {
+			tasks.waitForFinish();
+		}
+
+		@Override
+		public int getParallelism() {
+			return tasks.getParallelism();
+		}
+
+		@Override
+		public void cleanup() {
+			// the slaves clean up their own minimizers, so just wait for the tasks
+			try {
+				tasks.waitForFinish();
+			} catch (Throwable t) {
+				// a task failed, but someone else should already know about it
+			}
+		}
+	}
+
+	public MPIConfMinimizer(MPIMaster master, ConfSpace confSpace, RemoteFactory<? extends EnergyFunction,Molecule> efuncs, RemoteFactory<? extends Minimizer,MoleculeModifierAndScorer> minimizers) {
+
+		MPIMaster.SharedContext context = master.shareContext(new Context(confSpace, efuncs, minimizers));
+
+		init(new MPITaskExecutor(master), (tasks) -> new RemoteAsync(master, context, tasks));
+	}
+}
@@ -6,6 +6,8 @@ package edu.duke.cs.osprey.minimization;
 
 //Interface for minimizers.  Instantiated using an ObjectiveFunction
 
+import java.io.Serializable;
+
 import cern.colt.matrix.DoubleMatrix1D;
 
 /**
@@ -14,8 +16,10 @@ import cern.colt.matrix.DoubleMatrix1D;
  */
 public interface Minimizer {
 	
-    public static class Result {
+    public static class Result implements Serializable {
     
+        private static final long serialVersionUID = -2583421862720930457L;
+        
         public DoubleMatrix1D dofValues;
         public double energy;
         
@@ -34,4 +38,10 @@ public interface Minimizer {
     public static interface Reusable extends Minimizer {
     	void init(ObjectiveFunction f);
     }
+    
+    public static interface WarmStartable extends Minimizer {
+    	
+    	/** like minimize(), but starts at x instead of the center of the voxel */
+    	Result minimizeFrom(DoubleMatrix1D x);
+    }
 }
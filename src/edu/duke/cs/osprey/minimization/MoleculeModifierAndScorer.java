@@ -26,6 +26,8 @@ import edu.duke.cs.osprey.dof.StrandTranslation;
 import edu.duke.cs.osprey.dof.deeper.perts.Backrub;
 import edu.duke.cs.osprey.dof.deeper.perts.RingPucker;
 import edu.duke.cs.osprey.dof.deeper.perts.Shear;
+import edu.duke.cs.osprey.ematrix.epic.EPICEnergyFunction;
+import edu.duke.cs.osprey.energy.AtomGradient;
 import edu.duke.cs.osprey.energy.EnergyFunction;
 import edu.duke.cs.osprey.restypes.HardCodedResidueInfo;
 import edu.duke.cs.osprey.restypes.ResidueTemplate;
@@ -63,6 +65,9 @@ public class MoleculeModifierAndScorer implements ObjectiveFunction {
     
     List<EnergyFunction> partialEFuncs = null;//if not null, can use when searching along a single DOF
     
+    AtomGradient atomGradient = new AtomGradient();//scratch space for analytic gradients
+    double[] dofGradient = null;//scratch space for EPIC gradients
+    
     public static boolean hasMinimizableDofs(ConfSpace confSpace, RCTuple tuple) {
     
         // for each pos...
@@ -303,6 +308,85 @@ public class MoleculeModifierAndScorer implements ObjectiveFunction {
         return efunc.getEnergy();
     }
 
+    //does the energy function have analytic derivatives?
+    //if not, getValueAndGradient() falls back to finite differences
+    public boolean hasAnalyticGradient() {
+        if(efunc instanceof EPICEnergyFunction)
+            return ((EPICEnergyFunction)efunc).hasGradient();
+        return efunc instanceof EnergyFunction.Gradient && ((EnergyFunction.Gradient)efunc).hasGradient();
+    }
+    
+    @Override
+    public double getValueAndGradient(DoubleMatrix1D x, DoubleMatrix1D gradient) {
+        
+        if(!hasAnalyticGradient())
+            return ObjectiveFunction.super.getValueAndGradient(x, gradient);
+        
+        if(efunc instanceof EPICEnergyFunction){
+            //EPIC terms are polynomials in the DOFs, so we get the DOF derivatives directly
+            setDOFs(x);
+            if(dofGradient==null || dofGradient.length!=DOFs.size())
+                dofGradient = new double[DOFs.size()];
+            double val = ((EPICEnergyFunction)efunc).getEnergyAndGradient(dofGradient);
+            for(int dof=0; dof<DOFs.size(); dof++)
+                gradient.set(dof, dofGradient[dof]);
+            return val;
+        }
+        
+        //one energy evaluation gives us the derivatives wrt all the atom coords
+        setDOFs(x);
+        atomGradient.clear();
+        double val = ((EnergyFunction.Gradient)efunc).getEnergyAndGradient(atomGradient);
+        
+        for(int dof=0; dof<DOFs.size(); dof++){
+            DegreeOfFreedom curDOF = DOFs.get(dof);
+            if(curDOF instanceof FreeDihedral)
+                gradient.set(dof, getDihedralDerivative((FreeDihedral)curDOF));
+            else {
+                //backbone motions move atoms in complicated ways, so use finite differences for those
+                double xd = x.get(dof);
+                double h = 1e-2*getInitStepSize(dof);
+                setDOF(dof, xd+h);
+                double fPlus = efunc.getEnergy();
+                setDOF(dof, xd-h);
+                double fMinus = efunc.getEnergy();
+                setDOF(dof, xd);
+                gradient.set(dof, (fPlus-fMinus)/(2*h));
+            }
+        }
+        
+        return val;
+    }
+    
+    private double getDihedralDerivative(FreeDihedral dih) {
+        //rotating the dihedral by dtheta moves each rotated atom r by (u x (r - c))*dtheta,
+        //where u is the unit vector along the rotation axis (b->c)
+        //so dE/dtheta = sum over rotated atoms of dE/dr . (u x (r - c))
+        Residue res = dih.getResidue();
+        double[] grad = atomGradient.getIfPresent(res);
+        if(grad == null)//energy doesn't depend on this residue
+            return 0;
+        
+        double[][] dihCoords = dih.updateDihedralCoords();
+        double[] b = dihCoords[1];
+        double[] c = dihCoords[2];
+        double ux = c[0]-b[0], uy = c[1]-b[1], uz = c[2]-b[2];
+        double norm = Math.sqrt(ux*ux + uy*uy + uz*uz);
+        ux /= norm;
+        uy /= norm;
+        uz /= norm;
+        
+        double deriv = 0;
+        for(int index : res.template.getDihedralRotatedAtoms(dih.getDihedralNumber())){
+            int i3 = 3*index;
+            double rx = res.coords[i3]-c[0], ry = res.coords[i3+1]-c[1], rz = res.coords[i3+2]-c[2];
+            deriv += grad[i3]*(uy*rz - uz*ry) + grad[i3+1]*(uz*rx - ux*rz) + grad[i3+2]*(ux*ry - uy*rx);
+        }
+        
+        //DOF values are in degrees
+        return Math.toRadians(deriv);
+    }
+
     @Override
     public double getValForDOF(int dof, double val) {
         
@@ -369,7 +453,6 @@ public class MoleculeModifierAndScorer implements ObjectiveFunction {
     }
     
     
-    //Will likely want gradient and Hessian too...
 
     public EnergyFunction getEfunc() {
         return efunc;
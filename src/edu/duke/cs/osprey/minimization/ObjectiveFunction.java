@@ -30,7 +30,23 @@ public interface ObjectiveFunction extends Serializable {
 
     //Value and gradient at a given point (specified as values for all DOFs)
     public double getValue(DoubleMatrix1D x);
-    //public DoubleMatrix1D getGradient(DoubleMatrix1D x);
+    
+    //Value at x, and puts the gradient at x in gradient
+    //This default uses central finite differences, which costs two evaluations per DOF,
+    //so objective functions that can compute analytic derivatives should override it
+    public default double getValueAndGradient(DoubleMatrix1D x, DoubleMatrix1D gradient) {
+        DoubleMatrix1D xh = x.copy();
+        for(int dof=0; dof<getNumDOFs(); dof++){
+            double h = 1e-2*getInitStepSize(dof);
+            xh.set(dof, x.get(dof)+h);
+            double fPlus = getValue(xh);
+            xh.set(dof, x.get(dof)-h);
+            double fMinus = getValue(xh);
+            xh.set(dof, x.get(dof));
+            gradient.set(dof, (fPlus-fMinus)/(2*h));
+        }
+        return getValue(x);
+    }
 
     //Value at a given value for a given DOF,
     //and, for efficiency, possibly omitting energy terms that don't depend on that DOF
@@ -7,7 +7,7 @@ import cern.colt.matrix.DoubleFactory1D;
 import cern.colt.matrix.DoubleMatrix1D;
 import edu.duke.cs.osprey.tools.Factory;
 
-public class SimpleCCDMinimizer implements Minimizer.NeedsCleanup, Minimizer.Reusable {
+public class SimpleCCDMinimizer implements Minimizer.NeedsCleanup, Minimizer.Reusable, Minimizer.WarmStartable {
 	
 	private static final double MaxIterations = 30; // same as CCDMinimizer
 	private static final double ConvergenceThreshold = 0.001; // same as CCDMinimizer
@@ -16,6 +16,7 @@ public class SimpleCCDMinimizer implements Minimizer.NeedsCleanup, Minimizer.Reu
 	private ObjectiveFunction f;
 	private List<ObjectiveFunction.OneDof> dofs;
 	private List<LineSearcher> lineSearchers;
+	private int numIterations = 0;
 
 	public SimpleCCDMinimizer() {
 		this(new Factory<LineSearcher,Void>() {
@@ -73,6 +74,14 @@ public class SimpleCCDMinimizer implements Minimizer.NeedsCleanup, Minimizer.Reu
 			herex.set(d, (dof.getXMin() + dof.getXMax())/2);
 		}
 		
+		return minimizeFrom(herex);
+	}
+	
+	@Override
+	public Minimizer.Result minimizeFrom(DoubleMatrix1D x) {
+		
+		int n = f.getNumDOFs();
+		DoubleMatrix1D herex = x.copy();
 		DoubleMatrix1D nextx = herex.copy();
 		
 		// ccd is pretty simple actually
@@ -82,8 +91,11 @@ public class SimpleCCDMinimizer implements Minimizer.NeedsCleanup, Minimizer.Reu
 		// get the current objective function value
 		double herefx = f.getValue(herex);
 		
+		numIterations = 0;
 		for (int iter=0; iter<MaxIterations; iter++) {
 			
+			numIterations++;
+			
 			// update all the dofs using line search
 			for (int d=0; d<n; d++) {
 				
@@ -119,6 +131,13 @@ public class SimpleCCDMinimizer implements Minimizer.NeedsCleanup, Minimizer.Reu
 		return new Minimizer.Result(herex, herefx);
 	}
 	
+	/**
+	 * number of CCD iterations used by the last minimization
+	 */
+	public int getNumIterations() {
+		return numIterations;
+	}
+	
 	@Override
 	public void cleanup() {
 		for (LineSearcher lineSearcher : lineSearchers) {
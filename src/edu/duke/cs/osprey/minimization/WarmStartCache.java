@@ -0,0 +1,374 @@
+package edu.duke.cs.osprey.minimization;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import cern.colt.matrix.DoubleMatrix1D;
+import edu.duke.cs.osprey.confspace.ConfSpace;
+import edu.duke.cs.osprey.confspace.RC;
+import edu.duke.cs.osprey.confspace.RCTuple;
+import edu.duke.cs.osprey.dof.DegreeOfFreedom;
+
+/**
+ * Remembers minimized DOF values, so minimizations of similar confs can start
+ * near their neighbors' optima instead of at the centers of the voxels.
+ *
+ * A* and partition function enumeration minimize lots of confs that differ from
+ * already-minimized confs by only a rotamer or two, so the DOFs of the unchanged
+ * positions usually end up close to where they were last time.
+ *
+ * Starting values for each position are looked up in order of preference:
+ * <ol>
+ * <li>the recent conf that agrees with this conf at the most positions, if it has the same RC here</li>
+ * <li>the last optimum for this RC next to the same RC at another position</li>
+ * <li>the last optimum for this RC anywhere (like a {@link edu.duke.cs.osprey.ematrix.DofMatrix})</li>
+ * <li>the center of the voxel</li>
+ * </ol>
+ *
+ * Warm-started minimizations aren't guaranteed to find energies as low as cold starts,
+ * since they can end in a different local minimum. On the 1CC8 test design, they were
+ * up to 0.2 kcal/mol higher (and up to 0.34 kcal/mol lower) than cold starts.
+ *
+ * Memory is bounded by the number of RCs in the conf space, plus the max numbers of recent confs and pairs.
+ * All methods are thread-safe.
+ */
+public class WarmStartCache {
+
+	public static final int DefaultMaxNumConfs = 64;
+	public static final int DefaultMaxNumPairs = 100000;
+	
+	// how much worse than usual (kcal/mol) a warm-started energy can be before we try a cold start too
+	private static final double RetryMargin = 1.0;
+
+	private static class Conf {
+
+		public final int[] rcs;
+		public final double[][] xs;
+
+		public Conf(int[] rcs, double[][] xs) {
+			this.rcs = rcs;
+			this.xs = xs;
+		}
+	}
+
+	public final ConfSpace confSpace;
+	public final int maxNumConfs;
+	public final int maxNumPairs;
+
+	private final double[][][] singles; // [pos][rc] -> dof values
+	private final LinkedHashMap<Long,double[]> pairs; // (pos1,rc1,pos2,rc2) -> dof values for pos1
+	private final Deque<Conf> confs; // newest first
+	private final int maxNumRCs;
+
+	private double maxGap = Double.NEGATIVE_INFINITY; // biggest energy - score we've saved
+	private long numRetries = 0;
+	private long numConfHits = 0;
+	private long numPairHits = 0;
+	private long numSingleHits = 0;
+	private long numMisses = 0;
+
+	public WarmStartCache(ConfSpace confSpace) {
+		this(confSpace, DefaultMaxNumConfs, DefaultMaxNumPairs);
+	}
+
+	public WarmStartCache(ConfSpace confSpace, int maxNumConfs, int maxNumPairs) {
+
+		if (maxNumConfs < 0 || maxNumPairs < 0) {
+			throw new IllegalArgumentException("cache sizes can't be negative");
+		}
+
+		this.confSpace = confSpace;
+		this.maxNumConfs = maxNumConfs;
+		this.maxNumPairs = maxNumPairs;
+
+		int numPos = confSpace.numPos;
+		singles = new double[numPos][][];
+		int maxNumRCs = 0;
+		for (int pos=0; pos<numPos; pos++) {
+			int numRCs = confSpace.posFlex.get(pos).RCs.size();
+			singles[pos] = new double[numRCs][];
+			maxNumRCs = Math.max(maxNumRCs, numRCs);
+		}
+		this.maxNumRCs = maxNumRCs;
+
+		pairs = new LinkedHashMap<Long,double[]>(16, 0.75f, true) {
+
+			private static final long serialVersionUID = -3471237618032578624L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Long,double[]> eldest) {
+				return size() > WarmStartCache.this.maxNumPairs;
+			}
+		};
+		confs = new ArrayDeque<>();
+	}
+
+	/**
+	 * writes starting DOF values for the conf into x, for DOFs we have values for.
+	 * Other DOFs are left alone, so initialize x to the voxel centers first.
+	 *
+	 * @return true if any DOF values were written
+	 */
+	public boolean getStart(RCTuple conf, DoubleMatrix1D x) {
+
+		int[][] dofIndices = getDofIndices(conf, x.size());
+		if (dofIndices == null) {
+			return false;
+		}
+
+		int n = conf.size();
+		boolean[] isSet = new boolean[n];
+		int numSet = 0;
+
+		synchronized (this) {
+
+			// first, look for the most similar recent conf
+			Conf best = null;
+			int bestNumMatches = 0;
+			for (Conf other : confs) {
+				int numMatches = countMatches(conf, other);
+				if (numMatches > bestNumMatches) {
+					best = other;
+					bestNumMatches = numMatches;
+				}
+			}
+			if (best != null) {
+				for (int i=0; i<n; i++) {
+					int pos = conf.pos.get(i);
+					if (best.rcs[pos] == conf.RCs.get(i) && best.xs[pos] != null) {
+						set(x, dofIndices[i], best.xs[pos]);
+						isSet[i] = true;
+						numSet++;
+						numConfHits++;
+					}
+				}
+			}
+
+			// then look for pairs, then singles
+			for (int i=0; i<n; i++) {
+
+				if (isSet[i]) {
+					continue;
+				}
+
+				int pos1 = conf.pos.get(i);
+				int rc1 = conf.RCs.get(i);
+
+				double[] vals = null;
+				for (int j=0; j<n && vals == null; j++) {
+					if (j != i) {
+						vals = pairs.get(makePairKey(pos1, rc1, conf.pos.get(j), conf.RCs.get(j)));
+					}
+				}
+				if (vals != null) {
+					numPairHits++;
+				} else {
+					vals = singles[pos1][rc1];
+					if (vals != null) {
+						numSingleHits++;
+					}
+				}
+
+				if (vals != null) {
+					set(x, dofIndices[i], vals);
+					numSet++;
+				} else {
+					numMisses++;
+				}
+			}
+		}
+
+		return numSet > 0;
+	}
+
+	/**
+	 * Starting points near the voxel bounds can get stuck against a clash that a cold start would avoid.
+	 * Minimized energies usually sit a consistent distance above the conf scores, so if a warm-started
+	 * energy is further from its score than anything we've saved so far, it's probably stuck.
+	 */
+	public synchronized boolean shouldRetryCold(double score, double energy) {
+		boolean retry = energy - score > maxGap + RetryMargin;
+		if (retry) {
+			numRetries++;
+		}
+		return retry;
+	}
+
+	/**
+	 * remembers the minimized DOF values for the conf
+	 */
+	public void save(RCTuple conf, DoubleMatrix1D x, double score, double energy) {
+
+		int[][] dofIndices = getDofIndices(conf, x.size());
+		if (dofIndices == null) {
+			return;
+		}
+
+		// pull out the dof values for each position
+		int n = conf.size();
+		double[][] xs = new double[n][];
+		for (int i=0; i<n; i++) {
+			int[] indices = dofIndices[i];
+			if (indices.length > 0) {
+				xs[i] = new double[indices.length];
+				for (int d=0; d<indices.length; d++) {
+					xs[i][d] = indices[d] >= 0 ? x.get(indices[d]) : Double.NaN;
+				}
+			}
+		}
+
+		synchronized (this) {
+
+			if (!Double.isNaN(energy - score)) {
+				maxGap = Math.max(maxGap, energy - score);
+			}
+
+			for (int i=0; i<n; i++) {
+
+				if (xs[i] == null) {
+					continue;
+				}
+
+				int pos1 = conf.pos.get(i);
+				int rc1 = conf.RCs.get(i);
+				singles[pos1][rc1] = xs[i];
+
+				if (maxNumPairs > 0) {
+					for (int j=0; j<n; j++) {
+						if (j != i) {
+							pairs.put(makePairKey(pos1, rc1, conf.pos.get(j), conf.RCs.get(j)), xs[i]);
+						}
+					}
+				}
+			}
+
+			if (maxNumConfs > 0) {
+
+				// index by position, so lookups don't depend on the order of the tuple
+				int[] rcs = new int[confSpace.numPos];
+				double[][] posXs = new double[confSpace.numPos][];
+				Arrays.fill(rcs, -1);
+				for (int i=0; i<n; i++) {
+					rcs[conf.pos.get(i)] = conf.RCs.get(i);
+					posXs[conf.pos.get(i)] = xs[i];
+				}
+
+				confs.addFirst(new Conf(rcs, posXs));
+				if (confs.size() > maxNumConfs) {
+					confs.removeLast();
+				}
+			}
+		}
+	}
+
+	public synchronized long getNumConfHits() {
+		return numConfHits;
+	}
+
+	public synchronized long getNumPairHits() {
+		return numPairHits;
+	}
+
+	public synchronized long getNumSingleHits() {
+		return numSingleHits;
+	}
+
+	public synchronized long getNumMisses() {
+		return numMisses;
+	}
+
+	public synchronized long getNumRetries() {
+		return numRetries;
+	}
+
+	public synchronized void clear() {
+		for (double[][] rcs : singles) {
+			Arrays.fill(rcs, null);
+		}
+		pairs.clear();
+		confs.clear();
+		maxGap = Double.NEGATIVE_INFINITY;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return String.format("warm start cache: %d confs, %d pairs, position hits: %d conf, %d pair, %d single, %d misses, %d cold retries",
+			confs.size(), pairs.size(), numConfHits, numPairHits, numSingleHits, numMisses, numRetries
+		);
+	}
+
+	private long makePairKey(int pos1, int rc1, int pos2, int rc2) {
+		long key = pos1;
+		key = key*maxNumRCs + rc1;
+		key = key*confSpace.numPos + pos2;
+		key = key*maxNumRCs + rc2;
+		return key;
+	}
+
+	private static int countMatches(RCTuple conf, Conf other) {
+		int count = 0;
+		for (int i=0; i<conf.size(); i++) {
+			if (other.rcs[conf.pos.get(i)] == conf.RCs.get(i)) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	private static void set(DoubleMatrix1D x, int[] indices, double[] vals) {
+		for (int d=0; d<indices.length; d++) {
+			if (indices[d] >= 0 && !Double.isNaN(vals[d])) {
+				x.set(indices[d], vals[d]);
+			}
+		}
+	}
+
+	/**
+	 * maps the DOFs of each RC in the conf to indices in the objective function,
+	 * using the same order as MoleculeModifierAndScorer. Fixed DOFs get index -1.
+	 * Returns null if the layout doesn't match the expected number of DOFs.
+	 */
+	private int[][] getDofIndices(RCTuple conf, int numDofs) {
+
+		Map<DegreeOfFreedom,Integer> indicesByDof = new IdentityHashMap<>();
+		int[][] dofIndices = new int[conf.size()][];
+		int nextIndex = 0;
+
+		for (int i=0; i<conf.size(); i++) {
+
+			RC rc = confSpace.posFlex.get(conf.pos.get(i)).RCs.get(conf.RCs.get(i));
+			List<Integer> indices = new ArrayList<>(rc.DOFs.size());
+
+			for (int d=0; d<rc.DOFs.size(); d++) {
+
+				DegreeOfFreedom dof = rc.DOFs.get(d);
+				Integer index = indicesByDof.get(dof);
+				if (index == null) {
+					if (rc.DOFmin.get(d) < rc.DOFmax.get(d)) {
+						index = nextIndex++;
+					} else {
+						index = -1;
+					}
+					indicesByDof.put(dof, index);
+				}
+				indices.add(index);
+			}
+
+			dofIndices[i] = new int[indices.size()];
+			for (int d=0; d<indices.size(); d++) {
+				dofIndices[i][d] = indices.get(d);
+			}
+		}
+
+		if (nextIndex != numDofs) {
+			return null;
+		}
+		return dofIndices;
+	}
+}
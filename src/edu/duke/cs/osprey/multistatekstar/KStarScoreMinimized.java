@@ -21,6 +21,9 @@ public class KStarScoreMinimized implements KStarScore {
 	public MSKStarSettings settings;
 	public PartitionFunctionMinimized[] partitionFunctions;
 	public boolean[] initialized;
+	protected PartitionFunctionCache pfCache;
+	protected PartitionFunctionCache.Entry[] cacheEntries;
+	protected boolean[] estimatedChecked;
 	public int numStates;
 	protected boolean constrSatisfied;
 
@@ -29,8 +32,12 @@ public class KStarScoreMinimized implements KStarScore {
 		numStates = settings.search.length;
 		partitionFunctions = new PartitionFunctionMinimized[numStates];
 		initialized = new boolean[numStates];
+		pfCache = settings.pfCache;
+		cacheEntries = new PartitionFunctionCache.Entry[numStates];
+		estimatedChecked = new boolean[numStates];
 		Arrays.fill(partitionFunctions, null);
 		Arrays.fill(initialized, false);
+		Arrays.fill(estimatedChecked, false);
 		constrSatisfied = true;
 	}
 
@@ -110,11 +117,36 @@ public class KStarScoreMinimized implements KStarScore {
 		boolean doPruning = isFinal() || settings.cfp.getParams().getBool("PRUNEPARTIALSEQCONFS");
 		settings.search[state].prunePmat(doPruning, settings.cfp.getParams().getInt("ALGOPTION")>=3);
 
+		//only minimized partition functions are worth sharing. the bounds are cheap to
+		//compute, and the discrete scores modify their partition functions after computing them
+		if(pfCache != null && settings.pfTypes[state] == PartitionFunctionType.Minimized) {
+			initShared(state, PartitionFunctionCache.makeKey(settings, state, doPruning));
+			return true;
+		}
+
+		partitionFunctions[state] = makePartitionFunction(state);
+		return true;
+	}
+
+	/**
+	 * use the cached partition function for key, making it if no other score has yet
+	 */
+	protected void initShared(int state, String key) {
+		PartitionFunctionCache.Entry entry = pfCache.get(key);
+		synchronized(entry) {
+			if(entry.getPartitionFunction() == null)
+				entry.setPartitionFunction(makePartitionFunction(state));
+			partitionFunctions[state] = entry.getPartitionFunction();
+		}
+		cacheEntries[state] = entry;
+	}
+
+	protected PartitionFunctionMinimized makePartitionFunction(int state) {
 		//make conf search factory (i.e. A* tree)
 		ConfSearchFactory confSearchFactory = MSKStarFactory.makeConfSearchFactory(settings.search[state], settings.cfp);
 
 		//create partition function
-		partitionFunctions[state] = (PartitionFunctionMinimized) MSKStarFactory.makePartitionFunction( 
+		PartitionFunctionMinimized pf = (PartitionFunctionMinimized) MSKStarFactory.makePartitionFunction( 
 				settings.pfTypes[state],
 				settings.search[state].emat, 
 				settings.search[state].pruneMat,
@@ -123,29 +155,28 @@ public class KStarScoreMinimized implements KStarScore {
 				settings.ecalcs[state]
 				);
 
-		partitionFunctions[state].setReportProgress(settings.isReportingProgress);
+		pf.setReportProgress(settings.isReportingProgress);
 
 		//init partition function
-		partitionFunctions[state].init(settings.targetEpsilon);
+		pf.init(settings.targetEpsilon);
 
 		//create priority queue for top confs if requested
 		if(settings.search[state].isFullyAssigned() && settings.numTopConfsToSave > 0) {
 
-			partitionFunctions[state].topConfs = new PriorityQueue<ScoredConf>(
+			pf.topConfs = new PriorityQueue<ScoredConf>(
 					settings.numTopConfsToSave, 
 					new ConfComparator()
 					);
 
-			partitionFunctions[state].maxNumTopConfs = settings.numTopConfsToSave;
+			pf.maxNumTopConfs = settings.numTopConfsToSave;
 
-			final int pfState = state;
-			partitionFunctions[state].setConfListener((ScoredConf conf) -> {
-				partitionFunctions[pfState].saveConf(conf);
+			pf.setConfListener((ScoredConf conf) -> {
+				pf.saveConf(conf);
 			});
 
 		}
 
-		return true;
+		return pf;
 	}
 
 	/**
@@ -163,9 +194,7 @@ public class KStarScoreMinimized implements KStarScore {
 				initialized[state] = init(state);
 			}
 
-			if(partitionFunctions[state].getStatus() != Status.Estimated) {
-				compute(state, maxNumConfs);
-			}
+			computeIfNeeded(state, maxNumConfs);
 		}
 
 		//check all constraints now. technically, we should only check constraints
@@ -190,15 +219,14 @@ public class KStarScoreMinimized implements KStarScore {
 			if(!initialized[state])
 				initialized[state] = init(state);
 
-			if(partitionFunctions[state].getStatus() != Status.Estimated)
-				compute(state, maxNumConfs);
+			computeIfNeeded(state, maxNumConfs);
 
 			//don't check all constraints, because we are not computing 
 			//the bound state partition function
 			if(settings.isFinal && constrSatisfied) 
 				constrSatisfied = checkConstraints(state);
 
-			partitionFunctions[state].cleanup();
+			cleanup(state);
 		}
 	}
 
@@ -210,8 +238,7 @@ public class KStarScoreMinimized implements KStarScore {
 		if(!initialized[state])
 			initialized[state] = init(state);
 
-		if(partitionFunctions[state].getStatus() != Status.Estimated)
-			compute(state, maxNumConfs);
+		computeIfNeeded(state, maxNumConfs);
 
 		if(partitionFunctions[state].getStatus()==Status.Estimated) {//assumption: unbound states are complete
 			if(settings.isFinal && constrSatisfied) 
@@ -221,10 +248,64 @@ public class KStarScoreMinimized implements KStarScore {
 		if(isComputed()) cleanup();
 	}
 
+	/**
+	 * compute the state's partition function unless it's already estimated.
+	 * a cached partition function can be shared with other scores, so only
+	 * one score computes it, and the others pick up where it left off.
+	 * every score still checks its own constraints and writes its own top confs
+	 */
+	protected void computeIfNeeded(int state, int maxNumConfs) {
+		PartitionFunctionCache.Entry entry = cacheEntries[state];
+		if(entry == null) {
+			if(partitionFunctions[state].getStatus() != Status.Estimated)
+				compute(state, maxNumConfs);
+			return;
+		}
+
+		synchronized(entry) {
+			if(partitionFunctions[state].getStatus() != Status.Estimated)
+				compute(state, maxNumConfs);
+
+			//another score estimated the partition function
+			else if(!estimatedChecked[state])
+				onEstimated(state);
+
+			pfCache.update(entry);
+		}
+	}
+
+	/**
+	 * called once per score and state, when the state's partition function is estimated
+	 */
+	protected void onEstimated(int state) {
+		estimatedChecked[state] = true;
+		if(isFinal()) {//final is a superset of fully defined
+			if(constrSatisfied) constrSatisfied = checkConstraints(state);
+			if(settings.numTopConfsToSave > 0) partitionFunctions[state].writeTopConfs(settings.state, settings.search[state]);
+		}
+	}
+
 	private void cleanup() {
-		for(PartitionFunctionMinimized pf : partitionFunctions) {
-			if(pf==null) continue;
+		for(int state=0;state<numStates;++state)
+			cleanup(state);
+	}
+
+	private void cleanup(int state) {
+		PartitionFunctionMinimized pf = partitionFunctions[state];
+		if(pf==null) return;
+
+		PartitionFunctionCache.Entry entry = cacheEntries[state];
+		if(entry == null) {
+			pf.cleanup();
+			return;
+		}
+
+		//another score may still continue a shared partition function that isn't estimated yet.
+		//otherwise, the cached partition function gets smaller, so let the cache know
+		synchronized(entry) {
+			if(pf.getStatus() != Status.Estimated) return;
 			pf.cleanup();
+			pfCache.update(entry);
 		}
 	}
 
@@ -311,14 +392,13 @@ public class KStarScoreMinimized implements KStarScore {
 
 			if(settings.search[state].isFullyAssigned() && settings.numTopConfsToSave > 0)
 				pf.saveEConfs(p2pf.topConfs);
+
+			p2pf.cleanup();
 		}
 
 		pf.setStatus(Status.Estimated);
 
-		if(isFinal()) {//final is a superset of fully defined
-			if(constrSatisfied) constrSatisfied = checkConstraints(state);
-			if(settings.numTopConfsToSave > 0) pf.writeTopConfs(settings.state, settings.search[state]);
-		}
+		onEstimated(state);
 	}
 
 	protected ArrayList<LMB> getLMBsForState(int state, boolean negCoeff) {
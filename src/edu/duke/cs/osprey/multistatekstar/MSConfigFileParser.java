@@ -76,6 +76,8 @@ public class MSConfigFileParser extends ConfigFileParser {
 				);
 
 		ans.numEmatThreads = params.getInt("EmatThreads");
+		ans.mapEnergyMatrix = params.getBool("MapEmat");
+		ans.checkpointEnergyMatrix = params.getBool("EmatCheckpoint");
 
 		return ans;
 	}
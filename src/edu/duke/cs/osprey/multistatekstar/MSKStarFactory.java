@@ -57,7 +57,8 @@ public class MSKStarFactory {
 			MSSearchProblem[] searchDisc,
 			ConfEnergyCalculator.Async[] ecalcsCont,
 			ConfEnergyCalculator.Async[] ecalcsDisc,
-			KStarScoreType scoreType
+			KStarScoreType scoreType,
+			PartitionFunctionCache pfCache
 			) {
 
 		ParamSet sParams = cfp.getParams();
@@ -69,6 +70,7 @@ public class MSKStarFactory {
 		settings.isReportingProgress = msParams.getBool("ISREPORTINGPROGRESS");
 		settings.scoreType = scoreType;
 		settings.constraints = sConstr;
+		settings.pfCache = pfCache;
 		int numPartFuncs = sParams.getInt("NUMOFSTRANDS")+1;
 		settings.pfTypes = new PartitionFunctionType[numPartFuncs];
 		settings.ecalcs = new ConfEnergyCalculator.Async[numPartFuncs];
@@ -228,10 +230,15 @@ public class MSKStarFactory {
 		double solvScale = sParams.getDouble("SolvScale");
 		boolean useHForElectrostatics = sParams.getBool("HElect");
 		boolean useHForVdw = sParams.getBool("HVDW");
-		return new ForcefieldParams(
+		ForcefieldParams ffparams = new ForcefieldParams(
 				forceField, distDepDielect, dielectConst, vdwMult,
 				doSolv, solvScale, useHForElectrostatics, useHForVdw
 				);
+		ffparams.nonbondedCutoff = sParams.getDouble("ForcefieldCutoff");
+		ffparams.nonbondedSwitchWidth = sParams.getDouble("ForcefieldSwitchWidth");
+		ffparams.neighborListSkin = sParams.getDouble("ForcefieldCutoffSkin");
+		ffparams.incrementalEnergies = sParams.getBool("ForcefieldIncremental");
+		return ffparams;
 	}
 
 }
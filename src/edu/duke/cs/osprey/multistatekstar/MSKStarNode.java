@@ -299,7 +299,8 @@ public class MSKStarNode {
 			return MSKStarFactory.makeKStarScore(
 					MS_PARAMS, kSet.state, kSet.cfp, kSet.constraints,
 					null, search,
-					null, ECALCS_DISC[kSet.state], KStarScoreType.Discrete
+					null, ECALCS_DISC[kSet.state], KStarScoreType.Discrete,
+					kSet.pfCache
 					);
 		}
 
@@ -402,7 +403,8 @@ public class MSKStarNode {
 		KStarScore ans = MSKStarFactory.makeKStarScore(
 				MS_PARAMS, state, parent.getSettings().cfp, parent.getSettings().constraints,
 				search, null,
-				ECALCS_CONT[state], null, KStarScoreType.Minimized
+				ECALCS_CONT[state], null, KStarScoreType.Minimized,
+				parent.getSettings().pfCache
 				);
 
 		return ans;
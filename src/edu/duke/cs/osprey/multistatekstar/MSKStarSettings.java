@@ -21,6 +21,7 @@ public class MSKStarSettings {
 	public LMB[] constraints;
 	public PartitionFunctionType[] pfTypes;
 	public ConfEnergyCalculator.Async[] ecalcs;
+	public PartitionFunctionCache pfCache;//shares minimized partition functions between scores, null means don't share
 
 	public MSKStarSettings() {}
 	
@@ -44,5 +45,7 @@ public class MSKStarSettings {
 		
 		this.ecalcs = new ConfEnergyCalculator.Async[other.ecalcs.length];
 		System.arraycopy(other.ecalcs, 0, this.ecalcs, 0, other.ecalcs.length);
+		
+		this.pfCache = other.pfCache;
 	}
 }
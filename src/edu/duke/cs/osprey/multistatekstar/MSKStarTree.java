@@ -55,6 +55,7 @@ public class MSKStarTree {
 
 	protected ParamSet msParams;//multistate spec params
 	protected MSConfigFileParser[] cfps;//config file parsers for each state
+	protected PartitionFunctionCache pfCache;//shared between the tree's minimized scores, null means don't share
 
 	protected PriorityQueue<MSKStarNode> pq;
 
@@ -89,7 +90,8 @@ public class MSKStarTree {
 			ConfEnergyCalculator.Async[][] ecalcsCont,
 			ConfEnergyCalculator.Async[][] ecalcsDisc,
 			ParamSet msParams,
-			MSConfigFileParser[] cfps
+			MSConfigFileParser[] cfps,
+			PartitionFunctionCache pfCache
 			) {
 
 		this.objFcn = objFcn;
@@ -109,6 +111,7 @@ public class MSKStarTree {
 
 		this.cfps = cfps;
 		this.msParams = msParams;
+		this.pfCache = pfCache;
 
 		this.numExtracted = 0;
 		this.numExpanded = 0;
@@ -257,7 +260,8 @@ public class MSKStarTree {
 			ans[i] = MSKStarFactory.makeKStarScore(
 					msParams, state, cfps[state], sConstr[state],
 					seqSearchCont, seqSearchDisc,
-					ecalcsCont[state], ecalcsDisc[state], type
+					ecalcsCont[state], ecalcsDisc[state], type,
+					pfCache
 					);
 		}
 
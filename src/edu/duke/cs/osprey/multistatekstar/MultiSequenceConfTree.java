@@ -359,7 +359,7 @@ public class MultiSequenceConfTree extends ConfTree<FullAStarNode> {
 
 					RCTuple augTuple = startingTuple.addRC(iPos, rc);
 
-					double interactionE = htf.getInteraction(iPos, rc);
+					double interactionE = htf.getEnergy(iPos, rc);
 
 					//see if need to go up to highers order again...
 					@SuppressWarnings("rawtypes")
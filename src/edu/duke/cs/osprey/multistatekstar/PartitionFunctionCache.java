@@ -0,0 +1,153 @@
+package edu.duke.cs.osprey.multistatekstar;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * Shares partition functions between K* scores for the same (sub)state sequence,
+ * so repeated sequences (e.g. the same ligand sequence in many complexes, or the same
+ * unbound sequence in many tree nodes) are only computed once.
+ *
+ * Entries are keyed by state, substate, partition function type, sequence, pruning interval and epsilon.
+ * An entry holds whatever state the partition function is in, so a partition function that
+ * was only partially computed is refined from where it left off instead of starting over.
+ *
+ * The cache is bounded by an estimate of the heap its partition functions hold on to,
+ * which grows as they're computed, so callers should update an entry after computing it.
+ * The least recently used entries are evicted when the cache is over its budget. K* scores that already
+ * hold an evicted partition function can keep using it.
+ */
+public class PartitionFunctionCache {
+
+	public static class Entry {
+
+		public final String key;
+
+		// guards the partition function, which can be shared by K* scores on different threads
+		// don't lock the partition function itself, since its energy listeners do that
+		private PartitionFunctionMinimized pf = null;
+
+		// guarded by the cache
+		private long numBytes = 0;
+
+		private Entry(String key) {
+			this.key = key;
+		}
+
+		public PartitionFunctionMinimized getPartitionFunction() {
+			return pf;
+		}
+
+		public void setPartitionFunction(PartitionFunctionMinimized pf) {
+			this.pf = pf;
+		}
+	}
+
+	private final long maxNumBytes;
+	private final LinkedHashMap<String,Entry> entries;
+	private long numBytes;
+	private long numHits;
+	private long numMisses;
+
+	public PartitionFunctionCache(long maxNumBytes) {
+
+		if(maxNumBytes <= 0)
+			throw new IllegalArgumentException("ERROR: partition function cache budget must be positive, not "+maxNumBytes+" bytes");
+
+		this.maxNumBytes = maxNumBytes;
+		this.entries = new LinkedHashMap<>(16, 0.75f, true);
+		this.numBytes = 0;
+		this.numHits = 0;
+		this.numMisses = 0;
+	}
+
+	public static String makeKey(MSKStarSettings settings, int subState, boolean doPruning) {
+		MSSearchProblem search = settings.search[subState];
+		StringBuilder sb = new StringBuilder();
+		sb.append(settings.state).append("|");
+		sb.append(subState).append("|");
+		sb.append(settings.pfTypes[subState]).append("|");
+		sb.append(search.contSCFlex ? "cont" : "disc").append("|");
+		sb.append(search.settings.getFormattedSequence()).append("|");
+		sb.append(doPruning).append("|");
+		sb.append(search.settings.pruningWindow).append("|");
+		sb.append(search.settings.stericThreshold).append("|");
+		sb.append(settings.targetEpsilon);
+		return sb.toString();
+	}
+
+	/**
+	 * returns the entry for key, making an empty entry if there isn't one yet.
+	 * callers should lock the entry while making or computing its partition function
+	 */
+	public synchronized Entry get(String key) {
+		Entry entry = entries.get(key);
+		if(entry == null) {
+			numMisses++;
+			entry = new Entry(key);
+			entries.put(key, entry);
+		} else {
+			numHits++;
+		}
+		return entry;
+	}
+
+	/**
+	 * re-estimates the heap held by the entry's partition function, then evicts
+	 * the least recently used entries until the cache is back under its budget.
+	 * callers should hold the entry lock, so the partition function isn't being computed
+	 */
+	public void update(Entry entry) {
+		PartitionFunctionMinimized pf = entry.getPartitionFunction();
+		setNumBytes(entry, pf == null ? 0 : pf.estimateMemoryBytes());
+	}
+
+	synchronized void setNumBytes(Entry entry, long entryBytes) {
+
+		// the entry may have been evicted already, so don't count it again
+		if(entries.get(entry.key) != entry)
+			return;
+
+		numBytes += entryBytes - entry.numBytes;
+		entry.numBytes = entryBytes;
+
+		// always keep the most recently used entry, even if it's over budget on its own
+		Iterator<Entry> iter = entries.values().iterator();
+		while(numBytes > maxNumBytes && entries.size() > 1) {
+			Entry eldest = iter.next();
+			numBytes -= eldest.numBytes;
+			iter.remove();
+		}
+	}
+
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	public synchronized long getNumBytes() {
+		return numBytes;
+	}
+
+	public long getMaxNumBytes() {
+		return maxNumBytes;
+	}
+
+	public synchronized long getNumHits() {
+		return numHits;
+	}
+
+	public synchronized long getNumMisses() {
+		return numMisses;
+	}
+
+	public synchronized void clear() {
+		entries.clear();
+		numBytes = 0;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return String.format("partition function cache: %d entries, %.1f/%.1f MB, %d hits, %d misses",
+				entries.size(), numBytes/1024.0/1024.0, maxNumBytes/1024.0/1024.0, numHits, numMisses);
+	}
+}
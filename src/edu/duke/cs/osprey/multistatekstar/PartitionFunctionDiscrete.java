@@ -8,6 +8,7 @@ import edu.duke.cs.osprey.confspace.ConfSearch.ScoredConf;
 import edu.duke.cs.osprey.control.ConfSearchFactory;
 import edu.duke.cs.osprey.ematrix.EnergyMatrix;
 import edu.duke.cs.osprey.pruning.PruningMatrix;
+import edu.duke.cs.osprey.tools.BigExp;
 
 /**
  * 
@@ -41,8 +42,10 @@ public class PartitionFunctionDiscrete extends PartitionFunctionMinimized {
 			throw new IllegalStateException("can't continue from status " + status);
 		}
 
+		loadValues();
+
 		ScoredConf conf;
-		BigDecimal scoreWeight;
+		BigExp scoreWeight;
 		
 		int stopAtConf = numConfsEvaluated + maxNumConfs;
 
@@ -68,11 +71,11 @@ public class PartitionFunctionDiscrete extends PartitionFunctionMinimized {
 				lastScore = conf.getScore();
 			}
 
-			scoreWeight = boltzmann.calc(conf.getScore());
+			scoreWeight = boltzmann.calcBigExp(conf.getScore());
 			numConfsToScore = numConfsToScore.subtract(BigInteger.ONE);
 
-			if (scoreWeight.compareTo(BigDecimal.ZERO) == 0) {
-				values.qprime = updateQprime(scoreWeight);
+			if (scoreWeight.isZero()) {
+				qprime = updateQprime(scoreWeight);
 				double effectiveEpsilon = getEffectiveEpsilon();	
 				if (!Double.isNaN(effectiveEpsilon) && effectiveEpsilon <= targetEpsilon) status = Status.Estimated;
 				else if(status != Status.Estimated) status = Status.NotEnoughFiniteEnergies;
@@ -81,8 +84,8 @@ public class PartitionFunctionDiscrete extends PartitionFunctionMinimized {
 
 			if(status == Status.Estimating) {
 
-				values.qstar = values.qstar.add(scoreWeight);
-				values.qprime = updateQprime(scoreWeight);
+				qstar = qstar.add(scoreWeight);
+				qprime = updateQprime(scoreWeight);
 
 				// report progress if needed
 				if (isReportingProgress && numConfsEvaluated % 1024 == 0) {
@@ -101,10 +104,14 @@ public class PartitionFunctionDiscrete extends PartitionFunctionMinimized {
 				}
 				else if (effectiveEpsilon <= targetEpsilon) {
 					status = Status.Estimated;
-					if (isReportingProgress) phase1Output(conf);//just to let the user know we reached epsilon
+					if (isReportingProgress) {
+						phase1Output(conf);//just to let the user know we reached epsilon
+					}
 				}
 			}
 		}
+
+		saveValues();
 	}
 
 	public void compute(BigDecimal targetScoreWeights) {
@@ -113,13 +120,17 @@ public class PartitionFunctionDiscrete extends PartitionFunctionMinimized {
 			throw new IllegalStateException("can't continue from status " + status);
 		}
 
+		BigExp targetWeights = BigExp.valueOf(targetScoreWeights);
+
+		loadValues();
+
 		ScoredConf conf;
-		BigDecimal scoreWeight;
+		BigExp scoreWeight;
 
 		while (true) {
 
 			// should we keep going?
-			if (!status.canContinue() || qstarScoreWeights.compareTo(targetScoreWeights) >= 0) {
+			if (!status.canContinue() || qstarScoreWeights.compareTo(targetWeights) >= 0) {
 				break;
 			}
 
@@ -130,11 +141,11 @@ public class PartitionFunctionDiscrete extends PartitionFunctionMinimized {
 
 			numConfsEvaluated++;
 
-			scoreWeight = boltzmann.calc(conf.getScore());
+			scoreWeight = boltzmann.calcBigExp(conf.getScore());
 			numConfsToScore = numConfsToScore.subtract(BigInteger.ONE);
 
-			if (scoreWeight.compareTo(BigDecimal.ZERO) == 0) {
-				values.qprime = updateQprime(scoreWeight);
+			if (scoreWeight.isZero()) {
+				qprime = updateQprime(scoreWeight);
 				double effectiveEpsilon = getEffectiveEpsilon();	
 				if (!Double.isNaN(effectiveEpsilon) && effectiveEpsilon <= targetEpsilon) status = Status.Estimated;
 				else if(status != Status.Estimated) status = Status.NotEnoughFiniteEnergies;
@@ -146,9 +157,9 @@ public class PartitionFunctionDiscrete extends PartitionFunctionMinimized {
 				qstarScoreWeights = qstarScoreWeights.add(scoreWeight);	
 
 				// update pfunc state
-				values.qstar = values.qstar.add(scoreWeight);
-				values.qprime = updateQprime(scoreWeight);
-				BigDecimal pdiff = targetScoreWeights.subtract(qstarScoreWeights);
+				qstar = qstar.add(scoreWeight);
+				qprime = updateQprime(scoreWeight);
+				BigExp pdiff = targetWeights.subtract(qstarScoreWeights);
 
 				// report progress if needed
 				if (isReportingProgress && numConfsEvaluated % 1024 == 0) {
@@ -167,17 +178,21 @@ public class PartitionFunctionDiscrete extends PartitionFunctionMinimized {
 				}
 				else if (effectiveEpsilon <= targetEpsilon) {
 					status = Status.Estimated;
-					if (isReportingProgress) phase2Output(conf, pdiff);
+					if (isReportingProgress) {
+						phase2Output(conf, pdiff);
+					}
 				}
 			}
 		}
+
+		saveValues();
 	}
 
-	protected BigDecimal updateQprime(BigDecimal val) {
-		return val.multiply(new BigDecimal(numConfsToScore.toString()));
+	protected BigExp updateQprime(BigExp val) {
+		return val.multiply(numConfsToScore);
 	}
 
 	protected double getEffectiveEpsilon() {
-		return values.getEffectiveEpsilon();
+		return Values.getEffectiveEpsilon(qstar, qprime, pstar);
 	}
 }
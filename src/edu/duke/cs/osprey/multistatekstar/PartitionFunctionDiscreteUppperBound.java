@@ -3,11 +3,11 @@ package edu.duke.cs.osprey.multistatekstar;
 import edu.duke.cs.osprey.control.ConfEnergyCalculator.Async;
 
 import java.math.BigDecimal;
-import java.math.RoundingMode;
 
 import edu.duke.cs.osprey.control.ConfSearchFactory;
 import edu.duke.cs.osprey.ematrix.EnergyMatrix;
 import edu.duke.cs.osprey.pruning.PruningMatrix;
+import edu.duke.cs.osprey.tools.BigExp;
 
 /**
  * @author Adegoke Ojewole (ao68@duke.edu)
@@ -44,16 +44,16 @@ public class PartitionFunctionDiscreteUppperBound extends PartitionFunctionDiscr
 
 	@Override
 	protected double getEffectiveEpsilon() {
-		BigDecimal s = values.qprime.add(values.pstar);
-		BigDecimal q = s.add(values.qstar);
+		BigExp s = qprime.add(pstar);
+		BigExp q = s.add(qstar);
 
-		if (q.compareTo(BigDecimal.ZERO) == 0) {
+		if (q.isZero()) {
 			// this is really bad... it should never happen
 			// it probably means there are zero conformations in the tree
 			return Double.NaN;
 		}
 
-		return s.divide(values.qstar, RoundingMode.HALF_UP).doubleValue();
+		return s.divide(qstar).doubleValue();
 	}
 
 }
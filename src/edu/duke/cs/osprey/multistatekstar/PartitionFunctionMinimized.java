@@ -7,7 +7,6 @@ import java.lang.management.ManagementFactory;
 import java.lang.management.MemoryUsage;
 import java.math.BigDecimal;
 import java.math.BigInteger;
-import java.math.RoundingMode;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
@@ -18,9 +17,11 @@ import edu.duke.cs.osprey.confspace.ConfSearch.EnergiedConf;
 import edu.duke.cs.osprey.confspace.ConfSearch.ScoredConf;
 import edu.duke.cs.osprey.control.ConfSearchFactory;
 import edu.duke.cs.osprey.astar.conf.ConfAStarTree;
+import edu.duke.cs.osprey.astar.conf.queue.SpillingConfAStarQueue;
 import edu.duke.cs.osprey.ematrix.EnergyMatrix;
 import edu.duke.cs.osprey.kstar.pfunc.ParallelConfPartitionFunction;
 import edu.duke.cs.osprey.pruning.PruningMatrix;
+import edu.duke.cs.osprey.tools.BigExp;
 import edu.duke.cs.osprey.tools.ObjectIO;
 import edu.duke.cs.osprey.tools.Stopwatch;
 
@@ -32,14 +33,23 @@ import edu.duke.cs.osprey.tools.Stopwatch;
 public class PartitionFunctionMinimized extends ParallelConfPartitionFunction {
 
 	public static boolean SYNCHRONIZED_MINIMIZATION = false;
+
+	// rough heap cost of a conf we hold on to: the conf object, its assignments array header, and a list slot
+	private static final int BytesPerConf = 48;
 	
 	protected PriorityQueue<ScoredConf> topConfs;
 	protected int maxNumTopConfs;
-	protected BigDecimal qstarScoreWeights;
+	protected BigExp qstarScoreWeights;
 	protected int numActiveThreads;
 	protected PruningMatrix invmat;
 	protected ArrayList<ScoredConf> scoredConfs;
 	protected ArrayList<EnergiedConf> energiedConfs;
+	protected ConfSearch tree;
+	protected ConfSearch.Splitter confsSplitter;
+	
+	// q* is summed as a BigExp, but callers can still replace values.qstar (eg, to start phase 2 from the phase 1 q*)
+	// so remember which value we last wrote, to notice when that happens
+	private BigDecimal savedQstar;
 
 	public PartitionFunctionMinimized(
 			EnergyMatrix emat, 
@@ -54,6 +64,9 @@ public class PartitionFunctionMinimized extends ParallelConfPartitionFunction {
 		this.topConfs = null;
 		this.scoredConfs = null;
 		this.energiedConfs = null;
+		this.tree = null;
+		this.confsSplitter = null;
+		this.savedQstar = null;
 	}
 
 	protected void writeTopConfs(int state, MSSearchProblem search) {
@@ -106,20 +119,25 @@ public class PartitionFunctionMinimized extends ParallelConfPartitionFunction {
 		// compute p*: boltzmann-weight the scores for all pruned conformations
 		ConfSearch ptree = confSearchFactory.make(emat, invmat);
 		if(ptree instanceof ConfAStarTree) ((ConfAStarTree)ptree).stopProgress();
-		values.pstar = calcWeightSumUpperBound(ptree);
+		pstar = calcWeightSumUpperBound(ptree);
+		values.pstar = pstar.toBigDecimal();
+		if(ptree instanceof ConfAStarTree) ((ConfAStarTree)ptree).closeQueue();
 
 		// make the search tree for computing q*
-		ConfSearch tree = confSearchFactory.make(emat, pmat);
+		tree = confSearchFactory.make(emat, pmat);
 		if(tree instanceof ConfAStarTree) ((ConfAStarTree)tree).stopProgress();
-		ConfSearch.Splitter confsSplitter = new ConfSearch.Splitter(tree);
+		confsSplitter = new ConfSearch.Splitter(tree);
 		scoreConfs = confsSplitter.makeStream();
 		energyConfs = confsSplitter.makeStream();
 		numConfsEvaluated = 0;
 		numConfsToScore = tree.getNumConformations();		
-		qprimeUnevaluated = BigDecimal.ZERO;
-		qprimeUnscored = BigDecimal.ZERO;
+		qprimeUnevaluated = BigExp.ZERO;
+		qprimeUnscored = BigExp.ZERO;
+		qstar = BigExp.ZERO;
+		qprime = BigExp.ZERO;
+		savedQstar = values.qstar;
 
-		qstarScoreWeights = BigDecimal.ZERO;
+		qstarScoreWeights = BigExp.ZERO;
 		numActiveThreads = 0;
 		maxNumTopConfs = 0;
 
@@ -127,7 +145,7 @@ public class PartitionFunctionMinimized extends ParallelConfPartitionFunction {
 	}
 
 	@Override
-	protected BigDecimal updateQprime(EnergiedConf econf) {
+	protected BigExp updateQprime(EnergiedConf econf) {
 
 		// look through the conf tree to get conf scores
 		// (which should be lower bounds on the conf energy)
@@ -136,33 +154,58 @@ public class PartitionFunctionMinimized extends ParallelConfPartitionFunction {
 			// read a conf from the tree
 			ScoredConf conf = scoreConfs.next();
 			if (conf == null) {
-				qprimeUnscored = BigDecimal.ZERO;
+				qprimeUnscored = BigExp.ZERO;
 				break;
 			}
 
 			// get the boltzmann weight
-			BigDecimal scoreWeight = boltzmann.calc(conf.getScore());
-			if (scoreWeight.compareTo(BigDecimal.ZERO) == 0) {
-				qprimeUnscored = BigDecimal.ZERO;
+			BigExp scoreWeight = boltzmann.calcBigExp(conf.getScore());
+			if (scoreWeight.isZero()) {
+				qprimeUnscored = BigExp.ZERO;
 				break;
 			}
 
 			// update q' parts
 			numConfsToScore = numConfsToScore.subtract(BigInteger.ONE);
 			qprimeUnevaluated = qprimeUnevaluated.add(scoreWeight);
-			qprimeUnscored = scoreWeight.multiply(new BigDecimal(numConfsToScore));
+			qprimeUnscored = scoreWeight.multiply(numConfsToScore);
 
 			// stop if the bound on q' is tight enough
-			double effectiveEpsilon = qprimeUnscored.divide(qprimeUnevaluated.add(qprimeUnscored), RoundingMode.HALF_UP).doubleValue();
+			double effectiveEpsilon = qprimeUnscored.divide(qprimeUnevaluated.add(qprimeUnscored)).doubleValue();
 			if (effectiveEpsilon <= 0.01) {
 				break;
 			}
 		}
 
-		qprimeUnevaluated = qprimeUnevaluated.subtract(boltzmann.calc(econf.getScore()));
+		qprimeUnevaluated = qprimeUnevaluated.subtract(boltzmann.calcBigExp(econf.getScore()));
 		return qprimeUnevaluated.add(qprimeUnscored);
 	}
 
+	/**
+	 * picks up q* if someone replaced values.qstar since we last saved it
+	 */
+	protected void loadValues() {
+		if (values.qstar != savedQstar) {
+			qstar = BigExp.valueOf(values.qstar);
+			savedQstar = values.qstar;
+		}
+	}
+
+	/**
+	 * copies the BigExp sums to the values
+	 */
+	protected void saveValues() {
+		values.qstar = savedQstar = qstar.toBigDecimal();
+		values.qprime = qprime.toBigDecimal();
+	}
+
+	@Override
+	protected void updateValues() {
+		// don't overwrite a q* someone else put in the values
+		loadValues();
+		saveValues();
+	}
+
 	protected void waitForAllThreads() {
 		while(numActiveThreads > 0) {
 			try { this.wait(); } catch (InterruptedException e) { e.printStackTrace(); }
@@ -185,7 +228,7 @@ public class PartitionFunctionMinimized extends ParallelConfPartitionFunction {
 			return null;
 		}
 
-		if (boltzmann.calc(conf.getScore()).compareTo(BigDecimal.ZERO) == 0) {
+		if (boltzmann.calcBigExp(conf.getScore()).isZero()) {
 			if (SYNCHRONIZED_MINIMIZATION) {
 				if(status != Status.Estimated && numScored == 0) 
 					status = Status.NotEnoughFiniteEnergies;
@@ -226,12 +269,12 @@ public class PartitionFunctionMinimized extends ParallelConfPartitionFunction {
 		if(status == Status.Estimating) {
 
 			// get the boltzmann weight
-			BigDecimal energyWeight = boltzmann.calc(econf.getEnergy());
+			BigExp energyWeight = boltzmann.calcBigExp(econf.getEnergy());
 
 			// update pfunc state
 			numConfsEvaluated++;
-			values.qstar = values.qstar.add(energyWeight);
-			values.qprime = updateQprime(econf);
+			qstar = qstar.add(energyWeight);
+			qprime = updateQprime(econf);
 
 			// report progress if needed
 			if (isReportingProgress && numConfsEvaluated % ecalc.getParallelism() == 0) {
@@ -244,7 +287,7 @@ public class PartitionFunctionMinimized extends ParallelConfPartitionFunction {
 			}
 
 			// update status if needed
-			double effectiveEpsilon = values.getEffectiveEpsilon();
+			double effectiveEpsilon = Values.getEffectiveEpsilon(qstar, qprime, pstar);
 			if(Double.isNaN(effectiveEpsilon)) {
 				status = Status.NotEnoughFiniteEnergies;
 			}
@@ -258,19 +301,19 @@ public class PartitionFunctionMinimized extends ParallelConfPartitionFunction {
 		this.notify();
 	}
 
-	protected void handlePhase2Conf(EnergiedConf econf, BigDecimal targetScoreWeights) {
+	protected void handlePhase2Conf(EnergiedConf econf, BigExp targetScoreWeights) {
 		if(status == Status.Estimating) {
 
 			// get the boltzmann weight
-			BigDecimal scoreWeight = boltzmann.calc(econf.getScore());
-			qstarScoreWeights = qstarScoreWeights.add(scoreWeight);	
-			BigDecimal energyWeight = boltzmann.calc(econf.getEnergy());
+			BigExp scoreWeight = boltzmann.calcBigExp(econf.getScore());
+			qstarScoreWeights = qstarScoreWeights.add(scoreWeight);
+			BigExp energyWeight = boltzmann.calcBigExp(econf.getEnergy());
 
 			// update pfunc state
 			numConfsEvaluated++;
-			values.qstar = values.qstar.add(energyWeight);
-			values.qprime = updateQprime(econf);
-			BigDecimal pdiff = targetScoreWeights.subtract(qstarScoreWeights);
+			qstar = qstar.add(energyWeight);
+			qprime = updateQprime(econf);
+			BigExp pdiff = targetScoreWeights.subtract(qstarScoreWeights);
 
 			// report progress if needed
 			if (isReportingProgress && numConfsEvaluated % ecalc.getParallelism() == 0) {
@@ -283,7 +326,7 @@ public class PartitionFunctionMinimized extends ParallelConfPartitionFunction {
 			}
 
 			// update status if needed
-			double effectiveEpsilon = values.getEffectiveEpsilon();
+			double effectiveEpsilon = Values.getEffectiveEpsilon(qstar, qprime, pstar);
 			if(Double.isNaN(effectiveEpsilon)) {
 				status = Status.NotEnoughFiniteEnergies;
 			}
@@ -305,6 +348,8 @@ public class PartitionFunctionMinimized extends ParallelConfPartitionFunction {
 			throw new IllegalStateException("can't continue from status " + status);
 		}
 
+		loadValues();
+
 		int stopAtConf = numConfsEvaluated + maxNumConfs;
 		while (true) {
 
@@ -376,6 +421,7 @@ public class PartitionFunctionMinimized extends ParallelConfPartitionFunction {
 	}
 
 	void phase1Output(ScoredConf conf) {
+		saveValues();
 		MemoryUsage heapMem = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
 		double confVal = conf instanceof EnergiedConf ? ((EnergiedConf)conf).getEnergy() : conf.getScore();
 		System.out.println(String.format("conf: %4d, energy: %.6f, q*: %12e, q': %12e, p*: %12e, epsilon: %.6f, time: %10s, heapMem: %.0f%%",
@@ -392,6 +438,9 @@ public class PartitionFunctionMinimized extends ParallelConfPartitionFunction {
 			throw new IllegalStateException("can't continue from status " + status);
 		}
 
+		loadValues();
+		BigExp targetWeights = BigExp.valueOf(targetScoreWeights);
+
 		int stopAtConf = numConfsEvaluated + maxNumConfs;
 		while (true) {
 
@@ -403,7 +452,7 @@ public class PartitionFunctionMinimized extends ParallelConfPartitionFunction {
 
 				// should we keep going?
 				if (!status.canContinue() 
-						|| qstarScoreWeights.compareTo(targetScoreWeights) >= 0 
+						|| qstarScoreWeights.compareTo(targetWeights) >= 0 
 						|| numConfsEvaluated >= stopAtConf) {
 					break;
 				}
@@ -440,7 +489,7 @@ public class PartitionFunctionMinimized extends ParallelConfPartitionFunction {
 
 				synchronized (this) {
 					for (EnergiedConf econf : energiedConfs) 
-						handlePhase2Conf(econf, targetScoreWeights);
+						handlePhase2Conf(econf, targetWeights);
 				}
 				energiedConfs.clear();
 			}
@@ -452,7 +501,7 @@ public class PartitionFunctionMinimized extends ParallelConfPartitionFunction {
 					// this is (potentially) running on a task executor listener thread
 					// so lock to keep from racing the main thread
 					synchronized (this) {
-						handlePhase2Conf(econf, targetScoreWeights);
+						handlePhase2Conf(econf, targetWeights);
 					}
 				});
 			}
@@ -462,10 +511,11 @@ public class PartitionFunctionMinimized extends ParallelConfPartitionFunction {
 		ecalc.waitForFinish();
 	}
 
-	protected void phase2Output(ScoredConf conf, BigDecimal pdiff) {
+	protected void phase2Output(ScoredConf conf, BigExp pdiff) {
+		saveValues();
 		MemoryUsage heapMem = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
 		double val = conf instanceof EnergiedConf ? ((EnergiedConf)conf).getEnergy() : conf.getScore();
-		System.out.println(String.format("conf: %4d, energy: %.6f, q*: %12e, q': %12e, score diff: %12e, epsilon: %.6f, time: %10s, heapMem: %.0f%%",
+		System.out.println(String.format("conf: %4d, energy: %.6f, q*: %12e, q': %12e, score diff: %s, epsilon: %.6f, time: %10s, heapMem: %.0f%%",
 				numConfsEvaluated, val, values.qstar, values.qprime, pdiff, values.getEffectiveEpsilon(),
 				stopwatch.getTime(2),
 				100f*heapMem.getUsed()/heapMem.getMax()
@@ -482,6 +532,33 @@ public class PartitionFunctionMinimized extends ParallelConfPartitionFunction {
 
 		scoredConfs = null;
 		energiedConfs = null;
+
+		if(tree instanceof ConfAStarTree) ((ConfAStarTree)tree).closeQueue();
+		tree = null;
+		confsSplitter = null;
+	}
+
+	/**
+	 * roughly how many bytes of heap this partition function holds on to,
+	 * ie, its A* queue, its buffered and saved confs, and its pruning matrix
+	 */
+	public long estimateMemoryBytes() {
+		long numBytes = 0;
+
+		if(tree instanceof ConfAStarTree)
+			numBytes += (long)((ConfAStarTree)tree).getQueueSize()*SpillingConfAStarQueue.getBytesPerNode();
+
+		long numConfs = 0;
+		if(confsSplitter != null) numConfs += confsSplitter.getBufferSize();
+		if(topConfs != null) numConfs += topConfs.size();
+		if(scoredConfs != null) numConfs += scoredConfs.size();
+		if(energiedConfs != null) numConfs += energiedConfs.size();
+		if(numConfs > 0) numBytes += numConfs*(BytesPerConf + 4L*emat.getNumPos());
+
+		if(pmat != null)
+			numBytes += 8L*pmat.getNumPairwiseWords();
+
+		return numBytes;
 	}
 	
 	public void setNumConfsEvaluated(int val) {
@@ -33,7 +33,7 @@ public class PruningMatrixInverted extends PruningMatrix {
 	}
 
 	@Override
-	public Boolean getOneBody(int res, int index) {
+	public boolean getOneBodyB(int res, int index) {
 		String rcAAType = search.confSpace.posFlex.get(res).RCs.get(index).AAType;
 
 		//if not in specified list, then already marked as pruned in reduced matrix
@@ -61,7 +61,7 @@ public class PruningMatrixInverted extends PruningMatrix {
 	}
 
 	@Override
-	public Boolean getPairwise(int res1, int index1, int res2, int index2) {
+	public boolean getPairwiseB(int res1, int index1, int res2, int index2) {
 		if(contains(res1, index1, res2, index2)) {
 			if(!getOneBody(res1, index1) && !getOneBody(res2, index2))
 				return false;
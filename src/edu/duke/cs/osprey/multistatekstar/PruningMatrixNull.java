@@ -25,12 +25,12 @@ public class PruningMatrixNull extends PruningMatrix {
 	}
 	
 	@Override
-	public Boolean getOneBody(int res, int index) {
+	public boolean getOneBodyB(int res, int index) {
 		return true;
 	}
 	
 	@Override
-	public Boolean getPairwise(int res1, int index1, int res2, int index2) {
+	public boolean getPairwiseB(int res1, int index1, int res2, int index2) {
 		return true;
 	}
 	
@@ -6,10 +6,14 @@ public class ThreadParallelism {
 
 	// the default number of threads should probably always be 1
 	// until the user decides to commit more resources to the process
-	// especially since this value gets sent to MultiTermEnergyFunction,
-	// which actually performs worse with more threads on small/medium designs!
+	// especially since this value sizes the common ForkJoinPool that MultiTermEnergyFunction
+	// and ParallelEnergyFunction use. ParallelEnergyFunction won't split small designs into
+	// chunks smaller than it can afford, but there's still no free lunch.
 	private static int NUM_THREADS = 1; //Runtime.getRuntime().availableProcessors()/2;
 	
+	// for when the common pool got made before we could size it
+	private static ForkJoinPool pool = null;
+	
 	static {
 		// make sure the ForkJoinPool uses our default, and not its own default
 		setForkJoinPoolConstructorArg(NUM_THREADS);
@@ -55,6 +59,24 @@ public class ThreadParallelism {
 		return NUM_THREADS;
 	}
 	
+	/**
+	 * A ForkJoinPool with getNumThreads() threads. That's the common pool if it has the right size,
+	 * which it won't if something used the common pool before we could set the number of threads.
+	 */
+	public static synchronized ForkJoinPool getPool() {
+		
+		if (ForkJoinPool.commonPool().getParallelism() == NUM_THREADS) {
+			return ForkJoinPool.commonPool();
+		}
+		
+		// don't shut down the old pool, someone might still be using it
+		// its threads will time out once they're idle anyway
+		if (pool == null || pool.getParallelism() != NUM_THREADS) {
+			pool = new ForkJoinPool(NUM_THREADS);
+		}
+		return pool;
+	}
+	
 	public static void setDefaultNumThreads() {
 		setNumThreads( NUM_THREADS );
 	}
@@ -96,6 +96,22 @@ public class ThreadPoolTaskExecutor extends TaskExecutor implements GarbageDetec
 		Cleaner.addCleaner(this, threads);
 	}
 	
+	/**
+	 * Changes how many task threads there are, e.g. when the resources the tasks wait on come and go.
+	 * Extra threads stop after they finish their current tasks.
+	 */
+	public void setNumThreads(int numThreads) {
+		ThreadPoolExecutor pool = threads.pool;
+		if (numThreads > pool.getMaximumPoolSize()) {
+			pool.setMaximumPoolSize(numThreads);
+			pool.setCorePoolSize(numThreads);
+			pool.prestartAllCoreThreads();
+		} else if (numThreads < pool.getCorePoolSize()) {
+			pool.setCorePoolSize(numThreads);
+			pool.setMaximumPoolSize(numThreads);
+		}
+	}
+	
 	public void stop() {
 		if (threads != null) {
 			threads.clean();
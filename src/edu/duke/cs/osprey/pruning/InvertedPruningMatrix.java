@@ -19,16 +19,9 @@ public class InvertedPruningMatrix extends PruningMatrix {
 		// we just want to interpose on calls to the other pmat
 	}
 	
-	private Boolean invert(Boolean val) {
-		if (val == null) {
-			return null;
-		}
-		return !val;
-	}
-	
 	@Override
-	public Boolean getOneBody(int res, int conf) {
-		return invert(pmat.getOneBody(res, conf));
+	public boolean getOneBodyB(int res, int conf) {
+		return !pmat.getOneBodyB(res, conf);
 	}
 	
 	@Override
@@ -42,8 +35,8 @@ public class InvertedPruningMatrix extends PruningMatrix {
 	}
 	
 	@Override
-	public Boolean getPairwise(int res1, int conf1, int res2, int conf2) {
-		return invert(pmat.getPairwise(res1, conf1, res2, conf2));
+	public boolean getPairwiseB(int res1, int conf1, int res2, int conf2) {
+		return !pmat.getPairwiseB(res1, conf1, res2, conf2);
 	}
 	
 	@Override
@@ -5,15 +5,21 @@
 package edu.duke.cs.osprey.pruning;
 
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.TreeSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 import edu.duke.cs.osprey.confspace.ConfSpace;
 import edu.duke.cs.osprey.confspace.HigherTupleFinder;
+import edu.duke.cs.osprey.confspace.IntRCTuple;
 import edu.duke.cs.osprey.confspace.RCTuple;
 import edu.duke.cs.osprey.confspace.SearchProblem;
 import edu.duke.cs.osprey.confspace.TupleEnumerator;
 import edu.duke.cs.osprey.ematrix.EnergyMatrix;
 import edu.duke.cs.osprey.ematrix.epic.EPICMatrix;
+import edu.duke.cs.osprey.parallelism.ThreadParallelism;
 import edu.duke.cs.osprey.pruning.PruningMethod.CheckSumType;
 
 /**
@@ -51,6 +57,16 @@ public class Pruner {
     
     private boolean verbose = true;//print what we're doing
     
+    //competitive pruning checks candidates in parallel on this pool
+    //null means the pool from ThreadParallelism, so we use the configured number of threads
+    private ForkJoinPool pool = null;
+    
+    //don't remember witnesses for candidates if it would take more than this many words (64 MiB)
+    private static final long MaxWitnessWords = 1L << 23;
+    
+    //don't bother splitting up fewer candidates than this
+    private static final int MinCandidatesPerTask = 8;
+    
     public Pruner(SearchProblem searchSpace, boolean typeDep, double boundsThreshold, 
             double pruningInterval, boolean useEPIC, boolean useTupExp) {
         this(searchSpace, searchSpace.pruneMat, typeDep, boundsThreshold, pruningInterval, useEPIC, useTupExp);
@@ -97,6 +113,23 @@ public class Pruner {
         verbose = val;
     }
     
+    public void setPool(ForkJoinPool val) {
+        pool = val;
+    }
+    
+    public ForkJoinPool getPool() {
+        return pool == null ? ThreadParallelism.getPool() : pool;
+    }
+    
+    /**
+     * whether pruning checks candidates on many threads. that needs more than one thread,
+     * and an energy matrix that threads can read at once, e.g. not a LazyEnergyMatrix.
+     * otherwise, pruning checks candidates serially, and gets the same results
+     */
+    public boolean canCheckInParallel() {
+        return emat.hasThreadSafeReads() && getPool().getParallelism() > 1;
+    }
+    
     
     public boolean prune(String methodName){
         //convenience method
@@ -117,52 +150,238 @@ public class Pruner {
 			//prunedCandidate = canPrune(cand,method.cst,contELB);//non-competitive pruning attempt
 		}
 		
-        boolean prunedSomething = false;
-        boolean prunedSomethingThisCycle;
-
-        do {
-            prunedSomethingThisCycle = false;
-            
-            ArrayList<RCTuple> candidates = enumerateCandidates(method);
-            
-            for (RCTuple cand : candidates) {
-            	double contELB = 0;
-                if(useEPIC && cand.pos.size()>1)//EPIC gives us nothing for 1-pos pruning
-                    contELB = epicMat.minContE(cand);
-                
-                // skip candidates we've already pruned
-                if (pruneMat.isPruned(cand)) {
-                	continue;
-                }
-                    
-				//any of the candidates may also be used as a competitor...
-				for (RCTuple competitor : competitorPruneMat.unprunedRCTuplesAtPos(cand.pos)) {
-					
-					if(cand.isSameTuple(competitor) && contELB==0)//you can't prune yourself
-						//except if using EPIC (where we would be checking if contELB >= pruningInterval)
-						continue;
-					
-					if(typeDep){
-						//can only prune using competitors of same res type
-						if( !resTypesMatch(cand,competitor) )
-							continue;
-					}
-												
-					if (canPrune(cand, competitor, method.cst, contELB)) {
-						pruneMat.markAsPruned(cand);
-						prunedSomething = true;
-						prunedSomethingThisCycle = true;
-						break;
-					}
+		// Pruning happens in rounds. Each round checks candidates in parallel against the pruning matrix
+		// as it was at the start of the round, then prunes them serially in candidate order.
+		// So the results don't depend on the number of threads or the order the threads finish in.
+		// Like pruning one at a time, we only prune a candidate if its competitor is still unpruned,
+		// so two candidates can't prune each other (e.g. the last two RCs at a position).
+		// Otherwise, the candidate gets checked again next round.
+		
+		ArrayList<RCTuple> candidates = enumerateCandidates(method);
+		int numCandidates = candidates.size();
+		int numPos = confSpace.numPos;
+		
+		// EPIC bounds aren't thread-safe, so compute them all up front
+		double[] contELBs = new double[numCandidates];
+		if (useEPIC) {
+			for (int i=0; i<numCandidates; i++) {
+				RCTuple cand = candidates.get(i);
+				if (cand.pos.size() > 1) {//EPIC gives us nothing for 1-pos pruning
+					contELBs[i] = epicMat.minContE(cand);
 				}
-            }
-            
-        } while(prunedSomethingThisCycle);
+			}
+		}
+		
+		// After the first round, only revisit candidates that might have changed.
+		// Removing RCs can only raise the min over witnesses at a position if it removes the RC that attained the min,
+		// so remember which witness RCs attained the min for each candidate (one bit per RC, mod 64).
+		// Higher-order energies depend on the pruning matrix in other ways, so just revisit everything with those.
+		long[][] witnesses = null;
+		if (!emat.hasHigherOrderTerms() && !pruneMat.hasHigherOrderTerms() && (long)numCandidates*numPos <= MaxWitnessWords) {
+			witnesses = new long[numCandidates][];
+		}
+		
+		boolean[] isDone = new boolean[numCandidates];
+		boolean[] isDeferred = new boolean[numCandidates];
+		RCTuple[] competitors = new RCTuple[numCandidates];
+		int[] active = new int[numCandidates];
+		int numActive = 0;
+		for (int i=0; i<numCandidates; i++) {
+			active[numActive++] = i;
+		}
+		
+        boolean prunedSomething = false;
+        while (numActive > 0) {
+        	
+        	// skip candidates that are already pruned, e.g. pairs whose singles were pruned last round
+        	int numToCheck = 0;
+        	for (int i=0; i<numActive; i++) {
+        		int c = active[i];
+        		if (pruneMat.isPruned(candidates.get(c))) {
+        			isDone[c] = true;
+        		} else {
+        			active[numToCheck++] = c;
+        		}
+        	}
+        	numActive = numToCheck;
+        	
+        	// check all the active candidates, in parallel if we can
+        	checkCandidates(candidates, contELBs, witnesses, active, numActive, method, competitors);
+        	
+        	// prune everything we can, in candidate order
+        	long[] removedSingles = new long[numPos];
+        	Map<Integer,long[]> removedPairs = new HashMap<>();
+        	boolean removedHigher = false;
+        	boolean prunedSomethingThisRound = false;
+        	for (int i=0; i<numActive; i++) {
+        		int c = active[i];
+        		RCTuple competitor = competitors[c];
+        		if (competitor == null) {
+        			continue;
+        		}
+        		RCTuple cand = candidates.get(c);
+        		if (!cand.isSameTuple(competitor) && competitorPruneMat.isPruned(competitor)) {
+        			isDeferred[c] = true;
+        			continue;
+        		}
+        		pruneMat.markAsPruned(cand);
+        		isDone[c] = true;
+        		prunedSomething = true;
+        		prunedSomethingThisRound = true;
+        		
+        		// track what we removed, so we know which candidates to check next round
+        		if (cand.pos.size() == 1) {
+        			setWitnessBit(removedSingles, cand.pos.get(0), cand.RCs.get(0));
+        		} else if (cand.pos.size() == 2) {
+        			int pos1 = cand.pos.get(0);
+        			int rc1 = cand.RCs.get(0);
+        			int pos2 = cand.pos.get(1);
+        			int rc2 = cand.RCs.get(1);
+        			setWitnessBit(removedPairs.computeIfAbsent(getRCIndex(pos1, rc1), (key) -> new long[numPos]), pos2, rc2);
+        			setWitnessBit(removedPairs.computeIfAbsent(getRCIndex(pos2, rc2), (key) -> new long[numPos]), pos1, rc1);
+        		} else {
+        			removedHigher = true;
+        		}
+        	}
+        	
+        	if (!prunedSomethingThisRound) {
+        		break;
+        	}
+        	
+        	// pick the candidates for the next round
+        	numToCheck = 0;
+        	for (int i=0; i<numCandidates; i++) {
+        		if (isDone[i]) {
+        			continue;
+        		}
+        		if (isDeferred[i] || witnesses == null || witnesses[i] == null || removedHigher
+        			|| lostWitness(candidates.get(i), witnesses[i], removedSingles, removedPairs)) {
+        			active[numToCheck++] = i;
+        		}
+        		isDeferred[i] = false;
+        	}
+        	numActive = numToCheck;
+        }
         
         return prunedSomething;
     }
     
     
+    private void checkCandidates(ArrayList<RCTuple> candidates, double[] contELBs, long[][] witnesses,
+    		int[] active, int numActive, PruningMethod method, RCTuple[] competitors) {
+    	
+    	// NOTE: the pruning matrices are read-only while we check, and canCheckInParallel() makes sure
+    	// reading the energy matrix doesn't change it either, so the threads don't need to synchronize
+    	
+    	class Task extends RecursiveAction {
+    		
+			private static final long serialVersionUID = -5818446021233811064L;
+			
+			private final int start;
+    		private final int stop;
+    		
+    		public Task(int start, int stop) {
+    			this.start = start;
+    			this.stop = stop;
+    		}
+    		
+			@Override
+			protected void compute() {
+				if (stop - start <= MinCandidatesPerTask) {
+					checkCandidates(candidates, contELBs, witnesses, active, start, stop, method, competitors);
+				} else {
+					int mid = (start + stop)/2;
+					invokeAll(new Task(start, mid), new Task(mid, stop));
+				}
+			}
+    	}
+    	
+    	// don't call Task.compute() here, invokeAll() would fork the subtasks onto the common pool
+    	if (!canCheckInParallel() || numActive <= MinCandidatesPerTask) {
+    		checkCandidates(candidates, contELBs, witnesses, active, 0, numActive, method, competitors);
+    	} else {
+    		getPool().invoke(new Task(0, numActive));
+    	}
+    }
+    
+    
+    private void checkCandidates(ArrayList<RCTuple> candidates, double[] contELBs, long[][] witnesses,
+    		int[] active, int start, int stop, PruningMethod method, RCTuple[] competitors) {
+    	
+		for (int i=start; i<stop; i++) {
+			int c = active[i];
+			long[] candWitnesses = null;
+			if (witnesses != null) {
+				candWitnesses = new long[confSpace.numPos];
+			}
+			competitors[c] = findPruningCompetitor(candidates.get(c), method, contELBs[c], candWitnesses);
+			if (witnesses != null) {
+				witnesses[c] = candWitnesses;
+			}
+		}
+    }
+    
+    
+    private RCTuple findPruningCompetitor(RCTuple cand, PruningMethod method, double contELB, long[] witnesses) {
+    	//returns the first competitor that can prune the candidate, or null if none can
+    	
+		//any of the candidates may also be used as a competitor...
+		for (RCTuple competitor : competitorPruneMat.unprunedRCTuplesAtPos(cand.pos)) {
+			
+			if(cand.isSameTuple(competitor) && contELB==0)//you can't prune yourself
+				//except if using EPIC (where we would be checking if contELB >= pruningInterval)
+				continue;
+			
+			if(typeDep){
+				//can only prune using competitors of same res type
+				if( !resTypesMatch(cand,competitor) )
+					continue;
+			}
+			
+			if (canPrune(cand, competitor, method.cst, contELB, witnesses)) {
+				return competitor;
+			}
+		}
+		
+		return null;
+    }
+    
+    
+    private int getRCIndex(int pos, int rc) {
+    	// RCs per position fit easily in 16 bits
+    	return (pos << 16) | rc;
+    }
+    
+    
+    private static void setWitnessBit(long[] witnesses, int pos, int rc) {
+    	witnesses[pos] |= 1L << (rc & 63);
+    }
+    
+    
+    private boolean lostWitness(RCTuple cand, long[] candWitnesses, long[] removedSingles, Map<Integer,long[]> removedPairs) {
+    	
+    	// gather the witness RCs that are no longer compatible with the candidate
+    	int numPos = confSpace.numPos;
+    	long[] removed = removedSingles.clone();
+    	for (int i=0; i<cand.pos.size(); i++) {
+    		long[] removedWithCand = removedPairs.get(getRCIndex(cand.pos.get(i), cand.RCs.get(i)));
+    		if (removedWithCand != null) {
+    			for (int pos=0; pos<numPos; pos++) {
+    				removed[pos] |= removedWithCand[pos];
+    			}
+    		}
+    	}
+    	
+    	// did any of them attain a min for this candidate?
+    	for (int pos=0; pos<numPos; pos++) {
+    		if ((removed[pos] & candWitnesses[pos]) != 0 && !cand.pos.contains(pos)) {
+    			return true;
+    		}
+    	}
+    	return false;
+    }
+    
+    
     public ArrayList<RCTuple> enumerateCandidates(PruningMethod method){
         //enumerate RC tuples that are candidates for pruning by the specified method
         if(method.numPos<=2)//we can afford to do all pairs
@@ -203,9 +422,15 @@ public class Pruner {
     
     
     boolean canPrune(RCTuple cand, RCTuple comp, CheckSumType checkSumType, double contELB){
+        return canPrune(cand, comp, checkSumType, contELB, null);
+    }
+    
+    
+    boolean canPrune(RCTuple cand, RCTuple comp, CheckSumType checkSumType, double contELB, long[] witnesses){
         //see if competitive pruning is valid for the given candidate and competitor
         //contELB: A lower bound on the continuous portion of the energy for conformations
         //containing cand
+        //witnesses: if not null, the witness RCs that attain the min at each position are added here (see setWitnessBit())
         
                 
         //DEBUG!!!  Trying pruning of excessive local energy (for EPIC pruning)
@@ -224,9 +449,6 @@ public class Pruner {
         EnergyMatrix emat = this.emat;
         PruningMatrix pruneMat = this.pruneMat;
 		ArrayList<Integer> candpos = cand.pos;
-		ArrayList<Integer> candRCs = cand.RCs;
-		ArrayList<Integer> comppos = cand.pos;
-		ArrayList<Integer> compRCs = comp.RCs;
         
 		int numCandPos = candpos.size();
         ArrayList<Integer> unprunedRCs = new ArrayList<Integer>(64);
@@ -241,13 +463,22 @@ public class Pruner {
         int extraPosIndex = candAndExtraPos.size() - 1;
         int extraRCIndex = candAndExtraRCs.size() - 1;
         
-        double checkSum = emat.getInternalEnergy(cand);
+        // OPTIMIZATION: unbox the candidate and competitor once, since we'll read them a lot
+        IntRCTuple candTup = new IntRCTuple(cand);
+        IntRCTuple compTup = new IntRCTuple(comp);
+        
+        double checkSum = emat.getInternalEnergy(candTup);
         checkSum += contELB;
-        checkSum -= emat.getInternalEnergy(comp);
+        checkSum -= emat.getInternalEnergy(compTup);
         
 		// OPTIMIZATION: only check higher order terms if we actually have any
         boolean useHigherOrder = emat.hasHigherOrderTerms();
         
+        // OPTIMIZATION: without higher-order pruned tuples, a witness is compatible with the candidate
+        // exactly when none of its pairs with the candidate are pruned, so check whole rows of pairs at once
+        boolean usePrunedPairsMask = !pruneMat.hasHigherOrderTerms();
+        long[] prunedPairsMask = null;
+        
         if (checkSumType != CheckSumType.GOLDSTEIN) {            
             throw new RuntimeException("ERROR: Not supporting indirect and conf-splitting pruning yet...");
         }
@@ -264,6 +495,14 @@ public class Pruner {
             }
 
 			pruneMat.unprunedRCsAtPos(unprunedRCs, posWit);
+			
+			if (usePrunedPairsMask) {
+				int numWords = pruneMat.getNumWordsAtPos(posWit);
+				if (prunedPairsMask == null || prunedPairsMask.length < numWords) {
+					prunedPairsMask = new long[numWords];
+				}
+				pruneMat.getPrunedPairsMask(posWit, candTup.pos, candTup.RCs, numCandPos, prunedPairsMask);
+			}
 
 			// short circuit: no RCs means we can prune right now
 			if (unprunedRCs.isEmpty()) {
@@ -272,14 +511,22 @@ public class Pruner {
 			
 			//if no rc's at pos are compatible with cand, we can set infinite checkSum --> prune cand
 			double minDiff = Double.POSITIVE_INFINITY;
+			int minRC = -1;
 			for (int rcWit : unprunedRCs) {
 				
 				// is witness compatible with the candidate?
-				candAndExtraPos.set(extraPosIndex, posWit);
-				candAndExtraRCs.set(extraRCIndex, rcWit);
-				if (pruneMat.isPruned(candAndExtra)) {
-					// nope, don't even consider this combination
-					continue;
+				if (usePrunedPairsMask) {
+					if (PruningMatrix.isBitSet(prunedPairsMask, rcWit)) {
+						// nope, don't even consider this combination
+						continue;
+					}
+				} else {
+					candAndExtraPos.set(extraPosIndex, posWit);
+					candAndExtraRCs.set(extraRCIndex, rcWit);
+					if (pruneMat.isPruned(candAndExtra)) {
+						// nope, don't even consider this combination
+						continue;
+					}
 				}
 				
 				// compute the energy diff between the candidate and competitor
@@ -287,12 +534,12 @@ public class Pruner {
 				double diff = 0;
 				for (int i=0; i<numCandPos; i++) {
 					
-					int posCand = candpos.get(i);
-					int rcCand = candRCs.get(i);
-					int rcComp = compRCs.get(i);
+					int posCand = candTup.pos[i];
+					int rcCand = candTup.RCs[i];
+					int rcComp = compTup.RCs[i];
 					
-					diff += emat.getPairwise(posWit, rcWit, posCand, rcCand)
-						- emat.getPairwise(posWit, rcWit, posCand, rcComp);
+					diff += emat.getPairwiseD(posWit, rcWit, posCand, rcCand)
+						- emat.getPairwiseD(posWit, rcWit, posCand, rcComp);
 					
 					// short circuit: infinite energy means we can stop comparing right now
 					if (diff == Double.POSITIVE_INFINITY) {
@@ -303,7 +550,16 @@ public class Pruner {
 					diff += minInteractionDiffHigher(cand, comp, posWit, rcWit);
 				}
 				
-				minDiff = Math.min(minDiff, diff);
+				// same as Math.min(), including NaNs (e.g. from infinite energies), which block pruning
+				if (Double.isNaN(diff)) {
+					if (!Double.isNaN(minDiff)) {
+						minDiff = diff;
+						minRC = rcWit;
+					}
+				} else if (diff < minDiff || minRC < 0) {
+					minDiff = diff;
+					minRC = rcWit;
+				}
 			}
 			
 			// short circuit: infinite energy means we can prune right now
@@ -311,6 +567,10 @@ public class Pruner {
 				return true;
 			}
 			
+			if (witnesses != null) {
+				setWitnessBit(witnesses, posWit, minRC);
+			}
+			
 			checkSum += minDiff;
         }
                
@@ -394,13 +654,13 @@ public class Pruner {
                     //add up triple interactions of pos and ipos with any residues in cand
                     //subtract off interactions with residues in comp
                     for(HigherTupleFinder<Double> htf : candHigher){
-                        interactionE += htf.getInteraction(iPos, rc);
+                        interactionE += htf.getEnergy(iPos, rc);
                         
                         if( htf.getHigherInteractions(iPos, rc) != null )
                             throw new UnsupportedOperationException("ERROR: Not supporting energy >triples in DEE");
                     }
                     for(HigherTupleFinder<Double> htf : compHigher){
-                        interactionE -= htf.getInteraction(iPos, rc);
+                        interactionE -= htf.getEnergy(iPos, rc);
                         
                         if( htf.getHigherInteractions(iPos, rc) != null )
                             throw new UnsupportedOperationException("ERROR: Not supporting energy >triples in DEE");
@@ -426,7 +686,7 @@ public class Pruner {
         
         for(HigherTupleFinder<Double> htf : htfList){
             for(int posCount=0; posCount<tup.pos.size(); posCount++){
-                E += htf.getInteraction(tup.pos.get(posCount), tup.RCs.get(posCount));
+                E += htf.getEnergy(tup.pos.get(posCount), tup.RCs.get(posCount));
                 //will be 0 if current pos not in htf's interacting pos
                 //(including if current pos is part of the pair that htf corresponds to)
             }
@@ -498,7 +758,7 @@ public class Pruner {
                 
                 for( int rc2 : allowedRCs ){
                     
-                    double interactionE = emat.getPairwise(level,rc,level2,rc2);
+                    double interactionE = emat.getPairwiseD(level,rc,level2,rc2);
                     
                     //DEBUG!!!!
                     //double higherLB = higherOrderContribLB(partialConf,level,rc,level2,rc2,);
@@ -533,9 +793,9 @@ public class Pruner {
                 
                 double E;
                 if(numBodies==1)
-                    E = emat.getOneBody(cand.pos.get(0), cand.RCs.get(0));
+                    E = emat.getOneBodyD(cand.pos.get(0), cand.RCs.get(0));
                 else
-                    E = emat.getPairwise(cand.pos.get(0), cand.RCs.get(0), cand.pos.get(1), cand.RCs.get(1));
+                    E = emat.getPairwiseD(cand.pos.get(0), cand.RCs.get(0), cand.pos.get(1), cand.RCs.get(1));
                 
                 if( E > stericThresh ){
                     pruneMat.markAsPruned(cand);
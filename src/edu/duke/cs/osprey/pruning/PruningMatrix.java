@@ -4,12 +4,15 @@
  */
 package edu.duke.cs.osprey.pruning;
 
+import java.io.File;
 import java.util.ArrayList;
+import java.util.Arrays;
 
 import edu.duke.cs.osprey.confspace.ConfSpace;
 import edu.duke.cs.osprey.confspace.HigherTupleFinder;
 import edu.duke.cs.osprey.confspace.RCTuple;
 import edu.duke.cs.osprey.confspace.TupleMatrixBoolean;
+import edu.duke.cs.osprey.confspace.TupleMatrixFile;
 
 /**
  *
@@ -43,11 +46,16 @@ public class PruningMatrix extends TupleMatrixBoolean {
         fill(false);
     }
     
+    public PruningMatrix(int numPos, int[] numRCsAtPos, double pruningInterval) {
+        super(numPos, numRCsAtPos, pruningInterval, false);
+        fill(false);
+    }
+    
     public void unprunedRCsAtPos(ArrayList<Integer> out, int pos) {
     	out.clear();
     	int numRCs = getNumConfAtPos(pos);
 		for (int index=0; index<numRCs; index++) {
-			if(!getOneBody(pos,index))
+			if(!getOneBodyB(pos,index))
 				out.add(index);
 		}
     }
@@ -66,7 +74,7 @@ public class PruningMatrix extends TupleMatrixBoolean {
     	out.clear();
     	int numRCs = getNumConfAtPos(pos);
 		for (int index=0; index<numRCs; index++) {
-			if(getOneBody(pos,index))
+			if(getOneBodyB(pos,index))
 				out.add(index);
 		}
     }
@@ -91,7 +99,7 @@ public class PruningMatrix extends TupleMatrixBoolean {
         if(numPos==1){
             int posNum = pos.get(0);
             for(int rc=0; rc<getNumConfAtPos(posNum); rc++){
-                if(!getOneBody(posNum,rc))
+                if(!getOneBodyB(posNum,rc))
                     unpruned.add(new RCTuple(posNum,rc));
             }
         }
@@ -106,7 +114,7 @@ public class PruningMatrix extends TupleMatrixBoolean {
             int lastPos = pos.get(numPos-1);
             
             for(int rc=0; rc<getNumConfAtPos(lastPos); rc++){
-                if(!getOneBody(lastPos,rc)){
+                if(!getOneBodyB(lastPos,rc)){
                     for(RCTuple reducedTup : tupsReduced){//try to combine into an unpruned RC
                         
                         ArrayList<Integer> fullRCList = (ArrayList<Integer>)reducedTup.RCs.clone();
@@ -149,7 +157,7 @@ public class PruningMatrix extends TupleMatrixBoolean {
             int pos1 = tuppos.get(i1);
             int rc1 = tupRCs.get(i1);
             
-            if (getOneBody(pos1, rc1)) {
+            if (getOneBodyB(pos1, rc1)) {
                 return true;
             }
         }
@@ -163,7 +171,7 @@ public class PruningMatrix extends TupleMatrixBoolean {
                 int pos2 = tuppos.get(i2);
                 int rc2 = tupRCs.get(i2);
             
-                if (getPairwise(pos1, rc1, pos2, rc2)) {
+                if (getPairwiseB(pos1, rc1, pos2, rc2)) {
                     return true;
                 }
                 
@@ -182,6 +190,19 @@ public class PruningMatrix extends TupleMatrixBoolean {
     }
     
     
+    /**
+     * Sets a bit in mask for every RC at pos that is pruned as a pair with any of
+     * the first numOther RCs in otherPos,otherRCs. Singles and higher-order terms are not checked.
+     * The mask needs at least getNumWordsAtPos(pos) words, and can be read with isBitSet().
+     */
+    public void getPrunedPairsMask(int pos, int[] otherPos, int[] otherRCs, int numOther, long[] mask) {
+    	Arrays.fill(mask, 0, getNumWordsAtPos(pos), 0);
+    	for (int i=0; i<numOther; i++) {
+    		orPairwiseRow(otherPos[i], otherRCs[i], pos, mask);
+    	}
+    }
+    
+    
     public boolean isPrunedHigherOrder(RCTuple tup, int curIndex, HigherTupleFinder<Boolean> htf){
         //Checks if tup is pruned based on interactions in htf (corresponds to some sub-tuple of tup)
         //with RCs whose indices in tup are < curIndex
@@ -238,7 +259,7 @@ public class PruningMatrix extends TupleMatrixBoolean {
         for (int res1=0; res1<numPos; res1++) {
         	int m1 = getNumConfAtPos(res1);
         	for (int i1=0; i1<m1; i1++) {
-        		if (getOneBody(res1, i1) == true) {
+        		if (getOneBodyB(res1, i1)) {
         			count++;
         		}
         	}
@@ -257,7 +278,7 @@ public class PruningMatrix extends TupleMatrixBoolean {
         		for (int res2=0; res2<res1; res2++) {
         			int m2 = getNumConfAtPos(res2);
         			for (int i2=0; i2<m2; i2++) {
-        				if (getPairwise(res1, i1, res2, i2) == true) {
+        				if (getPairwiseB(res1, i1, res2, i2)) {
         					count++;
         				}
         			}
@@ -267,6 +288,31 @@ public class PruningMatrix extends TupleMatrixBoolean {
         return count;
     }
     
+    
+    //BINARY MATRIX FILES
+    //confSpaceHash identifies what the pruning was computed for (see TupleMatrixFile.hashConfSpace()),
+    //so files computed for anything else are ignored
+    
+    public void write(File file, long confSpaceHash) {
+    	try (TupleMatrixFile.Writer out = new TupleMatrixFile.Writer(file, TupleMatrixFile.Type.Pruning, confSpaceHash, this, 3)) {
+    		writeValues(out);
+    	}
+    }
+    
+    /**
+     * returns null if the file doesn't exist or was computed for a different conf space
+     */
+    public static PruningMatrix read(File file, long confSpaceHash) {
+    	try (TupleMatrixFile.Reader in = TupleMatrixFile.open(file, TupleMatrixFile.Type.Pruning, confSpaceHash)) {
+    		if (in == null) {
+    			return null;
+    		}
+    		PruningMatrix pmat = new PruningMatrix(in.numPos, in.numConfAtPos, in.pruningInterval);
+    		pmat.readValues(in);
+    		return pmat;
+    	}
+    }
+    
     /*boolean isPruned(RC rc){
         //look up 1-body
         return getOneBody(pos,rcNum);
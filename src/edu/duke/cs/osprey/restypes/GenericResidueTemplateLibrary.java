@@ -29,6 +29,8 @@ public class GenericResidueTemplateLibrary extends ResidueTemplateLibrary {
     //NAMING: We assume each distinct residue (AA or otherwise) has its own name
     //however, many residues will have multiple slightly different forms (N-terminal, etc.) 
     //and these will share a name and a rotamer library entry
+
+    private static final long serialVersionUID = -4071356245632291068L;
     
     
 
@@ -19,6 +19,8 @@ import edu.duke.cs.osprey.structure.Residue;
  */
 public class PositionSpecificRotamerLibrary extends ResidueTemplateLibrary {
 
+	private static final long serialVersionUID = 8319470145325563713L;
+
 	private Map<Integer, Map<String, List<ResidueTemplate>>> positionSpecificRotamers = new HashMap<>();
 	public static PositionSpecificRotamerLibrary generateLibraryFromPDB(String pdbFileName)
 	{
@@ -1,8 +1,11 @@
 package edu.duke.cs.osprey.restypes;
 
+import java.io.Serializable;
 import java.util.ArrayList;
 
-public abstract class ResidueTemplateLibrary {
+public abstract class ResidueTemplateLibrary implements Serializable {
+
+	private static final long serialVersionUID = 5296307478735405136L;
 
 	public ArrayList<ResidueTemplate> templates = new ArrayList<>();
 
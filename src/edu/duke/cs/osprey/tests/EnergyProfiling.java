@@ -8,10 +8,10 @@ import edu.duke.cs.osprey.control.ConfigFileParser;
 import edu.duke.cs.osprey.control.EnvironmentVars;
 import edu.duke.cs.osprey.energy.EnergyFunction;
 import edu.duke.cs.osprey.energy.MultiTermEnergyFunction;
-import edu.duke.cs.osprey.energy.ParallelEnergyFunction;
 import edu.duke.cs.osprey.energy.forcefield.ForcefieldParams;
 import edu.duke.cs.osprey.energy.forcefield.ResPairEnergy;
 import edu.duke.cs.osprey.energy.forcefield.SingleResEnergy;
+import edu.duke.cs.osprey.parallelism.ThreadParallelism;
 import edu.duke.cs.osprey.structure.Molecule;
 import edu.duke.cs.osprey.structure.PDBFileReader;
 import edu.duke.cs.osprey.structure.Residue;
@@ -35,7 +35,7 @@ public class EnergyProfiling {
 		// configure energy function parallelization
 		final int NumThreads = 4;
 		MultiTermEnergyFunction.setNumThreads(NumThreads);
-		ParallelEnergyFunction.startCrew(NumThreads);
+		ThreadParallelism.setNumThreadsIfPossible(NumThreads);
 		
 		// read a big test protein, the bigger the better
 		Molecule m = PDBFileReader.readPDBFile("2KDC.P.forOsprey.pdb", null);
@@ -0,0 +1,241 @@
+package edu.duke.cs.osprey.tools;
+
+import java.io.Serializable;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.MathContext;
+
+/**
+ * A floating-point number with a double mantissa and a long binary exponent, ie fp*2^exp.
+ *
+ * Boltzmann weights and partition function values overflow doubles very easily,
+ * but they only need about double precision, so this is a much faster alternative to BigDecimal
+ * for summing them. Instances are immutable, like BigDecimal.
+ */
+public class BigExp implements Comparable<BigExp>, Serializable {
+
+	private static final long serialVersionUID = -1405385632094786131L;
+
+	public static final BigExp ZERO = new BigExp(0.0);
+	public static final BigExp ONE = new BigExp(1.0);
+
+	private static final double Log2E = 1.0/Math.log(2);
+	private static final double Ln10 = Math.log(10);
+
+	// ln(2) split into high and low parts (from fdlibm),
+	// so x - n*ln(2) stays accurate for large n
+	private static final double Ln2Hi = 6.93147180369123816490e-01;
+	private static final double Ln2Lo = 1.90821492927058770002e-10;
+
+	// numbers more than 2^MaxExpDiff times smaller than the other operand don't affect a sum
+	private static final int MaxExpDiff = 64;
+
+	// normalized so 1 <= |fp| < 2, or fp is 0 and exp is 0
+	public final double fp;
+	public final long exp;
+
+	public BigExp(double fp) {
+		this(fp, 0);
+	}
+
+	public BigExp(double fp, long exp) {
+
+		if (Double.isNaN(fp) || Double.isInfinite(fp)) {
+			throw new IllegalArgumentException("mantissa must be finite, not " + fp);
+		}
+
+		if (fp == 0) {
+			this.fp = 0;
+			this.exp = 0;
+			return;
+		}
+
+		// subnormal numbers don't report their exponent correctly, so normalize them first
+		if (Math.getExponent(fp) < Double.MIN_EXPONENT) {
+			fp = Math.scalb(fp, 64);
+			exp -= 64;
+		}
+
+		int e = Math.getExponent(fp);
+		this.fp = Math.scalb(fp, -e);
+		this.exp = exp + e;
+	}
+
+	public static BigExp valueOf(BigInteger val) {
+		int shift = Math.max(0, val.bitLength() - 62);
+		return new BigExp(val.shiftRight(shift).longValue(), shift);
+	}
+
+	public static BigExp valueOf(BigDecimal val) {
+		if (val.signum() == 0) {
+			return ZERO;
+		}
+
+		// val = unscaled*10^-scale
+		return valueOf(val.unscaledValue()).multiply(exp(-val.scale()*Ln10));
+	}
+
+	/**
+	 * Returns e^x
+	 */
+	public static BigExp exp(double x) {
+
+		if (x == Double.NEGATIVE_INFINITY) {
+			return ZERO;
+		}
+		if (Double.isNaN(x) || Double.isInfinite(x)) {
+			throw new IllegalArgumentException("can't exponentiate " + x);
+		}
+
+		// e^x = 2^n * e^r, where r = x - n*ln(2) is in [0,ln(2))
+		double n = Math.floor(x*Log2E);
+		double r = (x - n*Ln2Hi) - n*Ln2Lo;
+		return new BigExp(Math.exp(r), (long)n);
+	}
+
+	public boolean isZero() {
+		return fp == 0;
+	}
+
+	public int signum() {
+		return (int)Math.signum(fp);
+	}
+
+	public BigExp negate() {
+		return new BigExp(-fp, exp);
+	}
+
+	public BigExp add(BigExp other) {
+
+		if (other.isZero()) {
+			return this;
+		} else if (isZero()) {
+			return other;
+		}
+
+		// shift the smaller number to the exponent of the bigger one
+		BigExp big = this;
+		BigExp small = other;
+		if (small.exp > big.exp) {
+			big = other;
+			small = this;
+		}
+		long diff = big.exp - small.exp;
+		if (diff > MaxExpDiff) {
+			return big;
+		}
+		return new BigExp(big.fp + Math.scalb(small.fp, (int)-diff), big.exp);
+	}
+
+	public BigExp subtract(BigExp other) {
+		return add(other.negate());
+	}
+
+	public BigExp multiply(BigExp other) {
+		return new BigExp(fp*other.fp, exp + other.exp);
+	}
+
+	public BigExp multiply(double val) {
+		return new BigExp(fp*val, exp);
+	}
+
+	public BigExp multiply(BigInteger val) {
+		return multiply(valueOf(val));
+	}
+
+	public BigExp divide(BigExp other) {
+		if (other.isZero()) {
+			throw new ArithmeticException("divide by zero");
+		}
+		return new BigExp(fp/other.fp, exp - other.exp);
+	}
+
+	public BigExp max(BigExp other) {
+		return compareTo(other) >= 0 ? this : other;
+	}
+
+	/**
+	 * Returns the natural log
+	 */
+	public double log() {
+		if (fp < 0) {
+			return Double.NaN;
+		} else if (fp == 0) {
+			return Double.NEGATIVE_INFINITY;
+		}
+		return Math.log(fp) + exp/Log2E;
+	}
+
+	public double log10() {
+		return log()/Ln10;
+	}
+
+	public double doubleValue() {
+
+		// Math.scalb() takes an int, so clamp the exponent somewhere beyond the double range first
+		long e = Math.max(-2*Double.MAX_EXPONENT, Math.min(2*Double.MAX_EXPONENT, exp));
+		return Math.scalb(fp, (int)e);
+	}
+
+	public BigDecimal toBigDecimal() {
+		return toBigDecimal(MathContext.DECIMAL128);
+	}
+
+	public BigDecimal toBigDecimal(MathContext mc) {
+		if (isZero()) {
+			return BigDecimal.ZERO;
+		}
+		if (exp > Integer.MAX_VALUE || exp < -Integer.MAX_VALUE) {
+			throw new ArithmeticException("exponent too large for BigDecimal: " + exp);
+		}
+		return new BigDecimal(fp).multiply(new BigDecimal(2).pow((int)exp, mc), mc);
+	}
+
+	@Override
+	public int compareTo(BigExp other) {
+
+		int sign = signum();
+		int otherSign = other.signum();
+		if (sign != otherSign) {
+			return Integer.compare(sign, otherSign);
+		} else if (sign == 0) {
+			return 0;
+		}
+
+		if (exp != other.exp) {
+			return sign*Long.compare(exp, other.exp);
+		}
+		return Double.compare(fp, other.fp);
+	}
+
+	@Override
+	public boolean equals(Object other) {
+		if (other instanceof BigExp) {
+			return compareTo((BigExp)other) == 0;
+		}
+		return false;
+	}
+
+	@Override
+	public int hashCode() {
+		return Double.hashCode(fp)*31 + Long.hashCode(exp);
+	}
+
+	@Override
+	public String toString() {
+
+		if (isZero()) {
+			return String.format("%e", 0.0);
+		}
+
+		// convert to base 10 for people
+		double log10 = Math.log10(Math.abs(fp)) + exp*Math.log10(2);
+		long exp10 = (long)Math.floor(log10);
+		double fp10 = Math.signum(fp)*Math.pow(10, log10 - exp10);
+		if (Math.abs(fp10) >= 9.9999995) {
+			fp10 /= 10;
+			exp10++;
+		}
+		return String.format("%.6fe%+03d", fp10, exp10);
+	}
+}
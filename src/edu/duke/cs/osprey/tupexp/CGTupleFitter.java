@@ -40,24 +40,27 @@ public class CGTupleFitter {
     //(A is matrix defined by samp, b is true energies)
     
     int numSamp, numTup;
-    TupleIndexMatrix tupIndMat;
-    ArrayList<int[]> samples;
+    SampleTupleMatrix A;//sparse, so we can apply A and A^T quickly and in parallel
     
-    ArrayList<Double> weights;//weights for samples
+    double[] weights;//weights for samples
     
     public CGTupleFitter(){}//for subclassing
     
     public CGTupleFitter(TupleIndexMatrix tim, ArrayList<int[]> samp, int numTuples, double[] trueVals, ArrayList<Double> weights){
         //We'll fit the specified (sample,trueVal) pairs to an expansion in the tuples in tim
         
-        samples = samp;
-        numSamp = samples.size();
+        A = new SampleTupleMatrix(tim, samp, numTuples);
+        numSamp = A.numSamples;
         numTup = numTuples;
-        tupIndMat = tim;
-        this.weights = weights;
+        
+        this.weights = new double[numSamp];
+        for(int s=0; s<numSamp; s++)
+            this.weights[s] = weights.get(s);
         
         
         AtA = new RealLinearOperator(){
+            
+            double Arv[] = new double[numSamp];
 
             @Override
             public int getRowDimension() {
@@ -71,22 +74,10 @@ public class CGTupleFitter {
 
             @Override
             public RealVector operate(RealVector rv) throws DimensionMismatchException {
-                //first apply A
-                double Arv[] = new double[numSamp];
-                for(int s=0; s<numSamp; s++){
-                    ArrayList<Integer> sampTup = tupIndMat.calcSampleTuples(samples.get(s));
-                    for(int t : sampTup)
-                        Arv[s] += rv.getEntry(t);
-                }
-                
-                //then apply A^T to Arv
+                //first apply A, then A^T (weighted)
+                A.multiply(toArray(rv), Arv);
                 double ans[] = new double[numTup];
-                for(int s=0; s<numSamp; s++){
-                    ArrayList<Integer> sampTup = tupIndMat.calcSampleTuples(samples.get(s));
-                    for(int t : sampTup)
-                        ans[t] += Arv[s] * weights.get(s);
-                }
-                
+                A.multiplyTranspose(Arv, CGTupleFitter.this.weights, ans);
                 return new ArrayRealVector(ans,false);//make RealVector without copying ans
             }
             
@@ -95,13 +86,48 @@ public class CGTupleFitter {
         
         double atb[] = new double[numTup];
         //apply A^T to true vals
-        for(int s=0; s<numSamp; s++){
-            ArrayList<Integer> sampTup = tupIndMat.calcSampleTuples(samples.get(s));
-            for(int t : sampTup)
-                atb[t] += trueVals[s] * weights.get(s);
-        }
+        A.multiplyTranspose(trueVals, this.weights, atb);
+        Atb = new ArrayRealVector(atb,false);
+    }
+    
+    
+    static double[] toArray(RealVector rv){
+        //get the entries of rv, without copying if we can
+        if(rv instanceof ArrayRealVector)
+            return ((ArrayRealVector)rv).getDataRef();
+        return rv.toArray();
+    }
+    
+    
+    static RealLinearOperator makeJacobiPreconditioner(double[] diag){
+        //approximates (A^T A)^-1 by the inverse of its diagonal
+        //tuples with no samples have a zero diagonal, but they stay out of the CG iterates anyway
+        int n = diag.length;
+        double invDiag[] = new double[n];
+        for(int t=0; t<n; t++)
+            invDiag[t] = diag[t]>0 ? 1./diag[t] : 1;
         
-        Atb = new ArrayRealVector(atb);
+        return new RealLinearOperator(){
+
+            @Override
+            public int getRowDimension() {
+                return n;
+            }
+
+            @Override
+            public int getColumnDimension() {
+                return n;
+            }
+
+            @Override
+            public RealVector operate(RealVector rv) throws DimensionMismatchException {
+                double x[] = toArray(rv);
+                double ans[] = new double[n];
+                for(int t=0; t<n; t++)
+                    ans[t] = invDiag[t]*x[t];
+                return new ArrayRealVector(ans,false);
+            }
+        };
     }
     
     
@@ -112,11 +138,15 @@ public class CGTupleFitter {
         //delta is target ratio of residual norm to true vals norm
         
         long startTime = System.currentTimeMillis();
-        RealVector ans = cg.solve(AtA, Atb);
         
-        System.out.println( "Conjugate gradient fitting time (ms): " + (System.currentTimeMillis()-startTime) );
+        //tuples are in very different numbers of samples, so precondition by the diagonal
+        double diag[] = new double[numTup];
+        A.getNormalDiagonal(weights, diag);
+        RealVector ans = cg.solve(AtA, makeJacobiPreconditioner(diag), Atb);
+        
+        System.out.println( "Conjugate gradient fitting time (ms): " + (System.currentTimeMillis()-startTime) 
+                + ", iterations: " + cg.getIterationManager().getIterations() );
         
         return ans.toArray();
     }
 }
-
@@ -4,9 +4,12 @@
  */
 package edu.duke.cs.osprey.tupexp;
 
+import edu.duke.cs.osprey.confspace.ConfSearch.EnergiedConf;
+import edu.duke.cs.osprey.confspace.ConfSearch.ScoredConf;
 import edu.duke.cs.osprey.confspace.HigherTupleFinder;
 import edu.duke.cs.osprey.confspace.RCTuple;
 import edu.duke.cs.osprey.confspace.SearchProblem;
+import edu.duke.cs.osprey.control.ConfEnergyCalculator;
 import java.util.ArrayList;
 
 /**
@@ -19,11 +22,18 @@ public class ConfETupleExpander extends TupleExpander {
     
     SearchProblem sp;
     
+    transient ConfEnergyCalculator.Async ecalc = null;//if set, minimize batches of samples with this
+    //(e.g. a MinimizingEnergyCalculator, which can minimize in parallel); otherwise use sp.minimizedEnergy
+    
     public ConfETupleExpander(SearchProblem sp){
         super(sp.confSpace.numPos, sp.confSpace.getNumRCsAtPos(), sp.pruneMat.getPruningInterval(), sp.luteSettings);
         this.sp = sp;
     }
 
+    public void setEnergyCalculator(ConfEnergyCalculator.Async val){
+        ecalc = val;
+    }
+    
     double worstELBDiff = 0;
     
     @Override
@@ -78,6 +88,30 @@ public class ConfETupleExpander extends TupleExpander {
     }
 
     
+    @Override
+    double[] scoreAssignmentLists(ArrayList<int[]> assignmentLists) {
+        //EPIC and voxel free energies are scored on the shared molecule, so only minimization can use ecalc
+        if(ecalc==null || sp.useEPIC || sp.useVoxelG)
+            return super.scoreAssignmentLists(assignmentLists);
+        
+        double ans[] = new double[assignmentLists.size()];
+        for(int i=0; i<ans.length; i++){
+            int[] assignmentList = assignmentLists.get(i);
+            final int index = i;
+            ecalc.calcEnergyAsync(new ScoredConf(assignmentList, sp.lowerBound(assignmentList)), 
+                    new ConfEnergyCalculator.Async.Listener() {
+                @Override
+                public void onEnergy(EnergiedConf econf) {
+                    ans[index] = econf.getEnergy();
+                }
+            });
+        }
+        ecalc.waitForFinish();
+        
+        return ans;
+    }
+
+    
     @Override
     boolean isPruned(RCTuple tup) {
         return sp.pruneMat.isPruned(tup);
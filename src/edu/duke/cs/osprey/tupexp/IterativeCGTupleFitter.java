@@ -24,8 +24,7 @@ public class IterativeCGTupleFitter extends CGTupleFitter {
     /*RealLinearOperator AtA;
     RealVector Atb;
     int numSamp, numTup;
-    TupleIndexMatrix tupIndMat;
-    ArrayList<int[]> samples;*/
+    SampleTupleMatrix A;*/
     ArrayList<double[]> goodRegionBounds;//bounds on the "good" region of fit values
     //for each sample
     
@@ -48,10 +47,9 @@ public class IterativeCGTupleFitter extends CGTupleFitter {
     public IterativeCGTupleFitter(TupleIndexMatrix tim, ArrayList<int[]> samp, int numTuples, ArrayList<double[]> goodRegionBounds){
         //We'll fit the specified (sample,trueVal) pairs to an expansion in the tuples in tim
         
-        samples = samp;
-        numSamp = samples.size();
+        A = new SampleTupleMatrix(tim, samp, numTuples);
+        numSamp = A.numSamples;
         numTup = numTuples;
-        tupIndMat = tim;
         
         this.goodRegionBounds = goodRegionBounds;        
         
@@ -78,15 +76,19 @@ public class IterativeCGTupleFitter extends CGTupleFitter {
     
     double[] calcFitVals(RealVector rv){
         double[] fitVals = new double[numSamp];
+        A.multiply(toArray(rv), fitVals);
+        return fitVals;
+    }
+    
+    
+    double[] calcRestraintWeights(){
+        //1 for samples whose restraints are active, 0 otherwise
+        double[] restraintWeights = new double[numSamp];
         for(int s=0; s<numSamp; s++){
-            //if(isSampleRestrained(s)){//we need these for validation, if not for AtA aplication
-                ArrayList<Integer> sampTup = tupIndMat.calcSampleTuples(samples.get(s));
-                for(int t : sampTup)
-                    fitVals[s] += rv.getEntry(t);
-            //}
+            if(isSampleRestrained(s))
+                restraintWeights[s] = 1;
         }
-        
-        return fitVals;
+        return restraintWeights;
     }
     
     
@@ -94,15 +96,9 @@ public class IterativeCGTupleFitter extends CGTupleFitter {
         //first apply A
         double Arv[] = calcFitVals(rv);
 
-        //then apply A^T to Arv
+        //then apply A^T to Arv, for restrained samples only
         double ans[] = new double[numTup];
-        for(int s=0; s<numSamp; s++){
-            if(isSampleRestrained(s)){
-                ArrayList<Integer> sampTup = tupIndMat.calcSampleTuples(samples.get(s));
-                for(int t : sampTup)
-                    ans[t] += Arv[s];
-            }
-        }
+        A.multiplyTranspose(Arv, weights, ans);
         
         //damping
         if(curCoeffs!=null){//not first iteration
@@ -153,17 +149,17 @@ public class IterativeCGTupleFitter extends CGTupleFitter {
     
     
     RealVector calcRHS(){//Calculate right-hand side vector of normal equations
-        double atb[] = new double[numTup];
-        //apply A^T to true vals
+        double targets[] = new double[numSamp];
         for(int s=0; s<numSamp; s++){
             double curTarget = getCurTarget(s);
-            if(!Double.isNaN(curTarget)){//restraint active for sample
-                ArrayList<Integer> sampTup = tupIndMat.calcSampleTuples(samples.get(s));
-                for(int t : sampTup)
-                    atb[t] += curTarget;
-            }
+            if(!Double.isNaN(curTarget))//restraint active for sample
+                targets[s] = curTarget;
         }
         
+        double atb[] = new double[numTup];
+        //apply A^T to targets
+        A.multiplyTranspose(targets, null, atb);
+        
         //damping.  Slightly penalizes changes from curCoeffs
         if(curCoeffs!=null){
             for(int t=0; t<numTup; t++)
@@ -241,7 +237,17 @@ public class IterativeCGTupleFitter extends CGTupleFitter {
             double iterStartTime = System.currentTimeMillis();
             
             Atb = calcRHS();
-            RealVector ans = cg.solve(AtA, Atb);
+            
+            //the restrained samples (and thus A^T A and its diagonal) change each iteration
+            weights = calcRestraintWeights();
+            double diag[] = new double[numTup];
+            A.getNormalDiagonal(weights, diag);
+            if(curCoeffs!=null){
+                for(int t=0; t<numTup; t++)
+                    diag[t] += damperLambda;
+            }
+            
+            RealVector ans = cg.solve(AtA, makeJacobiPreconditioner(diag), Atb);
             double[] newFitVals = calcFitVals(ans);
             
             System.out.println( "Conjugate gradient fitting time (ms): " + (System.currentTimeMillis()-iterStartTime) );
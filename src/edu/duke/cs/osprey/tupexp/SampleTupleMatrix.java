@@ -0,0 +1,187 @@
+package edu.duke.cs.osprey.tupexp;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import edu.duke.cs.osprey.parallelism.ThreadParallelism;
+
+/**
+ * The sample-by-tuple incidence matrix A of a tuple expansion fit (A*coeffs = energies).
+ *
+ * A is 0/1, so we just store where the ones are: by sample (compressed rows) to apply A,
+ * and by tuple (compressed columns) to apply A^T. That's two ints per nonzero, and the
+ * sample tuples only get looked up in the TupleIndexMatrix once instead of every iteration.
+ * Products are computed in parallel on a ForkJoinPool, with no locking since each task
+ * writes its own range of the output.
+ */
+public class SampleTupleMatrix {
+
+	private static final int MinRowsPerTask = 1024;
+
+	public final int numSamples;
+	public final int numTuples;
+
+	private final int[] sampleStarts;
+	private final int[] sampleTuples;
+	private final int[] tupleStarts;
+	private final int[] tupleSamples;
+
+	// null means the pool from ThreadParallelism, so we use the configured number of threads
+	private ForkJoinPool pool = null;
+
+	public SampleTupleMatrix(TupleIndexMatrix tim, List<int[]> samples, int numTuples) {
+
+		this.numSamples = samples.size();
+		this.numTuples = numTuples;
+
+		// look up the tuples for each sample, in parallel since that's most of the work
+		int[][] rows = new int[numSamples][];
+		forEachRange(numSamples, (start, stop) -> {
+			for (int s=start; s<stop; s++) {
+				ArrayList<Integer> tuples = tim.calcSampleTuples(samples.get(s));
+				int[] row = new int[tuples.size()];
+				for (int i=0; i<row.length; i++) {
+					row[i] = tuples.get(i);
+				}
+				rows[s] = row;
+			}
+		});
+
+		// flatten into compressed rows
+		sampleStarts = new int[numSamples + 1];
+		for (int s=0; s<numSamples; s++) {
+			sampleStarts[s + 1] = sampleStarts[s] + rows[s].length;
+		}
+		sampleTuples = new int[sampleStarts[numSamples]];
+		for (int s=0; s<numSamples; s++) {
+			System.arraycopy(rows[s], 0, sampleTuples, sampleStarts[s], rows[s].length);
+			rows[s] = null;
+		}
+
+		// and transpose into compressed columns
+		tupleStarts = new int[numTuples + 1];
+		for (int t : sampleTuples) {
+			tupleStarts[t + 1]++;
+		}
+		for (int t=0; t<numTuples; t++) {
+			tupleStarts[t + 1] += tupleStarts[t];
+		}
+		tupleSamples = new int[sampleTuples.length];
+		int[] next = new int[numTuples];
+		for (int s=0; s<numSamples; s++) {
+			for (int i=sampleStarts[s]; i<sampleStarts[s + 1]; i++) {
+				int t = sampleTuples[i];
+				tupleSamples[tupleStarts[t] + next[t]++] = s;
+			}
+		}
+	}
+
+	public void setPool(ForkJoinPool val) {
+		pool = val;
+	}
+
+	public ForkJoinPool getPool() {
+		return pool == null ? ThreadParallelism.getPool() : pool;
+	}
+
+	public int getNumNonZeros() {
+		return sampleTuples.length;
+	}
+
+	public int getNumTuples(int s) {
+		return sampleStarts[s + 1] - sampleStarts[s];
+	}
+
+	public int getTuple(int s, int i) {
+		return sampleTuples[sampleStarts[s] + i];
+	}
+
+	/** out = A*x, ie the fit value for each sample given tuple coefficients x */
+	public void multiply(double[] x, double[] out) {
+		forEachRange(numSamples, (start, stop) -> {
+			for (int s=start; s<stop; s++) {
+				double sum = 0;
+				for (int i=sampleStarts[s]; i<sampleStarts[s + 1]; i++) {
+					sum += x[sampleTuples[i]];
+				}
+				out[s] = sum;
+			}
+		});
+	}
+
+	/** out = A^T*W*y, where W is diagonal with the given sample weights (null means all 1) */
+	public void multiplyTranspose(double[] y, double[] weights, double[] out) {
+		forEachRange(numTuples, (start, stop) -> {
+			for (int t=start; t<stop; t++) {
+				double sum = 0;
+				if (weights == null) {
+					for (int i=tupleStarts[t]; i<tupleStarts[t + 1]; i++) {
+						sum += y[tupleSamples[i]];
+					}
+				} else {
+					for (int i=tupleStarts[t]; i<tupleStarts[t + 1]; i++) {
+						int s = tupleSamples[i];
+						sum += y[s]*weights[s];
+					}
+				}
+				out[t] = sum;
+			}
+		});
+	}
+
+	/** out = diag(A^T*W*A), ie the weighted number of samples for each tuple, for preconditioning */
+	public void getNormalDiagonal(double[] weights, double[] out) {
+		forEachRange(numTuples, (start, stop) -> {
+			for (int t=start; t<stop; t++) {
+				if (weights == null) {
+					out[t] = tupleStarts[t + 1] - tupleStarts[t];
+				} else {
+					double sum = 0;
+					for (int i=tupleStarts[t]; i<tupleStarts[t + 1]; i++) {
+						sum += weights[tupleSamples[i]];
+					}
+					out[t] = sum;
+				}
+			}
+		});
+	}
+
+	private static interface RangeBody {
+		void run(int start, int stop);
+	}
+
+	private void forEachRange(int size, RangeBody body) {
+
+		class Task extends RecursiveAction {
+
+			private static final long serialVersionUID = 3318473226436318342L;
+
+			private final int start;
+			private final int stop;
+
+			public Task(int start, int stop) {
+				this.start = start;
+				this.stop = stop;
+			}
+
+			@Override
+			protected void compute() {
+				if (stop - start <= MinRowsPerTask) {
+					body.run(start, stop);
+				} else {
+					int mid = (start + stop)/2;
+					invokeAll(new Task(start, mid), new Task(mid, stop));
+				}
+			}
+		}
+
+		ForkJoinPool pool = getPool();
+		if (pool.getParallelism() <= 1 || size <= MinRowsPerTask) {
+			body.run(0, size);
+		} else {
+			pool.invoke(new Task(0, size));
+		}
+	}
+}
@@ -29,6 +29,9 @@ public class TESampleSet implements Serializable {
     double worstResid = 0;//the worst residual
     
     ArrayList<Double> sampleResids = new ArrayList<>();
+    
+    ArrayList<Integer> unscoredSamples = new ArrayList<>();//samples whose true values are still NaN
+    //we score these in batches (see scoreNewSamples), since that's the expensive part
 
     
     //to keep track of terms that still need drawing
@@ -80,9 +83,6 @@ public class TESampleSet implements Serializable {
             if( ! isNewSampleDistinct(sample) )
                 continue;
             
-            double trueVal = te.scoreAssignmentList(sample);
-            
-            
             ArrayList<Integer> sampTuples = calcSampleTuples(sample);
             sampTuples.trimToSize();
 
@@ -99,13 +99,31 @@ public class TESampleSet implements Serializable {
                 tupleNumSamples.set( term, tupleNumSamples.get(term)+1 );
             }
 
-            trueVals.add(trueVal);
+            unscoredSamples.add(samples.size()-1);
+            trueVals.add(Double.NaN);//to be replaced by scoreNewSamples
             curFitVals.add(0.);//to be replaced by updateFitVal
         }
     }
     
     
     
+    void scoreNewSamples(){
+        //compute the true values for all the samples drawn since the last call
+        if(unscoredSamples.isEmpty())
+            return;
+        
+        ArrayList<int[]> batch = new ArrayList<>();
+        for(int s : unscoredSamples)
+            batch.add(samples.get(s));
+        
+        double energies[] = te.scoreSamples(batch);
+        
+        for(int i=0; i<energies.length; i++)
+            trueVals.set(unscoredSamples.get(i), energies[i]);
+        unscoredSamples.clear();
+    }
+    
+    
     boolean isNewSampleDistinct(int[] sample){
         //Is the new sample distinct from those listed?  (i.e. those that
         //share a tuple and thus could be the same)
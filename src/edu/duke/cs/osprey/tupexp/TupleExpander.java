@@ -10,6 +10,8 @@ import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Random;
 import java.util.TreeSet;
 
@@ -40,6 +42,9 @@ public abstract class TupleExpander implements Serializable {
     
     TESampleSet trainingSamples=null, CVSamples=null;
     
+    HashMap<SampleKey,Double> sampleEnergies = new HashMap<>();//energies of all the samples we've scored,
+    //so redrawn sample sets and later expansions don't have to minimize the same confs again
+    
     FittingObjFcn fof = new FittingObjFcn();//the objective function for fitting (e.g. basic or modified least squares)
     
     
@@ -84,6 +89,7 @@ public abstract class TupleExpander implements Serializable {
             return Double.POSITIVE_INFINITY;
         
         
+        ArrayList<int[]> samples = new ArrayList<>();
         for(int iter=0; iter<50/*00*/; iter++){
             int sample[] = new int[numPos];
             boolean success;
@@ -92,10 +98,12 @@ public abstract class TupleExpander implements Serializable {
                 success = tss.finishSample(sample);
             } while (!success);
             
-            double score = scoreAssignmentList(sample);
-            ans = Math.min(ans,score);
+            samples.add(sample);
         }
         
+        for(double score : scoreSamples(samples))
+            ans = Math.min(ans,score);
+        
         return ans;
     }
     
@@ -382,6 +390,105 @@ public abstract class TupleExpander implements Serializable {
         }
             
         System.out.println("CV set done.");
+        
+        System.out.println("Scoring new samples.");
+        trainingSamples.scoreNewSamples();
+        CVSamples.scoreNewSamples();
+    }
+    
+    
+    double[] scoreSamples(ArrayList<int[]> samples){
+        //score a batch of samples, scoring each distinct assignment at most once
+        //and reusing the energies of samples we've scored before
+        
+        ArrayList<SampleKey> keys = new ArrayList<>();
+        LinkedHashMap<SampleKey,int[]> newAssignments = new LinkedHashMap<>();
+        for(int[] sample : samples){
+            SampleKey key = new SampleKey(sample, numAllowed);
+            keys.add(key);
+            
+            if(!sampleEnergies.containsKey(key))
+                newAssignments.put(key, sample);
+        }
+        
+        if(!newAssignments.isEmpty()){
+            System.out.println("Scoring "+newAssignments.size()+" new samples ("
+                    +(samples.size()-newAssignments.size())+" already scored)");
+            
+            double energies[] = scoreAssignmentLists(new ArrayList<>(newAssignments.values()));
+            int i=0;
+            for(SampleKey key : newAssignments.keySet())
+                sampleEnergies.put(key, energies[i++]);
+        }
+        
+        double ans[] = new double[samples.size()];
+        for(int s=0; s<ans.length; s++)
+            ans[s] = sampleEnergies.get(keys.get(s));
+        return ans;
+    }
+    
+    
+    static class SampleKey implements Serializable {
+        //a sample's assignments, packed into only as many bits as each position's number of allowed RCs needs
+        //(usually a word or two per sample, instead of a list of boxed Integers)
+        
+        private static final long serialVersionUID = -2493057164735409372L;
+        
+        final long[] words;
+        final int hash;
+        
+        SampleKey(int[] assignments, int[] numAllowed){
+            
+            int numWords = 1;
+            int bitPos = 0;
+            for(int pos=0; pos<assignments.length; pos++){
+                int numBits = getNumBits(numAllowed[pos]);
+                if(bitPos+numBits > 64){
+                    numWords++;
+                    bitPos = 0;
+                }
+                bitPos += numBits;
+            }
+            
+            words = new long[numWords];
+            int word = 0;
+            bitPos = 0;
+            for(int pos=0; pos<assignments.length; pos++){
+                int numBits = getNumBits(numAllowed[pos]);
+                if(bitPos+numBits > 64){
+                    word++;
+                    bitPos = 0;
+                }
+                words[word] |= (long)assignments[pos] << bitPos;
+                bitPos += numBits;
+            }
+            
+            hash = Arrays.hashCode(words);
+        }
+        
+        private static int getNumBits(int numAllowed){
+            return Math.max(1, 32 - Integer.numberOfLeadingZeros(numAllowed-1));
+        }
+        
+        @Override
+        public int hashCode(){
+            return hash;
+        }
+        
+        @Override
+        public boolean equals(Object other){
+            return other instanceof SampleKey && Arrays.equals(words, ((SampleKey)other).words);
+        }
+    }
+    
+    
+    double[] scoreAssignmentLists(ArrayList<int[]> assignmentLists){
+        //score several assignment lists at once
+        //subclasses can override this to score them in parallel
+        double ans[] = new double[assignmentLists.size()];
+        for(int i=0; i<ans.length; i++)
+            ans[i] = scoreAssignmentList(assignmentLists.get(i));
+        return ans;
     }
     
     
@@ -614,6 +721,7 @@ public abstract class TupleExpander implements Serializable {
             ans.setTupleValue( tuples.get(tupNum), tupleTerms[tupNum] );
         }
         
+        ans.freezeHigherOrderTerms();
         return ans;
     }
     
@@ -642,6 +750,7 @@ public abstract class TupleExpander implements Serializable {
         for(int tupNum=0; tupNum<tuples.size(); tupNum++)
             ans.setTupleValue( tuples.get(tupNum), tupNum );
         
+        ans.freezeHigherOrderTerms();
         return ans;
     }
     
@@ -3,15 +3,23 @@ package edu.duke.cs.osprey;
 import static org.hamcrest.Matchers.*;
 import static org.junit.Assert.*;
 
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Random;
+
 import org.junit.BeforeClass;
 import org.junit.Test;
 
 import edu.duke.cs.osprey.astar.ConfTree;
+import edu.duke.cs.osprey.astar.conf.ConfAStarNode;
 import edu.duke.cs.osprey.astar.conf.ConfAStarTree;
 import edu.duke.cs.osprey.astar.conf.RCs;
 import edu.duke.cs.osprey.astar.conf.order.AStarOrder;
 import edu.duke.cs.osprey.astar.conf.order.DynamicHMeanAStarOrder;
 import edu.duke.cs.osprey.astar.conf.order.StaticScoreHMeanAStarOrder;
+import edu.duke.cs.osprey.astar.conf.queue.PackedConfAStarQueue;
+import edu.duke.cs.osprey.astar.conf.queue.SpillingConfAStarQueue;
 import edu.duke.cs.osprey.astar.conf.scoring.AStarScorer;
 import edu.duke.cs.osprey.astar.conf.scoring.MPLPPairwiseHScorer;
 import edu.duke.cs.osprey.astar.conf.scoring.PairwiseGScorer;
@@ -20,7 +28,10 @@ import edu.duke.cs.osprey.astar.conf.scoring.mplp.EdgeUpdater;
 import edu.duke.cs.osprey.astar.conf.scoring.mplp.NodeUpdater;
 import edu.duke.cs.osprey.confspace.ConfSearch;
 import edu.duke.cs.osprey.confspace.SearchProblem;
+import edu.duke.cs.osprey.control.ConfSearchFactory;
+import edu.duke.cs.osprey.control.ConfigFileParser;
 import edu.duke.cs.osprey.ematrix.EnergyMatrix;
+import edu.duke.cs.osprey.parallelism.Parallelism;
 
 public class TestAStar extends TestBase {
 	
@@ -428,4 +439,338 @@ public class TestAStar extends TestBase {
 		
 		checkDagkContinuous(tree, search);
 	}
+	
+	
+	// PACKED QUEUE TESTS
+	
+	private ConfAStarTree makePackedTree(SearchProblem search) {
+		RCs rcs = new RCs(search.pruneMat);
+		AStarOrder order = new DynamicHMeanAStarOrder();
+		AStarScorer hscorer = new TraditionalPairwiseHScorer(search.emat, rcs);
+		ConfAStarTree tree = new ConfAStarTree(order, new PairwiseGScorer(search.emat), hscorer, rcs);
+		tree.setQueue(new PackedConfAStarQueue());
+		return tree;
+	}
+	
+	@Test
+	public void testDagkRigidPackedQueue() {
+		SearchProblem search = makeSearchProblemDagkRigid();
+		checkDagkRigid(makePackedTree(search), search);
+	}
+	
+	@Test
+	public void testDagkRigidPackedQueuePruned() {
+		SearchProblem search = makePrunedSearchProblemDagkRigid();
+		checkDagkRigid(makePackedTree(search), search);
+	}
+	
+	@Test
+	public void testDagkRigidInfPackedQueue() {
+		SearchProblem search = makeSearchProblemDagkRigidInf();
+		checkDagkRigidInf(makePackedTree(search), search);
+	}
+	
+	@Test
+	public void testDagkContinuousPackedQueue() {
+		SearchProblem search = makeSearchProblemDagkContinuous();
+		checkDagkContinuous(makePackedTree(search), search);
+	}
+	
+	@Test
+	public void testDagkRigidPackedQueueMatchesObjectQueue() {
+		SearchProblem search = makeSearchProblemDagkRigid();
+		
+		RCs rcs = new RCs(search.pruneMat);
+		ConfAStarTree objectTree = new ConfAStarTree(new DynamicHMeanAStarOrder(), new PairwiseGScorer(search.emat), new TraditionalPairwiseHScorer(search.emat, rcs), rcs);
+		ConfAStarTree packedTree = makePackedTree(search);
+		
+		for (int i=0; i<100; i++) {
+			ConfSearch.ScoredConf expected = objectTree.nextConf();
+			ConfSearch.ScoredConf observed = packedTree.nextConf();
+			assertThat(observed.getScore(), isRelatively(expected.getScore()));
+			assertThat(search.emat.confE(observed.getAssignments()), isRelatively(observed.getScore()));
+		}
+	}
+	
+	private ConfAStarNode makeScoredNode(ConfAStarNode parent, int pos, int rc, double score) {
+		ConfAStarNode node = new ConfAStarNode(parent, pos, rc);
+		node.setGScore(score);
+		node.setHScore(0);
+		return node;
+	}
+	
+	@Test
+	public void testPackedQueueStoresAncestorsOnce() {
+		PackedConfAStarQueue queue = new PackedConfAStarQueue();
+		
+		// a chain of ancestors that never get queued, like the single-RC positions
+		ConfAStarNode root = new ConfAStarNode();
+		ConfAStarNode a = new ConfAStarNode(root, 0, 3);
+		ConfAStarNode b = new ConfAStarNode(a, 1, 4);
+		for (int rc=0; rc<10; rc++) {
+			queue.add(makeScoredNode(b, 2, rc, rc));
+		}
+		
+		// two ancestor records and ten child records
+		assertThat(queue.getNumStoredNodes(), is(12));
+		
+		for (int rc=0; rc<10; rc++) {
+			ConfAStarNode node = queue.poll();
+			assertThat(node.getLevel(), is(3));
+			assertThat(node.getGScore(), is((double)rc));
+			assertThat(node.makeConf(3), is(new int[] { 3, 4, rc }));
+		}
+		
+		// polling everything frees every record, ancestors included
+		assertThat(queue.isEmpty(), is(true));
+		assertThat(queue.getNumStoredNodes(), is(0));
+	}
+	
+	@Test
+	public void testPackedQueueReusesRecords() {
+		PackedConfAStarQueue queue = new PackedConfAStarQueue();
+		
+		// expand a binary tree depth-first, so only the frontier and its ancestors need records
+		queue.add(makeScoredNode(new ConfAStarNode(), 0, 0, 0));
+		int maxStoredNodes = 0;
+		int numLeaves = 0;
+		while (!queue.isEmpty()) {
+			
+			ConfAStarNode node = queue.poll();
+			if (node.getLevel() == 10) {
+				numLeaves++;
+				continue;
+			}
+			
+			// siblings share the polled node's record
+			int numStoredNodes = queue.getNumStoredNodes();
+			queue.add(makeScoredNode(node, node.getLevel(), 0, -node.getLevel()));
+			queue.add(makeScoredNode(node, node.getLevel(), 1, -node.getLevel()));
+			assertThat(queue.getNumStoredNodes(), lessThanOrEqualTo(numStoredNodes + node.getLevel() + 2));
+			
+			maxStoredNodes = Math.max(maxStoredNodes, queue.getNumStoredNodes());
+		}
+		
+		assertThat(numLeaves, is(1 << 9));
+		assertThat(maxStoredNodes, lessThanOrEqualTo(30));
+		assertThat(queue.getNumStoredNodes(), is(0));
+	}
+	
+	@Test
+	public void testPackedQueueReAdd() {
+		PackedConfAStarQueue queue = new PackedConfAStarQueue();
+		
+		ConfAStarNode root = new ConfAStarNode();
+		queue.add(makeScoredNode(root, 0, 0, 1));
+		queue.add(makeScoredNode(root, 0, 1, 2));
+		
+		// put a polled node back, like the batch mode of ConfAStarTree does
+		ConfAStarNode node = queue.poll();
+		queue.add(node);
+		assertThat(queue.getNumStoredNodes(), is(2));
+		
+		node = queue.poll();
+		assertThat(node.makeConf(1), is(new int[] { 0 }));
+		assertThat(node.getGScore(), is(1.0));
+		node = queue.poll();
+		assertThat(node.makeConf(1), is(new int[] { 1 }));
+		assertThat(node.getGScore(), is(2.0));
+		assertThat(queue.getNumStoredNodes(), is(0));
+	}
+	
+	
+	// SPILLING QUEUE TESTS
+	
+	private ConfAStarTree makeSpillingTree(SearchProblem search, SpillingConfAStarQueue queue) {
+		RCs rcs = new RCs(search.pruneMat);
+		AStarOrder order = new DynamicHMeanAStarOrder();
+		AStarScorer hscorer = new TraditionalPairwiseHScorer(search.emat, rcs);
+		ConfAStarTree tree = new ConfAStarTree(order, new PairwiseGScorer(search.emat), hscorer, rcs);
+		tree.setQueue(queue);
+		return tree;
+	}
+	
+	@Test
+	public void testDagkRigidSpillingQueue() {
+		SearchProblem search = makeSearchProblemDagkRigid();
+		checkDagkRigid(makeSpillingTree(search, new SpillingConfAStarQueue(8, 4, null)), search);
+	}
+	
+	@Test
+	public void testDagkRigidInfSpillingQueue() {
+		SearchProblem search = makeSearchProblemDagkRigidInf();
+		checkDagkRigidInf(makeSpillingTree(search, new SpillingConfAStarQueue(8, 4, null)), search);
+	}
+	
+	@Test
+	public void testDagkRigidSpillingQueueMatchesObjectQueue() {
+		SearchProblem search = makeSearchProblemDagkRigid();
+		
+		RCs rcs = new RCs(search.pruneMat);
+		ConfAStarTree objectTree = new ConfAStarTree(new DynamicHMeanAStarOrder(), new PairwiseGScorer(search.emat), new TraditionalPairwiseHScorer(search.emat, rcs), rcs);
+		SpillingConfAStarQueue queue = new SpillingConfAStarQueue(16, 4, null);
+		ConfAStarTree spillingTree = makeSpillingTree(search, queue);
+		
+		for (int i=0; i<100; i++) {
+			ConfSearch.ScoredConf expected = objectTree.nextConf();
+			ConfSearch.ScoredConf observed = spillingTree.nextConf();
+			assertThat(observed.getScore(), isRelatively(expected.getScore()));
+			assertThat(search.emat.confE(observed.getAssignments()), isRelatively(observed.getScore()));
+		}
+		
+		assertThat(queue.getNumNodesInMemory(), lessThanOrEqualTo(16));
+		assertThat(queue.getNumNodesOnDisk(), greaterThan(0L));
+	}
+	
+	
+	@Test
+	public void testSpillingQueueMergesSmallestRuns() {
+		
+		SpillingConfAStarQueue queue = new SpillingConfAStarQueue(64, 8, SpillingConfAStarQueue.MinBufferSize, null);
+		Random rand = new Random(12345);
+		final int numNodes = 20000;
+		ConfAStarNode.Link root = new ConfAStarNode.Link();
+		for (int i=0; i<numNodes; i++) {
+			ConfAStarNode node = new ConfAStarNode(1, new ConfAStarNode.Link(root, 0, i % 100));
+			node.setGScore(rand.nextDouble());
+			node.setHScore(0);
+			queue.add(node);
+		}
+		assertThat(queue.getNumRuns(), lessThanOrEqualTo(8));
+		
+		// merging every run each time would rewrite each node about numNodes/(8*32) times
+		assertThat(queue.getNumNodesWritten(), lessThan(8L*numNodes));
+		
+		double lastScore = Double.NEGATIVE_INFINITY;
+		for (int i=0; i<numNodes; i++) {
+			double score = queue.poll().getScore();
+			assertThat(score, greaterThanOrEqualTo(lastScore));
+			lastScore = score;
+		}
+		assertThat(queue.size(), is(0));
+	}
+	
+	@Test
+	public void testSpillingQueueCloseDeletesRuns()
+	throws IOException {
+		
+		File dir = Files.createTempDirectory("testAStarSpill").toFile();
+		try {
+			
+			SpillingConfAStarQueue queue = new SpillingConfAStarQueue(8, 4, SpillingConfAStarQueue.MinBufferSize, dir);
+			ConfAStarNode.Link root = new ConfAStarNode.Link();
+			for (int i=0; i<1000; i++) {
+				ConfAStarNode node = new ConfAStarNode(1, new ConfAStarNode.Link(root, 0, i % 100));
+				node.setGScore(i);
+				node.setHScore(0);
+				queue.add(node);
+			}
+			
+			// all the runs go in one dir
+			assertThat(queue.getNumRuns(), greaterThan(1));
+			assertThat(dir.list(), arrayWithSize(1));
+			assertThat(queue.getSpillDir().list(), arrayWithSize(queue.getNumRuns()));
+			
+			queue.close();
+			assertThat(queue.size(), is(0));
+			assertThat(dir.list(), emptyArray());
+			
+		} finally {
+			for (File file : dir.listFiles()) {
+				file.delete();
+			}
+			dir.delete();
+		}
+	}
+	
+	@Test
+	public void testSpillingQueueBudget() {
+		
+		assertThat(SpillingConfAStarQueue.getBytesPerNode(), greaterThan(0));
+		
+		// the nodes and the file buffers should fit in the budget together
+		for (long budget : new long[] { 1024L*1024, 64L*1024*1024, 1024L*1024*1024 }) {
+			SpillingConfAStarQueue queue = SpillingConfAStarQueue.makeWithBudget(budget, null);
+			long nodeBytes = (long)queue.getMaxNodesInMemory()*SpillingConfAStarQueue.getBytesPerNode();
+			long bufferBytes = (SpillingConfAStarQueue.DefaultMaxNumRuns + 2L)*queue.getBufferSize();
+			assertThat(nodeBytes + bufferBytes, lessThanOrEqualTo(budget));
+			assertThat(nodeBytes, greaterThanOrEqualTo(budget/2));
+		}
+	}
+	
+	
+	// QUEUE CONFIG TESTS
+	
+	private ConfSearch makeTreeFromConfig(SearchProblem search, String queueType) {
+		ConfigFileParser cfp = new ConfigFileParser();
+		cfp.getParams().setValue("AStarQueue", queueType);
+		return ConfSearchFactory.Tools.makeFromConfig(search, cfp).make(search.emat, search.pruneMat);
+	}
+	
+	@Test
+	public void testDagkRigidQueueFromConfig() {
+		SearchProblem search = makeSearchProblemDagkRigid();
+		for (String queueType : new String[] { "object", "packed", "spill" }) {
+			checkDagkRigid(makeTreeFromConfig(search, queueType), search);
+		}
+	}
+	
+	@Test
+	public void testUnrecognizedQueueFromConfig() {
+		SearchProblem search = makeSearchProblemDagkRigid();
+		try {
+			makeTreeFromConfig(search, "heap");
+			fail("should have thrown");
+		} catch (RuntimeException ex) {
+			assertThat(ex.getMessage(), containsString("AStarQueue"));
+		}
+	}
+	
+	
+	// BATCH EXPANSION TESTS
+	
+	private ConfAStarTree makeBatchTree(SearchProblem search, int batchSize, int numThreads) {
+		RCs rcs = new RCs(search.pruneMat);
+		AStarOrder order = new StaticScoreHMeanAStarOrder();
+		AStarScorer hscorer = new MPLPPairwiseHScorer(new EdgeUpdater(), search.emat, 1, 0.0001);
+		ConfAStarTree tree = new ConfAStarTree(order, new PairwiseGScorer(search.emat), hscorer, rcs);
+		tree.setParallelism(Parallelism.makeCpu(numThreads));
+		tree.setBatchSize(batchSize);
+		return tree;
+	}
+	
+	@Test
+	public void testDagkRigidBatch() {
+		SearchProblem search = makeSearchProblemDagkRigid();
+		checkDagkRigid(makeBatchTree(search, 8, 4), search);
+	}
+	
+	@Test
+	public void testDagkRigidInfBatch() {
+		SearchProblem search = makeSearchProblemDagkRigidInf();
+		checkDagkRigidInf(makeBatchTree(search, 8, 4), search);
+	}
+	
+	@Test
+	public void testDagkContinuousBatch() {
+		SearchProblem search = makeSearchProblemDagkContinuous();
+		checkDagkContinuous(makeBatchTree(search, 8, 4), search);
+	}
+	
+	@Test
+	public void testDagkRigidBatchMatchesSerial() {
+		SearchProblem search = makeSearchProblemDagkRigid();
+		
+		ConfAStarTree serialTree = makeBatchTree(search, 1, 1);
+		ConfAStarTree batchTree = makeBatchTree(search, 16, 4);
+		
+		double lastScore = Double.NEGATIVE_INFINITY;
+		for (int i=0; i<100; i++) {
+			ConfSearch.ScoredConf expected = serialTree.nextConf();
+			ConfSearch.ScoredConf observed = batchTree.nextConf();
+			assertThat(observed.getScore(), isRelatively(expected.getScore()));
+			assertThat(observed.getScore(), greaterThanOrEqualTo(lastScore));
+			lastScore = observed.getScore();
+		}
+	}
 }
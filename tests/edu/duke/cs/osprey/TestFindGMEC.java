@@ -8,9 +8,14 @@ package edu.duke.cs.osprey;
 import static org.hamcrest.Matchers.*;
 import static org.junit.Assert.*;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
 import org.junit.Test;
 
 import edu.duke.cs.osprey.confspace.ConfSearch.EnergiedConf;
+import edu.duke.cs.osprey.control.ConfLogWriter;
 import edu.duke.cs.osprey.control.ConfigFileParser;
 import edu.duke.cs.osprey.control.GMECFinder;
 
@@ -71,4 +76,42 @@ public class TestFindGMEC extends TestBase {
         */
     }
     
+    @Test
+    public void test1CC8ConfLog()
+    throws IOException {
+        //Same 7-residue test, with an energy window, streaming the confs to a binary conf log
+        //should find the same confs in the window as the text conf file does
+        List<EnergiedConf> expConfs = calcGMEC1CC8(1.0, null);
+        
+        File file = File.createTempFile("confs", ".bin");
+        try {
+            List<EnergiedConf> confs = calcGMEC1CC8(1.0, file.getPath());
+            
+            assertThat(confs.size(), is(expConfs.size()));
+            for (int i=0; i<confs.size(); i++) {
+                assertThat(confs.get(i).getAssignments(), is(expConfs.get(i).getAssignments()));
+                assertThat(confs.get(i).getEnergy(), isRelatively(expConfs.get(i).getEnergy(), 1e-6));
+            }
+            assertThat(confs.get(0).getAssignments(), is(new int[] {5, 7, 12, 5, 0, 7, 4}));
+        } finally {
+            file.delete();
+            ConfLogWriter.getIndexFile(file).delete();
+        }
+    }
+    
+    private List<EnergiedConf> calcGMEC1CC8(double Ew, String confLogFileName) {
+        String[] args = new String[] {"-c","test/1CC8.junit/KStar.cfg","findGMEC",
+            "test/1CC8.junit/System.cfg","test/1CC8.junit/DEE.cfg"};
+        
+        ConfigFileParser cfp = new ConfigFileParser(args);//args 1, 3+ are configuration files
+        cfp.loadData();
+        cfp.getParams().setValue("Ew", Double.toString(Ew));
+        
+        GMECFinder gf = new GMECFinder();
+        gf.init(cfp);
+        gf.setLogConfsToConsole(false);
+        gf.setConfLogFileName(confLogFileName);
+        return gf.calcGMEC();
+    }
+    
 }
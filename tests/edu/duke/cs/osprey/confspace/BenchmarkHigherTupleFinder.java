@@ -0,0 +1,73 @@
+package edu.duke.cs.osprey.confspace;
+
+import java.util.Random;
+
+import edu.duke.cs.osprey.TestBase;
+import edu.duke.cs.osprey.ematrix.EnergyMatrix;
+import edu.duke.cs.osprey.tools.Stopwatch;
+
+public class BenchmarkHigherTupleFinder extends TestBase {
+
+	private static final int NumPos = 12;
+	private static final int NumRCs = 20;
+	private static final int NumTriples = 50000;
+	private static final int NumConfs = 20000;
+	private static final int NumReps = 10;
+
+	public static void main(String[] args) {
+
+		// a LUTE-sized matrix with lots of triples
+		Random rand = new Random(12345);
+		int[] numRCs = new int[NumPos];
+		for (int pos=0; pos<NumPos; pos++) {
+			numRCs[pos] = NumRCs;
+		}
+		EnergyMatrix emat = new EnergyMatrix(NumPos, numRCs, Double.POSITIVE_INFINITY);
+		emat.fill(0.0);
+		for (int i=0; i<NumTriples; i++) {
+			int pos1 = rand.nextInt(NumPos);
+			int pos2 = (pos1 + 1 + rand.nextInt(NumPos - 1)) % NumPos;
+			int pos3;
+			do {
+				pos3 = rand.nextInt(NumPos);
+			} while (pos3 == pos1 || pos3 == pos2);
+			RCTuple triple = new RCTuple(pos1, rand.nextInt(NumRCs), pos2, rand.nextInt(NumRCs)).addRC(pos3, rand.nextInt(NumRCs));
+			emat.setHigherOrder(triple, rand.nextDouble());
+		}
+
+		RCTuple[] confs = new RCTuple[NumConfs];
+		for (int i=0; i<NumConfs; i++) {
+			int[] conf = new int[NumPos];
+			for (int pos=0; pos<NumPos; pos++) {
+				conf[pos] = rand.nextInt(NumRCs);
+			}
+			confs[i] = new RCTuple(conf);
+		}
+
+		Stopwatch treeStopwatch = new Stopwatch().start();
+		double treeSum = sumEnergies(emat, confs);
+		treeStopwatch.stop();
+
+		emat.freezeHigherOrderTerms();
+
+		Stopwatch frozenStopwatch = new Stopwatch().start();
+		double frozenSum = sumEnergies(emat, confs);
+		frozenStopwatch.stop();
+
+		System.out.println(String.format("TreeMaps: %s, frozen: %s, speedup %.2fx   (checksums %.6f, %.6f)",
+			treeStopwatch.getTime(2), frozenStopwatch.getTime(2),
+			(double)treeStopwatch.getTimeNs()/frozenStopwatch.getTimeNs(),
+			treeSum, frozenSum
+		));
+	}
+
+	private static double sumEnergies(EnergyMatrix emat, RCTuple[] confs) {
+		double sum = 0;
+		for (int i=0; i<NumReps; i++) {
+			for (RCTuple conf : confs) {
+				sum += emat.getInternalEnergy(conf);
+			}
+		}
+		return sum;
+	}
+}
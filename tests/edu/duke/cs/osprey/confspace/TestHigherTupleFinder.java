@@ -0,0 +1,184 @@
+package edu.duke.cs.osprey.confspace;
+
+import static edu.duke.cs.osprey.TestBase.*;
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Random;
+
+import org.junit.Test;
+
+import edu.duke.cs.osprey.ematrix.EnergyMatrix;
+import edu.duke.cs.osprey.pruning.PruningMatrix;
+
+public class TestHigherTupleFinder {
+
+	private static final int NumPos = 6;
+	private static final int NumRCs = 5;
+
+	private static int[] makeNumRCs() {
+		int[] numRCs = new int[NumPos];
+		for (int pos=0; pos<NumPos; pos++) {
+			numRCs[pos] = NumRCs;
+		}
+		return numRCs;
+	}
+
+	private static RCTuple makeRandomTuple(Random rand, int size) {
+		ArrayList<Integer> positions = new ArrayList<>();
+		for (int pos=0; pos<NumPos; pos++) {
+			positions.add(pos);
+		}
+		RCTuple tup = new RCTuple();
+		for (int i=0; i<size; i++) {
+			int pos = positions.remove(rand.nextInt(positions.size()));
+			tup = tup.addRC(pos, rand.nextInt(NumRCs));
+		}
+		return tup;
+	}
+
+	private static EnergyMatrix makeEmat(Random rand) {
+		EnergyMatrix emat = new EnergyMatrix(NumPos, makeNumRCs(), Double.POSITIVE_INFINITY);
+		emat.fill(0.0);
+		for (int i=0; i<200; i++) {
+			emat.setHigherOrder(makeRandomTuple(rand, 3), rand.nextDouble());
+		}
+		for (int i=0; i<50; i++) {
+			emat.setHigherOrder(makeRandomTuple(rand, 4), rand.nextDouble());
+		}
+		return emat;
+	}
+
+	private static int[][] makeConfs(Random rand) {
+		int[][] confs = new int[2000][NumPos];
+		for (int[] conf : confs) {
+			for (int pos=0; pos<NumPos; pos++) {
+				conf[pos] = rand.nextInt(NumRCs);
+			}
+		}
+		return confs;
+	}
+
+	@Test
+	public void frozenEnergies() {
+
+		Random rand = new Random(12345);
+		EnergyMatrix emat = makeEmat(rand);
+		int[][] confs = makeConfs(rand);
+
+		double[] exp = new double[confs.length];
+		for (int i=0; i<confs.length; i++) {
+			exp[i] = emat.getInternalEnergy(new RCTuple(confs[i]));
+		}
+
+		emat.freezeHigherOrderTerms();
+		assertThat(getFirstHigherOrderTerms(emat).isFrozen(), is(true));
+
+		for (int i=0; i<confs.length; i++) {
+			assertThat(emat.getInternalEnergy(new RCTuple(confs[i])), isAbsolutely(exp[i], 1e-12));
+		}
+	}
+
+	@Test
+	public void editAfterFreeze() {
+
+		Random rand = new Random(12345);
+		EnergyMatrix frozen = makeEmat(rand);
+		frozen.freezeHigherOrderTerms();
+		rand = new Random(12345);
+		EnergyMatrix exp = makeEmat(rand);
+
+		// make the same edits to both matrices
+		for (int i=0; i<20; i++) {
+			RCTuple tup = makeRandomTuple(rand, 3 + rand.nextInt(2));
+			double val = rand.nextDouble();
+			frozen.setHigherOrder(tup, val);
+			exp.setHigherOrder(tup, val);
+		}
+
+		for (int[] conf : makeConfs(rand)) {
+			RCTuple tup = new RCTuple(conf);
+			assertThat(frozen.getInternalEnergy(tup), isAbsolutely(exp.getInternalEnergy(tup), 1e-12));
+		}
+	}
+
+	@Test
+	public void serialize()
+	throws Exception {
+
+		Random rand = new Random(12345);
+		EnergyMatrix emat = makeEmat(rand);
+		emat.freezeHigherOrderTerms();
+
+		ByteArrayOutputStream buf = new ByteArrayOutputStream();
+		try (ObjectOutputStream out = new ObjectOutputStream(buf)) {
+			out.writeObject(emat);
+		}
+		EnergyMatrix copy;
+		try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(buf.toByteArray()))) {
+			copy = (EnergyMatrix)in.readObject();
+		}
+
+		assertThat(getFirstHigherOrderTerms(copy).isFrozen(), is(true));
+		for (int[] conf : makeConfs(rand)) {
+			RCTuple tup = new RCTuple(conf);
+			assertThat(copy.getInternalEnergy(tup), is(emat.getInternalEnergy(tup)));
+		}
+	}
+
+	@Test
+	public void frozenPruning() {
+
+		Random rand = new Random(12345);
+		int[] numRCs = makeNumRCs();
+		PruningMatrix pmat = new PruningMatrix(NumPos, numRCs, 0);
+		pmat.fill(false);
+		for (int i=0; i<100; i++) {
+			pmat.setHigherOrder(makeRandomTuple(rand, 3 + rand.nextInt(2)), true);
+		}
+
+		// the frozen finders should list the same pruned tuples
+		HigherTupleFinder<Boolean> htf = getFirstHigherOrderTerms(pmat);
+		HashSet<String> exp = toStrings(htf.listInteractionsWithValue(true));
+		assertThat(exp.isEmpty(), is(false));
+		htf.freeze();
+		assertThat(toStrings(htf.listInteractionsWithValue(true)), is(exp));
+
+		for (int pos=0; pos<NumPos; pos++) {
+			for (int rc=0; rc<NumRCs; rc++) {
+				boolean isTriplePruned = exp.contains(new RCTuple(pos, rc).stringListing());
+				assertThat(htf.getInteraction(pos, rc), is(isTriplePruned));
+			}
+		}
+	}
+
+	private static <T> HigherTupleFinder<T> getFirstHigherOrderTerms(AbstractTupleMatrix<T> matrix) {
+		for (int pos1=0; pos1<NumPos; pos1++) {
+			for (int rc1=0; rc1<NumRCs; rc1++) {
+				for (int pos2=0; pos2<pos1; pos2++) {
+					for (int rc2=0; rc2<NumRCs; rc2++) {
+						HigherTupleFinder<T> htf = matrix.getHigherOrderTerms(pos1, rc1, pos2, rc2);
+						if (htf != null) {
+							return htf;
+						}
+					}
+				}
+			}
+		}
+		throw new Error("no higher-order terms");
+	}
+
+	private static HashSet<String> toStrings(ArrayList<RCTuple> tuples) {
+		HashSet<String> out = new HashSet<>();
+		for (RCTuple tup : tuples) {
+			out.add(tup.stringListing());
+		}
+		return out;
+	}
+}
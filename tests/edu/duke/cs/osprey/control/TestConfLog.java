@@ -0,0 +1,200 @@
+package edu.duke.cs.osprey.control;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import edu.duke.cs.osprey.confspace.ConfSearch.EnergiedConf;
+
+public class TestConfLog {
+
+	private static final int NumPos = 5;
+
+	private File file;
+	private File otherFile;
+	private File mergedFile;
+
+	@Before
+	public void before()
+	throws IOException {
+		file = File.createTempFile("confs", ".bin");
+		otherFile = File.createTempFile("confs", ".bin");
+		mergedFile = File.createTempFile("confs", ".bin");
+	}
+
+	@After
+	public void after() {
+		for (File f : Arrays.asList(file, otherFile, mergedFile)) {
+			f.delete();
+			ConfLogWriter.getIndexFile(f).delete();
+		}
+	}
+
+	private static int[] makeConf(int i) {
+		int[] conf = new int[NumPos];
+		for (int pos=0; pos<NumPos; pos++) {
+			conf[pos] = (i*(pos + 7)) % 300;
+		}
+		return conf;
+	}
+
+	private static double makeEnergy(int i) {
+		// not sorted, so we can check the top-N
+		return ((i*37) % 101) - 50.5;
+	}
+
+	private static long write(File file, int numConfs, int offset) {
+		ConfLogWriter writer = new ConfLogWriter(file, NumPos);
+		for (int i=offset; i<offset + numConfs; i++) {
+			double[] dofs = i % 3 == 0 ? null : new double[] { i, -i, i*0.5 };
+			writer.write(makeConf(i), makeEnergy(i) - 1, makeEnergy(i), dofs);
+		}
+		writer.close();
+		return writer.getNumConfs();
+	}
+
+	private static void checkRecord(ConfLogReader.Record record, int i) {
+		assertThat(record, is(not(nullValue())));
+		assertThat(record.assignments, is(makeConf(i)));
+		assertThat(record.score, is(makeEnergy(i) - 1));
+		assertThat(record.energy, is(makeEnergy(i)));
+		if (i % 3 == 0) {
+			assertThat(record.dofs, is(nullValue()));
+		} else {
+			assertThat(record.dofs, is(new double[] { i, -i, i*0.5 }));
+		}
+	}
+
+	@Test
+	public void roundTrip() {
+
+		write(file, 5000, 0);
+
+		try (ConfLogReader reader = new ConfLogReader(file)) {
+			assertThat(reader.numPos, is(NumPos));
+			assertThat(reader.hasIndex(), is(true));
+			assertThat(reader.getNumConfs(), is(5000L));
+			assertThat(reader.getMinEnergy(), is(-50.5));
+			for (int i=0; i<5000; i++) {
+				checkRecord(reader.next(), i);
+			}
+			assertThat(reader.next(), is(nullValue()));
+		}
+	}
+
+	@Test
+	public void seek() {
+
+		write(file, 5000, 0);
+
+		try (ConfLogReader reader = new ConfLogReader(file)) {
+			for (int i : new int[] { 4321, 0, 1023, 1024, 1025, 4999, 17 }) {
+				reader.seek(i);
+				checkRecord(reader.next(), i);
+			}
+			reader.seek(5000);
+			assertThat(reader.next(), is(nullValue()));
+		}
+
+		// seeking works without the index too, just slower
+		ConfLogWriter.getIndexFile(file).delete();
+		try (ConfLogReader reader = new ConfLogReader(file)) {
+			assertThat(reader.hasIndex(), is(false));
+			assertThat(reader.getNumConfs(), is(5000L));
+			reader.seek(3000);
+			checkRecord(reader.next(), 3000);
+			reader.seek(10);
+			checkRecord(reader.next(), 10);
+		}
+	}
+
+	@Test
+	public void truncated()
+	throws IOException {
+
+		write(file, 100, 0);
+
+		// simulate a crash in the middle of a write
+		ConfLogWriter.getIndexFile(file).delete();
+		try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+			raf.setLength(raf.length() - 5);
+		}
+
+		try (ConfLogReader reader = new ConfLogReader(file)) {
+			assertThat(reader.getNumConfs(), is(99L));
+			for (int i=0; i<99; i++) {
+				checkRecord(reader.next(), i);
+			}
+			assertThat(reader.next(), is(nullValue()));
+		}
+	}
+
+	@Test
+	public void lowestEnergies() {
+
+		write(file, 1000, 0);
+
+		try (ConfLogReader reader = new ConfLogReader(file)) {
+			List<EnergiedConf> confs = reader.readLowestEnergies(25, Double.POSITIVE_INFINITY);
+			assertThat(confs.size(), is(25));
+			assertThat(confs.get(0).getEnergy(), is(-50.5));
+			for (int i=1; i<confs.size(); i++) {
+				assertThat(confs.get(i).getEnergy(), greaterThanOrEqualTo(confs.get(i - 1).getEnergy()));
+			}
+		}
+
+		try (ConfLogReader reader = new ConfLogReader(file)) {
+			List<EnergiedConf> confs = reader.readLowestEnergies(Integer.MAX_VALUE, -49);
+			for (EnergiedConf conf : confs) {
+				assertThat(conf.getEnergy(), lessThanOrEqualTo(-49.0));
+			}
+			// energies -50.5 and -49.5, each ~10 times in 1000 confs
+			assertThat(confs.size(), is(20));
+		}
+	}
+
+	@Test
+	public void merge() {
+
+		write(file, 300, 0);
+		write(otherFile, 200, 300);
+
+		long numConfs = ConfLogWriter.merge(mergedFile, Arrays.asList(file, otherFile), Double.POSITIVE_INFINITY);
+		assertThat(numConfs, is(500L));
+
+		try (ConfLogReader reader = new ConfLogReader(mergedFile)) {
+			assertThat(reader.getNumConfs(), is(500L));
+			for (int i=0; i<500; i++) {
+				checkRecord(reader.next(), i);
+			}
+		}
+
+		// with an energy window
+		numConfs = ConfLogWriter.merge(mergedFile, Arrays.asList(file, otherFile), 1.0);
+		try (ConfLogReader reader = new ConfLogReader(mergedFile)) {
+			assertThat(reader.getNumConfs(), is(numConfs));
+			for (ConfLogReader.Record record = reader.next(); record != null; record = reader.next()) {
+				assertThat(record.energy, lessThanOrEqualTo(-49.5));
+			}
+		}
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void wrongNumPos() {
+		ConfLogWriter writer = new ConfLogWriter(file, NumPos);
+		try {
+			writer.write(new int[] { 1, 2 }, 0, 0, null);
+		} finally {
+			writer.close();
+		}
+	}
+}
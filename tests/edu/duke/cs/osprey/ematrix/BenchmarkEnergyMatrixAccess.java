@@ -0,0 +1,170 @@
+package edu.duke.cs.osprey.ematrix;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+import edu.duke.cs.osprey.TestBase;
+import edu.duke.cs.osprey.confspace.RCTuple;
+import edu.duke.cs.osprey.confspace.SearchProblem;
+import edu.duke.cs.osprey.dof.deeper.DEEPerSettings;
+import edu.duke.cs.osprey.ematrix.epic.EPICSettings;
+import edu.duke.cs.osprey.tools.Stopwatch;
+import edu.duke.cs.osprey.tupexp.LUTESettings;
+
+public class BenchmarkEnergyMatrixAccess extends TestBase {
+
+	private static final int NumConfs = 20000;
+	private static final int NumReps = 20;
+
+	public static void main(String[] args)
+	throws Exception {
+
+		initDefaultEnvironment();
+
+		ResidueFlexibility resFlex = new ResidueFlexibility();
+		resFlex.addFlexible("2 3 4 5 6 7 8 9 10 11 12 13");
+		benchmark("1CC8", makeSearch("test/1CC8/1CC8.ss.pdb", resFlex));
+
+		resFlex = new ResidueFlexibility();
+		resFlex.addFlexible("649 650 651 654 156 172 192 193");
+		benchmark("2RL0", makeSearch("test/2RL0.kstar/2RL0.min.reduce.pdb", resFlex));
+	}
+
+	private static SearchProblem makeSearch(String pdbPath, ResidueFlexibility resFlex) {
+
+		System.out.println("\nBuilding search problem for " + pdbPath + "...");
+
+		boolean doMinimize = false;
+		boolean addWt = true;
+		boolean useEpic = false;
+		boolean useTupleExpansion = false;
+		boolean useEllipses = false;
+		boolean useERef = false;
+		boolean addResEntropy = false;
+		boolean addWtRots = false;
+		ArrayList<String[]> moveableStrands = new ArrayList<String[]>();
+		ArrayList<String[]> freeBBZones = new ArrayList<String[]>();
+		SearchProblem search = new SearchProblem(
+			"test", pdbPath,
+			resFlex.flexResList, resFlex.allowedAAs, addWt, doMinimize, useEpic, new EPICSettings(), useTupleExpansion, new LUTESettings(),
+			new DEEPerSettings(), moveableStrands, freeBBZones, useEllipses, useERef, addResEntropy, addWtRots, null,
+			false, new ArrayList<>()
+		);
+
+		EnergyMatrixCalculator emcalc = new EnergyMatrixCalculator(search.confSpace, search.shellResidues, useERef, addResEntropy);
+		emcalc.calcPEM();
+		search.emat = emcalc.getEMatrix();
+		return search;
+	}
+
+	private static void benchmark(String name, SearchProblem search) {
+
+		EnergyMatrix emat = search.emat;
+		int numPos = emat.getNumPos();
+
+		// pick some random confs
+		Random rand = new Random(12345);
+		int[][] confs = new int[NumConfs][numPos];
+		for (int[] conf : confs) {
+			for (int pos=0; pos<numPos; pos++) {
+				conf[pos] = rand.nextInt(emat.getNumConfAtPos(pos));
+			}
+		}
+
+		System.out.println(String.format("\n%s: %d positions, %d confs x %d reps", name, numPos, NumConfs, NumReps));
+
+		// warm up the JIT, and check the paths agree
+		for (int[] conf : confs) {
+			double boxed = confEBoxed(emat, conf);
+			double unboxed = emat.confE(conf);
+			if (getRelativeError(boxed, unboxed) > 1e-12) {
+				throw new Error("energies don't match: " + boxed + " != " + unboxed);
+			}
+			sumPairsBoxed(emat, conf);
+			sumPairsUnboxed(emat, conf);
+		}
+
+		// conf energies
+		Stopwatch boxedStopwatch = new Stopwatch().start();
+		double sum = 0;
+		for (int i=0; i<NumReps; i++) {
+			for (int[] conf : confs) {
+				sum += confEBoxed(emat, conf);
+			}
+		}
+		boxedStopwatch.stop();
+
+		Stopwatch unboxedStopwatch = new Stopwatch().start();
+		for (int i=0; i<NumReps; i++) {
+			for (int[] conf : confs) {
+				sum -= emat.confE(conf);
+			}
+		}
+		unboxedStopwatch.stop();
+
+		System.out.println(String.format("confE:     boxed %s, unboxed %s, speedup %.2fx   (checksum %.3f)",
+			boxedStopwatch.getTime(), unboxedStopwatch.getTime(),
+			(float)boxedStopwatch.getTimeNs()/unboxedStopwatch.getTimeNs(), sum
+		));
+
+		// raw pairwise reads, like the A* scorers do
+		boxedStopwatch = new Stopwatch().start();
+		sum = 0;
+		for (int i=0; i<NumReps; i++) {
+			for (int[] conf : confs) {
+				sum += sumPairsBoxed(emat, conf);
+			}
+		}
+		boxedStopwatch.stop();
+
+		unboxedStopwatch = new Stopwatch().start();
+		for (int i=0; i<NumReps; i++) {
+			for (int[] conf : confs) {
+				sum -= sumPairsUnboxed(emat, conf);
+			}
+		}
+		unboxedStopwatch.stop();
+
+		System.out.println(String.format("pairwise:  boxed %s, unboxed %s, speedup %.2fx   (checksum %.3f)",
+			boxedStopwatch.getTime(), unboxedStopwatch.getTime(),
+			(float)boxedStopwatch.getTimeNs()/unboxedStopwatch.getTimeNs(), sum
+		));
+	}
+
+	private static double confEBoxed(EnergyMatrix emat, int[] conf) {
+
+		// the old way: build an RCTuple, then read boxed energies
+		RCTuple tuple = new RCTuple(conf);
+		double energy = emat.getConstTerm();
+		for (int i=0; i<tuple.size(); i++) {
+			int pos1 = tuple.pos.get(i);
+			int rc1 = tuple.RCs.get(i);
+			energy += emat.getOneBody(pos1, rc1);
+			for (int j=0; j<i; j++) {
+				energy += emat.getPairwise(pos1, rc1, tuple.pos.get(j), tuple.RCs.get(j));
+			}
+		}
+		return energy;
+	}
+
+	private static double sumPairsBoxed(EnergyMatrix emat, int[] conf) {
+		double energy = 0;
+		for (int pos1=0; pos1<conf.length; pos1++) {
+			for (int pos2=0; pos2<pos1; pos2++) {
+				Double e = emat.getPairwise(pos1, conf[pos1], pos2, conf[pos2]);
+				energy += e;
+			}
+		}
+		return energy;
+	}
+
+	private static double sumPairsUnboxed(EnergyMatrix emat, int[] conf) {
+		double energy = 0;
+		for (int pos1=0; pos1<conf.length; pos1++) {
+			for (int pos2=0; pos2<pos1; pos2++) {
+				energy += emat.getPairwiseD(pos1, conf[pos1], pos2, conf[pos2]);
+			}
+		}
+		return energy;
+	}
+}
@@ -0,0 +1,80 @@
+package edu.duke.cs.osprey.ematrix;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import edu.duke.cs.osprey.confspace.IntRCTuple;
+import edu.duke.cs.osprey.confspace.RCTuple;
+
+public class TestEnergyMatrix {
+
+	private static final int[] NumRCsAtPos = { 3, 5, 1, 4 };
+
+	private EnergyMatrix makeMatrix() {
+		EnergyMatrix emat = new EnergyMatrix(NumRCsAtPos.length, NumRCsAtPos, 0);
+		for (int pos1=0; pos1<NumRCsAtPos.length; pos1++) {
+			for (int rc1=0; rc1<NumRCsAtPos[pos1]; rc1++) {
+				emat.setOneBody(pos1, rc1, pos1*10.0 + rc1);
+				for (int pos2=0; pos2<pos1; pos2++) {
+					for (int rc2=0; rc2<NumRCsAtPos[pos2]; rc2++) {
+						emat.setPairwise(pos1, rc1, pos2, rc2, pos1*1000.0 + rc1*100.0 + pos2*10.0 + rc2);
+					}
+				}
+			}
+		}
+		emat.setConstTerm(0.5);
+		return emat;
+	}
+
+	@Test
+	public void testPairwiseRow() {
+		EnergyMatrix emat = makeMatrix();
+		double[] row = new double[5];
+		for (int pos1=0; pos1<NumRCsAtPos.length; pos1++) {
+			for (int rc1=0; rc1<NumRCsAtPos[pos1]; rc1++) {
+				for (int pos2=0; pos2<NumRCsAtPos.length; pos2++) {
+					if (pos2 == pos1) {
+						continue;
+					}
+					emat.getPairwiseRow(pos1, rc1, pos2, row);
+					for (int rc2=0; rc2<NumRCsAtPos[pos2]; rc2++) {
+						assertThat(row[rc2], is(emat.getPairwise(pos1, rc1, pos2, rc2)));
+					}
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testConfE() {
+		EnergyMatrix emat = makeMatrix();
+		int[] conf = { 2, 4, 0, 3 };
+		double expected = emat.getInternalEnergy(new RCTuple(conf)) + emat.getConstTerm();
+		assertThat(emat.confE(conf), is(expected));
+	}
+
+	@Test
+	public void testPartialConfE() {
+		EnergyMatrix emat = makeMatrix();
+		int[] conf = { 1, -1, 0, 2 };
+		double expected = emat.getInternalEnergy(new RCTuple(conf)) + emat.getConstTerm();
+		assertThat(emat.confE(conf), is(expected));
+	}
+
+	@Test
+	public void testIntTupleEnergy() {
+		EnergyMatrix emat = makeMatrix();
+		RCTuple tuple = new RCTuple(3, 1, 1, 4);
+		IntRCTuple intTuple = new IntRCTuple(tuple);
+		assertThat(intTuple.size(), is(2));
+		assertThat(emat.getInternalEnergy(intTuple), is(emat.getInternalEnergy(tuple)));
+
+		// reuse the tuple
+		intTuple.set(new int[] { 0, -1, 0, 2 });
+		assertThat(intTuple.size(), is(3));
+		assertThat(intTuple.toRCTuple().pos, contains(0, 2, 3));
+		assertThat(emat.getInternalEnergy(intTuple), is(emat.getInternalEnergy(intTuple.toRCTuple())));
+	}
+}
@@ -0,0 +1,226 @@
+package edu.duke.cs.osprey.ematrix;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.List;
+
+import org.junit.Test;
+
+import cern.colt.matrix.impl.DenseDoubleMatrix1D;
+import edu.duke.cs.osprey.TestBase;
+import edu.duke.cs.osprey.confspace.SearchProblem;
+import edu.duke.cs.osprey.control.EnvironmentVars;
+import edu.duke.cs.osprey.minimization.Minimizer;
+import edu.duke.cs.osprey.structure.Residue;
+
+public class TestEnergyMatrixCheckpoint extends TestBase {
+	
+	private static final int[] NumRCsAtPos = { 2, 3, 4 };
+	private static final long Hash = 42;
+	
+	private static File makeTempFile()
+	throws IOException {
+		File file = File.createTempFile("emat.", ".checkpoint");
+		file.delete();
+		file.deleteOnExit();
+		return file;
+	}
+	
+	private static EnergyMatrix makeEmat() {
+		return new EnergyMatrix(NumRCsAtPos.length, NumRCsAtPos, Double.POSITIVE_INFINITY);
+	}
+	
+	private static Minimizer.Result makeResult(double energy) {
+		return new Minimizer.Result(new DenseDoubleMatrix1D(new double[] { energy, -energy }), energy);
+	}
+	
+	private static Minimizer.Result[] makeResults(int num, double energy) {
+		Minimizer.Result[] results = new Minimizer.Result[num];
+		for (int i=0; i<num; i++) {
+			results[i] = new Minimizer.Result(null, energy + i);
+		}
+		return results;
+	}
+	
+	@Test
+	public void resume()
+	throws IOException {
+		
+		File file = makeTempFile();
+		EnergyMatrix emat = makeEmat();
+		try (EnergyMatrixCheckpoint checkpoint = new EnergyMatrixCheckpoint(file, Hash, emat, emat, null)) {
+			assertThat(checkpoint.getNumBlocksRead(), is(0));
+			checkpoint.writeSingle(1, 2, makeResult(5.0));
+			checkpoint.writePair(2, 3, 0, makeResults(NumRCsAtPos[0], 10.0));
+			assertThat(checkpoint.isSingleDone(1, 2), is(true));
+			assertThat(checkpoint.isPairDone(2, 3, 0), is(true));
+		}
+		
+		EnergyMatrix emat2 = makeEmat();
+		DofMatrix dofmat2 = new DofMatrix(NumRCsAtPos.length, NumRCsAtPos);
+		try (EnergyMatrixCheckpoint checkpoint = new EnergyMatrixCheckpoint(file, Hash, emat2, emat2, dofmat2)) {
+			
+			assertThat(checkpoint.getNumBlocksRead(), is(2));
+			assertThat(checkpoint.isSingleDone(1, 2), is(true));
+			assertThat(checkpoint.isSingleDone(1, 1), is(false));
+			assertThat(checkpoint.isPairDone(2, 3, 0), is(true));
+			assertThat(checkpoint.isPairDone(2, 3, 1), is(false));
+			assertThat(checkpoint.isPairDone(2, 2, 0), is(false));
+			
+			assertThat(emat2.getOneBody(1, 2), is(5.0));
+			assertThat(dofmat2.getOneBody(1, 2).toArray(), is(new double[] { 5.0, -5.0 }));
+			assertThat(emat2.getPairwise(2, 3, 0, 0), is(10.0));
+			assertThat(emat2.getPairwise(2, 3, 0, 1), is(11.0));
+			assertThat(dofmat2.getPairwise(2, 3, 0, 1), is(nullValue()));
+			
+			// keep appending after the old blocks
+			checkpoint.writeSingle(0, 0, makeResult(7.0));
+		}
+		
+		EnergyMatrix emat3 = makeEmat();
+		try (EnergyMatrixCheckpoint checkpoint = new EnergyMatrixCheckpoint(file, Hash, emat3, emat3, null)) {
+			assertThat(checkpoint.getNumBlocksRead(), is(3));
+			assertThat(emat3.getOneBody(0, 0), is(7.0));
+			assertThat(emat3.getOneBody(1, 2), is(5.0));
+		}
+	}
+	
+	@Test
+	public void partialBlock()
+	throws IOException {
+		
+		File file = makeTempFile();
+		EnergyMatrix emat = makeEmat();
+		try (EnergyMatrixCheckpoint checkpoint = new EnergyMatrixCheckpoint(file, Hash, emat, emat, null)) {
+			checkpoint.writeSingle(0, 1, makeResult(1.0));
+			checkpoint.writeSingle(1, 0, makeResult(2.0));
+		}
+		
+		// chop off the end of the last block, like we got killed while writing it
+		try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+			raf.setLength(raf.length() - 3);
+		}
+		
+		EnergyMatrix emat2 = makeEmat();
+		try (EnergyMatrixCheckpoint checkpoint = new EnergyMatrixCheckpoint(file, Hash, emat2, emat2, null)) {
+			assertThat(checkpoint.getNumBlocksRead(), is(1));
+			assertThat(checkpoint.isSingleDone(0, 1), is(true));
+			assertThat(checkpoint.isSingleDone(1, 0), is(false));
+			checkpoint.writeSingle(1, 0, makeResult(3.0));
+		}
+		
+		EnergyMatrix emat3 = makeEmat();
+		try (EnergyMatrixCheckpoint checkpoint = new EnergyMatrixCheckpoint(file, Hash, emat3, emat3, null)) {
+			assertThat(checkpoint.getNumBlocksRead(), is(2));
+			assertThat(emat3.getOneBody(0, 1), is(1.0));
+			assertThat(emat3.getOneBody(1, 0), is(3.0));
+		}
+	}
+	
+	@Test
+	public void corruptLength()
+	throws IOException {
+		checkCorruptLength(Integer.MAX_VALUE);
+		checkCorruptLength(-1);
+	}
+	
+	private void checkCorruptLength(int length)
+	throws IOException {
+		
+		File file = makeTempFile();
+		EnergyMatrix emat = makeEmat();
+		long secondBlockPos;
+		try (EnergyMatrixCheckpoint checkpoint = new EnergyMatrixCheckpoint(file, Hash, emat, emat, null)) {
+			checkpoint.writeSingle(0, 1, makeResult(1.0));
+			secondBlockPos = file.length();
+			checkpoint.writeSingle(1, 0, makeResult(2.0));
+		}
+		
+		// garble the length word of the last block
+		try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+			raf.seek(secondBlockPos);
+			raf.writeInt(length);
+		}
+		
+		EnergyMatrix emat2 = makeEmat();
+		try (EnergyMatrixCheckpoint checkpoint = new EnergyMatrixCheckpoint(file, Hash, emat2, emat2, null)) {
+			assertThat(checkpoint.getNumBlocksRead(), is(1));
+			assertThat(checkpoint.isSingleDone(0, 1), is(true));
+			assertThat(checkpoint.isSingleDone(1, 0), is(false));
+			assertThat(file.length(), is(secondBlockPos));
+			checkpoint.writeSingle(1, 0, makeResult(3.0));
+		}
+		
+		EnergyMatrix emat3 = makeEmat();
+		try (EnergyMatrixCheckpoint checkpoint = new EnergyMatrixCheckpoint(file, Hash, emat3, emat3, null)) {
+			assertThat(checkpoint.getNumBlocksRead(), is(2));
+			assertThat(emat3.getOneBody(0, 1), is(1.0));
+			assertThat(emat3.getOneBody(1, 0), is(3.0));
+		}
+	}
+	
+	@Test
+	public void differentConfSpace()
+	throws IOException {
+		
+		File file = makeTempFile();
+		EnergyMatrix emat = makeEmat();
+		try (EnergyMatrixCheckpoint checkpoint = new EnergyMatrixCheckpoint(file, Hash, emat, emat, null)) {
+			checkpoint.writeSingle(0, 1, makeResult(1.0));
+		}
+		
+		EnergyMatrix emat2 = makeEmat();
+		try (EnergyMatrixCheckpoint checkpoint = new EnergyMatrixCheckpoint(file, Hash + 1, emat2, emat2, null)) {
+			assertThat(checkpoint.getNumBlocksRead(), is(0));
+			assertThat(checkpoint.isSingleDone(0, 1), is(false));
+			assertThat(emat2.getOneBody(0, 1), is(not(1.0)));
+		}
+	}
+	
+	@Test
+	public void delete()
+	throws IOException {
+		File file = makeTempFile();
+		EnergyMatrix emat = makeEmat();
+		EnergyMatrixCheckpoint checkpoint = new EnergyMatrixCheckpoint(file, Hash, emat, emat, null);
+		checkpoint.writeSingle(0, 0, makeResult(1.0));
+		assertThat(file.exists(), is(true));
+		checkpoint.delete();
+		assertThat(file.exists(), is(false));
+	}
+	
+	@Test
+	public void differentShell()
+	throws IOException {
+		
+		initDefaultEnvironment();
+		EnergyMatrixConfig emConfig = new EnergyMatrixConfig();
+		emConfig.pdbPath = "test/DAGK/2KDC.P.forOsprey.pdb";
+		emConfig.numFlexible = 2;
+		emConfig.addWtRots = true;
+		emConfig.doMinimize = false;
+		SearchProblem search = makeSearchProblem(emConfig);
+		List<Residue> smallShell = search.shellResidues.subList(0, search.shellResidues.size()/2);
+		
+		// fill a checkpoint using the full shell
+		File file = makeTempFile();
+		SimpleEnergyMatrixCalculator ecalc = new SimpleEnergyMatrixCalculator.Cpu(1, EnvironmentVars.curEFcnGenerator.ffParams, search.confSpace, search.shellResidues);
+		ecalc.setCheckpointFile(file);
+		ecalc.calcEnergyMatrix();
+		ecalc.cleanup();
+		
+		// the checkpoint shouldn't be used for a different shell
+		ecalc = new SimpleEnergyMatrixCalculator.Cpu(1, EnvironmentVars.curEFcnGenerator.ffParams, search.confSpace, smallShell);
+		EnergyMatrix exp = ecalc.calcEnergyMatrix();
+		ecalc.setCheckpointFile(file);
+		EnergyMatrix obs = ecalc.calcEnergyMatrix();
+		ecalc.cleanup();
+		
+		assertThat(obs.getOneBody(0, 0), is(exp.getOneBody(0, 0)));
+		assertThat(obs.getOneBody(0, 0), is(not(search.emat.getOneBody(0, 0))));
+	}
+}
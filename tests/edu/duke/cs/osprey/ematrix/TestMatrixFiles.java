@@ -0,0 +1,282 @@
+package edu.duke.cs.osprey.ematrix;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.List;
+
+import org.junit.Test;
+
+import cern.colt.matrix.DoubleMatrix1D;
+import cern.colt.matrix.impl.DenseDoubleMatrix1D;
+import edu.duke.cs.osprey.TestBase;
+import edu.duke.cs.osprey.confspace.SearchProblem;
+import edu.duke.cs.osprey.confspace.TupleMatrixFile;
+import edu.duke.cs.osprey.control.EnvironmentVars;
+import edu.duke.cs.osprey.energy.forcefield.ForcefieldParams;
+import edu.duke.cs.osprey.pruning.PruningMatrix;
+import edu.duke.cs.osprey.structure.Residue;
+
+public class TestMatrixFiles extends TestBase {
+
+	private static final long Hash = 42;
+
+	// use more than 64 RCs at a position so pruning rows span multiple words
+	private static final int[] NumRCsAtPos = { 3, 70, 1, 5 };
+
+	private static File makeTempFile()
+	throws IOException {
+		File file = File.createTempFile("matrix.", ".bin");
+		file.deleteOnExit();
+		return file;
+	}
+
+	private static EnergyMatrix makeEmat() {
+		EnergyMatrix emat = new EnergyMatrix(NumRCsAtPos.length, NumRCsAtPos, Double.POSITIVE_INFINITY);
+		for (int pos1=0; pos1<NumRCsAtPos.length; pos1++) {
+			for (int rc1=0; rc1<NumRCsAtPos[pos1]; rc1++) {
+				emat.setOneBody(pos1, rc1, pos1*10.0 + rc1);
+				for (int pos2=0; pos2<pos1; pos2++) {
+					for (int rc2=0; rc2<NumRCsAtPos[pos2]; rc2++) {
+						emat.setPairwise(pos1, rc1, pos2, rc2, pos1*1000.0 + rc1*100.0 + pos2*10.0 + rc2);
+					}
+				}
+			}
+		}
+		emat.setConstTerm(-4.2);
+		return emat;
+	}
+
+	private static void assertSameEnergies(EnergyMatrix expected, EnergyMatrix observed) {
+		assertThat(observed.getNumPos(), is(expected.getNumPos()));
+		assertThat(observed.getConstTerm(), is(expected.getConstTerm()));
+		assertThat(observed.getPruningInterval(), is(expected.getPruningInterval()));
+		for (int pos1=0; pos1<expected.getNumPos(); pos1++) {
+			assertThat(observed.getNumConfAtPos(pos1), is(expected.getNumConfAtPos(pos1)));
+			for (int rc1=0; rc1<expected.getNumConfAtPos(pos1); rc1++) {
+				assertThat(observed.getOneBody(pos1, rc1), is(expected.getOneBody(pos1, rc1)));
+				for (int pos2=0; pos2<pos1; pos2++) {
+					for (int rc2=0; rc2<expected.getNumConfAtPos(pos2); rc2++) {
+						assertThat(observed.getPairwise(pos1, rc1, pos2, rc2), is(expected.getPairwise(pos1, rc1, pos2, rc2)));
+					}
+				}
+			}
+		}
+	}
+
+	@Test
+	public void energyMatrixRead()
+	throws IOException {
+		EnergyMatrix emat = makeEmat();
+		File file = makeTempFile();
+		emat.write(file, Hash);
+
+		EnergyMatrix read = EnergyMatrix.read(file, null, Hash);
+		assertSameEnergies(emat, read);
+		assertThat(read.geteRefMat(), is(nullValue()));
+	}
+
+	@Test
+	public void energyMatrixMap()
+	throws IOException {
+		EnergyMatrix emat = makeEmat();
+		File file = makeTempFile();
+		emat.write(file, Hash);
+
+		EnergyMatrix mapped = EnergyMatrix.map(file, null, Hash);
+		assertThat(mapped, instanceOf(MappedEnergyMatrix.class));
+		assertSameEnergies(emat, mapped);
+
+		double[] row = new double[NumRCsAtPos[1]];
+		mapped.getPairwiseRow(3, 4, 1, row);
+		for (int rc=0; rc<row.length; rc++) {
+			assertThat(row[rc], is(emat.getPairwise(3, 4, 1, rc)));
+		}
+
+		int[] conf = { 2, 69, 0, 3 };
+		assertThat(mapped.confE(conf), is(emat.confE(conf)));
+
+		// mapped matrices can be copied back onto the heap
+		assertSameEnergies(emat, new EnergyMatrix(mapped));
+	}
+
+	@Test
+	public void energyMatrixMapCopiesOnWrite()
+	throws IOException {
+		EnergyMatrix emat = makeEmat();
+		File file = makeTempFile();
+		emat.write(file, Hash);
+
+		MappedEnergyMatrix mapped = (MappedEnergyMatrix)EnergyMatrix.map(file, null, Hash);
+		assertThat(mapped.getNumCopiedChunks(), is(0));
+		mapped.setOneBody(0, 0, 5.0);
+		mapped.setPairwise(1, 66, 3, 4, 7.0);
+		assertThat(mapped.getNumCopiedChunks(), is(2));
+
+		// the changes are visible in the matrix...
+		assertThat(mapped.getOneBody(0, 0), is(5.0));
+		assertThat(mapped.getPairwise(3, 4, 1, 66), is(7.0));
+		emat.setOneBody(0, 0, 5.0);
+		emat.setPairwise(1, 66, 3, 4, 7.0);
+		assertSameEnergies(emat, mapped);
+
+		// ...but not in the file
+		assertSameEnergies(makeEmat(), EnergyMatrix.map(file, null, Hash));
+	}
+
+	@Test
+	public void missingFile() {
+		assertThat(EnergyMatrix.read(new File("does/not/exist.bin"), null, Hash), is(nullValue()));
+		assertThat(PruningMatrix.read(new File("does/not/exist.bin"), Hash), is(nullValue()));
+		assertThat(DofMatrix.read(new File("does/not/exist.bin"), Hash), is(nullValue()));
+		assertThat(EnergyMatrix.map(new File("does/not/exist.bin"), null, Hash), is(nullValue()));
+	}
+
+	@Test
+	public void differentHash()
+	throws IOException {
+		File file = makeTempFile();
+		makeEmat().write(file, Hash);
+		assertThat(EnergyMatrix.read(file, null, Hash + 1), is(nullValue()));
+		assertThat(EnergyMatrix.map(file, null, Hash + 1), is(nullValue()));
+	}
+
+	@Test
+	public void wrongType()
+	throws IOException {
+		File file = makeTempFile();
+		makeEmat().write(file, Hash);
+		assertThat(PruningMatrix.read(file, Hash), is(nullValue()));
+		assertThat(DofMatrix.read(file, Hash), is(nullValue()));
+	}
+
+	@Test
+	public void pruningMatrix()
+	throws IOException {
+		PruningMatrix pmat = makePmat();
+
+		File file = makeTempFile();
+		pmat.write(file, Hash);
+		assertSamePruning(PruningMatrix.read(file, Hash));
+		assertThat(PruningMatrix.read(file, Hash + 1), is(nullValue()));
+	}
+
+	private static PruningMatrix makePmat() {
+		PruningMatrix pmat = new PruningMatrix(NumRCsAtPos.length, NumRCsAtPos, 5.0);
+		pmat.setOneBody(1, 65, true);
+		pmat.setPairwise(3, 4, 1, 66, true);
+		pmat.setPairwise(0, 2, 2, 0, true);
+		return pmat;
+	}
+
+	private static void assertSamePruning(PruningMatrix read) {
+		assertThat(read.getPruningInterval(), is(5.0));
+		assertThat(read.countPrunedRCs(), is(1));
+		assertThat(read.countPrunedPairs(), is(2));
+		assertThat(read.getOneBody(1, 65), is(true));
+		assertThat(read.getPairwise(1, 66, 3, 4), is(true));
+		assertThat(read.getPairwise(2, 0, 0, 2), is(true));
+	}
+
+	@Test
+	public void dofMatrix()
+	throws IOException {
+		DofMatrix dofmat = makeDofmat();
+
+		File file = makeTempFile();
+		dofmat.write(file, Hash);
+		assertSameDofs(DofMatrix.read(file, Hash));
+		assertThat(DofMatrix.read(file, Hash + 1), is(nullValue()));
+	}
+
+	private static DofMatrix makeDofmat() {
+		DofMatrix dofmat = new DofMatrix(NumRCsAtPos.length, NumRCsAtPos);
+		dofmat.setOneBody(1, 5, new DenseDoubleMatrix1D(new double[] { 1.5, 2.5 }));
+		dofmat.setOneBody(2, 0, new DenseDoubleMatrix1D(new double[] {}));
+		dofmat.setPairwise(3, 1, 0, 2, new DenseDoubleMatrix1D(new double[] { 3, 4, 5 }));
+		return dofmat;
+	}
+
+	private static void assertSameDofs(DofMatrix read) {
+		DoubleMatrix1D dofs = read.getOneBody(1, 5);
+		assertThat(dofs.toArray(), is(new double[] { 1.5, 2.5 }));
+		assertThat(read.getOneBody(2, 0).size(), is(0));
+		assertThat(read.getOneBody(1, 4), is(nullValue()));
+		assertThat(read.getPairwise(0, 2, 3, 1).toArray(), is(new double[] { 3, 4, 5 }));
+		assertThat(read.getPairwise(0, 1, 3, 1), is(nullValue()));
+	}
+
+	@Test(expected=TupleMatrixFile.IncompatibleException.class)
+	public void notAMatrixFile()
+	throws IOException {
+		File file = makeTempFile();
+		try (FileOutputStream out = new FileOutputStream(file)) {
+			out.write(new byte[1024]);
+		}
+		new TupleMatrixFile.Reader(file, TupleMatrixFile.Type.Energy);
+	}
+
+	@Test
+	public void hashCoversForcefieldAndShell() {
+
+		initDefaultEnvironment();
+		EnergyMatrixConfig emConfig = new EnergyMatrixConfig();
+		emConfig.pdbPath = "test/DAGK/2KDC.P.forOsprey.pdb";
+		emConfig.numFlexible = 2;
+		emConfig.addWtRots = true;
+		emConfig.doMinimize = false;
+		SearchProblem search = makeSearchProblem(emConfig);
+		ForcefieldParams ffparams = EnvironmentVars.curEFcnGenerator.ffParams;
+
+		long hash = TupleMatrixFile.hashConfSpace(search.confSpace, ffparams, search.shellResidues);
+		assertThat(search.getEnergyMatrixHash(), is(hash));
+
+		// a smaller shell
+		List<Residue> shell = search.shellResidues.subList(1, search.shellResidues.size());
+		assertThat(TupleMatrixFile.hashConfSpace(search.confSpace, ffparams, shell), is(not(hash)));
+
+		// different forcefield settings
+		double cutoff = ffparams.nonbondedCutoff;
+		try {
+			ffparams.nonbondedCutoff = 10;
+			assertThat(TupleMatrixFile.hashConfSpace(search.confSpace, ffparams, search.shellResidues), is(not(hash)));
+		} finally {
+			ffparams.nonbondedCutoff = cutoff;
+		}
+	}
+
+	@Test
+	public void searchProblemHashPruningAndDofFiles()
+	throws IOException {
+
+		initDefaultEnvironment();
+		EnergyMatrixConfig emConfig = new EnergyMatrixConfig();
+		emConfig.pdbPath = "test/DAGK/2KDC.P.forOsprey.pdb";
+		emConfig.numFlexible = 2;
+		emConfig.addWtRots = true;
+		emConfig.doMinimize = false;
+		SearchProblem search = makeSearchProblem(emConfig);
+
+		PruningMatrix pmat = new PruningMatrix(search.confSpace, 0);
+		pmat.setOneBody(1, 2, true);
+		pmat.setPairwise(1, 0, 0, 1, true);
+		File pmatFile = makeTempFile();
+		pmat.write(pmatFile, search.getEnergyMatrixHash());
+		PruningMatrix pmatRead = PruningMatrix.read(pmatFile, search.getEnergyMatrixHash());
+		assertThat(pmatRead.countPrunedRCs(), is(1));
+		assertThat(pmatRead.countPrunedPairs(), is(1));
+		assertThat(pmatRead.getOneBody(1, 2), is(true));
+		assertThat(pmatRead.getPairwise(1, 0, 0, 1), is(true));
+
+		DofMatrix dofmat = new DofMatrix(search.confSpace);
+		dofmat.setOneBody(0, 1, new DenseDoubleMatrix1D(new double[] { 1, 2 }));
+		File dofmatFile = makeTempFile();
+		dofmat.write(dofmatFile, search.getEnergyMatrixHash());
+		DofMatrix dofmatRead = DofMatrix.read(dofmatFile, search.getEnergyMatrixHash());
+		assertThat(dofmatRead.getOneBody(0, 1).toArray(), is(new double[] { 1, 2 }));
+		assertThat(dofmatRead.getOneBody(0, 0), is(nullValue()));
+	}
+}
@@ -0,0 +1,267 @@
+package edu.duke.cs.osprey.ematrix.epic;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+import cern.colt.matrix.DoubleFactory1D;
+import cern.colt.matrix.DoubleMatrix1D;
+import edu.duke.cs.osprey.TestBase;
+import edu.duke.cs.osprey.dof.DOFBlock;
+import edu.duke.cs.osprey.dof.DegreeOfFreedom;
+import edu.duke.cs.osprey.tools.Stopwatch;
+
+public class BenchmarkEPoly extends TestBase {
+
+	public static void main(String[] args) {
+
+		// the first pass just warms up the JIT
+		benchmark(false);
+		benchmark(true);
+		benchmarkConf(false);
+		benchmarkConf(true);
+	}
+
+	private static class BenchmarkDOF extends DegreeOfFreedom {
+
+		private static final long serialVersionUID = -4238527437957516458L;
+
+		@Override
+		public void apply(double paramVal) {
+			// nothing to do
+		}
+
+		@Override
+		public DOFBlock getBlock() {
+			return null;
+		}
+	}
+
+	private static void benchmark(boolean report) {
+
+		Random rand = new Random(12345);
+		final int numPoints = 1000;
+
+		// EPIC terms usually have a handful of DOFs, and are fit to order 2-4
+		if (report) System.out.println(String.format("%4s %5s %7s %12s %12s %8s %12s %12s %8s",
+			"DOFs", "order", "coeffs", "series", "compiled", "speedup", "series grad", "compiled grad", "speedup"
+		));
+		for (int numDOFs : new int[] { 2, 4, 6, 8 }) {
+			for (int order : new int[] { 2, 3, 4 }) {
+
+				double[] coeffs = new double[SeriesFitter.getNumParams(numDOFs, false, order)];
+				for (int i=0; i<coeffs.length; i++) {
+					coeffs[i] = rand.nextDouble()*2 - 1;
+				}
+				DoubleMatrix1D center = DoubleFactory1D.dense.make(numDOFs);
+				for (int d=0; d<numDOFs; d++) {
+					center.set(d, rand.nextDouble()*2 - 1);
+				}
+				EPoly poly = new EPoly(numDOFs, null, null, null, center, 0, coeffs, order);
+				CompiledEPoly compiled = poly.getCompiled();
+
+				DoubleMatrix1D[] points = new DoubleMatrix1D[numPoints];
+				double[][] pointArrays = new double[numPoints][];
+				for (int i=0; i<numPoints; i++) {
+					points[i] = DoubleFactory1D.dense.make(numDOFs);
+					for (int d=0; d<numDOFs; d++) {
+						points[i].set(d, rand.nextDouble()*2 - 1);
+					}
+					pointArrays[i] = points[i].toArray();
+				}
+
+				int numRuns = Math.max(10, 20000000/(coeffs.length*numPoints));
+				if (!report) {
+					numRuns = Math.max(1, numRuns/10);
+				}
+				double[] work = new double[compiled.getWorkSize()];
+				double[] gradient = new double[numDOFs];
+
+				// make sure we get the same answers
+				for (int i=0; i<numPoints; i++) {
+					double expected = SeriesFitter.evalSeries(coeffs, poly.toRelCoords(points[i]), numDOFs, false, order);
+					double observed = compiled.evaluate(pointArrays[i], null, work);
+					if (Math.abs(expected - observed) > 1e-10*Math.max(1, Math.abs(expected))) {
+						throw new Error("compiled EPoly is wrong: " + expected + " != " + observed);
+					}
+				}
+
+				Stopwatch seriesStopwatch = new Stopwatch().start();
+				double sum = 0;
+				for (int r=0; r<numRuns; r++) {
+					for (int i=0; i<numPoints; i++) {
+						// this is what EPoly.evaluate() used to do
+						sum += SeriesFitter.evalSeries(coeffs, poly.toRelCoords(points[i]), numDOFs, false, order);
+					}
+				}
+				seriesStopwatch.stop();
+
+				Stopwatch compiledStopwatch = new Stopwatch().start();
+				for (int r=0; r<numRuns; r++) {
+					for (int i=0; i<numPoints; i++) {
+						sum += compiled.evaluate(pointArrays[i], null, work);
+					}
+				}
+				compiledStopwatch.stop();
+
+				Stopwatch seriesGradStopwatch = new Stopwatch().start();
+				for (int r=0; r<numRuns; r++) {
+					for (int i=0; i<numPoints; i++) {
+						DoubleMatrix1D z = poly.toRelCoords(points[i]);
+						sum += SeriesFitter.evalSeries(coeffs, z, numDOFs, false, order);
+						sum += SeriesFitter.evalSeriesGradient(coeffs, z, numDOFs, false, order, order, null).get(0);
+					}
+				}
+				seriesGradStopwatch.stop();
+
+				Stopwatch compiledGradStopwatch = new Stopwatch().start();
+				for (int r=0; r<numRuns; r++) {
+					for (int i=0; i<numPoints; i++) {
+						sum += compiled.evaluateWithGradient(pointArrays[i], null, gradient, work);
+					}
+				}
+				compiledGradStopwatch.stop();
+
+				if (report) System.out.println(String.format("%4d %5d %7d %12s %12s %7.1fx %12s %12s %7.1fx%s",
+					numDOFs, order, coeffs.length,
+					seriesStopwatch.getTime(2), compiledStopwatch.getTime(2),
+					(double)seriesStopwatch.getTimeNs()/compiledStopwatch.getTimeNs(),
+					seriesGradStopwatch.getTime(2), compiledGradStopwatch.getTime(2),
+					(double)seriesGradStopwatch.getTimeNs()/compiledGradStopwatch.getTimeNs(),
+					sum == 0 ? " " : ""
+				));
+			}
+		}
+	}
+
+	private static void benchmarkConf(boolean report) {
+
+		Random rand = new Random(12345);
+		final int numRes = 6;
+		final int numDOFsPerRes = 2;
+		final int numPoints = 100;
+		int numDOFs = numRes*numDOFsPerRes;
+
+		ArrayList<DegreeOfFreedom> dofs = new ArrayList<>();
+		for (int d=0; d<numDOFs; d++) {
+			dofs.add(new BenchmarkDOF());
+		}
+
+		if (report) System.out.println(String.format("\n%5s %6s %12s %12s %8s %12s %12s %8s",
+			"order", "terms", "conf energy", "batch", "speedup", "fd gradient", "analytic", "speedup"
+		));
+		for (int order : new int[] { 2, 3, 4 }) {
+
+			// single and pair terms, like an EPIC matrix for a conf
+			ArrayList<EPoly> terms = new ArrayList<>();
+			ArrayList<int[]> termDOFs = new ArrayList<>();
+			for (int res1=0; res1<numRes; res1++) {
+				for (int res2=0; res2<=res1; res2++) {
+					ArrayList<DegreeOfFreedom> termDOFList = new ArrayList<>();
+					int[] dofIndices = new int[res1 == res2 ? numDOFsPerRes : 2*numDOFsPerRes];
+					for (int i=0; i<dofIndices.length; i++) {
+						int res = i < numDOFsPerRes ? res1 : res2;
+						dofIndices[i] = res*numDOFsPerRes + i%numDOFsPerRes;
+						termDOFList.add(dofs.get(dofIndices[i]));
+					}
+					int termNumDOFs = dofIndices.length;
+					double[] coeffs = new double[SeriesFitter.getNumParams(termNumDOFs, false, order)];
+					for (int i=0; i<coeffs.length; i++) {
+						coeffs[i] = rand.nextDouble()*2 - 1;
+					}
+					DoubleMatrix1D center = DoubleFactory1D.dense.make(termNumDOFs);
+					for (int d=0; d<termNumDOFs; d++) {
+						center.set(d, rand.nextDouble()*2 - 1);
+					}
+					terms.add(new EPoly(termNumDOFs, termDOFList, null, null, center, rand.nextDouble(), coeffs, order));
+					termDOFs.add(dofIndices);
+				}
+			}
+
+			DoubleMatrix1D x = DoubleFactory1D.dense.make(numDOFs);
+			EPICEnergyFunction efunc = new EPICEnergyFunction(terms);
+			efunc.includeMinE = true;
+			efunc.init(null, dofs, x);
+
+			double[][] points = new double[numPoints][numDOFs];
+			for (int i=0; i<numPoints; i++) {
+				for (int d=0; d<numDOFs; d++) {
+					points[i][d] = rand.nextDouble()*2 - 1;
+				}
+			}
+
+			int numRuns = report ? 200 : 20;
+			double[] gradient = new double[numDOFs];
+
+			// this is what EPICEnergyFunction.getEnergy() used to do
+			Stopwatch legacyStopwatch = new Stopwatch().start();
+			double sum = 0;
+			for (int r=0; r<numRuns; r++) {
+				for (int i=0; i<numPoints; i++) {
+					x.assign(points[i]);
+					sum += legacyEnergy(terms, termDOFs, x);
+				}
+			}
+			legacyStopwatch.stop();
+
+			Stopwatch batchStopwatch = new Stopwatch().start();
+			for (int r=0; r<numRuns; r++) {
+				for (int i=0; i<numPoints; i++) {
+					x.assign(points[i]);
+					sum += efunc.getEnergy();
+				}
+			}
+			batchStopwatch.stop();
+
+			// minimizers used to get EPIC gradients by central differences
+			Stopwatch fdStopwatch = new Stopwatch().start();
+			for (int r=0; r<numRuns; r++) {
+				for (int i=0; i<numPoints; i++) {
+					x.assign(points[i]);
+					for (int d=0; d<numDOFs; d++) {
+						double xd = x.get(d);
+						x.set(d, xd + 1e-3);
+						double fPlus = legacyEnergy(terms, termDOFs, x);
+						x.set(d, xd - 1e-3);
+						double fMinus = legacyEnergy(terms, termDOFs, x);
+						x.set(d, xd);
+						gradient[d] = (fPlus - fMinus)/2e-3;
+					}
+					sum += legacyEnergy(terms, termDOFs, x) + gradient[0];
+				}
+			}
+			fdStopwatch.stop();
+
+			Stopwatch analyticStopwatch = new Stopwatch().start();
+			for (int r=0; r<numRuns; r++) {
+				for (int i=0; i<numPoints; i++) {
+					x.assign(points[i]);
+					sum += efunc.getEnergyAndGradient(gradient) + gradient[0];
+				}
+			}
+			analyticStopwatch.stop();
+
+			if (report) System.out.println(String.format("%5d %6d %12s %12s %7.1fx %12s %12s %7.1fx%s",
+				order, terms.size(),
+				legacyStopwatch.getTime(2), batchStopwatch.getTime(2),
+				(double)legacyStopwatch.getTimeNs()/batchStopwatch.getTimeNs(),
+				fdStopwatch.getTime(2), analyticStopwatch.getTime(2),
+				(double)fdStopwatch.getTimeNs()/analyticStopwatch.getTimeNs(),
+				sum == 0 ? " " : ""
+			));
+		}
+	}
+
+	private static double legacyEnergy(ArrayList<EPoly> terms, ArrayList<int[]> termDOFs, DoubleMatrix1D x) {
+		double energy = 0;
+		for (int t=0; t<terms.size(); t++) {
+			EPoly term = terms.get(t);
+			int[] dofIndices = termDOFs.get(t);
+			DoubleMatrix1D xTerm = DoubleFactory1D.dense.make(term.numDOFs);
+			for (int d=0; d<term.numDOFs; d++) {
+				xTerm.set(d, x.get(dofIndices[d]));
+			}
+			energy += SeriesFitter.evalSeries(term.coeffs, term.toRelCoords(xTerm), term.numDOFs, false, term.order) + term.minE;
+		}
+		return energy;
+	}
+}
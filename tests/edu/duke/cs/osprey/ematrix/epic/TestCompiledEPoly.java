@@ -0,0 +1,257 @@
+package edu.duke.cs.osprey.ematrix.epic;
+
+import static edu.duke.cs.osprey.TestBase.*;
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+import cern.colt.matrix.DoubleFactory1D;
+import cern.colt.matrix.DoubleMatrix1D;
+import edu.duke.cs.osprey.dof.DOFBlock;
+import edu.duke.cs.osprey.dof.DegreeOfFreedom;
+
+public class TestCompiledEPoly {
+
+	private static final double Epsilon = 1e-10;
+
+	private static class TestDOF extends DegreeOfFreedom {
+
+		private static final long serialVersionUID = 4914436787003045468L;
+
+		@Override
+		public void apply(double paramVal) {
+			// nothing to do
+		}
+
+		@Override
+		public DOFBlock getBlock() {
+			return null;
+		}
+	}
+
+	private static DoubleMatrix1D makeVector(Random rand, int size, double min, double max) {
+		DoubleMatrix1D v = DoubleFactory1D.dense.make(size);
+		for (int i=0; i<size; i++) {
+			v.set(i, min + (max - min)*rand.nextDouble());
+		}
+		return v;
+	}
+
+	private static double[] makeCoeffs(Random rand, int numCoeffs) {
+		double[] coeffs = new double[numCoeffs];
+		for (int i=0; i<numCoeffs; i++) {
+			coeffs[i] = rand.nextDouble()*2 - 1;
+		}
+		return coeffs;
+	}
+
+	private static EPoly makePoly(Random rand, ArrayList<DegreeOfFreedom> dofs, int order) {
+		int numDOFs = dofs.size();
+		DoubleMatrix1D center = makeVector(rand, numDOFs, -1, 1);
+		double[] coeffs = makeCoeffs(rand, SeriesFitter.getNumParams(numDOFs, false, order));
+		return new EPoly(numDOFs, dofs, makeVector(rand, numDOFs, 1, 2), makeVector(rand, numDOFs, -2, -1), center, 0, coeffs, order);
+	}
+
+	private static EPolyPC makePCPoly(Random rand, int numDOFs, int order, int pcOrder) {
+
+		// use a quadratic template with two big principal components
+		EPoly template = makePoly(rand, makeDOFs(numDOFs), 2);
+		for (int i=numDOFs; i<template.coeffs.length; i++) {
+			template.coeffs[i] *= 0.1;
+		}
+		for (int d=0; d<2; d++) {
+			template.coeffs[numDOFs + d*(d + 1)/2 + d] = 10;
+		}
+		EPolyPC poly = new EPolyPC(template, order, pcOrder, 0.3);
+
+		int numPCs = SeriesFitter.countTrue(poly.isPC);
+		int numCoeffs = SeriesFitter.getNumParams(numDOFs, false, order);
+		for (int n=order+1; n<=pcOrder; n++) {
+			numCoeffs += SeriesFitter.getNumParamsForOrder(numPCs, n);
+		}
+		poly.coeffs = makeCoeffs(rand, numCoeffs);
+		return poly;
+	}
+
+	private static ArrayList<DegreeOfFreedom> makeDOFs(int numDOFs) {
+		ArrayList<DegreeOfFreedom> dofs = new ArrayList<>();
+		for (int i=0; i<numDOFs; i++) {
+			dofs.add(new TestDOF());
+		}
+		return dofs;
+	}
+
+	private static double evaluate(CompiledEPoly poly, double[] x) {
+		return poly.evaluate(x, null, new double[poly.getWorkSize()]);
+	}
+
+	private static void checkGradient(CompiledEPoly poly, double[] x) {
+
+		double[] gradient = new double[x.length];
+		double val = poly.evaluateWithGradient(x, null, gradient, new double[poly.getWorkSize()]);
+		assertThat(val, isAbsolutely(evaluate(poly, x), Epsilon));
+
+		// compare to central differences
+		final double h = 1e-5;
+		for (int i=0; i<x.length; i++) {
+			double[] xPlus = x.clone();
+			xPlus[i] += h;
+			double[] xMinus = x.clone();
+			xMinus[i] -= h;
+			double expected = (evaluate(poly, xPlus) - evaluate(poly, xMinus))/(2*h);
+			assertThat(gradient[i], isAbsolutely(expected, 1e-5));
+		}
+	}
+
+	@Test
+	public void matchesSeries() {
+		Random rand = new Random(12345);
+		for (int order=1; order<=6; order++) {
+			EPoly poly = makePoly(rand, makeDOFs(4), order);
+			CompiledEPoly compiled = CompiledEPoly.compile(poly);
+			assertThat(compiled.getNumMonomials(), is(poly.coeffs.length));
+			for (int i=0; i<10; i++) {
+				DoubleMatrix1D x = makeVector(rand, 4, -2, 2);
+				double expected = SeriesFitter.evalSeries(poly.coeffs, poly.toRelCoords(x), 4, false, order);
+				assertThat(evaluate(compiled, x.toArray()), isAbsolutely(expected, Epsilon));
+				assertThat(poly.evaluate(x, false, false), isAbsolutely(expected, Epsilon));
+			}
+		}
+	}
+
+	@Test
+	public void matchesSeriesGradient() {
+		Random rand = new Random(12345);
+		for (int order=1; order<=6; order++) {
+			EPoly poly = makePoly(rand, makeDOFs(4), order);
+			CompiledEPoly compiled = CompiledEPoly.compile(poly);
+			for (int i=0; i<10; i++) {
+				DoubleMatrix1D x = makeVector(rand, 4, -2, 2);
+				checkGradient(compiled, x.toArray());
+				if (order >= 2 && order <= 4) {
+					DoubleMatrix1D expected = SeriesFitter.evalSeriesGradient(poly.coeffs, poly.toRelCoords(x), 4, false, order, order, null);
+					DoubleMatrix1D observed = poly.gradient(x);
+					for (int d=0; d<4; d++) {
+						assertThat(observed.get(d), isAbsolutely(expected.get(d), Epsilon));
+					}
+				}
+			}
+		}
+	}
+
+	@Test
+	public void matchesPCSeries() {
+		Random rand = new Random(12345);
+		for (int[] orders : new int[][] { { 2, 3 }, { 2, 4 }, { 3, 4 }, { 2, 6 } }) {
+			EPolyPC poly = makePCPoly(rand, 5, orders[0], orders[1]);
+			assertThat(SeriesFitter.countTrue(poly.isPC), is(2));
+			CompiledEPoly compiled = CompiledEPoly.compile(poly);
+			for (int i=0; i<10; i++) {
+				DoubleMatrix1D x = makeVector(rand, 5, -2, 2);
+				double expected = poly.evalSeries(poly.toRelCoords(x));
+				assertThat(evaluate(compiled, x.toArray()), isAbsolutely(expected, Epsilon));
+				assertThat(poly.evaluate(x, false, false), isAbsolutely(expected, Epsilon));
+				checkGradient(compiled, x.toArray());
+			}
+		}
+	}
+
+	@Test
+	public void dofIndices() {
+		Random rand = new Random(12345);
+		EPoly poly = makePoly(rand, makeDOFs(3), 4);
+		CompiledEPoly compiled = CompiledEPoly.compile(poly);
+
+		// put the DOFs out of order in a bigger vector
+		int[] dofIndices = { 4, 0, 2 };
+		double[] x = makeVector(rand, 6, -2, 2).toArray();
+		double[] xPoly = { x[4], x[0], x[2] };
+
+		double[] work = new double[compiled.getWorkSize()];
+		assertThat(compiled.evaluate(x, dofIndices, work), isAbsolutely(evaluate(compiled, xPoly), Epsilon));
+
+		double[] gradient = new double[6];
+		Arrays.fill(gradient, 1);
+		double[] gradientPoly = new double[3];
+		compiled.evaluateWithGradient(x, dofIndices, gradient, work);
+		compiled.evaluateWithGradient(xPoly, null, gradientPoly, work);
+		assertThat(gradient[1], is(1.0));
+		assertThat(gradient[3], is(1.0));
+		assertThat(gradient[5], is(1.0));
+		for (int i=0; i<3; i++) {
+			assertThat(gradient[dofIndices[i]], isAbsolutely(gradientPoly[i] + 1, Epsilon));
+		}
+	}
+
+	@Test
+	public void recompilesAfterRefit() {
+		Random rand = new Random(12345);
+		EPoly poly = makePoly(rand, makeDOFs(3), 3);
+		CompiledEPoly compiled = poly.getCompiled();
+		assertThat(poly.getCompiled(), sameInstance(compiled));
+
+		poly.coeffs = makeCoeffs(rand, poly.coeffs.length);
+		assertThat(poly.getCompiled(), not(sameInstance(compiled)));
+
+		DoubleMatrix1D x = makeVector(rand, 3, -2, 2);
+		double expected = SeriesFitter.evalSeries(poly.coeffs, poly.toRelCoords(x), 3, false, 3);
+		assertThat(poly.evaluate(x, false, false), isAbsolutely(expected, Epsilon));
+	}
+
+	@Test
+	public void energyFunction() {
+
+		Random rand = new Random(12345);
+		ArrayList<DegreeOfFreedom> dofs = makeDOFs(6);
+
+		// terms on overlapping subsets of the DOFs, like single and pair EPIC terms
+		ArrayList<EPoly> terms = new ArrayList<>();
+		terms.add(makePoly(rand, new ArrayList<>(dofs.subList(0, 2)), 4));
+		terms.add(makePoly(rand, new ArrayList<>(dofs.subList(2, 5)), 4));
+		terms.add(makePoly(rand, new ArrayList<>(Arrays.asList(dofs.get(5), dofs.get(1), dofs.get(3))), 3));
+		for (EPoly term : terms) {
+			term.setMinE(rand.nextDouble());
+		}
+
+		EPICEnergyFunction efunc = new EPICEnergyFunction(terms);
+		efunc.includeMinE = true;
+		DoubleMatrix1D x = makeVector(rand, 6, -2, 2);
+		efunc.init(null, dofs, x);
+
+		double[] termEnergies = new double[terms.size()];
+		double energy = efunc.getEnergies(termEnergies);
+		double expectedEnergy = 0;
+		for (int t=0; t<terms.size(); t++) {
+			EPoly term = terms.get(t);
+			DoubleMatrix1D xTerm = DoubleFactory1D.dense.make(term.numDOFs);
+			for (int d=0; d<term.numDOFs; d++) {
+				xTerm.set(d, x.get(dofs.indexOf(term.DOFs.get(d))));
+			}
+			double expected = SeriesFitter.evalSeries(term.coeffs, term.toRelCoords(xTerm), term.numDOFs, false, term.order) + term.minE;
+			assertThat(termEnergies[t], isAbsolutely(expected, Epsilon));
+			expectedEnergy += expected;
+		}
+		assertThat(energy, isAbsolutely(expectedEnergy, Epsilon));
+		assertThat(efunc.getEnergy(), isAbsolutely(expectedEnergy, Epsilon));
+
+		// check the gradient against central differences
+		assertThat(efunc.hasGradient(), is(true));
+		double[] gradient = new double[6];
+		assertThat(efunc.getEnergyAndGradient(gradient), isAbsolutely(expectedEnergy, Epsilon));
+		final double h = 1e-5;
+		for (int d=0; d<6; d++) {
+			double xd = x.get(d);
+			x.set(d, xd + h);
+			double ePlus = efunc.getEnergy();
+			x.set(d, xd - h);
+			double eMinus = efunc.getEnergy();
+			x.set(d, xd);
+			assertThat(gradient[d], isAbsolutely((ePlus - eMinus)/(2*h), 1e-5));
+		}
+	}
+}
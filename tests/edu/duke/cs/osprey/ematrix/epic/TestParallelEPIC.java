@@ -0,0 +1,83 @@
+package edu.duke.cs.osprey.ematrix.epic;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import edu.duke.cs.osprey.TestBase;
+import edu.duke.cs.osprey.confspace.SearchProblem;
+import edu.duke.cs.osprey.ematrix.EnergyMatrixCalculator;
+import edu.duke.cs.osprey.pruning.PruningMatrix;
+
+public class TestParallelEPIC extends TestBase {
+
+	private static SearchProblem search;
+
+	@BeforeClass
+	public static void before() {
+		initDefaultEnvironment();
+
+		EnergyMatrixConfig emConfig = new EnergyMatrixConfig();
+		emConfig.pdbPath = "test/DAGK/2KDC.P.forOsprey.pdb";
+		emConfig.numFlexible = 2;
+		emConfig.addWtRots = true;
+		emConfig.doMinimize = true;
+		search = makeSearchProblem(emConfig);
+
+		// just fit a few RCs at each pos, so the test doesn't take forever
+		search.pruneMat = new PruningMatrix(search.confSpace, 0);
+		for (int pos=0; pos<search.confSpace.numPos; pos++) {
+			for (int rc=3; rc<search.pruneMat.getNumConfAtPos(pos); rc++) {
+				search.pruneMat.setOneBody(pos, rc, true);
+			}
+		}
+	}
+
+	private static EPICMatrix calcEPICMatrix(int numThreads) {
+		EnergyMatrixCalculator emCalc = new EnergyMatrixCalculator(search.confSpace, search.shellResidues, search.pruneMat, new EPICSettings());
+		emCalc.setNumThreads(numThreads);
+		emCalc.calcPEM();
+		return emCalc.getEPICMatrix();
+	}
+
+	@Test
+	public void threadsMatchSerial() {
+
+		EPICMatrix exp = calcEPICMatrix(1);
+		EPICMatrix obs = calcEPICMatrix(2);
+
+		for (int pos1=0; pos1<search.confSpace.numPos; pos1++) {
+			for (int rc1=0; rc1<exp.getNumConfAtPos(pos1); rc1++) {
+
+				assertSameFit(obs.getOneBody(pos1, rc1), exp.getOneBody(pos1, rc1));
+
+				for (int pos2=0; pos2<pos1; pos2++) {
+					for (int rc2=0; rc2<exp.getNumConfAtPos(pos2); rc2++) {
+						assertSameFit(obs.getPairwise(pos1, rc1, pos2, rc2), exp.getPairwise(pos1, rc1, pos2, rc2));
+					}
+				}
+			}
+		}
+	}
+
+	private void assertSameFit(EPoly obs, EPoly exp) {
+
+		if (exp == null) {
+			assertThat(obs, is(nullValue()));
+			return;
+		}
+
+		// fits are seeded by tuple, so they shouldn't depend on which thread did them
+		assertThat(obs.getMinE(), is(exp.getMinE()));
+		assertThat(obs.order, is(exp.order));
+		assertThat(obs.coeffs, is(exp.coeffs));
+
+		// and they should refer to the conf space DOFs, not the thread's molecule copy
+		assertThat(obs.DOFs.size(), is(exp.DOFs.size()));
+		for (int i=0; i<exp.DOFs.size(); i++) {
+			assertThat(obs.DOFs.get(i), is(sameInstance(exp.DOFs.get(i))));
+		}
+	}
+}
@@ -0,0 +1,87 @@
+package edu.duke.cs.osprey.energy;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+
+import edu.duke.cs.osprey.TestBase;
+import edu.duke.cs.osprey.energy.forcefield.ForcefieldInteractions;
+import edu.duke.cs.osprey.energy.forcefield.ForcefieldParams;
+import edu.duke.cs.osprey.gpu.TestForceFieldKernel;
+import edu.duke.cs.osprey.structure.Molecule;
+import edu.duke.cs.osprey.structure.PDBFileReader;
+import edu.duke.cs.osprey.structure.Residue;
+import edu.duke.cs.osprey.tools.Stopwatch;
+
+public class BenchmarkParallelEnergyFunction extends TestBase {
+
+	public static void main(String[] args) {
+
+		initDefaultEnvironment();
+
+		ForcefieldParams ffparams = makeDefaultFFParams();
+		Molecule mol = PDBFileReader.readPDBFile("test/DAGK/2KDC.P.forOsprey.pdb");
+
+		int[] numResiduesList = { 5, 10, 20, 40, mol.residues.size() };
+		int[] numThreadsList = { 1, 2, 4, 8 };
+
+		// print a matrix of speedups over the serial energy function: design sizes x threads
+		System.out.print(String.format("%8s %8s %10s", "residues", "terms", "serial"));
+		for (int numThreads : numThreadsList) {
+			System.out.print(String.format(" %10s", numThreads + " threads"));
+		}
+		System.out.println();
+
+		for (int numResidues : numResiduesList) {
+
+			Residue[] residues = mol.residues.subList(0, numResidues).toArray(new Residue[numResidues]);
+			MultiTermEnergyFunction serial = new MultiTermEnergyFunction();
+			TestForceFieldKernel.makeAllPairsEfunc(residues, ffparams, serial, new ForcefieldInteractions());
+			double expectedEnergy = serial.getEnergy();
+
+			// aim for about the same amount of work at each design size
+			int numRuns = Math.max(10, 40000/serial.getTerms().size());
+
+			Stopwatch serialStopwatch = benchmark(serial, numRuns, expectedEnergy);
+			System.out.print(String.format("%8d %8d %10s", numResidues, serial.getTerms().size(), serialStopwatch.getTime(2)));
+
+			for (int numThreads : numThreadsList) {
+				ForkJoinPool pool = new ForkJoinPool(numThreads);
+				ParallelEnergyFunction efunc = new ParallelEnergyFunction(serial.getTerms(), serial.getCoeffs(), pool);
+				Stopwatch stopwatch = benchmark(efunc, numRuns, expectedEnergy);
+				System.out.print(String.format(" %9.2fx", (double)serialStopwatch.getTimeNs()/stopwatch.getTimeNs()));
+				pool.shutdown();
+			}
+			System.out.println();
+		}
+
+		System.out.println("\nchunk costs (atom pairs) for the full molecule on 4 threads:");
+		Residue[] residues = mol.residues.toArray(new Residue[mol.residues.size()]);
+		MultiTermEnergyFunction serial = new MultiTermEnergyFunction();
+		TestForceFieldKernel.makeAllPairsEfunc(residues, ffparams, serial, new ForcefieldInteractions());
+		ForkJoinPool pool = new ForkJoinPool(4);
+		System.out.println(Arrays.toString(new ParallelEnergyFunction(serial.getTerms(), serial.getCoeffs(), pool).getChunkCosts()));
+		pool.shutdown();
+	}
+
+	private static Stopwatch benchmark(EnergyFunction efunc, int numRuns, double expectedEnergy) {
+
+		// warm up the JIT
+		for (int i=0; i<Math.max(1, numRuns/10); i++) {
+			efunc.getEnergy();
+		}
+
+		Stopwatch stopwatch = new Stopwatch().start();
+		for (int i=0; i<numRuns; i++) {
+			checkEnergy(expectedEnergy, efunc.getEnergy());
+		}
+		return stopwatch.stop();
+	}
+
+	private static void checkEnergy(double expected, double observed) {
+		final double Epsilon = 1e-12;
+		double relErr = Math.abs(expected - observed)/Math.abs(expected);
+		if (relErr > Epsilon) {
+			throw new Error(String.format("Energy is wrong\n\texpected: %.15f\n\tobserved: %.15f\n\trelErr: %.15f", expected, observed, relErr));
+		}
+	}
+}
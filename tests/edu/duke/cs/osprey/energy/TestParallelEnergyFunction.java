@@ -0,0 +1,135 @@
+package edu.duke.cs.osprey.energy;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import edu.duke.cs.osprey.TestBase;
+import edu.duke.cs.osprey.energy.forcefield.ForcefieldInteractions;
+import edu.duke.cs.osprey.energy.forcefield.ForcefieldParams;
+import edu.duke.cs.osprey.gpu.TestForceFieldKernel;
+import edu.duke.cs.osprey.gpu.TestForceFieldKernel.Residues;
+import edu.duke.cs.osprey.structure.Residue;
+
+public class TestParallelEnergyFunction extends TestBase {
+
+	private static Residue[] residues;
+	private static ForcefieldParams ffparams;
+	private static ForkJoinPool pool;
+
+	@BeforeClass
+	public static void before() {
+		initDefaultEnvironment();
+		Residues r = new Residues();
+		residues = new Residue[] { r.gly06, r.gly15, r.ser17, r.trp18, r.trp25, r.arg22, r.ala24, r.ile26, r.phe31, r.arg32, r.glu34 };
+		ffparams = makeDefaultFFParams();
+		pool = new ForkJoinPool(4);
+	}
+
+	@AfterClass
+	public static void after() {
+		pool.shutdown();
+	}
+
+	private static MultiTermEnergyFunction makeSerialEfunc() {
+		MultiTermEnergyFunction efunc = new MultiTermEnergyFunction();
+		TestForceFieldKernel.makeAllPairsEfunc(residues, ffparams, efunc, new ForcefieldInteractions());
+		return efunc;
+	}
+
+	private static ParallelEnergyFunction makeParallelEfunc(int minPairsPerChunk) {
+		MultiTermEnergyFunction serial = makeSerialEfunc();
+		ParallelEnergyFunction efunc = new ParallelEnergyFunction(serial.getTerms(), serial.getCoeffs(), pool);
+		efunc.setMinPairsPerChunk(minPairsPerChunk);
+		return efunc;
+	}
+
+	@Test
+	public void matchesSerial() {
+
+		double expected = makeSerialEfunc().getEnergy();
+
+		for (int minPairsPerChunk : new int[] { 1, 1000, ParallelEnergyFunction.DefaultMinPairsPerChunk, Integer.MAX_VALUE }) {
+			ParallelEnergyFunction efunc = makeParallelEfunc(minPairsPerChunk);
+			assertThat(efunc.getEnergy(), isRelatively(expected, 1e-12));
+		}
+	}
+
+	@Test
+	public void deterministic() {
+
+		ParallelEnergyFunction efunc = makeParallelEfunc(1);
+		assertThat(efunc.getNumChunks(), is(16));
+
+		double energy = efunc.getEnergy();
+		for (int i=0; i<20; i++) {
+			assertThat(efunc.getEnergy(), is(energy));
+		}
+	}
+
+	@Test
+	public void balancedChunks() {
+
+		ParallelEnergyFunction efunc = makeParallelEfunc(1);
+
+		long maxTermCost = 0;
+		long totalCost = 0;
+		for (EnergyFunction term : efunc.getTerms()) {
+			long cost = ParallelEnergyFunction.getCost(term);
+			maxTermCost = Math.max(maxTermCost, cost);
+			totalCost += cost;
+		}
+
+		// greedy balancing is never worse than the average plus the biggest term
+		long sumChunkCosts = 0;
+		for (long cost : efunc.getChunkCosts()) {
+			assertThat(cost, lessThanOrEqualTo(totalCost/efunc.getNumChunks() + maxTermCost));
+			sumChunkCosts += cost;
+		}
+		assertThat(sumChunkCosts, is(totalCost));
+	}
+
+	@Test
+	public void smallDesignsDontSplit() {
+		ParallelEnergyFunction efunc = makeParallelEfunc(Integer.MAX_VALUE);
+		assertThat(efunc.getNumChunks(), is(1));
+	}
+
+	@Test
+	public void nested() {
+
+		double expected = makeSerialEfunc().getEnergy();
+
+		// evaluate lots of energy functions at once from inside the same pool, like parallel conf minimizations would
+		List<ForkJoinTask<Double>> tasks = new ArrayList<>();
+		for (int i=0; i<8; i++) {
+			ParallelEnergyFunction efunc = makeParallelEfunc(1);
+			tasks.add(ForkJoinTask.adapt(() -> {
+				double energy = 0;
+				for (int j=0; j<5; j++) {
+					energy = efunc.getEnergy();
+				}
+				return energy;
+			}));
+		}
+		pool.submit(() -> ForkJoinTask.invokeAll(tasks)).join();
+
+		for (ForkJoinTask<Double> task : tasks) {
+			assertThat(task.join(), isRelatively(expected, 1e-12));
+		}
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void mismatchedCoeffs() {
+		ArrayList<EnergyFunction> terms = new ArrayList<>(makeSerialEfunc().getTerms());
+		new ParallelEnergyFunction(terms, new ArrayList<>());
+	}
+}
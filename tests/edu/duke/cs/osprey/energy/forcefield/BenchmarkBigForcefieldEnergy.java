@@ -0,0 +1,170 @@
+package edu.duke.cs.osprey.energy.forcefield;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import edu.duke.cs.osprey.TestBase;
+import edu.duke.cs.osprey.confspace.PositionConfSpace;
+import edu.duke.cs.osprey.confspace.SearchProblem;
+import edu.duke.cs.osprey.dof.DegreeOfFreedom;
+import edu.duke.cs.osprey.dof.FreeDihedral;
+import edu.duke.cs.osprey.dof.deeper.DEEPerSettings;
+import edu.duke.cs.osprey.ematrix.epic.EPICSettings;
+import edu.duke.cs.osprey.energy.EnergyFunction;
+import edu.duke.cs.osprey.energy.ForcefieldInteractionsGenerator;
+import edu.duke.cs.osprey.structure.Residue;
+import edu.duke.cs.osprey.tools.Stopwatch;
+import edu.duke.cs.osprey.tools.TimeFormatter;
+import edu.duke.cs.osprey.tupexp.LUTESettings;
+
+public class BenchmarkBigForcefieldEnergy extends TestBase {
+
+	public static void main(String[] args)
+	throws Exception {
+
+		initDefaultEnvironment();
+
+		// use the same inputs as BenchmarkForcefieldKernel
+		System.out.println("Building search problem...");
+
+		ResidueFlexibility resFlex = new ResidueFlexibility();
+		resFlex.addMutable("39 43 46 47", "ALA");
+		resFlex.addFlexible("40 41 42 44 45 48 49 50 51 52 53");
+		boolean doMinimize = true;
+		boolean addWt = true;
+		boolean useEpic = false;
+		boolean useTupleExpansion = false;
+		boolean useEllipses = false;
+		boolean useERef = false;
+		boolean addResEntropy = false;
+		boolean addWtRots = false;
+		ArrayList<String[]> moveableStrands = new ArrayList<String[]>();
+		ArrayList<String[]> freeBBZones = new ArrayList<String[]>();
+		SearchProblem search = new SearchProblem(
+			"test", "test/1CC8/1CC8.ss.pdb",
+			resFlex.flexResList, resFlex.allowedAAs, addWt, doMinimize, useEpic, new EPICSettings(), useTupleExpansion, new LUTESettings(),
+			new DEEPerSettings(), moveableStrands, freeBBZones, useEllipses, useERef, addResEntropy, addWtRots, null,
+			false, new ArrayList<>()
+		);
+
+		ForcefieldParams ffparams = makeDefaultFFParams();
+		ForcefieldInteractionsGenerator intergen = new ForcefieldInteractionsGenerator();
+
+		System.out.println("\nFull conf energy:");
+		benchmark(1000, new BigForcefieldEnergy(ffparams, intergen.makeFullConf(search.confSpace, search.shellResidues, search.confSpace.m)));
+
+		System.out.println("\nIntra and shell energy:");
+		benchmark(40000, new BigForcefieldEnergy(ffparams, intergen.makeIntraAndShell(search.confSpace, 0, search.shellResidues, search.confSpace.m)));
+
+		System.out.println("\nPairwise energy:");
+		benchmark(50000, new BigForcefieldEnergy(ffparams, intergen.makeResPair(search.confSpace, 0, 2, search.confSpace.m)));
+		
+		System.out.println("\nSingle-dihedral line search probes, full conf:");
+		benchmarkDofProbes(20000, search, ffparams, intergen.makeFullConf(search.confSpace, search.shellResidues, search.confSpace.m));
+	}
+	
+	private static void benchmarkDofProbes(int numRuns, SearchProblem search, ForcefieldParams ffparams, ForcefieldInteractions interactions) {
+		
+		// pick the flexible residue with the most dihedrals
+		Residue res = null;
+		for (PositionConfSpace pos : search.confSpace.posFlex) {
+			if (res == null || pos.res.getNumDihedrals() > res.getNumDihedrals()) {
+				res = pos.res;
+			}
+		}
+		
+		// probe each dihedral, from the first (moves the most atoms) to the last (moves the fewest)
+		for (int d=0; d<res.getNumDihedrals(); d++) {
+			
+			DegreeOfFreedom dof = new FreeDihedral(res, d);
+			double startAngle = res.getDihedralAngle(d);
+			System.out.println(res.fullName + ", dihedral " + d);
+			
+			Stopwatch fullStopwatch = benchmarkDofProbes("full residue subset", numRuns, new BigForcefieldEnergy(ffparams, interactions), dof, startAngle, false);
+			Stopwatch incStopwatch = benchmarkDofProbes("incremental subset", numRuns, new BigForcefieldEnergy(ffparams, interactions), dof, startAngle, true);
+			System.out.println(String.format("speedup: %.2fx", (double)fullStopwatch.getTimeNs()/incStopwatch.getTimeNs()));
+			
+			dof.apply(startAngle);
+		}
+	}
+	
+	private static Stopwatch benchmarkDofProbes(String name, int numRuns, BigForcefieldEnergy efunc, DegreeOfFreedom dof, double startAngle, boolean useIncremental) {
+		
+		System.out.print("Benchmarking " + name + "... ");
+		
+		efunc.setUseIncremental(useIncremental);
+		EnergyFunction dofEfunc = efunc.decomposeByDof(null, Arrays.asList(dof)).get(0);
+		
+		// warm up the JIT
+		for (int i=0; i<numRuns/10; i++) {
+			dof.apply(startAngle + (i % 9 - 4)*0.25);
+			dofEfunc.getEnergy();
+		}
+		
+		Stopwatch stopwatch = new Stopwatch().start();
+		for (int i=0; i<numRuns; i++) {
+			dof.apply(startAngle + (i % 9 - 4)*0.25);
+			dofEfunc.getEnergy();
+		}
+		stopwatch.stop();
+		
+		System.out.println(String.format("finished in %s, avg time per op: %s",
+			stopwatch.getTime(2),
+			TimeFormatter.format(stopwatch.getTimeNs()/numRuns, TimeUnit.MICROSECONDS)
+		));
+		
+		return stopwatch;
+	}
+
+	private static void benchmark(int numRuns, BigForcefieldEnergy efunc) {
+
+		System.out.println("atom pairs: " + efunc.getFullSubset().getNumAtomPairs());
+
+		efunc.setUseBlocks(false);
+		double expectedEnergy = efunc.getEnergy();
+		Stopwatch pairStopwatch = benchmark("per-pair loop", numRuns, efunc, expectedEnergy);
+
+		efunc.setUseBlocks(true);
+		Stopwatch blockStopwatch = benchmark("blocked loops", numRuns, efunc, expectedEnergy);
+
+		System.out.println(String.format("speedup: %.2fx", (double)pairStopwatch.getTimeNs()/blockStopwatch.getTimeNs()));
+	}
+
+	private static Stopwatch benchmark(String name, int numRuns, BigForcefieldEnergy efunc, double expectedEnergy) {
+
+		System.out.print("Benchmarking " + name + "... ");
+
+		// warm up the JIT
+		for (int i=0; i<numRuns/10; i++) {
+			efunc.getEnergy();
+		}
+
+		Stopwatch stopwatch = new Stopwatch().start();
+		double energy = 0;
+		for (int i=0; i<numRuns; i++) {
+			energy = efunc.getEnergy();
+		}
+		stopwatch.stop();
+
+		System.out.println(String.format("finished in %s, avg time per op: %s",
+			stopwatch.getTime(2),
+			TimeFormatter.format(stopwatch.getTimeNs()/numRuns, TimeUnit.MICROSECONDS)
+		));
+
+		checkEnergy(expectedEnergy, energy);
+
+		return stopwatch;
+	}
+
+	private static void checkEnergy(double exp, double obs) {
+		final double Epsilon = 1e-10;
+		double absErr = Math.abs(exp - obs);
+		double relErr = absErr/Math.abs(exp);
+		if (relErr > Epsilon) {
+			System.out.println(String.format("Wrong energy! exp: %12.6f  obs: %12.6f  absErr: %12.6f  relErr: %12.6f",
+				exp, obs, absErr, relErr
+			));
+		}
+	}
+}
@@ -0,0 +1,97 @@
+package edu.duke.cs.osprey.energy.forcefield;
+
+import static org.junit.Assert.*;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import edu.duke.cs.osprey.TestBase;
+import edu.duke.cs.osprey.energy.MultiTermEnergyFunction;
+import edu.duke.cs.osprey.gpu.TestForceFieldKernel;
+import edu.duke.cs.osprey.gpu.TestForceFieldKernel.Residues;
+import edu.duke.cs.osprey.structure.Residue;
+
+public class TestBigForcefieldEnergyBlocks extends TestBase {
+
+	@BeforeClass
+	public static void before() {
+		initDefaultEnvironment();
+	}
+
+	private static Residue[] makeResidues() {
+		Residues r = new Residues();
+		return new Residue[] { r.trp18, r.gly06, r.gly15, r.ser17, r.trp25, r.arg22, r.ala24, r.ile26, r.phe31, r.arg32, r.glu34 };
+	}
+
+	private static ForcefieldParams makeFFParams(boolean distDepDielect, boolean doSolv, boolean hElect, boolean hVdw) {
+		return new ForcefieldParams("AMBER", distDepDielect, 6, 0.95, doSolv, 0.5, hElect, hVdw);
+	}
+
+	private void check(ForcefieldParams ffparams) {
+
+		Residue[] residues = makeResidues();
+
+		// the classic forcefield is the reference
+		MultiTermEnergyFunction efunc = new MultiTermEnergyFunction();
+		ForcefieldInteractions interactions = new ForcefieldInteractions();
+		TestForceFieldKernel.makeAllPairsEfunc(residues, ffparams, efunc, interactions);
+		MultiTermEnergyFunction efuncSub = new MultiTermEnergyFunction();
+		TestForceFieldKernel.makeSingleAndShellEfunc(residues, ffparams, efuncSub, new ForcefieldInteractions());
+
+		BigForcefieldEnergy bigff = new BigForcefieldEnergy(ffparams, interactions);
+		BigForcefieldEnergy.Subset bigffSub = bigff.new Subset(interactions.makeSubsetByResidue(residues[0]));
+
+		for (boolean useBlocks : new boolean[] { true, false }) {
+			bigff.setUseBlocks(useBlocks);
+			assertThat(bigff.getEnergy(), isAbsolutely(efunc.getEnergy(), 1e-9));
+			assertThat(bigffSub.getEnergy(), isAbsolutely(efuncSub.getEnergy(), 1e-9));
+		}
+	}
+
+	@Test
+	public void defaults() {
+		check(makeFFParams(true, true, true, true));
+	}
+
+	@Test
+	public void noDistDepDielect() {
+		check(makeFFParams(false, true, true, true));
+	}
+
+	@Test
+	public void noSolvation() {
+		check(makeFFParams(true, false, true, true));
+	}
+
+	@Test
+	public void noHydrogenElectrostatics() {
+		check(makeFFParams(true, true, false, true));
+	}
+
+	@Test
+	public void noHydrogenVdw() {
+		check(makeFFParams(true, true, true, false));
+	}
+
+	@Test
+	public void noHydrogens() {
+		check(makeFFParams(false, true, false, false));
+	}
+
+	@Test
+	public void cutoff() {
+
+		Residue[] residues = makeResidues();
+		ForcefieldInteractions interactions = new ForcefieldInteractions();
+		TestForceFieldKernel.makeAllPairsEfunc(residues, makeDefaultFFParams(), new MultiTermEnergyFunction(), interactions);
+
+		ForcefieldParams ffparams = makeDefaultFFParams();
+		ffparams.nonbondedCutoff = 7;
+		BigForcefieldEnergy bigff = new BigForcefieldEnergy(ffparams, interactions);
+
+		bigff.setUseBlocks(false);
+		double expEnergy = bigff.getEnergy();
+		bigff.setUseBlocks(true);
+		assertThat(bigff.getEnergy(), isAbsolutely(expEnergy, 1e-9));
+	}
+}
@@ -0,0 +1,221 @@
+package edu.duke.cs.osprey.energy.forcefield;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import edu.duke.cs.osprey.TestBase;
+import edu.duke.cs.osprey.energy.AtomGradient;
+import edu.duke.cs.osprey.energy.EnergyFunction;
+import edu.duke.cs.osprey.energy.MultiTermEnergyFunction;
+import edu.duke.cs.osprey.gpu.TestForceFieldKernel;
+import edu.duke.cs.osprey.gpu.TestForceFieldKernel.Residues;
+import edu.duke.cs.osprey.structure.Residue;
+
+public class TestBigForcefieldEnergyCutoff extends TestBase {
+
+	@BeforeClass
+	public static void before() {
+		initDefaultEnvironment();
+	}
+
+	private static Residue[] makeResidues() {
+		Residues r = new Residues();
+		return new Residue[] {
+			r.gly06, r.gly15, r.ser17, r.trp18, r.trp25, r.arg22, r.ala24, r.ile26, r.phe31, r.arg32, r.glu34,
+			r.val36, r.leu39, r.trp47, r.leu48, r.ile53, r.arg55, r.val56, r.leu57, r.ile59, r.val62, r.leu64
+		};
+	}
+
+	private static ForcefieldInteractions makeInteractions(Residue[] residues) {
+		ForcefieldInteractions interactions = new ForcefieldInteractions();
+		for (int pos1=0; pos1<residues.length; pos1++) {
+			interactions.addResidue(residues[pos1]);
+			for (int pos2=0; pos2<pos1; pos2++) {
+				interactions.addResiduePair(residues[pos1], residues[pos2]);
+			}
+		}
+		return interactions;
+	}
+
+	private static ForcefieldParams makeFFParams(double cutoff, double skin) {
+		ForcefieldParams ffparams = makeDefaultFFParams();
+		ffparams.nonbondedCutoff = cutoff;
+		ffparams.neighborListSkin = skin;
+		return ffparams;
+	}
+
+	private static void translate(Residue res, double dx) {
+		for (int i=0; i<res.coords.length; i+=3) {
+			res.coords[i] += dx;
+		}
+	}
+
+	private static MultiTermEnergyFunction makeCpuEfunc(Residue[] residues, ForcefieldParams ffparams) {
+		MultiTermEnergyFunction efunc = new MultiTermEnergyFunction();
+		TestForceFieldKernel.makeAllPairsEfunc(residues, ffparams, efunc, new ForcefieldInteractions());
+		return efunc;
+	}
+
+	private static void checkGradient(EnergyFunction.Gradient efunc, Residue res) {
+
+		AtomGradient gradient = new AtomGradient();
+		double energy = efunc.getEnergyAndGradient(gradient);
+		assertThat(efunc.hasGradient(), is(true));
+		assertThat(energy, isAbsolutely(efunc.getEnergy(), 1e-8));
+		double[] grad = gradient.get(res).clone();
+
+		// compare to central differences
+		final double h = 1e-5;
+		for (int i=0; i<res.coords.length; i++) {
+			double x = res.coords[i];
+			res.coords[i] = x + h;
+			double up = efunc.getEnergy();
+			res.coords[i] = x - h;
+			double down = efunc.getEnergy();
+			res.coords[i] = x;
+			assertThat(grad[i], isAbsolutely((up - down)/(2*h), 1e-4));
+		}
+	}
+
+	@Test
+	public void hugeCutoffMatchesNoCutoff() {
+
+		Residue[] residues = makeResidues();
+		ForcefieldInteractions interactions = makeInteractions(residues);
+
+		BigForcefieldEnergy expEfunc = new BigForcefieldEnergy(makeDefaultFFParams(), interactions);
+		BigForcefieldEnergy obsEfunc = new BigForcefieldEnergy(makeFFParams(1000, 2), interactions);
+		assertThat(obsEfunc.getEnergy(), isAbsolutely(expEfunc.getEnergy(), 1e-10));
+		assertThat(obsEfunc.getFullSubset().getNumNeighborPairs(), is(obsEfunc.getFullSubset().getNumAtomPairs()));
+
+		ForcefieldInteractions subsetInteractions = interactions.makeSubsetByResidue(residues[0]);
+		BigForcefieldEnergy.Subset expSubset = expEfunc.new Subset(subsetInteractions);
+		BigForcefieldEnergy.Subset obsSubset = obsEfunc.new Subset(subsetInteractions);
+		assertThat(obsSubset.getEnergy(), isAbsolutely(expSubset.getEnergy(), 1e-10));
+	}
+
+	@Test
+	public void cutoffSkipsDistantPairs() {
+
+		Residue[] residues = makeResidues();
+		ForcefieldInteractions interactions = makeInteractions(residues);
+
+		BigForcefieldEnergy expEfunc = new BigForcefieldEnergy(makeDefaultFFParams(), interactions);
+		BigForcefieldEnergy obsEfunc = new BigForcefieldEnergy(makeFFParams(12, 2), interactions);
+
+		double expEnergy = expEfunc.getEnergy();
+		double obsEnergy = obsEfunc.getEnergy();
+		assertThat(obsEnergy, isRelatively(expEnergy, 0.01));
+
+		BigForcefieldEnergy.Subset subset = obsEfunc.getFullSubset();
+		assertThat(subset.getNumNeighborPairs(), lessThan(subset.getNumAtomPairs()));
+	}
+
+	@Test
+	public void neighborListTracksMovement() {
+
+		Residue[] residues = makeResidues();
+		ForcefieldInteractions interactions = makeInteractions(residues);
+		ForcefieldInteractions subsetInteractions = interactions.makeSubsetByResidue(residues[3]);
+
+		BigForcefieldEnergy efunc = new BigForcefieldEnergy(makeFFParams(8, 2), interactions);
+		BigForcefieldEnergy.Subset subset = efunc.new Subset(subsetInteractions);
+		efunc.getEnergy();
+		subset.getEnergy();
+
+		// small moves stay inside the skin, big moves rebuild the neighbor list
+		// either way, the energies should match freshly-built neighbor lists
+		for (double dx : new double[] { 0.3, 0.3, 3, -1.5, 6 }) {
+
+			translate(residues[3], dx);
+
+			BigForcefieldEnergy freshEfunc = new BigForcefieldEnergy(makeFFParams(8, 2), interactions);
+			BigForcefieldEnergy.Subset freshSubset = freshEfunc.new Subset(subsetInteractions);
+
+			assertThat(efunc.getEnergy(), isAbsolutely(freshEfunc.getEnergy(), 1e-10));
+			assertThat(subset.getEnergy(), isAbsolutely(freshSubset.getEnergy(), 1e-10));
+		}
+	}
+
+	@Test
+	public void switchIsSmooth() {
+
+		NonbondedSwitch sw = new NonbondedSwitch(8, 2);
+		assertThat(sw.getScale(5.9*5.9), is(1.0));
+		assertThat(sw.getScale(6*6), isAbsolutely(1, 1e-12));
+		assertThat(sw.getScale(8*8), is(0.0));
+		assertThat(sw.getScale(9*9), is(0.0));
+		assertThat(sw.getDerivOverR(6*6), isAbsolutely(0, 1e-12));
+		assertThat(sw.getDerivOverR(8*8), is(0.0));
+
+		// the derivative should match central differences in the switching region
+		final double h = 1e-6;
+		for (double r=6.1; r<8; r+=0.2) {
+			double up = sw.getScale((r + h)*(r + h));
+			double down = sw.getScale((r - h)*(r - h));
+			assertThat(sw.getDerivOverR(r*r)*r, isAbsolutely((up - down)/(2*h), 1e-6));
+		}
+	}
+
+	@Test
+	public void energyIsContinuousAcrossCutoff() {
+
+		Residue[] residues = makeResidues();
+		ForcefieldInteractions interactions = makeInteractions(residues);
+		ForcefieldParams ffparams = makeFFParams(8, 2);
+		BigForcefieldEnergy bigEfunc = new BigForcefieldEnergy(ffparams, interactions);
+		MultiTermEnergyFunction cpuEfunc = makeCpuEfunc(residues, ffparams);
+
+		// sweep a residue in small steps, pairs will cross the cutoff along the way
+		// but the energy should never jump
+		double lastBigEnergy = bigEfunc.getEnergy();
+		double lastCpuEnergy = cpuEfunc.getEnergy();
+		for (int i=0; i<50; i++) {
+			translate(residues[3], 0.001);
+			double bigEnergy = bigEfunc.getEnergy();
+			double cpuEnergy = cpuEfunc.getEnergy();
+			assertThat(bigEnergy, isAbsolutely(lastBigEnergy, 0.1));
+			assertThat(cpuEnergy, isAbsolutely(lastCpuEnergy, 0.1));
+			lastBigEnergy = bigEnergy;
+			lastCpuEnergy = cpuEnergy;
+		}
+	}
+
+	@Test
+	public void cpuForcefieldMatchesCutoff() {
+
+		Residue[] residues = makeResidues();
+		ForcefieldInteractions interactions = makeInteractions(residues);
+
+		// the default emat and minimizer forcefield should honor the cutoff the same way
+		for (double cutoff : new double[] { 6, 8, 12 }) {
+			ForcefieldParams ffparams = makeFFParams(cutoff, 2);
+			double expEnergy = new BigForcefieldEnergy(ffparams, interactions).getEnergy();
+			assertThat(makeCpuEfunc(residues, ffparams).getEnergy(), isRelatively(expEnergy));
+		}
+
+		// and with no cutoff, nothing should change
+		double expEnergy = new BigForcefieldEnergy(makeDefaultFFParams(), interactions).getEnergy();
+		assertThat(makeCpuEfunc(residues, makeDefaultFFParams()).getEnergy(), isRelatively(expEnergy));
+		assertThat(makeCpuEfunc(residues, makeFFParams(1000, 2)).getEnergy(), isRelatively(expEnergy));
+	}
+
+	@Test
+	public void gradientsIncludeSwitch() {
+
+		Residue[] residues = makeResidues();
+		ForcefieldInteractions interactions = makeInteractions(residues);
+		ForcefieldParams ffparams = makeFFParams(8, 2);
+
+		checkGradient(new BigForcefieldEnergy(ffparams, interactions), residues[3]);
+		checkGradient(makeCpuEfunc(residues, ffparams), residues[3]);
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void gpuRejectsCutoff() {
+		GpuForcefieldEnergy.checkParams(makeFFParams(8, 2));
+	}
+}
@@ -0,0 +1,106 @@
+package edu.duke.cs.osprey.energy.forcefield;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import edu.duke.cs.osprey.TestBase;
+import edu.duke.cs.osprey.dof.DegreeOfFreedom;
+import edu.duke.cs.osprey.dof.FreeDihedral;
+import edu.duke.cs.osprey.energy.EnergyFunction;
+import edu.duke.cs.osprey.energy.MultiTermEnergyFunction;
+import edu.duke.cs.osprey.gpu.TestForceFieldKernel;
+import edu.duke.cs.osprey.gpu.TestForceFieldKernel.Residues;
+import edu.duke.cs.osprey.structure.Residue;
+
+public class TestBigForcefieldEnergyIncremental extends TestBase {
+
+	@BeforeClass
+	public static void before() {
+		initDefaultEnvironment();
+	}
+
+	private static ForcefieldParams makeFFParams(boolean distDepDielect, boolean doSolv, boolean hElect, boolean hVdw) {
+		return new ForcefieldParams("AMBER", distDepDielect, 6, 0.95, doSolv, 0.5, hElect, hVdw);
+	}
+
+	private void check(ForcefieldParams ffparams) {
+
+		Residues r = new Residues();
+		Residue[] residues = { r.trp18, r.gly06, r.gly15, r.ser17, r.trp25, r.arg22, r.ala24, r.ile26, r.phe31, r.arg32, r.glu34 };
+
+		ForcefieldInteractions interactions = new ForcefieldInteractions();
+		TestForceFieldKernel.makeAllPairsEfunc(residues, ffparams, new MultiTermEnergyFunction(), interactions);
+
+		// the inner dihedrals move enough atoms to recompute all the pairs,
+		// the outer arg dihedrals only recompute the pairs that moved
+		check(ffparams, interactions, r.trp18);
+		check(ffparams, interactions, r.arg22);
+	}
+
+	private void check(ForcefieldParams ffparams, ForcefieldInteractions interactions, Residue res) {
+
+		BigForcefieldEnergy bigff = new BigForcefieldEnergy(ffparams, interactions);
+		assertThat(bigff.getUseIncremental(), is(false));
+		bigff.setUseIncremental(true);
+		BigForcefieldEnergy.Subset reference = bigff.new Subset(interactions.makeSubsetByResidue(res));
+
+		List<DegreeOfFreedom> dofs = new ArrayList<>();
+		for (int i=0; i<res.getNumDihedrals(); i++) {
+			dofs.add(new FreeDihedral(res, i));
+		}
+		List<EnergyFunction> dofEfuncs = bigff.decomposeByDof(res.molec, dofs);
+
+		// wiggle the dihedrals one at a time, like a line search would
+		double[] startAngles = res.getDihedralAngles();
+		for (int iter=0; iter<3; iter++) {
+			for (int d=0; d<dofs.size(); d++) {
+				for (double delta : new double[] { 0.25, -0.25, 5, -17 }) {
+					dofs.get(d).apply(startAngles[d] + delta*(iter + 1));
+					assertThat(dofEfuncs.get(d).getEnergy(), isRelatively(reference.getEnergy(), 1e-13));
+				}
+			}
+		}
+
+		// no moves, same energy
+		double energy = dofEfuncs.get(0).getEnergy();
+		assertThat(dofEfuncs.get(0).getEnergy(), is(energy));
+
+		// put the residue back for the next check
+		for (int d=0; d<dofs.size(); d++) {
+			dofs.get(d).apply(startAngles[d]);
+		}
+	}
+
+	@Test
+	public void defaults() {
+		check(makeFFParams(true, true, true, true));
+	}
+
+	@Test
+	public void noDistDepDielect() {
+		check(makeFFParams(false, true, true, true));
+	}
+
+	@Test
+	public void noSolvation() {
+		check(makeFFParams(true, false, true, true));
+	}
+
+	@Test
+	public void noHydrogens() {
+		check(makeFFParams(false, true, false, false));
+	}
+
+	@Test
+	public void cutoff() {
+		ForcefieldParams ffparams = makeDefaultFFParams();
+		ffparams.nonbondedCutoff = 7;
+		check(ffparams);
+	}
+}
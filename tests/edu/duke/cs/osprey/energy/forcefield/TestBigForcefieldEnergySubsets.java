@@ -0,0 +1,50 @@
+package edu.duke.cs.osprey.energy.forcefield;
+
+import static org.junit.Assert.*;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import edu.duke.cs.osprey.TestBase;
+import edu.duke.cs.osprey.energy.MultiTermEnergyFunction;
+import edu.duke.cs.osprey.gpu.TestForceFieldKernel;
+import edu.duke.cs.osprey.gpu.TestForceFieldKernel.Residues;
+import edu.duke.cs.osprey.structure.Residue;
+
+public class TestBigForcefieldEnergySubsets extends TestBase {
+
+	@BeforeClass
+	public static void before() {
+		initDefaultEnvironment();
+	}
+
+	@Test
+	public void residueSubsets() {
+
+		Residues r = new Residues();
+		Residue[] residues = { r.trp18, r.gly06, r.gly15, r.ser17, r.trp25, r.arg22, r.ala24, r.ile26, r.phe31, r.arg32, r.glu34 };
+
+		ForcefieldParams ffparams = makeDefaultFFParams();
+		ForcefieldInteractions interactions = new ForcefieldInteractions();
+		TestForceFieldKernel.makeAllPairsEfunc(residues, ffparams, new MultiTermEnergyFunction(), interactions);
+		BigForcefieldEnergy bigff = new BigForcefieldEnergy(ffparams, interactions);
+
+		// the 1-4 pairs of residues past the first one aren't at the start of the atom pair buffers,
+		// so they're only scaled correctly if subsets classify pairs by their global index
+		for (int i=0; i<residues.length; i++) {
+
+			// the classic forcefield is the reference
+			Residue[] reordered = residues.clone();
+			reordered[0] = residues[i];
+			reordered[i] = residues[0];
+			MultiTermEnergyFunction efunc = new MultiTermEnergyFunction();
+			TestForceFieldKernel.makeSingleAndShellEfunc(reordered, ffparams, efunc, new ForcefieldInteractions());
+
+			BigForcefieldEnergy.Subset subset = bigff.new Subset(interactions.makeSubsetByResidue(residues[i]));
+			for (boolean useBlocks : new boolean[] { true, false }) {
+				bigff.setUseBlocks(useBlocks);
+				assertThat(residues[i].fullName, subset.getEnergy(), isAbsolutely(efunc.getEnergy(), 1e-9));
+			}
+		}
+	}
+}
@@ -0,0 +1,374 @@
+package edu.duke.cs.osprey.handlempi;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import cern.colt.matrix.DoubleFactory1D;
+import cern.colt.matrix.DoubleMatrix1D;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import edu.duke.cs.osprey.TestBase;
+import edu.duke.cs.osprey.confspace.ConfSearch.EnergiedConf;
+import edu.duke.cs.osprey.confspace.ConfSearch.ScoredConf;
+import edu.duke.cs.osprey.confspace.ConfSpace;
+import edu.duke.cs.osprey.confspace.SearchProblem;
+import edu.duke.cs.osprey.control.MinimizingEnergyCalculator;
+import edu.duke.cs.osprey.ematrix.EnergyMatrix;
+import edu.duke.cs.osprey.ematrix.SimpleEnergyMatrixCalculator;
+import edu.duke.cs.osprey.energy.ForcefieldInteractionsGenerator;
+import edu.duke.cs.osprey.energy.forcefield.ForcefieldParams;
+import edu.duke.cs.osprey.minimization.ConfMinimizer;
+import edu.duke.cs.osprey.minimization.CpuConfMinimizer;
+import edu.duke.cs.osprey.minimization.MPIConfMinimizer;
+import edu.duke.cs.osprey.minimization.Minimizer;
+import edu.duke.cs.osprey.minimization.MoleculeModifierAndScorer;
+import edu.duke.cs.osprey.minimization.ObjectiveFunction;
+import edu.duke.cs.osprey.minimization.WarmStartCache;
+import edu.duke.cs.osprey.structure.Residue;
+
+public class TestMPIMaster extends TestBase {
+
+	private static final int NumSlaves = 2;
+	private static final int NumThreadsPerSlave = 2;
+
+	private static MPIMaster master;
+
+	@BeforeClass
+	public static void before() {
+		initDefaultEnvironment();
+
+		master = MPIMaster.getInstance();
+		master.startLocalSlaves(NumSlaves, NumThreadsPerSlave);
+		assertThat(master.waitForSlaves(NumSlaves*NumThreadsPerSlave, 60000), is(true));
+	}
+
+	@AfterClass
+	public static void after() {
+		master.stop();
+	}
+
+	private static class SquareTask implements MPISlaveTask {
+
+		private static final long serialVersionUID = 8218366612640372617L;
+
+		private final int val;
+
+		public SquareTask(int val) {
+			this.val = val;
+		}
+
+		@Override
+		public Object doCalculation() {
+			return val*val;
+		}
+	}
+
+	private static class OffsetTask implements MPISlaveTask.Contextual<Integer> {
+
+		private static final long serialVersionUID = -4213879463126532907L;
+
+		private final int val;
+		private transient Integer offset;
+
+		public OffsetTask(int val) {
+			this.val = val;
+		}
+
+		@Override
+		public void setContext(Integer offset) {
+			this.offset = offset;
+		}
+
+		@Override
+		public Object doCalculation() {
+			return val + offset;
+		}
+	}
+
+	private static class FlakyTask implements MPISlaveTask {
+
+		private static final long serialVersionUID = -5870244227133662451L;
+
+		private final String markerPath;
+		private final boolean crash;
+
+		public FlakyTask(File marker, boolean crash) {
+			this.markerPath = marker.getAbsolutePath();
+			this.crash = crash;
+		}
+
+		@Override
+		public Object doCalculation() {
+
+			// fail the first time only
+			File marker = new File(markerPath);
+			if (!marker.exists()) {
+				try {
+					marker.createNewFile();
+				} catch (IOException ex) {
+					throw new RuntimeException(ex);
+				}
+
+				// but don't kill the test JVM
+				if (crash && MPIMaster.processRank > 0) {
+					Runtime.getRuntime().halt(1);
+				}
+				throw new IllegalStateException("flaky task is flaky");
+			}
+			return "ok";
+		}
+	}
+
+	private static class BrokenTask implements MPISlaveTask {
+
+		private static final long serialVersionUID = 3101934484052470337L;
+
+		@Override
+		public Object doCalculation() {
+			throw new IllegalStateException("broken task is broken");
+		}
+	}
+
+	private static File makeMarkerFile()
+	throws IOException {
+		File file = File.createTempFile("mpi.", ".marker");
+		file.delete();
+		file.deleteOnExit();
+		return file;
+	}
+
+	@Test
+	public void resultsInOrder() {
+
+		ArrayList<MPISlaveTask> tasks = new ArrayList<>();
+		for (int i=0; i<200; i++) {
+			tasks.add(new SquareTask(i));
+		}
+
+		ArrayList<Object> results = master.handleTasks(tasks);
+
+		assertThat(results.size(), is(tasks.size()));
+		for (int i=0; i<results.size(); i++) {
+			assertThat(results.get(i), is(i*i));
+		}
+	}
+
+	@Test
+	public void context() {
+
+		MPIMaster.SharedContext context = master.shareContext(1000);
+
+		List<OffsetTask> tasks = new ArrayList<>();
+		for (int i=0; i<50; i++) {
+			tasks.add(new OffsetTask(i));
+		}
+
+		ArrayList<Object> results = master.handleTasks(tasks, context);
+		for (int i=0; i<results.size(); i++) {
+			assertThat(results.get(i), is(1000 + i));
+		}
+
+		// switching contexts should work too
+		assertThat(master.handleTask(new OffsetTask(5), master.shareContext(10)), is(15));
+		assertThat(master.handleTask(new OffsetTask(5), context), is(1005));
+	}
+
+	@Test
+	public void retryAfterException()
+	throws IOException {
+		assertThat(master.handleTask(new FlakyTask(makeMarkerFile(), false), null), is("ok"));
+	}
+
+	@Test
+	public void giveUpAfterMaxAttempts() {
+		try {
+			master.handleTask(new BrokenTask(), null);
+			fail("task should have failed");
+		} catch (RuntimeException ex) {
+			assertThat(ex.getCause(), instanceOf(IllegalStateException.class));
+			assertThat(ex.getCause().getMessage(), is("broken task is broken"));
+		}
+
+		// the slaves should still work afterwards
+		assertThat(master.handleTask(new SquareTask(3), null), is(9));
+	}
+
+	@Test
+	public void retryAfterSlaveCrash()
+	throws IOException {
+
+		// mix the crashing task in with some normal ones
+		ArrayList<MPISlaveTask> tasks = new ArrayList<>();
+		for (int i=0; i<20; i++) {
+			tasks.add(new SquareTask(i));
+		}
+		tasks.add(10, new FlakyTask(makeMarkerFile(), true));
+
+		ArrayList<Object> results = master.handleTasks(tasks);
+
+		assertThat(results.get(10), is("ok"));
+		assertThat(results.get(0), is(0));
+		assertThat(results.get(20), is(19*19));
+	}
+
+	private static SearchProblem makeSearch() {
+		EnergyMatrixConfig emConfig = new EnergyMatrixConfig();
+		emConfig.pdbPath = "test/DAGK/2KDC.P.forOsprey.pdb";
+		emConfig.numFlexible = 3;
+		emConfig.addWtRots = true;
+		emConfig.doMinimize = true;
+		return makeSearchProblem(emConfig);
+	}
+
+	@Test
+	public void energyMatrix() {
+
+		SearchProblem search = makeSearch();
+		ForcefieldParams ffparams = makeDefaultFFParams();
+
+		SimpleEnergyMatrixCalculator ematcalc = new SimpleEnergyMatrixCalculator.Distributed(master, ffparams, search.confSpace, search.shellResidues);
+		EnergyMatrix emat = ematcalc.calcEnergyMatrix();
+		ematcalc.cleanup();
+
+		for (int pos1=0; pos1<search.confSpace.numPos; pos1++) {
+			for (int rc1=0; rc1<search.emat.getNumConfAtPos(pos1); rc1++) {
+				assertThat(emat.getOneBody(pos1, rc1), isAbsolutely(search.emat.getOneBody(pos1, rc1), 1e-10));
+				for (int pos2=0; pos2<pos1; pos2++) {
+					for (int rc2=0; rc2<search.emat.getNumConfAtPos(pos2); rc2++) {
+						assertThat(emat.getPairwise(pos1, rc1, pos2, rc2), isAbsolutely(search.emat.getPairwise(pos1, rc1, pos2, rc2), 1e-10));
+					}
+				}
+			}
+		}
+	}
+
+	private static List<ScoredConf> makeConfs(SearchProblem search) {
+		List<ScoredConf> confs = new ArrayList<>();
+		for (int i=0; i<4; i++) {
+			int[] conf = new int[search.confSpace.numPos];
+			for (int pos=0; pos<conf.length; pos++) {
+				conf[pos] = (i + pos) % search.emat.getNumConfAtPos(pos);
+			}
+			confs.add(new ScoredConf(conf, 0));
+		}
+		return confs;
+	}
+
+	private static MPIConfMinimizer.Builder makeMPIMinimizer(SearchProblem search, ForcefieldParams ffparams) {
+		ConfSpace confSpace = search.confSpace;
+		List<Residue> shellResidues = search.shellResidues;
+		return new MPIConfMinimizer.Builder(master, ffparams, (mol) -> new ForcefieldInteractionsGenerator().makeFullConf(confSpace, shellResidues, mol), confSpace);
+	}
+
+	private static void assertEnergies(List<ScoredConf> confs, List<EnergiedConf> obsConfs, List<EnergiedConf> expConfs) {
+		for (int i=0; i<confs.size(); i++) {
+			assertThat(obsConfs.get(i).getAssignments(), is(confs.get(i).getAssignments()));
+			assertThat(obsConfs.get(i).getEnergy(), isAbsolutely(expConfs.get(i).getEnergy(), 1e-10));
+		}
+	}
+
+	@Test
+	public void confMinimization() {
+
+		SearchProblem search = makeSearch();
+		ForcefieldParams ffparams = makeDefaultFFParams();
+		List<ScoredConf> confs = makeConfs(search);
+
+		ForcefieldInteractionsGenerator intergen = new ForcefieldInteractionsGenerator();
+		ConfMinimizer expMinimizer = new CpuConfMinimizer.Builder(ffparams, (mol) -> intergen.makeFullConf(search.confSpace, search.shellResidues, mol), search.confSpace).build();
+		List<EnergiedConf> expConfs = expMinimizer.minimize(confs);
+		expMinimizer.cleanup();
+
+		ConfMinimizer obsMinimizer = makeMPIMinimizer(search, ffparams).build();
+		List<EnergiedConf> obsConfs = obsMinimizer.minimize(confs);
+		obsMinimizer.cleanup();
+
+		assertEnergies(confs, obsConfs, expConfs);
+	}
+
+	// doesn't minimize at all, just scores the center of the voxel
+	private static Minimizer.Result scoreCenter(MoleculeModifierAndScorer mof) {
+		DoubleMatrix1D center = DoubleFactory1D.dense.make(mof.getNumDOFs());
+		new ObjectiveFunction.DofBounds(mof.getConstraints()).getCenter(center);
+		return new Minimizer.Result(null, mof.getValue(center));
+	}
+
+	@Test
+	public void confMinimizationUsesConfiguredMinimizer() {
+
+		SearchProblem search = makeSearch();
+		ForcefieldParams ffparams = makeDefaultFFParams();
+		List<ScoredConf> confs = makeConfs(search);
+
+		ForcefieldInteractionsGenerator intergen = new ForcefieldInteractionsGenerator();
+		ConfMinimizer expMinimizer = new CpuConfMinimizer.Builder(ffparams, (mol) -> intergen.makeFullConf(search.confSpace, search.shellResidues, mol), search.confSpace)
+			.setMinimizers((mof) -> () -> scoreCenter(mof))
+			.build();
+		List<EnergiedConf> expConfs = expMinimizer.minimize(confs);
+		expMinimizer.cleanup();
+
+		ConfMinimizer obsMinimizer = makeMPIMinimizer(search, ffparams)
+			.setMinimizers((mof) -> () -> scoreCenter(mof))
+			.build();
+		List<EnergiedConf> obsConfs = obsMinimizer.minimize(confs);
+		obsMinimizer.cleanup();
+
+		assertEnergies(confs, obsConfs, expConfs);
+	}
+
+	@Test
+	public void confMinimizationCantWarmStart() {
+
+		SearchProblem search = makeSearch();
+		ConfMinimizer minimizer = makeMPIMinimizer(search, makeDefaultFFParams()).build();
+		try {
+
+			// GMECFinder checks this before asking for warm starts
+			MinimizingEnergyCalculator ecalc = new MinimizingEnergyCalculator(minimizer);
+			assertThat(ecalc.canWarmStart(), is(false));
+
+			// and the slaves would never see the cache, so don't take it
+			try {
+				ecalc.setWarmStartCache(new WarmStartCache(search.confSpace));
+				fail("MPI minimizer shouldn't take a warm start cache");
+			} catch (UnsupportedOperationException ex) {
+				// expected
+			}
+
+		} finally {
+			minimizer.cleanup();
+		}
+	}
+
+	@Test
+	public void slaveWithoutSecretCantJoin() {
+
+		int numSlaves = master.getNumSlaves();
+
+		// we're already listening, so this just tells us the port
+		int port = master.start(0);
+
+		// the slave gives up once the master's answer doesn't check out
+		MPISlave.run("localhost", port, 1, "not the secret");
+		assertThat(master.getNumSlaves(), is(numSlaves));
+		assertThat(master.handleTask(new SquareTask(4), null), is(16));
+	}
+
+	@Test
+	public void localThreadsFollowSlaves() {
+
+		MPITaskExecutor tasks = new MPITaskExecutor(master);
+		try {
+			assertThat(tasks.getParallelism(), is(master.getNumSlaves()*2));
+		} finally {
+			tasks.stop();
+		}
+	}
+}
@@ -0,0 +1,169 @@
+package edu.duke.cs.osprey.kstar;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import org.junit.Test;
+
+public class TestKSConfRingBuffer {
+
+	@Test
+	public void capacityIsPowerOfTwo() {
+		assertThat(new KSConfRingBuffer(1).getCapacity(), is(2));
+		assertThat(new KSConfRingBuffer(2).getCapacity(), is(2));
+		assertThat(new KSConfRingBuffer(4).getCapacity(), is(4));
+		assertThat(new KSConfRingBuffer(5).getCapacity(), is(8));
+	}
+
+	@Test
+	public void fifo() {
+
+		KSConfRingBuffer q = new KSConfRingBuffer(4);
+		assertThat(q.poll(), is(nullValue()));
+
+		// go around the ring a few times
+		for (int i=0; i<10; i++) {
+			assertThat(q.offer(new int[] { i, i + 1 }, -i), is(true));
+			assertThat(q.offer(new int[] { i, i + 2 }, -i - 0.5), is(true));
+			assertThat(q.size(), is(2));
+
+			KSConf conf = q.poll();
+			assertThat(conf.getConfArray(), is(new int[] { i, i + 1 }));
+			assertThat(conf.getEnergyBound(), is((double)-i));
+			conf = q.poll();
+			assertThat(conf.getConfArray(), is(new int[] { i, i + 2 }));
+			assertThat(conf.getEnergyBound(), is(-i - 0.5));
+			assertThat(q.isEmpty(), is(true));
+		}
+	}
+
+	@Test
+	public void fullQueueRejectsOffers() {
+
+		KSConfRingBuffer q = new KSConfRingBuffer(2);
+		assertThat(q.offer(new int[] { 0 }, 0), is(true));
+		assertThat(q.offer(new int[] { 1 }, 0), is(true));
+		assertThat(q.offer(new int[] { 2 }, 0), is(false));
+
+		q.poll();
+		assertThat(q.offer(new int[] { 2 }, 0), is(true));
+	}
+
+	@Test
+	public void smallestQueueDoesntOverwrite() {
+
+		// asking for one slot still gets two, so a full slot can't be claimed again
+		KSConfRingBuffer q = new KSConfRingBuffer(1);
+		assertThat(q.offer(new int[] { 0 }, 0), is(true));
+		assertThat(q.offer(new int[] { 1 }, 1), is(true));
+		assertThat(q.offer(new int[] { 2 }, 2), is(false));
+		assertThat(q.size(), is(2));
+
+		assertThat(q.poll().getConfArray(), is(new int[] { 0 }));
+		assertThat(q.poll().getConfArray(), is(new int[] { 1 }));
+		assertThat(q.poll(), is(nullValue()));
+	}
+
+	@Test
+	public void takeReturnsPartialBatchWhenFinished() {
+
+		KSConfRingBuffer q = new KSConfRingBuffer(4);
+		q.offer(new int[] { 0 }, 0);
+		q.offer(new int[] { 1 }, 0);
+		q.finish();
+
+		List<KSConf> batch = new ArrayList<>();
+		assertThat(q.take(batch, 4), is(2));
+		assertThat(batch.size(), is(2));
+		assertThat(q.isExhausted(), is(true));
+		assertThat(q.take(batch, 4), is(0));
+	}
+
+	@Test
+	public void stopWakesBlockedProducer()
+	throws Exception {
+
+		// fill the queue, so the producer blocks
+		KSConfRingBuffer q = new KSConfRingBuffer(1);
+		while (q.offer(new int[] { 0 }, 0));
+		assertThat(q.size(), is(q.getCapacity()));
+
+		boolean[] result = { true };
+		Thread producer = new Thread(() -> {
+			result[0] = q.put(new int[] { 1 }, 0);
+		});
+		producer.start();
+
+		q.stop();
+		producer.join(10000);
+		assertThat(producer.isAlive(), is(false));
+		assertThat(result[0], is(false));
+	}
+
+	@Test
+	public void manyProducersAndConsumers()
+	throws Exception {
+
+		final int numProducers = 4;
+		final int numConsumers = 4;
+		final int numConfsPerProducer = 20000;
+		final int numConfs = numProducers*numConfsPerProducer;
+
+		KSConfRingBuffer q = new KSConfRingBuffer(16);
+		AtomicIntegerArray counts = new AtomicIntegerArray(numConfs);
+
+		List<Thread> producers = new ArrayList<>();
+		for (int p=0; p<numProducers; p++) {
+			final int producer = p;
+			producers.add(new Thread(() -> {
+				for (int i=0; i<numConfsPerProducer; i++) {
+					int id = producer*numConfsPerProducer + i;
+					assertThat(q.put(new int[] { id, -id }, id), is(true));
+				}
+			}));
+		}
+
+		List<Thread> consumers = new ArrayList<>();
+		for (int c=0; c<numConsumers; c++) {
+			consumers.add(new Thread(() -> {
+				List<KSConf> batch = new ArrayList<>();
+				while (true) {
+					batch.clear();
+					if (q.take(batch, 3) == 0) {
+						break;
+					}
+					for (KSConf conf : batch) {
+						int id = conf.getConfArray()[0];
+						assertThat(conf.getConfArray()[1], is(-id));
+						assertThat(conf.getEnergyBound(), is((double)id));
+						counts.incrementAndGet(id);
+					}
+				}
+			}));
+		}
+
+		for (Thread thread : producers) {
+			thread.start();
+		}
+		for (Thread thread : consumers) {
+			thread.start();
+		}
+		for (Thread thread : producers) {
+			thread.join();
+		}
+		q.finish();
+		for (Thread thread : consumers) {
+			thread.join();
+		}
+
+		// every conf should come out exactly once
+		for (int i=0; i<numConfs; i++) {
+			assertThat(counts.get(i), is(1));
+		}
+		assertThat(q.isExhausted(), is(true));
+	}
+}
@@ -186,6 +186,19 @@ public class TestKStar {
 		testLinear(cfp);
 	}
 	
+	@Test
+	public void test2RL0LinearConcurrentSeqs() {
+
+		// one thread per partition function, but several sequences at once
+		ThreadParallelism.setNumThreadsIfPossible(1);
+		MultiTermEnergyFunction.setNumThreads(1);
+
+		KSConfigFileParser cfp = make2RL0Config();
+		cfp.getParams().setValue("kStarConcurrentSeqs", "4");
+		cfp.getParams().setValue("kStarPFuncThreads", "2");
+		testLinear(cfp);
+	}
+
 	@Test
 	public void test2RL0LinearParallelConf() {
 		KSConfigFileParser cfp = make2RL0Config();
@@ -4,6 +4,9 @@ import java.io.File;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import cern.colt.matrix.DoubleMatrix1D;
 
 import edu.duke.cs.osprey.TestBase;
 import edu.duke.cs.osprey.astar.conf.ConfAStarTree;
@@ -117,6 +120,7 @@ public class BenchmarkMinimization extends TestBase {
 		
 		//benchmarkSerial(search, confs);
 		benchmarkParallel(search, confs);
+		//benchmarkWarmStart(search, confs);
 		//compareOneConf(search, confs);
 	}
 
@@ -202,6 +206,64 @@ public class BenchmarkMinimization extends TestBase {
 		}
 	}
 	
+	private static void benchmarkWarmStart(SearchProblem search, List<ScoredConf> confs)
+	throws Exception {
+		
+		ForcefieldInteractionsGenerator ffintergen = new ForcefieldInteractionsGenerator();
+		Factory<ForcefieldInteractions,Molecule> interactionsFactory = (mol) -> ffintergen.makeFullConf(search.confSpace, search.shellResidues, mol);
+		ForcefieldParams ffparams = makeDefaultFFParams();
+		
+		// count CCD iterations over all the minimizations
+		AtomicLong numIterations = new AtomicLong(0);
+		Factory<Minimizer,MoleculeModifierAndScorer> minimizers = (mof) -> new SimpleCCDMinimizer(mof) {
+			@Override
+			public Minimizer.Result minimizeFrom(DoubleMatrix1D x) {
+				Minimizer.Result result = super.minimizeFrom(x);
+				numIterations.addAndGet(getNumIterations());
+				return result;
+			}
+		};
+		
+		System.out.println("\nBenchmarking cold starts...");
+		ConfMinimizer coldMinimizer = new CpuConfMinimizer.Builder(ffparams, interactionsFactory, search.confSpace)
+			.setMinimizers(minimizers)
+			.build();
+		Stopwatch coldStopwatch = new Stopwatch().start();
+		List<EnergiedConf> coldConfs = coldMinimizer.minimize(confs);
+		coldStopwatch.stop();
+		coldMinimizer.cleanup();
+		long coldIterations = numIterations.getAndSet(0);
+		System.out.println(String.format("precise timing: %s, CCD iterations: %d", coldStopwatch.getTime(TimeUnit.MILLISECONDS), coldIterations));
+		
+		System.out.println("\nBenchmarking warm starts...");
+		WarmStartCache warmStarts = new WarmStartCache(search.confSpace);
+		ConfMinimizer warmMinimizer = new CpuConfMinimizer.Builder(ffparams, interactionsFactory, search.confSpace)
+			.setMinimizers(minimizers)
+			.setWarmStartCache(warmStarts)
+			.build();
+		Stopwatch warmStopwatch = new Stopwatch().start();
+		List<EnergiedConf> warmConfs = warmMinimizer.minimize(confs);
+		warmStopwatch.stop();
+		warmMinimizer.cleanup();
+		long warmIterations = numIterations.getAndSet(0);
+		System.out.println(String.format("precise timing: %s, CCD iterations: %d, iterations saved: %.1f%%, speedup: %.2fx",
+			warmStopwatch.getTime(TimeUnit.MILLISECONDS), warmIterations,
+			100.0*(coldIterations - warmIterations)/coldIterations,
+			(double)coldStopwatch.getTimeNs()/warmStopwatch.getTimeNs()
+		));
+		System.out.println(warmStarts);
+		
+		// how different are the energies?
+		double maxHigher = 0;
+		double maxLower = 0;
+		for (int i=0; i<confs.size(); i++) {
+			double diff = warmConfs.get(i).getEnergy() - coldConfs.get(i).getEnergy();
+			maxHigher = Math.max(maxHigher, diff);
+			maxLower = Math.max(maxLower, -diff);
+		}
+		System.out.println(String.format("warm energies vs cold: at most %.6f higher, at most %.6f lower", maxHigher, maxLower));
+	}
+	
 	private static Stopwatch benchmark(ConfMinimizer minimizer, List<ScoredConf> confs, Stopwatch referenceStopwatch)
 	throws Exception {
 		
@@ -12,6 +12,9 @@ import java.util.Map;
 import org.junit.BeforeClass;
 import org.junit.Test;
 
+import cern.colt.matrix.DoubleFactory1D;
+import cern.colt.matrix.DoubleMatrix1D;
+
 import edu.duke.cs.osprey.TestBase;
 import edu.duke.cs.osprey.astar.conf.ConfAStarTree;
 import edu.duke.cs.osprey.astar.conf.RCs;
@@ -35,8 +38,10 @@ import edu.duke.cs.osprey.energy.EnergyFunction;
 import edu.duke.cs.osprey.energy.EnergyFunctionGenerator;
 import edu.duke.cs.osprey.energy.ForcefieldInteractionsGenerator;
 import edu.duke.cs.osprey.energy.MultiTermEnergyFunction;
+import edu.duke.cs.osprey.energy.forcefield.BigForcefieldEnergy;
 import edu.duke.cs.osprey.energy.forcefield.ForcefieldInteractions;
 import edu.duke.cs.osprey.energy.forcefield.ForcefieldParams;
+import edu.duke.cs.osprey.parallelism.TaskExecutor;
 import edu.duke.cs.osprey.pruning.PruningMatrix;
 import edu.duke.cs.osprey.structure.Molecule;
 import edu.duke.cs.osprey.tools.Factory;
@@ -48,6 +53,13 @@ public class TestMinimization extends TestBase {
 	
 	private static final double Epsilon = 1e-7;
 	
+	// quasi-Newton minimizers step all the DOFs at once, so they can land in slightly different local minima than CCD
+	private static final double QuasiNewtonEpsilon = 0.2;
+	
+	// warm starts can land in different local minima too, so their energies can be higher than cold starts
+	// this is the error bound documented for MinimizationWarmStart, not a convergence tolerance
+	private static final double WarmStartMaxError = 0.2;
+	
 	private static class Info {
 		
 		public ForcefieldParams ffparams;
@@ -220,11 +232,139 @@ public class TestMinimization extends TestBase {
 		check((ffparams, intergen, confSpace) -> new GpuConfMinimizer.Builder(ffparams, intergen, confSpace).setGpuInfo(GpuConfMinimizer.Type.OpenCL, 1, 2).build());
 	}
 	
+	@Test
+	public void testCpuConfMinimizerLBFGSB() {
+		check((ffparams, intergen, confSpace) -> new CpuConfMinimizer.Builder(ffparams, intergen, confSpace)
+			.setMinimizers((mof) -> new LBFGSBMinimizer(mof))
+			.build(), QuasiNewtonEpsilon);
+	}
+	
+	@Test
+	public void testCpuConfMinimizerWarmStart() {
+		check((ffparams, intergen, confSpace) -> new CpuConfMinimizer.Builder(ffparams, intergen, confSpace)
+			.setWarmStartCache(new WarmStartCache(confSpace))
+			.build(), WarmStartMaxError);
+	}
+	
+	@Test
+	public void testWarmStartFromSameConf() {
+		
+		Info info = Infos.get(true);
+		WarmStartCache warmStarts = new WarmStartCache(info.search.confSpace);
+		ConfMinimizer minimizer = new CpuConfMinimizer.Builder(info.ffparams, info.intergen, info.search.confSpace)
+			.setWarmStartCache(warmStarts)
+			.build();
+		List<EnergiedConf> firstConfs = minimizer.minimize(info.confs);
+		
+		// starting at the optimum again shouldn't make things any worse
+		List<EnergiedConf> secondConfs = minimizer.minimize(info.confs);
+		minimizer.cleanup();
+		
+		for (int i=0; i<info.confs.size(); i++) {
+			assertThat(secondConfs.get(i).getEnergy(), lessThanOrEqualTo(firstConfs.get(i).getEnergy() + Epsilon));
+		}
+		assertThat(warmStarts.getNumConfHits(), greaterThan(0L));
+	}
+	
+	@Test
+	public void testCCDIncrementalEnergies() {
+		
+		for (boolean doSolv : Arrays.asList(true, false)) {
+			Info info = Infos.get(doSolv);
+			
+			// the per-DOF subsets live as long as the efunc, so one minimizer runs all the confs
+			// and the incremental sums see many more updates than IncrementalResumInterval
+			List<EnergiedConf> fullConfs = minimizeBigForcefield(info, false);
+			List<EnergiedConf> incrementalConfs = minimizeBigForcefield(info, true);
+			
+			for (int i=0; i<info.confs.size(); i++) {
+				assertThat(incrementalConfs.get(i).getEnergy(), isAbsolutely(fullConfs.get(i).getEnergy(), Epsilon));
+			}
+		}
+	}
+	
+	private List<EnergiedConf> minimizeBigForcefield(Info info, boolean useIncremental) {
+		
+		ConfMinimizer.Async minimizer = new ConfMinimizer.Async(
+			(mol) -> {
+				BigForcefieldEnergy efunc = new BigForcefieldEnergy(info.ffparams, info.intergen.make(mol));
+				efunc.setUseIncremental(useIncremental);
+				return efunc;
+			},
+			info.search.confSpace,
+			new TaskExecutor(),
+			(mof) -> new SimpleCCDMinimizer(mof)
+		);
+		
+		List<EnergiedConf> econfs = new ArrayList<>();
+		for (ScoredConf conf : info.confs) {
+			econfs.add(minimizer.minimizeSync(conf));
+		}
+		minimizer.cleanup();
+		return econfs;
+	}
+	
+	@Test
+	public void testAnalyticGradient() {
+		for (boolean doSolv : Arrays.asList(true, false)) {
+			Info info = Infos.get(doSolv);
+			checkGradient(info, (mol) -> info.efuncgen.interactionEnergy(info.intergen.make(mol)));
+		}
+	}
+	
+	@Test
+	public void testAnalyticGradientBigForcefield() {
+		for (boolean doSolv : Arrays.asList(true, false)) {
+			Info info = Infos.get(doSolv);
+			checkGradient(info, (mol) -> new BigForcefieldEnergy(info.ffparams, info.intergen.make(mol)));
+		}
+	}
+	
+	private void checkGradient(Info info, Factory<EnergyFunction,Molecule> efuncs) {
+		
+		for (int i=0; i<4; i++) {
+			
+			ParameterizedMoleculeCopy pmol = new ParameterizedMoleculeCopy(info.search.confSpace);
+			EnergyFunction efunc = efuncs.make(pmol.getCopiedMolecule());
+			RCTuple tuple = new RCTuple(info.confs.get(i).getAssignments());
+			MoleculeModifierAndScorer mof = new MoleculeModifierAndScorer(efunc, info.search.confSpace, tuple, pmol);
+			assertThat(mof.hasAnalyticGradient(), is(true));
+			
+			// check the gradient somewhere off-center, so it's not trivially zero
+			int n = mof.getNumDOFs();
+			ObjectiveFunction.DofBounds bounds = new ObjectiveFunction.DofBounds(mof.getConstraints());
+			DoubleMatrix1D x = DoubleFactory1D.dense.make(n);
+			for (int d=0; d<n; d++) {
+				x.set(d, bounds.getMin(d)*0.3 + bounds.getMax(d)*0.7);
+			}
+			
+			DoubleMatrix1D analytic = DoubleFactory1D.dense.make(n);
+			double energy = mof.getValueAndGradient(x, analytic);
+			assertThat(energy, isRelatively(mof.getValue(x), 1e-10));
+			
+			// compare to central finite differences
+			for (int d=0; d<n; d++) {
+				double h = 1e-4;
+				DoubleMatrix1D xd = x.copy();
+				xd.set(d, x.get(d) + h);
+				double up = mof.getValue(xd);
+				xd.set(d, x.get(d) - h);
+				double down = mof.getValue(xd);
+				double numeric = (up - down)/(2*h);
+				assertThat(analytic.get(d), isAbsolutely(numeric, 1e-4 + 1e-3*Math.abs(numeric)));
+			}
+		}
+	}
+	
 	private static interface MinimizerFactory {
 		ConfMinimizer make(ForcefieldParams ffparams, Factory<ForcefieldInteractions,Molecule> intergen, ConfSpace confSpace);
 	}
 	
 	private void check(MinimizerFactory factory) {
+		check(factory, Epsilon);
+	}
+	
+	private void check(MinimizerFactory factory, double epsilon) {
 		
 		for (boolean doSolv : Arrays.asList(true, false)) {
 			
@@ -245,7 +385,7 @@ public class TestMinimization extends TestBase {
 				
 				// penalize large errors, but not lower energies
 				double absErr = econf.getEnergy() - info.expectedEnergies[i];
-				assertThat(absErr, lessThanOrEqualTo(Epsilon));
+				assertThat(absErr, lessThanOrEqualTo(epsilon));
 			}
 		}
 	}
@@ -0,0 +1,255 @@
+package edu.duke.cs.osprey.multistatekstar;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+import java.math.BigDecimal;
+
+import org.junit.Test;
+
+import edu.duke.cs.osprey.multistatekstar.KStarScore.PartitionFunctionType;
+
+public class TestPartitionFunctionCache {
+
+	// estimates itself instantly, and counts what the scores ask of it
+	private static class CountingPartitionFunction extends PartitionFunctionMinimized {
+
+		public int numComputes = 0;
+		public int numTopConfsWrites = 0;
+
+		public CountingPartitionFunction(BigDecimal qstar) {
+			super(null, null, null, null, null);
+			status = Status.Estimating;
+			values = new Values();
+			values.qstar = qstar;
+		}
+
+		@Override
+		public void compute(int maxNumConfs) {
+			numComputes++;
+			status = Status.Estimated;
+		}
+
+		@Override
+		protected void writeTopConfs(int state, MSSearchProblem search) {
+			numTopConfsWrites++;
+		}
+	}
+
+	// adds one boltzmann weight per conf, and is estimated after the last one
+	private static class SteppedPartitionFunction extends PartitionFunctionMinimized {
+
+		private final double[] weights;
+
+		public SteppedPartitionFunction(double[] weights) {
+			super(null, null, null, null, null);
+			this.weights = weights;
+			status = Status.Estimating;
+			values = new Values();
+			values.qstar = BigDecimal.ZERO;
+		}
+
+		@Override
+		public void compute(int maxNumConfs) {
+			int stopAtConf = Math.min(numConfsEvaluated + maxNumConfs, weights.length);
+			while (numConfsEvaluated < stopAtConf) {
+				values.qstar = values.qstar.add(BigDecimal.valueOf(weights[numConfsEvaluated++]));
+			}
+			if (numConfsEvaluated == weights.length) {
+				status = Status.Estimated;
+			}
+		}
+	}
+
+	// an unbound state and a bound state, where the unbound state can come from the cache
+	private static class SteppedScore extends KStarScoreMinimized {
+
+		private final String[] keys;
+		private final double[][] weights;
+
+		public SteppedScore(PartitionFunctionCache cache, String[] keys, double[][] weights) {
+			super(makeSteppedSettings(cache));
+			this.keys = keys;
+			this.weights = weights;
+		}
+
+		@Override
+		protected boolean init(int state) {
+			if (pfCache != null && state < numStates-1) {
+				initShared(state, keys[state]);
+			} else {
+				partitionFunctions[state] = makePartitionFunction(state);
+			}
+			return true;
+		}
+
+		@Override
+		protected PartitionFunctionMinimized makePartitionFunction(int state) {
+			return new SteppedPartitionFunction(weights[state]);
+		}
+	}
+
+	private static MSKStarSettings makeSteppedSettings(PartitionFunctionCache cache) {
+		MSKStarSettings settings = new MSKStarSettings();
+		settings.search = new MSSearchProblem[2];
+		settings.pfTypes = new PartitionFunctionType[] { PartitionFunctionType.Minimized, PartitionFunctionType.Minimized };
+		settings.isFinal = true;
+		settings.numTopConfsToSave = 0;
+		settings.pfCache = cache;
+		return settings;
+	}
+
+	private static SteppedScore[] computeSteppedScores(PartitionFunctionCache cache) {
+
+		double[] unbound = { 4.0, 2.5, 1.25, 0.5, 0.125, 0.0625, 0.01 };
+		SteppedScore[] scores = {
+			new SteppedScore(cache, new String[] { "unbound", "complex0" }, new double[][] { unbound, { 90.0, 8.0, 0.7 } }),
+			new SteppedScore(cache, new String[] { "unbound", "complex1" }, new double[][] { unbound, { 3.0, 2.0, 1.0, 0.5, 0.25 } }),
+			new SteppedScore(cache, new String[] { "unbound", "complex2" }, new double[][] { unbound, { 1e-3 } })
+		};
+
+		// interleave the scores a few confs at a time, like the tree does
+		boolean[] computed = new boolean[scores.length];
+		int numComputed = 0;
+		while (numComputed < scores.length) {
+			for (int i=0; i<scores.length; i++) {
+				if (!computed[i]) {
+					scores[i].compute(2);
+					if (scores[i].isComputed()) {
+						computed[i] = true;
+						numComputed++;
+					}
+				}
+			}
+		}
+
+		return scores;
+	}
+
+	private static KStarScoreMinimized makeScore(PartitionFunctionCache cache, PartitionFunctionCache.Entry entry) {
+
+		MSKStarSettings settings = new MSKStarSettings();
+		settings.search = new MSSearchProblem[1];
+		settings.pfTypes = new PartitionFunctionType[] { PartitionFunctionType.Minimized };
+		settings.isFinal = true;
+		settings.numTopConfsToSave = 1;
+		// q* < 1, which q* = 2 doesn't satisfy
+		settings.constraints = new LMB[] { new LMB("1 -1", 1) };
+		settings.pfCache = cache;
+
+		KStarScoreMinimized score = new KStarScoreMinimized(settings);
+		score.cacheEntries[0] = entry;
+		score.partitionFunctions[0] = entry.getPartitionFunction();
+		score.initialized[0] = true;
+		return score;
+	}
+
+	@Test
+	public void sameKeySameEntry() {
+
+		PartitionFunctionCache cache = new PartitionFunctionCache(4);
+
+		PartitionFunctionCache.Entry a = cache.get("a");
+		assertThat(a.getPartitionFunction(), is(nullValue()));
+		assertThat(cache.get("a"), is(sameInstance(a)));
+		assertThat(cache.get("b"), is(not(sameInstance(a))));
+
+		assertThat(cache.size(), is(2));
+		assertThat(cache.getNumHits(), is(1L));
+		assertThat(cache.getNumMisses(), is(2L));
+	}
+
+	@Test
+	public void evictsLeastRecentlyUsedOverBudget() {
+
+		PartitionFunctionCache cache = new PartitionFunctionCache(100);
+
+		PartitionFunctionCache.Entry a = cache.get("a");
+		PartitionFunctionCache.Entry b = cache.get("b");
+		PartitionFunctionCache.Entry c = cache.get("c");
+		cache.setNumBytes(a, 40);
+		cache.setNumBytes(b, 40);
+		assertThat(cache.size(), is(3));
+		assertThat(cache.getNumBytes(), is(80L));
+
+		// touch a, so b is the oldest
+		cache.get("a");
+
+		// c grows past the budget
+		cache.setNumBytes(c, 40);
+		assertThat(cache.size(), is(2));
+		assertThat(cache.getNumBytes(), is(80L));
+
+		assertThat(cache.get("a"), is(sameInstance(a)));
+		assertThat(cache.get("c"), is(sameInstance(c)));
+		assertThat(cache.get("b"), is(not(sameInstance(b))));
+
+		// updating an evicted entry doesn't count it again
+		cache.setNumBytes(b, 10);
+		assertThat(cache.getNumBytes(), is(80L));
+	}
+
+	@Test
+	public void keepsMostRecentEntryOverBudget() {
+
+		PartitionFunctionCache cache = new PartitionFunctionCache(100);
+
+		cache.setNumBytes(cache.get("a"), 10);
+		PartitionFunctionCache.Entry b = cache.get("b");
+		cache.setNumBytes(b, 200);
+
+		assertThat(cache.size(), is(1));
+		assertThat(cache.get("b"), is(sameInstance(b)));
+		assertThat(cache.getNumBytes(), is(200L));
+	}
+
+	@Test
+	public void scoresSharingPartitionFunctionAllCheckIt() {
+
+		PartitionFunctionCache cache = new PartitionFunctionCache(1024*1024);
+		PartitionFunctionCache.Entry entry = cache.get("a");
+		CountingPartitionFunction pf = new CountingPartitionFunction(BigDecimal.valueOf(2));
+		entry.setPartitionFunction(pf);
+
+		KStarScoreMinimized first = makeScore(cache, entry);
+		KStarScoreMinimized second = makeScore(cache, entry);
+
+		first.computeIfNeeded(0, 100);
+		assertThat(pf.numComputes, is(1));
+		assertThat(pf.numTopConfsWrites, is(1));
+		assertThat(first.constrSatisfied(), is(false));
+
+		// the second score gets the estimated partition function, but still has to check it
+		second.computeIfNeeded(0, 100);
+		assertThat(pf.numComputes, is(1));
+		assertThat(pf.numTopConfsWrites, is(2));
+		assertThat(second.constrSatisfied(), is(false));
+
+		// but only once
+		second.computeIfNeeded(0, 100);
+		assertThat(pf.numTopConfsWrites, is(2));
+	}
+
+	@Test
+	public void sharedPartitionFunctionsMatchUncachedScores() {
+
+		SteppedScore[] uncached = computeSteppedScores(null);
+		SteppedScore[] cached = computeSteppedScores(new PartitionFunctionCache(1024*1024));
+
+		for (int i=0; i<uncached.length; i++) {
+			assertThat(uncached[i].getScore().signum(), is(1));
+			assertThat(cached[i].getScore().compareTo(uncached[i].getScore()), is(0));
+
+			// only the cached scores share the unbound state
+			assertThat(cached[i].getPartitionFunction(0), is(sameInstance(cached[0].getPartitionFunction(0))));
+			if (i > 0) {
+				assertThat(uncached[i].getPartitionFunction(0), is(not(sameInstance(uncached[0].getPartitionFunction(0)))));
+			}
+		}
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void sizeMustBePositive() {
+		new PartitionFunctionCache(0);
+	}
+}
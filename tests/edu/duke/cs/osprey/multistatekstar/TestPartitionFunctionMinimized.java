@@ -0,0 +1,94 @@
+package edu.duke.cs.osprey.multistatekstar;
+
+import static edu.duke.cs.osprey.TestBase.*;
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+import java.math.BigDecimal;
+
+import org.junit.Test;
+
+import edu.duke.cs.osprey.tools.BigExp;
+
+public class TestPartitionFunctionMinimized {
+
+	// exposes the BigExp sums, without needing a search problem
+	private static class SumsPartitionFunction extends PartitionFunctionMinimized {
+
+		public SumsPartitionFunction() {
+			super(null, null, null, null, null);
+			values = new Values();
+			qstar = BigExp.ZERO;
+			qprime = BigExp.ZERO;
+			pstar = BigExp.ZERO;
+			saveValues();
+		}
+
+		public BigExp getQstar() {
+			return qstar;
+		}
+
+		public void addQstar(double val) {
+			qstar = qstar.add(new BigExp(val));
+		}
+	}
+
+	@Test
+	public void savedValuesMatchSums() {
+
+		SumsPartitionFunction pf = new SumsPartitionFunction();
+		for (int i=0; i<1000; i++) {
+			pf.addQstar(0.5);
+		}
+		pf.saveValues();
+
+		assertThat(pf.getValues().qstar.doubleValue(), isAbsolutely(500, 1e-10));
+		assertThat(pf.getValues().qprime.signum(), is(0));
+	}
+
+	@Test
+	public void valuesAreFilledWhenRead() {
+
+		SumsPartitionFunction pf = new SumsPartitionFunction();
+		for (int i=0; i<1000; i++) {
+			pf.addQstar(0.5);
+		}
+
+		// nobody saved the sums, but reading the values should still see them
+		assertThat(pf.getValues().qstar.doubleValue(), isAbsolutely(500, 1e-10));
+
+		// and reading them again shouldn't undo a replaced q*
+		pf.getValues().qstar = new BigDecimal("4e400");
+		assertThat(BigExp.valueOf(pf.getValues().qstar).log10(), isAbsolutely(Math.log10(4) + 400, 1e-10));
+	}
+
+	@Test
+	public void loadKeepsOwnSums() {
+
+		SumsPartitionFunction pf = new SumsPartitionFunction();
+		pf.addQstar(1.0/3);
+		pf.saveValues();
+
+		// nobody touched the values, so the sum shouldn't make a round trip through BigDecimal
+		BigExp qstar = pf.getQstar();
+		pf.loadValues();
+		assertThat(pf.getQstar(), is(sameInstance(qstar)));
+	}
+
+	@Test
+	public void loadPicksUpReplacedQstar() {
+
+		SumsPartitionFunction pf = new SumsPartitionFunction();
+		pf.addQstar(1);
+		pf.saveValues();
+
+		// phase 2 starts from the phase 1 q*, which is way beyond the double range
+		pf.getValues().qstar = new BigDecimal("4e400");
+		pf.loadValues();
+		assertThat(pf.getQstar().log10(), isAbsolutely(Math.log10(4) + 400, 1e-10));
+
+		pf.addQstar(1);
+		pf.saveValues();
+		assertThat(BigExp.valueOf(pf.getValues().qstar).log10(), isAbsolutely(Math.log10(4) + 400, 1e-10));
+	}
+}
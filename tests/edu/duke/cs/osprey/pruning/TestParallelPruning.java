@@ -0,0 +1,163 @@
+package edu.duke.cs.osprey.pruning;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import edu.duke.cs.osprey.TestBase;
+import edu.duke.cs.osprey.astar.conf.ConfAStarTree;
+import edu.duke.cs.osprey.astar.conf.RCs;
+import edu.duke.cs.osprey.astar.conf.order.DynamicHMeanAStarOrder;
+import edu.duke.cs.osprey.astar.conf.scoring.PairwiseGScorer;
+import edu.duke.cs.osprey.astar.conf.scoring.TraditionalPairwiseHScorer;
+import edu.duke.cs.osprey.confspace.ConfSearch.ScoredConf;
+import edu.duke.cs.osprey.confspace.RCTuple;
+import edu.duke.cs.osprey.confspace.SearchProblem;
+import edu.duke.cs.osprey.ematrix.LazyEnergyMatrix;
+import edu.duke.cs.osprey.ematrix.SimpleEnergyCalculator;
+
+public class TestParallelPruning extends TestBase {
+
+	private static ForkJoinPool pool1;
+	private static ForkJoinPool pool4;
+
+	@BeforeClass
+	public static void before() {
+		initDefaultEnvironment();
+		pool1 = new ForkJoinPool(1);
+		pool4 = new ForkJoinPool(4);
+	}
+
+	@AfterClass
+	public static void after() {
+		pool1.shutdown();
+		pool4.shutdown();
+	}
+
+	private static SearchProblem makeSearch() {
+		EnergyMatrixConfig emConfig = new EnergyMatrixConfig();
+		emConfig.pdbPath = "test/DAGK/2KDC.P.forOsprey.pdb";
+		emConfig.numFlexible = 8;
+		emConfig.addWtRots = true;
+		emConfig.doMinimize = false;
+		return makeSearchProblem(emConfig);
+	}
+
+	// computes energies as the pruner reads them
+	private static SearchProblem makeLazySearch() {
+		SearchProblem search = makeSearch();
+		SimpleEnergyCalculator ecalc = new SimpleEnergyCalculator.Cpu(makeDefaultFFParams(), search.confSpace, search.shellResidues);
+		search.emat = new LazyEnergyMatrix(search.confSpace, search.emat.getPruningInterval(), ecalc);
+		return search;
+	}
+
+	private static Pruner makePruner(SearchProblem search, ForkJoinPool pool) {
+		Pruner pruner = new Pruner(search, false, 100, 0, false, false);
+		pruner.setVerbose(false);
+		pruner.setPool(pool);
+		return pruner;
+	}
+
+	private static SearchProblem prune(ForkJoinPool pool, String ... methods) {
+		SearchProblem search = makeSearch();
+		Pruner pruner = makePruner(search, pool);
+		for (String method : methods) {
+			pruner.prune(method);
+		}
+		return search;
+	}
+
+	private static void assertSamePruning(PruningMatrix expected, PruningMatrix observed) {
+
+		assertThat(observed.countPrunedRCs(), is(expected.countPrunedRCs()));
+		assertThat(observed.countPrunedPairs(), is(expected.countPrunedPairs()));
+
+		for (int pos1=0; pos1<expected.getNumPos(); pos1++) {
+			for (int rc1=0; rc1<expected.getNumConfAtPos(pos1); rc1++) {
+				assertThat(observed.getOneBody(pos1, rc1), is(expected.getOneBody(pos1, rc1)));
+				for (int pos2=0; pos2<pos1; pos2++) {
+					for (int rc2=0; rc2<expected.getNumConfAtPos(pos2); rc2++) {
+						assertThat(observed.getPairwise(pos1, rc1, pos2, rc2), is(expected.getPairwise(pos1, rc1, pos2, rc2)));
+					}
+				}
+			}
+		}
+	}
+
+	private static ScoredConf findMinScoreConf(SearchProblem search) {
+		RCs rcs = new RCs(search.pruneMat);
+		ConfAStarTree tree = new ConfAStarTree(
+			new DynamicHMeanAStarOrder(),
+			new PairwiseGScorer(search.emat),
+			new TraditionalPairwiseHScorer(search.emat, rcs),
+			rcs
+		);
+		return tree.nextConf();
+	}
+
+	@Test
+	public void singlesSameForAnyThreads() {
+		SearchProblem search1 = prune(pool1, "GOLDSTEIN");
+		SearchProblem search4 = prune(pool4, "GOLDSTEIN");
+		assertThat(search1.pruneMat.countPrunedRCs(), greaterThan(0));
+		assertSamePruning(search1.pruneMat, search4.pruneMat);
+	}
+
+	@Test
+	public void pairsSameForAnyThreads() {
+		SearchProblem search1 = prune(pool1, "GOLDSTEIN", "GOLDSTEIN PAIRS FULL");
+		SearchProblem search4 = prune(pool4, "GOLDSTEIN", "GOLDSTEIN PAIRS FULL");
+		assertThat(search1.pruneMat.countPrunedPairs(), greaterThan(0));
+		assertSamePruning(search1.pruneMat, search4.pruneMat);
+	}
+
+	@Test
+	public void reachesFixedPoint() {
+
+		// if we skipped any candidates we should have revisited, pruning again would find more
+		for (ForkJoinPool pool : new ForkJoinPool[] { pool1, pool4 }) {
+			SearchProblem search = makeSearch();
+			Pruner pruner = makePruner(search, pool);
+			for (String method : new String[] { "GOLDSTEIN", "GOLDSTEIN PAIRS FULL" }) {
+				assertThat(pruner.prune(method), is(true));
+				assertThat(pruner.prune(method), is(false));
+			}
+		}
+	}
+
+	@Test
+	public void lazyMatrixPrunesSerially() {
+
+		SearchProblem search1 = makeLazySearch();
+		SearchProblem search4 = makeLazySearch();
+		Pruner pruner1 = makePruner(search1, pool1);
+		Pruner pruner4 = makePruner(search4, pool4);
+		assertThat(makePruner(makeSearch(), pool4).canCheckInParallel(), is(true));
+		assertThat(pruner4.canCheckInParallel(), is(false));
+
+		for (String method : new String[] { "GOLDSTEIN", "GOLDSTEIN PAIRS FULL" }) {
+			pruner1.prune(method);
+			pruner4.prune(method);
+		}
+		assertThat(search1.pruneMat.countPrunedRCs(), greaterThan(0));
+		assertSamePruning(search1.pruneMat, search4.pruneMat);
+	}
+
+	@Test
+	public void keepsMinScoreConf() {
+
+		ScoredConf expected = findMinScoreConf(makeSearch());
+
+		SearchProblem search = prune(pool4, "GOLDSTEIN", "GOLDSTEIN PAIRS FULL");
+		assertThat(search.pruneMat.isPruned(new RCTuple(expected.getAssignments())), is(false));
+
+		ScoredConf observed = findMinScoreConf(search);
+		assertThat(observed.getAssignments(), is(expected.getAssignments()));
+		assertThat(observed.getScore(), isAbsolutely(expected.getScore(), 1e-10));
+	}
+}
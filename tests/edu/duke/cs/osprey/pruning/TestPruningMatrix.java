@@ -0,0 +1,167 @@
+package edu.duke.cs.osprey.pruning;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class TestPruningMatrix {
+
+	// use more than 64 RCs at a position so rows span multiple words
+	private static final int[] NumRCsAtPos = { 3, 70, 1, 130 };
+
+	private PruningMatrix makeMatrix() {
+		return new PruningMatrix(NumRCsAtPos.length, NumRCsAtPos, 0);
+	}
+
+	@Test
+	public void testEmpty() {
+		PruningMatrix pmat = makeMatrix();
+		assertThat(pmat.countPrunedRCs(), is(0));
+		assertThat(pmat.countPrunedPairs(), is(0));
+	}
+
+	@Test
+	public void testOneBody() {
+		PruningMatrix pmat = makeMatrix();
+
+		pmat.setOneBody(1, 65, true);
+		pmat.setOneBody(3, 129, true);
+
+		assertThat(pmat.getOneBodyB(1, 65), is(true));
+		assertThat(pmat.getOneBody(1, 65), is(true));
+		assertThat(pmat.getOneBodyB(1, 64), is(false));
+		assertThat(pmat.getOneBodyB(3, 129), is(true));
+		assertThat(pmat.getOneBodyB(0, 0), is(false));
+		assertThat(pmat.countPrunedRCs(), is(2));
+		assertThat(pmat.unprunedRCsAtPos(1).contains(65), is(false));
+
+		pmat.setOneBody(1, 65, false);
+		assertThat(pmat.getOneBodyB(1, 65), is(false));
+		assertThat(pmat.countPrunedRCs(), is(1));
+	}
+
+	@Test
+	public void testPairwiseIsSymmetric() {
+		PruningMatrix pmat = makeMatrix();
+
+		pmat.setPairwise(3, 100, 1, 66, true);
+
+		assertThat(pmat.getPairwiseB(3, 100, 1, 66), is(true));
+		assertThat(pmat.getPairwiseB(1, 66, 3, 100), is(true));
+		assertThat(pmat.getPairwise(1, 66, 3, 100), is(true));
+		assertThat(pmat.getPairwiseB(1, 66, 3, 101), is(false));
+		assertThat(pmat.getPairwiseB(1, 65, 3, 100), is(false));
+		assertThat(pmat.countPrunedPairs(), is(1));
+
+		pmat.setPairwise(1, 66, 3, 100, false);
+		assertThat(pmat.getPairwiseB(3, 100, 1, 66), is(false));
+		assertThat(pmat.countPrunedPairs(), is(0));
+	}
+
+	@Test
+	public void testPrunedPairsMask() {
+		PruningMatrix pmat = makeMatrix();
+
+		pmat.setPairwise(0, 1, 3, 5, true);
+		pmat.setPairwise(1, 68, 3, 127, true);
+		pmat.setPairwise(1, 67, 3, 64, true); // not in the partial conf
+		pmat.setOneBody(3, 6, true); // singles don't count
+
+		int[] pos = { 0, 1, 2 };
+		int[] rcs = { 1, 68, 0 };
+		long[] mask = new long[pmat.getNumWordsAtPos(3)];
+		assertThat(mask.length, is(3));
+
+		pmat.getPrunedPairsMask(3, pos, rcs, pos.length, mask);
+		for (int rc=0; rc<NumRCsAtPos[3]; rc++) {
+			boolean expected = rc == 5 || rc == 127;
+			assertThat(PruningMatrix.isBitSet(mask, rc), is(expected));
+			assertThat(pmat.getPairwiseB(1, 68, 3, rc) || pmat.getPairwiseB(0, 1, 3, rc), is(expected));
+		}
+	}
+
+	@Test
+	public void testPrunedPairsMaskBothOrientations() {
+
+		// masks read rows when the other pos is after pos, and columns when it's before
+		int[] numRCs = { 70, 5, 130, 67 };
+		PruningMatrix pmat = new PruningMatrix(numRCs.length, numRCs, 0);
+		Random rand = new Random(12345);
+		for (int i=0; i<2000; i++) {
+			int pos1 = rand.nextInt(numRCs.length);
+			int pos2 = rand.nextInt(numRCs.length);
+			if (pos1 != pos2) {
+				pmat.setPairwise(pos1, rand.nextInt(numRCs[pos1]), pos2, rand.nextInt(numRCs[pos2]), true);
+			}
+		}
+
+		for (int pos=0; pos<numRCs.length; pos++) {
+			long[] mask = new long[pmat.getNumWordsAtPos(pos)];
+			for (int other=0; other<numRCs.length; other++) {
+				if (other == pos) {
+					continue;
+				}
+				for (int otherRC=0; otherRC<numRCs[other]; otherRC++) {
+					pmat.getPrunedPairsMask(pos, new int[] { other }, new int[] { otherRC }, 1, mask);
+					for (int rc=0; rc<numRCs[pos]; rc++) {
+						assertThat(PruningMatrix.isBitSet(mask, rc), is(pmat.getPairwiseB(other, otherRC, pos, rc)));
+					}
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testPairwiseStorageSize() {
+
+		// each pair is stored once, padded to a word per pair of positions
+		int[] numRCs = { 50, 50, 50, 50, 50, 50, 50, 50, 50, 50 };
+		PruningMatrix pmat = new PruningMatrix(numRCs.length, numRCs, 0);
+		int numPosPairs = numRCs.length*(numRCs.length - 1)/2;
+		int numBitSetWords = (numPosPairs*50*50 + 63)/64;
+		assertThat(pmat.getNumPairwiseWords(), lessThanOrEqualTo(numBitSetWords + numPosPairs));
+	}
+
+	@Test
+	public void testPrunedPairsMaskInverted() {
+		PruningMatrix pmat = makeMatrix();
+		pmat.setPairwise(0, 1, 3, 5, true);
+
+		// inverted matrices have no storage of their own, so this tests the slow path
+		PruningMatrix inverted = new InvertedPruningMatrix(pmat);
+		long[] mask = new long[inverted.getNumWordsAtPos(3)];
+		inverted.getPrunedPairsMask(3, new int[] { 0 }, new int[] { 1 }, 1, mask);
+		for (int rc=0; rc<NumRCsAtPos[3]; rc++) {
+			assertThat(PruningMatrix.isBitSet(mask, rc), is(rc != 5));
+		}
+	}
+
+	@Test
+	public void testFill() {
+		PruningMatrix pmat = makeMatrix();
+
+		pmat.fill(true);
+		assertThat(pmat.countPrunedRCs(), is(3 + 70 + 1 + 130));
+		assertThat(pmat.getPairwiseB(3, 129, 1, 69), is(true));
+
+		pmat.fill(false);
+		assertThat(pmat.countPrunedRCs(), is(0));
+		assertThat(pmat.countPrunedPairs(), is(0));
+	}
+
+	@Test
+	public void testCopy() {
+		PruningMatrix pmat = makeMatrix();
+		pmat.setOneBody(1, 2, true);
+		pmat.setPairwise(0, 2, 3, 90, true);
+
+		PruningMatrix copy = new PruningMatrix(pmat);
+		pmat.setOneBody(1, 2, false);
+
+		assertThat(copy.getOneBodyB(1, 2), is(true));
+		assertThat(copy.getPairwiseB(3, 90, 0, 2), is(true));
+	}
+}
@@ -0,0 +1,152 @@
+package edu.duke.cs.osprey.tools;
+
+import static edu.duke.cs.osprey.TestBase.*;
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.MathContext;
+import java.util.Random;
+
+import org.junit.Test;
+
+import edu.duke.cs.osprey.kstar.pfunc.BoltzmannCalculator;
+import edu.duke.cs.osprey.kstar.pfunc.PartitionFunction;
+
+public class TestBigExp {
+
+	private static final double Epsilon = 1e-12;
+
+	// TestBase.getRelativeError() overflows doubles for really big numbers
+	private static double getRelativeError(BigDecimal expected, BigDecimal observed) {
+		return expected.subtract(observed).abs().divide(observed.abs(), MathContext.DECIMAL64).doubleValue();
+	}
+
+	@Test
+	public void normalize() {
+		BigExp x = new BigExp(12.0);
+		assertThat(x.fp, is(1.5));
+		assertThat(x.exp, is(3L));
+		assertThat(x.doubleValue(), is(12.0));
+
+		x = new BigExp(-0.375);
+		assertThat(x.fp, is(-1.5));
+		assertThat(x.exp, is(-2L));
+
+		x = new BigExp(Double.MIN_VALUE);
+		assertThat(x.fp, is(1.0));
+		assertThat(x.doubleValue(), is(Double.MIN_VALUE));
+
+		assertThat(new BigExp(0.0).isZero(), is(true));
+		assertThat(new BigExp(0.0, 100).exp, is(0L));
+	}
+
+	@Test
+	public void expMatchesMath() {
+		for (double x=-700; x<=700; x+=0.37) {
+			assertThat(BigExp.exp(x).doubleValue(), isRelatively(Math.exp(x), Epsilon));
+		}
+		assertThat(BigExp.exp(Double.NEGATIVE_INFINITY).isZero(), is(true));
+	}
+
+	@Test
+	public void expBeyondDoubles() {
+
+		// e^1000 overflows a double, but not BigDecimal
+		BigDecimal exp = new BigDecimal(Math.exp(500)).multiply(new BigDecimal(Math.exp(500)));
+		assertThat(getRelativeError(exp, BigExp.exp(1000).toBigDecimal()), lessThan(Epsilon));
+		assertThat(BigExp.exp(1000).log(), isRelatively(1000, Epsilon));
+		assertThat(BigExp.exp(-1000).log10(), isRelatively(-1000/Math.log(10), Epsilon));
+	}
+
+	@Test
+	public void arithmetic() {
+
+		Random rand = new Random(12345);
+		for (int i=0; i<1000; i++) {
+			double a = (rand.nextDouble() - 0.5)*Math.pow(10, rand.nextInt(20) - 10);
+			double b = (rand.nextDouble() - 0.5)*Math.pow(10, rand.nextInt(20) - 10);
+			BigExp ba = new BigExp(a);
+			BigExp bb = new BigExp(b);
+
+			assertThat(ba.add(bb).doubleValue(), isRelatively(a + b, Epsilon));
+			assertThat(ba.subtract(bb).doubleValue(), isRelatively(a - b, Epsilon));
+			assertThat(ba.multiply(bb).doubleValue(), isRelatively(a*b, Epsilon));
+			assertThat(ba.divide(bb).doubleValue(), isRelatively(a/b, Epsilon));
+			assertThat(ba.compareTo(bb), is(Double.compare(a, b)));
+		}
+	}
+
+	@Test
+	public void conversions() {
+
+		BigInteger big = BigInteger.valueOf(3).pow(200);
+		assertThat(BigExp.valueOf(big).toBigDecimal(), isRelatively(new BigDecimal(big), Epsilon));
+		assertThat(BigExp.valueOf(BigInteger.valueOf(42)).doubleValue(), is(42.0));
+
+		BigDecimal dec = new BigDecimal("1.234567890123e-321");
+		assertThat(BigExp.valueOf(dec).toBigDecimal(), isRelatively(dec, Epsilon));
+		assertThat(BigExp.ZERO.toBigDecimal().signum(), is(0));
+
+		assertThat(BigExp.exp(1000).toString(), is("1.970071e+434"));
+		assertThat(new BigExp(-0.00125).toString(), is("-1.250000e-03"));
+	}
+
+	@Test
+	public void boltzmannMatchesBigDecimal() {
+
+		BoltzmannCalculator bcalc = new BoltzmannCalculator();
+
+		// big weights agree to nearly double precision
+		// (ExpFunction loses a few digits for big exponents, and rounds to 8 decimal places)
+		for (double energy=-500; energy<-5; energy+=0.73) {
+			assertThat(getRelativeError(bcalc.calc(energy), bcalc.calcBigExp(energy).toBigDecimal()), lessThan(1e-10));
+		}
+
+		// tiny weights are zero either way
+		assertThat(bcalc.calc(20).signum(), is(0));
+		assertThat(bcalc.calcBigExp(20).isZero(), is(true));
+		assertThat(bcalc.calcBigExp(Double.POSITIVE_INFINITY).isZero(), is(true));
+	}
+
+	@Test
+	public void pfuncSumsMatchBigDecimal() {
+
+		BoltzmannCalculator bcalc = new BoltzmannCalculator();
+		Random rand = new Random(54321);
+
+		BigDecimal qstar = BigDecimal.ZERO;
+		BigDecimal qprime = BigDecimal.ZERO;
+		BigExp fastQstar = BigExp.ZERO;
+		BigExp fastQprime = BigExp.ZERO;
+		for (int i=0; i<10000; i++) {
+			double energy = -60 + rand.nextDouble()*60;
+			qstar = qstar.add(bcalc.calc(energy));
+			fastQstar = fastQstar.add(bcalc.calcBigExp(energy));
+			double score = energy - rand.nextDouble()*2;
+			qprime = qprime.add(bcalc.calc(score));
+			fastQprime = fastQprime.add(bcalc.calcBigExp(score));
+		}
+		BigExp fastPstar = bcalc.calcBigExp(-40).multiply(BigInteger.valueOf(1000));
+		BigDecimal pstar = bcalc.calc(-40).multiply(BigDecimal.valueOf(1000));
+
+		assertThat(fastQstar.toBigDecimal(), isRelatively(qstar, 1e-10));
+		assertThat(fastQprime.toBigDecimal(), isRelatively(qprime, 1e-10));
+
+		// the boltzmann weights are rounded to 8 decimal places
+		PartitionFunction.Values values = new PartitionFunction.Values();
+		values.qstar = qstar;
+		values.qprime = qprime;
+		values.pstar = pstar;
+		double epsilon = values.getEffectiveEpsilon();
+		assertThat(PartitionFunction.Values.getEffectiveEpsilon(fastQstar, fastQprime, fastPstar), isAbsolutely(epsilon, 1e-8));
+
+		// values converted from BigExp don't have any decimal places, but should give the same epsilon
+		values.qstar = fastQstar.toBigDecimal();
+		values.qprime = fastQprime.toBigDecimal();
+		values.pstar = fastPstar.toBigDecimal();
+		assertThat(values.qstar.scale(), lessThanOrEqualTo(0));
+		assertThat(values.getEffectiveEpsilon(), isAbsolutely(epsilon, 1e-8));
+	}
+}
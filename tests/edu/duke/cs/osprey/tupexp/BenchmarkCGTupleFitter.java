@@ -0,0 +1,106 @@
+package edu.duke.cs.osprey.tupexp;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+import org.apache.commons.math3.linear.ArrayRealVector;
+import org.apache.commons.math3.linear.ConjugateGradient;
+import org.apache.commons.math3.linear.RealLinearOperator;
+import org.apache.commons.math3.linear.RealVector;
+
+import edu.duke.cs.osprey.TestBase;
+import edu.duke.cs.osprey.tools.Stopwatch;
+
+public class BenchmarkCGTupleFitter extends TestBase {
+
+	public static void main(String[] args) {
+
+		// a LUTE-sized fit: all the singles and pairs for a mid-sized design
+		final int numPos = 12;
+		final int numRCs = 20;
+		final int numSamples = 200000;
+
+		Random rand = new Random(12345);
+		int[] numRCsAtPos = new int[numPos];
+		for (int pos=0; pos<numPos; pos++) {
+			numRCsAtPos[pos] = numRCs;
+		}
+		TupleIndexMatrix tim = new TupleIndexMatrix(numPos, numRCsAtPos, Double.POSITIVE_INFINITY);
+		int numTuples = 0;
+		for (int pos1=0; pos1<numPos; pos1++) {
+			for (int rc1=0; rc1<numRCs; rc1++) {
+				tim.setOneBody(pos1, rc1, numTuples++);
+				for (int pos2=0; pos2<pos1; pos2++) {
+					for (int rc2=0; rc2<numRCs; rc2++) {
+						tim.setPairwise(pos1, rc1, pos2, rc2, numTuples++);
+					}
+				}
+			}
+		}
+
+		ArrayList<int[]> samples = new ArrayList<>();
+		double[] trueVals = new double[numSamples];
+		ArrayList<Double> weights = new ArrayList<>();
+		for (int s=0; s<numSamples; s++) {
+			int[] sample = new int[numPos];
+			for (int pos=0; pos<numPos; pos++) {
+				sample[pos] = rand.nextInt(numRCs);
+			}
+			samples.add(sample);
+			trueVals[s] = rand.nextGaussian()*10;
+			weights.add(1.0);
+		}
+		System.out.println(String.format("%d tuples, %d samples", numTuples, numSamples));
+
+		// this is what CGTupleFitter used to do
+		final int fNumTuples = numTuples;
+		RealLinearOperator legacyAtA = new RealLinearOperator() {
+
+			@Override
+			public int getRowDimension() {
+				return fNumTuples;
+			}
+
+			@Override
+			public int getColumnDimension() {
+				return fNumTuples;
+			}
+
+			@Override
+			public RealVector operate(RealVector rv) {
+				double Arv[] = new double[numSamples];
+				for (int s=0; s<numSamples; s++) {
+					for (int t : tim.calcSampleTuples(samples.get(s))) {
+						Arv[s] += rv.getEntry(t);
+					}
+				}
+				double ans[] = new double[fNumTuples];
+				for (int s=0; s<numSamples; s++) {
+					for (int t : tim.calcSampleTuples(samples.get(s))) {
+						ans[t] += Arv[s]*weights.get(s);
+					}
+				}
+				return new ArrayRealVector(ans, false);
+			}
+		};
+		double atb[] = new double[numTuples];
+		for (int s=0; s<numSamples; s++) {
+			for (int t : tim.calcSampleTuples(samples.get(s))) {
+				atb[t] += trueVals[s]*weights.get(s);
+			}
+		}
+
+		Stopwatch legacyStopwatch = new Stopwatch().start();
+		ConjugateGradient cg = new ConjugateGradient(100000, 1e-6, false);
+		cg.solve(legacyAtA, new ArrayRealVector(atb, false));
+		legacyStopwatch.stop();
+		System.out.println(String.format("legacy:  %s, %d iterations", legacyStopwatch.getTime(2), cg.getIterationManager().getIterations()));
+
+		Stopwatch sparseStopwatch = new Stopwatch().start();
+		new CGTupleFitter(tim, samples, numTuples, trueVals, weights).doFit();
+		sparseStopwatch.stop();
+		System.out.println(String.format("sparse:  %s, %.1fx speedup", sparseStopwatch.getTime(2),
+			(double)legacyStopwatch.getTimeNs()/sparseStopwatch.getTimeNs()
+		));
+	}
+}
@@ -0,0 +1,184 @@
+package edu.duke.cs.osprey.tupexp;
+
+import static edu.duke.cs.osprey.TestBase.*;
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import org.apache.commons.math3.linear.Array2DRowRealMatrix;
+import org.apache.commons.math3.linear.ArrayRealVector;
+import org.apache.commons.math3.linear.SingularValueDecomposition;
+import org.junit.Test;
+
+import edu.duke.cs.osprey.parallelism.ThreadParallelism;
+
+public class TestCGTupleFitter {
+
+	private static final int NumPos = 4;
+	private static final int NumRCs = 3;
+
+	private static class Problem {
+
+		TupleIndexMatrix tim;
+		int numTuples = 0;
+		ArrayList<int[]> samples = new ArrayList<>();
+		double[] trueVals;
+		ArrayList<Double> weights = new ArrayList<>();
+
+		Problem(int numSamples) {
+
+			Random rand = new Random(12345);
+
+			// all the singles, and some of the pairs
+			int[] numRCsAtPos = new int[NumPos];
+			for (int pos=0; pos<NumPos; pos++) {
+				numRCsAtPos[pos] = NumRCs;
+			}
+			tim = new TupleIndexMatrix(NumPos, numRCsAtPos, Double.POSITIVE_INFINITY);
+			for (int pos1=0; pos1<NumPos; pos1++) {
+				for (int rc1=0; rc1<NumRCs; rc1++) {
+					tim.setOneBody(pos1, rc1, numTuples++);
+					for (int pos2=0; pos2<pos1; pos2++) {
+						for (int rc2=0; rc2<NumRCs; rc2++) {
+							if ((pos1 + rc1 + pos2 + rc2) % 2 == 0) {
+								tim.setPairwise(pos1, rc1, pos2, rc2, numTuples++);
+							} else {
+								tim.setPairwise(pos1, rc1, pos2, rc2, -1);
+							}
+						}
+					}
+				}
+			}
+
+			trueVals = new double[numSamples];
+			for (int s=0; s<numSamples; s++) {
+				int[] sample = new int[NumPos];
+				for (int pos=0; pos<NumPos; pos++) {
+					sample[pos] = rand.nextInt(NumRCs);
+				}
+				samples.add(sample);
+				trueVals[s] = rand.nextDouble()*10 - 5;
+				weights.add(0.5 + rand.nextDouble());
+			}
+		}
+
+		double[] solveDense() {
+
+			// solve the weighted normal equations directly
+			double[][] AtA = new double[numTuples][numTuples];
+			double[] Atb = new double[numTuples];
+			for (int s=0; s<samples.size(); s++) {
+				ArrayList<Integer> tuples = tim.calcSampleTuples(samples.get(s));
+				for (int t1 : tuples) {
+					Atb[t1] += weights.get(s)*trueVals[s];
+					for (int t2 : tuples) {
+						AtA[t1][t2] += weights.get(s);
+					}
+				}
+			}
+			// NOTE: the singles at each pos always sum to 1, so AtA is singular
+			return new SingularValueDecomposition(new Array2DRowRealMatrix(AtA, false)).getSolver()
+				.solve(new ArrayRealVector(Atb, false)).toArray();
+		}
+	}
+
+	@Test
+	public void sampleTuples() {
+
+		Problem problem = new Problem(100);
+		SampleTupleMatrix A = new SampleTupleMatrix(problem.tim, problem.samples, problem.numTuples);
+
+		int nnz = 0;
+		for (int s=0; s<problem.samples.size(); s++) {
+			ArrayList<Integer> exp = problem.tim.calcSampleTuples(problem.samples.get(s));
+			assertEquals(exp.size(), A.getNumTuples(s));
+			for (int i=0; i<exp.size(); i++) {
+				assertEquals((int)exp.get(i), A.getTuple(s, i));
+			}
+			nnz += exp.size();
+		}
+		assertEquals(nnz, A.getNumNonZeros());
+	}
+
+	@Test
+	public void defaultPoolUsesConfiguredThreads() {
+
+		Problem problem = new Problem(10);
+		SampleTupleMatrix A = new SampleTupleMatrix(problem.tim, problem.samples, problem.numTuples);
+		assertThat(A.getPool().getParallelism(), is(ThreadParallelism.getNumThreads()));
+	}
+
+	@Test
+	public void products() {
+
+		Problem problem = new Problem(5000);
+		Random rand = new Random(54321);
+		double[] x = new double[problem.numTuples];
+		for (int t=0; t<x.length; t++) {
+			x[t] = rand.nextDouble();
+		}
+		double[] w = new double[problem.samples.size()];
+		for (int s=0; s<w.length; s++) {
+			w[s] = problem.weights.get(s);
+		}
+
+		// compute the products the slow way
+		double[] expAx = new double[problem.samples.size()];
+		double[] expAtWAx = new double[problem.numTuples];
+		for (int s=0; s<problem.samples.size(); s++) {
+			ArrayList<Integer> tuples = problem.tim.calcSampleTuples(problem.samples.get(s));
+			for (int t : tuples) {
+				expAx[s] += x[t];
+			}
+			for (int t : tuples) {
+				expAtWAx[t] += w[s]*expAx[s];
+			}
+		}
+
+		// and the fast way, serially and in parallel
+		ForkJoinPool pool = new ForkJoinPool(2);
+		try {
+			for (ForkJoinPool p : new ForkJoinPool[] { new ForkJoinPool(1), pool }) {
+				SampleTupleMatrix A = new SampleTupleMatrix(problem.tim, problem.samples, problem.numTuples);
+				A.setPool(p);
+
+				double[] Ax = new double[problem.samples.size()];
+				A.multiply(x, Ax);
+				for (int s=0; s<Ax.length; s++) {
+					assertThat(Ax[s], isAbsolutely(expAx[s], 1e-12));
+				}
+
+				double[] AtWAx = new double[problem.numTuples];
+				A.multiplyTranspose(Ax, w, AtWAx);
+				for (int t=0; t<AtWAx.length; t++) {
+					assertThat(AtWAx[t], isRelatively(expAtWAx[t], 1e-12));
+				}
+				p.shutdown();
+			}
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	@Test
+	public void fitMatchesDense() {
+
+		Problem problem = new Problem(2000);
+		double[] exp = problem.solveDense();
+		double[] obs = new CGTupleFitter(problem.tim, problem.samples, problem.numTuples, problem.trueVals, problem.weights).doFit();
+
+		// the coefficients aren't unique, but the fit values at the samples are
+		assertEquals(exp.length, obs.length);
+		SampleTupleMatrix A = new SampleTupleMatrix(problem.tim, problem.samples, problem.numTuples);
+		double[] expFit = new double[problem.samples.size()];
+		double[] obsFit = new double[problem.samples.size()];
+		A.multiply(exp, expFit);
+		A.multiply(obs, obsFit);
+		for (int s=0; s<expFit.length; s++) {
+			assertThat(obsFit[s], isAbsolutely(expFit[s], 1e-4));
+		}
+	}
+}
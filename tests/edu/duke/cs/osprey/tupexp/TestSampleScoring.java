@@ -0,0 +1,208 @@
+package edu.duke.cs.osprey.tupexp;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Random;
+
+import org.junit.Test;
+
+import edu.duke.cs.osprey.TestBase;
+import edu.duke.cs.osprey.confspace.RCTuple;
+import edu.duke.cs.osprey.confspace.SearchProblem;
+import edu.duke.cs.osprey.control.EnvironmentVars;
+import edu.duke.cs.osprey.control.MinimizingEnergyCalculator;
+import edu.duke.cs.osprey.dof.deeper.DEEPerSettings;
+import edu.duke.cs.osprey.ematrix.EnergyMatrixCalculator;
+import edu.duke.cs.osprey.ematrix.epic.EPICSettings;
+import edu.duke.cs.osprey.parallelism.Parallelism;
+import edu.duke.cs.osprey.pruning.PruningMatrix;
+
+public class TestSampleScoring extends TestBase {
+
+	private static class CountingExpander extends TupleExpander {
+
+		private static final long serialVersionUID = 4040476290519591718L;
+
+		ArrayList<int[]> scored = new ArrayList<>();
+
+		public CountingExpander() {
+			super(3, new int[] { 4, 4, 4 }, Double.POSITIVE_INFINITY, new LUTESettings());
+		}
+
+		@Override
+		double scoreAssignmentList(int[] assignmentList) {
+			scored.add(assignmentList);
+			return assignmentList[0]*100 + assignmentList[1]*10 + assignmentList[2];
+		}
+
+		@Override
+		boolean isPruned(RCTuple tup) {
+			return false;
+		}
+
+		@Override
+		void pruneTuple(RCTuple tup) {
+			// nothing to do
+		}
+
+		@Override
+		ArrayList<RCTuple> higherOrderPrunedTuples(RCTuple tup) {
+			return new ArrayList<>();
+		}
+	}
+
+	@Test
+	public void dedupAndCache() {
+
+		CountingExpander expander = new CountingExpander();
+
+		// repeated samples in a batch only get scored once
+		ArrayList<int[]> batch = new ArrayList<>(Arrays.asList(
+			new int[] { 1, 2, 3 },
+			new int[] { 0, 0, 1 },
+			new int[] { 1, 2, 3 }
+		));
+		double[] energies = expander.scoreSamples(batch);
+		assertThat(energies, is(new double[] { 123, 1, 123 }));
+		assertThat(expander.scored.size(), is(2));
+
+		// and samples we've seen before don't get scored again
+		batch = new ArrayList<>(Arrays.asList(
+			new int[] { 0, 0, 1 },
+			new int[] { 3, 3, 3 },
+			new int[] { 1, 2, 3 }
+		));
+		energies = expander.scoreSamples(batch);
+		assertThat(energies, is(new double[] { 1, 333, 123 }));
+		assertThat(expander.scored.size(), is(3));
+		assertThat(expander.scored.get(2), is(new int[] { 3, 3, 3 }));
+	}
+
+	@Test
+	public void sampleKeys() {
+
+		// use enough positions that keys need more than one word
+		int[] numAllowed = new int[30];
+		Arrays.fill(numAllowed, 20);
+		numAllowed[3] = 1;
+		numAllowed[7] = 300;
+
+		Random rand = new Random(12345);
+		HashMap<TupleExpander.SampleKey,String> keys = new HashMap<>();
+		for (int i=0; i<2000; i++) {
+			int[] sample = new int[numAllowed.length];
+			for (int pos=0; pos<sample.length; pos++) {
+				sample[pos] = rand.nextInt(numAllowed[pos]);
+			}
+			String exp = Arrays.toString(sample);
+			String old = keys.put(new TupleExpander.SampleKey(sample, numAllowed), exp);
+			if (old != null) {
+				assertThat(old, is(exp));
+			}
+			assertThat(keys.get(new TupleExpander.SampleKey(sample.clone(), numAllowed)), is(exp));
+		}
+		assertThat(keys.size(), greaterThan(1990));
+	}
+
+	@Test
+	public void parallelMinimization() {
+
+		initDefaultEnvironment();
+
+		EnergyMatrixConfig emConfig = new EnergyMatrixConfig();
+		emConfig.pdbPath = "test/DAGK/2KDC.P.forOsprey.pdb";
+		emConfig.numFlexible = 3;
+		emConfig.addWtRots = true;
+		emConfig.doMinimize = true;
+		SearchProblem search = makeSearchProblem(emConfig);
+
+		ArrayList<int[]> confs = new ArrayList<>();
+		for (int i=0; i<6; i++) {
+			int[] conf = new int[search.confSpace.numPos];
+			for (int pos=0; pos<conf.length; pos++) {
+				conf[pos] = (i + pos) % search.confSpace.posFlex.get(pos).RCs.size();
+			}
+			confs.add(conf);
+		}
+
+		// the minimizer pool should give the same energies as minimizing on the shared molecule
+		ConfETupleExpander serialExpander = new ConfETupleExpander(search);
+		double[] exp = serialExpander.scoreAssignmentLists(confs);
+
+		MinimizingEnergyCalculator ecalc = MinimizingEnergyCalculator.make(EnvironmentVars.curEFcnGenerator.ffParams, search, Parallelism.makeCpu(2));
+		try {
+			ConfETupleExpander parallelExpander = new ConfETupleExpander(search);
+			parallelExpander.setEnergyCalculator(ecalc);
+			double[] obs = parallelExpander.scoreAssignmentLists(confs);
+
+			for (int i=0; i<exp.length; i++) {
+				assertThat(obs[i], isAbsolutely(exp[i], 1e-3));
+			}
+		} finally {
+			ecalc.cleanup();
+		}
+	}
+
+	@Test
+	public void parallelMinimizationWithShellAndERef() {
+
+		initDefaultEnvironment();
+
+		// allow a mutation, so reference energies differ between confs
+		ArrayList<String> flexRes = new ArrayList<>(Arrays.asList("2", "3", "4"));
+		ArrayList<ArrayList<String>> allowedAAs = new ArrayList<>();
+		allowedAAs.add(new ArrayList<>());
+		allowedAAs.add(new ArrayList<>(Arrays.asList("ALA", "VAL")));
+		allowedAAs.add(new ArrayList<>());
+		boolean useERef = true;
+		boolean addResEntropy = true;
+		SearchProblem search = new SearchProblem(
+			"test", "test/DAGK/2KDC.P.forOsprey.pdb",
+			flexRes, allowedAAs, true, true, false, new EPICSettings(), false, new LUTESettings(),
+			new DEEPerSettings(), new ArrayList<>(), new ArrayList<>(), false, useERef, addResEntropy, false, null,
+			false, new ArrayList<>()
+		);
+		EnergyMatrixCalculator emCalc = new EnergyMatrixCalculator(search.confSpace, search.shellResidues, useERef, addResEntropy);
+		emCalc.calcPEM();
+		search.emat = emCalc.getEMatrix();
+		search.pruneMat = new PruningMatrix(search.confSpace, search.emat.getPruningInterval());
+
+		assertThat(search.shellResidues.isEmpty(), is(false));
+		assertThat(search.emat.geteRefMat(), is(not(nullValue())));
+
+		ArrayList<int[]> confs = new ArrayList<>();
+		HashSet<Double> erefs = new HashSet<>();
+		for (int i=0; i<8; i++) {
+			int[] conf = new int[search.confSpace.numPos];
+			for (int pos=0; pos<conf.length; pos++) {
+				conf[pos] = (i*(pos + 1)) % search.confSpace.posFlex.get(pos).RCs.size();
+			}
+			confs.add(conf);
+			erefs.add(search.emat.geteRefMat().confERef(conf));
+		}
+		assertThat(erefs.size(), greaterThan(1));
+
+		// the minimizer pool uses its own efunc and post-processors,
+		// so make sure they agree with SearchProblem.minimizedEnergy()
+		ConfETupleExpander serialExpander = new ConfETupleExpander(search);
+		double[] exp = serialExpander.scoreAssignmentLists(confs);
+
+		MinimizingEnergyCalculator ecalc = MinimizingEnergyCalculator.make(EnvironmentVars.curEFcnGenerator.ffParams, search, Parallelism.makeCpu(2));
+		try {
+			ConfETupleExpander parallelExpander = new ConfETupleExpander(search);
+			parallelExpander.setEnergyCalculator(ecalc);
+			double[] obs = parallelExpander.scoreAssignmentLists(confs);
+
+			for (int i=0; i<exp.length; i++) {
+				assertThat(obs[i], isAbsolutely(exp[i], 1e-3));
+			}
+		} finally {
+			ecalc.cleanup();
+		}
+	}
+}